@@ -21,6 +21,8 @@ package org.jcae.mesh.cad.occ;
 
 import org.jcae.mesh.cad.CADGeomCurve3D;
 import org.jcae.mesh.cad.CADEdge;
+import org.jcae.mesh.cad.CurveTable;
+import org.jcae.mesh.cad.CurveTableCache;
 import org.jcae.opencascade.jni.BRep_Tool;
 import org.jcae.opencascade.jni.Geom_Curve;
 import org.jcae.opencascade.jni.GeomAdaptor_Curve;
@@ -32,20 +34,43 @@ public class OCCGeomCurve3D implements CADGeomCurve3D
 	private GeomAdaptor_Curve myCurve = null;
 	private final double [] range = new double[2];
 	private OCCDiscretizeCurve3D discret = null;
-	private double len = 0.0;
+	private final OCCEdge occEdge;
+	// Arc-length table shared by all curves of this edge
+	private CurveTable table;
+	private double len = -1.0;
 	
 	public OCCGeomCurve3D(CADEdge E)
 	{
 		if (!(E instanceof OCCEdge))
 			throw new IllegalArgumentException();
-		OCCEdge occEdge = (OCCEdge) E;
+		occEdge = (OCCEdge) E;
 		Geom_Curve curve = BRep_Tool.curve(occEdge.getShape(), range);
 		if (curve == null)
 			throw new RuntimeException();
 		myCurve = new GeomAdaptor_Curve(curve);
-		GProp_GProps myProps = new GProp_GProps();
-		BRepGProp.linearProperties (occEdge.getShape(), myProps);
-		len = myProps.mass();
+	}
+	
+	// Returns null if CurveTableCache is disabled
+	private CurveTable getTable()
+	{
+		if (table == null)
+		{
+			table = CurveTableCache.getDefault().get(occEdge, new CurveTable.Evaluator()
+			{
+				public void values(int n, double [] xyz)
+				{
+					myCurve.arrayValues(n, xyz);
+				}
+			}, range);
+		}
+		return table;
+	}
+	
+	private OCCDiscretizeCurve3D getDiscretization()
+	{
+		if (discret == null)
+			discret = new OCCDiscretizeCurve3D(myCurve, range[0], range[1]);
+		return discret;
 	}
 	
 	public double [] value(double p)
@@ -61,42 +86,47 @@ public class OCCGeomCurve3D implements CADGeomCurve3D
 	
 	public void discretize(double maxlen, double deflection, boolean relDefl)
 	{
-		if (discret == null)
-			discret = new OCCDiscretizeCurve3D(myCurve, range[0], range[1]);
-		discret.discretizeMaxDeflection(deflection, relDefl);
+		CurveTable t = getTable();
+		if (t != null)
+		{
+			getDiscretization().setDiscretization(t.discretize(maxlen, deflection, relDefl));
+			return;
+		}
+		OCCDiscretizeCurve3D d = getDiscretization();
+		d.discretizeMaxDeflection(deflection, relDefl);
 		if (maxlen > 0.0)
 		{
-			for (int i = 0; i < discret.nbPoints()-1; i++)
-				discret.discretizeSubsegmentMaxLength(i, maxlen);
+			for (int i = 0; i < d.nbPoints()-1; i++)
+				d.discretizeSubsegmentMaxLength(i, maxlen);
 		}
 	}
 	
 	public void discretize(double maxlen)
 	{
-		if (discret == null)
-			discret = new OCCDiscretizeCurve3D(myCurve, range[0], range[1]);
-		discret.discretizeMaxLength(maxlen);
+		CurveTable t = getTable();
+		if (t != null)
+			getDiscretization().setDiscretization(t.discretize(maxlen));
+		else
+			getDiscretization().discretizeMaxLength(maxlen);
 	}
 	
 	public void discretize(int n)
 	{
-		if (discret == null)
-			discret = new OCCDiscretizeCurve3D(myCurve, range[0], range[1]);
-		discret.discretizeNrPoints(n);
+		CurveTable t = getTable();
+		if (t != null)
+			getDiscretization().setDiscretization(t.discretize(n));
+		else
+			getDiscretization().discretizeNrPoints(n);
 	}
 	
 	public void splitSubsegment(int numseg, int nrsub)
 	{
-		if (discret == null)
-			discret = new OCCDiscretizeCurve3D(myCurve, range[0], range[1]);
-		discret.splitSubsegment(numseg, nrsub);
+		getDiscretization().splitSubsegment(numseg, nrsub);
 	}
 	
 	public void setDiscretization(double [] param)
 	{
-		if (discret == null)
-			discret = new OCCDiscretizeCurve3D(myCurve, range[0], range[1]);
-		discret.setDiscretization(param);
+		getDiscretization().setDiscretization(param);
 	}
 	
 	public int nbPoints()
@@ -113,6 +143,18 @@ public class OCCGeomCurve3D implements CADGeomCurve3D
 	
 	public double length()
 	{
+		if (len < 0.0)
+		{
+			CurveTable t = getTable();
+			if (t != null)
+				len = t.length();
+			else
+			{
+				GProp_GProps myProps = new GProp_GProps();
+				BRepGProp.linearProperties (occEdge.getShape(), myProps);
+				len = myProps.mass();
+			}
+		}
 		return len;
 	}
 	
@@ -90,6 +90,26 @@ public class OCCGeomSurface implements CADGeomSurface
 		return myLprop.dUV();
 	}
 	
+	public void derivatives(double [] uv, int n, double [] d1, double [] d2)
+	{
+		assert null != myLprop;
+		for (int i = 0; i < n; i++)
+		{
+			myLprop.setParameters(uv[2*i], uv[2*i+1]);
+			if (d1 != null)
+			{
+				System.arraycopy(myLprop.d1U(), 0, d1, 6*i, 3);
+				System.arraycopy(myLprop.d1V(), 0, d1, 6*i+3, 3);
+			}
+			if (d2 != null)
+			{
+				System.arraycopy(myLprop.d2U(), 0, d2, 9*i, 3);
+				System.arraycopy(myLprop.d2V(), 0, d2, 9*i+3, 3);
+				System.arraycopy(myLprop.dUV(), 0, d2, 9*i+6, 3);
+			}
+		}
+	}
+	
 	public double [] normal()
 	{
 		assert null != myLprop;
@@ -316,6 +316,61 @@ public class MesherTest
 		assertTrue("Mesher took too long: max time (ms): "+(seconds * timerScale)+" Effective time (ms): "+time, time < seconds * timerScale);
 	}
 
+	private String runThreadedTest(String type, double length, int nrThreads)
+	{
+		String old = System.getProperty("org.jcae.mesh.Mesher.threads");
+		System.setProperty("org.jcae.mesh.Mesher.threads", Integer.toString(nrThreads));
+		try
+		{
+			return runSingleTest(type, length, 0, 0.0);
+		}
+		finally
+		{
+			if (old == null)
+				System.clearProperty("org.jcae.mesh.Mesher.threads");
+			else
+				System.setProperty("org.jcae.mesh.Mesher.threads", old);
+		}
+	}
+
+	private static void assertSameFiles(File expected, File actual) throws IOException
+	{
+		if (expected.isDirectory())
+		{
+			assertTrue(actual.getPath(), actual.isDirectory());
+			String [] names = expected.list();
+			java.util.Arrays.sort(names);
+			String [] actualNames = actual.list();
+			java.util.Arrays.sort(actualNames);
+			assertArrayEquals(expected.getPath(), names, actualNames);
+			for (String name : names)
+				assertSameFiles(new File(expected, name), new File(actual, name));
+			return;
+		}
+		assertEquals(actual.getPath(), expected.length(), actual.length());
+		java.io.InputStream in1 = new java.io.BufferedInputStream(new java.io.FileInputStream(expected));
+		java.io.InputStream in2 = new java.io.BufferedInputStream(new java.io.FileInputStream(actual));
+		try
+		{
+			long offset = 0L;
+			for (int b = in1.read(); b >= 0; b = in1.read(), offset++)
+				assertEquals(actual.getPath()+" differs at byte "+offset, b, in2.read());
+		}
+		finally
+		{
+			in1.close();
+			in2.close();
+		}
+	}
+
+	// Output files must not depend on the number of threads
+	@Test public void sphere_threads() throws IOException
+	{
+		String serial = runThreadedTest("sphere", 0.05, 1);
+		String parallel = runThreadedTest("sphere", 0.05, 4);
+		assertSameFiles(new File(serial), new File(parallel));
+	}
+
 	@Test public void sphere_0_05()
 	{
 		runSingleTest("sphere", 0.05, 12000, 10.0);
@@ -0,0 +1,66 @@
+/* jCAE stand for Java Computer Aided Engineering. Features are : Small CAD
+   modeler, Finite element mesher, Plugin architecture.
+
+    Copyright (C) 2012, by EADS France
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA */
+
+package org.jcae.mesh.amibe.algos1d;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Measures running time of edge discretization by {@link UniformLength}
+ * and {@link UniformLengthDeflection} on analytic curves, with one thread
+ * and with as many threads as processors.
+ */
+public class BenchmarkConcurrentDiscretization
+{
+	private static final int NR_EDGES = 2000;
+	private static final int RUNS = 3;
+
+	private static long run(ConcurrentEdgeDiscretizer.Job job, int nrThreads)
+	{
+		long start = System.currentTimeMillis();
+		ConcurrentEdgeDiscretizer.Parameters [] result = ConcurrentEdgeDiscretizer.compute(NR_EDGES, nrThreads, job);
+		long ret = System.currentTimeMillis() - start;
+		assertEquals(NR_EDGES, result.length);
+		return ret;
+	}
+
+	private static void benchmark(String name, boolean deflection, int nrThreads)
+	{
+		ConcurrentEdgeDiscretizer.Job job = ConcurrentEdgeDiscretizerTest.createJob(deflection);
+		// Warm up
+		run(job, 1);
+		long serial = Long.MAX_VALUE;
+		long parallel = Long.MAX_VALUE;
+		for (int i = 0; i < RUNS; i++)
+		{
+			serial = Math.min(serial, run(job, 1));
+			parallel = Math.min(parallel, run(job, nrThreads));
+		}
+		System.out.println(name+" on "+NR_EDGES+" edges: "+serial+" ms with 1 thread, "+
+			parallel+" ms with "+nrThreads+" threads");
+	}
+
+	@Test public void run()
+	{
+		int nrThreads = Math.max(2, Runtime.getRuntime().availableProcessors());
+		benchmark("UniformLength", false, nrThreads);
+		benchmark("UniformLengthDeflection", true, nrThreads);
+	}
+}
@@ -0,0 +1,116 @@
+/* jCAE stand for Java Computer Aided Engineering. Features are : Small CAD
+   modeler, Finite element mesher, Plugin architecture.
+
+    Copyright (C) 2012, by EADS France
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA */
+
+package org.jcae.mesh.amibe.algos1d;
+
+import org.jcae.mesh.cad.CurveTable;
+import org.jcae.mesh.cad.CurveTableCache;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Measures running time of {@link UniformLengthDeflection} when the same
+ * analytic curves are discretized with several hypotheses, as done by
+ * bora with several submeshes.  Curves are either sampled on each call,
+ * like <code>OCCDiscretizeCurve3D</code>, or answered from a
+ * {@link CurveTableCache}.  Table build time is included.
+ */
+public class BenchmarkCurveTable
+{
+	private static final int NR_EDGES = 200;
+	private static final int RUNS = 3;
+	private static final double [] SIZES = { 0.5, 0.3, 0.2, 0.1 };
+	private static final double [] DEFLECTIONS = { 0.02, 0.01, 0.005 };
+	private static long nrPoints;
+
+	private static UniformLengthDeflection [] createHypotheses()
+	{
+		UniformLengthDeflection [] ret = new UniformLengthDeflection[SIZES.length * DEFLECTIONS.length];
+		int i = 0;
+		for (double size : SIZES)
+		{
+			for (double deflection : DEFLECTIONS)
+			{
+				Map<String, String> options = new HashMap<String, String>();
+				options.put("size", Double.toString(size));
+				options.put("deflection", Double.toString(deflection));
+				ret[i++] = new UniformLengthDeflection(null, options);
+			}
+		}
+		return ret;
+	}
+
+	private static long run(UniformLengthDeflection [] hypotheses, CurveTableCache cache)
+	{
+		long start = System.currentTimeMillis();
+		if (cache != null)
+			cache.clear();
+		nrPoints = 0L;
+		for (UniformLengthDeflection uld : hypotheses)
+		{
+			for (int i = 0; i < NR_EDGES; i++)
+			{
+				HelixCurve curve = ConcurrentEdgeDiscretizerTest.createCurve(i, cache);
+				double [] range = curve.getRange();
+				ConcurrentEdgeDiscretizer.Parameters p = uld.computeParameters(curve,
+					curve.value(range[0]), curve.value(range[1]), false);
+				nrPoints += p.size;
+			}
+		}
+		return System.currentTimeMillis() - start;
+	}
+
+	@Test public void run()
+	{
+		UniformLengthDeflection [] hypotheses = createHypotheses();
+		CurveTableCache cache = new CurveTableCache(10000000);
+		// Warm up
+		run(hypotheses, null);
+		run(hypotheses, cache);
+		long sampled = Long.MAX_VALUE;
+		long cached = Long.MAX_VALUE;
+		long sampledPoints = 0L;
+		long cachedPoints = 0L;
+		for (int i = 0; i < RUNS; i++)
+		{
+			sampled = Math.min(sampled, run(hypotheses, null));
+			sampledPoints = nrPoints;
+			cached = Math.min(cached, run(hypotheses, cache));
+			cachedPoints = nrPoints;
+		}
+		assertEquals(NR_EDGES, cache.size());
+
+		double lengthError = 0.0;
+		double interpolationError = 0.0;
+		for (int i = 0; i < NR_EDGES; i++)
+		{
+			HelixCurve curve = ConcurrentEdgeDiscretizerTest.createCurve(i, cache);
+			CurveTable table = cache.get(Integer.valueOf(i), curve);
+			lengthError = Math.max(lengthError, table.getLengthError() / table.length());
+			interpolationError = Math.max(interpolationError, table.getInterpolationError() / table.length());
+		}
+		System.out.println(hypotheses.length+" hypotheses on "+NR_EDGES+" edges: "+
+			sampled+" ms ("+sampledPoints+" points) with sampling, "+
+			cached+" ms ("+cachedPoints+" points) with "+cache.getNumberOfSamples()+" cached samples");
+		System.out.println("Maximal relative error bounds: length "+lengthError+", interpolation "+interpolationError);
+	}
+}
@@ -0,0 +1,108 @@
+/* jCAE stand for Java Computer Aided Engineering. Features are : Small CAD
+   modeler, Finite element mesher, Plugin architecture.
+
+    Copyright (C) 2012, by EADS France
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA */
+
+package org.jcae.mesh.amibe.algos1d;
+
+import org.jcae.mesh.cad.CurveTableCache;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class ConcurrentEdgeDiscretizerTest
+{
+	private static final int NR_EDGES = 200;
+
+	static HelixCurve createCurve(int index)
+	{
+		return createCurve(index, null);
+	}
+
+	static HelixCurve createCurve(int index, CurveTableCache cache)
+	{
+		double r = 1.0 + 0.01 * index;
+		return new HelixCurve(r, 0.5 * r + 0.2 * (index % 7), 0.05 * (index % 5),
+			0.0, 0.5 + (index % 13), cache, Integer.valueOf(index));
+	}
+
+	static ConcurrentEdgeDiscretizer.Job createJob(final boolean deflection)
+	{
+		Map<String, String> options = new HashMap<String, String>();
+		options.put("size", "0.3");
+		options.put("deflection", "0.01");
+		final UniformLength ul = new UniformLength(null, options);
+		final UniformLengthDeflection uld = new UniformLengthDeflection(null, options);
+		return new ConcurrentEdgeDiscretizer.Job()
+		{
+			public ConcurrentEdgeDiscretizer.Parameters compute(int index)
+			{
+				HelixCurve curve = createCurve(index);
+				double [] range = curve.getRange();
+				double [] p0 = curve.value(range[0]);
+				double [] p1 = curve.value(range[1]);
+				if (deflection)
+					return uld.computeParameters(curve, p0, p1, false);
+				return ul.computeParameters(curve, p0, p1, false);
+			}
+		};
+	}
+
+	private static void checkSameResults(boolean deflection)
+	{
+		ConcurrentEdgeDiscretizer.Job job = createJob(deflection);
+		ConcurrentEdgeDiscretizer.Parameters [] expected = ConcurrentEdgeDiscretizer.compute(NR_EDGES, 1, job);
+		ConcurrentEdgeDiscretizer.Parameters [] result = ConcurrentEdgeDiscretizer.compute(NR_EDGES, 4, job);
+		assertEquals(NR_EDGES, result.length);
+		for (int i = 0; i < NR_EDGES; i++)
+		{
+			assertEquals(expected[i].size, result[i].size);
+			assertFalse(result[i].degenerated);
+			assertTrue(result[i].size >= 2);
+			for (int j = 0; j < result[i].size; j++)
+				assertEquals(expected[i].values[j], result[i].values[j], 0.0);
+			for (int j = 1; j < result[i].size; j++)
+				assertTrue(result[i].values[j] > result[i].values[j-1]);
+		}
+	}
+
+	@Test public void uniformLength()
+	{
+		checkSameResults(false);
+	}
+
+	@Test public void uniformLengthDeflection()
+	{
+		checkSameResults(true);
+	}
+
+	@Test(expected=IllegalStateException.class)
+	public void exception()
+	{
+		ConcurrentEdgeDiscretizer.compute(NR_EDGES, 4, new ConcurrentEdgeDiscretizer.Job()
+		{
+			public ConcurrentEdgeDiscretizer.Parameters compute(int index)
+			{
+				if (index == 17)
+					throw new IllegalStateException();
+				return null;
+			}
+		});
+	}
+}
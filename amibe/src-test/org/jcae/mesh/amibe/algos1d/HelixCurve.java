@@ -0,0 +1,215 @@
+/* jCAE stand for Java Computer Aided Engineering. Features are : Small CAD
+   modeler, Finite element mesher, Plugin architecture.
+
+    Copyright (C) 2012, by EADS France
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA */
+
+package org.jcae.mesh.amibe.algos1d;
+
+import org.jcae.mesh.cad.CADGeomCurve3D;
+import org.jcae.mesh.cad.CurveTable;
+import org.jcae.mesh.cad.CurveTableCache;
+
+/**
+ * Analytic elliptic helix, to test 1D algorithms without OpenCascade.
+ * Parametrization is <code>(a cos t, b sin t, c t)</code>.  Like
+ * <code>OCCDiscretizeCurve3D</code>, curve is sampled on a grid which
+ * is refined until there are at least 10 samples per segment.  When a
+ * {@link CurveTableCache} is given, discretizations are computed from a
+ * cached {@link CurveTable} instead, like <code>OCCGeomCurve3D</code>.
+ */
+class HelixCurve implements CADGeomCurve3D
+{
+	private final double a, b, c;
+	private final double [] range;
+	private final CurveTableCache cache;
+	private final Object key;
+	private double [] param = new double[0];
+
+	HelixCurve(double a, double b, double c, double t0, double t1)
+	{
+		this(a, b, c, t0, t1, null, null);
+	}
+
+	HelixCurve(double a, double b, double c, double t0, double t1, CurveTableCache cache, Object key)
+	{
+		this.a = a;
+		this.b = b;
+		this.c = c;
+		range = new double[] { t0, t1 };
+		this.cache = cache;
+		this.key = key;
+	}
+
+	private CurveTable getTable()
+	{
+		return cache == null ? null : cache.get(key, this);
+	}
+
+	public double [] value(double t)
+	{
+		return new double[] { a * Math.cos(t), b * Math.sin(t), c * t };
+	}
+
+	public double [] getRange()
+	{
+		return range;
+	}
+
+	private double [] sample(int n)
+	{
+		double [] xyz = new double[3*(n+1)];
+		double delta = (range[1] - range[0]) / n;
+		for (int i = 0; i <= n; i++)
+		{
+			double t = (i == n ? range[1] : range[0] + i * delta);
+			xyz[3*i] = a * Math.cos(t);
+			xyz[3*i+1] = b * Math.sin(t);
+			xyz[3*i+2] = c * t;
+		}
+		return xyz;
+	}
+
+	private static double dist(double [] xyz, int i, int j)
+	{
+		double dx = xyz[3*i] - xyz[3*j];
+		double dy = xyz[3*i+1] - xyz[3*j+1];
+		double dz = xyz[3*i+2] - xyz[3*j+2];
+		return Math.sqrt(dx*dx + dy*dy + dz*dz);
+	}
+
+	// Points are inserted when chord > maxlen or arc - chord > defl
+	private void sampleDiscretize(double maxlen, double defl, boolean relDefl)
+	{
+		int nsegments = 10;
+		while (true)
+		{
+			nsegments *= 10;
+			double [] xyz = sample(nsegments);
+			double delta = (range[1] - range[0]) / nsegments;
+			double [] t = new double[nsegments+1];
+			int nr = 1;
+			int last = 0;
+			double arc = 0.0;
+			t[0] = range[0];
+			for (int ns = 1; ns < nsegments; ns++)
+			{
+				arc += dist(xyz, ns - 1, ns);
+				double chord = dist(xyz, last, ns);
+				double dmax = relDefl ? defl * arc : defl;
+				if ((maxlen > 0.0 && chord > maxlen) || (defl > 0.0 && arc - chord > dmax))
+				{
+					t[nr++] = range[0] + ns * delta;
+					last = ns;
+					arc = 0.0;
+				}
+			}
+			t[nr++] = range[1];
+			if (nr * 10 < nsegments)
+			{
+				param = new double[nr];
+				System.arraycopy(t, 0, param, 0, nr);
+				return;
+			}
+		}
+	}
+
+	public void discretize(double maxlen)
+	{
+		CurveTable table = getTable();
+		if (table != null)
+			param = table.discretize(maxlen);
+		else
+			sampleDiscretize(maxlen, 0.0, false);
+	}
+
+	public void discretize(double maxlen, double deflection, boolean relDefl)
+	{
+		CurveTable table = getTable();
+		if (table != null)
+			param = table.discretize(maxlen, deflection, relDefl);
+		else
+			sampleDiscretize(maxlen, deflection * Math.sqrt(2.0), relDefl);
+	}
+
+	public void discretize(int n)
+	{
+		CurveTable table = getTable();
+		if (table != null)
+		{
+			param = table.discretize(n);
+			return;
+		}
+		// Uniform abscissa
+		int nsegments = 100 * n;
+		double [] xyz = sample(nsegments);
+		double [] s = new double[nsegments+1];
+		for (int i = 1; i <= nsegments; i++)
+			s[i] = s[i-1] + dist(xyz, i - 1, i);
+		param = new double[n];
+		param[0] = range[0];
+		param[n-1] = range[1];
+		int j = 0;
+		double delta = (range[1] - range[0]) / nsegments;
+		for (int i = 1; i < n - 1; i++)
+		{
+			double target = s[nsegments] * i / (n - 1);
+			while (s[j+1] < target)
+				j++;
+			double alpha = (target - s[j]) / (s[j+1] - s[j]);
+			param[i] = range[0] + (j + alpha) * delta;
+		}
+	}
+
+	public void splitSubsegment(int numseg, int nrsub)
+	{
+		double [] newParam = new double[param.length + nrsub - 1];
+		System.arraycopy(param, 0, newParam, 0, numseg + 1);
+		for (int i = 1; i < nrsub; i++)
+			newParam[numseg + i] = param[numseg] + (param[numseg+1] - param[numseg]) * i / nrsub;
+		System.arraycopy(param, numseg + 1, newParam, numseg + nrsub, param.length - numseg - 1);
+		param = newParam;
+	}
+
+	public void setDiscretization(double [] p)
+	{
+		param = new double[p.length];
+		System.arraycopy(p, 0, param, 0, p.length);
+	}
+
+	public int nbPoints()
+	{
+		return param.length;
+	}
+
+	public double parameter(int index)
+	{
+		return param[index-1];
+	}
+
+	public double length()
+	{
+		CurveTable table = getTable();
+		if (table != null)
+			return table.length();
+		int n = 1000;
+		double [] xyz = sample(n);
+		double ret = 0.0;
+		for (int i = 0; i < n; i++)
+			ret += dist(xyz, i, i + 1);
+		return ret;
+	}
+}
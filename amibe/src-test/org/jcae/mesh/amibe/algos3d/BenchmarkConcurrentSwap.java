@@ -0,0 +1,109 @@
+/* jCAE stand for Java Computer Aided Engineering. Features are : Small CAD
+   modeler, Finite element mesher, Plugin architecture.
+
+    Copyright (C) 2012, by EADS France
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA */
+
+package org.jcae.mesh.amibe.algos3d;
+
+import org.jcae.mesh.amibe.ds.Mesh;
+import org.jcae.mesh.amibe.projection.MeshLiaison;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Measures scaling of {@link SwapEdge} and {@link ImproveEdgeConnectivity}
+ * from 1 to 32 threads.  Algorithms check mesh validity after each
+ * operation when assertions are enabled, this benchmark must then be run
+ * with assertions disabled.
+ */
+public class BenchmarkConcurrentSwap
+{
+	private static final int M = 300;
+	private static final int N = 300;
+	private static final int RUNS = 3;
+	private static final int [] THREADS = { 1, 2, 4, 8, 16, 32 };
+
+	private static long swap(int nrThreads)
+	{
+		Mesh mesh = ConcurrentEdgeProcessorTest.createMesh(M, N, 1L);
+		Map<String, String> options = new HashMap<String, String>();
+		options.put("coplanarity", "0.9");
+		long start = System.currentTimeMillis();
+		SwapEdge algo = new SwapEdge(mesh, options);
+		algo.setNumberOfThreads(nrThreads);
+		algo.compute();
+		long ret = System.currentTimeMillis() - start;
+		assertTrue(mesh.isValid());
+		return ret;
+	}
+
+	private static long improve(int nrThreads)
+	{
+		Mesh bgMesh = ConcurrentEdgeProcessorTest.createMesh(M, N, 2L);
+		MeshLiaison liaison = new MeshLiaison(bgMesh);
+		Map<String, String> options = new HashMap<String, String>();
+		options.put("coplanarity", "0.9");
+		long start = System.currentTimeMillis();
+		ImproveEdgeConnectivity algo = new ImproveEdgeConnectivity(liaison, options);
+		algo.setNumberOfThreads(nrThreads);
+		algo.compute();
+		long ret = System.currentTimeMillis() - start;
+		assertTrue(liaison.getMesh().isValid());
+		return ret;
+	}
+
+	@Test public void run()
+	{
+		boolean assertions = false;
+		assert assertions = true;
+		if (assertions)
+		{
+			System.out.println("Assertions are enabled, skip benchmark");
+			return;
+		}
+		Logger algos = Logger.getLogger("org.jcae.mesh.amibe");
+		Level level = algos.getLevel();
+		algos.setLevel(Level.WARNING);
+		try
+		{
+			// Warm up
+			swap(1);
+			improve(1);
+			System.out.println("Available processors: "+Runtime.getRuntime().availableProcessors());
+			for (int nrThreads : THREADS)
+			{
+				long s = Long.MAX_VALUE;
+				long i = Long.MAX_VALUE;
+				for (int k = 0; k < RUNS; k++)
+				{
+					s = Math.min(s, swap(nrThreads));
+					i = Math.min(i, improve(nrThreads));
+				}
+				System.out.println(nrThreads+" threads: SwapEdge "+s+" ms, ImproveEdgeConnectivity "+i+" ms");
+			}
+		}
+		finally
+		{
+			algos.setLevel(level);
+		}
+	}
+}
@@ -0,0 +1,166 @@
+/* jCAE stand for Java Computer Aided Engineering. Features are : Small CAD
+   modeler, Finite element mesher, Plugin architecture.
+
+    Copyright (C) 2012, by EADS France
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA */
+
+package org.jcae.mesh.amibe.algos3d;
+
+import org.jcae.mesh.amibe.ds.Mesh;
+import org.jcae.mesh.amibe.ds.Triangle;
+import org.jcae.mesh.amibe.ds.Vertex;
+import org.jcae.mesh.amibe.projection.MeshLiaison;
+import org.jcae.mesh.amibe.traits.MeshTraitsBuilder;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Measures running time and memory of algorithms which attach data to
+ * vertices and triangles: {@link QEMDecimateHalfEdge}, {@link Remesh},
+ * {@link SmoothNodes3DBg} and {@link MeshLiaison}.  Algorithms check
+ * mesh validity after each operation when assertions are enabled, this
+ * benchmark must then be run with assertions disabled.
+ */
+public class BenchmarkElementIds
+{
+	private static final int M = 300;
+	private static final int N = 200;
+	private static final int RUNS = 3;
+	// Retained heap measured by hooks
+	private static long retained;
+
+	private static Mesh createMesh(int m, int n)
+	{
+		MeshTraitsBuilder mtb = MeshTraitsBuilder.getDefault3D();
+		mtb.addNodeList();
+		Mesh mesh = new Mesh(mtb);
+		Vertex [] v = new Vertex[m*n];
+		for (int j = 0; j < n; j++)
+			for (int i = 0; i < m; i++)
+			{
+				v[m*j+i] = mesh.createVertex(0.1 * i, 0.1 * j,
+					0.2 * Math.sin(0.03 * i) * Math.cos(0.05 * j));
+				mesh.add(v[m*j+i]);
+			}
+		for (int j = 0; j < n-1; j++)
+			for (int i = 0; i < m-1; i++)
+			{
+				mesh.add(mesh.createTriangle(v[m*j+i], v[m*j+i+1], v[m*(j+1)+i]));
+				mesh.add(mesh.createTriangle(v[m*j+i+1], v[m*(j+1)+i+1], v[m*(j+1)+i]));
+			}
+		mesh.buildAdjacency();
+		return mesh;
+	}
+
+	private static long usedMemory()
+	{
+		Runtime rt = Runtime.getRuntime();
+		for (int i = 0; i < 3; i++)
+			System.gc();
+		return rt.totalMemory() - rt.freeMemory();
+	}
+
+	private static long decimate()
+	{
+		Mesh mesh = createMesh(M, N);
+		Map<String, String> options = new HashMap<String, String>();
+		options.put("maxtriangles", Integer.toString(M * N / 10));
+		final long before = usedMemory();
+		long start = System.currentTimeMillis();
+		new QEMDecimateHalfEdge(mesh, options)
+		{
+			@Override
+			public void preProcessAllHalfEdges()
+			{
+				super.preProcessAllHalfEdges();
+				retained = usedMemory() - before;
+			}
+		}.compute();
+		return System.currentTimeMillis() - start;
+	}
+
+	private static long remesh(Mesh bgMesh)
+	{
+		long start = System.currentTimeMillis();
+		Map<String, String> options = new HashMap<String, String>();
+		options.put("size", "0.05");
+		MeshLiaison liaison = new MeshLiaison(bgMesh);
+		new Remesh(liaison, options).compute();
+		options.clear();
+		options.put("iterations", "2");
+		new SmoothNodes3DBg(liaison, options).compute();
+		return System.currentTimeMillis() - start;
+	}
+
+	private static long liaisonMemory(Mesh bgMesh)
+	{
+		long before = usedMemory();
+		MeshLiaison liaison = new MeshLiaison(bgMesh);
+		long ret = usedMemory() - before;
+		assertNotNull(liaison.getMesh());
+		return ret;
+	}
+
+	@Test public void run()
+	{
+		boolean assertions = false;
+		assert assertions = true;
+		if (assertions)
+		{
+			System.out.println("Assertions are enabled, skip benchmark");
+			return;
+		}
+		Logger algos = Logger.getLogger("org.jcae.mesh.amibe");
+		Level level = algos.getLevel();
+		algos.setLevel(Level.WARNING);
+		try
+		{
+			// Warm up
+			decimate();
+			long qem = Long.MAX_VALUE;
+			long qemHeap = Long.MAX_VALUE;
+			for (int i = 0; i < RUNS; i++)
+			{
+				qem = Math.min(qem, decimate());
+				qemHeap = Math.min(qemHeap, retained);
+			}
+			Mesh bgMesh = createMesh(M / 3, N / 3);
+			remesh(bgMesh);
+			long rem = Long.MAX_VALUE;
+			for (int i = 0; i < RUNS; i++)
+				rem = Math.min(rem, remesh(bgMesh));
+			long liaisonHeap = Long.MAX_VALUE;
+			for (int i = 0; i < RUNS; i++)
+				liaisonHeap = Math.min(liaisonHeap, liaisonMemory(bgMesh));
+			int nrT = 0;
+			for (Triangle t : bgMesh.getTriangles())
+				if (t.isReadable())
+					nrT++;
+			System.out.println("QEMDecimateHalfEdge on "+(2*(M-1)*(N-1))+" triangles: "+qem+" ms, quadrics use "+(qemHeap / 1024)+" kB");
+			System.out.println("Remesh and SmoothNodes3DBg on "+nrT+" triangles: "+rem+" ms");
+			System.out.println("MeshLiaison on "+nrT+" triangles: "+(liaisonHeap / 1024)+" kB");
+		}
+		finally
+		{
+			algos.setLevel(level);
+		}
+	}
+}
@@ -0,0 +1,223 @@
+/* jCAE stand for Java Computer Aided Engineering. Features are : Small CAD
+   modeler, Finite element mesher, Plugin architecture.
+
+    Copyright (C) 2012, by EADS France
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA */
+
+package org.jcae.mesh.amibe.algos3d;
+
+import org.jcae.mesh.amibe.ds.AbstractHalfEdge;
+import org.jcae.mesh.amibe.ds.Mesh;
+import org.jcae.mesh.amibe.ds.NeighbourCursor;
+import org.jcae.mesh.amibe.ds.Vertex;
+import org.jcae.mesh.amibe.traits.MeshTraitsBuilder;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Measures running time and allocation rate of one-ring traversals:
+ * {@link Vertex#getNeighbourIteratorAbstractHalfEdge} is compared with
+ * {@link NeighbourCursor}, and bytes allocated by
+ * {@link Mesh#canCollapseEdge} and {@link QEMDecimateHalfEdge}
+ * are printed.  Allocated bytes are only reported by HotSpot based JVMs.
+ * Algorithms check mesh validity after each operation when assertions
+ * are enabled, this benchmark must then be run with assertions disabled.
+ */
+public class BenchmarkNeighbourCursor
+{
+	private static final int M = 300;
+	private static final int N = 200;
+	private static final int LOOPS = 20;
+	private static final int RUNS = 3;
+	// Prevents loops from being optimized away
+	private static long checksum;
+
+	// Grid with a fin glued every 10 rows, so that some vertices are
+	// non-manifold
+	private static Mesh createMesh(int m, int n)
+	{
+		MeshTraitsBuilder mtb = MeshTraitsBuilder.getDefault3D();
+		mtb.addNodeList();
+		Mesh mesh = new Mesh(mtb);
+		Vertex [] v = new Vertex[m*n];
+		for (int j = 0; j < n; j++)
+			for (int i = 0; i < m; i++)
+			{
+				v[m*j+i] = mesh.createVertex(0.1 * i, 0.1 * j,
+					0.2 * Math.sin(0.03 * i) * Math.cos(0.05 * j));
+				mesh.add(v[m*j+i]);
+			}
+		for (int j = 0; j < n-1; j++)
+			for (int i = 0; i < m-1; i++)
+			{
+				mesh.add(mesh.createTriangle(v[m*j+i], v[m*j+i+1], v[m*(j+1)+i]));
+				mesh.add(mesh.createTriangle(v[m*j+i+1], v[m*(j+1)+i+1], v[m*(j+1)+i]));
+			}
+		for (int j = 5; j < n-1; j += 10)
+		{
+			int i = m / 2;
+			Vertex top = mesh.createVertex(0.1 * i + 0.05, 0.1 * j, 1.0);
+			mesh.add(top);
+			mesh.add(mesh.createTriangle(v[m*j+i], v[m*j+i+1], top));
+		}
+		mesh.buildAdjacency();
+		return mesh;
+	}
+
+	private static long allocatedBytes()
+	{
+		ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (bean instanceof com.sun.management.ThreadMXBean)
+			return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+		return -1L;
+	}
+
+	// Returns elapsed time in ms and allocated bytes
+	private static long [] iterator(Mesh mesh)
+	{
+		long bytes = allocatedBytes();
+		long start = System.currentTimeMillis();
+		long sum = 0L;
+		for (int k = 0; k < LOOPS; k++)
+		{
+			for (Vertex v : mesh.getNodes())
+			{
+				for (Iterator<AbstractHalfEdge> it = v.getNeighbourIteratorAbstractHalfEdge(); it.hasNext(); )
+					sum += it.next().destination().getRef();
+			}
+		}
+		checksum += sum;
+		return new long[] { System.currentTimeMillis() - start, allocatedBytes() - bytes };
+	}
+
+	private static long [] cursor(Mesh mesh)
+	{
+		long bytes = allocatedBytes();
+		long start = System.currentTimeMillis();
+		long sum = 0L;
+		NeighbourCursor cursor = new NeighbourCursor();
+		for (int k = 0; k < LOOPS; k++)
+		{
+			for (Vertex v : mesh.getNodes())
+			{
+				for (cursor.reset(v); cursor.next(); )
+					sum += cursor.getVertex().getRef();
+			}
+		}
+		checksum += sum;
+		return new long[] { System.currentTimeMillis() - start, allocatedBytes() - bytes };
+	}
+
+	private static long [] canCollapse(Mesh mesh)
+	{
+		long bytes = allocatedBytes();
+		long start = System.currentTimeMillis();
+		long sum = 0L;
+		NeighbourCursor cursor = new NeighbourCursor();
+		for (Vertex v : mesh.getNodes())
+		{
+			for (cursor.reset(v); cursor.next(); )
+			{
+				AbstractHalfEdge ot = cursor.getHalfEdge();
+				if (ot.hasAttributes(AbstractHalfEdge.OUTER | AbstractHalfEdge.BOUNDARY | AbstractHalfEdge.NONMANIFOLD))
+					continue;
+				if (mesh.canCollapseEdge(ot, ot.destination()))
+					sum++;
+			}
+		}
+		checksum += sum;
+		return new long[] { System.currentTimeMillis() - start, allocatedBytes() - bytes };
+	}
+
+	private static long [] decimate()
+	{
+		Mesh mesh = createMesh(M, N);
+		Map<String, String> options = new HashMap<String, String>();
+		options.put("maxtriangles", Integer.toString(M * N / 10));
+		long bytes = allocatedBytes();
+		long start = System.currentTimeMillis();
+		new QEMDecimateHalfEdge(mesh, options).compute();
+		return new long[] { System.currentTimeMillis() - start, allocatedBytes() - bytes };
+	}
+
+	private static void best(long [] best, long [] run)
+	{
+		best[0] = Math.min(best[0], run[0]);
+		best[1] = Math.min(best[1], run[1]);
+	}
+
+	private static String format(long [] r)
+	{
+		return r[0]+" ms, "+(r[1] < 0L ? "?" : Long.toString(r[1] / 1024))+" kB allocated";
+	}
+
+	@Test public void run()
+	{
+		boolean assertions = false;
+		assert assertions = true;
+		if (assertions)
+		{
+			System.out.println("Assertions are enabled, skip benchmark");
+			return;
+		}
+		Logger algos = Logger.getLogger("org.jcae.mesh.amibe");
+		Level level = algos.getLevel();
+		algos.setLevel(Level.WARNING);
+		try
+		{
+			Mesh mesh = createMesh(M, N);
+			int nrNonManifold = 0;
+			for (Vertex v : mesh.getNodes())
+				if (!v.isManifold())
+					nrNonManifold++;
+			assertTrue(nrNonManifold > 0);
+			// Warm up
+			iterator(mesh);
+			cursor(mesh);
+			canCollapse(mesh);
+			decimate();
+			long [] it = { Long.MAX_VALUE, Long.MAX_VALUE };
+			long [] cur = { Long.MAX_VALUE, Long.MAX_VALUE };
+			long [] col = { Long.MAX_VALUE, Long.MAX_VALUE };
+			long [] qem = { Long.MAX_VALUE, Long.MAX_VALUE };
+			for (int i = 0; i < RUNS; i++)
+			{
+				best(it, iterator(mesh));
+				best(cur, cursor(mesh));
+				best(col, canCollapse(mesh));
+				best(qem, decimate());
+			}
+			int nrV = mesh.getNodes().size();
+			System.out.println("Iterators on "+nrV+" vertices, "+LOOPS+" loops: "+format(it));
+			System.out.println("NeighbourCursor on "+nrV+" vertices, "+LOOPS+" loops: "+format(cur));
+			System.out.println("canCollapseEdge on all edges: "+format(col));
+			System.out.println("QEMDecimateHalfEdge on "+(2*(M-1)*(N-1))+" triangles: "+format(qem));
+			System.out.println("Checksum: "+checksum);
+		}
+		finally
+		{
+			algos.setLevel(level);
+		}
+	}
+}
@@ -0,0 +1,255 @@
+/*
+ * Project Info:  http://jcae.sourceforge.net
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307, USA.
+ *
+ * (C) Copyright 2012, by EADS France
+ */
+
+package org.jcae.mesh.amibe.algos3d;
+
+import org.jcae.mesh.amibe.ds.Mesh;
+import org.jcae.mesh.amibe.ds.Triangle;
+import org.jcae.mesh.amibe.ds.Vertex;
+import org.jcae.mesh.amibe.projection.MeshLiaison;
+import org.jcae.mesh.amibe.traits.MeshTraitsBuilder;
+import org.jcae.mesh.xmldata.AmibeReorder;
+import org.jcae.mesh.xmldata.MeshReader;
+import org.jcae.mesh.xmldata.MeshWriter;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Compare algorithms run on meshes with random order, and on the same
+ * meshes reordered along a Hilbert curve.
+ */
+public class BenchmarkSpatialSort
+{
+	private static final int M = 200;
+	private static final int N = 200;
+
+	// Grid shell whose vertices and triangles are created in random order
+	private static Mesh createShuffledShell(int m, int n)
+	{
+		MeshTraitsBuilder mtb = MeshTraitsBuilder.getDefault3D();
+		mtb.addNodeList();
+		Mesh mesh = new Mesh(mtb);
+		Random rand = new Random(12345L);
+		List<Integer> order = new ArrayList<Integer>(m*n);
+		for (int i = 0; i < m*n; i++)
+			order.add(i);
+		Collections.shuffle(order, rand);
+		Vertex [] v = new Vertex[m*n];
+		for (int k: order)
+		{
+			int i = k % m;
+			int j = k / m;
+			v[k] = mesh.createVertex(i, j, 0.01 * Math.sin(0.1 * i) * Math.cos(0.1 * j));
+		}
+		for (int k: order)
+			mesh.add(v[k]);
+		order.clear();
+		for (int i = 0; i < 2*(m-1)*(n-1); i++)
+			order.add(i);
+		Collections.shuffle(order, rand);
+		for (int k: order)
+		{
+			int i = (k / 2) % (m-1);
+			int j = (k / 2) / (m-1);
+			Triangle t;
+			if (k % 2 == 0)
+				t = mesh.createTriangle(v[m*j+i], v[m*j+i+1], v[m*(j+1)+i]);
+			else
+				t = mesh.createTriangle(v[m*j+i+1], v[m*(j+1)+i+1], v[m*(j+1)+i]);
+			t.setGroupId(1 + (i < m / 2 ? 0 : 1));
+			mesh.add(t);
+		}
+		mesh.setGroupName(1, "left");
+		mesh.setGroupName(2, "right");
+		mesh.buildAdjacency();
+		return mesh;
+	}
+
+	// Average distance between indices of vertices of the same triangle
+	private static double spread(Mesh mesh)
+	{
+		Map<Vertex, Integer> index = new HashMap<Vertex, Integer>();
+		for (Vertex v: mesh.getNodes())
+			index.put(v, index.size());
+		double sum = 0.0;
+		int nr = 0;
+		for (Triangle t: mesh.getTriangles())
+		{
+			if (!t.isWritable())
+				continue;
+			nr++;
+			int i0 = index.get(t.vertex[0]);
+			int i1 = index.get(t.vertex[1]);
+			int i2 = index.get(t.vertex[2]);
+			sum += Math.abs(i0 - i1) + Math.abs(i1 - i2) + Math.abs(i2 - i0);
+		}
+		return sum / (3.0 * nr);
+	}
+
+	private static double [] sortedCoordinates(Mesh mesh)
+	{
+		int nr = 0;
+		for (Triangle t: mesh.getTriangles())
+		{
+			if (t.isWritable())
+				nr++;
+		}
+		double [] ret = new double[3 * nr];
+		int i = 0;
+		for (Triangle t: mesh.getTriangles())
+		{
+			if (!t.isWritable())
+				continue;
+			double [] c = new double[3];
+			for (Vertex v: t.vertex)
+			{
+				c[0] += v.getUV()[0];
+				c[1] += v.getUV()[1];
+				c[2] += v.getUV()[2] + 1000.0 * t.getGroupId();
+			}
+			ret[i++] = c[0];
+			ret[i++] = c[1];
+			ret[i++] = c[2];
+		}
+		Arrays.sort(ret);
+		return ret;
+	}
+
+	private static long smooth(Mesh mesh)
+	{
+		final Map<String, String> options = new HashMap<String, String>();
+		options.put("iterations", "5");
+		options.put("check", "false");
+		long start = System.currentTimeMillis();
+		Mesh smoothedMesh = new SmoothNodes3DBg(new MeshLiaison(mesh), options).compute().getOutputMesh();
+		long time = System.currentTimeMillis() - start;
+		assertTrue("Mesh is not valid", smoothedMesh.isValid());
+		return time;
+	}
+
+	private static Mesh read(String dir, long [] time) throws IOException
+	{
+		MeshTraitsBuilder mtb = MeshTraitsBuilder.getDefault3D();
+		mtb.addNodeList();
+		Mesh mesh = new Mesh(mtb);
+		long start = System.currentTimeMillis();
+		MeshReader.readObject3D(mesh, dir);
+		time[0] = System.currentTimeMillis() - start;
+		return mesh;
+	}
+
+	private static void deleteDir(File dir)
+	{
+		File [] files = dir.listFiles();
+		if (files != null)
+		{
+			for (File f: files)
+				deleteDir(f);
+		}
+		dir.delete();
+	}
+
+	@Test public void sortMesh()
+	{
+		Mesh mesh = createShuffledShell(M, N);
+		double [] before = sortedCoordinates(mesh);
+		double spreadBefore = spread(mesh);
+		new SpatialSort(mesh).compute();
+		assertTrue("Mesh is not valid", mesh.isValid());
+		assertArrayEquals(before, sortedCoordinates(mesh), 0.0);
+		double spreadAfter = spread(mesh);
+		System.out.println("Average index distance: shuffled "+spreadBefore+", sorted "+spreadAfter);
+		assertTrue(spreadAfter < 0.1 * spreadBefore);
+		// Labels start from 1
+		int i = 1;
+		for (Vertex v: mesh.getNodes())
+			assertEquals(i++, v.getLabel());
+	}
+
+	@Test public void smoothNodes3DBg()
+	{
+		Mesh shuffled = createShuffledShell(M, N);
+		Mesh sorted = createShuffledShell(M, N);
+		new SpatialSort(sorted).compute();
+		// Warm up
+		smooth(createShuffledShell(M / 4, N / 4));
+		long t1 = smooth(shuffled);
+		long t2 = smooth(sorted);
+		System.out.println("SmoothNodes3DBg: shuffled "+t1+" ms, sorted "+t2+" ms");
+	}
+
+	@Test public void reorderFiles() throws IOException
+	{
+		File tmp = File.createTempFile("jcae", "");
+		tmp.delete();
+		tmp.mkdirs();
+		try
+		{
+			String shuffledDir = new File(tmp, "shuffled").getPath();
+			String sortedDir = new File(tmp, "sorted").getPath();
+			Mesh mesh = createShuffledShell(M, N);
+			MeshWriter.writeObject3D(mesh, shuffledDir, null);
+			AmibeReorder reorder = new AmibeReorder(shuffledDir, sortedDir);
+			// Force merge of temporary files
+			reorder.setMaxRecordsInMemory(10000);
+			reorder.compute();
+
+			long [] time = new long[1];
+			// Warm up
+			read(shuffledDir, time);
+			read(sortedDir, time);
+			Mesh m1 = read(shuffledDir, time);
+			long t1 = time[0];
+			Mesh m2 = read(sortedDir, time);
+			long t2 = time[0];
+			System.out.println("MeshReader: shuffled "+t1+" ms, sorted "+t2+" ms");
+			assertTrue("Mesh is not valid", m2.isValid());
+			assertEquals(m1.getTriangles().size(), m2.getTriangles().size());
+			assertEquals(m1.getNodes().size(), m2.getNodes().size());
+			assertArrayEquals(sortedCoordinates(m1), sortedCoordinates(m2), 0.0);
+			double spread1 = spread(m1);
+			double spread2 = spread(m2);
+			System.out.println("Average index distance: shuffled "+spread1+", sorted "+spread2);
+			assertTrue(spread2 < 0.1 * spread1);
+
+			// In-place reordering gives the same result
+			AmibeReorder inPlace = new AmibeReorder(shuffledDir, shuffledDir);
+			inPlace.compute();
+			Mesh m3 = read(shuffledDir, time);
+			assertArrayEquals(sortedCoordinates(m2), sortedCoordinates(m3), 0.0);
+			assertEquals(spread2, spread(m3), 0.0);
+		}
+		finally
+		{
+			deleteDir(tmp);
+		}
+	}
+}
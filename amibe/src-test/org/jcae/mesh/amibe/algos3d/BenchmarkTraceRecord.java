@@ -0,0 +1,124 @@
+/* jCAE stand for Java Computer Aided Engineering. Features are : Small CAD
+   modeler, Finite element mesher, Plugin architecture.
+
+    Copyright (C) 2012, by EADS France
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA */
+
+package org.jcae.mesh.amibe.algos3d;
+
+import org.jcae.mesh.amibe.ds.Mesh;
+import org.jcae.mesh.amibe.ds.TraceBinaryRecord;
+import org.jcae.mesh.amibe.ds.TraceReplay;
+import org.jcae.mesh.amibe.traits.MeshTraitsBuilder;
+import java.io.File;
+import java.io.IOException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.junit.Test;
+
+/**
+ * Measures overhead of tracing on algorithms which split, swap and
+ * collapse edges, with {@link TraceBinaryRecord} and with Python
+ * scripts written by {@link org.jcae.mesh.amibe.ds.TraceRecord}.
+ * Timings are only reported, they are too noisy to be checked.
+ * Algorithms check mesh validity after each operation when assertions
+ * are enabled, this benchmark must then be run with assertions disabled.
+ */
+public class BenchmarkTraceRecord
+{
+	private static final int M = 60;
+	private static final int N = 45;
+	private static final int RUNS = 5;
+
+	private static String tempName() throws IOException
+	{
+		File tmp = File.createTempFile("trace", "");
+		tmp.delete();
+		return tmp.getAbsolutePath();
+	}
+
+	private static void delete(String logName)
+	{
+		new File(logName+TraceBinaryRecord.SUFFIX).delete();
+		new File(logName+".py").delete();
+		for (int i = 0; new File(logName+"_cl"+i+".py").exists(); i++)
+			new File(logName+"_cl"+i+".py").delete();
+	}
+
+	// Returns elapsed time in milliseconds
+	private static long run(MeshTraitsBuilder mtb, String logName)
+	{
+		Mesh mesh = TraceBinaryTest.createMesh(M, N, mtb);
+		System.gc();
+		long start = System.currentTimeMillis();
+		if (logName != null)
+		{
+			mesh.getTrace().setLogFile(logName);
+			mesh.getTrace().createMesh("mesh", mesh);
+		}
+		TraceBinaryTest.modify(mesh);
+		if (logName != null)
+			mesh.getTrace().finish();
+		return System.currentTimeMillis() - start;
+	}
+
+	@Test public void overhead() throws IOException
+	{
+		boolean assertions = false;
+		assert assertions = true;
+		if (assertions)
+		{
+			System.out.println("Assertions are enabled, skip benchmark");
+			return;
+		}
+		Logger algos = Logger.getLogger("org.jcae.mesh.amibe.algos3d");
+		Level level = algos.getLevel();
+		algos.setLevel(Level.WARNING);
+		String binaryName = tempName();
+		String pythonName = tempName();
+		try
+		{
+			// Warm up
+			run(TraceBinaryTest.traits(), null);
+			long none = Long.MAX_VALUE;
+			long binary = Long.MAX_VALUE;
+			long python = Long.MAX_VALUE;
+			for (int i = 0; i < RUNS; i++)
+			{
+				none = Math.min(none, run(TraceBinaryTest.traits(), null));
+				binary = Math.min(binary, run(TraceBinaryTest.traits().addTraceBinaryRecord(), binaryName));
+				python = Math.min(python, run(TraceBinaryTest.traits().addTraceRecord(), pythonName));
+			}
+			long size = new File(binaryName+TraceBinaryRecord.SUFFIX).length();
+			long start = System.currentTimeMillis();
+			TraceReplay.replay(binaryName, new Mesh(TraceBinaryTest.traits()));
+			long replay = System.currentTimeMillis() - start;
+
+			double overhead = 100.0 * (binary - none) / none;
+			System.out.println("No trace: "+none+" ms");
+			System.out.println("Binary trace: "+binary+" ms, overhead "+overhead+"%, "+size+" bytes");
+			System.out.println("Python trace: "+python+" ms, overhead "+(100.0 * (python - none) / none)+"%");
+			System.out.println("Replay of binary trace: "+replay+" ms");
+		}
+		finally
+		{
+			algos.setLevel(level);
+			delete(binaryName);
+			delete(pythonName);
+		}
+	}
+}
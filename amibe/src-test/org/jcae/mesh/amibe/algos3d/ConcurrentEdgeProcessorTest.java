@@ -0,0 +1,153 @@
+/* jCAE stand for Java Computer Aided Engineering. Features are : Small CAD
+   modeler, Finite element mesher, Plugin architecture.
+
+    Copyright (C) 2012, by EADS France
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA */
+
+package org.jcae.mesh.amibe.algos3d;
+
+import org.jcae.mesh.amibe.ds.AbstractHalfEdge;
+import org.jcae.mesh.amibe.ds.Mesh;
+import org.jcae.mesh.amibe.ds.Triangle;
+import org.jcae.mesh.amibe.ds.Vertex;
+import org.jcae.mesh.amibe.projection.MeshLiaison;
+import org.jcae.mesh.amibe.traits.MeshTraitsBuilder;
+import gnu.trove.TObjectIntHashMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class ConcurrentEdgeProcessorTest
+{
+	// Grid with random diagonals and jittered vertices
+	static Mesh createMesh(int m, int n, long seed)
+	{
+		MeshTraitsBuilder mtb = MeshTraitsBuilder.getDefault3D();
+		mtb.addNodeList();
+		Mesh mesh = new Mesh(mtb);
+		Random rand = new Random(seed);
+		Vertex [] v = new Vertex[m*n];
+		for (int j = 0; j < n; j++)
+			for (int i = 0; i < m; i++)
+			{
+				double dx = (i == 0 || i == m-1) ? 0.0 : 0.3 * (rand.nextDouble() - 0.5);
+				double dy = (j == 0 || j == n-1) ? 0.0 : 0.3 * (rand.nextDouble() - 0.5);
+				v[m*j+i] = mesh.createVertex(i + dx, j + dy, 0.0);
+				mesh.add(v[m*j+i]);
+			}
+		for (int j = 0; j < n-1; j++)
+			for (int i = 0; i < m-1; i++)
+			{
+				Vertex v0 = v[m*j+i];
+				Vertex v1 = v[m*j+i+1];
+				Vertex v2 = v[m*(j+1)+i+1];
+				Vertex v3 = v[m*(j+1)+i];
+				if (rand.nextBoolean())
+				{
+					mesh.add(mesh.createTriangle(v0, v1, v3));
+					mesh.add(mesh.createTriangle(v1, v2, v3));
+				}
+				else
+				{
+					mesh.add(mesh.createTriangle(v0, v1, v2));
+					mesh.add(mesh.createTriangle(v0, v2, v3));
+				}
+			}
+		mesh.buildAdjacency();
+		return mesh;
+	}
+
+	// Sum of (valence - 6)^2 over inner vertices
+	private static int valenceDefect(Mesh mesh)
+	{
+		TObjectIntHashMap<Vertex> valence = new TObjectIntHashMap<Vertex>();
+		TObjectIntHashMap<Vertex> boundary = new TObjectIntHashMap<Vertex>();
+		for (Triangle t : mesh.getTriangles())
+		{
+			if (t.hasAttributes(AbstractHalfEdge.OUTER))
+			{
+				for (Vertex v : t.vertex)
+					boundary.put(v, 1);
+				continue;
+			}
+			for (Vertex v : t.vertex)
+				valence.put(v, valence.get(v) + 1);
+		}
+		int ret = 0;
+		for (Object o : valence.keys())
+		{
+			Vertex v = (Vertex) o;
+			if (boundary.containsKey(v))
+				continue;
+			int d = valence.get(v) - 6;
+			ret += d * d;
+		}
+		return ret;
+	}
+
+	private static void checkMesh(Mesh mesh, int nrTriangles)
+	{
+		assertTrue(mesh.isValid());
+		assertTrue(mesh.checkNoInvertedTriangles());
+		assertTrue(mesh.checkNoDegeneratedTriangles());
+		assertEquals(nrTriangles, AbstractAlgoHalfEdge.countInnerTriangles(mesh));
+	}
+
+	private static int swap(Mesh mesh, int nrThreads)
+	{
+		Map<String, String> options = new HashMap<String, String>();
+		options.put("coplanarity", "0.9");
+		SwapEdge algo = new SwapEdge(mesh, options);
+		algo.setNumberOfThreads(nrThreads);
+		algo.compute();
+		return algo.processed;
+	}
+
+	@Test public void swapEdge()
+	{
+		Mesh sequential = createMesh(30, 30, 1L);
+		Mesh concurrent = createMesh(30, 30, 1L);
+		int nrTriangles = AbstractAlgoHalfEdge.countInnerTriangles(sequential);
+		int expected = swap(sequential, 1);
+		int actual = swap(concurrent, 4);
+		checkMesh(sequential, nrTriangles);
+		checkMesh(concurrent, nrTriangles);
+		assertTrue(expected > 0);
+		assertTrue(actual > 0);
+		// Processing order differs, but no edge must be left
+		assertEquals(0, swap(concurrent, 4));
+	}
+
+	@Test public void improveConnectivity()
+	{
+		Mesh bgMesh = createMesh(30, 30, 2L);
+		int nrTriangles = AbstractAlgoHalfEdge.countInnerTriangles(bgMesh);
+		int before = valenceDefect(bgMesh);
+		MeshLiaison liaison = new MeshLiaison(bgMesh);
+		Map<String, String> options = new HashMap<String, String>();
+		options.put("coplanarity", "0.9");
+		ImproveEdgeConnectivity algo = new ImproveEdgeConnectivity(liaison, options);
+		algo.setNumberOfThreads(4);
+		algo.compute();
+		Mesh mesh = liaison.getMesh();
+		checkMesh(mesh, nrTriangles);
+		assertTrue(algo.processed > 0);
+		assertTrue(valenceDefect(mesh) < before);
+	}
+}
@@ -0,0 +1,310 @@
+/* jCAE stand for Java Computer Aided Engineering. Features are : Small CAD
+   modeler, Finite element mesher, Plugin architecture.
+
+    Copyright (C) 2012, by EADS France
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA */
+
+package org.jcae.mesh.amibe.algos3d;
+
+import org.jcae.mesh.amibe.ds.Mesh;
+import org.jcae.mesh.amibe.ds.Triangle;
+import org.jcae.mesh.amibe.ds.Vertex;
+import org.jcae.mesh.amibe.metrics.MetricSupport;
+import org.jcae.mesh.amibe.traits.MeshTraitsBuilder;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class DelaunayTetrahedralizerTest
+{
+	private static final double T = 0.5 * (1.0 + Math.sqrt(5.0));
+	private static final double [][] ICO = new double[][] {
+		{ -1, T, 0 }, { 1, T, 0 }, { -1, -T, 0 }, { 1, -T, 0 },
+		{ 0, -1, T }, { 0, 1, T }, { 0, -1, -T }, { 0, 1, -T },
+		{ T, 0, -1 }, { T, 0, 1 }, { -T, 0, -1 }, { -T, 0, 1 }
+	};
+	private static final int [][] FACES = new int[][] {
+		{ 0, 11, 5 }, { 0, 5, 1 }, { 0, 1, 7 }, { 0, 7, 10 }, { 0, 10, 11 },
+		{ 1, 5, 9 }, { 5, 11, 4 }, { 11, 10, 2 }, { 10, 7, 6 }, { 7, 1, 8 },
+		{ 3, 9, 4 }, { 3, 4, 2 }, { 3, 2, 6 }, { 3, 6, 8 }, { 3, 8, 9 },
+		{ 4, 9, 5 }, { 2, 4, 11 }, { 6, 2, 10 }, { 8, 6, 7 }, { 9, 8, 1 }
+	};
+
+	// Adds a subdivided icosahedron, outward oriented if reversed is false
+	private static void addSphere(Mesh mesh, double radius, int level, boolean reversed)
+	{
+		List<double []> points = new ArrayList<double []>();
+		for (double [] p : ICO)
+			points.add(normalize(p.clone(), radius));
+		List<int []> faces = new ArrayList<int []>();
+		for (int [] f : FACES)
+			faces.add(f.clone());
+		for (int l = 0; l < level; l++)
+		{
+			Map<Long, Integer> middles = new HashMap<Long, Integer>();
+			List<int []> newFaces = new ArrayList<int []>();
+			for (int [] f : faces)
+			{
+				int [] m = new int[3];
+				for (int i = 0; i < 3; i++)
+				{
+					int a = f[i];
+					int b = f[(i+1)%3];
+					long key = Math.min(a, b) * 1000000L + Math.max(a, b);
+					Integer index = middles.get(key);
+					if (index == null)
+					{
+						double [] pa = points.get(a);
+						double [] pb = points.get(b);
+						index = points.size();
+						points.add(normalize(new double[] {
+							pa[0] + pb[0], pa[1] + pb[1], pa[2] + pb[2] }, radius));
+						middles.put(key, index);
+					}
+					m[i] = index;
+				}
+				newFaces.add(new int[] { f[0], m[0], m[2] });
+				newFaces.add(new int[] { f[1], m[1], m[0] });
+				newFaces.add(new int[] { f[2], m[2], m[1] });
+				newFaces.add(m);
+			}
+			faces = newFaces;
+		}
+		Vertex [] v = new Vertex[points.size()];
+		for (int i = 0; i < v.length; i++)
+		{
+			double [] p = points.get(i);
+			v[i] = mesh.createVertex(p[0], p[1], p[2]);
+			mesh.add(v[i]);
+		}
+		for (int [] f : faces)
+		{
+			if (reversed)
+				mesh.add(mesh.createTriangle(v[f[0]], v[f[2]], v[f[1]]));
+			else
+				mesh.add(mesh.createTriangle(v[f[0]], v[f[1]], v[f[2]]));
+		}
+	}
+
+	private static double [] normalize(double [] p, double radius)
+	{
+		double n = Math.sqrt(p[0]*p[0] + p[1]*p[1] + p[2]*p[2]);
+		for (int j = 0; j < 3; j++)
+			p[j] *= radius / n;
+		return p;
+	}
+
+	// Adds a prism whose base is a counterclockwise polygon given by its
+	// triangulation, extruded along z, outward oriented
+	private static void addPrism(Mesh mesh, double [][] polygon, int [][] base, double height)
+	{
+		int n = polygon.length;
+		Vertex [] v = new Vertex[2 * n];
+		for (int i = 0; i < n; i++)
+		{
+			v[i] = mesh.createVertex(polygon[i][0], polygon[i][1], 0.0);
+			v[i+n] = mesh.createVertex(polygon[i][0], polygon[i][1], height);
+			mesh.add(v[i]);
+			mesh.add(v[i+n]);
+		}
+		for (int [] f : base)
+		{
+			mesh.add(mesh.createTriangle(v[f[0]], v[f[2]], v[f[1]]));
+			mesh.add(mesh.createTriangle(v[f[0]+n], v[f[1]+n], v[f[2]+n]));
+		}
+		// Side diagonals join the bottom vertex of lower index to the top
+		// vertex of higher index, otherwise the prism may not be
+		// tetrahedralized without inner vertices
+		for (int i = 0; i < n; i++)
+		{
+			int j = (i + 1) % n;
+			if (i < j)
+			{
+				mesh.add(mesh.createTriangle(v[i], v[j], v[j+n]));
+				mesh.add(mesh.createTriangle(v[i], v[j+n], v[i+n]));
+			}
+			else
+			{
+				mesh.add(mesh.createTriangle(v[i], v[j], v[i+n]));
+				mesh.add(mesh.createTriangle(v[j], v[j+n], v[i+n]));
+			}
+		}
+	}
+
+	private static Mesh createSurface()
+	{
+		MeshTraitsBuilder mtb = MeshTraitsBuilder.getDefault3D();
+		mtb.addNodeList();
+		return new Mesh(mtb);
+	}
+
+	private static double volume(Vertex v0, Vertex v1, Vertex v2, Vertex v3)
+	{
+		double [] a = v0.getUV();
+		double [] b = v1.getUV();
+		double [] c = v2.getUV();
+		double [] d = v3.getUV();
+		double bx = b[0] - a[0], by = b[1] - a[1], bz = b[2] - a[2];
+		double cx = c[0] - a[0], cy = c[1] - a[1], cz = c[2] - a[2];
+		double dx = d[0] - a[0], dy = d[1] - a[1], dz = d[2] - a[2];
+		return (bx * (cy*dz - cz*dy) + by * (cz*dx - cx*dz) + bz * (cx*dy - cy*dx)) / 6.0;
+	}
+
+	// Volume enclosed by outward oriented triangles
+	private static double enclosedVolume(Mesh surface)
+	{
+		double ret = 0.0;
+		Vertex o = surface.createVertex(0.0, 0.0, 0.0);
+		for (Triangle t : surface.getTriangles())
+			ret += volume(o, t.vertex[0], t.vertex[1], t.vertex[2]);
+		return ret;
+	}
+
+	private static String faceKey(Vertex a, Vertex b, Vertex c)
+	{
+		int [] h = new int[] { System.identityHashCode(a), System.identityHashCode(b), System.identityHashCode(c) };
+		java.util.Arrays.sort(h);
+		return h[0]+","+h[1]+","+h[2];
+	}
+
+	// Checks that tetrahedra are positive, fill the volume, and that
+	// faces which belong to a single tetrahedron are surface triangles.
+	private static void checkVolumeMesh(Mesh surface, Mesh volume)
+	{
+		assertNotNull(volume);
+		Map<String, Integer> faces = new HashMap<String, Integer>();
+		double sum = 0.0;
+		for (Triangle t : volume.getTriangles())
+		{
+			Vertex [] v = t.vertex;
+			assertEquals(4, v.length);
+			double vol = volume(v[0], v[1], v[2], v[3]);
+			assertTrue("Non positive tetrahedron", vol > 0.0);
+			sum += vol;
+			for (int i = 0; i < 4; i++)
+			{
+				String key = faceKey(v[(i+1)%4], v[(i+2)%4], v[(i+3)%4]);
+				Integer n = faces.get(key);
+				faces.put(key, n == null ? 1 : n + 1);
+			}
+		}
+		assertEquals(enclosedVolume(surface), sum, 1.e-10);
+		int nrBoundary = 0;
+		for (Map.Entry<String, Integer> e : faces.entrySet())
+		{
+			assertTrue(e.getValue() <= 2);
+			if (e.getValue() == 1)
+				nrBoundary++;
+		}
+		assertEquals(surface.getTriangles().size(), nrBoundary);
+		for (Triangle t : surface.getTriangles())
+			assertEquals(Integer.valueOf(1), faces.get(faceKey(t.vertex[0], t.vertex[1], t.vertex[2])));
+	}
+
+	@Test public void sphere()
+	{
+		Mesh surface = createSurface();
+		addSphere(surface, 1.0, 2, false);
+		Mesh volume = new DelaunayTetrahedralizer(surface).compute().getOutputMesh();
+		checkVolumeMesh(surface, volume);
+		// No refinement, all vertices are on the surface
+		assertEquals(surface.getNodes().size(), volume.getNodes().size());
+	}
+
+	// Surface triangles which are not Delaunay faces must be recovered,
+	// there must be no fallback
+	private static void checkRecovery(Mesh surface, Map<String, String> options)
+	{
+		DelaunayTetrahedralizer algo = new DelaunayTetrahedralizer(surface, options);
+		Mesh volume = algo.compute().getOutputMesh();
+		assertTrue(algo.getNumberOfMissingTriangles() > 0);
+		checkVolumeMesh(surface, volume);
+	}
+
+	@Test public void lShape()
+	{
+		Mesh surface = createSurface();
+		// Fan triangulation from the reflex vertex, with long triangles
+		addPrism(surface, new double[][] {
+			{ 0, 0 }, { 10, 0 }, { 10, 1 }, { 1, 1 }, { 1, 10 }, { 0, 10 }
+		}, new int[][] {
+			{ 3, 4, 5 }, { 3, 5, 0 }, { 3, 0, 1 }, { 3, 1, 2 }
+		}, 1.0);
+		checkRecovery(surface, new HashMap<String, String>());
+	}
+
+	@Test public void notchedBlock()
+	{
+		Mesh surface = createSurface();
+		addPrism(surface, new double[][] {
+			{ 0, 0 }, { 6, 0 }, { 6, 3 }, { 4, 3 }, { 4, 1 }, { 2, 1 }, { 2, 3 }, { 0, 3 }
+		}, new int[][] {
+			{ 0, 1, 4 }, { 1, 2, 3 }, { 1, 3, 4 }, { 0, 4, 5 }, { 0, 5, 7 }, { 5, 6, 7 }
+		}, 2.0);
+		Map<String, String> options = new HashMap<String, String>();
+		options.put("size", "0.5");
+		options.put("threads", "2");
+		checkRecovery(surface, options);
+	}
+
+	@Test public void refine()
+	{
+		Mesh surface = createSurface();
+		addSphere(surface, 1.0, 3, false);
+		Map<String, String> options = new HashMap<String, String>();
+		options.put("size", "0.2");
+		Mesh volume = new DelaunayTetrahedralizer(surface, options).compute().getOutputMesh();
+		checkVolumeMesh(surface, volume);
+		assertTrue(volume.getNodes().size() > surface.getNodes().size() + 100);
+	}
+
+	@Test public void shellWithSizeFunction()
+	{
+		Mesh surface = createSurface();
+		addSphere(surface, 1.0, 3, false);
+		addSphere(surface, 0.5, 2, true);
+		Map<String, String> options = new HashMap<String, String>();
+		options.put("threads", "4");
+		DelaunayTetrahedralizer algo = new DelaunayTetrahedralizer(surface, options);
+		algo.setAnalyticMetric(new MetricSupport.AnalyticMetricInterface()
+		{
+			public double getTargetSize(double x, double y, double z)
+			{
+				return x > 0.0 ? 0.1 : 0.3;
+			}
+		});
+		Mesh volume = algo.compute().getOutputMesh();
+		checkVolumeMesh(surface, volume);
+		int nrPositive = 0;
+		int nrNegative = 0;
+		for (Vertex v : volume.getNodes())
+		{
+			double [] p = v.getUV();
+			if (p[0]*p[0] + p[1]*p[1] + p[2]*p[2] > 0.55 * 0.55 && p[0]*p[0] + p[1]*p[1] + p[2]*p[2] < 0.95 * 0.95)
+			{
+				if (p[0] > 0.0)
+					nrPositive++;
+				else
+					nrNegative++;
+			}
+		}
+		assertTrue(nrPositive > 4 * nrNegative);
+	}
+}
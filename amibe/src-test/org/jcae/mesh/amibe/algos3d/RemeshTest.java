@@ -31,6 +31,7 @@ import java.io.File;
 import java.io.IOException;
 import java.util.Map;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -192,4 +193,35 @@ public class RemeshTest
 		assertTrue("Mesh contains inverted triangles", newMesh.checkNoInvertedTriangles());
 	}
 
+	private Mesh remeshTorus(String threads)
+	{
+		MeshTraitsBuilder mtb = MeshTraitsBuilder.getDefault3D();
+		mtb.addNodeList();
+		bgMesh = new Mesh(mtb);
+		try {
+			MeshReader.readObject3D(bgMesh, "test"+File.separator+"input"+File.separator+"torus1426");
+		} catch (IOException ex) {
+			Logger.getLogger(RemeshTest.class.getName()).log(Level.SEVERE, null, ex);
+			throw new RuntimeException();
+		}
+		final Map<String, String> options = new HashMap<String, String>();
+		options.put("size", "0.05");
+		options.put("coplanarity", "0.9");
+		options.put("threads", threads);
+		return new Remesh(new MeshLiaison(bgMesh, mtb), options).compute().getOutputMesh();
+	}
+
+	@Test public void testTorusThreads()
+	{
+		// Result must not depend on the number of threads
+		Mesh m1 = remeshTorus("1");
+		Mesh m4 = remeshTorus("4");
+		assertTrue("Mesh is not valid", m4.isValid());
+		assertEquals(m1.getTriangles().size(), m4.getTriangles().size());
+		assertEquals(m1.getNodes().size(), m4.getNodes().size());
+		Iterator<Vertex> it = m4.getNodes().iterator();
+		for (Vertex v1 : m1.getNodes())
+			assertArrayEquals(v1.getUV(), it.next().getUV(), 0.0);
+	}
+
 }
@@ -0,0 +1,163 @@
+/* jCAE stand for Java Computer Aided Engineering. Features are : Small CAD
+   modeler, Finite element mesher, Plugin architecture.
+
+    Copyright (C) 2012, by EADS France
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA */
+
+package org.jcae.mesh.amibe.algos3d;
+
+import org.jcae.mesh.amibe.ds.AbstractHalfEdge;
+import org.jcae.mesh.amibe.ds.Mesh;
+import org.jcae.mesh.amibe.ds.TraceBinaryRecord;
+import org.jcae.mesh.amibe.ds.TraceInterface;
+import org.jcae.mesh.amibe.ds.TraceReplay;
+import org.jcae.mesh.amibe.ds.Triangle;
+import org.jcae.mesh.amibe.ds.Vertex;
+import org.jcae.mesh.amibe.traits.MeshTraitsBuilder;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class TraceBinaryTest
+{
+	/**
+	 * Creates a bumpy M x N grid.  If mesh is traced, trace is disabled
+	 * while the grid is being built.
+	 */
+	static Mesh createMesh(int m, int n, MeshTraitsBuilder mtb)
+	{
+		Mesh mesh = new Mesh(mtb);
+		mesh.getTrace().setDisabled(true);
+		Vertex [] v = new Vertex[m*n];
+		for (int j = 0; j < n; j++)
+			for (int i = 0; i < m; i++)
+			{
+				v[m*j+i] = mesh.createVertex(i, j, 2.0 * Math.sin(0.3 * i) * Math.cos(0.2 * j));
+				mesh.add(v[m*j+i]);
+			}
+		for (int j = 0; j < n-1; j++)
+			for (int i = 0; i < m-1; i++)
+			{
+				Triangle t0 = mesh.createTriangle(v[m*j+i], v[m*j+i+1], v[m*(j+1)+i]);
+				Triangle t1 = mesh.createTriangle(v[m*j+i+1], v[m*(j+1)+i+1], v[m*(j+1)+i]);
+				t0.setGroupId(1 + (i < m / 2 ? 0 : 1));
+				t1.setGroupId(t0.getGroupId());
+				mesh.add(t0);
+				mesh.add(t1);
+			}
+		mesh.buildAdjacency();
+		mesh.getTrace().setDisabled(false);
+		return mesh;
+	}
+
+	/**
+	 * Runs algorithms which split, swap and collapse edges.
+	 */
+	static void modify(Mesh mesh)
+	{
+		mesh.buildGroupBoundaries();
+		Map<String, String> options = new HashMap<String, String>();
+		options.put("size", "0.6");
+		new SplitEdge(mesh, options).compute();
+		options.clear();
+		new SwapEdge(mesh, options).compute();
+		options.put("size", "0.1");
+		new QEMDecimateHalfEdge(mesh, options).compute();
+	}
+
+	static MeshTraitsBuilder traits()
+	{
+		MeshTraitsBuilder mtb = MeshTraitsBuilder.getDefault3D();
+		mtb.addNodeList();
+		return mtb;
+	}
+
+	// Sorted list of triangle coordinates, to compare meshes
+	private static List<String> triangles(Mesh mesh)
+	{
+		List<String> ret = new ArrayList<String>();
+		for (Triangle t : mesh.getTriangles())
+		{
+			if (t.hasAttributes(AbstractHalfEdge.OUTER))
+				continue;
+			StringBuilder sb = new StringBuilder();
+			for (Vertex v : t.vertex)
+			{
+				double [] xyz = v.getUV();
+				sb.append(xyz[0]).append(' ').append(xyz[1]).append(' ').append(xyz[2]).append(' ');
+			}
+			sb.append(t.getGroupId());
+			ret.add(sb.toString());
+		}
+		Collections.sort(ret);
+		return ret;
+	}
+
+	private static String record(Mesh mesh) throws IOException
+	{
+		File tmp = File.createTempFile("trace", "");
+		String logName = tmp.getAbsolutePath();
+		tmp.delete();
+		new File(logName+TraceBinaryRecord.SUFFIX).deleteOnExit();
+		TraceInterface trace = mesh.getTrace();
+		trace.setLogFile(logName);
+		trace.createMesh("mesh", mesh);
+		trace.setHooks(new String[] { "assert self.m.isValid()" });
+		modify(mesh);
+		Vertex v = mesh.getTriangles().iterator().next().vertex[0];
+		double [] xyz = v.getUV();
+		v.moveTo(xyz[0], xyz[1], xyz[2] + 0.01);
+		trace.moveVertex(v);
+		trace.finish();
+		return logName;
+	}
+
+	@Test public void replay() throws IOException
+	{
+		Mesh mesh = createMesh(30, 20, traits().addTraceBinaryRecord());
+		int nrTriangles = mesh.getTriangles().size();
+		String logName = record(mesh);
+		assertTrue(mesh.getTriangles().size() != nrTriangles);
+
+		Mesh replayed = new Mesh(traits());
+		TraceReplay.replay(logName, replayed);
+		assertTrue(replayed.isValid());
+		assertEquals(triangles(mesh), triangles(replayed));
+	}
+
+	@Test public void convert() throws IOException
+	{
+		Mesh mesh = createMesh(10, 10, traits().addTraceBinaryRecord());
+		String logName = record(mesh);
+		String pythonName = logName + "-py";
+		TraceReplay.convert(logName, pythonName);
+		File main = new File(pythonName + ".py");
+		File module = new File(pythonName + "_cl0.py");
+		main.deleteOnExit();
+		module.deleteOnExit();
+		assertTrue(main.length() > 0);
+		assertTrue(module.length() > main.length());
+		for (int i = 1; new File(pythonName + "_cl" + i + ".py").exists(); i++)
+			new File(pythonName + "_cl" + i + ".py").deleteOnExit();
+	}
+}
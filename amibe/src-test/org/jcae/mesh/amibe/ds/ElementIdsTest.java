@@ -0,0 +1,139 @@
+/* jCAE stand for Java Computer Aided Engineering. Features are : Small CAD
+   modeler, Finite element mesher, Plugin architecture.
+
+    Copyright (C) 2012, by EADS France
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA */
+
+package org.jcae.mesh.amibe.ds;
+
+import org.jcae.mesh.amibe.traits.MeshTraitsBuilder;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class ElementIdsTest
+{
+	private static Mesh createMesh()
+	{
+		MeshTraitsBuilder mtb = MeshTraitsBuilder.getDefault3D();
+		mtb.addNodeList();
+		return new Mesh(mtb);
+	}
+
+	@Test public void allocate()
+	{
+		Mesh mesh = createMesh();
+		ElementIds<Vertex> ids = mesh.getVertexIds();
+		Vertex [] v = new Vertex[100];
+		for (int i = 0; i < v.length; i++)
+		{
+			v[i] = mesh.createVertex(i, 0, 0);
+			mesh.add(v[i]);
+			assertEquals(-1, ids.find(v[i]));
+			assertEquals(i, ids.get(v[i]));
+		}
+		assertEquals(v.length, ids.size());
+		for (int i = 0; i < v.length; i++)
+		{
+			assertEquals(i, ids.find(v[i]));
+			assertSame(v[i], ids.getElement(i));
+		}
+		// Vertices from another mesh have no identifier here
+		Vertex other = createMesh().createVertex(0, 0, 0);
+		createMesh().getVertexIds().get(other);
+		assertEquals(-1, ids.find(other));
+	}
+
+	@Test public void recycle()
+	{
+		Mesh mesh = createMesh();
+		ElementIds<Vertex> ids = mesh.getVertexIds();
+		ElementIds<Vertex>.DoubleProperty d = ids.newDoubleProperty(-1.0);
+		ElementIds<Vertex>.IntProperty n = ids.newIntProperty(7);
+		ElementIds<Vertex>.ObjectProperty<String> s = ids.newObjectProperty();
+		Vertex v0 = mesh.createVertex(0, 0, 0);
+		Vertex v1 = mesh.createVertex(1, 0, 0);
+		mesh.add(v0);
+		mesh.add(v1);
+		d.set(v0, 2.0);
+		n.set(v0, 3);
+		s.set(v0, "v0");
+		d.set(v1, 4.0);
+		assertEquals(7, n.get(v1));
+		assertNull(s.get(v1));
+
+		// Values can still be read after removal
+		mesh.remove(v0);
+		assertTrue(ids.isReleased(0));
+		assertEquals(2.0, d.get(v0), 0.0);
+		assertEquals("v0", s.get(v0));
+
+		// Until its identifier is reused
+		Vertex v2 = mesh.createVertex(2, 0, 0);
+		mesh.add(v2);
+		assertEquals(0, ids.get(v2));
+		assertEquals(-1, ids.find(v0));
+		assertEquals(-1.0, d.get(v2), 0.0);
+		assertEquals(7, n.get(v2));
+		assertNull(s.get(v2));
+		assertEquals(-1.0, d.get(v0), 0.0);
+		assertEquals(4.0, d.get(v1), 0.0);
+		assertEquals(2, ids.size());
+
+		// An element added back keeps its identifier
+		mesh.remove(v1);
+		mesh.add(v1);
+		assertFalse(ids.isReleased(1));
+		Vertex v3 = mesh.createVertex(3, 0, 0);
+		assertEquals(2, ids.get(v3));
+		assertEquals(4.0, d.get(v1), 0.0);
+
+		// Disposed properties are not reset
+		s.set(v3, "v3");
+		s.dispose();
+		mesh.remove(v3);
+		assertEquals(2, ids.get(mesh.createVertex(4, 0, 0)));
+		assertEquals("v3", s.get(2));
+	}
+
+	@Test public void triangles()
+	{
+		Mesh mesh = createMesh();
+		Vertex [] v = new Vertex[4];
+		for (int i = 0; i < v.length; i++)
+		{
+			v[i] = mesh.createVertex(i % 2, i / 2, 0);
+			mesh.add(v[i]);
+		}
+		Triangle t0 = mesh.createTriangle(v[0], v[1], v[2]);
+		Triangle t1 = mesh.createTriangle(v[1], v[3], v[2]);
+		mesh.add(t0);
+		mesh.add(t1);
+		mesh.buildAdjacency();
+		ElementIds<Triangle> ids = mesh.getTriangleIds();
+		ElementIds<Triangle>.DoubleProperty area = ids.newDoubleProperty(Double.NaN);
+		area.set(t0, 0.5);
+		area.set(t1, 0.25);
+		assertEquals(0.5, area.get(t0), 0.0);
+		assertEquals(0.25, area.get(t1), 0.0);
+		assertTrue(Double.isNaN(area.get(mesh.createTriangle(v[0], v[1], v[3]))));
+
+		ids.clear();
+		assertEquals(0, ids.size());
+		assertEquals(-1, ids.find(t0));
+		assertTrue(Double.isNaN(area.get(0)));
+	}
+}
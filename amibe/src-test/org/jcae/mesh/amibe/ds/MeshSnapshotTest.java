@@ -0,0 +1,204 @@
+/* jCAE stand for Java Computer Aided Engineering. Features are : Small CAD
+   modeler, Finite element mesher, Plugin architecture.
+
+    Copyright (C) 2012, by EADS France
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA */
+
+package org.jcae.mesh.amibe.ds;
+
+import org.jcae.mesh.amibe.algos3d.QEMDecimateHalfEdge;
+import org.jcae.mesh.amibe.traits.MeshTraitsBuilder;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class MeshSnapshotTest
+{
+	private static MeshTraitsBuilder traits()
+	{
+		MeshTraitsBuilder mtb = MeshTraitsBuilder.getDefault3D();
+		mtb.addNodeList();
+		return mtb;
+	}
+
+	// Bumpy M x N grid, with an additional triangle on an inner edge if
+	// nonManifold is true
+	private static Mesh createMesh(int m, int n, boolean nonManifold)
+	{
+		Mesh mesh = new Mesh(traits());
+		Vertex [] v = new Vertex[m*n];
+		for (int j = 0; j < n; j++)
+			for (int i = 0; i < m; i++)
+			{
+				v[m*j+i] = mesh.createVertex(i, j, 2.0 * Math.sin(0.3 * i) * Math.cos(0.2 * j));
+				mesh.add(v[m*j+i]);
+			}
+		for (int j = 0; j < n-1; j++)
+			for (int i = 0; i < m-1; i++)
+			{
+				Triangle t0 = mesh.createTriangle(v[m*j+i], v[m*j+i+1], v[m*(j+1)+i]);
+				Triangle t1 = mesh.createTriangle(v[m*j+i+1], v[m*(j+1)+i+1], v[m*(j+1)+i]);
+				t0.setGroupId(1 + (i < m / 2 ? 0 : 1));
+				t1.setGroupId(t0.getGroupId());
+				mesh.add(t0);
+				mesh.add(t1);
+			}
+		if (nonManifold)
+		{
+			Vertex apex = mesh.createVertex(1.5, 1.5, 5.0);
+			mesh.add(apex);
+			Triangle t = mesh.createTriangle(v[m+1], v[m+2], apex);
+			t.setGroupId(3);
+			mesh.add(t);
+		}
+		mesh.buildAdjacency();
+		mesh.setGroupName(1, "left");
+		mesh.setGroupName(2, "right");
+		return mesh;
+	}
+
+	// Sorted list of triangle coordinates and edge attributes
+	private static List<String> triangles(Mesh mesh)
+	{
+		List<String> ret = new ArrayList<String>();
+		for (Triangle t : mesh.getTriangles())
+		{
+			StringBuilder sb = new StringBuilder();
+			for (Vertex v : t.vertex)
+			{
+				if (v == mesh.outerVertex)
+				{
+					sb.append("outer ");
+					continue;
+				}
+				double [] xyz = v.getUV();
+				sb.append(xyz[0]).append(' ').append(xyz[1]).append(' ').append(xyz[2]).append(' ');
+			}
+			AbstractHalfEdge e = t.getAbstractHalfEdge();
+			for (int i = 0; i < 3; i++)
+			{
+				sb.append(((HalfEdge) e).getAttributes()).append(' ');
+				e = e.next();
+			}
+			sb.append(t.getGroupId());
+			ret.add(sb.toString());
+		}
+		Collections.sort(ret);
+		return ret;
+	}
+
+	private static String tempName() throws IOException
+	{
+		File tmp = File.createTempFile("snapshot", ".bin");
+		tmp.deleteOnExit();
+		return tmp.getAbsolutePath();
+	}
+
+	private static void roundTrip(boolean nonManifold) throws IOException
+	{
+		Mesh mesh = createMesh(12, 9, nonManifold);
+		String file = tempName();
+		MeshSnapshot snapshot = new MeshSnapshot(mesh);
+		Triangle t0 = mesh.getTriangles().iterator().next();
+		int edgeId = snapshot.getId(t0.getAbstractHalfEdge().next());
+		int vertexId = snapshot.getId(t0.vertex[2]);
+		snapshot.write(file, new int[] { edgeId, vertexId }, new double[] { 0.5 });
+
+		// Restore into a non-empty mesh, its content must be replaced
+		Mesh restored = createMesh(3, 3, false);
+		MeshSnapshot r = MeshSnapshot.read(file, restored);
+		assertTrue(restored.isValid());
+		assertEquals(mesh.getTriangles().size(), restored.getTriangles().size());
+		assertEquals(mesh.getNodes().size(), restored.getNodes().size());
+		assertEquals(triangles(mesh), triangles(restored));
+		assertEquals("left", restored.getGroupName(1));
+		assertEquals("right", restored.getGroupName(2));
+		assertEquals(0.5, r.getUserDoubles()[0], 0.0);
+		AbstractHalfEdge e = r.getEdge(r.getUserInts()[0]);
+		AbstractHalfEdge expected = t0.getAbstractHalfEdge().next();
+		assertArrayEquals(expected.origin().getUV(), e.origin().getUV(), 0.0);
+		assertArrayEquals(expected.destination().getUV(), e.destination().getUV(), 0.0);
+		assertArrayEquals(t0.vertex[2].getUV(), r.getVertex(r.getUserInts()[1]).getUV(), 0.0);
+		new File(file).delete();
+	}
+
+	@Test public void manifold() throws IOException
+	{
+		roundTrip(false);
+	}
+
+	@Test public void nonManifold() throws IOException
+	{
+		roundTrip(true);
+	}
+
+	private static Map<String, String> options()
+	{
+		Map<String, String> options = new HashMap<String, String>();
+		options.put("maxtriangles", "150");
+		return options;
+	}
+
+	/**
+	 * Interrupts QEMDecimateHalfEdge after a given number of edges and
+	 * restarts it from its last checkpoint.
+	 */
+	@Test public void checkpoint() throws IOException
+	{
+		Mesh reference = createMesh(20, 15, false);
+		new QEMDecimateHalfEdge(reference, options()).compute();
+
+		String file = tempName();
+		new File(file).delete();
+		Mesh mesh = createMesh(20, 15, false);
+		QEMDecimateHalfEdge algo = new QEMDecimateHalfEdge(mesh, options())
+		{
+			private int count = 0;
+			@Override
+			protected void afterProcessHook()
+			{
+				count++;
+				if (count == 70)
+					throw new IllegalStateException("interrupted");
+			}
+		};
+		algo.setCheckpoint(file, 30);
+		try
+		{
+			algo.compute();
+			fail("Algorithm has not been interrupted");
+		}
+		catch (IllegalStateException ex)
+		{
+		}
+		assertTrue(new File(file).exists());
+
+		mesh = createMesh(20, 15, false);
+		algo = new QEMDecimateHalfEdge(mesh, options());
+		algo.setCheckpoint(file, 30);
+		algo.compute();
+		assertFalse(new File(file).exists());
+		assertTrue(mesh.isValid());
+		assertEquals(triangles(reference), triangles(mesh));
+	}
+}
@@ -21,6 +21,11 @@ package org.jcae.mesh.amibe.ds;
 
 import org.jcae.mesh.amibe.traits.TriangleTraitsBuilder;
 import org.jcae.mesh.amibe.traits.MeshTraitsBuilder;
+import gnu.trove.TIntArrayList;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 import org.junit.Test;
 import static org.junit.Assert.*;
 
@@ -133,4 +138,114 @@ public class MeshTest
 		assertTrue("Wrong return value of scratchVirtualBoundaries (2 was expected): "+nr, 2 == nr);
 	}
 	
+	// Folded grid with sharp edges every 3 columns, and a second
+	// disconnected grid
+	private static Mesh createFoldedMesh()
+	{
+		Mesh m = new Mesh(MeshTraitsBuilder.getDefault3D());
+		for (int k = 0; k < 2; k++)
+		{
+			int nx = 40 - 25 * k;
+			int ny = 30 - 20 * k;
+			Vertex [] vv = new Vertex[nx*ny];
+			for (int j = 0; j < ny; j++)
+				for (int i = 0; i < nx; i++)
+					vv[nx*j+i] = m.createVertex(i, j + 100.0 * k, i % 3 == 0 ? 1.5 : 0.0);
+			for (int j = 0; j < ny-1; j++)
+				for (int i = 0; i < nx-1; i++)
+				{
+					Triangle t0 = m.createTriangle(vv[nx*j+i], vv[nx*j+i+1], vv[nx*(j+1)+i]);
+					Triangle t1 = m.createTriangle(vv[nx*j+i+1], vv[nx*(j+1)+i+1], vv[nx*(j+1)+i]);
+					t0.setGroupId(j < ny / 2 ? 1 : 2);
+					t1.setGroupId(t0.getGroupId());
+					m.add(t0);
+					m.add(t1);
+				}
+		}
+		m.buildAdjacency();
+		return m;
+	}
+
+	// Breadth-first search, as done by Mesh.buildPartition before
+	// union-find was used
+	private static TIntArrayList referencePartition(Mesh m)
+	{
+		int cut = AbstractHalfEdge.BOUNDARY | AbstractHalfEdge.NONMANIFOLD | AbstractHalfEdge.SHARP;
+		for (Triangle t : m.getTriangles())
+			t.setGroupId(0);
+		Set<Triangle> processed = new HashSet<Triangle>();
+		int countPart = 0;
+		for (Triangle seed : m.getTriangles())
+		{
+			if (seed.hasAttributes(AbstractHalfEdge.OUTER) || processed.contains(seed))
+				continue;
+			countPart++;
+			List<Triangle> queue = new ArrayList<Triangle>();
+			queue.add(seed);
+			for (int k = 0; k < queue.size(); k++)
+			{
+				Triangle t = queue.get(k);
+				if (processed.contains(t))
+					continue;
+				processed.add(t);
+				t.setGroupId(countPart);
+				if (t.hasAttributes(AbstractHalfEdge.OUTER))
+					continue;
+				AbstractHalfEdge ot = t.getAbstractHalfEdge();
+				for (int i = 0; i < 3; i++)
+				{
+					ot = ot.next();
+					if (!ot.hasAttributes(cut) && !processed.contains(ot.sym().getTri()))
+						queue.add(ot.sym().getTri());
+				}
+			}
+		}
+		TIntArrayList ret = new TIntArrayList();
+		for (Triangle t : m.getTriangles())
+			ret.add(t.getGroupId());
+		return ret;
+	}
+
+	private static TIntArrayList groupIds(Mesh m)
+	{
+		TIntArrayList ret = new TIntArrayList();
+		for (Triangle t : m.getTriangles())
+			ret.add(t.getGroupId());
+		return ret;
+	}
+
+	@Test public void parallelPartition()
+	{
+		int saved = TriangleScanner.minParallel;
+		try
+		{
+			Mesh serial = createFoldedMesh();
+			serial.setNumberOfThreads(1);
+			Mesh parallel = createFoldedMesh();
+			parallel.setNumberOfThreads(4);
+			TriangleScanner.minParallel = 1;
+
+			int nrGroups = serial.buildGroupBoundaries();
+			assertTrue(nrGroups > 0);
+			assertEquals(nrGroups, parallel.buildGroupBoundaries());
+			int nrRidges = serial.buildRidges(0.5);
+			assertTrue(nrRidges > 0);
+			assertEquals(nrRidges, parallel.buildRidges(0.5));
+			assertTrue(serial.isValid());
+			assertTrue(parallel.isValid());
+
+			TIntArrayList expected = referencePartition(serial);
+			int nrParts = serial.buildPartition();
+			assertEquals(expected, groupIds(serial));
+			assertEquals(nrParts, parallel.buildPartition());
+			assertEquals(expected, groupIds(parallel));
+			// Both grids are split by groups and ridges
+			assertTrue(nrParts > 4);
+		}
+		finally
+		{
+			TriangleScanner.minParallel = saved;
+		}
+	}
+
 }
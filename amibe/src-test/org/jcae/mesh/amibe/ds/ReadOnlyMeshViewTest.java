@@ -0,0 +1,240 @@
+/* jCAE stand for Java Computer Aided Engineering. Features are : Small CAD
+   modeler, Finite element mesher, Plugin architecture.
+
+    Copyright (C) 2012, by EADS France
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA */
+
+package org.jcae.mesh.amibe.ds;
+
+import org.jcae.mesh.amibe.traits.MeshTraitsBuilder;
+import org.jcae.mesh.amibe.traits.TriangleTraitsBuilder;
+import org.jcae.mesh.amibe.validation.Area;
+import org.jcae.mesh.amibe.validation.DihedralAngle;
+import org.jcae.mesh.amibe.validation.MaxAngleFace;
+import org.jcae.mesh.amibe.validation.MaxLengthFace;
+import org.jcae.mesh.amibe.validation.MinAngleFace;
+import org.jcae.mesh.amibe.validation.MinLengthFace;
+import org.jcae.mesh.amibe.validation.NodeConnectivity;
+import org.jcae.mesh.amibe.validation.QualityProcedure;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class ReadOnlyMeshViewTest
+{
+	private static final int N = 30;
+	private static final int NR_THREADS = 4;
+
+	// Wavy grid with a fin glued on an inner edge, so that some
+	// vertices and edges are non-manifold
+	private static Mesh createMesh(boolean virtualHalfEdge)
+	{
+		TriangleTraitsBuilder ttb = new TriangleTraitsBuilder();
+		if (virtualHalfEdge)
+			ttb.addVirtualHalfEdge();
+		else
+			ttb.addHalfEdge();
+		MeshTraitsBuilder mtb = new MeshTraitsBuilder();
+		mtb.addTriangleList();
+		mtb.add(ttb);
+		Mesh mesh = new Mesh(mtb);
+		Vertex [] v = new Vertex[(N + 1) * (N + 1)];
+		for (int j = 0; j <= N; j++)
+			for (int i = 0; i <= N; i++)
+				v[j * (N + 1) + i] = mesh.createVertex(i, j, 0.3 * Math.sin(0.4 * i) * Math.cos(0.3 * j));
+		for (int j = 0; j < N; j++)
+		{
+			for (int i = 0; i < N; i++)
+			{
+				int n0 = j * (N + 1) + i;
+				mesh.add(mesh.createTriangle(v[n0], v[n0 + 1], v[n0 + N + 2]));
+				mesh.add(mesh.createTriangle(v[n0], v[n0 + N + 2], v[n0 + N + 1]));
+			}
+		}
+		int n0 = (N / 2) * (N + 1) + N / 2;
+		Vertex top = mesh.createVertex(N / 2 + 0.5, N / 2 + 0.5, 5.0);
+		mesh.add(mesh.createTriangle(v[n0], v[n0 + N + 2], top));
+		for (Triangle t : mesh.getTriangles())
+			t.setGroupId(1);
+		mesh.buildAdjacency();
+		return mesh;
+	}
+
+	private static QualityProcedure [] createProcedures()
+	{
+		return new QualityProcedure[] {
+			new Area(), new DihedralAngle(), new MaxAngleFace(), new MaxLengthFace(),
+			new MinAngleFace(), new MinLengthFace(), new NodeConnectivity()
+		};
+	}
+
+	/**
+	 * Computes quality of all elements and results of geometric predicates
+	 * around all vertices.
+	 */
+	private static float [] compute(ReadOnlyMeshView view, int offset)
+	{
+		Mesh mesh = view.getMesh();
+		QualityProcedure [] procedures = createProcedures();
+		int nrT = view.getNumberOfTriangles();
+		int nrV = view.getNumberOfVertices();
+		float [] ret = new float[procedures.length * (nrT + nrV) + 3 * nrV];
+		double [] newpt = new double[3];
+		AbstractHalfEdge work = null;
+		for (int p = 0; p < procedures.length; p++)
+		{
+			QualityProcedure qproc = procedures[p];
+			int base = p * (nrT + nrV);
+			if (qproc.getType() == QualityProcedure.FACE)
+			{
+				for (int k = 0; k < nrT; k++)
+				{
+					int i = (k + offset) % nrT;
+					Triangle t = view.getTriangle(i);
+					if (!t.hasAttributes(AbstractHalfEdge.OUTER))
+						ret[base + i] = qproc.quality(t);
+				}
+			}
+			else
+			{
+				for (int k = 0; k < nrV; k++)
+				{
+					int i = (k + offset) % nrV;
+					ret[base + nrT + i] = qproc.quality(view.getVertex(i));
+				}
+			}
+		}
+		int base = procedures.length * (nrT + nrV);
+		for (int k = 0; k < nrV; k++)
+		{
+			int i = (k + offset) % nrV;
+			Vertex v = view.getVertex(i);
+			int nrCollapse = 0;
+			AbstractHalfEdge inner = null;
+			for (NeighbourCursor c = view.getCursor(v); c.next(); )
+			{
+				AbstractHalfEdge ot = c.getHalfEdge();
+				if (ot.hasAttributes(AbstractHalfEdge.OUTER | AbstractHalfEdge.BOUNDARY | AbstractHalfEdge.NONMANIFOLD))
+					continue;
+				if (ot.canCollapse(mesh, ot.destination()))
+					nrCollapse++;
+				// Half-edges of VirtualHalfEdge cursors are modified by next()
+				if (inner == null)
+					inner = work = v.getIncidentAbstractHalfEdge(c.getTriangle(), work);
+			}
+			ret[base + 3 * i] = nrCollapse;
+			if (inner == null || !v.isManifold())
+				continue;
+			double [] p = v.getUV();
+			for (int sign = 0; sign < 2; sign++)
+			{
+				newpt[0] = p[0] + (sign == 0 ? 0.3 : 1.2);
+				newpt[1] = p[1] + (sign == 0 ? 0.2 : -0.9);
+				newpt[2] = p[2];
+				if (inner.checkNewRingNormals(mesh, newpt))
+					ret[base + 3 * i + 1 + sign] = 1.0f;
+			}
+		}
+		return ret;
+	}
+
+	private static void checkCursor(Mesh mesh)
+	{
+		ReadOnlyMeshView view = new ReadOnlyMeshView(mesh);
+		NeighbourCursor cursor = new NeighbourCursor();
+		int nrNonManifold = 0;
+		for (int i = 0; i < view.getNumberOfVertices(); i++)
+		{
+			Vertex v = view.getVertex(i);
+			if (!v.isManifold())
+				nrNonManifold++;
+			cursor.reset(v);
+			for (Iterator<AbstractHalfEdge> it = v.getNeighbourIteratorAbstractHalfEdge(); it.hasNext(); )
+			{
+				AbstractHalfEdge ot = it.next();
+				assertTrue(cursor.next());
+				assertSame(v, cursor.getHalfEdge().origin());
+				assertSame(ot.destination(), cursor.getVertex());
+				assertSame(ot.getTri(), cursor.getTriangle());
+			}
+			assertFalse(cursor.next());
+			assertFalse(cursor.next());
+		}
+		assertEquals(2, nrNonManifold);
+		view.close();
+		assertFalse(mesh.isConcurrent());
+	}
+
+	@Test public void cursorHalfEdge()
+	{
+		checkCursor(createMesh(false));
+	}
+
+	@Test public void cursorVirtualHalfEdge()
+	{
+		checkCursor(createMesh(true));
+	}
+
+	private static void stress(Mesh mesh) throws Exception
+	{
+		final ReadOnlyMeshView view = new ReadOnlyMeshView(mesh);
+		assertEquals((N + 1) * (N + 1) + 1, view.getNumberOfVertices());
+		float [] expected = compute(view, 0);
+		ExecutorService executor = Executors.newFixedThreadPool(NR_THREADS);
+		List<Future<float []>> results = new ArrayList<Future<float []>>();
+		try
+		{
+			for (int k = 0; k < 4 * NR_THREADS; k++)
+			{
+				final int offset = 97 * k;
+				results.add(executor.submit(new Callable<float []>()
+				{
+					public float [] call()
+					{
+						return compute(view, offset);
+					}
+				}));
+			}
+			for (Future<float []> f : results)
+				assertTrue(Arrays.equals(expected, f.get()));
+		}
+		finally
+		{
+			executor.shutdown();
+			view.close();
+		}
+		assertFalse(mesh.isConcurrent());
+	}
+
+	// Runs quality procedures and predicates from several threads
+	@Test public void stressHalfEdge() throws Exception
+	{
+		stress(createMesh(false));
+	}
+
+	@Test public void stressVirtualHalfEdge() throws Exception
+	{
+		stress(createMesh(true));
+	}
+}
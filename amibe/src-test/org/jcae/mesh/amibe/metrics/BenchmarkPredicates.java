@@ -0,0 +1,146 @@
+/* jCAE stand for Java Computer Aided Engineering. Features are : Small CAD
+   modeler, Finite element mesher, Plugin architecture.
+
+    Copyright (C) 2012, by EADS France
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA */
+
+package org.jcae.mesh.amibe.metrics;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Compares {@link Predicates.Fan#checkMove} with the previous one-ring
+ * check of HalfEdge, which normalized each triangle normal.  Both speed
+ * and number of rejected moves are displayed, on fans with regular
+ * triangles and on fans containing slivers.
+ */
+public class BenchmarkPredicates
+{
+	private static final int FANS = 20000;
+	private static final int VALENCE = 7;
+	private static final int RUNS = 5;
+
+	// Fan around origin (0,0,0), returns ring coordinates
+	private static double [][] createFan(Random rand, boolean sliver)
+	{
+		double [][] ret = new double[VALENCE][3];
+		for (int i = 0; i < VALENCE; i++)
+		{
+			double angle = 2.0 * Math.PI * (i + 0.3 * rand.nextDouble()) / VALENCE;
+			double r = 0.5 + rand.nextDouble();
+			ret[i][0] = r * Math.cos(angle);
+			ret[i][1] = r * Math.sin(angle);
+			ret[i][2] = 0.1 * rand.nextDouble();
+		}
+		if (sliver)
+		{
+			// Origin is almost on edge (ret[0], ret[1])
+			double [] p0 = ret[0];
+			double [] p1 = ret[1];
+			for (int k = 0; k < 3; k++)
+				p1[k] = -p0[k] * (1.0 + 1.e-7 * rand.nextDouble());
+		}
+		return ret;
+	}
+
+	// Previous implementation of HalfEdge.checkNewRingNormalsSameFan
+	private static boolean oldCheck(double [][] ring, double [] xo, double [] newpt, double [][] temp)
+	{
+		for (int i = 0; i < ring.length; i++)
+		{
+			double [] x1 = ring[i];
+			double [] x2 = ring[(i + 1) % ring.length];
+			double area = Matrix3D.computeNormal3DT(x1, x2, xo, temp[0], temp[1], temp[2]);
+			for (int k = 0; k < 3; k++)
+				temp[3][k] = newpt[k] - x1[k];
+			if (area == 0.0 || Matrix3D.prodSca(temp[3], temp[2]) >= - area)
+				return false;
+		}
+		return true;
+	}
+
+	private static boolean newCheck(double [][] ring, double [] xo, double [] newpt, Predicates.Fan fan)
+	{
+		fan.clear();
+		for (int i = 0; i < ring.length; i++)
+			fan.add(ring[i], ring[(i + 1) % ring.length], xo);
+		return fan.checkMove(newpt, 0.5);
+	}
+
+	@Test public void run()
+	{
+		Random rand = new Random(1L);
+		double [][][] fans = new double[FANS][][];
+		double [][] targets = new double[FANS][3];
+		for (int i = 0; i < FANS; i++)
+		{
+			fans[i] = createFan(rand, i % 10 == 0);
+			targets[i][0] = 0.3 * (rand.nextDouble() - 0.5);
+			targets[i][1] = 0.3 * (rand.nextDouble() - 0.5);
+			targets[i][2] = 0.3 * (rand.nextDouble() - 0.5);
+		}
+		double [] xo = new double[3];
+		double [][] temp = new double[4][3];
+		Predicates.Fan fan = new Predicates.Fan();
+		int oldRejected = 0;
+		int newRejected = 0;
+		int oldSliverRejected = 0;
+		int newSliverRejected = 0;
+		for (int i = 0; i < FANS; i++)
+		{
+			boolean o = oldCheck(fans[i], xo, targets[i], temp);
+			boolean n = newCheck(fans[i], xo, targets[i], fan);
+			if (!o)
+				oldRejected++;
+			if (!n)
+				newRejected++;
+			if (i % 10 == 0)
+			{
+				if (!o)
+					oldSliverRejected++;
+				if (!n)
+					newSliverRejected++;
+			}
+			// New check only differs for slivers
+			if (i % 10 != 0)
+				assertEquals(o, n);
+		}
+		long oldTime = Long.MAX_VALUE;
+		long newTime = Long.MAX_VALUE;
+		int dummy = 0;
+		for (int r = 0; r < RUNS; r++)
+		{
+			long start = System.nanoTime();
+			for (int k = 0; k < 10; k++)
+				for (int i = 0; i < FANS; i++)
+					if (oldCheck(fans[i], xo, targets[i], temp))
+						dummy++;
+			oldTime = Math.min(oldTime, System.nanoTime() - start);
+			start = System.nanoTime();
+			for (int k = 0; k < 10; k++)
+				for (int i = 0; i < FANS; i++)
+					if (newCheck(fans[i], xo, targets[i], fan))
+						dummy++;
+			newTime = Math.min(newTime, System.nanoTime() - start);
+		}
+		assertTrue(dummy > 0);
+		System.out.println("One-ring checks of "+(10*FANS)+" fans: previous "+(oldTime / 1000000)+" ms, filtered "+(newTime / 1000000)+" ms");
+		System.out.println("Rejected moves: previous "+oldRejected+" ("+oldSliverRejected+" with slivers), filtered "+newRejected+" ("+newSliverRejected+" with slivers)");
+	}
+}
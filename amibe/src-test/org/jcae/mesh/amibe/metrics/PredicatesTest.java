@@ -0,0 +1,226 @@
+/* jCAE stand for Java Computer Aided Engineering. Features are : Small CAD
+   modeler, Finite element mesher, Plugin architecture.
+
+    Copyright (C) 2012, by EADS France
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA */
+
+package org.jcae.mesh.amibe.metrics;
+
+import java.math.BigDecimal;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class PredicatesTest
+{
+	private static final int RUNS = 2000;
+
+	private static BigDecimal[] big(double [] p)
+	{
+		return new BigDecimal[] { new BigDecimal(p[0]), new BigDecimal(p[1]), new BigDecimal(p[2]) };
+	}
+
+	private static BigDecimal[] minus(BigDecimal[] a, BigDecimal[] b)
+	{
+		return new BigDecimal[] { a[0].subtract(b[0]), a[1].subtract(b[1]), a[2].subtract(b[2]) };
+	}
+
+	private static BigDecimal[] cross(BigDecimal[] a, BigDecimal[] b)
+	{
+		return new BigDecimal[] {
+			a[1].multiply(b[2]).subtract(a[2].multiply(b[1])),
+			a[2].multiply(b[0]).subtract(a[0].multiply(b[2])),
+			a[0].multiply(b[1]).subtract(a[1].multiply(b[0]))
+		};
+	}
+
+	private static BigDecimal dot(BigDecimal[] a, BigDecimal[] b)
+	{
+		return a[0].multiply(b[0]).add(a[1].multiply(b[1])).add(a[2].multiply(b[2]));
+	}
+
+	private static int orient3dBig(double [] pa, double [] pb, double [] pc, double [] pd)
+	{
+		BigDecimal[] d = big(pd);
+		BigDecimal[] ad = minus(big(pa), d);
+		BigDecimal[] bd = minus(big(pb), d);
+		BigDecimal[] cd = minus(big(pc), d);
+		return dot(ad, cross(bd, cd)).signum();
+	}
+
+	private static int insphereBig(double [] pa, double [] pb, double [] pc, double [] pd, double [] pe)
+	{
+		BigDecimal[] e = big(pe);
+		BigDecimal[][] m = new BigDecimal[][] {
+			minus(big(pa), e), minus(big(pb), e), minus(big(pc), e), minus(big(pd), e)
+		};
+		// Expand along the lifted column
+		BigDecimal ret = BigDecimal.ZERO;
+		for (int i = 0; i < 4; i++)
+		{
+			BigDecimal lift = dot(m[i], m[i]);
+			BigDecimal[][] minor = new BigDecimal[3][];
+			for (int j = 0, k = 0; j < 4; j++)
+				if (j != i)
+					minor[k++] = m[j];
+			BigDecimal det = dot(minor[0], cross(minor[1], minor[2]));
+			BigDecimal term = lift.multiply(det);
+			ret = (i % 2 == 0) ? ret.subtract(term) : ret.add(term);
+		}
+		return ret.signum();
+	}
+
+	private static int moveBig(double [] p1, double [] p2, double [] from, double [] to, double ratio)
+	{
+		BigDecimal[] b1 = big(p1);
+		BigDecimal[] e = minus(big(p2), b1);
+		BigDecimal[] w = minus(big(from), b1);
+		BigDecimal[] q = minus(big(to), b1);
+		BigDecimal r = new BigDecimal(ratio);
+		BigDecimal[] s = new BigDecimal[] {
+			q[0].subtract(r.multiply(w[0])), q[1].subtract(r.multiply(w[1])), q[2].subtract(r.multiply(w[2]))
+		};
+		return dot(cross(e, w), cross(e, s)).signum();
+	}
+
+	private static int sign(double d)
+	{
+		return d > 0.0 ? 1 : (d < 0.0 ? -1 : 0);
+	}
+
+	private static double [] random(Random rand)
+	{
+		return new double[] { rand.nextDouble(), rand.nextDouble(), rand.nextDouble() };
+	}
+
+	// Point close to the plane defined by three points
+	private static double [] nearPlane(Random rand, double [] a, double [] b, double [] c)
+	{
+		double u = rand.nextDouble();
+		double v = rand.nextDouble();
+		double [] ret = new double[3];
+		for (int i = 0; i < 3; i++)
+			ret[i] = a[i] + u * (b[i] - a[i]) + v * (c[i] - a[i]);
+		if (rand.nextBoolean())
+			ret[rand.nextInt(3)] += Math.ulp(1.0) * (rand.nextInt(5) - 2);
+		return ret;
+	}
+
+	@Test public void orient3d()
+	{
+		Random rand = new Random(1L);
+		for (int i = 0; i < RUNS; i++)
+		{
+			double [] a = random(rand);
+			double [] b = random(rand);
+			double [] c = random(rand);
+			double [] d = nearPlane(rand, a, b, c);
+			assertEquals(orient3dBig(a, b, c, d), sign(Predicates.orient3d(a, b, c, d)));
+			assertEquals(orient3dBig(a, b, c, d), -sign(Predicates.orient3d(b, a, c, d)));
+		}
+		double [] a = new double[] { 0.0, 0.0, 0.0 };
+		double [] b = new double[] { 1.0, 0.0, 0.0 };
+		double [] c = new double[] { 0.0, 1.0, 0.0 };
+		assertTrue(Predicates.orient3d(a, b, c, new double[] { 0.0, 0.0, -1.0 }) > 0.0);
+		assertEquals(0.0, Predicates.orient3d(a, b, c, new double[] { 0.3, 0.7, 0.0 }), 0.0);
+	}
+
+	@Test public void insphere()
+	{
+		Random rand = new Random(2L);
+		for (int i = 0; i < RUNS; i++)
+		{
+			// Points on the unit sphere, rounded
+			double [][] p = new double[5][3];
+			for (double [] q : p)
+			{
+				double theta = 2.0 * Math.PI * rand.nextDouble();
+				double z = 2.0 * rand.nextDouble() - 1.0;
+				double r = Math.sqrt(1.0 - z * z);
+				q[0] = r * Math.cos(theta);
+				q[1] = r * Math.sin(theta);
+				q[2] = z;
+			}
+			if (Predicates.orient3d(p[0], p[1], p[2], p[3]) < 0.0)
+			{
+				double [] temp = p[0];
+				p[0] = p[1];
+				p[1] = temp;
+			}
+			assertEquals(insphereBig(p[0], p[1], p[2], p[3], p[4]),
+				sign(Predicates.insphere(p[0], p[1], p[2], p[3], p[4])));
+		}
+		double [] a = new double[] { 0.0, 0.0, 0.0 };
+		double [] b = new double[] { 1.0, 0.0, 0.0 };
+		double [] c = new double[] { 0.0, 1.0, 0.0 };
+		double [] d = new double[] { 0.0, 0.0, -1.0 };
+		assertTrue(Predicates.insphere(a, b, c, d, new double[] { 0.2, 0.2, -0.2 }) > 0.0);
+		assertTrue(Predicates.insphere(a, b, c, d, new double[] { 2.0, 2.0, 2.0 }) < 0.0);
+		assertEquals(0.0, Predicates.insphere(a, b, c, d, new double[] { 1.0, 1.0, 0.0 }), 0.0);
+	}
+
+	@Test public void moveOrientation()
+	{
+		Random rand = new Random(3L);
+		Predicates.Fan fan = new Predicates.Fan();
+		for (int i = 0; i < RUNS; i++)
+		{
+			double [] p1 = random(rand);
+			double [] p2 = random(rand);
+			double [] from = random(rand);
+			// Almost degenerate triangles and target points
+			if (rand.nextBoolean())
+				from = nearPlane(rand, p1, p2, p2);
+			double [] to = nearPlane(rand, p1, p2, from);
+			double ratio = rand.nextBoolean() ? 0.0 : 0.5;
+			int expected = moveBig(p1, p2, from, to, ratio);
+			assertEquals(expected, sign(Predicates.moveOrientation(p1, p2, from, to, ratio)));
+			fan.clear();
+			fan.add(p1, p2, from);
+			assertEquals(expected > 0, fan.checkMove(to, ratio));
+		}
+		// Batch of triangles around origin
+		fan.clear();
+		double [] o = new double[] { 0.0, 0.0, 0.0 };
+		int n = 40;
+		for (int i = 0; i < n; i++)
+		{
+			double a1 = 2.0 * Math.PI * i / n;
+			double a2 = 2.0 * Math.PI * (i + 1) / n;
+			fan.add(new double[] { Math.cos(a1), Math.sin(a1), 0.0 }, new double[] { Math.cos(a2), Math.sin(a2), 0.0 }, o);
+		}
+		assertEquals(n, fan.size());
+		assertTrue(fan.checkMove(new double[] { 0.2, 0.1, 0.0 }, 0.5));
+		assertTrue(fan.checkMove(new double[] { 0.0, 0.0, 5.0 }, 0.5));
+		assertFalse(fan.checkMove(new double[] { 0.6, 0.0, 0.0 }, 0.5));
+		assertFalse(fan.checkMove(new double[] { 1.5, 0.0, 0.0 }, 0.0));
+	}
+
+	@Test public void degenerate()
+	{
+		double [] a = new double[] { 0.1, 0.2, 0.3 };
+		double [] b = new double[] { 0.7, 1.1, 1.5 };
+		double [] c = new double[] { 0.3, 0.5, 0.7 };
+		assertFalse(Predicates.isDegenerate(a, b, c));
+		assertTrue(Predicates.isDegenerate(a, a, c));
+		assertTrue(Predicates.isDegenerate(new double[] { 0.0, 0.0, 0.0 },
+			new double[] { 1.0, 2.0, 3.0 }, new double[] { 2.0, 4.0, 6.0 }));
+		// Moving a vertex of a degenerate triangle is never valid
+		assertEquals(0.0, Predicates.moveOrientation(new double[] { 0.0, 0.0, 0.0 },
+			new double[] { 1.0, 2.0, 3.0 }, new double[] { 2.0, 4.0, 6.0 }, a, 0.0), 0.0);
+	}
+}
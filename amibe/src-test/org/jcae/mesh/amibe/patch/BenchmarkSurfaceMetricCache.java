@@ -0,0 +1,164 @@
+/*
+ * Project Info:  http://jcae.sourceforge.net
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307, USA.
+ *
+ * (C) Copyright 2012, by EADS France
+ */
+
+package org.jcae.mesh.amibe.patch;
+
+import org.jcae.mesh.amibe.ds.MeshParameters;
+import org.jcae.mesh.amibe.metrics.PoolWorkVectors;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Compare metrics computed on a surface point by point, from fundamental
+ * forms evaluated in batch, and from {@link SurfaceMetricCache}.  An
+ * analytic torus is used, so OpenCascade is not needed.  Metrics are
+ * computed twice on each point, as when they are cleared by
+ * {@link Mesh2D#pushCompGeom}.
+ */
+public class BenchmarkSurfaceMetricCache
+{
+	private static final int POINTS = 200000;
+	private static final double [] BBOX = { 0.0, 0.0, 2.0 * Math.PI, 2.0 * Math.PI };
+	private final TorusSurface surface = new TorusSurface(2.0, 0.5);
+	private final PoolWorkVectors temp = new PoolWorkVectors();
+
+	private static MeshParameters parameters(String deflection, boolean relative)
+	{
+		Map<String, String> options = new HashMap<String, String>();
+		options.put("size", "0.1");
+		options.put("deflection", deflection);
+		options.put("relativeDeflection", Boolean.toString(relative));
+		options.put("isotropic", "true");
+		return new MeshParameters(options);
+	}
+
+	private static double [] randomPoints()
+	{
+		Random rand = new Random(0L);
+		double [] uv = new double[2 * POINTS];
+		for (int i = 0; i < uv.length; i++)
+			uv[i] = 2.0 * Math.PI * rand.nextDouble();
+		return uv;
+	}
+
+	private static void report(String name, long start)
+	{
+		System.out.println(name+": "+(System.currentTimeMillis() - start)+" ms");
+	}
+
+	private static double relativeError(MetricOnSurface expected, MetricOnSurface found)
+	{
+		double [] b = expected.getUnitBallBBox();
+		double [] p = { 0.0, 0.0 };
+		double [] q = new double[2];
+		double ret = 0.0;
+		// Compare lengths along u, v and diagonal directions
+		for (int i = 0; i < 3; i++)
+		{
+			q[0] = i == 1 ? 0.0 : b[0];
+			q[1] = i == 0 ? 0.0 : b[1];
+			double d0 = expected.distance2(p, q);
+			double d1 = found.distance2(p, q);
+			ret = Math.max(ret, Math.abs(d1 - d0) / d0);
+		}
+		return ret;
+	}
+
+	private void checkForms(MeshParameters mp)
+	{
+		double [] uv = randomPoints();
+		double [] d1 = new double[6];
+		double [] d2 = new double[9];
+		double [] forms = new double[SurfaceMetricCache.SIZE];
+		MetricBuilder mb = new MetricBuilder(surface, mp, temp);
+		for (int i = 0; i < 1000; i++)
+		{
+			surface.setParameter(uv[2*i], uv[2*i+1]);
+			MetricOnSurface expected = mb.computeMetricOnSurface();
+			surface.derivatives(new double[] { uv[2*i], uv[2*i+1] }, 1, d1, d2);
+			SurfaceMetricCache.fundamentalForms(d1, 0, d2, 0, forms, 0);
+			MetricOnSurface found = mb.computeMetricOnSurface(forms);
+			assertEquals(0.0, relativeError(expected, found), 1.e-10);
+		}
+	}
+
+	@Test public void formsRelative()
+	{
+		checkForms(parameters("0.05", true));
+	}
+
+	@Test public void formsAbsolute()
+	{
+		checkForms(parameters("0.01", false));
+	}
+
+	@Test public void timings()
+	{
+		MeshParameters mp = parameters("0.05", true);
+		double [] uv = randomPoints();
+		MetricBuilder mb = new MetricBuilder(surface, mp, temp);
+		MetricOnSurface [] expected = new MetricOnSurface[POINTS];
+
+		long start = System.currentTimeMillis();
+		for (int pass = 0; pass < 2; pass++)
+			for (int i = 0; i < POINTS; i++)
+			{
+				surface.setParameter(uv[2*i], uv[2*i+1]);
+				expected[i] = mb.computeMetricOnSurface();
+			}
+		report("Point by point", start);
+
+		start = System.currentTimeMillis();
+		double [] d1 = new double[6 * POINTS];
+		double [] d2 = new double[9 * POINTS];
+		double [] f = new double[SurfaceMetricCache.SIZE];
+		for (int pass = 0; pass < 2; pass++)
+		{
+			surface.derivatives(uv, POINTS, d1, d2);
+			for (int i = 0; i < POINTS; i++)
+			{
+				SurfaceMetricCache.fundamentalForms(d1, 6*i, d2, 9*i, f, 0);
+				mb.computeMetricOnSurface(f);
+			}
+		}
+		report("Batch", start);
+
+		start = System.currentTimeMillis();
+		SurfaceMetricCache cache = new SurfaceMetricCache(surface, BBOX, mp.getLength(), 0.01);
+		double maxError = 0.0;
+		for (int pass = 0; pass < 2; pass++)
+			for (int i = 0; i < POINTS; i++)
+			{
+				cache.getForms(uv[2*i], uv[2*i+1], f);
+				MetricOnSurface m = mb.computeMetricOnSurface(f);
+				if (pass == 1)
+					maxError = Math.max(maxError, relativeError(expected[i], m));
+			}
+		report("Cache", start);
+		System.out.println("Cache: "+cache.getNumberOfCells()+" cells, "+
+			cache.getNumberOfEvaluations()+" evaluations, max relative error "+maxError);
+		assertTrue(cache.getNumberOfEvaluations() < POINTS);
+		assertTrue("Error too large: "+maxError, maxError < 0.05);
+	}
+}
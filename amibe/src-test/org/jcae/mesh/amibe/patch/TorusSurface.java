@@ -0,0 +1,173 @@
+/*
+ * Project Info:  http://jcae.sourceforge.net
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307, USA.
+ *
+ * (C) Copyright 2012, by EADS France
+ */
+
+package org.jcae.mesh.amibe.patch;
+
+import org.jcae.mesh.cad.CADGeomSurface;
+
+/**
+ * Analytic torus, to test surface algorithms without OpenCascade.
+ * Parametrization is
+ * <code>((R + r cos v) cos u, (R + r cos v) sin u, r sin v)</code>.
+ * Like OpenCascade, getters return new arrays.
+ */
+class TorusSurface implements CADGeomSurface
+{
+	private final double R;
+	private final double r;
+	private double u, v;
+
+	TorusSurface(double R, double r)
+	{
+		this.R = R;
+		this.r = r;
+	}
+
+	public void dinit(int degree)
+	{
+	}
+
+	public void setParameter(double u, double v)
+	{
+		this.u = u;
+		this.v = v;
+	}
+
+	public double [] value(double u, double v)
+	{
+		double w = R + r * Math.cos(v);
+		return new double[] { w * Math.cos(u), w * Math.sin(u), r * Math.sin(v) };
+	}
+
+	public double [] d1U()
+	{
+		double w = R + r * Math.cos(v);
+		return new double[] { - w * Math.sin(u), w * Math.cos(u), 0.0 };
+	}
+
+	public double [] d1V()
+	{
+		return new double[] { - r * Math.sin(v) * Math.cos(u), - r * Math.sin(v) * Math.sin(u), r * Math.cos(v) };
+	}
+
+	public double [] d2U()
+	{
+		double w = R + r * Math.cos(v);
+		return new double[] { - w * Math.cos(u), - w * Math.sin(u), 0.0 };
+	}
+
+	public double [] d2V()
+	{
+		return new double[] { - r * Math.cos(v) * Math.cos(u), - r * Math.cos(v) * Math.sin(u), - r * Math.sin(v) };
+	}
+
+	public double [] dUV()
+	{
+		return new double[] { r * Math.sin(v) * Math.sin(u), - r * Math.sin(v) * Math.cos(u), 0.0 };
+	}
+
+	public void derivatives(double [] uv, int n, double [] d1, double [] d2)
+	{
+		for (int i = 0; i < n; i++)
+		{
+			double cu = Math.cos(uv[2*i]);
+			double su = Math.sin(uv[2*i]);
+			double cv = Math.cos(uv[2*i+1]);
+			double sv = Math.sin(uv[2*i+1]);
+			double w = R + r * cv;
+			if (d1 != null)
+			{
+				int o = 6*i;
+				d1[o]   = - w * su;
+				d1[o+1] = w * cu;
+				d1[o+2] = 0.0;
+				d1[o+3] = - r * sv * cu;
+				d1[o+4] = - r * sv * su;
+				d1[o+5] = r * cv;
+			}
+			if (d2 != null)
+			{
+				int o = 9*i;
+				d2[o]   = - w * cu;
+				d2[o+1] = - w * su;
+				d2[o+2] = 0.0;
+				d2[o+3] = - r * cv * cu;
+				d2[o+4] = - r * cv * su;
+				d2[o+5] = - r * sv;
+				d2[o+6] = r * sv * su;
+				d2[o+7] = - r * sv * cu;
+				d2[o+8] = 0.0;
+			}
+		}
+	}
+
+	// Outward normal is opposite to d1U x d1V
+	public double [] normal()
+	{
+		return new double[] { - Math.cos(v) * Math.cos(u), - Math.cos(v) * Math.sin(u), - Math.sin(v) };
+	}
+
+	// Principal curvatures are along parallels and meridians, with
+	// respect to the normal above.
+	private double curvatureU()
+	{
+		return Math.cos(v) / (R + r * Math.cos(v));
+	}
+
+	private double curvatureV()
+	{
+		return 1.0 / r;
+	}
+
+	public double minCurvature()
+	{
+		return Math.min(curvatureU(), curvatureV());
+	}
+
+	public double maxCurvature()
+	{
+		return Math.max(curvatureU(), curvatureV());
+	}
+
+	public double gaussianCurvature()
+	{
+		return curvatureU() * curvatureV();
+	}
+
+	public double meanCurvature()
+	{
+		return 0.5 * (curvatureU() + curvatureV());
+	}
+
+	public double [] curvatureDirections()
+	{
+		double [] du = { - Math.sin(u), Math.cos(u), 0.0 };
+		double [] dv = { - Math.sin(v) * Math.cos(u), - Math.sin(v) * Math.sin(u), Math.cos(v) };
+		if (curvatureU() > curvatureV())
+			return new double[] { du[0], du[1], du[2], dv[0], dv[1], dv[2] };
+		return new double[] { dv[0], dv[1], dv[2], du[0], du[1], du[2] };
+	}
+
+	public double lowerDistance(double [] p)
+	{
+		double w = Math.sqrt(p[0] * p[0] + p[1] * p[1]) - R;
+		return Math.abs(Math.sqrt(w * w + p[2] * p[2]) - r);
+	}
+}
@@ -0,0 +1,209 @@
+/* jCAE stand for Java Computer Aided Engineering. Features are : Small CAD
+   modeler, Finite element mesher, Plugin architecture.
+
+    Copyright (C) 2012, by EADS France
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA */
+
+package org.jcae.mesh.amibe.validation;
+
+import org.jcae.mesh.amibe.ds.Mesh;
+import org.jcae.mesh.amibe.ds.Triangle;
+import org.jcae.mesh.amibe.ds.Vertex;
+import org.jcae.mesh.amibe.traits.MeshTraitsBuilder;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class SelfIntersectionTest
+{
+	private static int [] compute(double [] coords, int [] triangles, double tolerance, int [] close)
+	{
+		SelfIntersection si = new SelfIntersection(coords, triangles);
+		si.setTolerance(tolerance);
+		si.setNumberOfThreads(2);
+		si.compute();
+		if (close != null)
+			assertArrayEquals(close, si.getClosePairs());
+		return si.getIntersectingPairs();
+	}
+
+	@Test public void crossing()
+	{
+		double [] coords = new double[] {
+			0, 0, 0,   2, 0, 0,   0, 2, 0,
+			0.5, 0.5, -1,   0.5, 0.5, 1,   3, 3, 0
+		};
+		assertArrayEquals(new int[] { 0, 1 }, compute(coords, new int[] { 0, 1, 2, 3, 4, 5 }, 0.0, null));
+		// Triangles share vertex 1 and cross through opposite edge
+		assertArrayEquals(new int[] { 0, 1 }, compute(coords, new int[] { 0, 1, 2, 3, 4, 1 }, 0.0, null));
+	}
+
+	@Test public void adjacent()
+	{
+		// Folded quad, triangles share an edge
+		double [] coords = new double[] {
+			0, 0, 0,   1, 0, 0,   0, 1, 0,   0.2, 0.2, 0
+		};
+		assertEquals(0, compute(coords, new int[] { 0, 1, 2, 1, 2, 3 }, 0.1, new int[0]).length);
+		// Same triangles with duplicated vertices overlap
+		coords = new double[] {
+			0, 0, 0,   1, 0, 0,   0, 1, 0,   0.2, 0.2, 0,   1, 0, 0,   0, 1, 0
+		};
+		assertArrayEquals(new int[] { 0, 1 }, compute(coords, new int[] { 0, 1, 2, 4, 5, 3 }, 0.0, null));
+	}
+
+	@Test public void coplanar()
+	{
+		double [] coords = new double[] {
+			0, 0, 0,   1, 0, 0,   0, 1, 0,
+			0.1, 0.1, 0,   0.3, 0.1, 0,   0.1, 0.3, 0,
+			2, 0, 0,   3, 0, 0,   2, 1, 0
+		};
+		assertArrayEquals(new int[] { 0, 1 }, compute(coords, new int[] { 0, 1, 2, 3, 4, 5, 6, 7, 8 }, 0.0, null));
+	}
+
+	@Test public void close()
+	{
+		double [] coords = new double[] {
+			0, 0, 0,   1, 0, 0,   0, 1, 0,
+			0, 0, 0.05,   1, 0, 0.05,   0, 1, 0.05,
+			0, 0, 1,   1, 0, 1,   0, 1, 1
+		};
+		int [] triangles = new int[] { 0, 1, 2, 3, 4, 5, 6, 7, 8 };
+		assertEquals(0, compute(coords, triangles, 0.0, new int[0]).length);
+		assertEquals(0, compute(coords, triangles, 0.04, new int[0]).length);
+		assertEquals(0, compute(coords, triangles, 0.06, new int[] { 0, 1 }).length);
+	}
+
+	// Compares results with a brute force check on random triangles
+	@Test public void random()
+	{
+		Random rand = new Random(12345L);
+		int n = 3000;
+		double [] coords = new double[9 * n];
+		int [] triangles = new int[3 * n];
+		for (int i = 0; i < n; i++)
+		{
+			double x = rand.nextDouble() * 10.0;
+			double y = rand.nextDouble() * 10.0;
+			double z = rand.nextDouble() * 10.0;
+			for (int j = 0; j < 3; j++)
+			{
+				coords[9*i+3*j] = x + rand.nextDouble() * 0.5;
+				coords[9*i+3*j+1] = y + rand.nextDouble() * 0.5;
+				coords[9*i+3*j+2] = z + rand.nextDouble() * 0.5;
+				triangles[3*i+j] = 3*i+j;
+			}
+		}
+		double tolerance = 0.05;
+		SelfIntersection si = new SelfIntersection(coords, triangles);
+		si.setTolerance(tolerance);
+		si.setNumberOfThreads(4);
+		si.compute();
+		int [] intersecting = si.getIntersectingPairs();
+		int [] close = si.getClosePairs();
+		assertTrue(intersecting.length > 0);
+		assertTrue(close.length > 0);
+
+		// Brute force check of each pair with the same narrow phase
+		int nrIntersecting = 0;
+		int nrClose = 0;
+		for (int i = 0; i < n; i++)
+		{
+			for (int j = i + 1; j < n; j++)
+			{
+				double [] c = new double[18];
+				System.arraycopy(coords, 9*i, c, 0, 9);
+				System.arraycopy(coords, 9*j, c, 9, 9);
+				if (!boxesOverlap(c, tolerance))
+					continue;
+				SelfIntersection single = new SelfIntersection(c, new int[] { 0, 1, 2, 3, 4, 5 });
+				single.setTolerance(tolerance);
+				single.setNumberOfThreads(1);
+				single.compute();
+				if (single.getIntersectingPairs().length > 0)
+				{
+					assertTrue(contains(intersecting, i, j));
+					nrIntersecting++;
+				}
+				else if (single.getClosePairs().length > 0)
+				{
+					assertTrue(contains(close, i, j));
+					nrClose++;
+				}
+			}
+		}
+		assertEquals(nrIntersecting, intersecting.length / 2);
+		assertEquals(nrClose, close.length / 2);
+	}
+
+	private static boolean boxesOverlap(double [] c, double tolerance)
+	{
+		for (int k = 0; k < 3; k++)
+		{
+			double min1 = Math.min(c[k], Math.min(c[3+k], c[6+k]));
+			double max1 = Math.max(c[k], Math.max(c[3+k], c[6+k]));
+			double min2 = Math.min(c[9+k], Math.min(c[12+k], c[15+k]));
+			double max2 = Math.max(c[9+k], Math.max(c[12+k], c[15+k]));
+			if (min1 > max2 + tolerance || min2 > max1 + tolerance)
+				return false;
+		}
+		return true;
+	}
+
+	private static boolean contains(int [] pairs, int i, int j)
+	{
+		for (int k = 0; k < pairs.length; k += 2)
+		{
+			if (pairs[k] == i && pairs[k+1] == j)
+				return true;
+		}
+		return false;
+	}
+
+	@Test public void tagMesh()
+	{
+		Mesh mesh = new Mesh(MeshTraitsBuilder.getDefault3D());
+		Vertex [] v = new Vertex[] {
+			mesh.createVertex(0, 0, 0), mesh.createVertex(2, 0, 0), mesh.createVertex(0, 2, 0),
+			mesh.createVertex(0.5, 0.5, -1), mesh.createVertex(0.5, 0.5, 1), mesh.createVertex(3, 3, 0),
+			mesh.createVertex(5, 5, 5), mesh.createVertex(6, 5, 5), mesh.createVertex(5, 6, 5)
+		};
+		Triangle [] t = new Triangle[] {
+			mesh.createTriangle(v[0], v[1], v[2]),
+			mesh.createTriangle(v[3], v[4], v[5]),
+			mesh.createTriangle(v[6], v[7], v[8])
+		};
+		for (Triangle tri : t)
+		{
+			tri.setGroupId(1);
+			mesh.add(tri);
+		}
+		mesh.setGroupName(1, "surface");
+		mesh.buildAdjacency();
+		SelfIntersection si = new SelfIntersection(mesh).compute();
+		assertEquals(3, si.getNumberOfTriangles());
+		int [] offending = si.getOffendingTriangles();
+		assertEquals(2, offending.length);
+		int id = si.tagGroup("intersections");
+		assertEquals(2, id);
+		assertEquals("intersections", mesh.getGroupName(id));
+		for (int i : offending)
+			assertEquals(id, si.getTriangle(i).getGroupId());
+		assertEquals(1, t[2].getGroupId());
+	}
+}
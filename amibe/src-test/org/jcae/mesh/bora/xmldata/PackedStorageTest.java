@@ -0,0 +1,204 @@
+/* jCAE stand for Java Computer Aided Engineering. Features are : Small CAD
+   modeler, Finite element mesher, Plugin architecture.
+
+    Copyright (C) 2012, by EADS France
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package org.jcae.mesh.bora.xmldata;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class PackedStorageTest
+{
+	private static File createTempDir() throws IOException
+	{
+		File ret = File.createTempFile("bora", ".dir");
+		ret.delete();
+		ret.mkdirs();
+		return ret;
+	}
+
+	private static void delete(File dir)
+	{
+		for (File f : dir.listFiles())
+		{
+			if (f.isDirectory())
+				delete(f);
+			else
+				f.delete();
+		}
+		dir.delete();
+	}
+
+	private static byte [] record(int id, int n)
+	{
+		ByteBuffer bb = ByteBuffer.allocate(4 * n);
+		for (int i = 0; i < n; i++)
+			bb.putInt(id * 1000 + i);
+		return bb.array();
+	}
+
+	private static void checkRecord(PackedStorage packed, int dim, int id, char name, int n) throws IOException
+	{
+		ByteBuffer bb = packed.get(dim, id, name);
+		assertNotNull(bb);
+		assertEquals(4 * n, bb.remaining());
+		assertEquals(4 * n, packed.length(dim, id, name));
+		IntBuffer ib = bb.asIntBuffer();
+		for (int i = 0; i < n; i++)
+			assertEquals(id * 1000 + i, ib.get(i));
+	}
+
+	@Test public void concurrentAppends() throws Exception
+	{
+		File dir = createTempDir();
+		final PackedStorage packed = new PackedStorage(dir.getPath());
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+		for (int t = 0; t < 4; t++)
+		{
+			final int thread = t;
+			tasks.add(new Callable<Void>()
+			{
+				public Void call() throws IOException
+				{
+					for (int id = thread; id < 400; id += 4)
+					{
+						byte [] buf = record(id, id % 50);
+						packed.append(2, id, id + 7, 'f', buf, buf.length);
+						// Read records while others are appended
+						checkRecord(packed, 2, id, 'f', id % 50);
+					}
+					return null;
+				}
+			});
+		}
+		try
+		{
+			for (Future<Void> f : executor.invokeAll(tasks))
+				f.get();
+		}
+		finally
+		{
+			executor.shutdown();
+		}
+		// Overwrite a record
+		byte [] buf = record(5, 10);
+		packed.append(2, 5, 12, 'f', buf, buf.length);
+		packed.close();
+
+		PackedStorage reopened = new PackedStorage(dir.getPath());
+		for (int id = 0; id < 400; id++)
+		{
+			checkRecord(reopened, 2, id, 'f', id == 5 ? 10 : id % 50);
+			assertEquals(id + 7, reopened.getCellId(2, id));
+			assertFalse(reopened.contains(1, id, 'f'));
+		}
+		assertNull(reopened.get(2, 0, 'n'));
+		assertEquals(-1, reopened.length(2, 0, 'n'));
+		reopened.close();
+		assertEquals(4L * (10 + 400 / 50 * (49 * 50 / 2)),
+			new File(dir, PackedStorage.DATA_FILE).length());
+		delete(dir);
+	}
+
+	@Test public void migrate() throws IOException
+	{
+		File dir = createTempDir();
+		for (int id = 0; id < 20; id++)
+		{
+			File sub = new File(dir, (1 + id % 3)+"d"+id);
+			sub.mkdirs();
+			PrintStream ps = new PrintStream(new FileOutputStream(new File(sub, "id")));
+			ps.println(100 + id);
+			ps.close();
+			for (char name : new char[] { 'r', 'n', 'f' })
+			{
+				DataOutputStream out = new DataOutputStream(new FileOutputStream(new File(sub, Character.toString(name))));
+				out.write(record(id, id + name));
+				out.close();
+			}
+		}
+		// Other files are kept
+		new File(dir, "model").createNewFile();
+		assertFalse(PackedStorage.exists(dir.getPath()));
+		assertEquals(20, PackedStorage.migrate(dir.getPath(), true));
+		assertTrue(PackedStorage.exists(dir.getPath()));
+		assertTrue(new File(dir, "model").exists());
+		assertFalse(new File(dir, "2d1").exists());
+
+		PackedStorage packed = new PackedStorage(dir.getPath());
+		for (int id = 0; id < 20; id++)
+		{
+			int dim = 1 + id % 3;
+			assertEquals(100 + id, packed.getCellId(dim, id));
+			for (char name : new char[] { 'r', 'n', 'f' })
+				checkRecord(packed, dim, id, name, id + name);
+			assertFalse(packed.contains(dim, id, 'p'));
+		}
+		packed.close();
+		delete(dir);
+	}
+
+	@Test public void unpack() throws IOException
+	{
+		File dir = createTempDir();
+		PackedStorage packed = new PackedStorage(dir.getPath());
+		for (int id = 0; id < 20; id++)
+		{
+			int dim = 1 + id % 3;
+			for (char name : new char[] { 'r', 'n', 'f' })
+			{
+				byte [] buf = record(id, id + name);
+				packed.append(dim, id, 100 + id, name, buf, buf.length);
+			}
+		}
+		packed.close();
+		assertEquals(20, PackedStorage.unpack(dir.getPath()));
+		assertFalse(PackedStorage.exists(dir.getPath()));
+		assertFalse(new File(dir, PackedStorage.DATA_FILE).exists());
+		assertTrue(new File(dir, "3d2"+File.separator+"f").exists());
+
+		// Back and forth
+		assertEquals(20, PackedStorage.migrate(dir.getPath(), true));
+		packed = new PackedStorage(dir.getPath());
+		for (int id = 0; id < 20; id++)
+		{
+			int dim = 1 + id % 3;
+			assertEquals(100 + id, packed.getCellId(dim, id));
+			for (char name : new char[] { 'r', 'n', 'f' })
+				checkRecord(packed, dim, id, name, id + name);
+		}
+		packed.close();
+		delete(dir);
+	}
+}
@@ -0,0 +1,108 @@
+/* jCAE stand for Java Computer Aided Engineering. Features are : Small CAD
+   modeler, Finite element mesher, Plugin architecture.
+
+    Copyright (C) 2012, by EADS France
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA */
+
+package org.jcae.mesh.cad;
+
+import java.io.File;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Compares discretizations of OCC curves computed from a {@link CurveTable}
+ * with those computed by <code>OCCDiscretizeCurve3D</code>.  This test
+ * needs OCC, it is run by the <code>test-large</code> target.
+ */
+public class CurveTableOCCTest
+{
+	private static final String dir = System.getProperty("test.dir", "test");
+	private static final String [] MODELS = { "cube", "cylinder", "cone", "sphere", "torus", "junction" };
+	private static final int NR_POINTS = 11;
+
+	private static double [] parameters(CADGeomCurve3D curve)
+	{
+		double [] ret = new double[curve.nbPoints()];
+		for (int i = 0; i < ret.length; i++)
+			ret[i] = curve.parameter(i);
+		return ret;
+	}
+
+	private static void compare(String model, int edge, CADEdge E)
+	{
+		CADShapeFactory factory = CADShapeFactory.getFactory();
+		CurveTableCache old = CurveTableCache.getDefault();
+		String msg = model+" edge "+edge;
+
+		CurveTableCache.setDefault(new CurveTableCache(0));
+		CADGeomCurve3D occ = factory.newCurve3D(E);
+		double occLength = occ.length();
+		occ.discretize(NR_POINTS);
+		double [] occNrPoints = parameters(occ);
+		occ.discretize(occLength / 7.5);
+		int occMaxLength = occ.nbPoints();
+
+		CurveTableCache.setDefault(new CurveTableCache(1000000));
+		try
+		{
+			CADGeomCurve3D table = factory.newCurve3D(E);
+			assertEquals(msg, occLength, table.length(), 1.e-4 * occLength);
+			table.discretize(NR_POINTS);
+			double [] tableNrPoints = parameters(table);
+			assertEquals(msg, NR_POINTS, occNrPoints.length);
+			assertEquals(msg, NR_POINTS, tableNrPoints.length);
+			double [] range = table.getRange();
+			double tol = 0.05 * Math.abs(range[1] - range[0]) / (NR_POINTS - 1);
+			for (int i = 0; i < NR_POINTS; i++)
+				assertEquals(msg+" point "+i, occNrPoints[i], tableNrPoints[i], tol);
+			table.discretize(occLength / 7.5);
+			assertTrue(msg, Math.abs(occMaxLength - table.nbPoints()) <= 1);
+		}
+		finally
+		{
+			CurveTableCache.setDefault(old);
+		}
+	}
+
+	@Test public void compareWithOCC()
+	{
+		if (!Boolean.getBoolean("run.test.large"))
+		{
+			System.out.println("CurveTableOCCTest needs OCC, set run.test.large to run it");
+			return;
+		}
+		CADShapeFactory factory = CADShapeFactory.getFactory();
+		CADExplorer exp = factory.newExplorer();
+		int nrEdges = 0;
+		for (String model : MODELS)
+		{
+			CADShape shape = factory.newShape(dir + File.separator + "input" + File.separator + model + ".brep");
+			int edge = 0;
+			for (exp.init(shape, CADShapeEnum.EDGE); exp.more(); exp.next())
+			{
+				CADEdge E = (CADEdge) exp.current();
+				edge++;
+				if (E.isDegenerated())
+					continue;
+				compare(model, edge, E);
+				nrEdges++;
+			}
+		}
+		assertTrue(nrEdges > 0);
+	}
+}
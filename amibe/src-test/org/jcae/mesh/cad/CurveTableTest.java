@@ -0,0 +1,173 @@
+/* jCAE stand for Java Computer Aided Engineering. Features are : Small CAD
+   modeler, Finite element mesher, Plugin architecture.
+
+    Copyright (C) 2012, by EADS France
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA */
+
+package org.jcae.mesh.cad;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class CurveTableTest
+{
+	// Ellipse (a cos t, b sin t, 0), evaluations are counted
+	private static class Ellipse implements CurveTable.Evaluator
+	{
+		private final double a, b;
+		private int count;
+		Ellipse(double a, double b)
+		{
+			this.a = a;
+			this.b = b;
+		}
+		public void values(int n, double [] xyz)
+		{
+			count += n;
+			for (int i = 0; i < n; i++)
+			{
+				double t = xyz[3*i];
+				xyz[3*i] = a * Math.cos(t);
+				xyz[3*i+1] = b * Math.sin(t);
+				xyz[3*i+2] = 0.0;
+			}
+		}
+		double [] value(double t)
+		{
+			double [] xyz = new double[] { t, 0.0, 0.0 };
+			values(1, xyz);
+			return xyz;
+		}
+		// Arc length computed with many samples
+		double arcLength(double t0, double t1)
+		{
+			int n = 2000;
+			double ret = 0.0;
+			double [] last = value(t0);
+			for (int i = 1; i <= n; i++)
+			{
+				double [] p = value(t0 + (t1 - t0) * i / n);
+				ret += distance(last, p);
+				last = p;
+			}
+			return ret;
+		}
+	}
+
+	private static final double [] FULL = new double[] { 0.0, 2.0 * Math.PI };
+
+	private static double distance(double [] p1, double [] p2)
+	{
+		double dx = p2[0] - p1[0];
+		double dy = p2[1] - p1[1];
+		double dz = p2[2] - p1[2];
+		return Math.sqrt(dx*dx + dy*dy + dz*dz);
+	}
+
+	@Test public void circleLength()
+	{
+		double r = 2.0;
+		CurveTable table = new CurveTable(new Ellipse(r, r), FULL, CurveTable.DEFAULT_TOLERANCE);
+		double exact = 2.0 * Math.PI * r;
+		assertTrue(table.getLengthError() < 1.e-4 * exact);
+		assertEquals(exact, table.length(), table.getLengthError());
+		assertEquals(0.5 * Math.PI * r, r * table.parameterAt(0.25 * exact), table.getLengthError() + table.getInterpolationError());
+	}
+
+	@Test public void reversed()
+	{
+		Ellipse curve = new Ellipse(3.0, 1.0);
+		CurveTable table = new CurveTable(curve, FULL, CurveTable.DEFAULT_TOLERANCE);
+		CurveTable reversed = new CurveTable(curve, new double[] { FULL[1], FULL[0] }, CurveTable.DEFAULT_TOLERANCE);
+		assertEquals(table.length(), reversed.length(), table.getLengthError() + reversed.getLengthError());
+		double [] param = reversed.discretize(0.5);
+		assertEquals(FULL[1], param[0], 0.0);
+		assertEquals(FULL[0], param[param.length - 1], 0.0);
+		for (int i = 1; i < param.length; i++)
+			assertTrue(param[i] < param[i-1]);
+	}
+
+	@Test public void uniformLength()
+	{
+		Ellipse curve = new Ellipse(3.0, 1.0);
+		CurveTable table = new CurveTable(curve, FULL, CurveTable.DEFAULT_TOLERANCE);
+		double maxlen = 0.5;
+		double [] param = table.discretize(maxlen);
+		assertEquals((int) Math.ceil(table.length() / maxlen) + 1, param.length);
+		double expected = table.length() / (param.length - 1);
+		double tol = 1.e-3 * expected + table.getLengthError() + table.getInterpolationError();
+		for (int i = 1; i < param.length; i++)
+			assertEquals(expected, curve.arcLength(param[i-1], param[i]), tol);
+
+		param = table.discretize(7);
+		assertEquals(7, param.length);
+		expected = table.length() / 6.0;
+		for (int i = 1; i < param.length; i++)
+			assertEquals(expected, curve.arcLength(param[i-1], param[i]), tol);
+	}
+
+	@Test public void deflection()
+	{
+		Ellipse curve = new Ellipse(3.0, 1.0);
+		CurveTable table = new CurveTable(curve, FULL, CurveTable.DEFAULT_TOLERANCE);
+		double defl = 0.001;
+		double [] param = table.discretize(0.0, defl, false);
+		assertTrue(param.length > 10);
+		// Density is equidistributed, allow some slack because curvature
+		// varies along segments
+		double dmax = 0.0;
+		for (int i = 1; i < param.length; i++)
+		{
+			double arc = curve.arcLength(param[i-1], param[i]);
+			double chord = distance(curve.value(param[i-1]), curve.value(param[i]));
+			dmax = Math.max(dmax, arc - chord);
+		}
+		assertTrue(dmax < 1.2 * defl * Math.sqrt(2.0));
+		assertTrue(dmax > 0.5 * defl * Math.sqrt(2.0));
+
+		// Maximal length still applies
+		param = table.discretize(0.2, defl, false);
+		for (int i = 1; i < param.length; i++)
+			assertTrue(curve.arcLength(param[i-1], param[i]) < 0.2 * 1.001);
+	}
+
+	@Test public void cache()
+	{
+		Ellipse curve1 = new Ellipse(3.0, 1.0);
+		// Same size as curve1
+		Ellipse curve2 = new Ellipse(1.0, 3.0);
+		CurveTable table = new CurveTable(curve1, FULL, CurveTable.DEFAULT_TOLERANCE);
+		curve1.count = 0;
+		// Room for a single table
+		CurveTableCache cache = new CurveTableCache(table.size() * 3 / 2);
+		assertSame(cache.get("1", curve1, FULL), cache.get("1", curve1, FULL));
+		int count = curve1.count;
+		assertEquals(1L, cache.getHits());
+		assertEquals(1L, cache.getMisses());
+		assertEquals(table.size(), cache.getNumberOfSamples());
+
+		cache.get("2", curve2, FULL);
+		assertEquals(1, cache.size());
+		cache.get("1", curve1, FULL);
+		assertTrue(curve1.count > count);
+		assertEquals(3L, cache.getMisses());
+
+		cache.clear();
+		assertEquals(0, cache.size());
+		assertEquals(0, cache.getNumberOfSamples());
+		assertNull(new CurveTableCache(0).get("1", curve1, FULL));
+	}
+}
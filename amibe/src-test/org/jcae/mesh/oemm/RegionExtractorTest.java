@@ -0,0 +1,191 @@
+/* jCAE stand for Java Computer Aided Engineering. Features are : Small CAD
+   modeler, Finite element mesher, Plugin architecture.
+
+    Copyright (C) 2012, by EADS France
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA */
+
+package org.jcae.mesh.oemm;
+
+import org.jcae.mesh.xmldata.AmibeReader;
+import org.jcae.mesh.xmldata.DoubleFileReader;
+import org.jcae.mesh.xmldata.IntFileReader;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class RegionExtractorTest
+{
+	private static final int N = 40;
+
+	// Coordinates of grid vertex (i,j) on a wavy surface
+	private static double [] point(int i, int j)
+	{
+		double x = i * 0.25;
+		double y = j * 0.25;
+		return new double[] { x, y, 0.5 * Math.sin(x) * Math.cos(y) };
+	}
+
+	private static File createOEMM() throws Exception
+	{
+		File dir = File.createTempFile("oemm", ".dir");
+		dir.delete();
+		dir.mkdirs();
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+			new FileOutputStream(new File(dir, "soup"))));
+		for (int i = 0; i < N; i++)
+		{
+			for (int j = 0; j < N; j++)
+			{
+				int [][] tria = new int[][] {
+					{ i, j, i+1, j, i+1, j+1 },
+					{ i, j, i+1, j+1, i, j+1 } };
+				for (int [] t : tria)
+				{
+					for (int k = 0; k < 3; k++)
+						for (double c : point(t[2*k], t[2*k+1]))
+							out.writeDouble(c);
+					out.writeInt(1 + (i < N / 2 ? 0 : 1));
+					out.writeInt(0);
+				}
+			}
+		}
+		out.close();
+		// Same steps as MeshOEMMIndex, with intermediate files in dir
+		String soupFile = new File(dir, "soup").getPath();
+		String structFile = new File(dir, "dispatched").getPath();
+		OEMM oemm = new OEMM(5);
+		if (!RawStorage.countTriangles(oemm, soupFile))
+			assertTrue(RawStorage.countTriangles(oemm, soupFile));
+		Aggregate.compute(oemm, 100);
+		RawStorage.dispatch(oemm, soupFile, structFile, structFile+".data");
+		RawStorage.indexOEMM(structFile, new File(dir, "oemm").getPath());
+		return dir;
+	}
+
+	private static void delete(File dir)
+	{
+		for (File f : dir.listFiles())
+		{
+			if (f.isDirectory())
+				delete(f);
+			else
+				f.delete();
+		}
+		dir.delete();
+	}
+
+	private interface Region
+	{
+		boolean isInside(double [] p);
+	}
+
+	// Extracts triangles and compares them with grid triangles inside region
+	private static void check(File dir, Map<String, String> options, Region region) throws Exception
+	{
+		OEMM oemm = Storage.readOEMMStructure(new File(dir, "oemm").getPath());
+		RegionExtractor extractor = new RegionExtractor(oemm, options);
+		int nrLeaves = extractor.getLeaves().length;
+		assertTrue(nrLeaves > 0);
+		assertTrue(nrLeaves < oemm.getNumberOfLeaves());
+		File outDir = new File(dir, "out");
+		extractor.extract(outDir.getPath());
+
+		int expectedNodes = 0;
+		for (int i = 0; i <= N; i++)
+			for (int j = 0; j <= N; j++)
+				if (region.isInside(point(i, j)))
+					expectedNodes++;
+		int expectedTriangles = 0;
+		for (int i = 0; i < N; i++)
+		{
+			for (int j = 0; j < N; j++)
+			{
+				boolean corner = region.isInside(point(i, j)) && region.isInside(point(i+1, j+1));
+				if (corner && region.isInside(point(i+1, j)))
+					expectedTriangles++;
+				if (corner && region.isInside(point(i, j+1)))
+					expectedTriangles++;
+			}
+		}
+		assertTrue(expectedTriangles > 0);
+		assertEquals(expectedNodes, extractor.getNumberOfNodes());
+		assertEquals(expectedTriangles, extractor.getNumberOfTriangles());
+
+		AmibeReader.Dim3 ar = new AmibeReader.Dim3(outDir.getPath());
+		AmibeReader.SubMesh sm = ar.getSubmeshes().get(0);
+		assertEquals(expectedNodes, sm.getNumberOfNodes());
+		assertEquals(expectedTriangles, sm.getNumberOfTrias());
+		double [] xyz = new double[3 * sm.getNumberOfNodes()];
+		DoubleFileReader dfr = sm.getNodes();
+		dfr.get(xyz);
+		dfr.close();
+		int [] tria = new int[3 * sm.getNumberOfTrias()];
+		IntFileReader ifr = sm.getTriangles();
+		ifr.get(tria);
+		ifr.close();
+		double [] p = new double[3];
+		for (int v : tria)
+		{
+			System.arraycopy(xyz, 3 * v, p, 0, 3);
+			assertTrue(region.isInside(p));
+		}
+		int nrGrouped = 0;
+		for (AmibeReader.Group g : sm.getGroups())
+			nrGrouped += g.getNumberOfTrias();
+		assertEquals(expectedTriangles, nrGrouped);
+		delete(outDir);
+	}
+
+	@Test public void box() throws Exception
+	{
+		File dir = createOEMM();
+		Map<String, String> options = new HashMap<String, String>();
+		options.put("lower", "2.1,3.1,-1");
+		options.put("upper", "6.1,5.6,1");
+		check(dir, options, new Region()
+		{
+			public boolean isInside(double [] p)
+			{
+				return p[0] >= 2.1 && p[0] <= 6.1 && p[1] >= 3.1 && p[1] <= 5.6;
+			}
+		});
+		delete(dir);
+	}
+
+	@Test public void sphere() throws Exception
+	{
+		File dir = createOEMM();
+		Map<String, String> options = new HashMap<String, String>();
+		options.put("center", "3.1,2.1,0");
+		options.put("radius", "1.7");
+		check(dir, options, new Region()
+		{
+			public boolean isInside(double [] p)
+			{
+				double dx = p[0] - 3.1;
+				double dy = p[1] - 2.1;
+				return dx * dx + dy * dy + p[2] * p[2] <= 1.7 * 1.7;
+			}
+		});
+		delete(dir);
+	}
+}
@@ -0,0 +1,337 @@
+/*
+ * Project Info:  http://jcae.sourceforge.net
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307, USA.
+ *
+ * (C) Copyright 2012, by EADS France
+ */
+
+package org.jcae.mesh.xmldata;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import org.jcae.mesh.xmldata.AmibeReader.Group;
+import org.xml.sax.SAXException;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class Amibe2PVTKTest
+{
+	private static final int N = 40;
+
+	// Node coordinates of the grid used by createMesh
+	private static double[] node(int id)
+	{
+		return new double[] { id % (N + 1), id / (N + 1), 0.1 * (id % 7) };
+	}
+
+	/**
+	 * Grid of 2*N*N triangles and N beams on its bottom side.  Triangles
+	 * of the left half are in group "left", those of the bottom row in
+	 * group "bottom" too, beams are in group "beams", and other elements
+	 * are not in any group.
+	 */
+	private static File createMesh() throws IOException
+	{
+		File dir = File.createTempFile("jcae", ".amibe");
+		dir.delete();
+		dir.mkdirs();
+		AmibeWriter.Dim3 w = new AmibeWriter.Dim3(dir.getPath());
+		for (int i = 0; i < (N + 1) * (N + 1); i++)
+			w.addNode(node(i));
+		for (int j = 0; j < N; j++)
+			for (int i = 0; i < N; i++)
+			{
+				int n0 = j * (N + 1) + i;
+				w.addTriangle(n0, n0 + 1, n0 + N + 2);
+				w.addTriangle(n0, n0 + N + 2, n0 + N + 1);
+			}
+		for (int i = 0; i < N; i++)
+			w.addBeam(i, i + 1);
+		w.nextGroup("left");
+		for (int j = 0; j < N; j++)
+			for (int i = 0; i < N / 2; i++)
+			{
+				w.addTriaToGroup(2 * (j * N + i));
+				w.addTriaToGroup(2 * (j * N + i) + 1);
+			}
+		// Not sorted
+		w.nextGroup("bottom");
+		for (int i = 2 * N - 1; i >= 0; i--)
+			w.addTriaToGroup(i);
+		w.nextGroup("beams");
+		for (int i = 0; i < N; i++)
+			w.addBeamToGroup(i);
+		w.finish();
+		return dir;
+	}
+
+	private static void deleteDir(File dir)
+	{
+		File[] files = dir.listFiles();
+		if (files != null)
+			for (File f : files)
+				deleteDir(f);
+		dir.delete();
+	}
+
+	private static int[] invert(File dir, int chunkSize) throws IOException, SAXException
+	{
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		GroupInverter gi = new GroupInverter(dir.getPath(), new GroupInverter.IntegerWriter() {
+			public void writeInt(ByteBuffer i) {
+				out.write(i.array(), i.arrayOffset()+i.position(), i.remaining());
+			}
+		});
+		gi.setChunkSize(chunkSize);
+		gi.invert();
+		int[] toReturn = new int[out.size() / 4];
+		ByteBuffer.wrap(out.toByteArray()).asIntBuffer().get(toReturn);
+		return toReturn;
+	}
+
+	// Group ids as numbered by GroupInverter
+	private static int groupId(File dir, String name) throws IOException, SAXException
+	{
+		List<Group> groups = new AmibeReader.Dim3(dir.getPath()).getSubmeshes().get(0).getGroups();
+		for (int i = 0; i < groups.size(); i++)
+			if (groups.get(i).getName().equals(name))
+				return i + 1;
+		throw new IllegalArgumentException(name);
+	}
+
+	@Test public void groupInverter() throws IOException, SAXException
+	{
+		File dir = createMesh();
+		int left = groupId(dir, "left");
+		int bottom = groupId(dir, "bottom");
+		int beams = groupId(dir, "beams");
+		int[] expected = invert(dir, 1 << 20);
+		assertEquals(N + 2 * N * N, expected.length);
+		for (int i = 0; i < N; i++)
+			assertEquals(beams, expected[i]);
+		for (int t = 0; t < 2 * N * N; t++)
+		{
+			int i = (t / 2) % N;
+			int e = 0;
+			if (t < 2 * N && bottom > left)
+				e = bottom;
+			else if (i < N / 2)
+				e = left;
+			else if (t < 2 * N)
+				e = bottom;
+			assertEquals(e, expected[N + t]);
+		}
+		for (int chunkSize : new int[] { 1, 7, 100, 3000 })
+			assertArrayEquals(expected, invert(dir, chunkSize));
+		deleteDir(dir);
+	}
+
+	/** A piece read back from a .vtp file */
+	private static class VTPPiece
+	{
+		int nbp, nbt, nbl;
+		double[] coords;
+		int[] lines, polys, groups;
+	}
+
+	private static byte[] readFile(File f) throws IOException
+	{
+		FileInputStream in = new FileInputStream(f);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buf = new byte[4096];
+		int n;
+		while ((n = in.read(buf)) > 0)
+			out.write(buf, 0, n);
+		in.close();
+		return out.toByteArray();
+	}
+
+	private static int attribute(String header, String name)
+	{
+		Matcher m = Pattern.compile(name+"=\"(\\d+)\"").matcher(header);
+		assertTrue(m.find());
+		return Integer.parseInt(m.group(1));
+	}
+
+	private static ByteBuffer block(byte[] data, int start, boolean compressed) throws DataFormatException
+	{
+		ByteBuffer bb = ByteBuffer.wrap(data);
+		if (!compressed)
+		{
+			int size = bb.getInt(start);
+			return ByteBuffer.wrap(data, start + 4, size).slice();
+		}
+		int nblocks = bb.getInt(start);
+		int blockSize = bb.getInt(start + 4);
+		int last = bb.getInt(start + 8);
+		int size = nblocks == 0 ? 0 : (nblocks - 1) * blockSize + (last == 0 ? blockSize : last);
+		byte[] raw = new byte[size];
+		int pos = start + 12 + 4 * nblocks;
+		Inflater inflater = new Inflater();
+		for (int b = 0; b < nblocks; b++)
+		{
+			int csize = bb.getInt(start + 12 + 4 * b);
+			inflater.reset();
+			inflater.setInput(data, pos, csize);
+			int n = inflater.inflate(raw, b * blockSize, Math.min(blockSize, size - b * blockSize));
+			assertEquals(Math.min(blockSize, size - b * blockSize), n);
+			pos += csize;
+		}
+		inflater.end();
+		return ByteBuffer.wrap(raw);
+	}
+
+	private static VTPPiece readPiece(File f, boolean compressed) throws IOException, DataFormatException
+	{
+		byte[] data = readFile(f);
+		String text = new String(data, "ISO-8859-1");
+		int start = text.indexOf("<AppendedData encoding=\"raw\"> _") + "<AppendedData encoding=\"raw\"> _".length();
+		String header = text.substring(0, start);
+		assertEquals(compressed, header.contains("vtkZLibDataCompressor"));
+		VTPPiece p = new VTPPiece();
+		p.nbp = attribute(header, "NumberOfPoints");
+		p.nbt = attribute(header, "NumberOfPolys");
+		p.nbl = attribute(header, "NumberOfLines");
+		List<Integer> offsets = new ArrayList<Integer>();
+		Matcher m = Pattern.compile("offset=\"(\\d+)\"").matcher(header);
+		while (m.find())
+			offsets.add(Integer.parseInt(m.group(1)));
+		assertEquals(6, offsets.size());
+		p.coords = new double[3 * p.nbp];
+		block(data, start + offsets.get(0), compressed).asDoubleBuffer().get(p.coords);
+		p.lines = new int[2 * p.nbl];
+		block(data, start + offsets.get(1), compressed).asIntBuffer().get(p.lines);
+		int[] lineOffsets = new int[p.nbl];
+		block(data, start + offsets.get(2), compressed).asIntBuffer().get(lineOffsets);
+		p.polys = new int[3 * p.nbt];
+		block(data, start + offsets.get(3), compressed).asIntBuffer().get(p.polys);
+		int[] polyOffsets = new int[p.nbt];
+		block(data, start + offsets.get(4), compressed).asIntBuffer().get(polyOffsets);
+		p.groups = new int[p.nbl + p.nbt];
+		block(data, start + offsets.get(5), compressed).asIntBuffer().get(p.groups);
+		if (p.nbt > 0)
+			assertEquals(3 * p.nbt, polyOffsets[p.nbt - 1]);
+		if (p.nbl > 0)
+			assertEquals(2 * p.nbl, lineOffsets[p.nbl - 1]);
+		return p;
+	}
+
+	// Elements are identified by the sum of their node ids
+	private static int nodeId(VTPPiece p, int local)
+	{
+		double[] xyz = new double[] { p.coords[3 * local], p.coords[3 * local + 1], p.coords[3 * local + 2] };
+		int id = (int) xyz[1] * (N + 1) + (int) xyz[0];
+		assertArrayEquals(node(id), xyz, 0.0);
+		return id;
+	}
+
+	private static List<VTPPiece> check(File dir, Amibe2PVTK.Partition partition, boolean compressed)
+		throws IOException, SAXException, DataFormatException
+	{
+		File pvtp = File.createTempFile("jcae", ".pvtp");
+		Amibe2PVTK writer = new Amibe2PVTK(dir);
+		writer.setPartition(partition);
+		writer.setNumberOfChunks(5);
+		writer.setNumberOfThreads(3);
+		writer.setCompressed(compressed);
+		int nbPieces = writer.write(pvtp.getPath());
+		String master = new String(readFile(pvtp), "ISO-8859-1");
+		Matcher m = Pattern.compile("<Piece Source=\"([^\"]+)\"/>").matcher(master);
+		List<VTPPiece> pieces = new ArrayList<VTPPiece>();
+		while (m.find())
+		{
+			File f = new File(pvtp.getParentFile(), m.group(1));
+			pieces.add(readPiece(f, compressed));
+			f.delete();
+		}
+		pvtp.delete();
+		assertEquals(nbPieces, pieces.size());
+		// Check that node renumbering gives back original elements
+		for (VTPPiece p : pieces)
+		{
+			for (int i = 0; i < p.nbt; i++)
+			{
+				int n0 = nodeId(p, p.polys[3 * i]);
+				int n1 = nodeId(p, p.polys[3 * i + 1]);
+				int n2 = nodeId(p, p.polys[3 * i + 2]);
+				assertTrue(n0 + 1 == n1 && n1 + N + 1 == n2 || n1 == n0 + N + 2 && n2 == n0 + N + 1);
+			}
+			for (int i = 0; i < p.nbl; i++)
+				assertEquals(nodeId(p, p.lines[2 * i]) + 1, nodeId(p, p.lines[2 * i + 1]));
+		}
+		return pieces;
+	}
+
+	@Test public void groups() throws Exception
+	{
+		File dir = createMesh();
+		for (boolean compressed : new boolean[] { false, true })
+		{
+			List<VTPPiece> pieces = check(dir, Amibe2PVTK.Partition.GROUPS, compressed);
+			// 3 groups and ungrouped triangles
+			assertEquals(4, pieces.size());
+			int nbt = 0, nbl = 0;
+			for (VTPPiece p : pieces)
+			{
+				nbt += p.nbt;
+				nbl += p.nbl;
+				for (int g : p.groups)
+					assertEquals(p.groups[0], g);
+			}
+			// Half of the bottom row is in two groups
+			assertEquals(2 * N * N + N, nbt);
+			assertEquals(N, nbl);
+		}
+		deleteDir(dir);
+	}
+
+	@Test public void chunks() throws Exception
+	{
+		File dir = createMesh();
+		int[] inverted = invert(dir, 1 << 20);
+		int[] count = new int[4];
+		for (int g : inverted)
+			count[g]++;
+		for (boolean compressed : new boolean[] { false, true })
+		{
+			List<VTPPiece> pieces = check(dir, Amibe2PVTK.Partition.CHUNKS, compressed);
+			assertEquals(5, pieces.size());
+			int nbt = 0, nbl = 0;
+			int[] found = new int[4];
+			for (VTPPiece p : pieces)
+			{
+				nbt += p.nbt;
+				nbl += p.nbl;
+				for (int g : p.groups)
+					found[g]++;
+			}
+			assertEquals(2 * N * N, nbt);
+			assertEquals(N, nbl);
+			assertArrayEquals(count, found);
+		}
+		deleteDir(dir);
+	}
+}
@@ -0,0 +1,219 @@
+/* jCAE stand for Java Computer Aided Engineering. Features are : Small CAD
+   modeler, Finite element mesher, Plugin architecture.
+
+    Copyright (C) 2012, by EADS France
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA */
+
+package org.jcae.mesh.xmldata;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.xml.sax.SAXException;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class AmibeMergerTest
+{
+	private static final int N = 10;
+
+	/**
+	 * Grid of 2*N*N triangles between x0 and x0+N, left nodes are moved
+	 * along y by eps.  All triangles are in group "part", and beams of
+	 * bottom side are in group "edge".
+	 */
+	private static File createGrid(File parent, String name, double x0, double eps) throws IOException
+	{
+		File dir = new File(parent, name);
+		AmibeWriter.Dim3 w = new AmibeWriter.Dim3(dir.getPath());
+		for (int j = 0; j <= N; j++)
+			for (int i = 0; i <= N; i++)
+				w.addNode(new double[] { x0 + i, j + (i == 0 ? eps : 0.0), 0.0 });
+		for (int j = 0; j < N; j++)
+			for (int i = 0; i < N; i++)
+			{
+				int n0 = j * (N + 1) + i;
+				w.addTriangle(n0, n0 + 1, n0 + N + 2);
+				w.addTriangle(n0, n0 + N + 2, n0 + N + 1);
+			}
+		for (int i = 0; i < N; i++)
+			w.addBeam(i, i + 1);
+		w.nextGroup("part");
+		for (int i = 0; i < 2 * N * N; i++)
+			w.addTriaToGroup(i);
+		w.nextGroup("edge");
+		for (int i = 0; i < N; i++)
+			w.addBeamToGroup(i);
+		w.finish();
+		return dir;
+	}
+
+	private static File createTempDir() throws IOException
+	{
+		File dir = File.createTempFile("jcae", ".amibe");
+		dir.delete();
+		dir.mkdirs();
+		return dir;
+	}
+
+	private static void delete(File dir)
+	{
+		for (File f : dir.listFiles())
+		{
+			if (f.isDirectory())
+				delete(f);
+			else
+				f.delete();
+		}
+		dir.delete();
+	}
+
+	private static Map<String, Integer> groupSizes(AmibeReader.SubMesh sm)
+	{
+		Map<String, Integer> ret = new HashMap<String, Integer>();
+		for (AmibeReader.Group g : sm.getGroups())
+			ret.put(g.getName(), g.getNumberOfTrias() + g.getNumberOfBeams());
+		return ret;
+	}
+
+	@Test public void weldParts() throws IOException, SAXException
+	{
+		File dir = createTempDir();
+		File left = createGrid(dir, "left", 0.0, 0.0);
+		File right = createGrid(dir, "right", N, 1.e-4);
+		File out = new File(dir, "out");
+
+		AmibeMerger merger = new AmibeMerger();
+		merger.addInput(left.getPath());
+		merger.addInput(right.getPath());
+		merger.setTolerance(1.e-3);
+		merger.setNumberOfThreads(2);
+		merger.merge(out.getPath());
+		int nrNodes = (N + 1) * (N + 1);
+		assertEquals(N + 1, merger.getNumberOfWeldedNodes());
+		assertEquals(2 * nrNodes - N - 1, merger.getNumberOfNodes());
+		assertEquals(4 * N * N, merger.getNumberOfTriangles());
+
+		AmibeReader.SubMesh sm = new AmibeReader.Dim3(out.getPath()).getSubmeshes().get(0);
+		assertEquals(2 * nrNodes - N - 1, sm.getNumberOfNodes());
+		assertEquals(4 * N * N, sm.getNumberOfTrias());
+		assertEquals(2 * N, sm.getNumberOfBeams());
+		Map<String, Integer> groups = groupSizes(sm);
+		assertEquals(2, groups.size());
+		assertEquals(Integer.valueOf(4 * N * N), groups.get("part"));
+		assertEquals(Integer.valueOf(2 * N), groups.get("edge"));
+
+		// Nodes of right part are shared with left part
+		int [] tria = new int[3 * sm.getNumberOfTrias()];
+		IntFileReader ifr = sm.getTriangles();
+		ifr.get(tria);
+		ifr.close();
+		assertEquals(N, tria[6 * N * N]);
+		assertEquals(nrNodes, tria[6 * N * N + 1]);
+
+		// Without tolerance, perturbed nodes are not welded and groups are renamed
+		merger.setTolerance(0.0);
+		merger.setGroupPattern("{dir}-{name}");
+		merger.merge(out.getPath());
+		assertEquals(0, merger.getNumberOfWeldedNodes());
+		sm = new AmibeReader.Dim3(out.getPath()).getSubmeshes().get(0);
+		assertEquals(2 * nrNodes, sm.getNumberOfNodes());
+		groups = groupSizes(sm);
+		assertEquals(4, groups.size());
+		assertEquals(Integer.valueOf(2 * N * N), groups.get("right-part"));
+		assertEquals(Integer.valueOf(N), groups.get("left-edge"));
+		delete(dir);
+	}
+
+	@Test public void degenerateTriangles() throws IOException, SAXException
+	{
+		File dir = createTempDir();
+		File grid = createGrid(dir, "grid", 0.0, 0.0);
+		File out = new File(dir, "out");
+		AmibeMerger merger = new AmibeMerger();
+		merger.addInput(grid.getPath());
+		// Nodes of the first column are welded with their upper neighbour
+		merger.setTolerance(1.5);
+		merger.merge(out.getPath());
+		assertEquals(1, merger.getNumberOfNodes());
+		assertEquals(0, merger.getNumberOfTriangles());
+		assertEquals(0, merger.getNumberOfBeams());
+		delete(dir);
+	}
+
+	// Compares welding with a brute force computation
+	@Test public void weld()
+	{
+		Random rand = new Random(1234L);
+		int n = 5000;
+		double tolerance = 0.02;
+		double [] xyz = new double[3 * n];
+		for (int i = 0; i < 3 * n; i++)
+			xyz[i] = rand.nextDouble();
+		// Add duplicates
+		for (int i = 0; i < 100; i++)
+			System.arraycopy(xyz, 3 * rand.nextInt(n / 2), xyz, 3 * (n / 2 + i), 3);
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		int [] rep;
+		try
+		{
+			rep = AmibeMerger.weld(xyz, n, tolerance, executor, 4);
+		}
+		finally
+		{
+			executor.shutdown();
+		}
+		int [] expected = new int[n];
+		for (int i = 0; i < n; i++)
+			expected[i] = i;
+		boolean changed = true;
+		while (changed)
+		{
+			changed = false;
+			for (int i = 0; i < n; i++)
+			{
+				for (int j = 0; j < i; j++)
+				{
+					if (expected[j] == expected[i])
+						continue;
+					double dx = xyz[3*i] - xyz[3*j];
+					double dy = xyz[3*i+1] - xyz[3*j+1];
+					double dz = xyz[3*i+2] - xyz[3*j+2];
+					if (dx * dx + dy * dy + dz * dz <= tolerance * tolerance)
+					{
+						int min = Math.min(expected[i], expected[j]);
+						expected[i] = min;
+						expected[j] = min;
+						changed = true;
+					}
+				}
+			}
+		}
+		int nrWelded = 0;
+		for (int i = 0; i < n; i++)
+		{
+			assertEquals(expected[i], rep[i]);
+			if (rep[i] != i)
+				nrWelded++;
+		}
+		assertTrue(nrWelded >= 100);
+	}
+}
@@ -0,0 +1,270 @@
+/* jCAE stand for Java Computer Aided Engineering. Features are : Small CAD
+   modeler, Finite element mesher, Plugin architecture.
+
+    Copyright (C) 2012, by EADS France
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA */
+
+package org.jcae.mesh.xmldata;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import org.xml.sax.SAXException;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class AmibeReorderTest
+{
+	private static final int N = 12;
+	// Number of referenced nodes, at the end of nodes3d.bin
+	private static final int NR_REFS = 5;
+
+	private static File createTempDir() throws IOException
+	{
+		File dir = File.createTempFile("jcae", ".amibe");
+		dir.delete();
+		dir.mkdirs();
+		return dir;
+	}
+
+	private static void delete(File dir)
+	{
+		for (File f : dir.listFiles())
+		{
+			if (f.isDirectory())
+				delete(f);
+			else
+				f.delete();
+		}
+		dir.delete();
+	}
+
+	/**
+	 * Grid of 2*N*N triangles with shuffled nodes and triangles, followed
+	 * by outer triangles on the bottom side.  Even triangles are in group
+	 * "even", triangles of the left column in group "left", and nodes of
+	 * the bottom side in node group "bottom".
+	 */
+	private static void createGrid(File dir) throws IOException
+	{
+		int nrNodes = (N + 1) * (N + 1);
+		Random random = new Random(12345L);
+		// Grid node of each file index, referenced nodes are the last ones
+		List<Integer> order = new ArrayList<Integer>();
+		for (int i = 0; i < nrNodes - NR_REFS; i++)
+			order.add(i);
+		Collections.shuffle(order, random);
+		for (int i = nrNodes - NR_REFS; i < nrNodes; i++)
+			order.add(i);
+		int [] index = new int[nrNodes];
+		AmibeWriter.Dim3 w = new AmibeWriter.Dim3(dir.getPath(), false, true);
+		for (int i = 0; i < nrNodes; i++)
+		{
+			int n = order.get(i);
+			index[n] = i;
+			w.addNode(new double[] { n % (N + 1), n / (N + 1), 0.0 });
+		}
+		for (int i = nrNodes - NR_REFS; i < nrNodes; i++)
+			w.addNodeRef(i);
+
+		List<int []> trias = new ArrayList<int []>();
+		for (int j = 0; j < N; j++)
+			for (int i = 0; i < N; i++)
+			{
+				int n0 = j * (N + 1) + i;
+				trias.add(new int[] { index[n0], index[n0 + 1], index[n0 + N + 2] });
+				trias.add(new int[] { index[n0], index[n0 + N + 2], index[n0 + N + 1] });
+			}
+		Collections.shuffle(trias, random);
+		for (int [] t : trias)
+			w.addTriangle(t);
+		for (int i = 0; i < N; i++)
+			w.addTriangle(-index[i + 1], -index[i], -nrNodes);
+
+		w.nextGroup("even");
+		for (int i = 0; i < trias.size(); i += 2)
+			w.addTriaToGroup(i);
+		w.nextGroup("left");
+		for (int i = 0; i < trias.size(); i++)
+		{
+			if (x(order, trias.get(i)) == 0)
+				w.addTriaToGroup(i);
+		}
+		w.nextNodeGroup("bottom");
+		for (int i = 0; i <= N; i++)
+			w.addNodeToGroup(index[i]);
+		w.finish();
+	}
+
+	// Smallest x coordinate of a triangle
+	private static int x(List<Integer> order, int [] t)
+	{
+		int ret = Integer.MAX_VALUE;
+		for (int i : t)
+			ret = Math.min(ret, order.get(i) % (N + 1));
+		return ret;
+	}
+
+	private static double [] readNodes(AmibeReader.SubMesh sm) throws IOException
+	{
+		double [] ret = new double[3 * sm.getNumberOfNodes()];
+		DoubleFileReader dfr = sm.getNodes();
+		dfr.get(ret);
+		dfr.close();
+		return ret;
+	}
+
+	private static int [] readTriangles(AmibeReader.SubMesh sm) throws IOException
+	{
+		int [] ret = new int[3 * sm.getNumberOfTrias()];
+		IntFileReader ifr = sm.getTriangles();
+		ifr.get(ret);
+		ifr.close();
+		return ret;
+	}
+
+	private static String node(double [] nodes, int i)
+	{
+		if (3 * i >= nodes.length)
+			return "outer";
+		return nodes[3*i]+","+nodes[3*i+1]+","+nodes[3*i+2];
+	}
+
+	/**
+	 * Returns triangles as strings made of vertex coordinates, starting
+	 * from their smallest vertex so that orientation is kept.  Outer
+	 * triangles are prefixed by a minus sign.
+	 */
+	private static String [] triangles(double [] nodes, int [] trias, int offset, int nr)
+	{
+		String [] ret = new String[nr];
+		for (int i = 0; i < nr; i++)
+		{
+			int t = 3 * (offset + i);
+			boolean outer = trias[t] < 0 || trias[t+1] < 0 || trias[t+2] < 0;
+			String [] v = new String[3];
+			for (int j = 0; j < 3; j++)
+				v[j] = node(nodes, Math.abs(trias[t+j]));
+			int first = 0;
+			for (int j = 1; j < 3; j++)
+			{
+				if (v[j].compareTo(v[first]) < 0)
+					first = j;
+			}
+			ret[i] = (outer ? "-" : "")+v[first]+" "+v[(first+1)%3]+" "+v[(first+2)%3];
+		}
+		return ret;
+	}
+
+	private static String [] sorted(String [] s)
+	{
+		String [] ret = s.clone();
+		Arrays.sort(ret);
+		return ret;
+	}
+
+	private static Map<String, String []> groups(AmibeReader.SubMesh sm, double [] nodes, int [] trias)
+		throws IOException
+	{
+		Map<String, String []> ret = new HashMap<String, String []>();
+		for (AmibeReader.Group g : sm.getGroups())
+		{
+			int [] ids = g.readTria3Ids();
+			String [] t = new String[ids.length];
+			for (int i = 0; i < ids.length; i++)
+				t[i] = triangles(nodes, trias, ids[i], 1)[0];
+			String [] n = new String[g.getNumberOfNodes()];
+			if (n.length > 0)
+			{
+				int [] nodeIds = g.readNodesIds();
+				for (int i = 0; i < nodeIds.length; i++)
+					n[i] = node(nodes, nodeIds[i]);
+			}
+			ret.put(g.getName()+" trias", sorted(t));
+			ret.put(g.getName()+" nodes", sorted(n));
+		}
+		return ret;
+	}
+
+	private static void checkReorder(int maxRecordsInMemory) throws IOException, SAXException
+	{
+		File dir = createTempDir();
+		File in = new File(dir, "in");
+		File out = new File(dir, "out");
+		createGrid(in);
+		AmibeReorder reorder = new AmibeReorder(in.getPath(), out.getPath());
+		reorder.setMaxRecordsInMemory(maxRecordsInMemory);
+		reorder.compute();
+
+		AmibeReader.SubMesh sm1 = new AmibeReader.Dim3(in.getPath()).getSubmeshes().get(0);
+		AmibeReader.SubMesh sm2 = new AmibeReader.Dim3(out.getPath()).getSubmeshes().get(0);
+		assertEquals(sm1.getNumberOfNodes(), sm2.getNumberOfNodes());
+		assertEquals(sm1.getNumberOfTrias(), sm2.getNumberOfTrias());
+		assertArrayEquals(sm1.getReferences(), sm2.getReferences());
+		double [] nodes1 = readNodes(sm1);
+		double [] nodes2 = readNodes(sm2);
+		int nrNodes = sm1.getNumberOfNodes();
+		String [] n1 = new String[nrNodes];
+		String [] n2 = new String[nrNodes];
+		for (int i = 0; i < nrNodes; i++)
+		{
+			n1[i] = node(nodes1, i);
+			n2[i] = node(nodes2, i);
+		}
+		assertFalse("Nodes have not been reordered", Arrays.equals(n1, n2));
+		assertArrayEquals(sorted(n1), sorted(n2));
+		// Referenced nodes are kept in place
+		for (int i = nrNodes - NR_REFS; i < nrNodes; i++)
+			assertEquals(n1[i], n2[i]);
+
+		int [] trias1 = readTriangles(sm1);
+		int [] trias2 = readTriangles(sm2);
+		int nrInner = 2 * N * N;
+		assertArrayEquals(sorted(triangles(nodes1, trias1, 0, nrInner)), sorted(triangles(nodes2, trias2, 0, nrInner)));
+		// Outer triangles are kept in place, with negated indices
+		String [] outer1 = triangles(nodes1, trias1, nrInner, N);
+		String [] outer2 = triangles(nodes2, trias2, nrInner, N);
+		assertArrayEquals(outer1, outer2);
+		for (int i = 3 * nrInner; i < trias2.length; i++)
+			assertTrue(trias2[i] <= 0);
+		for (String t : outer2)
+			assertTrue(t.startsWith("-") && t.contains("outer"));
+
+		Map<String, String []> groups1 = groups(sm1, nodes1, trias1);
+		Map<String, String []> groups2 = groups(sm2, nodes2, trias2);
+		assertEquals(groups1.keySet(), groups2.keySet());
+		for (String name : groups1.keySet())
+			assertArrayEquals(name, groups1.get(name), groups2.get(name));
+		delete(dir);
+	}
+
+	@Test public void inMemory() throws IOException, SAXException
+	{
+		checkReorder(1 << 20);
+	}
+
+	@Test public void external() throws IOException, SAXException
+	{
+		checkReorder(37);
+	}
+}
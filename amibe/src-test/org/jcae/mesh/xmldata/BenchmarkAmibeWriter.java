@@ -0,0 +1,187 @@
+/*
+ * Project Info:  http://jcae.sourceforge.net
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307, USA.
+ *
+ * (C) Copyright 2012, by EADS France
+ */
+
+package org.jcae.mesh.xmldata;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import org.xml.sax.SAXException;
+
+import org.junit.Test;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import static org.junit.Assert.*;
+
+/**
+ * Compare write paths of AmibeWriter.  The legacy case reproduces the
+ * previous implementation, which wrote values one by one through a
+ * BufferedOutputStream.  Times of the first test which is run include
+ * JIT warm-up.
+ */
+public class BenchmarkAmibeWriter
+{
+	private static final int NODES = 1 << 20;
+	private static final int TRIANGLES = 2 * NODES;
+	private static final int GROUPS = 16;
+	private static double [] coords;
+	private static int [] indices;
+	private static int [] groupIds;
+	private static File dir;
+
+	@BeforeClass public static void createData() throws IOException
+	{
+		Random rand = new Random(0L);
+		coords = new double[3 * NODES];
+		for (int i = 0; i < coords.length; i++)
+			coords[i] = rand.nextDouble();
+		indices = new int[3 * TRIANGLES];
+		for (int i = 0; i < indices.length; i++)
+			indices[i] = rand.nextInt(NODES);
+		groupIds = new int[TRIANGLES];
+		for (int i = 0; i < TRIANGLES; i++)
+			groupIds[i] = i;
+		dir = File.createTempFile("jcae", "");
+		dir.delete();
+		dir.mkdirs();
+	}
+
+	@AfterClass public static void deleteData()
+	{
+		File bin = new File(dir, JCAEXMLData.xml3dFilename+".files");
+		File [] files = bin.listFiles();
+		if (files != null)
+			for (File f: files)
+				f.delete();
+		bin.delete();
+		new File(dir, JCAEXMLData.xml3dFilename).delete();
+		dir.delete();
+	}
+
+	private static void check() throws IOException, SAXException
+	{
+		AmibeReader.Dim3 ar = new AmibeReader.Dim3(dir.getPath());
+		AmibeReader.SubMesh sm = ar.getSubmeshes().get(0);
+		assertEquals(NODES, sm.getNumberOfNodes());
+		assertEquals(TRIANGLES, sm.getNumberOfTrias());
+		assertEquals(GROUPS, sm.getGroups().size());
+		File bin = new File(dir, JCAEXMLData.xml3dFilename+".files");
+		PrimitiveFileReaderFactory pfrf = new PrimitiveFileReaderFactory();
+		DoubleFileReader dfr = pfrf.getDoubleReader(new File(bin, "nodes3d.bin"));
+		double [] d = new double[coords.length];
+		assertEquals(d.length, dfr.get(d));
+		dfr.close();
+		assertArrayEquals(coords, d, 0.0);
+		IntFileReader ifr = pfrf.getIntReader(new File(bin, "triangles3d.bin"));
+		int [] t = new int[indices.length];
+		assertEquals(t.length, ifr.get(t));
+		ifr.close();
+		assertArrayEquals(indices, t);
+	}
+
+	private static void report(String name, long start)
+	{
+		System.out.println(name+" write time: "+(System.currentTimeMillis() - start)+" ms");
+	}
+
+	@Test public void legacy() throws IOException
+	{
+		long start = System.currentTimeMillis();
+		File bin = new File(dir, JCAEXMLData.xml3dFilename+".files");
+		bin.mkdirs();
+		DataOutputStream nodes = new DataOutputStream(new BufferedOutputStream(
+			new FileOutputStream(new File(bin, "nodes3d.bin")), 1024*64));
+		for (int i = 0; i < coords.length; i++)
+			nodes.writeDouble(coords[i]);
+		nodes.close();
+		DataOutputStream trias = new DataOutputStream(new BufferedOutputStream(
+			new FileOutputStream(new File(bin, "triangles3d.bin")), 1024*64));
+		for (int i = 0; i < indices.length; i++)
+			trias.writeInt(indices[i]);
+		trias.close();
+		DataOutputStream groups = new DataOutputStream(new BufferedOutputStream(
+			new FileOutputStream(new File(bin, "groups.bin")), 1024*64));
+		for (int i = 0; i < groupIds.length; i++)
+			groups.writeInt(groupIds[i]);
+		groups.close();
+		report("Legacy", start);
+	}
+
+	@Test public void perElement() throws IOException, SAXException
+	{
+		long start = System.currentTimeMillis();
+		AmibeWriter.Dim3 aw = new AmibeWriter.Dim3(dir.getPath());
+		for (int i = 0; i < coords.length; i += 3)
+			aw.addNode(coords[i], coords[i+1], coords[i+2]);
+		for (int i = 0; i < indices.length; i += 3)
+			aw.addTriangle(indices[i], indices[i+1], indices[i+2]);
+		int n = TRIANGLES / GROUPS;
+		for (int g = 0; g < GROUPS; g++)
+		{
+			aw.nextGroup("g"+g);
+			for (int i = g * n; i < (g + 1) * n; i++)
+				aw.addTriaToGroup(groupIds[i]);
+		}
+		aw.finish();
+		report("Per element", start);
+		check();
+	}
+
+	private static void writeBulk() throws IOException
+	{
+		AmibeWriter.Dim3 aw = new AmibeWriter.Dim3(dir.getPath());
+		aw.addNodes(coords, 0, coords.length);
+		aw.addTriangles(indices, 0, indices.length);
+		int n = TRIANGLES / GROUPS;
+		for (int g = 0; g < GROUPS; g++)
+		{
+			aw.nextGroup("g"+g);
+			aw.addTriaToGroup(groupIds, g * n, n);
+		}
+		aw.finish();
+	}
+
+	@Test public void bulk() throws IOException, SAXException
+	{
+		long start = System.currentTimeMillis();
+		writeBulk();
+		report("Bulk", start);
+		check();
+	}
+
+	@Test public void bulkMmap() throws IOException, SAXException
+	{
+		System.setProperty("org.jcae.mesh.xmldata.AmibeWriter.mmap", "true");
+		try
+		{
+			long start = System.currentTimeMillis();
+			writeBulk();
+			report("Bulk mmap", start);
+		}
+		finally
+		{
+			System.clearProperty("org.jcae.mesh.xmldata.AmibeWriter.mmap");
+		}
+		check();
+	}
+}
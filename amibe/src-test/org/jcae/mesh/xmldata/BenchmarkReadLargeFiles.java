@@ -21,11 +21,13 @@
 package org.jcae.mesh.xmldata;
 
 import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
 import java.nio.IntBuffer;
 import java.util.Random;
 import java.util.logging.Level;
@@ -191,4 +193,155 @@ public class BenchmarkReadLargeFiles
 	{
 		assertEquals(absoluteComputeSumByBlock(new IntFileReaderByDirectBuffer(file)), checkSum);
 	}
-}
\ No newline at end of file
+
+	/**
+	 * Size in bytes of the file used by {@link #largeFile}, it can be set
+	 * by the <code>BenchmarkReadLargeFiles.largeSize</code> property.
+	 * Default is larger than 2 GB, which cannot be mapped at once.
+	 */
+	private static final long LARGE_SIZE = Long.getLong("BenchmarkReadLargeFiles.largeSize", 5L << 29);
+	// Large file is only written on request
+	private static final boolean RUN_LARGE =
+		System.getProperty("BenchmarkReadLargeFiles.largeSize") != null ||
+		Boolean.getBoolean("run.test.large");
+
+	// Value of the i-th double of the large file, sums are exact
+	private static double largeValue(long i)
+	{
+		return (double) (i & 0xffff);
+	}
+
+	private static double largeCheckSum(long n)
+	{
+		double sum = 0.0;
+		for (long i = 0; i < n; i++)
+			sum += largeValue(i);
+		return sum;
+	}
+
+	private static File createLargeFile() throws IOException
+	{
+		File f = File.createTempFile("BenchmarkReadLargeFiles", ".bin");
+		byte[] data = new byte[1 << 20];
+		DoubleBuffer db = ByteBuffer.wrap(data).asDoubleBuffer();
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(f)));
+		long n = LARGE_SIZE / 8;
+		for (long i = 0; i < n; )
+		{
+			db.clear();
+			int nr = (int) Math.min(data.length / 8, n - i);
+			for (int k = 0; k < nr; k++, i++)
+				db.put(largeValue(i));
+			out.write(data, 0, 8 * nr);
+		}
+		out.close();
+		return f;
+	}
+
+	private static void report(DoubleFileReader dfr, String access, long start)
+	{
+		System.out.println(dfr.getClass().getSimpleName()+" "+access+" processing time: "+(System.currentTimeMillis() - start)+" ms");
+	}
+
+	/**
+	 * Sequential, bulk and random access to a file larger than 2 GB, by
+	 * segmented memory mapping and by direct buffers.  This test is run
+	 * only when <code>BenchmarkReadLargeFiles.largeSize</code> or
+	 * <code>run.test.large</code> property is set, the file is written
+	 * into the temporary directory.
+	 */
+	@Test public void largeFile() throws IOException
+	{
+		if (!RUN_LARGE)
+		{
+			System.out.println("Set BenchmarkReadLargeFiles.largeSize property to run largeFile benchmark");
+			return;
+		}
+		File f = createLargeFile();
+		try
+		{
+			long n = LARGE_SIZE / 8;
+			double expected = largeCheckSum(n);
+			try
+			{
+				new DoubleFileReaderByMmap(f).close();
+				System.out.println("DoubleFileReaderByMmap can map "+LARGE_SIZE+" bytes");
+			}
+			catch (IllegalArgumentException ex)
+			{
+				System.out.println("DoubleFileReaderByMmap cannot map "+LARGE_SIZE+" bytes");
+			}
+			DoubleFileReader[] readers = new DoubleFileReader[] {
+				new DoubleFileReaderBySegmentedMmap(f), new DoubleFileReaderByDirectBuffer(f) };
+			for (DoubleFileReader dfr : readers)
+			{
+				long start = System.currentTimeMillis();
+				double sum = 0.0;
+				while (!dfr.isEOF())
+					sum += dfr.get();
+				report(dfr, "sequential", start);
+				assertEquals(expected, sum, 0.0);
+			}
+			readers[1].close();
+			readers[1] = new DoubleFileReaderByDirectBuffer(f);
+
+			double[] temp = new double[1 << 16];
+			DoubleFileReaderBySegmentedMmap segmented = (DoubleFileReaderBySegmentedMmap) readers[0];
+			long start = System.currentTimeMillis();
+			double sum = 0.0;
+			for (long i = 0; i < n; )
+			{
+				int nr = segmented.get(i, temp, 0, temp.length);
+				for (int k = 0; k < nr; k++)
+					sum += temp[k];
+				i += nr;
+			}
+			report(segmented, "bulk", start);
+			assertEquals(expected, sum, 0.0);
+			start = System.currentTimeMillis();
+			sum = 0.0;
+			for (int i = 0; i < n; )
+			{
+				int nr = readers[1].get(i, temp);
+				for (int k = 0; k < nr; k++)
+					sum += temp[k];
+				i += nr;
+			}
+			report(readers[1], "bulk", start);
+			assertEquals(expected, sum, 0.0);
+
+			int nrRandom = 2000000;
+			Random rand = new Random(0L);
+			long[] indices = new long[nrRandom];
+			expected = 0.0;
+			for (int i = 0; i < nrRandom; i++)
+			{
+				indices[i] = (long) (rand.nextDouble() * n);
+				expected += largeValue(indices[i]);
+			}
+			start = System.currentTimeMillis();
+			sum = 0.0;
+			for (long i : indices)
+				sum += segmented.get(i);
+			report(segmented, nrRandom+" random", start);
+			assertEquals(expected, sum, 0.0);
+			// Direct buffers read 8 MB for each random access
+			int nrRandomDirect = 200;
+			expected = 0.0;
+			for (int i = 0; i < nrRandomDirect; i++)
+				expected += largeValue(indices[i]);
+			start = System.currentTimeMillis();
+			sum = 0.0;
+			for (int i = 0; i < nrRandomDirect; i++)
+				sum += readers[1].get((int) indices[i]);
+			report(readers[1], nrRandomDirect+" random", start);
+			assertEquals(expected, sum, 0.0);
+			for (DoubleFileReader dfr : readers)
+				dfr.close();
+		}
+		finally
+		{
+			f.delete();
+		}
+	}
+}
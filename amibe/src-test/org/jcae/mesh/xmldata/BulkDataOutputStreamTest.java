@@ -0,0 +1,84 @@
+/* jCAE stand for Java Computer Aided Engineering. Features are : Small CAD
+   modeler, Finite element mesher, Plugin architecture.
+
+    Copyright (C) 2012, by EADS France
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA */
+
+package org.jcae.mesh.xmldata;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class BulkDataOutputStreamTest
+{
+	// Values are written by arrays and one by one, so that buffers
+	// are drained and grown several times
+	private static void check(int n, ExecutorService executor) throws IOException
+	{
+		File f = File.createTempFile("jcae", ".bin");
+		int [] ints = new int[n];
+		double [] doubles = new double[n];
+		for (int i = 0; i < n; i++)
+		{
+			ints[i] = 3 * i - 7;
+			doubles[i] = 0.5 * i;
+		}
+		DataOutputStream out = new BulkDataOutputStream(f, false, executor);
+		BulkDataOutputStream.writeInts(out, ints, 0, n);
+		for (int i = 0; i < n; i++)
+			out.writeDouble(doubles[i]);
+		BulkDataOutputStream.writeDoubles(out, doubles, 0, n);
+		out.writeByte(42);
+		out.close();
+		assertEquals(20L * n + 1L, f.length());
+
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(f)));
+		for (int i = 0; i < n; i++)
+			assertEquals(ints[i], in.readInt());
+		for (int j = 0; j < 2; j++)
+			for (int i = 0; i < n; i++)
+				assertEquals(doubles[i], in.readDouble(), 0.0);
+		assertEquals(42, in.readByte());
+		in.close();
+		f.delete();
+	}
+
+	@Test public void sizes() throws IOException
+	{
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		try
+		{
+			for (int n : new int[] { 0, 1, 1000, 300000 })
+			{
+				check(n, null);
+				check(n, executor);
+			}
+		}
+		finally
+		{
+			executor.shutdown();
+		}
+	}
+}
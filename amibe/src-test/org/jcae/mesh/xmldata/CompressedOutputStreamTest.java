@@ -0,0 +1,303 @@
+/*
+ * Project Info:  http://jcae.sourceforge.net
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307, USA.
+ *
+ * (C) Copyright 2012, by EADS France
+ */
+
+package org.jcae.mesh.xmldata;
+
+import org.jcae.mesh.amibe.ds.Mesh;
+import org.jcae.mesh.amibe.ds.Triangle;
+import org.jcae.mesh.amibe.ds.Vertex;
+import org.jcae.mesh.amibe.traits.MeshTraitsBuilder;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class CompressedOutputStreamTest
+{
+	private static final int SIZE = 3 * CompressedOutputStream.ELEMENTS_PER_BLOCK + 17;
+
+	private static int [] createInts()
+	{
+		Random rand = new Random(1L);
+		int [] values = new int[SIZE];
+		for (int i = 0; i < SIZE; i++)
+		{
+			if (i % 3 == 0)
+				values[i] = rand.nextInt();
+			else
+				values[i] = i / 3 + rand.nextInt(100) - 50;
+		}
+		values[1] = Integer.MIN_VALUE;
+		values[2] = Integer.MAX_VALUE;
+		return values;
+	}
+
+	private static double [] createDoubles()
+	{
+		Random rand = new Random(2L);
+		double [] values = new double[SIZE];
+		for (int i = 0; i < SIZE; i++)
+			values[i] = (i / 3) * 0.01 + rand.nextGaussian();
+		values[0] = Double.NaN;
+		values[1] = -0.0;
+		values[2] = Double.NEGATIVE_INFINITY;
+		values[3] = Double.MIN_VALUE;
+		return values;
+	}
+
+	private static File writeInts(int [] values, ExecutorService executor) throws IOException
+	{
+		File f = File.createTempFile("jcae", ".bin");
+		f.deleteOnExit();
+		DataOutputStream out = CompressedOutputStream.createIntStream(f, executor);
+		for (int v: values)
+			out.writeInt(v);
+		out.close();
+		return f;
+	}
+
+	private static File writeDoubles(double [] values, ExecutorService executor) throws IOException
+	{
+		File f = File.createTempFile("jcae", ".bin");
+		f.deleteOnExit();
+		DataOutputStream out = CompressedOutputStream.createDoubleStream(f, 3, executor);
+		for (double v: values)
+			out.writeDouble(v);
+		out.close();
+		return f;
+	}
+
+	private static void checkInts(int [] values, File f) throws IOException
+	{
+		IntFileReader ifr = new PrimitiveFileReaderFactory().getIntReader(f);
+		assertTrue(ifr instanceof IntFileReaderCompressed);
+		assertEquals(values.length, ifr.size());
+		for (int i = 0; i < values.length; i++)
+			assertEquals(values[i], ifr.get());
+		assertTrue(ifr.isEOF());
+		// Random access, in reverse order
+		for (int i = values.length - 1; i >= 0; i -= 7)
+			assertEquals(values[i], ifr.get(i));
+		// Bulk read across block boundaries
+		int [] dst = new int[CompressedOutputStream.ELEMENTS_PER_BLOCK + 10];
+		int start = CompressedOutputStream.ELEMENTS_PER_BLOCK - 5;
+		assertEquals(dst.length, ifr.get(start, dst));
+		for (int i = 0; i < dst.length; i++)
+			assertEquals(values[start + i], dst[i]);
+		assertEquals(values[start + dst.length], ifr.get());
+		ifr.close();
+		f.delete();
+	}
+
+	private static void checkDoubles(double [] values, File f) throws IOException
+	{
+		DoubleFileReader dfr = new PrimitiveFileReaderFactory("mmap").getDoubleReader(f);
+		assertTrue(dfr instanceof DoubleFileReaderCompressed);
+		assertEquals(values.length, dfr.size());
+		double [] all = new double[values.length];
+		assertEquals(values.length, dfr.get(all));
+		for (int i = 0; i < values.length; i++)
+			assertEquals(Double.doubleToRawLongBits(values[i]), Double.doubleToRawLongBits(all[i]));
+		for (int i = values.length - 1; i >= 0; i -= 11)
+			assertEquals(Double.doubleToRawLongBits(values[i]), Double.doubleToRawLongBits(dfr.get(i)));
+		dfr.close();
+		f.delete();
+	}
+
+	@Test public void ints() throws IOException
+	{
+		int [] values = createInts();
+		checkInts(values, writeInts(values, null));
+	}
+
+	@Test public void intsConcurrent() throws IOException
+	{
+		int [] values = createInts();
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try
+		{
+			checkInts(values, writeInts(values, executor));
+		}
+		finally
+		{
+			executor.shutdown();
+		}
+	}
+
+	@Test public void doubles() throws IOException
+	{
+		double [] values = createDoubles();
+		checkDoubles(values, writeDoubles(values, null));
+	}
+
+	@Test public void doublesConcurrent() throws IOException
+	{
+		double [] values = createDoubles();
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try
+		{
+			checkDoubles(values, writeDoubles(values, executor));
+		}
+		finally
+		{
+			executor.shutdown();
+		}
+	}
+
+	@Test public void empty() throws IOException
+	{
+		File f = writeInts(new int[0], null);
+		IntFileReader ifr = new PrimitiveFileReaderFactory().getIntReader(f);
+		assertEquals(0, ifr.size());
+		assertTrue(ifr.isEOF());
+		ifr.close();
+		f.delete();
+	}
+
+	private static Mesh createMesh(int m, int n)
+	{
+		MeshTraitsBuilder mtb = MeshTraitsBuilder.getDefault3D();
+		mtb.addNodeList();
+		Mesh mesh = new Mesh(mtb);
+		Vertex [] v = new Vertex[m*n];
+		for (int j = 0; j < n; j++)
+			for (int i = 0; i < m; i++)
+			{
+				v[m*j+i] = mesh.createVertex(0.1 * i, 0.1 * j, Math.sin(0.05 * i * j));
+				mesh.add(v[m*j+i]);
+			}
+		for (int j = 0; j < n-1; j++)
+			for (int i = 0; i < m-1; i++)
+			{
+				Triangle t1 = mesh.createTriangle(v[m*j+i], v[m*j+i+1], v[m*(j+1)+i]);
+				Triangle t2 = mesh.createTriangle(v[m*j+i+1], v[m*(j+1)+i+1], v[m*(j+1)+i]);
+				t1.setGroupId(1 + (j % 3));
+				t2.setGroupId(1 + (i % 2));
+				mesh.add(t1);
+				mesh.add(t2);
+			}
+		mesh.setGroupName(1, "g1");
+		mesh.setGroupName(2, "g2");
+		mesh.setGroupName(3, "g3");
+		return mesh;
+	}
+
+	private static long size(File dir)
+	{
+		long ret = 0L;
+		for (File f: new File(dir, JCAEXMLData.xml3dFilename+".files").listFiles())
+			ret += f.length();
+		return ret;
+	}
+
+	private static void deleteDir(File dir)
+	{
+		File [] files = dir.listFiles();
+		if (files != null)
+		{
+			for (File f: files)
+				deleteDir(f);
+		}
+		dir.delete();
+	}
+
+	private static byte [] readBytes(File f) throws IOException
+	{
+		byte [] ret = new byte[(int) f.length()];
+		DataInputStream in = new DataInputStream(new FileInputStream(f));
+		try
+		{
+			in.readFully(ret);
+		}
+		finally
+		{
+			in.close();
+		}
+		return ret;
+	}
+
+	@Test public void amibeFiles() throws Exception
+	{
+		File tmp = File.createTempFile("jcae", "");
+		tmp.delete();
+		tmp.mkdirs();
+		try
+		{
+			File raw = new File(tmp, "raw");
+			File compressed = new File(tmp, "compressed");
+			Mesh mesh = createMesh(300, 300);
+			MeshWriter.writeObject3D(mesh, raw.getPath(), null);
+			MeshWriter.writeObject3D(mesh, compressed.getPath(), null, true);
+			assertTrue(size(compressed) < size(raw) / 2);
+
+			AmibeReader.Dim3 ar1 = new AmibeReader.Dim3(raw.getPath());
+			AmibeReader.Dim3 ar2 = new AmibeReader.Dim3(compressed.getPath());
+			AmibeReader.SubMesh sm1 = ar1.getSubmeshes().get(0);
+			AmibeReader.SubMesh sm2 = ar2.getSubmeshes().get(0);
+			assertEquals(sm1.getNumberOfNodes(), sm2.getNumberOfNodes());
+			assertEquals(sm1.getNumberOfTrias(), sm2.getNumberOfTrias());
+			assertEquals(sm1.getGroups().size(), sm2.getGroups().size());
+			for (AmibeReader.Group g1: sm1.getGroups())
+			{
+				AmibeReader.Group g2 = sm2.getGroup(g1.getName());
+				int [] t1 = g1.readTria3();
+				int [] t2 = g2.readTria3();
+				assertArrayEquals(t1, t2);
+				assertArrayEquals(sm1.readNodes(t1), sm2.readNodes(t2), 0.0f);
+			}
+
+			Mesh m1 = new Mesh(MeshTraitsBuilder.getDefault3D());
+			MeshReader.readObject3D(m1, raw.getPath());
+			Mesh m2 = new Mesh(MeshTraitsBuilder.getDefault3D());
+			MeshReader.readObject3D(m2, compressed.getPath());
+			assertEquals(m1.getTriangles().size(), m2.getTriangles().size());
+			assertTrue("Mesh is not valid", m2.isValid());
+
+			// Exporters which read binary files must decode them
+			File vtk1 = new File(tmp, "raw.vtp");
+			File vtk2 = new File(tmp, "compressed.vtp");
+			new MeshExporter.VTK(raw.getPath()).write(vtk1.getPath());
+			new MeshExporter.VTK(compressed.getPath()).write(vtk2.getPath());
+			assertArrayEquals(readBytes(vtk1), readBytes(vtk2));
+
+			// AmibeReorder only writes uncompressed files
+			try
+			{
+				new AmibeReorder(compressed.getPath(), new File(tmp, "reordered").getPath()).compute();
+				fail("Compressed files must be rejected");
+			}
+			catch (IOException ex)
+			{
+			}
+		}
+		finally
+		{
+			deleteDir(tmp);
+		}
+	}
+}
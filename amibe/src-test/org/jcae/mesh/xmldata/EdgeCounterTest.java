@@ -0,0 +1,143 @@
+/*
+ * Project Info:  http://jcae.sourceforge.net
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307, USA.
+ *
+ * (C) Copyright 2012, by EADS France
+ */
+
+package org.jcae.mesh.xmldata;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class EdgeCounterTest
+{
+	private static final int M = 200;
+	private static final int N = 150;
+
+	// Regular grid of (M-1)*(N-1) quads, plus a fin triangle on each
+	// row which creates multiple edges, and an outer triangle.
+	private static File writeTriangles() throws IOException
+	{
+		File f = File.createTempFile("jcae", ".bin");
+		f.deleteOnExit();
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(f)));
+		for (int j = 0; j < N-1; j++)
+			for (int i = 0; i < M-1; i++)
+			{
+				out.writeInt(M*j+i);
+				out.writeInt(M*j+i+1);
+				out.writeInt(M*(j+1)+i);
+				out.writeInt(M*j+i+1);
+				out.writeInt(M*(j+1)+i+1);
+				out.writeInt(M*(j+1)+i);
+			}
+		for (int j = 0; j < N-1; j++)
+		{
+			out.writeInt(M*j+M/2);
+			out.writeInt(M*(j+1)+M/2-1);
+			out.writeInt(M*N+j);
+		}
+		out.writeInt(-1);
+		out.writeInt(0);
+		out.writeInt(1);
+		out.close();
+		return f;
+	}
+
+	private static int numberOfTriangles()
+	{
+		return 2*(M-1)*(N-1) + N;
+	}
+
+	private static Map<Long, Integer> count(EdgeCounter counter, File f) throws IOException
+	{
+		final Map<Long, Integer> ret = new HashMap<Long, Integer>();
+		IntFileReader ifr = new PrimitiveFileReaderFactory().getIntReader(f);
+		counter.count(ifr, numberOfTriangles(), new EdgeCounter.EdgeProcedure()
+		{
+			public void execute(int n1, int n2, int count)
+			{
+				assertTrue(n1 < n2);
+				long key = EdgeCounter.key(n1, n2);
+				assertFalse("Edge visited twice", ret.containsKey(key));
+				ret.put(key, count);
+			}
+		});
+		ifr.close();
+		return ret;
+	}
+
+	private static void checkCounts(Map<Long, Integer> counts)
+	{
+		int free = 0;
+		int multi = 0;
+		for (int c: counts.values())
+		{
+			if (c < 2)
+				free++;
+			else if (c > 2)
+			{
+				assertEquals(3, c);
+				multi++;
+			}
+		}
+		// Grid boundary, plus two edges for each fin
+		assertEquals(2*(M-1) + 2*(N-1) + 2*(N-1), free);
+		assertEquals(N-1, multi);
+		// Vertices + faces - edges = 1 on the grid, each fin adds a
+		// vertex and two edges.
+		assertEquals(M*N + 2*(M-1)*(N-1) - 1 + 2*(N-1), counts.size());
+	}
+
+	@Test public void inMemory() throws IOException
+	{
+		File f = writeTriangles();
+		EdgeCounter counter = new EdgeCounter();
+		counter.setNumberOfThreads(1);
+		checkCounts(count(counter, f));
+		assertFalse(counter.isExternal());
+		f.delete();
+	}
+
+	@Test public void partitioned() throws IOException
+	{
+		File f = writeTriangles();
+		EdgeCounter counter = new EdgeCounter();
+		counter.setNumberOfThreads(4);
+		checkCounts(count(counter, f));
+		f.delete();
+	}
+
+	@Test public void external() throws IOException
+	{
+		File f = writeTriangles();
+		EdgeCounter counter = new EdgeCounter();
+		counter.setMaxMemory(0L);
+		Map<Long, Integer> counts = count(counter, f);
+		assertTrue(counter.isExternal());
+		checkCounts(counts);
+		f.delete();
+	}
+}
@@ -0,0 +1,152 @@
+/*
+ * Project Info:  http://jcae.sourceforge.net
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307, USA.
+ *
+ * (C) Copyright 2012, by EADS France
+ */
+
+package org.jcae.mesh.xmldata;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class FileGathererTest
+{
+	private static final int ITEMS = 200000;
+	private static final int WIDTH = 3;
+
+	private static DataOutputStream open(File f, boolean compressed, boolean doubles) throws IOException
+	{
+		if (!compressed)
+			return new DataOutputStream(new BufferedOutputStream(new FileOutputStream(f)));
+		if (doubles)
+			return CompressedOutputStream.createDoubleStream(f, WIDTH, null);
+		return CompressedOutputStream.createIntStream(f, null);
+	}
+
+	private static File writeDoubles(boolean compressed) throws IOException
+	{
+		File f = File.createTempFile("jcae", ".bin");
+		f.deleteOnExit();
+		DataOutputStream out = open(f, compressed, true);
+		for (int i = 0; i < ITEMS * WIDTH; i++)
+			out.writeDouble(0.5 * i);
+		out.close();
+		return f;
+	}
+
+	private static File writeInts(boolean compressed) throws IOException
+	{
+		File f = File.createTempFile("jcae", ".bin");
+		f.deleteOnExit();
+		DataOutputStream out = open(f, compressed, false);
+		for (int i = 0; i < ITEMS * WIDTH; i++)
+			out.writeInt(i);
+		out.close();
+		return f;
+	}
+
+	// Scattered indices with duplicates, some of them are contiguous
+	private static int [] createIds(int n, int max)
+	{
+		Random rand = new Random(0L);
+		int [] ids = new int[n];
+		for (int i = 0; i < n; i++)
+		{
+			if (i > 0 && rand.nextInt(4) == 0)
+				ids[i] = Math.min(max - 1, ids[i-1] + 1);
+			else
+				ids[i] = rand.nextInt(max);
+		}
+		return ids;
+	}
+
+	private static void checkDoubles(boolean compressed, int threads) throws IOException
+	{
+		File f = writeDoubles(compressed);
+		int offset = 1000;
+		int [] ids = createIds(50000, ITEMS - offset);
+		FileGatherer gatherer = new FileGatherer(f);
+		gatherer.setNumberOfThreads(threads);
+		int from = 10;
+		int len = ids.length - 20;
+		double [] d = new double[len * WIDTH];
+		gatherer.gather(ids, from, len, offset, WIDTH, d);
+		float [] fl = new float[len * WIDTH];
+		gatherer.gather(ids, from, len, offset, WIDTH, fl);
+		for (int i = 0; i < len; i++)
+			for (int j = 0; j < WIDTH; j++)
+			{
+				double expected = 0.5 * ((ids[from + i] + offset) * WIDTH + j);
+				assertEquals(expected, d[i * WIDTH + j], 0.0);
+				assertEquals((float) expected, fl[i * WIDTH + j], 0.0f);
+			}
+		f.delete();
+	}
+
+	private static void checkInts(boolean compressed, int threads) throws IOException
+	{
+		File f = writeInts(compressed);
+		int [] ids = createIds(50000, ITEMS);
+		FileGatherer gatherer = new FileGatherer(f);
+		gatherer.setNumberOfThreads(threads);
+		int [] values = new int[ids.length * WIDTH];
+		gatherer.gather(ids, 0, ids.length, 0, WIDTH, values);
+		for (int i = 0; i < ids.length; i++)
+			for (int j = 0; j < WIDTH; j++)
+				assertEquals(ids[i] * WIDTH + j, values[i * WIDTH + j]);
+		f.delete();
+	}
+
+	@Test public void doubles() throws IOException
+	{
+		checkDoubles(false, 1);
+	}
+
+	@Test public void doublesThreads() throws IOException
+	{
+		checkDoubles(false, 4);
+	}
+
+	@Test public void doublesCompressed() throws IOException
+	{
+		checkDoubles(true, 1);
+	}
+
+	@Test public void ints() throws IOException
+	{
+		checkInts(false, 4);
+	}
+
+	@Test public void intsCompressed() throws IOException
+	{
+		checkInts(true, 1);
+	}
+
+	@Test public void empty() throws IOException
+	{
+		File f = writeInts(false);
+		new FileGatherer(f).gather(new int[0], 0, 0, 0, WIDTH, new int[0]);
+		f.delete();
+	}
+}
@@ -0,0 +1,138 @@
+/*
+ * Project Info:  http://jcae.sourceforge.net
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307, USA.
+ *
+ * (C) Copyright 2012, by EADS France
+ */
+
+package org.jcae.mesh.xmldata;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class SegmentedMmapReaderTest
+{
+	// Segments of 4 kB, 1024 ints or 512 doubles
+	private static final int SHIFT = 12;
+	private static final int ITEMS = 10000;
+
+	private static File writeInts() throws IOException
+	{
+		File f = File.createTempFile("jcae", ".bin");
+		f.deleteOnExit();
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(f)));
+		for (int i = 0; i < ITEMS; i++)
+			out.writeInt(3 * i + 1);
+		out.close();
+		return f;
+	}
+
+	private static File writeDoubles() throws IOException
+	{
+		File f = File.createTempFile("jcae", ".bin");
+		f.deleteOnExit();
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(f)));
+		for (int i = 0; i < ITEMS; i++)
+			out.writeDouble(0.5 * i);
+		out.close();
+		return f;
+	}
+
+	@Test public void ints() throws IOException
+	{
+		File f = writeInts();
+		// Only 2 segments out of 10 are mapped at the same time
+		IntFileReaderBySegmentedMmap r = new IntFileReaderBySegmentedMmap(f, SHIFT, 2);
+		assertEquals(ITEMS, r.size());
+		for (int i = 0; i < ITEMS; i++)
+			assertEquals(3 * i + 1, r.get());
+		assertTrue(r.isEOF());
+		Random rand = new Random(0L);
+		for (int k = 0; k < 1000; k++)
+		{
+			long i = rand.nextInt(ITEMS);
+			assertEquals(3 * i + 1, r.get(i));
+		}
+		// Bulk reads across segment boundaries
+		int[] dst = new int[3000];
+		for (int k = 0; k < 100; k++)
+		{
+			long index = rand.nextInt(ITEMS);
+			int offset = rand.nextInt(10);
+			int nr = r.get(index, dst, offset, dst.length - offset);
+			assertEquals(Math.min(dst.length - offset, ITEMS - index), nr);
+			for (int i = 0; i < nr; i++)
+				assertEquals(3 * (index + i) + 1, dst[offset + i]);
+			// Relative reads resume after bulk read
+			if (index + nr < ITEMS)
+				assertEquals(3 * (index + nr) + 1, r.get());
+		}
+		r.prefetch(2000L, 5000L);
+		assertEquals(3 * 4000 + 1, r.get(4000L));
+		r.close();
+		f.delete();
+	}
+
+	@Test public void doubles() throws IOException
+	{
+		File f = writeDoubles();
+		DoubleFileReaderBySegmentedMmap r = new DoubleFileReaderBySegmentedMmap(f, SHIFT, 3);
+		assertEquals(ITEMS, r.size());
+		double[] dst = new double[777];
+		int index = 0;
+		while (!r.isEOF())
+		{
+			int nr = r.get(dst);
+			for (int i = 0; i < nr; i++)
+				assertEquals(0.5 * (index + i), dst[i], 0.0);
+			index += nr;
+		}
+		assertEquals(ITEMS, index);
+		Random rand = new Random(1L);
+		for (int k = 0; k < 100; k++)
+		{
+			int i = rand.nextInt(ITEMS - dst.length);
+			assertEquals(dst.length, r.get(i, dst));
+			assertEquals(0.5 * i, dst[0], 0.0);
+			assertEquals(0.5 * (i + dst.length - 1), dst[dst.length - 1], 0.0);
+			assertEquals(0.5 * i, r.get(i), 0.0);
+		}
+		r.close();
+		f.delete();
+	}
+
+	@Test public void factory() throws IOException
+	{
+		File f = writeInts();
+		int[] dst = new int[10];
+		for (String type : new String[] { "directBuffer", "mmap", "segmentedMmap" })
+		{
+			IntFileReader r = new PrimitiveFileReaderFactory(type).getIntReader(f);
+			assertEquals(10, r.get(5000, dst));
+			assertEquals(3 * 5009 + 1, dst[9]);
+			assertEquals(3 * 20 + 1, r.get(20));
+			r.close();
+		}
+		f.delete();
+	}
+}
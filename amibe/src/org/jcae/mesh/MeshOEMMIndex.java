@@ -56,8 +56,14 @@ public class MeshOEMMIndex
 				throw new RuntimeException("Fatal error... aborting");
 		}
 		Aggregate.compute(oemm, triangles_max);
-		RawStorage.dispatch(oemm, soupFile, "dispatched", "dispatched.data");
-		RawStorage.indexOEMM("dispatched", outDir);
+		// Intermediate files are written next to output directory
+		String outPath = new File(outDir).getAbsolutePath();
+		File structFile = new File(outPath+".dispatched");
+		File dataFile = new File(outPath+".dispatched.data");
+		RawStorage.dispatch(oemm, soupFile, structFile.getPath(), dataFile.getPath());
+		RawStorage.indexOEMM(structFile.getPath(), outDir);
+		structFile.delete();
+		dataFile.delete();
 		logger.info("End processing");
 	}
 	
@@ -97,6 +97,8 @@ public class Mesher
 	private int minFace=0;
 	private int maxFace=0;
 	private int numFace=0;
+	private int numberOfThreads=1;
+	private String threads1d;
 		
 	/**
 	 * Read system properties which affect the meshing behavior.
@@ -215,6 +217,18 @@ public class Mesher
 			System.setProperty("org.jcae.mesh.Mesher.quadrangles", quadranglesProp);
 		}
 		quadrangles=quadranglesProp.equals("true");
+		
+		String threadsProp = System.getProperty("org.jcae.mesh.Mesher.threads");
+		if (threadsProp == null)
+		{
+			// OCC surfaces and curves are not known to be thread-safe
+			threadsProp = "1";
+			System.setProperty("org.jcae.mesh.Mesher.threads", threadsProp);
+		}
+		numberOfThreads=Integer.parseInt(threadsProp);
+
+		// Not set by default, 1D algorithms then run on a single thread
+		threads1d = System.getProperty("org.jcae.mesh.Mesher.threads1d");
 	}
 	
 	/**
@@ -229,6 +243,8 @@ public class Mesher
 		options1d.put("size", ""+edgeLength);
 		options1d.put("deflection", ""+deflection);
 		MeshParameters mp = new MeshParameters(options1d);
+		if (threads1d != null)
+			options1d.put("threads", threads1d);
 		if (deflection <= 0.0)
 			new UniformLength(mesh1D, options1d).compute();
 		else
@@ -353,19 +369,12 @@ public class Mesher
 		}
 		m2dTo3D.collectBoundaryNodes(listOfFaces.toNativeArray());
 		m2dTo3D.beforeProcessingAllShapes(writeNormals);
-		iFace = 0;
-		for (expF.init(shape, CADShapeEnum.FACE); expF.more(); expF.next())
-		{
-			iFace++;
-			if (numFace != 0 && iFace != numFace)
-				continue;
-			if (minFace != 0 && iFace < minFace)
-				continue;
-			if (maxFace != 0 && iFace > maxFace)
-				continue;
-			logger.info("Importing face "+iFace);
-			m2dTo3D.processOneShape(iFace, ""+iFace, iFace);
-		}
+		int [] faces = listOfFaces.toNativeArray();
+		String [] names = new String[faces.length];
+		for (int i = 0; i < faces.length; i++)
+			names[i] = ""+faces[i];
+		logger.info("Importing "+faces.length+" faces");
+		m2dTo3D.processAllShapes(faces, names, faces, numberOfThreads);
 		m2dTo3D.afterProcessingAllShapes();
 	}
 	
@@ -21,17 +21,16 @@
 
 package org.jcae.mesh.amibe.algos1d;
 
-import org.jcae.mesh.amibe.ds.MEdge1D;
 import org.jcae.mesh.amibe.ds.MMesh1D;
 import org.jcae.mesh.amibe.ds.MNode1D;
 import org.jcae.mesh.amibe.ds.SubMesh1D;
 import org.jcae.mesh.cad.CADGeomSurface;
 import org.jcae.mesh.cad.CADGeomCurve2D;
 import org.jcae.mesh.cad.CADGeomCurve3D;
-import org.jcae.mesh.cad.CADVertex;
 import org.jcae.mesh.cad.CADEdge;
 import org.jcae.mesh.cad.CADFace;
 import org.jcae.mesh.cad.CADShapeFactory;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Set;
 import java.util.Map;
@@ -43,11 +42,17 @@ public class Compat1D2D
 	private final MMesh1D mesh1d;
 	private double deflection = 1.0;
 	private boolean relativeDeflection = false;
+	private int nrThreads = 1;
 	
 	/**
 	 * Creates a <code>Compat1D2D</code> instance.
 	 *
 	 * @param m  the <code>MMesh1D</code> instance to refine.
+	 * @param options  map containing key-value pairs to modify algorithm
+	 *        behaviour.  Valid keys are <code>deflection</code>,
+	 *        <code>relativeDeflection</code> and <code>threads</code>,
+	 *        the number of threads used to discretize edges (default
+	 *        is 1, see {@link ConcurrentEdgeDiscretizer}).
 	 */
 	public Compat1D2D(MMesh1D m, final Map<String, String> options)
 	{
@@ -61,6 +66,8 @@ public class Compat1D2D
 				deflection = Double.valueOf(val).doubleValue();
 			else if (key.equals("relativeDeflection"))
 				relativeDeflection = Boolean.valueOf(val).booleanValue();
+			else if (key.equals("threads"))
+				nrThreads = Integer.valueOf(val).intValue();
 			else if (key.equals("size"))
 			{
 				// Do nothing, this is just to not barf when the same map
@@ -77,15 +84,38 @@ public class Compat1D2D
 	public final void compute()
 	{
 		int nbTEdges = 0, nbNodes = 0, nbEdges = 0;
-		/* Explore the shape for each edge */
+		final List<SubMesh1D> submeshes = new ArrayList<SubMesh1D>();
+		final List<Set<CADFace>> facesets = new ArrayList<Set<CADFace>>();
 		for (CADEdge E : mesh1d.getTEdges())
 		{
 			SubMesh1D submesh1d = mesh1d.getSubMesh1DFromMap(E);
 			if (null == submesh1d)
 				continue;
-			Set<CADFace> faceset = mesh1d.getAdjacentFaces(E);
-			if (null != faceset && computeEdge(submesh1d, faceset))
+			submeshes.add(submesh1d);
+			facesets.add(mesh1d.getAdjacentFaces(E));
+		}
+		ConcurrentEdgeDiscretizer.Parameters [] params = ConcurrentEdgeDiscretizer.compute(
+			submeshes.size(), nrThreads, new ConcurrentEdgeDiscretizer.Job()
+		{
+			public ConcurrentEdgeDiscretizer.Parameters compute(int index)
+			{
+				Set<CADFace> faceset = facesets.get(index);
+				if (null == faceset)
+					return null;
+				return computeParameters(submeshes.get(index), faceset);
+			}
+		});
+		/* Explore the shape for each edge */
+		for (int i = 0; i < submeshes.size(); i++)
+		{
+			SubMesh1D submesh1d = submeshes.get(i);
+			if (null != facesets.get(i))
+			{
+				// A null result means that edge has no curve and is kept
+				if (params[i] != null)
+					ConcurrentEdgeDiscretizer.setNodes(mesh1d, submesh1d, params[i]);
 				nbTEdges++;
+			}
 			nbNodes += submesh1d.getNodes().size();
 			nbEdges += submesh1d.getEdges().size();
 		}
@@ -95,9 +125,9 @@ public class Compat1D2D
 		assert(mesh1d.isValid());
 	}
 
-	private boolean computeEdge(SubMesh1D submesh1d, Set<CADFace> faceset)
+	// Does not modify submesh1d, this method can be called concurrently
+	private ConcurrentEdgeDiscretizer.Parameters computeParameters(SubMesh1D submesh1d, Set<CADFace> faceset)
 	{
-		List<MEdge1D> edgelist = submesh1d.getEdges();
 		List<MNode1D> nodelist = submesh1d.getNodes();
 		double [] curvmax = new double[nodelist.size()];
 		for (int i = 0; i < curvmax.length; i++)
@@ -106,7 +136,7 @@ public class Compat1D2D
 		CADEdge E = submesh1d.getGeometry();
 		CADGeomCurve3D curve3d = CADShapeFactory.getFactory().newCurve3D(E);
 		if (curve3d == null)
-			return true;
+			return null;
 		double [] coord = new double[3*curvmax.length];
 		double [] paramOnEdge = new double[curvmax.length];
 		int k = 0;
@@ -177,37 +207,10 @@ public class Compat1D2D
 			}
 		}
 		
-		edgelist.clear();
-		nodelist.clear();
-		CADVertex[] V = E.vertices();
-		boolean isDegenerated = false;
-		
-		MNode1D n1, n2;
-		double param;
-
-		//  First vertex
-		CADVertex GPt = mesh1d.getGeometricalVertex(V[0]);
-		MNode1D firstNode = new MNode1D(curve3d.parameter(1), GPt);
-		n1 = firstNode;
-		n1.isDegenerated(isDegenerated);
-		nodelist.add(n1);
-		if (!isDegenerated)
-			GPt = null;
-
-		//  Other points
 		int nbPoints = curve3d.nbPoints();
-		for (int i = 0; i < nbPoints - 1; i++)
-		{
-			param = curve3d.parameter(i+2);
-			if (i == nbPoints - 2)
-				GPt = mesh1d.getGeometricalVertex(V[1]);
-			n2 = new MNode1D(param, GPt);
-			n2.isDegenerated(isDegenerated);
-			nodelist.add(n2);
-			MEdge1D e=new MEdge1D(n1, n2);
-			edgelist.add(e);
-			n1 = n2;
-		}
-		return true;
+		double [] ret = new double[nbPoints];
+		for (int i = 0; i < nbPoints; i++)
+			ret[i] = curve3d.parameter(i+1);
+		return new ConcurrentEdgeDiscretizer.Parameters(ret, nbPoints, false);
 	}
 }
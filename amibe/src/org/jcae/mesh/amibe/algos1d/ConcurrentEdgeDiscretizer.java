@@ -0,0 +1,194 @@
+/* jCAE stand for Java Computer Aided Engineering. Features are : Small CAD
+   modeler, Finite element mesher, Plugin architecture.
+
+    Copyright (C) 2012, by EADS France
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA */
+
+package org.jcae.mesh.amibe.algos1d;
+
+import org.jcae.mesh.amibe.ds.MEdge1D;
+import org.jcae.mesh.amibe.ds.MMesh1D;
+import org.jcae.mesh.amibe.ds.MNode1D;
+import org.jcae.mesh.amibe.ds.SubMesh1D;
+import org.jcae.mesh.cad.CADEdge;
+import org.jcae.mesh.cad.CADVertex;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Discretizes topological edges on several threads.  Parameters of new
+ * nodes are first computed for all edges, possibly concurrently, then
+ * nodes are created by the calling thread in the order of edges.  Thus
+ * {@link MMesh1D} does not depend on the number of threads, and vertices
+ * shared by several edges are always retrieved by
+ * {@link MMesh1D#getGeometricalVertex} from a single thread.
+ * <p>
+ * Curves are evaluated concurrently, which is safe with analytic
+ * curves but is not known to be supported by OpenCascade.  This is why
+ * the <code>threads</code> option of 1D algorithms defaults to 1, and
+ * {@link org.jcae.mesh.Mesher} only sets it when the
+ * <code>org.jcae.mesh.Mesher.threads1d</code> property is set.
+ * </p>
+ */
+final class ConcurrentEdgeDiscretizer
+{
+	/**
+	 * Discretization of a single edge.  It must not modify
+	 * {@link MMesh1D}, which is updated afterwards.
+	 */
+	interface Job
+	{
+		/**
+		 * Computes parameters of nodes of an edge.
+		 *
+		 * @param index  index of edge
+		 * @return parameters of nodes, or <code>null</code> if this edge
+		 *    is left unchanged
+		 */
+		Parameters compute(int index);
+	}
+
+	/**
+	 * Parameters of nodes of an edge.
+	 */
+	static final class Parameters
+	{
+		final double [] values;
+		final int size;
+		final boolean degenerated;
+		Parameters(double [] values, int size, boolean degenerated)
+		{
+			this.values = values;
+			this.size = size;
+			this.degenerated = degenerated;
+		}
+	}
+
+	private ConcurrentEdgeDiscretizer()
+	{
+	}
+
+	/**
+	 * Runs jobs and returns their results in index order.
+	 *
+	 * @param n  number of jobs
+	 * @param nrThreads  number of threads, jobs are run by the calling
+	 *    thread if it is lower than 2
+	 * @param job  discretization
+	 * @return array of size <code>n</code> containing results of jobs
+	 */
+	static Parameters [] compute(int n, int nrThreads, final Job job)
+	{
+		final Parameters [] ret = new Parameters[n];
+		nrThreads = Math.min(nrThreads, n);
+		if (nrThreads < 2)
+		{
+			for (int i = 0; i < n; i++)
+				ret[i] = job.compute(i);
+			return ret;
+		}
+		// Edges have very different costs, they are dispatched on demand
+		final AtomicInteger next = new AtomicInteger();
+		List<Callable<Object>> tasks = new ArrayList<Callable<Object>>(nrThreads);
+		for (int t = 0; t < nrThreads; t++)
+		{
+			tasks.add(new Callable<Object>()
+			{
+				public Object call()
+				{
+					for (int i = next.getAndIncrement(); i < ret.length; i = next.getAndIncrement())
+						ret[i] = job.compute(i);
+					return null;
+				}
+			});
+		}
+		ExecutorService executor = Executors.newFixedThreadPool(nrThreads);
+		try
+		{
+			// Future.get() makes results visible to this thread
+			for (Future<Object> f : executor.invokeAll(tasks))
+				f.get();
+		}
+		catch (InterruptedException ex)
+		{
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(ex);
+		}
+		catch (ExecutionException ex)
+		{
+			if (ex.getCause() instanceof RuntimeException)
+				throw (RuntimeException) ex.getCause();
+			if (ex.getCause() instanceof Error)
+				throw (Error) ex.getCause();
+			throw new RuntimeException(ex.getCause());
+		}
+		finally
+		{
+			executor.shutdown();
+		}
+		return ret;
+	}
+
+	/**
+	 * Replaces nodes and edges of a submesh.  End points are bound to
+	 * the geometrical vertices of the edge.
+	 *
+	 * @param mesh1d  1D mesh
+	 * @param submesh1d  submesh of an edge
+	 * @param p  parameters of new nodes
+	 */
+	static void setNodes(MMesh1D mesh1d, SubMesh1D submesh1d, Parameters p)
+	{
+		List<MEdge1D> edgelist = submesh1d.getEdges();
+		List<MNode1D> nodelist = submesh1d.getNodes();
+		edgelist.clear();
+		nodelist.clear();
+		CADEdge E = submesh1d.getGeometry();
+		CADVertex[] V = E.vertices();
+
+		MNode1D n1, n2;
+		double param;
+
+		//  First vertex
+		CADVertex GPt = mesh1d.getGeometricalVertex(V[0]);
+		MNode1D firstNode = new MNode1D(p.values[0], GPt);
+		n1 = firstNode;
+		n1.isDegenerated(p.degenerated);
+		nodelist.add(n1);
+		if (!p.degenerated)
+			GPt = null;
+
+		//  Other points
+		for (int i = 0; i < p.size - 1; i++)
+		{
+			param = p.values[i+1];
+			if (i == p.size - 2)
+				GPt = mesh1d.getGeometricalVertex(V[1]);
+			n2 = new MNode1D(param, GPt);
+			n2.isDegenerated(p.degenerated);
+			nodelist.add(n2);
+			MEdge1D e=new MEdge1D(n1, n2);
+			edgelist.add(e);
+			n1 = n2;
+		}
+	}
+}
@@ -21,15 +21,12 @@
 
 package org.jcae.mesh.amibe.algos1d;
 
-import org.jcae.mesh.amibe.ds.MEdge1D;
 import org.jcae.mesh.amibe.ds.MMesh1D;
-import org.jcae.mesh.amibe.ds.MNode1D;
 import org.jcae.mesh.amibe.ds.SubMesh1D;
 import org.jcae.mesh.cad.CADGeomCurve3D;
 import org.jcae.mesh.cad.CADVertex;
 import org.jcae.mesh.cad.CADEdge;
 import org.jcae.mesh.cad.CADShapeFactory;
-import java.util.List;
 import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -46,11 +43,17 @@ public class UniformLength
 	private static final Logger LOGGER=Logger.getLogger(UniformLength.class.getName());
 	private final MMesh1D mesh1d;
 	private double maxlen = -1.0;
+	private int nrThreads = 1;
 	
 	/**
 	 * Creates a <code>UniformLength</code> instance.
 	 *
 	 * @param m  the <code>MMesh1D</code> instance to refine.
+	 * @param options  map containing key-value pairs to modify algorithm
+	 *        behaviour.  Valid keys are <code>size</code> and
+	 *        <code>threads</code>, the number of threads used to
+	 *        discretize edges (default is 1, see
+	 *        {@link ConcurrentEdgeDiscretizer}).
 	 */
 	public UniformLength(MMesh1D m, final Map<String, String> options)
 	{
@@ -62,6 +65,8 @@ public class UniformLength
 			final String val = opt.getValue();
 			if (key.equals("size"))
 				maxlen = Double.valueOf(val).doubleValue();
+			else if (key.equals("threads"))
+				nrThreads = Integer.valueOf(val).intValue();
 			else if (key.equals("deflection") || key.equals("relativeDeflection"))
 			{
 				// Do nothing
@@ -84,14 +89,29 @@ public class UniformLength
 			nbNodes += submesh1d.getNodes().size();
 			nbEdges += submesh1d.getEdges().size();
 		}
-		/* Explore the shape for each edge */
+		final SubMesh1D [] submeshes = new SubMesh1D[mesh1d.getTEdges().size()];
+		int k = 0;
 		for (CADEdge E : mesh1d.getTEdges())
+			submeshes[k++] = mesh1d.getSubMesh1DFromMap(E);
+		ConcurrentEdgeDiscretizer.Parameters [] params = ConcurrentEdgeDiscretizer.compute(
+			submeshes.length, nrThreads, new ConcurrentEdgeDiscretizer.Job()
 		{
-			SubMesh1D submesh1d = mesh1d.getSubMesh1DFromMap(E);
+			public ConcurrentEdgeDiscretizer.Parameters compute(int index)
+			{
+				return computeParameters(submeshes[index]);
+			}
+		});
+		/* Explore the shape for each edge */
+		for (int i = 0; i < submeshes.length; i++)
+		{
+			SubMesh1D submesh1d = submeshes[i];
 			nbNodes -= submesh1d.getNodes().size();
 			nbEdges -= submesh1d.getEdges().size();
-			if (computeEdge(submesh1d))
+			if (params[i] != null)
+			{
+				ConcurrentEdgeDiscretizer.setNodes(mesh1d, submesh1d, params[i]);
 				nbTEdges++;
+			}
 			nbNodes += submesh1d.getNodes().size();
 			nbEdges += submesh1d.getEdges().size();
 		}
@@ -114,26 +134,26 @@ public class UniformLength
 	 */
 	public final boolean computeEdge(SubMesh1D submesh1d)
 	{
-		int nbPoints;
-		boolean isCircular = false;
-		boolean isDegenerated = false;
-		double[] paramOnEdge;
-		double range[];
+		ConcurrentEdgeDiscretizer.Parameters params = computeParameters(submesh1d);
+		if (params == null)
+			return false;
+		ConcurrentEdgeDiscretizer.setNodes(mesh1d, submesh1d, params);
+		return true;
+	}
+
+	// Does not modify submesh1d, this method can be called concurrently
+	private ConcurrentEdgeDiscretizer.Parameters computeParameters(SubMesh1D submesh1d)
+	{
 		CADEdge E = submesh1d.getGeometry();
 		
 		//  See also org.jcae.mesh.amibe.ds.Mesh.tooSmall()
 		//if (BRep_Tool.degenerated(E))
 		//	return false;
 		
-		List<MEdge1D> edgelist = submesh1d.getEdges();
-		List<MNode1D> nodelist = submesh1d.getNodes();
-		if (edgelist.size() != 1 || nodelist.size() != 2)
-			return false;
-		edgelist.clear();
-		nodelist.clear();
+		if (submesh1d.getEdges().size() != 1 || submesh1d.getNodes().size() != 2)
+			return null;
 		CADVertex[] V = E.vertices();
-		if (V[0].isSame(V[1]))
-			isCircular=true;
+		boolean isCircular = V[0].isSame(V[1]);
 		
 		CADGeomCurve3D curve = CADShapeFactory.getFactory().newCurve3D(E);
 		if (curve == null)
@@ -141,104 +161,88 @@ public class UniformLength
 			if (!E.isDegenerated())
 				throw new java.lang.RuntimeException("Curve not defined on edge, but this  edge is not degenerated.  Something must be wrong.");
 			
-			isDegenerated = true;
 			/*
 			 * Degenerated edges should not be discretized, but then
 			 * their vertices have very low connectivity.  So let
 			 * discretize them until a solution is found.
 			 */
-			range = E.range();
-			nbPoints=2;
-			paramOnEdge = new double[nbPoints];
+			double [] range = E.range();
+			int nbPoints=2;
+			double [] paramOnEdge = new double[nbPoints];
 			for (int i = 0; i < nbPoints; i++)
 				paramOnEdge[i] = range[0] + (range[1] - range[0])*i/(nbPoints-1);
+			return new ConcurrentEdgeDiscretizer.Parameters(paramOnEdge, nbPoints, true);
 		}
-		else
+		return computeParameters(curve, V[0].pnt(), V[1].pnt(), isCircular);
+	}
+
+	/**
+	 * Discretizes a curve.
+	 *
+	 * @param curve  curve
+	 * @param pnt1  first end point
+	 * @param pnt2  last end point
+	 * @param isCircular  <code>true</code> if end points are the same vertex
+	 * @return parameters of nodes
+	 */
+	ConcurrentEdgeDiscretizer.Parameters computeParameters(CADGeomCurve3D curve,
+		double [] pnt1, double [] pnt2, boolean isCircular)
+	{
+		double [] range = curve.getRange();
+		curve.discretize(maxlen);
+		int nbPoints = curve.nbPoints();
+		int saveNbPoints =  nbPoints;
+		if (nbPoints <= 2 && !isCircular)
 		{
-			range = curve.getRange();
-			curve.discretize(maxlen);
-			nbPoints = curve.nbPoints();
-			int saveNbPoints =  nbPoints;
-			if (nbPoints <= 2 && !isCircular)
-			{
-				//  Compute the deflection
-				double mid1[], pnt1[], pnt2[];
+			//  Compute the deflection
+			double mid1[];
 
-				mid1 = curve.value((range[0] + range[1])/2.0);
-				pnt1 = V[0].pnt();
-				pnt2 = V[1].pnt();
-				double d1 =
-					(mid1[0] - 0.5*(pnt1[0]+pnt2[0])) * (mid1[0] - 0.5*(pnt1[0]+pnt2[0])) +
-					(mid1[1] - 0.5*(pnt1[1]+pnt2[1])) * (mid1[1] - 0.5*(pnt1[1]+pnt2[1])) +
-					(mid1[2] - 0.5*(pnt1[2]+pnt2[2])) * (mid1[2] - 0.5*(pnt1[2]+pnt2[2]));
-				double d2 =
-					(pnt1[0] - pnt2[0]) * (pnt1[0] - pnt2[0]) +
-					(pnt1[1] - pnt2[1]) * (pnt1[1] - pnt2[1]) +
-					(pnt1[2] - pnt2[2]) * (pnt1[2] - pnt2[2]);
-				if (d1 > 0.01 * d2 && d1 > 1.e-6 * maxlen * maxlen) {
-					nbPoints=3;
-				} else {
-					nbPoints=2;
-				}
+			mid1 = curve.value((range[0] + range[1])/2.0);
+			double d1 =
+				(mid1[0] - 0.5*(pnt1[0]+pnt2[0])) * (mid1[0] - 0.5*(pnt1[0]+pnt2[0])) +
+				(mid1[1] - 0.5*(pnt1[1]+pnt2[1])) * (mid1[1] - 0.5*(pnt1[1]+pnt2[1])) +
+				(mid1[2] - 0.5*(pnt1[2]+pnt2[2])) * (mid1[2] - 0.5*(pnt1[2]+pnt2[2]));
+			double d2 =
+				(pnt1[0] - pnt2[0]) * (pnt1[0] - pnt2[0]) +
+				(pnt1[1] - pnt2[1]) * (pnt1[1] - pnt2[1]) +
+				(pnt1[2] - pnt2[2]) * (pnt1[2] - pnt2[2]);
+			if (d1 > 0.01 * d2 && d1 > 1.e-6 * maxlen * maxlen) {
+				nbPoints=3;
+			} else {
+				nbPoints=2;
 			}
-			else if (nbPoints <= 3 && isCircular)
-				nbPoints=4;
+		}
+		else if (nbPoints <= 3 && isCircular)
+			nbPoints=4;
 
-			if (saveNbPoints != nbPoints)
-				curve.discretize(nbPoints);
-			paramOnEdge = new double[nbPoints];
-			// GCPnts_UniformAbscissa is not very accurate, force paramOnEdge
-			// to be in ascending order.
-			int offset = 0;
-			paramOnEdge[0] = curve.parameter(1);
-			if (range[0] < range[1])
-			{
-				for (int i = 1; i < nbPoints; i++)
-				{
-					paramOnEdge[i-offset] = curve.parameter(i+1);
-					if (paramOnEdge[i-offset] <= paramOnEdge[i-offset-1])
-						offset++;
-				}
-			}
-			else
+		if (saveNbPoints != nbPoints)
+			curve.discretize(nbPoints);
+		double [] paramOnEdge = new double[nbPoints];
+		// GCPnts_UniformAbscissa is not very accurate, force paramOnEdge
+		// to be in ascending order.
+		int offset = 0;
+		paramOnEdge[0] = curve.parameter(1);
+		if (range[0] < range[1])
+		{
+			for (int i = 1; i < nbPoints; i++)
 			{
-				for (int i = 1; i < nbPoints; i++)
-				{
-					paramOnEdge[i-offset] = curve.parameter(i+1);
-					if (paramOnEdge[i-offset] >= paramOnEdge[i-offset-1])
-						offset++;
-				}
+				paramOnEdge[i-offset] = curve.parameter(i+1);
+				if (paramOnEdge[i-offset] <= paramOnEdge[i-offset-1])
+					offset++;
 			}
-			nbPoints -= offset;
-			if (LOGGER.isLoggable(Level.FINE))
-				LOGGER.fine("curve length: "+curve.length()+"  nr. points: "+nbPoints);
 		}
-
-		MNode1D n1, n2;
-		double param;
-
-		//  First vertex
-		CADVertex GPt = mesh1d.getGeometricalVertex(V[0]);
-		MNode1D firstNode = new MNode1D(paramOnEdge[0], GPt);
-		n1 = firstNode;
-		n1.isDegenerated(isDegenerated);
-		nodelist.add(n1);
-		if (!isDegenerated)
-			GPt = null;
-
-		//  Other points
-		for (int i = 0; i < nbPoints - 1; i++)
+		else
 		{
-			param = paramOnEdge[i+1];
-			if (i == nbPoints - 2)
-				GPt = mesh1d.getGeometricalVertex(V[1]);
-			n2 = new MNode1D(param, GPt);
-			n2.isDegenerated(isDegenerated);
-			nodelist.add(n2);
-			MEdge1D e=new MEdge1D(n1, n2);
-			edgelist.add(e);
-			n1 = n2;
+			for (int i = 1; i < nbPoints; i++)
+			{
+				paramOnEdge[i-offset] = curve.parameter(i+1);
+				if (paramOnEdge[i-offset] >= paramOnEdge[i-offset-1])
+					offset++;
+			}
 		}
-		return true;
+		nbPoints -= offset;
+		if (LOGGER.isLoggable(Level.FINE))
+			LOGGER.fine("curve length: "+curve.length()+"  nr. points: "+nbPoints);
+		return new ConcurrentEdgeDiscretizer.Parameters(paramOnEdge, nbPoints, false);
 	}
 }
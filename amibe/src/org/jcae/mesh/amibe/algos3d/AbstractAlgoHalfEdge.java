@@ -22,6 +22,7 @@
 package org.jcae.mesh.amibe.algos3d;
 
 import org.jcae.mesh.amibe.ds.Mesh;
+import org.jcae.mesh.amibe.ds.MeshSnapshot;
 import org.jcae.mesh.amibe.ds.HalfEdge;
 import org.jcae.mesh.amibe.ds.TriangleHE;
 import org.jcae.mesh.amibe.ds.AbstractHalfEdge;
@@ -30,14 +31,14 @@ import org.jcae.mesh.amibe.ds.Vertex;
 import org.jcae.mesh.amibe.projection.MeshLiaison;
 import org.jcae.mesh.amibe.util.QSortedTree;
 import org.jcae.mesh.amibe.util.PAVLSortedTree;
+import gnu.trove.TDoubleArrayList;
+import gnu.trove.TIntArrayList;
 import java.util.Stack;
 import java.util.Iterator;
-import java.io.ObjectOutputStream;
-import java.io.FileOutputStream;
-import java.io.ObjectInputStream;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
+import java.io.File;
 import java.io.IOException;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -64,7 +65,10 @@ public abstract class AbstractAlgoHalfEdge
 	protected abstract HalfEdge processEdge(HalfEdge e, double cost);
 	protected abstract double cost(HalfEdge e);
 	protected abstract Logger thisLogger();
-	private static final String dumpFile = "/tmp/jcae.dump";
+	private String checkpointFile = null;
+	private int checkpointInterval = 0;
+	private int lastCheckpoint = 0;
+	private int numberOfThreads = 1;
 
 	AbstractAlgoHalfEdge(final Mesh m)
 	{
@@ -93,13 +97,21 @@ public abstract class AbstractAlgoHalfEdge
 		preCheck();
 		thisLogger().info("Run "+getClass().getName());
 		mesh.getTrace().println("# Begin "+getClass().getName());
+		MeshSnapshot snapshot = readCheckpoint();
 		preProcessAllHalfEdges();
-		thisLogger().info("Compute initial tree");
-		computeTree();
+		if (snapshot == null)
+		{
+			thisLogger().info("Compute initial tree");
+			computeTree();
+		}
+		else
+			restoreState(snapshot);
 		postComputeTree();
 		thisLogger().info("Initial number of triangles: "+countInnerTriangles(mesh));
 		processAllHalfEdges();
 		thisLogger().info("Final number of triangles: "+countInnerTriangles(mesh));
+		if (checkpointFile != null)
+			new File(checkpointFile).delete();
 		mesh.getTrace().println("# End "+getClass().getName());
 		postCheck();
 	}
@@ -109,6 +121,62 @@ public abstract class AbstractAlgoHalfEdge
 		progressBarStatus = n;
 	}
 
+	/**
+	 * Sets the number of threads used to process edges.  Edges are
+	 * processed by {@link ConcurrentEdgeProcessor} when
+	 * {@link #isLocalOperation} returns <code>true</code>, no target
+	 * number of triangles is set, edges are not swapped after being
+	 * processed, and neither traces nor checkpoints are enabled.
+	 * Otherwise this setting is ignored.  Default is 1.
+	 *
+	 * @param n  number of threads
+	 */
+	public void setNumberOfThreads(int n)
+	{
+		numberOfThreads = Math.max(1, n);
+	}
+
+	/**
+	 * Tells whether edges can be processed concurrently.  This is the
+	 * case if {@link #processEdge}, {@link #canProcessEdge} and
+	 * {@link #cost} can be called by several threads, and
+	 * {@link #processEdge} only modifies triangles incident to the
+	 * end points and apices of its edge, and attributes or tree entries
+	 * of edges of triangles adjacent to them.  Tree must then only be
+	 * accessed through synchronized accessors like {@link #treeRemove}.
+	 *
+	 * @return <code>true</code> if edges can be processed concurrently,
+	 *   <code>false</code> otherwise
+	 */
+	protected boolean isLocalOperation()
+	{
+		return false;
+	}
+
+	private boolean isConcurrent()
+	{
+		return numberOfThreads > 1 && isLocalOperation() && nrFinal == 0 &&
+			noSwapAfterProcessing && checkpointInterval == 0 &&
+			mesh.getTrace().getDisabled();
+	}
+
+	/**
+	 * Saves algorithm state every <code>interval</code> processed edges.
+	 * Mesh and edge tree are written into a {@link MeshSnapshot}.  If this
+	 * file exists when {@link #compute} is called, processing restarts
+	 * from this checkpoint, and the file is removed when processing is
+	 * over.  Checkpoints are ignored when a {@link MeshLiaison} is used,
+	 * because restored vertices are unknown to the background mesh.
+	 *
+	 * @param file  checkpoint file
+	 * @param interval  number of processed edges between checkpoints
+	 */
+	public void setCheckpoint(String file, int interval)
+	{
+		checkpointFile = file;
+		checkpointInterval = interval;
+	}
+
 	public static int countInnerTriangles(final Mesh mesh)
 	{
 		int ret = 0;
@@ -188,7 +256,7 @@ public abstract class AbstractAlgoHalfEdge
 		// not be very useful.
 		if (nrFinal != 0 || val <= tolerance)
 		{
-			tree.insert(e, val);
+			treeInsert(e, val);
 			e.setAttributes(AbstractHalfEdge.MARKED);
 		}
 	}
@@ -199,21 +267,67 @@ public abstract class AbstractAlgoHalfEdge
 		{
 			HalfEdge f = (HalfEdge) it.next();
 			HalfEdge h = uniqueOrientation(f);
-			if (!tree.remove(h))
-				notInTree++;
+			treeRemove(h);
 			h.clearAttributes(AbstractHalfEdge.MARKED);
-			assert !tree.contains(h);
+			assert !treeContains(h);
 		}
 	}
 
+	// Tree accessors, they are synchronized because the tree is shared
+	// by threads of ConcurrentEdgeProcessor
+
+	final void treeInsert(HalfEdge e, double val)
+	{
+		synchronized (tree)
+		{
+			tree.insert(e, val);
+		}
+	}
+
+	// Removes an edge, notInTree is incremented if it is not found
+	final void treeRemove(HalfEdge e)
+	{
+		synchronized (tree)
+		{
+			if (!tree.remove(e))
+				notInTree++;
+		}
+	}
+
+	final boolean treeContains(HalfEdge e)
+	{
+		synchronized (tree)
+		{
+			return tree.contains(e);
+		}
+	}
+
+	final void treeUpdate(HalfEdge e, double val)
+	{
+		synchronized (tree)
+		{
+			tree.update(e, val);
+		}
+	}
+
+	final void logProgress()
+	{
+		if (processed > 0 && (processed % progressBarStatus) == 0)
+			thisLogger().info("Edges processed: "+processed);
+	}
+
 	private boolean processAllHalfEdges()
 	{
 		Stack<HalfEdge> stackNotProcessedObject = new Stack<HalfEdge>();
 		Stack<Double> stackNotProcessedValue = new Stack<Double>();
 		double cost = -1.0;
+		if (isConcurrent())
+			new ConcurrentEdgeProcessor(this, numberOfThreads).compute();
 		while (!tree.isEmpty() && (nrFinal == 0 || (moreTriangles && nrTriangles < nrFinal) || (!moreTriangles && nrTriangles > nrFinal)))
 		{
 			preProcessEdge();
+			if (checkpointInterval > 0 && processed >= lastCheckpoint + checkpointInterval)
+				dumpState();
 			HalfEdge current = null;
 			Iterator<QSortedTree.Node<HalfEdge>> itt = tree.iterator();
 			if (processed > 0 && (processed % progressBarStatus) == 0)
@@ -342,56 +456,80 @@ public abstract class AbstractAlgoHalfEdge
 
 	final void dumpState()
 	{
-		ObjectOutputStream out = null;
+		MeshSnapshot snapshot = new MeshSnapshot(mesh);
+		TIntArrayList ints = new TIntArrayList();
+		TDoubleArrayList doubles = new TDoubleArrayList();
+		ints.add(processed);
+		ints.add(swapped);
+		ints.add(notProcessed);
+		ints.add(notInTree);
+		ints.add(nrTriangles);
+		ints.add(tree.size());
+		for (Iterator<QSortedTree.Node<HalfEdge>> it = tree.iterator(); it.hasNext(); )
+		{
+			QSortedTree.Node<HalfEdge> q = it.next();
+			ints.add(snapshot.getId(q.getData()));
+			doubles.add(q.getValue());
+		}
+		appendDumpState(snapshot, ints, doubles);
 		try
 		{
-			out = new ObjectOutputStream(new FileOutputStream(dumpFile));
-			out.writeObject(mesh);
-			out.writeObject(tree);
-			appendDumpState(out);
-			out.close();
+			snapshot.write(checkpointFile, ints.toNativeArray(), doubles.toNativeArray());
+			lastCheckpoint = processed;
+			thisLogger().fine("Checkpoint written after "+processed+" edges");
 		}
-		catch (Exception ex)
+		catch (IOException ex)
 		{
-			ex.printStackTrace();
-			System.exit(-1);
+			thisLogger().log(Level.WARNING, "Cannot write checkpoint "+checkpointFile, ex);
+			checkpointInterval = 0;
 		}
 	}
 
-	void appendDumpState(ObjectOutputStream out)
-		throws IOException
+	void appendDumpState(MeshSnapshot snapshot, TIntArrayList ints, TDoubleArrayList doubles)
 	{
 	}
 
-	@SuppressWarnings("unchecked")
-	final boolean restoreState()
+	// Restores mesh from checkpoint file, if any
+	private MeshSnapshot readCheckpoint()
 	{
-		try
+		lastCheckpoint = 0;
+		if (checkpointFile != null && liaison != null)
 		{
-			FileInputStream istream = new FileInputStream(dumpFile);
-			ObjectInputStream q = new ObjectInputStream(istream);
-			System.out.println("Loading restored state");
-			mesh = (Mesh) q.readObject();
-			tree = (QSortedTree<HalfEdge>) q.readObject();
-			appendRestoreState(q);
-			System.out.println("... Done.");
-			q.close();
-			assert mesh.isValid();
+			thisLogger().warning("Checkpoints cannot be used with MeshLiaison, ignore "+checkpointFile);
+			checkpointFile = null;
+			checkpointInterval = 0;
 		}
-		catch (FileNotFoundException ex)
+		if (checkpointFile == null || !new File(checkpointFile).exists())
+			return null;
+		thisLogger().info("Restart from checkpoint "+checkpointFile);
+		try
 		{
-			return false;
+			return MeshSnapshot.read(checkpointFile, mesh);
 		}
-		catch (Exception ex)
+		catch (IOException ex)
 		{
-			ex.printStackTrace();
-			System.exit(-1);
+			throw new RuntimeException("Cannot read checkpoint "+checkpointFile, ex);
 		}
-		return true;
 	}
 
-	void appendRestoreState(ObjectInputStream q)
-		throws IOException
+	private void restoreState(MeshSnapshot snapshot)
+	{
+		IntBuffer ints = IntBuffer.wrap(snapshot.getUserInts());
+		DoubleBuffer doubles = DoubleBuffer.wrap(snapshot.getUserDoubles());
+		processed = ints.get();
+		swapped = ints.get();
+		notProcessed = ints.get();
+		notInTree = ints.get();
+		nrTriangles = ints.get();
+		tree.clear();
+		for (int i = ints.get(); i > 0; i--)
+			tree.insert((HalfEdge) snapshot.getEdge(ints.get()), doubles.get());
+		appendRestoreState(snapshot, ints, doubles);
+		lastCheckpoint = processed;
+		assert mesh.isValid();
+	}
+
+	void appendRestoreState(MeshSnapshot snapshot, IntBuffer ints, DoubleBuffer doubles)
 	{
 	}
 
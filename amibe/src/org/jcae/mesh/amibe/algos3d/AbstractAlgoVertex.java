@@ -21,6 +21,7 @@
 package org.jcae.mesh.amibe.algos3d;
 
 import org.jcae.mesh.amibe.ds.Mesh;
+import org.jcae.mesh.amibe.ds.MeshSnapshot;
 import org.jcae.mesh.amibe.ds.Vertex;
 import org.jcae.mesh.amibe.ds.AbstractHalfEdge;
 import org.jcae.mesh.amibe.ds.Triangle;
@@ -28,15 +29,15 @@ import org.jcae.mesh.amibe.projection.MeshLiaison;
 import org.jcae.mesh.amibe.util.QSortedTree;
 import org.jcae.mesh.amibe.util.PAVLSortedTree;
 
+import gnu.trove.TDoubleArrayList;
+import gnu.trove.TIntArrayList;
 import java.util.Stack;
 import java.util.Iterator;
 import java.util.Collection;
-import java.io.ObjectOutputStream;
-import java.io.FileOutputStream;
-import java.io.ObjectInputStream;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
+import java.io.File;
 import java.io.IOException;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
 import java.util.LinkedHashSet;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -61,7 +62,9 @@ public abstract class AbstractAlgoVertex
 	protected abstract boolean processVertex(Vertex v, double cost);
 	protected abstract double cost(Vertex v);
 	protected abstract Logger thisLogger();
-	private static final String dumpFile = "/tmp/jcae.dump";
+	private String checkpointFile = null;
+	private int checkpointInterval = 0;
+	private int lastCheckpoint = 0;
 
 	AbstractAlgoVertex(final Mesh m)
 	{
@@ -79,13 +82,21 @@ public abstract class AbstractAlgoVertex
 		processed = 0;
 		notProcessed = 0;
 		notInTree = 0;
+		MeshSnapshot snapshot = readCheckpoint();
 		preProcessAllVertices();
-		thisLogger().info("Compute initial tree");
-		computeTree();
+		if (snapshot == null)
+		{
+			thisLogger().info("Compute initial tree");
+			computeTree();
+		}
+		else
+			restoreState(snapshot);
 		postComputeTree();
 		processAllVertices();
 		thisLogger().info("Number of processed points: "+processed);
 		thisLogger().info("Total number of points which could not be processed: "+notProcessed);
+		if (checkpointFile != null)
+			new File(checkpointFile).delete();
 		mesh.getTrace().println("# End "+getClass().getName());
 		assert mesh.checkNoDegeneratedTriangles();
 		assert mesh.checkNoInvertedTriangles();
@@ -96,6 +107,23 @@ public abstract class AbstractAlgoVertex
 		progressBarStatus = n;
 	}
 
+	/**
+	 * Saves algorithm state every <code>interval</code> processed
+	 * vertices.  Mesh and vertex tree are written into a
+	 * {@link MeshSnapshot}.  If this file exists when {@link #compute} is
+	 * called, processing restarts from this checkpoint, and the file is
+	 * removed when processing is over.  Checkpoints are ignored when a
+	 * {@link MeshLiaison} is used.
+	 *
+	 * @param file  checkpoint file
+	 * @param interval  number of processed vertices between checkpoints
+	 */
+	public void setCheckpoint(String file, int interval)
+	{
+		checkpointFile = file;
+		checkpointInterval = interval;
+	}
+
 	private void computeTree()
 	{
 		if (nodeset == null)
@@ -142,6 +170,8 @@ public abstract class AbstractAlgoVertex
 		while (!tree.isEmpty())
 		{
 			preProcessVertex();
+			if (checkpointInterval > 0 && processed >= lastCheckpoint + checkpointInterval)
+				dumpState();
 			Vertex current = null;
 			Iterator<QSortedTree.Node<Vertex>> itt = tree.iterator();
 			if (processed > 0 && (processed % progressBarStatus) == 0)
@@ -190,56 +220,76 @@ public abstract class AbstractAlgoVertex
 
 	final void dumpState()
 	{
-		ObjectOutputStream out = null;
+		MeshSnapshot snapshot = new MeshSnapshot(mesh);
+		TIntArrayList ints = new TIntArrayList();
+		TDoubleArrayList doubles = new TDoubleArrayList();
+		ints.add(processed);
+		ints.add(notProcessed);
+		ints.add(notInTree);
+		ints.add(tree.size());
+		for (Iterator<QSortedTree.Node<Vertex>> it = tree.iterator(); it.hasNext(); )
+		{
+			QSortedTree.Node<Vertex> q = it.next();
+			ints.add(snapshot.getId(q.getData()));
+			doubles.add(q.getValue());
+		}
+		appendDumpState(snapshot, ints, doubles);
 		try
 		{
-			out = new ObjectOutputStream(new FileOutputStream(dumpFile));
-			out.writeObject(mesh);
-			out.writeObject(tree);
-			appendDumpState(out);
-			out.close();
+			snapshot.write(checkpointFile, ints.toNativeArray(), doubles.toNativeArray());
+			lastCheckpoint = processed;
+			thisLogger().fine("Checkpoint written after "+processed+" vertices");
 		}
-		catch (Exception ex)
+		catch (IOException ex)
 		{
-			ex.printStackTrace();
-			System.exit(-1);
+			thisLogger().log(Level.WARNING, "Cannot write checkpoint "+checkpointFile, ex);
+			checkpointInterval = 0;
 		}
 	}
 
-	void appendDumpState(ObjectOutputStream out)
-		throws IOException
+	void appendDumpState(MeshSnapshot snapshot, TIntArrayList ints, TDoubleArrayList doubles)
 	{
 	}
 
-	@SuppressWarnings("unchecked")
-	final boolean restoreState()
+	// Restores mesh from checkpoint file, if any
+	private MeshSnapshot readCheckpoint()
 	{
-		try
+		lastCheckpoint = 0;
+		if (checkpointFile != null && liaison != null)
 		{
-			FileInputStream istream = new FileInputStream(dumpFile);
-			ObjectInputStream q = new ObjectInputStream(istream);
-			System.out.println("Loading restored state");
-			mesh = (Mesh) q.readObject();
-			tree = (QSortedTree<Vertex>) q.readObject();
-			appendRestoreState(q);
-			System.out.println("... Done.");
-			q.close();
-			assert mesh.isValid();
+			thisLogger().warning("Checkpoints cannot be used with MeshLiaison, ignore "+checkpointFile);
+			checkpointFile = null;
+			checkpointInterval = 0;
 		}
-		catch (FileNotFoundException ex)
+		if (checkpointFile == null || !new File(checkpointFile).exists())
+			return null;
+		thisLogger().info("Restart from checkpoint "+checkpointFile);
+		try
 		{
-			return false;
+			return MeshSnapshot.read(checkpointFile, mesh);
 		}
-		catch (Exception ex)
+		catch (IOException ex)
 		{
-			ex.printStackTrace();
-			System.exit(-1);
+			throw new RuntimeException("Cannot read checkpoint "+checkpointFile, ex);
 		}
-		return true;
 	}
 
-	void appendRestoreState(ObjectInputStream q)
-		throws IOException
+	private void restoreState(MeshSnapshot snapshot)
+	{
+		IntBuffer ints = IntBuffer.wrap(snapshot.getUserInts());
+		DoubleBuffer doubles = DoubleBuffer.wrap(snapshot.getUserDoubles());
+		processed = ints.get();
+		notProcessed = ints.get();
+		notInTree = ints.get();
+		tree.clear();
+		for (int i = ints.get(); i > 0; i--)
+			tree.insert(snapshot.getVertex(ints.get()), doubles.get());
+		appendRestoreState(snapshot, ints, doubles);
+		lastCheckpoint = processed;
+		assert mesh.isValid();
+	}
+
+	void appendRestoreState(MeshSnapshot snapshot, IntBuffer ints, DoubleBuffer doubles)
 	{
 	}
 
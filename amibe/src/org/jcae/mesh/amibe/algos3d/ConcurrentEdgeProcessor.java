@@ -0,0 +1,349 @@
+/* jCAE stand for Java Computer Aided Engineering. Features are : Small CAD
+   modeler, Finite element mesher, Plugin architecture.
+
+    Copyright (C) 2012, by EADS France
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA */
+
+package org.jcae.mesh.amibe.algos3d;
+
+import org.jcae.mesh.amibe.ds.ElementIds;
+import org.jcae.mesh.amibe.ds.HalfEdge;
+import org.jcae.mesh.amibe.ds.NeighbourCursor;
+import org.jcae.mesh.amibe.ds.Mesh;
+import org.jcae.mesh.amibe.ds.Triangle;
+import org.jcae.mesh.amibe.ds.Vertex;
+import org.jcae.mesh.amibe.util.QSortedTree;
+import gnu.trove.TIntArrayList;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Processes edges of an {@link AbstractAlgoHalfEdge} on several threads.
+ *
+ * <p>
+ * This is only valid for algorithms whose
+ * {@link AbstractAlgoHalfEdge#isLocalOperation} returns <code>true</code>:
+ * processing edge <code>(o,d)</code> with apices <code>a</code> and
+ * <code>n</code> only modifies triangles incident to these four vertices,
+ * and attributes or tree entries of edges of triangles adjacent to them.
+ * </p>
+ *
+ * <p>
+ * Edges are processed in rounds.  A round takes all edges of the tree
+ * whose cost is below tolerance, and distributes them into one queue per
+ * thread by slicing the bounding box of the mesh along its largest
+ * direction, so that threads mostly work in separate regions.  Before
+ * processing an edge, a thread tries to lock its four vertices and all
+ * their neighbours, and gives up without waiting if one of them is
+ * already locked.  Every modified triangle then has at least two
+ * vertices locked by the modifying thread, two threads can thus never
+ * modify the same triangle.  Locks are acquired without blocking, so
+ * there can be no deadlock; edges which could not be locked are retried
+ * at the end of the queue, and left to the next round if they still
+ * cannot.
+ * </p>
+ *
+ * <p>
+ * Once locked, an edge is checked again: it must still be in the tree,
+ * and its cost is computed again since neighbouring edges may have been
+ * processed since the round started.  Then {@link
+ * AbstractAlgoHalfEdge#canProcessEdge} and {@link
+ * AbstractAlgoHalfEdge#processEdge} are called as in the sequential
+ * loop.  The tree is shared, its accessors in {@link AbstractAlgoHalfEdge}
+ * are synchronized.  Rounds stop when no edge is processed, the
+ * sequential loop then processes remaining edges if any.
+ * </p>
+ */
+final class ConcurrentEdgeProcessor
+{
+	private static final Logger LOGGER=Logger.getLogger(ConcurrentEdgeProcessor.class.getName());
+
+	private final AbstractAlgoHalfEdge algo;
+	private final Mesh mesh;
+	private final int nrThreads;
+	private final ElementIds<Vertex> vertexIds;
+	// 0 if vertex is free, otherwise thread number plus one
+	private AtomicIntegerArray locks;
+	// Statistics
+	private int nrRounds = 0;
+	private int nrConflicts = 0;
+
+	// Result of an attempt
+	private static final int PROCESSED = 0;
+	private static final int SKIPPED = 1;
+	private static final int CONFLICT = 2;
+
+	// Edge selected at the beginning of a round, with its end points
+	private static final class Candidate
+	{
+		final HalfEdge edge;
+		final Vertex origin;
+		final Vertex destination;
+		Candidate(HalfEdge edge)
+		{
+			this.edge = edge;
+			origin = edge.origin();
+			destination = edge.destination();
+		}
+	}
+
+	ConcurrentEdgeProcessor(AbstractAlgoHalfEdge algo, int nrThreads)
+	{
+		this.algo = algo;
+		this.mesh = algo.mesh;
+		this.nrThreads = nrThreads;
+		vertexIds = mesh.getVertexIds();
+	}
+
+	void compute()
+	{
+		// Identifiers are allocated here, workers only read them
+		for (Triangle t : mesh.getTriangles())
+		{
+			for (Vertex v : t.vertex)
+				vertexIds.get(v);
+		}
+		locks = new AtomicIntegerArray(vertexIds.size());
+		ExecutorService executor = Executors.newFixedThreadPool(nrThreads);
+		mesh.setConcurrent(true);
+		try
+		{
+			while (true)
+			{
+				List<List<Candidate>> queues = selectCandidates();
+				if (queues == null)
+					break;
+				nrRounds++;
+				if (runRound(executor, queues) == 0)
+					break;
+			}
+		}
+		finally
+		{
+			mesh.setConcurrent(false);
+			executor.shutdown();
+			locks = null;
+		}
+		LOGGER.fine("Concurrent processing: "+nrRounds+" rounds, "+nrConflicts+" conflicts");
+	}
+
+	/**
+	 * Returns one queue per thread, or <code>null</code> if there is no
+	 * edge to process.
+	 */
+	private List<List<Candidate>> selectCandidates()
+	{
+		List<Candidate> all = new ArrayList<Candidate>();
+		double [] bmin = new double[] { Double.MAX_VALUE, Double.MAX_VALUE, Double.MAX_VALUE };
+		double [] bmax = new double[] { -Double.MAX_VALUE, -Double.MAX_VALUE, -Double.MAX_VALUE };
+		for (Iterator<QSortedTree.Node<HalfEdge>> it = algo.tree.iterator(); it.hasNext(); )
+		{
+			QSortedTree.Node<HalfEdge> q = it.next();
+			if (q.getValue() > algo.tolerance)
+				break;
+			Candidate c = new Candidate(q.getData());
+			all.add(c);
+			double [] xyz = c.origin.getUV();
+			for (int k = 0; k < 3; k++)
+			{
+				bmin[k] = Math.min(bmin[k], xyz[k]);
+				bmax[k] = Math.max(bmax[k], xyz[k]);
+			}
+		}
+		if (all.isEmpty())
+			return null;
+		int axis = 0;
+		for (int k = 1; k < 3; k++)
+		{
+			if (bmax[k] - bmin[k] > bmax[axis] - bmin[axis])
+				axis = k;
+		}
+		double width = (bmax[axis] - bmin[axis]) / nrThreads;
+		List<List<Candidate>> ret = new ArrayList<List<Candidate>>(nrThreads);
+		for (int i = 0; i < nrThreads; i++)
+			ret.add(new ArrayList<Candidate>());
+		// Candidates keep tree order in each queue
+		for (Candidate c : all)
+		{
+			int slice = 0;
+			if (width > 0.0)
+				slice = Math.min(nrThreads - 1, (int) ((c.origin.getUV()[axis] - bmin[axis]) / width));
+			ret.get(slice).add(c);
+		}
+		return ret;
+	}
+
+	/**
+	 * Processes queues concurrently and returns the number of processed
+	 * edges.
+	 */
+	private int runRound(ExecutorService executor, List<List<Candidate>> queues)
+	{
+		List<Callable<int []>> tasks = new ArrayList<Callable<int []>>(queues.size());
+		for (int i = 0; i < queues.size(); i++)
+		{
+			final List<Candidate> queue = queues.get(i);
+			final int owner = i + 1;
+			tasks.add(new Callable<int []>()
+			{
+				public int [] call()
+				{
+					return processQueue(queue, owner);
+				}
+			});
+		}
+		int nrProcessed = 0;
+		try
+		{
+			for (Future<int []> f : executor.invokeAll(tasks))
+			{
+				int [] result = f.get();
+				nrProcessed += result[0];
+				nrConflicts += result[1];
+			}
+		}
+		catch (InterruptedException ex)
+		{
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(ex);
+		}
+		catch (ExecutionException ex)
+		{
+			if (ex.getCause() instanceof RuntimeException)
+				throw (RuntimeException) ex.getCause();
+			if (ex.getCause() instanceof Error)
+				throw (Error) ex.getCause();
+			throw new RuntimeException(ex.getCause());
+		}
+		return nrProcessed;
+	}
+
+	// Returns the number of processed edges and of conflicts
+	private int [] processQueue(List<Candidate> queue, int owner)
+	{
+		int [] ret = new int[2];
+		TIntArrayList held = new TIntArrayList();
+		NeighbourCursor cursor = new NeighbourCursor();
+		List<Candidate> retry = new ArrayList<Candidate>();
+		for (Candidate c : queue)
+		{
+			int result = tryProcess(c, owner, held, cursor);
+			if (result == PROCESSED)
+				ret[0]++;
+			else if (result == CONFLICT)
+				retry.add(c);
+		}
+		ret[1] = retry.size();
+		for (Candidate c : retry)
+		{
+			if (tryProcess(c, owner, held, cursor) == PROCESSED)
+				ret[0]++;
+		}
+		return ret;
+	}
+
+	private int tryProcess(Candidate c, int owner, TIntArrayList held, NeighbourCursor cursor)
+	{
+		try
+		{
+			// Triangles incident to a locked vertex cannot be
+			// modified by other threads, so vertices can be read
+			// safely once locked.
+			if (!lock(c.origin, owner, held) || !lock(c.destination, owner, held))
+				return CONFLICT;
+			HalfEdge edge = c.edge;
+			if (edge.origin() != c.origin || edge.destination() != c.destination || !edge.hasSymmetricEdge())
+				return SKIPPED;
+			if (!algo.treeContains(edge))
+				return SKIPPED;
+			Vertex a = edge.apex();
+			Vertex n = edge.sym().apex();
+			if (!lock(a, owner, held) || !lock(n, owner, held))
+				return CONFLICT;
+			if (!lockNeighbours(c.origin, owner, held, cursor) || !lockNeighbours(c.destination, owner, held, cursor) ||
+			    !lockNeighbours(a, owner, held, cursor) || !lockNeighbours(n, owner, held, cursor))
+				return CONFLICT;
+			double cost = algo.cost(edge);
+			if (cost > algo.tolerance)
+			{
+				// Neighbours have been modified
+				algo.treeUpdate(edge, cost);
+				return SKIPPED;
+			}
+			if (!algo.canProcessEdge(edge))
+			{
+				if (LOGGER.isLoggable(Level.FINE))
+					LOGGER.fine("Edge not processed: "+edge);
+				algo.treeUpdate(edge, algo.tolerance != 0.0 ? cost+0.7*(algo.tolerance - cost) : 1.0);
+				synchronized (algo)
+				{
+					algo.notProcessed++;
+				}
+				return SKIPPED;
+			}
+			algo.processEdge(edge, cost);
+			synchronized (algo)
+			{
+				algo.afterProcessHook();
+				algo.processed++;
+				algo.logProgress();
+			}
+			return PROCESSED;
+		}
+		finally
+		{
+			for (int i = 0; i < held.size(); i++)
+				locks.set(held.get(i), 0);
+			held.resetQuick();
+		}
+	}
+
+	private boolean lock(Vertex v, int owner, TIntArrayList held)
+	{
+		if (v == mesh.outerVertex)
+			return true;
+		int id = vertexIds.find(v);
+		if (id < 0)
+			return false;
+		if (locks.get(id) == owner)
+			return true;
+		if (!locks.compareAndSet(id, 0, owner))
+			return false;
+		held.add(id);
+		return true;
+	}
+
+	private boolean lockNeighbours(Vertex v, int owner, TIntArrayList held, NeighbourCursor cursor)
+	{
+		if (v == mesh.outerVertex)
+			return true;
+		for (cursor.reset(v); cursor.next(); )
+		{
+			if (!lock(cursor.getVertex(), owner, held))
+				return false;
+		}
+		return true;
+	}
+}
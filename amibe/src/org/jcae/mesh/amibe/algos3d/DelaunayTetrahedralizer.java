@@ -0,0 +1,1861 @@
+/* jCAE stand for Java Computer Aided Engineering. Features are : Small CAD
+   modeler, Finite element mesher, Plugin architecture.
+
+    Copyright (C) 2012, by EADS France
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA */
+
+package org.jcae.mesh.amibe.algos3d;
+
+import org.jcae.mesh.amibe.ds.AbstractHalfEdge;
+import org.jcae.mesh.amibe.ds.Mesh;
+import org.jcae.mesh.amibe.ds.Triangle;
+import org.jcae.mesh.amibe.ds.Vertex;
+import org.jcae.mesh.amibe.metrics.EuclidianMetric3D;
+import org.jcae.mesh.amibe.metrics.KdTree;
+import org.jcae.mesh.amibe.metrics.Metric;
+import org.jcae.mesh.amibe.metrics.MetricSupport;
+import org.jcae.mesh.amibe.metrics.Predicates;
+import org.jcae.mesh.amibe.traits.MeshTraitsBuilder;
+import org.jcae.mesh.amibe.util.SpaceFillingCurve;
+import gnu.trove.TIntArrayList;
+import gnu.trove.TIntHashSet;
+import gnu.trove.TLongArrayList;
+import gnu.trove.TLongHashSet;
+import gnu.trove.TLongIntHashMap;
+import gnu.trove.TObjectIntHashMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Tetrahedralization of a closed triangle mesh, Delaunay except near
+ * surface triangles which are not Delaunay faces.
+ *
+ * <p>
+ * Surface vertices are inserted into a super tetrahedron with the
+ * Bowyer-Watson algorithm, in the order of a Hilbert curve.  Tetrahedra
+ * are stored into integer arrays, each tetrahedron has four vertices
+ * and four neighbours, face <code>i</code> being opposite to vertex
+ * <code>i</code>.  Point location is a visibility walk which starts
+ * from a tetrahedron incident to the nearest vertex found in a
+ * {@link KdTree}, and orientation and insphere tests are computed by
+ * {@link Predicates}, so results are exact.
+ * </p>
+ *
+ * <p>
+ * Surface triangles must then be faces of the tetrahedralization.
+ * Missing surface edges, and then missing surface triangles, are
+ * recovered by flips without inserting any vertex, so that the surface
+ * mesh is kept: tetrahedra crossed by a segment from a vertex are
+ * replaced by the star of this vertex, or an edge crossing the surface
+ * is removed by joining its endpoints to a triangulation of the polygon
+ * around it, found by dynamic programming.  When no such triangulation
+ * exists, edges around it are removed first, and these flips are undone
+ * if this does not help.  Some surfaces cannot be tetrahedralized
+ * without inner vertices; if recovery fails, {@link #compute} stops and
+ * {@link #getOutputMesh} returns <code>null</code>, caller can then fall
+ * back to another mesher.  Surface triangles are marked as constrained,
+ * and tetrahedra are classified as inside or outside by the parity of
+ * the number of constrained faces crossed from the super tetrahedron.
+ * Inside tetrahedra whose circumradius is too large
+ * with respect to the target size are then refined by inserting their
+ * circumcenter; cavities do not cross constrained faces, and points
+ * located outside, near existing vertices or which would break a
+ * constrained face are discarded, so that the surface mesh is kept
+ * untouched.
+ * </p>
+ *
+ * <p>
+ * Points are inserted by batches.  Cavities of all points of a batch
+ * are computed concurrently on the current tetrahedralization, which is
+ * not modified during this stage.  They are then committed
+ * sequentially; a cavity is discarded if it contains a tetrahedron
+ * which has been removed or modified by an earlier cavity of the same
+ * batch, and its point is retried in the next batch.  The first cavity
+ * of a batch is always committed, so each batch inserts at least one
+ * point.
+ * </p>
+ *
+ * <p>
+ * Target size is either constant, see the <code>size</code> option, or
+ * given by a {@link MetricSupport.AnalyticMetricInterface}.
+ * </p>
+ */
+public class DelaunayTetrahedralizer
+{
+	private static final Logger LOGGER=Logger.getLogger(DelaunayTetrahedralizer.class.getName());
+	// Flags: bit i is set when face i is constrained
+	private static final byte INSIDE = 0x10;
+	private static final byte DEAD = 0x20;
+	// Tetrahedra whose circumradius is larger than RADIUS_RATIO times
+	// target size are refined
+	private static final double RADIUS_RATIO = 0.75;
+	// Points closer than MIN_DISTANCE times target size to an existing
+	// vertex are discarded
+	private static final double MIN_DISTANCE = 0.5;
+	// Super tetrahedron is SUPER_SCALE times larger than bounding box
+	private static final double SUPER_SCALE = 20.0;
+	private static final int MAX_WALK = 10000;
+	private static final int MAX_BATCH = 256;
+	// Maximal number of flips to recover a surface edge or triangle,
+	// maximal number of tetrahedra replaced by a flip, and maximal number
+	// of tetrahedra around an edge removed by a flip
+	private static final int MAX_FLIPS = 1000;
+	private static final int MAX_FLIP_CAVITY = 1000;
+	private static final int MAX_RING = 64;
+	// Maximal number of edges removed before an edge removal, see removeEdge
+	private static final int FLIP_DEPTH = 2;
+
+	private final Mesh surface;
+	private final Mesh output;
+	private double size = -1.0;
+	private MetricSupport.AnalyticMetricInterface sizeFunction;
+	private int maxRounds = 30;
+	private int numberOfThreads = 1;
+	private boolean valid;
+	private final Metric euclid = new EuclidianMetric3D();
+
+	// Points, the four first ones are vertices of the super tetrahedron
+	private Vertex [] vertices = new Vertex[64];
+	private double [][] xyz = new double[64][];
+	private int [] vertexTet = new int[64];
+	private int nrVertices;
+	private final TObjectIntHashMap<Vertex> vertexIndex = new TObjectIntHashMap<Vertex>();
+
+	// Tetrahedra
+	private int [] tv = new int[256];
+	private int [] tn = new int[256];
+	private byte [] flags = new byte[64];
+	private int [] stamp = new int[64];
+	private int nrTets;
+	private int nrDead;
+	private final TIntArrayList freeTets = new TIntArrayList();
+	private int currentStamp;
+	private int lastTet;
+
+	private double [] bbox;
+	private KdTree<Vertex> kdTree;
+	private int nrKdTree;
+	private ExecutorService executor;
+
+	// Surface triangles and edges, see faceKey and edgeKey
+	private TLongHashSet surfaceFaces;
+	private TLongHashSet surfaceEdges;
+	private int nrMissingEdges;
+	private int nrMissingTriangles;
+	private int nrFlips;
+	private final List<Flip> flips = new ArrayList<Flip>();
+
+	// Flip done during boundary recovery, given by created tetrahedra,
+	// replaced tetrahedra and their vertices
+	private static final class Flip
+	{
+		private final int [] created;
+		private final int [] removed;
+		private final int [] replaced;
+		private Flip(int [] c, int [] d, int [] r)
+		{
+			created = c;
+			removed = d;
+			replaced = r;
+		}
+	}
+
+	private static final class Cavity
+	{
+		private final int point;
+		private final int [] tets;
+		// Boundary faces, encoded as 4*tetrahedron+face
+		private final int [] faces;
+		private Cavity(int p, int [] t, int [] f)
+		{
+			point = p;
+			tets = t;
+			faces = f;
+		}
+	}
+
+	/**
+	 * Creates a <code>DelaunayTetrahedralizer</code> instance.
+	 *
+	 * @param m  closed surface mesh
+	 */
+	public DelaunayTetrahedralizer(final Mesh m)
+	{
+		this(m, new HashMap<String, String>());
+	}
+
+	/**
+	 * Creates a <code>DelaunayTetrahedralizer</code> instance.
+	 *
+	 * @param m  closed surface mesh
+	 * @param options  map containing key-value pairs to modify algorithm
+	 *        behaviour.  Valid keys are <code>size</code> (constant target
+	 *        size, there is no refinement if it is not set and no size
+	 *        function is given), <code>rounds</code> (maximal number of
+	 *        refinement rounds, default is 30) and <code>threads</code>
+	 *        (number of threads, default is 1).
+	 */
+	public DelaunayTetrahedralizer(final Mesh m, final Map<String, String> options)
+	{
+		for (final Map.Entry<String, String> opt: options.entrySet())
+		{
+			final String key = opt.getKey();
+			final String val = opt.getValue();
+			if (key.equals("size"))
+				size = Double.parseDouble(val);
+			else if (key.equals("rounds"))
+				maxRounds = Integer.parseInt(val);
+			else if (key.equals("threads"))
+				numberOfThreads = Math.max(1, Integer.parseInt(val));
+			else
+				throw new RuntimeException("Unknown option: "+key);
+		}
+		surface = m;
+		MeshTraitsBuilder mtb = MeshTraitsBuilder.getDefault3D();
+		mtb.addNodeList();
+		output = new Mesh(mtb);
+	}
+
+	/**
+	 * Sets target size function.  It overrides the <code>size</code>
+	 * option.
+	 */
+	public final void setAnalyticMetric(MetricSupport.AnalyticMetricInterface f)
+	{
+		sizeFunction = f;
+	}
+
+	public final void setNumberOfThreads(int n)
+	{
+		numberOfThreads = Math.max(1, n);
+	}
+
+	/**
+	 * Returns the volume mesh, or <code>null</code> if surface triangles
+	 * could not be recovered.  Tetrahedra are oriented so that
+	 * <code>(v1-v0).((v2-v0)^(v3-v0))</code> is positive.
+	 */
+	public final Mesh getOutputMesh()
+	{
+		return valid ? output : null;
+	}
+
+	/**
+	 * Returns the number of surface triangles which were not faces of
+	 * the Delaunay tetrahedralization of surface vertices and have been
+	 * recovered, or could not be recovered.
+	 */
+	final int getNumberOfMissingTriangles()
+	{
+		return nrMissingTriangles;
+	}
+
+	/**
+	 * Returns the number of surface edges which were not edges of the
+	 * Delaunay tetrahedralization of surface vertices.
+	 */
+	final int getNumberOfMissingEdges()
+	{
+		return nrMissingEdges;
+	}
+
+	public final DelaunayTetrahedralizer compute()
+	{
+		LOGGER.info("Run "+getClass().getName());
+		valid = false;
+		List<Vertex []> triangles = new ArrayList<Vertex []>();
+		for (Triangle t : surface.getTriangles())
+		{
+			if (t.hasAttributes(AbstractHalfEdge.OUTER) || t.vertex.length != 3)
+				continue;
+			if (t.vertex[0] == surface.outerVertex || t.vertex[1] == surface.outerVertex || t.vertex[2] == surface.outerVertex)
+				continue;
+			triangles.add(t.vertex);
+		}
+		if (triangles.isEmpty())
+			return this;
+		if (numberOfThreads > 1)
+			executor = Executors.newFixedThreadPool(numberOfThreads);
+		try
+		{
+			computeInit(triangles);
+			if (!recoverBoundary(triangles) || !classify())
+				return this;
+			refine();
+			buildOutput();
+			valid = true;
+		}
+		finally
+		{
+			if (executor != null)
+				executor.shutdown();
+			executor = null;
+		}
+		return this;
+	}
+
+	private void computeInit(List<Vertex []> triangles)
+	{
+		bbox = new double[6];
+		for (int j = 0; j < 3; j++)
+		{
+			bbox[j] = Double.MAX_VALUE;
+			bbox[j+3] = - Double.MAX_VALUE;
+		}
+		TIntArrayList points = new TIntArrayList();
+		for (Vertex [] t : triangles)
+		{
+			for (Vertex v : t)
+			{
+				if (vertexIndex.containsKey(v))
+					continue;
+				vertexIndex.put(v, -1);
+				double [] p = v.getUV();
+				for (int j = 0; j < 3; j++)
+				{
+					bbox[j] = Math.min(bbox[j], p[j]);
+					bbox[j+3] = Math.max(bbox[j+3], p[j]);
+				}
+			}
+		}
+		double diag = 0.0;
+		double [] center = new double[3];
+		for (int j = 0; j < 3; j++)
+		{
+			diag += (bbox[j+3] - bbox[j]) * (bbox[j+3] - bbox[j]);
+			center[j] = 0.5 * (bbox[j] + bbox[j+3]);
+		}
+		double r = SUPER_SCALE * Math.sqrt(diag);
+		double [][] corners = new double[][] {
+			{ r, r, r }, { r, -r, -r }, { -r, r, -r }, { -r, -r, r }
+		};
+		for (double [] c : corners)
+			addPoint(output.createVertex(center[0] + c[0], center[1] + c[1], center[2] + c[2]));
+		int t = newTet();
+		for (int k = 0; k < 4; k++)
+		{
+			tv[4*t+k] = k;
+			tn[4*t+k] = -1;
+			vertexTet[k] = t;
+		}
+		if (orient(t) < 0.0)
+		{
+			tv[4*t+2] = 3;
+			tv[4*t+3] = 2;
+		}
+		lastTet = t;
+
+		kdTree = new KdTree<Vertex>(bbox);
+		for (Vertex [] tri : triangles)
+		{
+			for (Vertex v : tri)
+			{
+				if (vertexIndex.get(v) < 0)
+					points.add(addPoint(v));
+			}
+		}
+		int nr = insertPoints(points, false);
+		if (nr < points.size())
+			LOGGER.warning((points.size() - nr)+" duplicate surface vertices have been discarded");
+		LOGGER.fine(nr+" surface vertices inserted, "+(nrTets - nrDead)+" tetrahedra");
+	}
+
+	private int addPoint(Vertex v)
+	{
+		if (nrVertices >= vertices.length)
+		{
+			int n = 2 * vertices.length;
+			Vertex [] newVertices = new Vertex[n];
+			System.arraycopy(vertices, 0, newVertices, 0, nrVertices);
+			vertices = newVertices;
+			double [][] newXYZ = new double[n][];
+			System.arraycopy(xyz, 0, newXYZ, 0, nrVertices);
+			xyz = newXYZ;
+			int [] newVertexTet = new int[n];
+			System.arraycopy(vertexTet, 0, newVertexTet, 0, nrVertices);
+			vertexTet = newVertexTet;
+		}
+		vertices[nrVertices] = v;
+		xyz[nrVertices] = v.getUV();
+		vertexTet[nrVertices] = -1;
+		vertexIndex.put(v, nrVertices);
+		nrVertices++;
+		return nrVertices - 1;
+	}
+
+	private int newTet()
+	{
+		if (!freeTets.isEmpty())
+		{
+			int ret = freeTets.remove(freeTets.size() - 1);
+			nrDead--;
+			return ret;
+		}
+		if (nrTets >= flags.length)
+		{
+			int n = 2 * flags.length;
+			int [] newTv = new int[4*n];
+			System.arraycopy(tv, 0, newTv, 0, 4*nrTets);
+			tv = newTv;
+			int [] newTn = new int[4*n];
+			System.arraycopy(tn, 0, newTn, 0, 4*nrTets);
+			tn = newTn;
+			byte [] newFlags = new byte[n];
+			System.arraycopy(flags, 0, newFlags, 0, nrTets);
+			flags = newFlags;
+			int [] newStamp = new int[n];
+			System.arraycopy(stamp, 0, newStamp, 0, nrTets);
+			stamp = newStamp;
+		}
+		nrTets++;
+		return nrTets - 1;
+	}
+
+	private double orient(int t)
+	{
+		return Predicates.orient3d(xyz[tv[4*t]], xyz[tv[4*t+1]], xyz[tv[4*t+2]], xyz[tv[4*t+3]]);
+	}
+
+	// Orientation of tetrahedron t when its vertex i is replaced by p.
+	// It is negative if p is beyond face i.
+	private double orient(int t, int i, double [] p)
+	{
+		return Predicates.orient3d(
+			i == 0 ? p : xyz[tv[4*t]],
+			i == 1 ? p : xyz[tv[4*t+1]],
+			i == 2 ? p : xyz[tv[4*t+2]],
+			i == 3 ? p : xyz[tv[4*t+3]]);
+	}
+
+	private double insphere(int t, double [] p)
+	{
+		return Predicates.insphere(xyz[tv[4*t]], xyz[tv[4*t+1]], xyz[tv[4*t+2]], xyz[tv[4*t+3]], p);
+	}
+
+	private boolean isConstrained(int t, int i)
+	{
+		return (flags[t] & (1 << i)) != 0;
+	}
+
+	private int startTet(double [] p)
+	{
+		if (nrKdTree == 0)
+			return lastTet;
+		Vertex v = kdTree.getNearVertex(euclid, p);
+		return vertexTet[vertexIndex.get(v)];
+	}
+
+	// Visibility walk, returns the tetrahedron containing p, or -1 if p
+	// is outside of the super tetrahedron.
+	private int locate(double [] p, int start)
+	{
+		int t = start;
+		for (int steps = 0; steps < MAX_WALK; steps++)
+		{
+			int next = -2;
+			for (int k = 0; k < 4; k++)
+			{
+				// Rotate first face to prevent cycles
+				int i = (k + steps) & 3;
+				if (orient(t, i, p) < 0.0)
+				{
+					next = tn[4*t+i];
+					break;
+				}
+			}
+			if (next == -2)
+				return t;
+			if (next < 0)
+				return -1;
+			t = next;
+		}
+		// Walk is too long, check all tetrahedra
+		for (t = 0; t < nrTets; t++)
+		{
+			if ((flags[t] & DEAD) != 0)
+				continue;
+			boolean found = true;
+			for (int i = 0; i < 4 && found; i++)
+				found = orient(t, i, p) >= 0.0;
+			if (found)
+				return t;
+		}
+		return -1;
+	}
+
+	// Returns the cavity of point p, or null if this point cannot be
+	// inserted.  Tetrahedralization is not modified.
+	private Cavity findCavity(int p, boolean constrained)
+	{
+		double [] pt = xyz[p];
+		int t = locate(pt, startTet(pt));
+		if (t < 0)
+			return null;
+		if (constrained && (flags[t] & INSIDE) == 0)
+			return null;
+		for (int k = 0; k < 4; k++)
+		{
+			double [] q = xyz[tv[4*t+k]];
+			if (q[0] == pt[0] && q[1] == pt[1] && q[2] == pt[2])
+				return null;
+		}
+		if (insphere(t, pt) <= 0.0)
+			return null;
+		TIntArrayList tets = new TIntArrayList();
+		TIntHashSet inCavity = new TIntHashSet();
+		TIntArrayList faces = new TIntArrayList();
+		tets.add(t);
+		inCavity.add(t);
+		int head = 0;
+		while (true)
+		{
+			// Add tetrahedra whose circumsphere contains p
+			for (; head < tets.size(); head++)
+			{
+				int c = tets.get(head);
+				for (int i = 0; i < 4; i++)
+				{
+					int n = tn[4*c+i];
+					if (n < 0 || inCavity.contains(n) || (constrained && isConstrained(c, i)))
+						continue;
+					if (insphere(n, pt) > 0.0)
+					{
+						tets.add(n);
+						inCavity.add(n);
+					}
+				}
+			}
+			// Cavity must be star-shaped with respect to p,
+			// otherwise hidden tetrahedra are added.
+			faces.clear();
+			int hidden = -1;
+			for (int k = 0; k < tets.size() && hidden < 0; k++)
+			{
+				int c = tets.get(k);
+				for (int i = 0; i < 4; i++)
+				{
+					int n = tn[4*c+i];
+					boolean cons = constrained && isConstrained(c, i);
+					if (n >= 0 && inCavity.contains(n))
+					{
+						if (cons)
+							return null;
+						continue;
+					}
+					if (orient(c, i, pt) <= 0.0)
+					{
+						if (n < 0 || cons)
+							return null;
+						hidden = n;
+						break;
+					}
+					faces.add(4*c+i);
+				}
+			}
+			if (hidden < 0)
+				break;
+			tets.add(hidden);
+			inCavity.add(hidden);
+		}
+		// Vertices must not be removed
+		TIntHashSet boundary = new TIntHashSet();
+		for (int k = 0; k < faces.size(); k++)
+		{
+			int f = faces.get(k);
+			for (int j = 0; j < 4; j++)
+			{
+				if (j != (f & 3))
+					boundary.add(tv[(f & ~3) + j]);
+			}
+		}
+		for (int k = 0; k < tets.size(); k++)
+		{
+			int c = tets.get(k);
+			for (int j = 0; j < 4; j++)
+			{
+				if (!boundary.contains(tv[4*c+j]))
+					return null;
+			}
+		}
+		return new Cavity(p, tets.toNativeArray(), faces.toNativeArray());
+	}
+
+	// Replaces cavity by tetrahedra joining p to its boundary faces.
+	// Returns false if cavity has been modified by previous cavities
+	// with the same stamp.
+	private boolean commit(Cavity cavity)
+	{
+		for (int t : cavity.tets)
+		{
+			if (stamp[t] == currentStamp)
+				return false;
+		}
+		for (int t : cavity.tets)
+		{
+			stamp[t] = currentStamp;
+			for (int i = 0; i < 4; i++)
+			{
+				int n = tn[4*t+i];
+				if (n >= 0)
+					stamp[n] = currentStamp;
+			}
+		}
+		int [] created = connect(cavity.point, cavity.tets, cavity.faces);
+		lastTet = created[0];
+		kdTree.add(vertices[cavity.point]);
+		nrKdTree++;
+		return true;
+	}
+
+	// Replaces tetrahedra by tetrahedra joining p to faces, which are
+	// boundary faces encoded as 4*tetrahedron+face.  Returns created
+	// tetrahedra.
+	private int [] connect(int p, int [] tets, int [] faces)
+	{
+		int nf = faces.length;
+		int [] created = new int[nf];
+		// Faces incident to p, indexed by their two other vertices
+		TLongIntHashMap sides = new TLongIntHashMap(3 * nf);
+		for (int f = 0; f < nf; f++)
+		{
+			int t = faces[f] >> 2;
+			int i = faces[f] & 3;
+			int nt = newTet();
+			created[f] = nt;
+			stamp[nt] = currentStamp;
+			for (int k = 0; k < 4; k++)
+				tv[4*nt+k] = (k == i) ? p : tv[4*t+k];
+			flags[nt] = (byte) (flags[t] & (INSIDE | (1 << i)));
+			replaceNeighbour(tn[4*t+i], t, nt);
+			tn[4*nt+i] = tn[4*t+i];
+			for (int k = 0; k < 4; k++)
+			{
+				if (k == i)
+					continue;
+				long key = sideKey(nt, i, k);
+				if (sides.containsKey(key))
+				{
+					int o = sides.remove(key);
+					tn[4*nt+k] = o >> 2;
+					tn[o] = nt;
+				}
+				else
+					sides.put(key, 4*nt+k);
+			}
+		}
+		assert sides.isEmpty();
+		for (int t : tets)
+		{
+			flags[t] = DEAD;
+			freeTets.add(t);
+			nrDead++;
+		}
+		for (int nt : created)
+		{
+			for (int k = 0; k < 4; k++)
+				vertexTet[tv[4*nt+k]] = nt;
+		}
+		return created;
+	}
+
+	// In tetrahedron n, replaces neighbour t by nt
+	private void replaceNeighbour(int n, int t, int nt)
+	{
+		if (n < 0)
+			return;
+		for (int j = 0; j < 4; j++)
+		{
+			if (tn[4*n+j] == t)
+			{
+				tn[4*n+j] = nt;
+				return;
+			}
+		}
+	}
+
+	// Face k of tetrahedron t contains vertex i, returns edgeKey of its
+	// two other vertices
+	private long sideKey(int t, int i, int k)
+	{
+		int a = -1;
+		int b = -1;
+		for (int j = 0; j < 4; j++)
+		{
+			if (j == i || j == k)
+				continue;
+			if (a < 0)
+				a = tv[4*t+j];
+			else
+				b = tv[4*t+j];
+		}
+		return edgeKey(a, b);
+	}
+
+	private static long edgeKey(int a, int b)
+	{
+		return a < b ? ((long) a << 32) | b : ((long) b << 32) | a;
+	}
+
+	private int batchSize()
+	{
+		if (executor == null)
+			return 1;
+		return Math.max(1, Math.min(MAX_BATCH * numberOfThreads, (nrTets - nrDead) / 64));
+	}
+
+	// Inserts points, returns the number of inserted points
+	private int insertPoints(TIntArrayList points, final boolean constrained)
+	{
+		// Insert points along a space-filling curve
+		SpaceFillingCurve curve = new SpaceFillingCurve(SpaceFillingCurve.Type.HILBERT,
+			new double[] { bbox[0], bbox[1], bbox[2] }, new double[] { bbox[3], bbox[4], bbox[5] });
+		long [] keys = new long[points.size()];
+		for (int i = 0; i < keys.length; i++)
+			keys[i] = curve.getKey(xyz[points.get(i)]);
+		int [] perm = SpaceFillingCurve.sortedPermutation(keys, keys.length);
+		int [] pending = new int[perm.length];
+		for (int i = 0; i < perm.length; i++)
+			pending[i] = points.get(perm[i]);
+		int nrPending = pending.length;
+
+		int inserted = 0;
+		int rejected = 0;
+		int nrBatches = 0;
+		int nrRetries = 0;
+		while (nrPending > 0)
+		{
+			// Points of a batch are spread along the curve, their
+			// cavities are then less likely to overlap.
+			final int [] batch = new int[Math.min(nrPending, batchSize())];
+			int stride = nrPending / batch.length;
+			boolean [] picked = new boolean[nrPending];
+			for (int i = 0; i < batch.length; i++)
+			{
+				batch[i] = pending[i * stride];
+				picked[i * stride] = true;
+			}
+			Cavity [] cavities = findCavities(batch, constrained);
+			currentStamp++;
+			nrBatches++;
+			int nrLeft = 0;
+			int [] left = new int[nrPending];
+			int b = 0;
+			for (int i = 0; i < nrPending; i++)
+			{
+				if (!picked[i])
+				{
+					left[nrLeft++] = pending[i];
+					continue;
+				}
+				Cavity c = cavities[b++];
+				if (c == null)
+					rejected++;
+				else if (commit(c))
+					inserted++;
+				else
+				{
+					left[nrLeft++] = pending[i];
+					nrRetries++;
+				}
+			}
+			pending = left;
+			nrPending = nrLeft;
+		}
+		if (LOGGER.isLoggable(Level.FINE))
+			LOGGER.fine("Inserted "+inserted+" points in "+nrBatches+" batches, "+rejected+" rejected, "+nrRetries+" retries");
+		return inserted;
+	}
+
+	private Cavity [] findCavities(final int [] batch, final boolean constrained)
+	{
+		final Cavity [] ret = new Cavity[batch.length];
+		if (executor == null || batch.length < 2)
+		{
+			for (int i = 0; i < batch.length; i++)
+				ret[i] = findCavity(batch[i], constrained);
+			return ret;
+		}
+		List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(numberOfThreads);
+		int chunk = (batch.length + numberOfThreads - 1) / numberOfThreads;
+		for (int start = 0; start < batch.length; start += chunk)
+		{
+			final int first = start;
+			final int last = Math.min(batch.length, start + chunk);
+			tasks.add(new Callable<Void>()
+			{
+				public Void call()
+				{
+					for (int i = first; i < last; i++)
+						ret[i] = findCavity(batch[i], constrained);
+					return null;
+				}
+			});
+		}
+		invokeAll(tasks);
+		return ret;
+	}
+
+	private void invokeAll(List<Callable<Void>> tasks)
+	{
+		try
+		{
+			for (Future<Void> f : executor.invokeAll(tasks))
+				f.get();
+		}
+		catch (InterruptedException ex)
+		{
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(ex);
+		}
+		catch (ExecutionException ex)
+		{
+			if (ex.getCause() instanceof RuntimeException)
+				throw (RuntimeException) ex.getCause();
+			if (ex.getCause() instanceof Error)
+				throw (Error) ex.getCause();
+			throw new RuntimeException(ex.getCause());
+		}
+	}
+
+	private static long faceKey(int a, int b, int c)
+	{
+		int t;
+		if (a > b) { t = a; a = b; b = t; }
+		if (b > c) { t = b; b = c; c = t; }
+		if (a > b) { t = a; a = b; b = t; }
+		return (((long) a << 21 | b) << 21) | c;
+	}
+
+	// Key of face i of tetrahedron t, whose vertices are given by v
+	private static long faceKey(int [] v, int t, int i)
+	{
+		return faceKey(v[4*t+((i+1)&3)], v[4*t+((i+2)&3)], v[4*t+((i+3)&3)]);
+	}
+
+	// Surface triangles must be faces of the tetrahedralization.  Missing
+	// edges, then missing triangles, are recovered by flips, and surface
+	// triangles are marked as constrained faces.  Returns false if some
+	// of them cannot be recovered.
+	private boolean recoverBoundary(List<Vertex []> triangles)
+	{
+		if (nrVertices >= (1 << 21))
+		{
+			LOGGER.severe("Too many vertices: "+nrVertices);
+			return false;
+		}
+		int [] tria = new int[3 * triangles.size()];
+		surfaceFaces = new TLongHashSet(2 * triangles.size());
+		surfaceEdges = new TLongHashSet(3 * triangles.size());
+		for (int k = 0; k < triangles.size(); k++)
+		{
+			Vertex [] tri = triangles.get(k);
+			for (int j = 0; j < 3; j++)
+			{
+				tria[3*k+j] = vertexIndex.get(tri[j]);
+				if (vertexTet[tria[3*k+j]] < 0)
+				{
+					LOGGER.warning("Surface vertex "+tri[j]+" has not been inserted");
+					return false;
+				}
+			}
+			surfaceFaces.add(faceKey(tria[3*k], tria[3*k+1], tria[3*k+2]));
+		}
+		for (int t = 0; t < nrTets; t++)
+		{
+			if ((flags[t] & DEAD) == 0)
+				markSurfaceFaces(t);
+		}
+		nrMissingTriangles = 0;
+		for (int k = 0; k < tria.length; k += 3)
+		{
+			if (!hasFace(tria[k], tria[k+1], tria[k+2]))
+				nrMissingTriangles++;
+		}
+
+		TLongArrayList missingEdges = new TLongArrayList();
+		for (int k = 0; k < tria.length; k += 3)
+		{
+			for (int j = 0; j < 3; j++)
+			{
+				int a = tria[k+j];
+				int b = tria[k+(j+1)%3];
+				if (surfaceEdges.add(edgeKey(a, b)) && !hasEdge(a, b))
+					missingEdges.add(edgeKey(a, b));
+			}
+		}
+		nrMissingEdges = missingEdges.size();
+		nrFlips = 0;
+		while (!missingEdges.isEmpty())
+		{
+			TLongArrayList left = new TLongArrayList();
+			for (int k = 0; k < missingEdges.size(); k++)
+			{
+				long e = missingEdges.get(k);
+				int a = (int) (e >> 32);
+				int b = (int) e;
+				if (!recoverEdge(a, b) && !recoverEdge(b, a))
+					left.add(e);
+				// Flips are only undone while removing an edge
+				flips.clear();
+			}
+			if (left.size() == missingEdges.size())
+				break;
+			missingEdges = left;
+		}
+		if (!missingEdges.isEmpty())
+		{
+			LOGGER.warning(missingEdges.size()+" surface edges out of "+surfaceEdges.size()+" cannot be recovered");
+			return false;
+		}
+
+		TIntArrayList missingTriangles = new TIntArrayList();
+		for (int k = 0; k < tria.length; k += 3)
+		{
+			if (!hasFace(tria[k], tria[k+1], tria[k+2]))
+				missingTriangles.add(k);
+		}
+		while (!missingTriangles.isEmpty())
+		{
+			TIntArrayList left = new TIntArrayList();
+			for (int k = 0; k < missingTriangles.size(); k++)
+			{
+				int f = missingTriangles.get(k);
+				if (!recoverTriangle(tria[f], tria[f+1], tria[f+2]))
+					left.add(f);
+				flips.clear();
+			}
+			if (left.size() == missingTriangles.size())
+				break;
+			missingTriangles = left;
+		}
+		if (!missingTriangles.isEmpty())
+		{
+			LOGGER.warning(missingTriangles.size()+" surface triangles out of "+triangles.size()+" cannot be recovered");
+			return false;
+		}
+		if (nrMissingEdges > 0 || nrMissingTriangles > 0)
+			LOGGER.fine(nrMissingEdges+" surface edges and "+nrMissingTriangles+" surface triangles have been recovered by "+nrFlips+" flips");
+		return true;
+	}
+
+	// Marks faces of tetrahedron t which are surface triangles as constrained
+	private void markSurfaceFaces(int t)
+	{
+		for (int i = 0; i < 4; i++)
+		{
+			if (surfaceFaces.contains(faceKey(tv, t, i)))
+				flags[t] |= (byte) (1 << i);
+		}
+	}
+
+	// Tetrahedra incident to vertex v
+	private TIntArrayList tetsAround(int v)
+	{
+		TIntArrayList ret = new TIntArrayList();
+		TIntHashSet seen = new TIntHashSet();
+		ret.add(vertexTet[v]);
+		seen.add(vertexTet[v]);
+		for (int k = 0; k < ret.size(); k++)
+		{
+			int t = ret.get(k);
+			for (int i = 0; i < 4; i++)
+			{
+				int n = tn[4*t+i];
+				if (tv[4*t+i] != v && n >= 0 && seen.add(n))
+					ret.add(n);
+			}
+		}
+		return ret;
+	}
+
+	private int indexOf(int t, int v)
+	{
+		for (int i = 0; i < 4; i++)
+		{
+			if (tv[4*t+i] == v)
+				return i;
+		}
+		return -1;
+	}
+
+	private boolean hasEdge(int a, int b)
+	{
+		TIntArrayList around = tetsAround(a);
+		for (int k = 0; k < around.size(); k++)
+		{
+			if (indexOf(around.get(k), b) >= 0)
+				return true;
+		}
+		return false;
+	}
+
+	private boolean hasFace(int a, int b, int c)
+	{
+		TIntArrayList around = tetsAround(a);
+		for (int k = 0; k < around.size(); k++)
+		{
+			int t = around.get(k);
+			if (indexOf(t, b) >= 0 && indexOf(t, c) >= 0)
+				return true;
+		}
+		return false;
+	}
+
+	// Tetrahedra around edge ab, this edge must exist
+	private TIntArrayList tetsAroundEdge(int a, int b)
+	{
+		TIntArrayList ret = new TIntArrayList();
+		TIntArrayList around = tetsAround(a);
+		for (int k = 0; k < around.size(); k++)
+		{
+			if (indexOf(around.get(k), b) >= 0)
+				ret.add(around.get(k));
+		}
+		return ret;
+	}
+
+	// Recovers edge ab.  At each step, the first tetrahedron crossed by
+	// segment ab which is not incident to a is merged into the star of a,
+	// so the number of such tetrahedra decreases.  When ab crosses an edge
+	// pq, this edge is removed instead if ab can be created this way.  If
+	// the star of a is not valid, as when a is coplanar with a surface
+	// triangle of the cavity boundary, and ab lies on face apq, edge pq is
+	// replaced by ay, where y is the opposite vertex in this plane, like
+	// a 2D flip.
+	private boolean recoverEdge(int a, int b)
+	{
+		for (int n = 0; n < MAX_FLIPS; n++)
+		{
+			if (hasEdge(a, b))
+				return true;
+			// Find the face opposite to a crossed by segment ab, and
+			// the face incident to a which contains ab if any
+			int t = -1;
+			int z = -1;
+			TIntArrayList around = tetsAround(a);
+			for (int k = 0; k < around.size() && t < 0; k++)
+			{
+				int c = around.get(k);
+				int ia = indexOf(c, a);
+				if (orient(c, ia, xyz[b]) >= 0.0)
+					continue;
+				int zeros = 0;
+				int zi = -1;
+				for (int i = 0; i < 4 && zeros >= 0; i++)
+				{
+					if (i == ia)
+						continue;
+					double o = orient(c, i, xyz[b]);
+					if (o < 0.0)
+						zeros = -1;
+					else if (o == 0.0)
+					{
+						zeros++;
+						zi = i;
+					}
+				}
+				// If segment ab is on two faces, it contains
+				// another vertex
+				if (zeros >= 0 && zeros < 2)
+				{
+					t = c;
+					z = zi;
+				}
+			}
+			if (t < 0)
+				return false;
+			int i = indexOf(t, a);
+			if (tn[4*t+i] < 0 || isConstrained(t, i))
+				return false;
+			int p = -1;
+			int q = -1;
+			if (z >= 0)
+			{
+				for (int k = 0; k < 4; k++)
+				{
+					if (k == i || k == z)
+						continue;
+					if (p < 0)
+						p = tv[4*t+k];
+					else
+						q = tv[4*t+k];
+				}
+				if (removeEdge(p, q, new int[] { a, b }, FLIP_DEPTH))
+					continue;
+			}
+			TIntArrayList tets = new TIntArrayList();
+			tets.add(t);
+			tets.add(tn[4*t+i]);
+			if (flipToStar(a, tets))
+				continue;
+			if (z < 0)
+				return false;
+			int [] ring = ring(p, q);
+			int y = -1;
+			for (int k = 0; ring != null && k < ring.length; k++)
+			{
+				if (ring[k] != a && Predicates.orient3d(xyz[a], xyz[p], xyz[q], xyz[ring[k]]) == 0.0)
+					y = ring[k];
+			}
+			if (y < 0 || !removeEdge(p, q, new int[] { a, y }, FLIP_DEPTH))
+				return false;
+		}
+		return hasEdge(a, b);
+	}
+
+	// Recovers triangle abc, its edges must exist.  At each step, an edge
+	// crossing this triangle is removed, either directly if abc can be
+	// created this way, or by replacing tetrahedra around it by the star
+	// of a, b or c; new edges are incident to this vertex and cannot cross
+	// the triangle, so the number of crossing edges decreases.
+	private boolean recoverTriangle(int a, int b, int c)
+	{
+		int [] abc = new int[] { a, b, c };
+		for (int n = 0; n < MAX_FLIPS; n++)
+		{
+			if (hasFace(a, b, c))
+				return true;
+			// A tetrahedron around ab contains an edge crossing
+			// triangle abc
+			long crossing = -1L;
+			TIntArrayList around = tetsAroundEdge(a, b);
+			for (int k = 0; k < around.size() && crossing < 0L; k++)
+			{
+				int t = around.get(k);
+				for (int i = 0; i < 4 && crossing < 0L; i++)
+				{
+					for (int j = i + 1; j < 4; j++)
+					{
+						int x = tv[4*t+i];
+						int y = tv[4*t+j];
+						if (crosses(a, b, c, x, y))
+						{
+							crossing = edgeKey(x, y);
+							break;
+						}
+					}
+				}
+			}
+			if (crossing < 0L)
+				return false;
+			int x = (int) (crossing >> 32);
+			int y = (int) crossing;
+			if (removeEdge(x, y, abc, FLIP_DEPTH))
+				continue;
+			TIntArrayList tets = tetsAroundEdge(x, y);
+			boolean flipped = false;
+			for (int k = 0; k < 3 && !flipped; k++)
+				flipped = flipToStar(abc[k], new TIntArrayList(tets.toNativeArray()));
+			if (!flipped)
+				return false;
+		}
+		return hasFace(a, b, c);
+	}
+
+	// Returns true if segment xy crosses the interior of triangle abc
+	private boolean crosses(int a, int b, int c, int x, int y)
+	{
+		if (x == a || x == b || x == c || y == a || y == b || y == c)
+			return false;
+		double ox = Predicates.orient3d(xyz[a], xyz[b], xyz[c], xyz[x]);
+		double oy = Predicates.orient3d(xyz[a], xyz[b], xyz[c], xyz[y]);
+		if (!(ox > 0.0 && oy < 0.0) && !(ox < 0.0 && oy > 0.0))
+			return false;
+		double s1 = Predicates.orient3d(xyz[x], xyz[y], xyz[a], xyz[b]);
+		double s2 = Predicates.orient3d(xyz[x], xyz[y], xyz[b], xyz[c]);
+		double s3 = Predicates.orient3d(xyz[x], xyz[y], xyz[c], xyz[a]);
+		return (s1 > 0.0 && s2 > 0.0 && s3 > 0.0) || (s1 < 0.0 && s2 < 0.0 && s3 < 0.0);
+	}
+
+	// Face i of tetrahedron t contains vertex v
+	private boolean isIncident(int t, int i, int v)
+	{
+		int k = indexOf(t, v);
+		return k >= 0 && k != i;
+	}
+
+	// Vertices around edge pq, ordered so that consecutive vertices belong
+	// to the same tetrahedron, or null if this edge is on the convex hull
+	private int [] ring(int p, int q)
+	{
+		TIntArrayList around = tetsAroundEdge(p, q);
+		if (around.isEmpty())
+			return null;
+		int start = around.get(0);
+		int t = start;
+		int prev = -1;
+		int cur = -1;
+		for (int i = 0; i < 4; i++)
+		{
+			int v = tv[4*t+i];
+			if (v == p || v == q)
+				continue;
+			if (prev < 0)
+				prev = v;
+			else
+				cur = v;
+		}
+		int [] ret = new int[around.size()];
+		for (int k = 0; k < ret.length; k++)
+		{
+			ret[k] = prev;
+			// Next tetrahedron is opposite to prev
+			t = tn[4*t+indexOf(t, prev)];
+			if (t < 0)
+				return null;
+			int next = -1;
+			for (int i = 0; i < 4; i++)
+			{
+				int v = tv[4*t+i];
+				if (v != p && v != q && v != cur)
+					next = v;
+			}
+			prev = cur;
+			cur = next;
+		}
+		return t == start ? ret : null;
+	}
+
+	// Removes edge pq by replacing tetrahedra around it by tetrahedra
+	// joining p and q to the triangles of a triangulation of the ring
+	// polygon; this generalizes 3-2 and 4-4 flips.  This triangulation
+	// must contain the chord (if 2 vertices) or the triangle (if 3
+	// vertices) given by required, if not null.  On degenerate
+	// configurations, as when p or q is coplanar with ring vertices, there
+	// may be no such triangulation; edges joining p or q to ring vertices
+	// are then removed first to modify this ring, up to depth levels of
+	// recursion, and these flips are undone if this does not help.
+	private boolean removeEdge(int p, int q, int [] required, int depth)
+	{
+		int [] ring = ring(p, q);
+		if (ring == null)
+			return false;
+		int [] newTv = triangulateRing(p, q, ring, required);
+		if (newTv != null && replace(tetsAroundEdge(p, q), newTv, false))
+			return true;
+		if (depth == 0)
+			return false;
+		for (int apex : new int[] { p, q })
+		{
+			for (int v : ring)
+			{
+				int mark = flips.size();
+				// Ring vertices coplanar with this edge are joined
+				// if possible, like a 2D flip in this plane
+				int [] chord = coplanarChord(apex, v);
+				if (!(chord != null && removeEdge(apex, v, chord, depth - 1)) &&
+				    !removeEdge(apex, v, null, depth - 1))
+					continue;
+				if (removeEdge(p, q, required, depth - 1))
+					return true;
+				undoFlips(mark);
+			}
+		}
+		return false;
+	}
+
+	// Returns two vertices around edge pq which are coplanar with p and q,
+	// or null
+	private int [] coplanarChord(int p, int q)
+	{
+		int [] ring = ring(p, q);
+		for (int i = 0; ring != null && i < ring.length; i++)
+		{
+			for (int j = i + 2; j < ring.length; j++)
+			{
+				if (Predicates.orient3d(xyz[p], xyz[q], xyz[ring[i]], xyz[ring[j]]) == 0.0)
+					return new int[] { ring[i], ring[j] };
+			}
+		}
+		return null;
+	}
+
+	// Undoes flips done since flips had mark elements
+	private void undoFlips(int mark)
+	{
+		while (flips.size() > mark)
+		{
+			Flip f = flips.remove(flips.size() - 1);
+			boolean done = replace(new TIntArrayList(f.created), f.replaced, true);
+			assert done;
+			int [] restored = flips.remove(flips.size() - 1).created;
+			nrFlips -= 2;
+			// Replaced tetrahedra have been created again with other
+			// indices, update the flips which created them.  Indices
+			// are found before being updated, since restored indices
+			// may be a permutation of removed ones.
+			int [][] created = new int[restored.length][];
+			int [] pos = new int[restored.length];
+			for (int k = 0; k < restored.length; k++)
+			{
+				for (int i = flips.size() - 1; i >= 0 && created[k] == null; i--)
+				{
+					int [] c = flips.get(i).created;
+					for (int j = 0; j < c.length; j++)
+					{
+						if (c[j] == f.removed[k])
+						{
+							created[k] = c;
+							pos[k] = j;
+						}
+					}
+				}
+			}
+			for (int k = 0; k < restored.length; k++)
+			{
+				if (created[k] != null)
+					created[k][pos[k]] = restored[k];
+			}
+		}
+	}
+
+	// Returns vertices of tetrahedra joining p and q to the triangles of a
+	// triangulation of the ring polygon around pq, or null if there is no
+	// valid triangulation with the required chord or triangle.  This
+	// triangulation is found by dynamic programming.
+	private int [] triangulateRing(int p, int q, int [] ring, int [] required)
+	{
+		int nr = ring.length;
+		if (nr < 3 || nr > MAX_RING)
+			return null;
+		if (required == null)
+			required = new int[] { ring[0] };
+		int [] pos = new int[required.length];
+		for (int k = 0; k < pos.length; k++)
+		{
+			pos[k] = -1;
+			for (int i = 0; i < nr; i++)
+			{
+				if (ring[i] == required[k])
+					pos[k] = i;
+			}
+			if (pos[k] < 0)
+				return null;
+		}
+		Arrays.sort(pos);
+		double sign = Predicates.orient3d(xyz[p], xyz[q], xyz[ring[0]], xyz[ring[1]]);
+		// split[i][l] is the middle vertex of the triangle built on
+		// chord (i, i+l) in a triangulation of polygon i, i+1, ..., i+l
+		// (indices are taken modulo nr), or 0 if there is none.
+		int [][] split = new int[nr][nr];
+		for (int l = 2; l < nr; l++)
+		{
+			for (int i = 0; i < nr; i++)
+			{
+				for (int m = 1; m < l && split[i][l] == 0; m++)
+				{
+					if (canSplit(split, i, m) && canSplit(split, (i + m) % nr, l - m) &&
+					    isValidTriangle(p, q, sign, ring[i], ring[(i + m) % nr], ring[(i + l) % nr]))
+						split[i][l] = m;
+				}
+			}
+		}
+		// Length of polygons between required vertices
+		int [] length = new int[pos.length];
+		for (int k = 0; k < pos.length; k++)
+		{
+			length[k] = pos.length == 1 ? nr - 1 : (pos[(k + 1) % pos.length] - pos[k] + nr) % nr;
+			if (!canSplit(split, pos[k], length[k]))
+				return null;
+		}
+		TIntArrayList triangles = new TIntArrayList();
+		if (pos.length == 3)
+		{
+			if (!isValidTriangle(p, q, sign, ring[pos[0]], ring[pos[1]], ring[pos[2]]))
+				return null;
+			triangles.add(ring[pos[0]]);
+			triangles.add(ring[pos[1]]);
+			triangles.add(ring[pos[2]]);
+		}
+		for (int k = 0; k < pos.length; k++)
+			addTriangles(split, ring, pos[k], length[k], triangles);
+		TIntArrayList newTv = new TIntArrayList(8 * triangles.size() / 3);
+		for (int k = 0; k < triangles.size(); k += 3)
+		{
+			for (int apex : new int[] { p, q })
+			{
+				int x = triangles.get(k);
+				int y = triangles.get(k+1);
+				if (Predicates.orient3d(xyz[x], xyz[y], xyz[triangles.get(k+2)], xyz[apex]) < 0.0)
+				{
+					x = y;
+					y = triangles.get(k);
+				}
+				newTv.add(x);
+				newTv.add(y);
+				newTv.add(triangles.get(k+2));
+				newTv.add(apex);
+			}
+		}
+		return newTv.toNativeArray();
+	}
+
+	private static boolean canSplit(int [][] split, int i, int l)
+	{
+		return l == 1 || split[i][l] > 0;
+	}
+
+	// Tetrahedra xyzp and xyzq are valid if p and q are on both sides of
+	// xyz, sign gives the orientation of the ring
+	private boolean isValidTriangle(int p, int q, double sign, int x, int y, int z)
+	{
+		double op = Predicates.orient3d(xyz[x], xyz[y], xyz[z], xyz[p]);
+		double oq = Predicates.orient3d(xyz[x], xyz[y], xyz[z], xyz[q]);
+		if (sign > 0.0)
+			return op < 0.0 && oq > 0.0;
+		return op > 0.0 && oq < 0.0;
+	}
+
+	private static void addTriangles(int [][] split, int [] ring, int i, int l, TIntArrayList triangles)
+	{
+		if (l < 2)
+			return;
+		int nr = ring.length;
+		int m = split[i][l];
+		triangles.add(ring[i]);
+		triangles.add(ring[(i + m) % nr]);
+		triangles.add(ring[(i + l) % nr]);
+		addTriangles(split, ring, i, m, triangles);
+		addTriangles(split, ring, (i + m) % nr, l - m, triangles);
+	}
+
+	// Replaces tetrahedra by the star of their vertex v.  Tetrahedra are
+	// first added until all boundary faces which are not incident to v
+	// are visible from v; this generalizes 2-3, 3-2 and n-(2n-4) flips.
+	private boolean flipToStar(int v, TIntArrayList tets)
+	{
+		TIntHashSet inCavity = new TIntHashSet();
+		boolean found = false;
+		for (int k = 0; k < tets.size(); k++)
+		{
+			inCavity.add(tets.get(k));
+			found |= indexOf(tets.get(k), v) >= 0;
+		}
+		if (!found)
+			return false;
+		TIntArrayList newTv = new TIntArrayList();
+		while (true)
+		{
+			if (tets.size() > MAX_FLIP_CAVITY)
+				return false;
+			newTv.clear();
+			int hidden = -1;
+			for (int k = 0; k < tets.size() && hidden < 0; k++)
+			{
+				int c = tets.get(k);
+				for (int i = 0; i < 4; i++)
+				{
+					int n = tn[4*c+i];
+					if (n >= 0 && inCavity.contains(n))
+						continue;
+					if (isIncident(c, i, v))
+						continue;
+					if (orient(c, i, xyz[v]) <= 0.0)
+					{
+						if (n < 0 || isConstrained(c, i))
+							return false;
+						hidden = n;
+						break;
+					}
+					for (int j = 0; j < 4; j++)
+						newTv.add(j == i ? v : tv[4*c+j]);
+				}
+			}
+			if (hidden < 0)
+				break;
+			tets.add(hidden);
+			inCavity.add(hidden);
+		}
+		return replace(tets, newTv.toNativeArray(), false);
+	}
+
+	// Replaces tetrahedra by new tetrahedra, given by their vertices in
+	// positive orientation, which must fill the same volume.  Returns
+	// false and leaves tetrahedralization untouched if this would remove
+	// a vertex, or a surface edge or a constrained face unless this flip
+	// undoes a previous one.  Otherwise this flip is logged so that it
+	// can be undone.
+	private boolean replace(TIntArrayList tets, int [] newTv, boolean undo)
+	{
+		TIntHashSet old = new TIntHashSet(tets.toNativeArray());
+		// Boundary faces, encoded as 4*tetrahedron+face
+		TLongIntHashMap boundary = new TLongIntHashMap();
+		TLongHashSet constrained = new TLongHashSet();
+		TLongHashSet edges = new TLongHashSet();
+		TIntHashSet oldVertices = new TIntHashSet();
+		for (int k = 0; k < tets.size(); k++)
+		{
+			int c = tets.get(k);
+			for (int i = 0; i < 4; i++)
+			{
+				long key = faceKey(tv, c, i);
+				int n = tn[4*c+i];
+				if (n < 0 || !old.contains(n))
+					boundary.put(key, 4*c+i);
+				if (isConstrained(c, i))
+					constrained.add(key);
+				oldVertices.add(tv[4*c+i]);
+				for (int j = i + 1; j < 4; j++)
+				{
+					long e = edgeKey(tv[4*c+i], tv[4*c+j]);
+					if (surfaceEdges.contains(e))
+						edges.add(e);
+				}
+			}
+		}
+		int m = newTv.length / 4;
+		TLongIntHashMap nrFaces = new TLongIntHashMap(4 * m);
+		for (int k = 0; k < m; k++)
+		{
+			if (Predicates.orient3d(xyz[newTv[4*k]], xyz[newTv[4*k+1]], xyz[newTv[4*k+2]], xyz[newTv[4*k+3]]) <= 0.0)
+				return false;
+			for (int i = 0; i < 4; i++)
+			{
+				nrFaces.adjustOrPutValue(faceKey(newTv, k, i), 1, 1);
+				oldVertices.remove(newTv[4*k+i]);
+				for (int j = i + 1; j < 4; j++)
+					edges.remove(edgeKey(newTv[4*k+i], newTv[4*k+j]));
+			}
+		}
+		if (!oldVertices.isEmpty() || (!undo && !edges.isEmpty()))
+			return false;
+		// Interior faces are shared by two new tetrahedra, boundary
+		// faces are kept
+		for (long key : nrFaces.keys())
+		{
+			if (nrFaces.get(key) != (boundary.containsKey(key) ? 1 : 2))
+				return false;
+		}
+		for (long key : boundary.keys())
+		{
+			if (!nrFaces.containsKey(key))
+				return false;
+		}
+		for (long key : constrained.toArray())
+		{
+			if (!undo && !nrFaces.containsKey(key))
+				return false;
+		}
+
+		int [] replaced = new int[4 * tets.size()];
+		for (int k = 0; k < tets.size(); k++)
+			System.arraycopy(tv, 4*tets.get(k), replaced, 4*k, 4);
+		int [] newTets = new int[m];
+		for (int k = 0; k < m; k++)
+		{
+			newTets[k] = newTet();
+			System.arraycopy(newTv, 4*k, tv, 4*newTets[k], 4);
+			flags[newTets[k]] = 0;
+		}
+		TLongIntHashMap sides = new TLongIntHashMap(4 * m);
+		for (int nt : newTets)
+		{
+			for (int i = 0; i < 4; i++)
+			{
+				long key = faceKey(tv, nt, i);
+				if (boundary.containsKey(key))
+				{
+					int o = boundary.get(key);
+					tn[4*nt+i] = tn[o];
+					replaceNeighbour(tn[o], o >> 2, nt);
+				}
+				else if (sides.containsKey(key))
+				{
+					int o = sides.remove(key);
+					tn[4*nt+i] = o >> 2;
+					tn[o] = nt;
+				}
+				else
+					sides.put(key, 4*nt+i);
+			}
+		}
+		for (int k = 0; k < tets.size(); k++)
+		{
+			flags[tets.get(k)] = DEAD;
+			freeTets.add(tets.get(k));
+			nrDead++;
+		}
+		for (int nt : newTets)
+		{
+			markSurfaceFaces(nt);
+			for (int i = 0; i < 4; i++)
+				vertexTet[tv[4*nt+i]] = nt;
+		}
+		flips.add(new Flip(newTets, tets.toNativeArray(), replaced));
+		lastTet = newTets[0];
+		nrFlips++;
+		return true;
+	}
+
+	// Tetrahedra are inside if an odd number of constrained faces has to
+	// be crossed to reach the super tetrahedron.
+	private boolean classify()
+	{
+		int [] depth = new int[nrTets];
+		TIntArrayList current = new TIntArrayList();
+		for (int t = 0; t < nrTets; t++)
+		{
+			depth[t] = -1;
+			if ((flags[t] & DEAD) != 0)
+				continue;
+			for (int i = 0; i < 4; i++)
+			{
+				if (tn[4*t+i] < 0)
+				{
+					current.add(t);
+					break;
+				}
+			}
+		}
+		TIntArrayList stack = new TIntArrayList();
+		for (int d = 0; !current.isEmpty(); d++)
+		{
+			TIntArrayList next = new TIntArrayList();
+			for (int k = 0; k < current.size(); k++)
+			{
+				int t = current.get(k);
+				if (depth[t] >= 0)
+					continue;
+				depth[t] = d;
+				stack.add(t);
+				while (!stack.isEmpty())
+				{
+					int c = stack.remove(stack.size() - 1);
+					for (int i = 0; i < 4; i++)
+					{
+						int n = tn[4*c+i];
+						if (n < 0 || depth[n] >= 0)
+							continue;
+						if (isConstrained(c, i))
+							next.add(n);
+						else
+						{
+							depth[n] = d;
+							stack.add(n);
+						}
+					}
+				}
+			}
+			current = next;
+		}
+		int nrInside = 0;
+		for (int t = 0; t < nrTets; t++)
+		{
+			if ((flags[t] & DEAD) != 0)
+				continue;
+			for (int i = 0; i < 4; i++)
+			{
+				int n = tn[4*t+i];
+				if (n >= 0 && isConstrained(t, i) && Math.abs(depth[t] - depth[n]) != 1)
+				{
+					LOGGER.warning("Surface mesh is not closed");
+					return false;
+				}
+			}
+			if ((depth[t] & 1) != 0)
+			{
+				flags[t] |= INSIDE;
+				nrInside++;
+			}
+		}
+		LOGGER.fine(nrInside+" tetrahedra inside surface");
+		return nrInside > 0;
+	}
+
+	private double targetSize(double [] p)
+	{
+		if (sizeFunction != null)
+			return sizeFunction.getTargetSize(p[0], p[1], p[2]);
+		return size;
+	}
+
+	// Circumcenter of tetrahedron t is written into cc, returns
+	// circumradius or -1 if tetrahedron is flat.
+	private double circumcenter(int t, double [] cc)
+	{
+		double [] a = xyz[tv[4*t]];
+		double [] b = xyz[tv[4*t+1]];
+		double [] c = xyz[tv[4*t+2]];
+		double [] d = xyz[tv[4*t+3]];
+		double bx = b[0] - a[0], by = b[1] - a[1], bz = b[2] - a[2];
+		double cx = c[0] - a[0], cy = c[1] - a[1], cz = c[2] - a[2];
+		double dx = d[0] - a[0], dy = d[1] - a[1], dz = d[2] - a[2];
+		double b2 = bx*bx + by*by + bz*bz;
+		double c2 = cx*cx + cy*cy + cz*cz;
+		double d2 = dx*dx + dy*dy + dz*dz;
+		// c^d, d^b, b^c
+		double cdx = cy*dz - cz*dy, cdy = cz*dx - cx*dz, cdz = cx*dy - cy*dx;
+		double dbx = dy*bz - dz*by, dby = dz*bx - dx*bz, dbz = dx*by - dy*bx;
+		double bcx = by*cz - bz*cy, bcy = bz*cx - bx*cz, bcz = bx*cy - by*cx;
+		double det = 2.0 * (bx*cdx + by*cdy + bz*cdz);
+		if (Math.abs(det) < 1.e-12 * Math.sqrt(b2 * c2 * d2))
+			return -1.0;
+		double ox = (b2*cdx + c2*dbx + d2*bcx) / det;
+		double oy = (b2*cdy + c2*dby + d2*bcy) / det;
+		double oz = (b2*cdz + c2*dbz + d2*bcz) / det;
+		cc[0] = a[0] + ox;
+		cc[1] = a[1] + oy;
+		cc[2] = a[2] + oz;
+		return Math.sqrt(ox*ox + oy*oy + oz*oz);
+	}
+
+	private boolean inBoundingBox(double [] p)
+	{
+		for (int j = 0; j < 3; j++)
+		{
+			if (p[j] < bbox[j] || p[j] > bbox[j+3])
+				return false;
+		}
+		return true;
+	}
+
+	// Returns circumcenters of inside tetrahedra which are too large, far
+	// enough from existing vertices.  Each candidate is {x, y, z, radius/size}.
+	private List<double []> findCandidates(final int first, final int last)
+	{
+		List<double []> ret = new ArrayList<double []>();
+		double [] cc = new double[3];
+		for (int t = first; t < last; t++)
+		{
+			if ((flags[t] & (DEAD | INSIDE)) != INSIDE)
+				continue;
+			double r = circumcenter(t, cc);
+			if (r < 0.0 || !inBoundingBox(cc))
+				continue;
+			double h = targetSize(cc);
+			if (h <= 0.0 || r <= RADIUS_RATIO * h)
+				continue;
+			Vertex near = kdTree.getNearestVertex(euclid, cc);
+			if (euclid.distance2(cc, near.getUV()) < MIN_DISTANCE * MIN_DISTANCE * h * h)
+				continue;
+			ret.add(new double[] { cc[0], cc[1], cc[2], r / h });
+		}
+		return ret;
+	}
+
+	private void refine()
+	{
+		if (sizeFunction == null && size <= 0.0)
+			return;
+		for (int round = 0; round < maxRounds; round++)
+		{
+			final List<List<double []>> results = new ArrayList<List<double []>>();
+			if (executor == null)
+				results.add(findCandidates(0, nrTets));
+			else
+			{
+				List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(numberOfThreads);
+				int chunk = (nrTets + numberOfThreads - 1) / numberOfThreads;
+				for (int start = 0; start < nrTets; start += chunk)
+				{
+					final int first = start;
+					final int last = Math.min(nrTets, start + chunk);
+					final int index = results.size();
+					results.add(null);
+					tasks.add(new Callable<Void>()
+					{
+						public Void call()
+						{
+							results.set(index, findCandidates(first, last));
+							return null;
+						}
+					});
+				}
+				invokeAll(tasks);
+			}
+			List<double []> candidates = new ArrayList<double []>();
+			for (List<double []> l : results)
+				candidates.addAll(l);
+			if (candidates.isEmpty())
+				break;
+			// Largest tetrahedra first, and discard candidates which
+			// are too close to each other.
+			long [] keys = new long[candidates.size()];
+			for (int i = 0; i < keys.length; i++)
+				keys[i] = - (long) (candidates.get(i)[3] * 1000.0);
+			int [] perm = SpaceFillingCurve.sortedPermutation(keys, keys.length);
+			KdTree<Vertex> accepted = new KdTree<Vertex>(bbox);
+			int nrAccepted = 0;
+			TIntArrayList points = new TIntArrayList();
+			for (int i : perm)
+			{
+				double [] c = candidates.get(i);
+				double h = targetSize(c);
+				if (nrAccepted > 0)
+				{
+					Vertex near = accepted.getNearestVertex(euclid, c);
+					if (euclid.distance2(c, near.getUV()) < MIN_DISTANCE * MIN_DISTANCE * h * h)
+						continue;
+				}
+				Vertex v = output.createVertex(c[0], c[1], c[2]);
+				accepted.add(v);
+				nrAccepted++;
+				points.add(addPoint(v));
+			}
+			int nr = insertPoints(points, true);
+			LOGGER.fine("Refinement round "+round+": "+nr+" points inserted out of "+candidates.size()+" candidates");
+			if (nr == 0)
+				break;
+		}
+	}
+
+	private void buildOutput()
+	{
+		boolean [] used = new boolean[nrVertices];
+		int nrInside = 0;
+		int nrUsed = 0;
+		for (int t = 0; t < nrTets; t++)
+		{
+			if ((flags[t] & (DEAD | INSIDE)) != INSIDE)
+				continue;
+			nrInside++;
+			for (int k = 0; k < 4; k++)
+			{
+				if (!used[tv[4*t+k]])
+					nrUsed++;
+				used[tv[4*t+k]] = true;
+			}
+		}
+		if (output.hasNodes())
+		{
+			for (int i = 4; i < nrVertices; i++)
+			{
+				if (used[i])
+					output.add(vertices[i]);
+			}
+		}
+		for (int t = 0; t < nrTets; t++)
+		{
+			if ((flags[t] & (DEAD | INSIDE)) != INSIDE)
+				continue;
+			// orient3d is positive, swap two vertices to have a
+			// positive volume
+			output.add(output.createTetrahedron(new Vertex[] {
+				vertices[tv[4*t]], vertices[tv[4*t+1]], vertices[tv[4*t+3]], vertices[tv[4*t+2]] }));
+		}
+		LOGGER.info("Tetrahedralization: "+nrUsed+" vertices, "+nrInside+" tetrahedra");
+	}
+}
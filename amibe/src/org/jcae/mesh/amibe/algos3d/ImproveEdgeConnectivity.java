@@ -21,8 +21,10 @@
 package org.jcae.mesh.amibe.algos3d;
 
 import org.jcae.mesh.amibe.ds.Mesh;
+import org.jcae.mesh.amibe.ds.ElementIds;
 import org.jcae.mesh.amibe.ds.AbstractHalfEdge;
 import org.jcae.mesh.amibe.ds.HalfEdge;
+import org.jcae.mesh.amibe.ds.NeighbourCursor;
 import org.jcae.mesh.amibe.ds.Triangle;
 import org.jcae.mesh.amibe.ds.Vertex;
 import org.jcae.mesh.amibe.projection.MeshLiaison;
@@ -31,8 +33,6 @@ import org.jcae.mesh.xmldata.MeshWriter;
 import java.io.IOException;
 import java.util.Map;
 import java.util.HashMap;
-import java.util.Iterator;
-import gnu.trove.TObjectIntHashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -46,7 +46,17 @@ import java.util.logging.Logger;
 public class ImproveEdgeConnectivity extends AbstractAlgoHalfEdge
 {
 	private static final Logger LOGGER=Logger.getLogger(ImproveEdgeConnectivity.class.getName());
-	private TObjectIntHashMap<Vertex> map;
+	// Number of incident triangles
+	private ElementIds<Vertex>.IntProperty map;
+	// Edges may be processed by several threads, see ConcurrentEdgeProcessor
+	private final ThreadLocal<NeighbourCursor> cursors = new ThreadLocal<NeighbourCursor>()
+	{
+		@Override
+		protected NeighbourCursor initialValue()
+		{
+			return new NeighbourCursor();
+		}
+	};
 	
 	/**
 	 * Creates a <code>ImproveConnectivity</code> instance.
@@ -93,16 +103,22 @@ public class ImproveEdgeConnectivity extends AbstractAlgoHalfEdge
 		return LOGGER;
 	}
 
+	@Override
+	protected boolean isLocalOperation()
+	{
+		return true;
+	}
+
 	@Override
 	public void preProcessAllHalfEdges()
 	{
-		map = new TObjectIntHashMap<Vertex>(mesh.getTriangles().size() / 2);
+		map = mesh.getVertexIds().newIntProperty(0);
 		for (Triangle t: mesh.getTriangles())
 		{
 			if (t.hasAttributes(AbstractHalfEdge.OUTER))
 				continue;
 			for (Vertex v: t.vertex)
-				map.put(v, map.get(v) + 1);
+				map.set(v, map.get(v) + 1);
 			HalfEdge e = (HalfEdge) t.getAbstractHalfEdge();
 			for (int i = 0; i < 3; i++)
 			{
@@ -193,10 +209,10 @@ public class ImproveEdgeConnectivity extends AbstractAlgoHalfEdge
 		int dVal = map.get(d);
 		int aVal = map.get(a);
 		int nVal = map.get(n);
-		map.put(o, oVal - 1);
-		map.put(d, dVal - 1);
-		map.put(a, aVal + 1);
-		map.put(n, nVal + 1);
+		map.set(o, oVal - 1);
+		map.set(d, dVal - 1);
+		map.set(a, aVal + 1);
+		map.set(n, nVal + 1);
 
 		addAllEdgesIncidentTo(o);
 		addAllEdgesIncidentTo(d);
@@ -207,107 +223,45 @@ public class ImproveEdgeConnectivity extends AbstractAlgoHalfEdge
 	
 	private void removeAllEdgesIncidentTo(Vertex v)
 	{
-		HalfEdge current;
-		Vertex d = null;
-		Iterator<AbstractHalfEdge> it = null;
-		boolean isManifold = v.isManifold();
-		if (isManifold)
-		{
-			Triangle t = (Triangle) v.getLink();
-			current = (HalfEdge) t.getAbstractHalfEdge();
-			if (current.destination() == v)
-				current = current.next();
-			else if (current.apex() == v)
-				current = current.prev();
-			assert current.origin() == v;
-			d = current.destination();
-		}
-		else
-		{
-			it = v.getNeighbourIteratorAbstractHalfEdge();
-			current = (HalfEdge) it.next();
-		}
-		while (true)
+		NeighbourCursor cursor = cursors.get();
+		for (cursor.reset(v); cursor.next(); )
 		{
+			HalfEdge current = (HalfEdge) cursor.getHalfEdge();
 			HalfEdge h = uniqueOrientation(current);
-			if (!tree.remove(h))
-				notInTree++;
-			assert !tree.contains(h);
+			treeRemove(h);
+			assert !treeContains(h);
 			h = uniqueOrientation(current.next());
-			if (!tree.remove(h))
-				notInTree++;
-			assert !tree.contains(h);
-			if (isManifold)
-			{
-				current = current.nextOriginLoop();
-				if (current.destination() == d)
-					break;
-			}
-			else
-			{
-				if (!it.hasNext())
-					break;
-				current = (HalfEdge) it.next();
-			}
+			treeRemove(h);
+			assert !treeContains(h);
 		}
 	}
 
 	private void addAllEdgesIncidentTo(Vertex v)
 	{
-		HalfEdge current;
-		Vertex d = null;
-		Iterator<AbstractHalfEdge> it = null;
-		boolean isManifold = v.isManifold();
-		if (isManifold)
-		{
-			Triangle t = (Triangle) v.getLink();
-			current = (HalfEdge) t.getAbstractHalfEdge();
-			if (current.destination() == v)
-				current = current.next();
-			else if (current.apex() == v)
-				current = current.prev();
-			assert current.origin() == v;
-			d = current.destination();
-		}
-		else
-		{
-			it = v.getNeighbourIteratorAbstractHalfEdge();
-			current = (HalfEdge) it.next();
-		}
-		while (true)
+		NeighbourCursor cursor = cursors.get();
+		for (cursor.reset(v); cursor.next(); )
 		{
+			HalfEdge current = (HalfEdge) cursor.getHalfEdge();
 			HalfEdge h = uniqueOrientation(current);
-			if (!h.hasAttributes(AbstractHalfEdge.IMMUTABLE | AbstractHalfEdge.OUTER | AbstractHalfEdge.SHARP | AbstractHalfEdge.BOUNDARY | AbstractHalfEdge.NONMANIFOLD) && !tree.contains(h))
+			if (!h.hasAttributes(AbstractHalfEdge.IMMUTABLE | AbstractHalfEdge.OUTER | AbstractHalfEdge.SHARP | AbstractHalfEdge.BOUNDARY | AbstractHalfEdge.NONMANIFOLD) && !treeContains(h))
 			{
 				double val = cost(h);
 				if (val <= tolerance)
 				{
-					tree.insert(h, val);
+					treeInsert(h, val);
 					h.setAttributes(AbstractHalfEdge.MARKED);
 				}
 			}
 			h = uniqueOrientation(current.next());
-			if (!h.hasAttributes(AbstractHalfEdge.IMMUTABLE | AbstractHalfEdge.OUTER | AbstractHalfEdge.SHARP | AbstractHalfEdge.BOUNDARY | AbstractHalfEdge.NONMANIFOLD) && !tree.contains(h))
+			if (!h.hasAttributes(AbstractHalfEdge.IMMUTABLE | AbstractHalfEdge.OUTER | AbstractHalfEdge.SHARP | AbstractHalfEdge.BOUNDARY | AbstractHalfEdge.NONMANIFOLD) && !treeContains(h))
 			{
 				double val = cost(h);
 				if (val <= tolerance)
 				{
-					tree.insert(h, val);
+					treeInsert(h, val);
 					h.setAttributes(AbstractHalfEdge.MARKED);
 				}
 			}
-			if (isManifold)
-			{
-				current = current.nextOriginLoop();
-				if (current.destination() == d)
-					break;
-			}
-			else
-			{
-				if (!it.hasNext())
-					break;
-				current = (HalfEdge) it.next();
-			}
 		}
 	}
 
@@ -317,6 +271,8 @@ public class ImproveEdgeConnectivity extends AbstractAlgoHalfEdge
 		LOGGER.info("Number of swapped edges: "+processed);
 		//LOGGER.info("Number of edges which were not in the binary tree before being removed: "+notInTree);
 		LOGGER.info("Number of edges still present in the binary tree: "+tree.size());
+		map.dispose();
+		map = null;
 	}
 
 	private static void usage(int rc)
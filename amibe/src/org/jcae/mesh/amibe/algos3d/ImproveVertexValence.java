@@ -23,12 +23,12 @@ package org.jcae.mesh.amibe.algos3d;
 import org.jcae.mesh.amibe.ds.Mesh;
 import org.jcae.mesh.amibe.ds.AbstractHalfEdge;
 import org.jcae.mesh.amibe.ds.HalfEdge;
+import org.jcae.mesh.amibe.ds.NeighbourCursor;
 import org.jcae.mesh.amibe.ds.Triangle;
 import org.jcae.mesh.amibe.ds.Vertex;
 import org.jcae.mesh.amibe.projection.MeshLiaison;
 import org.jcae.mesh.amibe.metrics.Metric;
 import gnu.trove.TObjectIntHashMap;
-import java.util.Iterator;
 import java.util.Map;
 import java.util.LinkedHashSet;
 import java.util.logging.Logger;
@@ -45,6 +45,7 @@ public class ImproveVertexValence extends AbstractAlgoVertex
 	private int valence3;
 	private int valence4;
 	private int inserted;
+	private final NeighbourCursor cursor = new NeighbourCursor();
 	
 	/**
 	 * Creates a <code>ImproveConnectivity</code> instance.
@@ -190,9 +191,9 @@ public class ImproveVertexValence extends AbstractAlgoVertex
 				valence3++;
 			else
 				valence4++;
-			for (Iterator<Vertex> it = ot.origin().getNeighbourIteratorVertex(); it.hasNext(); )
+			for (cursor.reset(ot.origin()); cursor.next(); )
 			{
-				Vertex o = it.next();
+				Vertex o = cursor.getVertex();
 				if (!canProcessVertex(o))
 					continue;
 				double val = cost(o);
@@ -23,6 +23,7 @@ package org.jcae.mesh.amibe.algos3d;
 
 import org.jcae.mesh.amibe.ds.Mesh;
 import org.jcae.mesh.amibe.ds.HalfEdge;
+import org.jcae.mesh.amibe.ds.NeighbourCursor;
 import org.jcae.mesh.amibe.ds.Triangle;
 import org.jcae.mesh.amibe.ds.Vertex;
 import org.jcae.mesh.amibe.ds.AbstractHalfEdge;
@@ -44,6 +45,7 @@ public class LengthDecimateHalfEdge extends AbstractAlgoHalfEdge
 	private boolean freeEdgesOnly = false;
 	private final double freeEdgeFactor;
 	private double maxEdgeLength = -1;
+	private final NeighbourCursor cursor = new NeighbourCursor();
 	/**
 	 * Creates a <code>LengthDecimateHalfEdge</code> instance.
 	 *
@@ -166,15 +168,15 @@ public class LengthDecimateHalfEdge extends AbstractAlgoHalfEdge
 			return false;
 		if (maxEdgeLength > 0.0)
 		{
-			for (Iterator<Vertex> itnv = v1.getNeighbourIteratorVertex(); itnv.hasNext(); )
+			for (cursor.reset(v1); cursor.next(); )
 			{
-				Vertex n = itnv.next();
+				Vertex n = cursor.getVertex();
 				if (n != mesh.outerVertex && v3.sqrDistance3D(n) > maxEdgeLength)
 					return false;
 			}
-			for (Iterator<Vertex> itnv = v2.getNeighbourIteratorVertex(); itnv.hasNext(); )
+			for (cursor.reset(v2); cursor.next(); )
 			{
-				Vertex n = itnv.next();
+				Vertex n = cursor.getVertex();
 				if (n != mesh.outerVertex && v3.sqrDistance3D(n) > maxEdgeLength)
 					return false;
 			}
@@ -21,8 +21,11 @@
 
 package org.jcae.mesh.amibe.algos3d;
 
+import org.jcae.mesh.amibe.ds.ElementIds;
 import org.jcae.mesh.amibe.ds.Mesh;
+import org.jcae.mesh.amibe.ds.MeshSnapshot;
 import org.jcae.mesh.amibe.ds.HalfEdge;
+import org.jcae.mesh.amibe.ds.NeighbourCursor;
 import org.jcae.mesh.amibe.ds.Triangle;
 import org.jcae.mesh.amibe.ds.Vertex;
 import org.jcae.mesh.amibe.ds.AbstractHalfEdge;
@@ -30,9 +33,11 @@ import org.jcae.mesh.amibe.metrics.Matrix3D;
 import org.jcae.mesh.amibe.projection.MeshLiaison;
 import org.jcae.mesh.xmldata.MeshReader;
 import org.jcae.mesh.xmldata.MeshWriter;
-import java.io.ObjectOutputStream;
-import java.io.ObjectInputStream;
+import gnu.trove.TDoubleArrayList;
+import gnu.trove.TIntArrayList;
 import java.io.IOException;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
 import java.io.File;
 import java.util.Map;
 import java.util.HashMap;
@@ -111,7 +116,7 @@ public class QEMDecimateHalfEdge extends AbstractAlgoHalfEdge
 {
 	private static final Logger LOGGER=Logger.getLogger(QEMDecimateHalfEdge.class.getName());
 	private Quadric3DError.Placement placement = Quadric3DError.Placement.OPTIMAL;
-	private HashMap<Vertex, Quadric3DError> quadricMap = null;
+	private ElementIds<Vertex>.ObjectProperty<Quadric3DError> quadricMap = null;
 	private boolean freeEdgesOnly = false;
 	private Vertex v3;
 	private Quadric3DError q3 = new Quadric3DError();
@@ -119,8 +124,8 @@ public class QEMDecimateHalfEdge extends AbstractAlgoHalfEdge
 	// Their aim is to avoid creating new objects for each cost() call.
 	private final Vertex vCostOpt;
 	private final Quadric3DError qCostOpt = new Quadric3DError();
-	private static final boolean testDump = false;
 	private final MetricSupport metrics;
+	private final NeighbourCursor cursor = new NeighbourCursor();
 	/**
 	 * Creates a <code>QEMDecimateHalfEdge</code> instance.
 	 *
@@ -212,8 +217,10 @@ public class QEMDecimateHalfEdge extends AbstractAlgoHalfEdge
 	public void preProcessAllHalfEdges()
 	{
 		metrics.compute();
-		final int roughNrNodes = mesh.getTriangles().size()/2;
-		quadricMap = new HashMap<Vertex, Quadric3DError>(roughNrNodes);
+		if (quadricMap == null)
+			quadricMap = mesh.getVertexIds().newObjectProperty();
+		else
+			quadricMap.clear();
 		for (Triangle af: mesh.getTriangles())
 		{
 			if (!af.isWritable())
@@ -221,8 +228,8 @@ public class QEMDecimateHalfEdge extends AbstractAlgoHalfEdge
 			for (int i = 0; i < 3; i++)
 			{
 				final Vertex n = af.vertex[i];
-				if (!quadricMap.containsKey(n))
-					quadricMap.put(n, new Quadric3DError());
+				if (quadricMap.get(n) == null)
+					quadricMap.set(n, new Quadric3DError());
 			}
 		}
 		// Compute quadrics
@@ -300,32 +307,38 @@ public class QEMDecimateHalfEdge extends AbstractAlgoHalfEdge
 	}
 
 	@Override
-	protected void postComputeTree()
-	{
-		if (testDump)
-			restoreState();
-	}
-
-	@Override
-	protected void appendDumpState(final ObjectOutputStream out)
-		throws IOException
+	protected void appendDumpState(final MeshSnapshot snapshot, final TIntArrayList ints, final TDoubleArrayList doubles)
 	{
-		out.writeObject(quadricMap);
+		final int position = ints.size();
+		ints.add(0);
+		int nr = 0;
+		final ElementIds<Vertex> vertexIds = mesh.getVertexIds();
+		for (int i = 0, n = vertexIds.size(); i < n; i++)
+		{
+			final Quadric3DError q = quadricMap.get(i);
+			if (q == null)
+				continue;
+			final int id = snapshot.getId(vertexIds.getElement(i));
+			if (id < 0)
+				continue;
+			ints.add(id);
+			q.save(doubles);
+			nr++;
+		}
+		ints.set(position, nr);
 	}
 
-	@SuppressWarnings("unchecked")
 	@Override
-	protected void appendRestoreState(final ObjectInputStream q)
-		throws IOException
+	protected void appendRestoreState(final MeshSnapshot snapshot, final IntBuffer ints, final DoubleBuffer doubles)
 	{
-		try
-		{
-			quadricMap = (HashMap<Vertex, Quadric3DError>) q.readObject();
-		}
-		catch (final ClassNotFoundException ex)
+		final int nr = ints.get();
+		quadricMap.clear();
+		for (int i = 0; i < nr; i++)
 		{
-			ex.printStackTrace();
-			System.exit(-1);
+			final Quadric3DError q = new Quadric3DError();
+			final Vertex v = snapshot.getVertex(ints.get());
+			q.load(doubles);
+			quadricMap.set(v, q);
 		}
 	}
 
@@ -388,10 +401,9 @@ public class QEMDecimateHalfEdge extends AbstractAlgoHalfEdge
 
 	private boolean checkSize(Vertex v1, EuclidianMetric3D m3)
 	{
-		Iterator<Vertex> itnv = v1.getNeighbourIteratorVertex();
-		while(itnv.hasNext())
+		for (cursor.reset(v1); cursor.next(); )
 		{
-			Vertex n = itnv.next();
+			Vertex n = cursor.getVertex();
 			if (n != mesh.outerVertex) {
 				EuclidianMetric3D m = metrics.get(n);
 				double d = MetricSupport.interpolatedDistance(v3, m3, n, m);
@@ -402,13 +414,6 @@ public class QEMDecimateHalfEdge extends AbstractAlgoHalfEdge
 		return true;
 	}
 
-	@Override
-	public void preProcessEdge()
-	{
-		if (testDump)
-			dumpState();
-	}
-
 	@Override
 	public HalfEdge processEdge(HalfEdge current, double costCurrent)
 	{
@@ -498,7 +503,7 @@ public class QEMDecimateHalfEdge extends AbstractAlgoHalfEdge
 		}
 		// Now current == (v3*a)
 		// Update edge costs
-		quadricMap.put(v3, q3);
+		quadricMap.set(v3, q3);
 		if(!metrics.isEmpty())
 			metrics.put(v3, metrics.get(v3, current.getTri()));
 		assert current != null : v3+" not connected to "+apex;
@@ -640,6 +645,8 @@ public class QEMDecimateHalfEdge extends AbstractAlgoHalfEdge
 	{
 		if (liaison != null)
 			liaison.updateAll();
+		quadricMap.dispose();
+		quadricMap = null;
 		LOGGER.info("Number of contracted edges: "+processed);
 		LOGGER.info("Total number of edges not contracted during processing: "+notProcessed);
 		LOGGER.info("Total number of edges swapped to increase quality: "+swapped);
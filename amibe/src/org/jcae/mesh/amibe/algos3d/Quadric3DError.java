@@ -23,7 +23,9 @@ package org.jcae.mesh.amibe.algos3d;
 
 import org.jcae.mesh.amibe.metrics.Matrix3D;
 import org.jcae.mesh.amibe.ds.Vertex;
+import gnu.trove.TDoubleArrayList;
 import java.io.Serializable;
+import java.nio.DoubleBuffer;
 
 /**
  * Garland's Quadric Error Metric.  See
@@ -157,6 +159,22 @@ public class Quadric3DError implements Serializable
 		cachedDet = false;
 	}
 
+	// Used by checkpoints of QEMDecimateHalfEdge
+	final void save(TDoubleArrayList out)
+	{
+		out.add(A);
+		out.add(b);
+		out.add(c);
+	}
+
+	final void load(DoubleBuffer in)
+	{
+		in.get(A);
+		in.get(b);
+		c = in.get();
+		cachedDet = false;
+	}
+
 	private double detA()
 	{
 		if (!cachedDet)
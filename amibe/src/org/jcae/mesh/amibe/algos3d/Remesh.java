@@ -20,6 +20,7 @@
 
 package org.jcae.mesh.amibe.algos3d;
 
+import org.jcae.mesh.amibe.ds.ElementIds;
 import org.jcae.mesh.amibe.ds.Mesh;
 import org.jcae.mesh.amibe.ds.Triangle;
 import org.jcae.mesh.amibe.ds.AbstractHalfEdge;
@@ -46,7 +47,13 @@ import java.util.Collection;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.jcae.mesh.amibe.metrics.MetricSupport;
@@ -54,6 +61,12 @@ import org.jcae.mesh.amibe.metrics.MetricSupport.AnalyticMetricInterface;
 import static org.jcae.mesh.amibe.metrics.MetricSupport.interpolatedDistance;
 /**
  * Remesh an existing mesh.
+ * <p>
+ * When the <code>threads</code> option is larger than 1, candidate
+ * vertices are computed, filtered and matched with their nearest mesh
+ * vertices on several threads.  Vertex insertion itself is still
+ * sequential, so this only speeds up candidate selection.
+ * </p>
  *
  * See org.jcae.mesh.amibe.algos2d.Insertion
  * @author Denis Barbier
@@ -62,20 +75,27 @@ public class Remesh
 {
 	private final static Logger LOGGER = Logger.getLogger(Remesh.class.getName());
 	private static final double ONE_PLUS_SQRT2 = 1.0 + Math.sqrt(2.0);
+	// Number of triangles whose candidates are computed at once
+	private static final int CHUNK_SIZE = 1 << 14;
 	private int progressBarStatus = 10000;
 	private final Mesh mesh;
 	private final MeshLiaison liaison;
 	// Octree to find nearest Vertex in current mesh
 	private final KdTree<Vertex> kdTree;
-	private Map<Vertex, Vertex> neighborBgMap = new HashMap<Vertex, Vertex>();
+	private final double [] bbox;
+	// Nearest background vertex of each vertex
+	private final ElementIds<Vertex>.ObjectProperty<Vertex> neighborBgMap;
 	private final double minlen;
 	private final double maxlen;
 	// useful to see if addCandidatePoints() does its job
 	private int nrInterpolations;
 	private int nrFailedInterpolations;
+	private int nrIter;
+	private int processed;
 
-	Map<Triangle, Collection<Vertex>> mapTriangleVertices = new HashMap<Triangle, Collection<Vertex>>();
-	Map<Vertex, Triangle> surroundingTriangle = new HashMap<Vertex, Triangle>();
+	// Candidates located in each triangle, and triangle containing each candidate
+	private final ElementIds<Triangle>.ObjectProperty<Collection<Vertex>> mapTriangleVertices;
+	private final ElementIds<Vertex>.ObjectProperty<Triangle> surroundingTriangle;
 
 	private final boolean project;
 	private final boolean hasRidges;
@@ -85,6 +105,48 @@ public class Remesh
 	private final boolean allowNearNodes;
 	private final boolean remeshOnlyFeatureEdges;
 	private final MetricSupport metrics;
+	private final int nrThreads;
+	private ExecutorService executor;
+
+	/**
+	 * Candidate vertices to be inserted on the edges of a triangle.
+	 */
+	private static final class TriangleCandidates
+	{
+		private final Triangle triangle;
+		// Local indices and lengths of edges to split
+		private final int [] edges = new int[3];
+		private final double [] lengths = new double[3];
+		private int nrEdges;
+		private final ArrayList<Vertex> nodes = new ArrayList<Vertex>();
+		private final ArrayList<EuclidianMetric3D> nodeMetrics = new ArrayList<EuclidianMetric3D>();
+		private final ArrayList<Vertex> neighbors = new ArrayList<Vertex>();
+		private final ArrayList<Vertex> boundary = new ArrayList<Vertex>();
+		private Triangle [] bgTriangles;
+		private Vertex [] nearest;
+		// Maximal number of nodes which are inserted on an edge
+		private int maxNodes;
+		private int nrInterpolations;
+		private int nrFailedInterpolations;
+
+		private TriangleCandidates(Triangle t)
+		{
+			triangle = t;
+		}
+
+		private void addEdge(int i, double l)
+		{
+			edges[nrEdges] = i;
+			lengths[nrEdges] = l;
+			nrEdges++;
+		}
+	}
+
+	private interface RangeProcedure
+	{
+		void run(int from, int to);
+	}
+
 	/**
 	 * Creates a <code>Remesh</code> instance.
 	 *
@@ -107,7 +169,9 @@ public class Remesh
 	 *
 	 * @param bgMesh  the <code>Mesh</code> instance to refine.
 	 * @param options  map containing key-value pairs to modify algorithm
-	 *        behaviour.  No options are available for now.
+	 *        behaviour.  The <code>threads</code> option sets the number
+	 *        of threads used to select candidate vertices (default is
+	 *        1); analytic metrics must then be thread-safe.
 	 */
 	private Remesh(final Mesh bgMesh, final MeshTraitsBuilder mtb, final Map<String, String> options)
 	{
@@ -123,12 +187,16 @@ public class Remesh
 	{
 		liaison = meshLiaison;
 		mesh = m;
+		neighborBgMap = mesh.getVertexIds().newObjectProperty();
+		mapTriangleVertices = mesh.getTriangleIds().newObjectProperty();
+		surroundingTriangle = mesh.getVertexIds().newObjectProperty();
 		metrics = new MetricSupport(mesh, options);
 		double nearLengthRatio = 1.0 / Math.sqrt(2.0);
 		boolean proj = false;
 		boolean nearNodes = false;
 		boolean onlyFeatureEdges = false;
 		double copl = 0.8;
+		int threads = 1;
 		Map<String, String> decimateOptions = new HashMap<String, String>();
 		for (final Map.Entry<String, String> opt: options.entrySet())
 		{
@@ -156,6 +224,8 @@ public class Remesh
 				nearNodes = Boolean.valueOf(val).booleanValue();
 			else if (key.equals("features"))
 				onlyFeatureEdges = Boolean.valueOf(val).booleanValue();
+			else if (key.equals("threads"))
+				threads = Integer.valueOf(val).intValue();
 			else if(!metrics.isKnownOption(key))
 				LOGGER.warning("Unknown option: "+key);
 		}
@@ -168,6 +238,7 @@ public class Remesh
 		coplanarity = copl;
 		allowNearNodes = nearNodes;
 		remeshOnlyFeatureEdges = onlyFeatureEdges;
+		nrThreads = Math.max(1, threads);
 
 		liaison.buildSkeleton();
 
@@ -203,7 +274,7 @@ public class Remesh
 		}
 
 		// Compute bounding box
-		double [] bbox = new double[6];
+		bbox = new double[6];
 		bbox[0] = bbox[1] = bbox[2] = Double.MAX_VALUE;
 		bbox[3] = bbox[4] = bbox[5] = - (Double.MAX_VALUE / 2.0);
 		for (Vertex v : nodeset)
@@ -231,11 +302,11 @@ public class Remesh
 			double d1 = v.sqrDistance3D(t.vertex[1]);
 			double d2 = v.sqrDistance3D(t.vertex[2]);
 			if (d0 <= d1 && d0 <= d2)
-				neighborBgMap.put(v, t.vertex[0]);
+				neighborBgMap.set(v, t.vertex[0]);
 			else if (d1 <= d0 && d1 <= d2)
-				neighborBgMap.put(v, t.vertex[1]);
+				neighborBgMap.set(v, t.vertex[1]);
 			else
-				neighborBgMap.put(v, t.vertex[2]);
+				neighborBgMap.set(v, t.vertex[2]);
 		}
 	}
 
@@ -328,6 +399,25 @@ public class Remesh
 		return verticesToDispatch;
 	}
 
+	// Removes data attached to a candidate which is not inserted
+	private void discardCandidate(Vertex v)
+	{
+		liaison.removeVertex(v);
+		neighborBgMap.remove(v);
+		// This vertex has never been added to the mesh
+		mesh.getVertexIds().release(v);
+	}
+
+	private boolean checkNoSurroundingTriangle(Collection<Vertex> nodes)
+	{
+		for (Vertex v : nodes)
+		{
+			if (surroundingTriangle.get(v) != null)
+				throw new RuntimeException("surroundingTriangle still contains "+v);
+		}
+		return true;
+	}
+
 	private void dispatchVertices(Vertex newVertex, Map<Triangle, Collection<Vertex>> verticesToDispatch)
 	{
 		for (Map.Entry<Triangle, Collection<Vertex>> entry : verticesToDispatch.entrySet())
@@ -342,12 +432,12 @@ public class Remesh
 					continue;
 				}
 				Triangle vT = MeshLiaison.findSurroundingInAdjacentTriangles(v, t);
-				surroundingTriangle.put(v, vT);
+				surroundingTriangle.set(v, vT);
 				Collection<Vertex> c = mapTriangleVertices.get(vT);
 				if (c == null)
 				{
 					c = new ArrayList<Vertex>();
-					mapTriangleVertices.put(vT, c);
+					mapTriangleVertices.set(vT, c);
 				}
 				c.add(v);
 			}
@@ -359,14 +449,37 @@ public class Remesh
 		LOGGER.info("Run "+getClass().getName());
 		mesh.getTrace().println("# Begin Remesh");
 		metrics.compute();
+		if (nrThreads > 1)
+			executor = Executors.newFixedThreadPool(nrThreads);
+		try
+		{
+			computeInsertions();
+		}
+		finally
+		{
+			surroundingTriangle.clear();
+			mapTriangleVertices.clear();
+			if (executor != null)
+				executor.shutdown();
+			executor = null;
+		}
+		LOGGER.info("Number of inserted vertices: "+processed);
+		LOGGER.fine("Number of iterations to insert all nodes: "+nrIter);
+		if (nrFailedInterpolations > 0)
+			LOGGER.info("Number of failed interpolations: "+nrFailedInterpolations);
+		LOGGER.config("Leave compute()");
+
+		mesh.getTrace().println("# End Remesh");
+		return this;
+	}
+
+	private void computeInsertions()
+	{
 		ArrayList<Vertex> nodes = new ArrayList<Vertex>();
-		ArrayList<Vertex> triNodes = new ArrayList<Vertex>();
-		ArrayList<EuclidianMetric3D> triMetrics = new ArrayList<EuclidianMetric3D>();
-		ArrayList<Vertex> triNeighbor = new ArrayList<Vertex>();
 
 		LinkedHashSet<Vertex> boundaryNodes = new LinkedHashSet<Vertex>();
-		int nrIter = 0;
-		int processed = 0;
+		nrIter = 0;
+		processed = 0;
 		// Number of nodes which were skipped
 		int skippedNodes = 0;
 		AbstractHalfEdge h = null;
@@ -404,20 +517,16 @@ public class Remesh
 			boundaryNodes.clear();
 			skippedNodes = 0;
 			LOGGER.fine("Check all edges");
+			// Edges are selected sequentially, MARKED attributes depend on
+			// the order in which triangles are visited.
+			ArrayList<TriangleCandidates> work = new ArrayList<TriangleCandidates>();
 			for(Triangle t : mesh.getTriangles())
 			{
 				if (t.hasAttributes(AbstractHalfEdge.OUTER))
 					continue;
 				h = t.getAbstractHalfEdge(h);
 				sym = t.getAbstractHalfEdge(sym);
-				triNodes.clear();
-				triMetrics.clear();
-				triNeighbor.clear();
-				Collection<Vertex> newVertices = mapTriangleVertices.get(t);
-				if (newVertices == null)
-					newVertices = new ArrayList<Vertex>();
-				// Maximal number of nodes which are inserted on edges of this triangle
-				int nrTriNodes = 0;
+				TriangleCandidates tc = null;
 				for (int i = 0; i < 3; i++)
 				{
 					h = h.next();
@@ -452,90 +561,38 @@ public class Remesh
 						h.setAttributes(AbstractHalfEdge.MARKED);
 						continue;
 					}
-					int nrNodes = addCandidatePoints(h, l, reversed,
-						triNodes, triMetrics, triNeighbor, boundaryNodes);
-					if (nrNodes > nrTriNodes)
+					if (tc == null)
 					{
-						nrTriNodes = nrNodes;
+						tc = new TriangleCandidates(t);
+						work.add(tc);
 					}
+					tc.addEdge(i, l);
 					checked++;
 				}
-				if (nrTriNodes > maxNodes)
-					maxNodes = nrTriNodes;
-				if (!triNodes.isEmpty())
+			}
+			// Candidates are computed and filtered concurrently, chunk
+			// by chunk.  Projection onto the background mesh and conflicts
+			// between candidates are resolved sequentially, in the order
+			// of triangles, so that result does not depend on the number
+			// of threads.
+			KdTree<Vertex> candidateTree = new KdTree<Vertex>(bbox);
+			for (int first = 0; first < work.size(); first += CHUNK_SIZE)
+			{
+				List<TriangleCandidates> chunk = work.subList(first, Math.min(work.size(), first + CHUNK_SIZE));
+				computeCandidates(chunk, reversed);
+				for (TriangleCandidates tc : chunk)
 				{
-					//  Process in pseudo-random order
-					int prime = PrimeFinder.nextPrime(nrTriNodes);
-					int imax = triNodes.size();
-					while (imax % prime == 0)
-						prime = PrimeFinder.nextPrime(prime+1);
-					if (prime >= imax)
-						prime = 1;
-					int index = imax / 2;
-					for (int i = 0; i < imax; i++)
-					{
-						Vertex v = triNodes.get(index);
-						EuclidianMetric3D metric = triMetrics.get(index);
-						assert metric != null;
-						double localSize = 0.5 * metric.getUnitBallBBox()[0];
-						double localSize2 = localSize * localSize;
-						Vertex bgNear = neighborBgMap.get(triNeighbor.get(index));
-						Triangle bgT = liaison.findSurroundingTriangle(v, bgNear, localSize2, true).getTri();
-						liaison.addVertex(v, bgT);
-						liaison.move(v, v.getUV());
-
-						double[] uv = v.getUV();
-						boolean validCandidate = allowNearNodes;
-						if (!validCandidate)
-						{
-							if (boundaryNodes.contains(v))
-								validCandidate = true;
-						}
-						if (!validCandidate)
-						{
-							Vertex n = kdTree.getNearestVertex(metric, uv);
-							validCandidate = interpolatedDistance(v, metric, n, metrics.get(n)) > minlen;
-						}
-						if (validCandidate)
-						{
-							kdTree.add(v);
-							metrics.put(v, metric);
-							nodes.add(v);
-							newVertices.add(v);
-							surroundingTriangle.put(v, t);
-							double d0 = v.sqrDistance3D(bgT.vertex[0]);
-							double d1 = v.sqrDistance3D(bgT.vertex[1]);
-							double d2 = v.sqrDistance3D(bgT.vertex[2]);
-							if (d0 <= d1 && d0 <= d2)
-								neighborBgMap.put(v, bgT.vertex[0]);
-							else if (d1 <= d0 && d1 <= d2)
-								neighborBgMap.put(v, bgT.vertex[1]);
-							else
-								neighborBgMap.put(v, bgT.vertex[2]);
-						}
-						else
-						{
-							tooNearNodes++;
-							liaison.removeVertex(v);
-						}
-						index += prime;
-						if (index >= imax)
-							index -= imax;
-					}
-					if (!newVertices.isEmpty())
-						mapTriangleVertices.put(t, newVertices);
+					if (tc.maxNodes > maxNodes)
+						maxNodes = tc.maxNodes;
+					projectCandidates(tc, boundaryNodes);
 				}
+				findNearestVertices(chunk, boundaryNodes);
+				for (TriangleCandidates tc : chunk)
+					tooNearNodes += selectCandidates(tc, candidateTree, boundaryNodes, nodes);
 			}
 			if (nodes.isEmpty())
 				break;
 
-			for (Vertex v : nodes)
-			{
-				//  These vertices are not bound to any triangles, so
-				//  they must be removed, otherwise getSurroundingOTriangle
-				//  may return a null pointer.
-				kdTree.remove(v);
-			}
 			LOGGER.fine("Try to insert "+nodes.size()+" nodes");
 			//  Process in pseudo-random order.  There are at most maxNodes nodes
 			//  on an edge, we choose an increment step greater than this value
@@ -562,8 +619,7 @@ public class Remesh
 					// Vertex is not inserted
 					skippedNodes++;
 					mapTriangleVertices.get(start).remove(v);
-					liaison.removeVertex(v);
-					neighborBgMap.remove(v);
+					discardCandidate(v);
 					continue;
 				}
 				if (!ot.hasAttributes(AbstractHalfEdge.BOUNDARY | AbstractHalfEdge.NONMANIFOLD | AbstractHalfEdge.SHARP))
@@ -580,8 +636,7 @@ public class Remesh
 						// Vertex is not inserted
 						skippedNodes++;
 						mapTriangleVertices.get(start).remove(v);
-						liaison.removeVertex(v);
-						neighborBgMap.remove(v);
+						discardCandidate(v);
 						continue;
 					}
 				}
@@ -590,8 +645,7 @@ public class Remesh
 					// Vertex is not inserted
 					skippedNodes++;
 					mapTriangleVertices.get(start).remove(v);
-					liaison.removeVertex(v);
-					neighborBgMap.remove(v);
+					discardCandidate(v);
 					continue;
 				}
 
@@ -648,7 +702,7 @@ public class Remesh
 				assert mesh.checkNoInvertedTriangles();
 			}
 			assert mesh.checkNoDegeneratedTriangles();
-			assert surroundingTriangle.isEmpty() : "surroundingTriangle still contains "+surroundingTriangle.size()+" vertices";
+			assert checkNoSurroundingTriangle(nodes);
 
 			if (LOGGER.isLoggable(Level.FINE))
 			{
@@ -667,19 +721,230 @@ public class Remesh
 			if (nodes.size() == skippedNodes)
 				break;
 		}
-		LOGGER.info("Number of inserted vertices: "+processed);
-		LOGGER.fine("Number of iterations to insert all nodes: "+nrIter);
-		if (nrFailedInterpolations > 0)
-			LOGGER.info("Number of failed interpolations: "+nrFailedInterpolations);
-		LOGGER.config("Leave compute()");
+	}
 
-		mesh.getTrace().println("# End Remesh");
-		return this;
+	/**
+	 * Runs <code>proc</code> on subranges of <code>[0, n)</code>, on
+	 * several threads if an executor is available.
+	 */
+	private void parallelFor(int n, final RangeProcedure proc)
+	{
+		if (executor == null || n < 2)
+		{
+			proc.run(0, n);
+			return;
+		}
+		int nrTasks = Math.min(n, 4 * nrThreads);
+		List<Callable<Object>> tasks = new ArrayList<Callable<Object>>(nrTasks);
+		for (int k = 0; k < nrTasks; k++)
+		{
+			final int from = (int) ((long) n * k / nrTasks);
+			final int to = (int) ((long) n * (k + 1) / nrTasks);
+			tasks.add(new Callable<Object>()
+			{
+				public Object call()
+				{
+					proc.run(from, to);
+					return null;
+				}
+			});
+		}
+		try
+		{
+			for (Future<Object> f : executor.invokeAll(tasks))
+				f.get();
+		}
+		catch (InterruptedException ex)
+		{
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(ex);
+		}
+		catch (ExecutionException ex)
+		{
+			if (ex.getCause() instanceof RuntimeException)
+				throw (RuntimeException) ex.getCause();
+			if (ex.getCause() instanceof Error)
+				throw (Error) ex.getCause();
+			throw new RuntimeException(ex.getCause());
+		}
+	}
+
+	/**
+	 * Computes candidate vertices on selected edges.  Mesh and metrics are
+	 * only read, so triangles are processed concurrently.
+	 */
+	private void computeCandidates(final List<TriangleCandidates> chunk, final boolean reversed)
+	{
+		parallelFor(chunk.size(), new RangeProcedure()
+		{
+			public void run(int from, int to)
+			{
+				AbstractHalfEdge h = null;
+				for (int k = from; k < to; k++)
+				{
+					TriangleCandidates tc = chunk.get(k);
+					h = tc.triangle.getAbstractHalfEdge(h);
+					int current = -1;
+					for (int e = 0; e < tc.nrEdges; e++)
+					{
+						while (current < tc.edges[e])
+						{
+							h = h.next();
+							current++;
+						}
+						int nrNodes = addCandidatePoints(h, tc.lengths[e], reversed, tc);
+						if (nrNodes > tc.maxNodes)
+							tc.maxNodes = nrNodes;
+					}
+				}
+			}
+		});
+		for (TriangleCandidates tc : chunk)
+		{
+			nrInterpolations += tc.nrInterpolations;
+			nrFailedInterpolations += tc.nrFailedInterpolations;
+		}
+	}
+
+	/**
+	 * Projects candidate vertices of a triangle onto the background mesh,
+	 * in pseudo-random order.
+	 */
+	private void projectCandidates(TriangleCandidates tc, Set<Vertex> boundaryNodes)
+	{
+		boundaryNodes.addAll(tc.boundary);
+		int imax = tc.nodes.size();
+		if (imax == 0)
+			return;
+		//  Process in pseudo-random order
+		int prime = PrimeFinder.nextPrime(tc.maxNodes);
+		while (imax % prime == 0)
+			prime = PrimeFinder.nextPrime(prime+1);
+		if (prime >= imax)
+			prime = 1;
+		int index = imax / 2;
+		ArrayList<Vertex> nodes = new ArrayList<Vertex>(imax);
+		ArrayList<EuclidianMetric3D> nodeMetrics = new ArrayList<EuclidianMetric3D>(imax);
+		tc.bgTriangles = new Triangle[imax];
+		for (int i = 0; i < imax; i++)
+		{
+			Vertex v = tc.nodes.get(index);
+			EuclidianMetric3D metric = tc.nodeMetrics.get(index);
+			assert metric != null;
+			double localSize = 0.5 * metric.getUnitBallBBox()[0];
+			double localSize2 = localSize * localSize;
+			Vertex bgNear = neighborBgMap.get(tc.neighbors.get(index));
+			Triangle bgT = liaison.findSurroundingTriangle(v, bgNear, localSize2, true).getTri();
+			liaison.addVertex(v, bgT);
+			liaison.move(v, v.getUV());
+			nodes.add(v);
+			nodeMetrics.add(metric);
+			tc.bgTriangles[i] = bgT;
+			index += prime;
+			if (index >= imax)
+				index -= imax;
+		}
+		tc.nodes.clear();
+		tc.nodes.addAll(nodes);
+		tc.nodeMetrics.clear();
+		tc.nodeMetrics.addAll(nodeMetrics);
+	}
+
+	/**
+	 * Finds the nearest vertex of current mesh from each candidate.
+	 * The kd-tree is not modified during this step, so candidates are
+	 * processed concurrently.
+	 */
+	private void findNearestVertices(final List<TriangleCandidates> chunk, final Set<Vertex> boundaryNodes)
+	{
+		if (allowNearNodes)
+			return;
+		parallelFor(chunk.size(), new RangeProcedure()
+		{
+			public void run(int from, int to)
+			{
+				for (int k = from; k < to; k++)
+				{
+					TriangleCandidates tc = chunk.get(k);
+					int imax = tc.nodes.size();
+					tc.nearest = new Vertex[imax];
+					for (int i = 0; i < imax; i++)
+					{
+						Vertex v = tc.nodes.get(i);
+						if (!boundaryNodes.contains(v))
+							tc.nearest[i] = kdTree.getNearestVertex(tc.nodeMetrics.get(i), v.getUV());
+					}
+				}
+			}
+		});
+	}
+
+	/**
+	 * Selects candidates which are not too near from existing vertices
+	 * and from candidates which have already been selected.
+	 * @return number of rejected candidates
+	 */
+	private int selectCandidates(TriangleCandidates tc, KdTree<Vertex> candidateTree,
+		Set<Vertex> boundaryNodes, Collection<Vertex> nodes)
+	{
+		int imax = tc.nodes.size();
+		if (imax == 0)
+			return 0;
+		int tooNearNodes = 0;
+		Collection<Vertex> newVertices = new ArrayList<Vertex>();
+		for (int i = 0; i < imax; i++)
+		{
+			Vertex v = tc.nodes.get(i);
+			EuclidianMetric3D metric = tc.nodeMetrics.get(i);
+			Triangle bgT = tc.bgTriangles[i];
+			double[] uv = v.getUV();
+			boolean validCandidate = allowNearNodes;
+			if (!validCandidate)
+			{
+				if (boundaryNodes.contains(v))
+					validCandidate = true;
+			}
+			if (!validCandidate)
+			{
+				// Nearest vertex is either in current mesh or
+				// a selected candidate
+				Vertex n = tc.nearest[i];
+				Vertex c = candidateTree.getNearestVertex(metric, uv);
+				if (c != null && (n == null || metric.distance2(uv, c.getUV()) < metric.distance2(uv, n.getUV())))
+					n = c;
+				validCandidate = interpolatedDistance(v, metric, n, metrics.get(n)) > minlen;
+			}
+			if (validCandidate)
+			{
+				candidateTree.add(v);
+				metrics.put(v, metric);
+				nodes.add(v);
+				newVertices.add(v);
+				surroundingTriangle.set(v, tc.triangle);
+				double d0 = v.sqrDistance3D(bgT.vertex[0]);
+				double d1 = v.sqrDistance3D(bgT.vertex[1]);
+				double d2 = v.sqrDistance3D(bgT.vertex[2]);
+				if (d0 <= d1 && d0 <= d2)
+					neighborBgMap.set(v, bgT.vertex[0]);
+				else if (d1 <= d0 && d1 <= d2)
+					neighborBgMap.set(v, bgT.vertex[1]);
+				else
+					neighborBgMap.set(v, bgT.vertex[2]);
+			}
+			else
+			{
+				tooNearNodes++;
+				discardCandidate(v);
+			}
+		}
+		if (!newVertices.isEmpty())
+			mapTriangleVertices.set(tc.triangle, newVertices);
+		return tooNearNodes;
 	}
 
+	// Called concurrently, must not modify shared data
 	private int addCandidatePoints(AbstractHalfEdge ot, double edgeLength, boolean reversed,
-		ArrayList<Vertex> triNodes, ArrayList<EuclidianMetric3D> triMetrics,
-		ArrayList<Vertex> triNeighbor, Set<Vertex> boundaryNodes)
+		TriangleCandidates tc)
 	{
 		int nrNodes = 0;
 		Vertex start = ot.origin();
@@ -751,7 +1016,7 @@ public class Remesh
 			while(cnt >= 0)
 			{
 				cnt--;
-				nrInterpolations++;
+				tc.nrInterpolations++;
 				// Update vertex position if 'project' flag was set
 				double [] pos = np.getUV();
 				if (project && !ot.hasAttributes(AbstractHalfEdge.SHARP | AbstractHalfEdge.BOUNDARY | AbstractHalfEdge.NONMANIFOLD))
@@ -779,17 +1044,17 @@ public class Remesh
 						}
 					}
 					else
-						boundaryNodes.add(last);
-					triNodes.add(last);
-					triMetrics.add(m);
+						tc.boundary.add(last);
+					tc.nodes.add(last);
+					tc.nodeMetrics.add(m);
 					if (start.getRef() == 0 && end.getRef() != 0)
-						triNeighbor.add(start);
+						tc.neighbors.add(start);
 					else if (start.getRef() != 0 && end.getRef() == 0)
-							triNeighbor.add(end);
+							tc.neighbors.add(end);
 					else if (m.distance2(pos, start.getUV()) < m.distance2(pos, end.getUV()))
-						triNeighbor.add(start);
+						tc.neighbors.add(start);
 					else
-						triNeighbor.add(end);
+						tc.neighbors.add(end);
 					nrNodes++;
 					r--;
 					break;
@@ -817,7 +1082,7 @@ public class Remesh
 			}
 			if (cnt < 0)
 			{
-				nrFailedInterpolations++;
+				tc.nrFailedInterpolations++;
 				return nrNodes;
 			}
 		}
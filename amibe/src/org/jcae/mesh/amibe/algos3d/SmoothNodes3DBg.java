@@ -20,6 +20,7 @@
 
 package org.jcae.mesh.amibe.algos3d;
 
+import org.jcae.mesh.amibe.ds.ElementIds;
 import org.jcae.mesh.amibe.ds.Mesh;
 import org.jcae.mesh.amibe.ds.Triangle;
 import org.jcae.mesh.amibe.ds.AbstractHalfEdge;
@@ -36,7 +37,6 @@ import java.util.LinkedHashSet;
 import java.util.Collection;
 import java.util.Iterator;
 import java.io.IOException;
-import gnu.trove.TObjectDoubleHashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.jcae.mesh.amibe.metrics.MetricSupport;
@@ -68,7 +68,8 @@ public class SmoothNodes3DBg
 	private boolean refresh = false;
 	int processed = 0;
 	private int notProcessed = 0;
-	private TObjectDoubleHashMap<Triangle> qualityMap;
+	// Triangle quality, NaN if it has not been computed
+	private ElementIds<Triangle>.DoubleProperty qualityMap;
 	private Collection<Vertex> nodeset;
 	private final Set<Vertex> immutableNodes = new LinkedHashSet<Vertex>();
 	private MetricSupport metrics;
@@ -172,7 +173,7 @@ public class SmoothNodes3DBg
 				continue;
 			ot = f.getAbstractHalfEdge(ot);
 			double val = triangleQuality(ot);
-			qualityMap.put(f, val);
+			qualityMap.set(f, val);
 		}
 	}
 
@@ -183,7 +184,7 @@ public class SmoothNodes3DBg
 		{
 			metrics.compute();
 			// First compute triangle quality
-			qualityMap = new TObjectDoubleHashMap<Triangle>(mesh.getTriangles().size());
+			qualityMap = mesh.getTriangleIds().newDoubleProperty(Double.NaN);
 			computeTriangleQuality();
 
 			nodeset = mesh.getNodes();
@@ -226,6 +227,8 @@ public class SmoothNodes3DBg
 				processAllNodes();
 				postProcessIteration(mesh, i);
 			}
+			qualityMap.dispose();
+			qualityMap = null;
 		}
 		LOGGER.info("Number of moved points: "+processed);
 		LOGGER.info("Total number of points not moved during processing: "+notProcessed);
@@ -291,7 +294,7 @@ public class SmoothNodes3DBg
 					if (ot.hasAttributes(AbstractHalfEdge.OUTER))
 						continue;
 					double qt = triangleQuality(ot);
-					qualityMap.put(ot.getTri(), qt);
+					qualityMap.set(ot.getTri(), qt);
 				}
 				while (ot.destination() != d);
 				// Update neighbor vertex quality
@@ -428,8 +431,8 @@ public class SmoothNodes3DBg
 			edge = edge.nextOriginLoop();
 			if (edge.hasAttributes(AbstractHalfEdge.OUTER))
 				continue;
-			assert qualityMap.containsKey(edge.getTri());
 			double qt = qualityMap.get(edge.getTri());
+			assert !Double.isNaN(qt) : edge.getTri();
 			if (qt < ret)
 				ret = qt;
 		}
@@ -0,0 +1,247 @@
+/*
+ * Project Info:  http://jcae.sourceforge.net
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307, USA.
+ *
+ * (C) Copyright 2012, by EADS France
+ */
+
+package org.jcae.mesh.amibe.algos3d;
+
+import org.jcae.mesh.amibe.ds.Mesh;
+import org.jcae.mesh.amibe.ds.Triangle;
+import org.jcae.mesh.amibe.ds.Vertex;
+import org.jcae.mesh.amibe.util.SpaceFillingCurve;
+import org.jcae.mesh.xmldata.MeshReader;
+import org.jcae.mesh.xmldata.MeshWriter;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * Reorder vertices and triangles along a space-filling curve.
+ * Vertices are relabelled by their rank along the curve, starting from 1
+ * like other mesh labels, and node and triangle collections are rebuilt
+ * in this order.  Neighbouring elements
+ * are then visited consecutively by algorithms iterating over these
+ * collections, and are written consecutively by
+ * {@link org.jcae.mesh.xmldata.MeshWriter}.
+ */
+public class SpatialSort
+{
+	private static final Logger LOGGER=Logger.getLogger(SpatialSort.class.getName());
+	private final Mesh mesh;
+	private SpaceFillingCurve.Type type = SpaceFillingCurve.Type.HILBERT;
+
+	/**
+	 * Creates a <code>SpatialSort</code> instance.
+	 *
+	 * @param m  the <code>Mesh</code> instance to reorder.
+	 */
+	public SpatialSort(final Mesh m)
+	{
+		this(m, new HashMap<String, String>());
+	}
+
+	/**
+	 * Creates a <code>SpatialSort</code> instance.
+	 *
+	 * @param m  the <code>Mesh</code> instance to reorder.
+	 * @param options  map containing key-value pairs to modify algorithm
+	 *        behaviour.  Valid key is <code>curve</code>, its value is
+	 *        either <code>hilbert</code> (default) or <code>morton</code>.
+	 */
+	public SpatialSort(final Mesh m, final Map<String, String> options)
+	{
+		for (final Map.Entry<String, String> opt: options.entrySet())
+		{
+			final String key = opt.getKey();
+			final String val = opt.getValue();
+			if (key.equals("curve"))
+				type = SpaceFillingCurve.parseType(val);
+			else
+				throw new RuntimeException("Unknown option: "+key);
+		}
+		mesh = m;
+	}
+
+	public final Mesh getOutputMesh()
+	{
+		return mesh;
+	}
+
+	public final SpatialSort compute()
+	{
+		LOGGER.info("Run "+getClass().getName());
+		Collection<Triangle> triangles = mesh.getTriangles();
+		Collection<Vertex> nodes = mesh.getNodes();
+		if (nodes == null)
+		{
+			nodes = new LinkedHashSet<Vertex>(triangles.size() / 2);
+			for (Triangle t: triangles)
+			{
+				for (Vertex v: t.vertex)
+				{
+					if (v != mesh.outerVertex)
+						nodes.add(v);
+				}
+			}
+		}
+		if (nodes.isEmpty())
+			return this;
+
+		double [] bbmin = new double[3];
+		double [] bbmax = new double[3];
+		for (int j = 0; j < 3; j++)
+		{
+			bbmin[j] = Double.MAX_VALUE;
+			bbmax[j] = - Double.MAX_VALUE;
+		}
+		for (Vertex v: nodes)
+		{
+			if (v == mesh.outerVertex)
+				continue;
+			double [] xyz = v.getUV();
+			for (int j = 0; j < 3; j++)
+			{
+				if (xyz[j] < bbmin[j])
+					bbmin[j] = xyz[j];
+				if (xyz[j] > bbmax[j])
+					bbmax[j] = xyz[j];
+			}
+		}
+		SpaceFillingCurve curve = new SpaceFillingCurve(type, bbmin, bbmax);
+
+		// Vertices
+		Vertex [] vertices = new Vertex[nodes.size()];
+		long [] keys = new long[vertices.length];
+		int nrVertices = 0;
+		boolean hasOuter = false;
+		for (Vertex v: nodes)
+		{
+			if (v == mesh.outerVertex)
+			{
+				hasOuter = true;
+				continue;
+			}
+			vertices[nrVertices] = v;
+			keys[nrVertices] = curve.getKey(v.getUV());
+			nrVertices++;
+		}
+		int [] perm = SpaceFillingCurve.sortedPermutation(keys, nrVertices);
+		for (int i = 0; i < nrVertices; i++)
+			vertices[perm[i]].setLabel(i + 1);
+		if (mesh.getNodes() != null)
+		{
+			nodes.clear();
+			for (int i = 0; i < nrVertices; i++)
+				nodes.add(vertices[perm[i]]);
+			if (hasOuter)
+				nodes.add(mesh.outerVertex);
+		}
+		vertices = null;
+
+		// Triangles are sorted by the key of their centroid, outer
+		// triangles are located at the centroid of their inner vertices
+		// so that they stay close to their inner neighbours.
+		Triangle [] trianglesArray = new Triangle[triangles.size()];
+		triangles.toArray(trianglesArray);
+		if (keys.length < trianglesArray.length)
+			keys = new long[trianglesArray.length];
+		double [] centroid = new double[3];
+		for (int i = 0; i < trianglesArray.length; i++)
+		{
+			Triangle t = trianglesArray[i];
+			centroid[0] = centroid[1] = centroid[2] = 0.0;
+			int cnt = 0;
+			for (Vertex v: t.vertex)
+			{
+				if (v == mesh.outerVertex)
+					continue;
+				double [] xyz = v.getUV();
+				for (int j = 0; j < 3; j++)
+					centroid[j] += xyz[j];
+				cnt++;
+			}
+			if (cnt > 0)
+			{
+				for (int j = 0; j < 3; j++)
+					centroid[j] /= cnt;
+			}
+			keys[i] = curve.getKey(centroid);
+		}
+		perm = SpaceFillingCurve.sortedPermutation(keys, trianglesArray.length);
+		triangles.clear();
+		for (int i = 0; i < trianglesArray.length; i++)
+			triangles.add(trianglesArray[perm[i]]);
+
+		LOGGER.config("Reordered "+nrVertices+" vertices and "+trianglesArray.length+" triangles along "+type+" curve");
+		return this;
+	}
+
+	private static void usage(int rc)
+	{
+		System.out.println("Usage: SpatialSort [options] xmlDir outDir");
+		System.out.println("Options:");
+		System.out.println(" -h, --help      Display this message and exit");
+		System.out.println(" --curve <c>     Space-filling curve: hilbert (default) or morton");
+		System.exit(rc);
+	}
+
+	public static void main(String[] args)
+	{
+		org.jcae.mesh.amibe.traits.MeshTraitsBuilder mtb = org.jcae.mesh.amibe.traits.MeshTraitsBuilder.getDefault3D();
+		mtb.addNodeList();
+		Mesh mesh = new Mesh(mtb);
+		Map<String, String> opts = new HashMap<String, String>();
+		int argc = 0;
+		for (String arg: args)
+			if (arg.equals("--help") || arg.equals("-h"))
+				usage(0);
+		while (argc < args.length-1)
+		{
+			if (args[argc].length() < 2 || args[argc].charAt(0) != '-' || args[argc].charAt(1) != '-')
+				break;
+			opts.put(args[argc].substring(2), args[argc+1]);
+			argc += 2;
+		}
+		if (argc + 2 != args.length)
+			usage(1);
+		try
+		{
+			MeshReader.readObject3D(mesh, args[argc]);
+		}
+		catch (IOException ex)
+		{
+			ex.printStackTrace();
+			throw new RuntimeException(ex);
+		}
+		SpatialSort algo = new SpatialSort(mesh, opts);
+		algo.compute();
+		try
+		{
+			MeshWriter.writeObject3D(algo.getOutputMesh(), args[argc+1], null);
+		}
+		catch (IOException ex)
+		{
+			ex.printStackTrace();
+			throw new RuntimeException(ex);
+		}
+	}
+}
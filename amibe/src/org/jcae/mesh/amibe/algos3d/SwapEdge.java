@@ -30,6 +30,7 @@ import org.jcae.mesh.xmldata.MeshWriter;
 import java.io.IOException;
 import java.util.Map;
 import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -40,7 +41,7 @@ import java.util.logging.Logger;
 public class SwapEdge extends AbstractAlgoHalfEdge
 {
 	private static final Logger LOGGER=Logger.getLogger(SwapEdge.class.getName());
-	private int counter = 0;
+	private final AtomicInteger counter = new AtomicInteger();
 	/** Swap only if the quality is improved by at least this factory */
 	private double minQualityFactor;
 	private boolean expectInsert = true;
@@ -86,7 +87,7 @@ public class SwapEdge extends AbstractAlgoHalfEdge
 		}
 		if (meshLiaison == null)
 			mesh.buildRidges(minCos);
-		counter = m.getTriangles().size() * 3;
+		counter.set(m.getTriangles().size() * 3);
 		setNoSwapAfterProcessing(true);
 	}
 
@@ -96,6 +97,12 @@ public class SwapEdge extends AbstractAlgoHalfEdge
 		return LOGGER;
 	}
 
+	@Override
+	protected boolean isLocalOperation()
+	{
+		return true;
+	}
+
 	@Override
 	public void preProcessAllHalfEdges()
 	{
@@ -121,7 +128,7 @@ public class SwapEdge extends AbstractAlgoHalfEdge
 	@Override
 	public boolean canProcessEdge(HalfEdge current)
 	{
-		return counter > 0 && !current.hasAttributes(AbstractHalfEdge.IMMUTABLE | AbstractHalfEdge.OUTER | AbstractHalfEdge.SHARP | AbstractHalfEdge.BOUNDARY | AbstractHalfEdge.NONMANIFOLD);
+		return counter.get() > 0 && !current.hasAttributes(AbstractHalfEdge.IMMUTABLE | AbstractHalfEdge.OUTER | AbstractHalfEdge.SHARP | AbstractHalfEdge.BOUNDARY | AbstractHalfEdge.NONMANIFOLD);
 	}
 
 	@Override
@@ -129,13 +136,12 @@ public class SwapEdge extends AbstractAlgoHalfEdge
 	{
 		if (LOGGER.isLoggable(Level.FINE))
 			LOGGER.fine("Swap edge: "+current+"  cost="+costCurrent);
-		counter --;
+		counter.decrementAndGet();
 		for (int i = 0; i < 3; i++)
 		{
 			HalfEdge h = uniqueOrientation(current);
-			if (!tree.remove(h))
-				notInTree++;
-			assert !tree.contains(h);
+			treeRemove(h);
+			assert !treeContains(h);
 			h.clearAttributes(AbstractHalfEdge.MARKED);
 			current = current.next();
 		}
@@ -144,8 +150,7 @@ public class SwapEdge extends AbstractAlgoHalfEdge
 		{
 			sym = sym.next();
 			HalfEdge h = uniqueOrientation(sym);
-			if (!tree.remove(h))
-				notInTree++;
+			treeRemove(h);
 			h.clearAttributes(AbstractHalfEdge.MARKED);
 		}
 		current = (HalfEdge) mesh.edgeSwap(current);
@@ -0,0 +1,500 @@
+/* jCAE stand for Java Computer Aided Engineering. Features are : Small CAD
+   modeler, Finite element mesher, Plugin architecture.
+
+    Copyright (C) 2012, by EADS France
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA */
+
+package org.jcae.mesh.amibe.ds;
+
+import gnu.trove.TIntArrayList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Dense integer identifiers of mesh elements, and property columns indexed
+ * by these identifiers.
+ *
+ * <p>
+ * Algorithms often attach temporary data to vertices or triangles.  Hash
+ * maps are expensive for this purpose: each entry allocates an object, and
+ * lookups compute hash codes and follow references.  Instead, an element
+ * gets an identifier in <code>[0, size())</code> the first time one is
+ * requested, and properties store their values in plain arrays indexed by
+ * these identifiers.
+ * </p>
+ *
+ * <p>
+ * When an element is removed by {@link Mesh#remove(Vertex)} or
+ * {@link Mesh#remove(Triangle)}, its identifier is released, but values
+ * stored for this element can still be read until this identifier is
+ * given to another element.  Properties are then reset to their default
+ * value for this identifier.  If a released element is added back into
+ * the mesh before its identifier is reused, it keeps its identifier and
+ * its values.
+ * </p>
+ *
+ * <p>
+ * An element can only have an identifier in a single mesh.  Read methods
+ * {@link #find}, {@link #getElement} and property getters taking an
+ * identifier or an element for which {@link #find} is used can be called
+ * concurrently, other methods cannot.
+ * </p>
+ */
+public abstract class ElementIds<E>
+{
+	private Object [] owners = new Object[16];
+	// Set when an identifier has been released
+	private boolean [] released = new boolean[16];
+	// Set when an identifier is stored in freeList
+	private boolean [] queued = new boolean[16];
+	private final TIntArrayList freeList = new TIntArrayList();
+	private int size = 0;
+	private final List<Property> properties = new ArrayList<Property>();
+
+	// Field accessors, elements store their own identifier
+	abstract int idOf(E e);
+	abstract void setIdOf(E e, int id);
+
+	static ElementIds<Vertex> forVertices()
+	{
+		return new ElementIds<Vertex>()
+		{
+			@Override
+			int idOf(Vertex v)
+			{
+				return v.elementId;
+			}
+			@Override
+			void setIdOf(Vertex v, int id)
+			{
+				v.elementId = id;
+			}
+		};
+	}
+
+	static ElementIds<Triangle> forTriangles()
+	{
+		return new ElementIds<Triangle>()
+		{
+			@Override
+			int idOf(Triangle t)
+			{
+				return t.elementId;
+			}
+			@Override
+			void setIdOf(Triangle t, int id)
+			{
+				t.elementId = id;
+			}
+		};
+	}
+
+	/**
+	 * Returns the identifier of an element, or -1 if it has none.
+	 *
+	 * @param e  element
+	 * @return identifier of this element, or -1
+	 */
+	public final int find(E e)
+	{
+		int id = idOf(e);
+		if (id < 0 || id >= size || owners[id] != e)
+			return -1;
+		return id;
+	}
+
+	/**
+	 * Returns the identifier of an element, a new one is allocated if
+	 * this element has none.
+	 *
+	 * @param e  element
+	 * @return identifier of this element
+	 */
+	public final int get(E e)
+	{
+		int id = find(e);
+		if (id >= 0)
+			return id;
+		id = allocate();
+		owners[id] = e;
+		setIdOf(e, id);
+		return id;
+	}
+
+	/**
+	 * Returns the element which owns an identifier.  Released identifiers
+	 * keep their owner until they are reused.
+	 *
+	 * @param id  identifier
+	 * @return element with this identifier, or <code>null</code>
+	 */
+	@SuppressWarnings("unchecked")
+	public final E getElement(int id)
+	{
+		if (id < 0 || id >= size)
+			return null;
+		return (E) owners[id];
+	}
+
+	/**
+	 * Tells whether an identifier has been released.
+	 *
+	 * @param id  identifier
+	 * @return <code>true</code> if this identifier is not used,
+	 *    <code>false</code> otherwise
+	 */
+	public final boolean isReleased(int id)
+	{
+		return id < 0 || id >= size || released[id];
+	}
+
+	/**
+	 * Returns an upper bound of identifiers.
+	 *
+	 * @return an upper bound of identifiers
+	 */
+	public final int size()
+	{
+		return size;
+	}
+
+	/**
+	 * Releases the identifier of an element.  This is done by
+	 * {@link Mesh#remove(Vertex)} and {@link Mesh#remove(Triangle)},
+	 * algorithms only have to call this method for elements which
+	 * get an identifier but are never added to the mesh.
+	 *
+	 * @param e  element
+	 */
+	public final void release(E e)
+	{
+		int id = find(e);
+		if (id < 0 || released[id])
+			return;
+		released[id] = true;
+		if (!queued[id])
+		{
+			queued[id] = true;
+			freeList.add(id);
+		}
+	}
+
+	// Called by Mesh.add, an element which is added back into the mesh
+	// keeps its identifier if it has not been reused.
+	final void revive(E e)
+	{
+		int id = find(e);
+		if (id >= 0)
+			released[id] = false;
+	}
+
+	/**
+	 * Removes all identifiers and resets all properties.
+	 */
+	public final void clear()
+	{
+		for (int i = 0; i < size; i++)
+		{
+			@SuppressWarnings("unchecked")
+			E e = (E) owners[i];
+			if (idOf(e) == i)
+				setIdOf(e, -1);
+			owners[i] = null;
+			released[i] = false;
+			queued[i] = false;
+		}
+		freeList.clear();
+		size = 0;
+		for (Property p : properties)
+			p.clear();
+	}
+
+	private int allocate()
+	{
+		while (!freeList.isEmpty())
+		{
+			int id = freeList.remove(freeList.size() - 1);
+			queued[id] = false;
+			// Skip elements which have been added back
+			if (!released[id])
+				continue;
+			released[id] = false;
+			@SuppressWarnings("unchecked")
+			E old = (E) owners[id];
+			setIdOf(old, -1);
+			for (Property p : properties)
+				p.reset(id);
+			return id;
+		}
+		if (size == owners.length)
+		{
+			int capacity = 2 * size;
+			Object [] newOwners = new Object[capacity];
+			boolean [] newReleased = new boolean[capacity];
+			boolean [] newQueued = new boolean[capacity];
+			System.arraycopy(owners, 0, newOwners, 0, size);
+			System.arraycopy(released, 0, newReleased, 0, size);
+			System.arraycopy(queued, 0, newQueued, 0, size);
+			owners = newOwners;
+			released = newReleased;
+			queued = newQueued;
+		}
+		size++;
+		return size - 1;
+	}
+
+	// Capacity of a property array which must contain id
+	private int grow(int length, int id)
+	{
+		return Math.max(id + 1, Math.max(2 * length, size));
+	}
+
+	/**
+	 * Creates a column of double values.
+	 *
+	 * @param defaultValue  value of elements which have not been set
+	 * @return new property
+	 */
+	public final DoubleProperty newDoubleProperty(double defaultValue)
+	{
+		DoubleProperty ret = new DoubleProperty(defaultValue);
+		properties.add(ret);
+		return ret;
+	}
+
+	/**
+	 * Creates a column of int values.
+	 *
+	 * @param defaultValue  value of elements which have not been set
+	 * @return new property
+	 */
+	public final IntProperty newIntProperty(int defaultValue)
+	{
+		IntProperty ret = new IntProperty(defaultValue);
+		properties.add(ret);
+		return ret;
+	}
+
+	/**
+	 * Creates a column of objects, default value is <code>null</code>.
+	 *
+	 * @return new property
+	 */
+	public final <T> ObjectProperty<T> newObjectProperty()
+	{
+		ObjectProperty<T> ret = new ObjectProperty<T>();
+		properties.add(ret);
+		return ret;
+	}
+
+	/**
+	 * Values attached to elements.  Arrays grow when values are set, and
+	 * are reset when identifiers are recycled.
+	 */
+	public abstract class Property
+	{
+		abstract void reset(int id);
+
+		/**
+		 * Sets all values to their default value.
+		 */
+		public abstract void clear();
+
+		/**
+		 * Detaches this property.  It must no more be used, its memory
+		 * can be reclaimed by the garbage collector.
+		 */
+		public void dispose()
+		{
+			properties.remove(this);
+		}
+	}
+
+	public final class DoubleProperty extends Property
+	{
+		private final double defaultValue;
+		private double [] values = new double[0];
+
+		private DoubleProperty(double defaultValue)
+		{
+			this.defaultValue = defaultValue;
+		}
+
+		public double get(int id)
+		{
+			if (id < 0 || id >= values.length)
+				return defaultValue;
+			return values[id];
+		}
+
+		public double get(E e)
+		{
+			return get(find(e));
+		}
+
+		public void set(int id, double value)
+		{
+			if (id >= values.length)
+			{
+				double [] newValues = new double[grow(values.length, id)];
+				System.arraycopy(values, 0, newValues, 0, values.length);
+				Arrays.fill(newValues, values.length, newValues.length, defaultValue);
+				values = newValues;
+			}
+			values[id] = value;
+		}
+
+		public void set(E e, double value)
+		{
+			set(ElementIds.this.get(e), value);
+		}
+
+		@Override
+		void reset(int id)
+		{
+			if (id < values.length)
+				values[id] = defaultValue;
+		}
+
+		@Override
+		public void clear()
+		{
+			Arrays.fill(values, defaultValue);
+		}
+	}
+
+	public final class IntProperty extends Property
+	{
+		private final int defaultValue;
+		private int [] values = new int[0];
+
+		private IntProperty(int defaultValue)
+		{
+			this.defaultValue = defaultValue;
+		}
+
+		public int get(int id)
+		{
+			if (id < 0 || id >= values.length)
+				return defaultValue;
+			return values[id];
+		}
+
+		public int get(E e)
+		{
+			return get(find(e));
+		}
+
+		public void set(int id, int value)
+		{
+			if (id >= values.length)
+			{
+				int [] newValues = new int[grow(values.length, id)];
+				System.arraycopy(values, 0, newValues, 0, values.length);
+				Arrays.fill(newValues, values.length, newValues.length, defaultValue);
+				values = newValues;
+			}
+			values[id] = value;
+		}
+
+		public void set(E e, int value)
+		{
+			set(ElementIds.this.get(e), value);
+		}
+
+		@Override
+		void reset(int id)
+		{
+			if (id < values.length)
+				values[id] = defaultValue;
+		}
+
+		@Override
+		public void clear()
+		{
+			Arrays.fill(values, defaultValue);
+		}
+	}
+
+	public final class ObjectProperty<T> extends Property
+	{
+		private Object [] values = new Object[0];
+
+		private ObjectProperty()
+		{
+		}
+
+		@SuppressWarnings("unchecked")
+		public T get(int id)
+		{
+			if (id < 0 || id >= values.length)
+				return null;
+			return (T) values[id];
+		}
+
+		public T get(E e)
+		{
+			return get(find(e));
+		}
+
+		public void set(int id, T value)
+		{
+			if (id >= values.length)
+			{
+				if (value == null)
+					return;
+				Object [] newValues = new Object[grow(values.length, id)];
+				System.arraycopy(values, 0, newValues, 0, values.length);
+				values = newValues;
+			}
+			values[id] = value;
+		}
+
+		public void set(E e, T value)
+		{
+			set(ElementIds.this.get(e), value);
+		}
+
+		/**
+		 * Removes the value attached to an element.
+		 *
+		 * @param e  element
+		 * @return previous value
+		 */
+		public T remove(E e)
+		{
+			int id = find(e);
+			T ret = get(id);
+			if (ret != null)
+				values[id] = null;
+			return ret;
+		}
+
+		@Override
+		void reset(int id)
+		{
+			if (id < values.length)
+				values[id] = null;
+		}
+
+		@Override
+		public void clear()
+		{
+			Arrays.fill(values, null);
+		}
+	}
+}
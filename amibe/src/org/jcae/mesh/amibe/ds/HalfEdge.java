@@ -22,6 +22,7 @@ package org.jcae.mesh.amibe.ds;
 
 import org.jcae.mesh.amibe.traits.HalfEdgeTraitsBuilder;
 import org.jcae.mesh.amibe.metrics.Matrix3D;
+import org.jcae.mesh.amibe.metrics.Predicates;
 import java.util.Collection;
 import java.util.ArrayList;
 import java.util.HashSet;
@@ -434,11 +435,15 @@ public class HalfEdge extends AbstractHalfEdge implements Serializable
 		// Do not create an edge which will be difficult to modify later
 		if (expectInsert && a.getRef() != 0 && n.getRef() != 0 && (o.getRef() == 0 || d.getRef() == 0))
 			return invalid;
-		double[] temp0 = mesh.temp.t3_0;
-		double[] temp1 = mesh.temp.t3_1;
-		double[] temp2 = mesh.temp.t3_2;
-		double[] temp3 = mesh.temp.t3_3;
-		double[] temp4 = mesh.temp.t3_4;
+		// Triangles (ona) and (dan) overlap if o and d are on the
+		// same side of (an)
+		if (Predicates.moveOrientation(a.getUV(), n.getUV(), o.getUV(), d.getUV(), 0.0) >= 0.0)
+			return invalid;
+		double[] temp0 = mesh.getTemp().t3_0;
+		double[] temp1 = mesh.getTemp().t3_1;
+		double[] temp2 = mesh.getTemp().t3_2;
+		double[] temp3 = mesh.getTemp().t3_3;
+		double[] temp4 = mesh.getTemp().t3_4;
 		double s1 = Matrix3D.computeNormal3D(o.getUV(), d.getUV(), a.getUV(), temp0, temp1, temp2);
 		double s2 = Matrix3D.computeNormal3D(d.getUV(), o.getUV(), n.getUV(), temp0, temp1, temp3);
 		// Make sure that edge swap does not create inverted triangles
@@ -510,10 +515,10 @@ public class HalfEdge extends AbstractHalfEdge implements Serializable
 		// Do not create an edge which will be difficult to modify later
 		if (expectInsert && a.getRef() != 0 && n.getRef() != 0 && (o.getRef() == 0 || d.getRef() == 0))
 			return invalid;
-		double[] temp0 = mesh.temp.t3_0;
-		double[] temp1 = mesh.temp.t3_1;
-		double[] temp2 = mesh.temp.t3_2;
-		double[] temp3 = mesh.temp.t3_3;
+		double[] temp0 = mesh.getTemp().t3_0;
+		double[] temp1 = mesh.getTemp().t3_1;
+		double[] temp2 = mesh.getTemp().t3_2;
+		double[] temp3 = mesh.getTemp().t3_3;
 		double s1 = Matrix3D.computeNormal3D(o.getUV(), d.getUV(), a.getUV(), temp0, temp1, temp2);
 		double s2 = Matrix3D.computeNormal3D(d.getUV(), o.getUV(), n.getUV(), temp0, temp1, temp3);
 		double cBefore1 = Matrix3D.prodSca(temp2, normal);
@@ -637,9 +642,9 @@ public class HalfEdge extends AbstractHalfEdge implements Serializable
 		double [] p0 = origin().getUV();
 		double [] p1 = destination().getUV();
 		double [] p2 = apex().getUV();
-		double[] temp0 = m.temp.t3_0;
-		double[] temp1 = m.temp.t3_1;
-		double[] temp2 = m.temp.t3_2;
+		double[] temp0 = m.getTemp().t3_0;
+		double[] temp1 = m.getTemp().t3_1;
+		double[] temp2 = m.getTemp().t3_2;
 		temp1[0] = p1[0] - p0[0];
 		temp1[1] = p1[1] - p0[1];
 		temp1[2] = p1[2] - p0[2];
@@ -676,11 +681,12 @@ public class HalfEdge extends AbstractHalfEdge implements Serializable
 			// triangles.
 			Triangle t1 = tri;
 			Triangle t2 = sym.tri;
-			// Check that origin vertex can be moved
-			if (!checkNewRingNormalsSameFan(mesh, xn, t1, t2))
-				return false;
-			// Check that destination vertex can be moved
-			if (!sym.checkNewRingNormalsSameFan(mesh, xn, t1, t2))
+			// Check that origin and destination vertices can be moved
+			Predicates.Fan fan = mesh.getTemp().fan;
+			fan.clear();
+			addSameFan(fan, t1, t2);
+			sym.addSameFan(fan, t1, t2);
+			if (!checkFan(fan, xn))
 				return false;
 			//  Topology check.
 			return canCollapseTopology();
@@ -697,11 +703,12 @@ public class HalfEdge extends AbstractHalfEdge implements Serializable
 			ignored.add(f.sym.tri);
 		}
 		
-		// Check that origin vertex can be moved
-		if (!checkNewRingNormalsNonManifoldVertex(mesh, xn, ignored))
-			return false;
-		// Check that destination vertex can be moved
-		if (!sym.checkNewRingNormalsNonManifoldVertex(mesh, xn, ignored))
+		// Check that origin and destination vertices can be moved
+		Predicates.Fan fan = mesh.getTemp().fan;
+		fan.clear();
+		addFansNonManifoldVertex(fan, ignored);
+		sym.addFansNonManifoldVertex(fan, ignored);
+		if (!checkFan(fan, xn))
 			return false;
 		ignored.clear();
 
@@ -756,23 +763,16 @@ public class HalfEdge extends AbstractHalfEdge implements Serializable
 	 */
 	private boolean canCollapseTopology()
 	{
-		Collection<Vertex> neighbours = new HashSet<Vertex>();
-		AbstractHalfEdge ot = this;
+		// Vertices around destination are searched in the ring of
+		// origin; valences are small, so this is faster than filling
+		// a set.
+		HalfEdge ot = sym;
 		Vertex d = ot.destination();
-		do
-		{
-			// Warning: mesh.outerVertex is intentionnally not filtered out
-			neighbours.add(ot.destination());
-			ot = ot.nextOriginLoop();
-		}
-		while (ot.destination() != d);
-		ot = ot.sym();
 		int cnt = 0;
-		d = ot.destination();
 		do
 		{
 			// Warning: mesh.outerVertex is intentionnally not filtered out
-			if (neighbours.contains(ot.destination()))
+			if (isOriginNeighbour(ot.destination()))
 			{
 				if (cnt > 1)
 					return false;
@@ -783,16 +783,31 @@ public class HalfEdge extends AbstractHalfEdge implements Serializable
 		while (ot.destination() != d);
 		return true;
 	}
+
+	// Tells whether v is the destination of an edge of the fan of origin
+	private boolean isOriginNeighbour(Vertex v)
+	{
+		HalfEdge ot = this;
+		Vertex d = destination();
+		do
+		{
+			if (ot.destination() == v)
+				return true;
+			ot = ot.nextOriginLoop();
+		}
+		while (ot.destination() != d);
+		return false;
+	}
 	
 	final boolean canMoveOrigin(Mesh mesh, double [] newpt)
 	{
 		assert origin().isManifold() && origin().isMutable();
 		Vertex d = destination();
 		HalfEdge f = this;
-		double [] temp0 = mesh.temp.t3_0;
-		double [] temp1 = mesh.temp.t3_1;
-		double [] temp2 = mesh.temp.t3_2;
-		double [] temp3 = mesh.temp.t3_3;
+		double [] temp0 = mesh.getTemp().t3_0;
+		double [] temp1 = mesh.getTemp().t3_1;
+		double [] temp2 = mesh.getTemp().t3_2;
+		double [] temp3 = mesh.getTemp().t3_3;
 		// Loop around origin
 		do
 		{
@@ -816,106 +831,87 @@ public class HalfEdge extends AbstractHalfEdge implements Serializable
 	 * @param newpt  the new position to be checked
 	 * @return <code>false</code> if the new position produces
 	 *    an inverted triangle, <code>true</code> otherwise.
-	 * Warning: this method uses temp[0], temp[1], temp[2] and temp[3] temporary arrays.
 	 */
 	@Override
 	final boolean checkNewRingNormals(Mesh mesh, double [] newpt)
 	{
 		if (hasAttributes(IMMUTABLE))
 			return false;
+		Predicates.Fan fan = mesh.getTemp().fan;
+		fan.clear();
 		Vertex o = origin();
 		if (o.isManifold())
-			return checkNewRingNormalsSameFan(mesh, newpt, null, null);
-		for (Triangle start: (Triangle []) o.getLink())
+			addSameFan(fan, null, null);
+		else
 		{
-			HalfEdge f = (HalfEdge) start.getAbstractHalfEdge();
-			if (f.destination() == o)
-				f = f.next;
-			else if (f.apex() == o)
-				f = f.next.next;
-			assert f.origin() == o;
-			if (!f.checkNewRingNormalsSameFan(mesh, newpt, null, null))
-				return false;
+			for (Triangle start: (Triangle []) o.getLink())
+				originEdge(start, o).addSameFan(fan, null, null);
 		}
-		return true;
+		return checkFan(fan, newpt);
+	}
+
+	// Returns the edge of t starting from o
+	private static HalfEdge originEdge(Triangle t, Vertex o)
+	{
+		HalfEdge f = (HalfEdge) t.getAbstractHalfEdge();
+		if (f.destination() == o)
+			f = f.next;
+		else if (f.apex() == o)
+			f = f.next.next;
+		assert f.origin() == o;
+		return f;
+	}
+
+	private static boolean checkFan(Predicates.Fan fan, double [] newpt)
+	{
+		// Two triangles are removed when an edge is contracted.
+		// So normally triangle areas should increase.  If their
+		// height decreases by more than a half, there may be a
+		// problem.
+		return fan.checkMove(newpt, 0.5);
 	}
 
-	private boolean checkNewRingNormalsSameFan(Mesh mesh, double [] newpt, Triangle t1, Triangle t2)
+	// Adds triangles around origin, except t1, t2 and outer triangles
+	private void addSameFan(Predicates.Fan fan, Triangle t1, Triangle t2)
 	{
 		// Loop around origin
 		HalfEdge f = this;
-		double [] temp0 = mesh.temp.t3_0;
-		double [] temp1 = mesh.temp.t3_1;
-		double [] temp2 = mesh.temp.t3_2;
-		double [] temp3 = mesh.temp.t3_3;
 		Vertex d = f.destination();
 		double [] xo = origin().getUV();
 		do
 		{
 			if (f.tri != t1 && f.tri != t2 && !f.hasAttributes(OUTER))
-			{
-				double [] x1 = f.destination().getUV();
-				double area  = Matrix3D.computeNormal3DT(x1, f.apex().getUV(), xo, temp0, temp1, temp2);
-				for (int i = 0; i < 3; i++)
-					temp3[i] = newpt[i] - x1[i];
-				// Two triangles are removed when an edge is contracted.
-				// So normally triangle areas should increase.  If they
-				// decrease significantly, there may be a problem.
-				if (area == 0.0 || Matrix3D.prodSca(temp3, temp2) >= - area)
-					return false;
-			}
+				fan.add(f.destination().getUV(), f.apex().getUV(), xo);
 			f = f.nextOriginLoop();
 		}
 		while (f.destination() != d);
-		return true;
 	}
 
-	private boolean checkNewRingNormalsNonManifoldVertex(Mesh mesh, double [] newpt, Collection<Triangle> ignored)
+	private void addFansNonManifoldVertex(Predicates.Fan fan, Collection<Triangle> ignored)
 	{
 		Vertex o = origin();
 		if (o.isManifold())
-			return checkNewRingNormalsSameFanNonManifoldVertex(mesh, newpt, ignored);
-		for (Triangle start: (Triangle []) o.getLink())
 		{
-			HalfEdge f = (HalfEdge) start.getAbstractHalfEdge();
-			if (f.destination() == o)
-				f = f.next;
-			else if (f.apex() == o)
-				f = f.next.next;
-			assert f.origin() == o;
-			if (!f.checkNewRingNormalsSameFanNonManifoldVertex(mesh, newpt, ignored))
-				return false;
+			addSameFanNonManifoldVertex(fan, ignored);
+			return;
 		}
-		return true;
+		for (Triangle start: (Triangle []) o.getLink())
+			originEdge(start, o).addSameFanNonManifoldVertex(fan, ignored);
 	}
-	private boolean checkNewRingNormalsSameFanNonManifoldVertex(Mesh mesh, double [] newpt, Collection<Triangle> ignored)
+
+	private void addSameFanNonManifoldVertex(Predicates.Fan fan, Collection<Triangle> ignored)
 	{
 		// Loop around origin
 		HalfEdge f = this;
-		double [] temp0 = mesh.temp.t3_0;
-		double [] temp1 = mesh.temp.t3_1;
-		double [] temp2 = mesh.temp.t3_2;
-		double [] temp3 = mesh.temp.t3_3;
 		Vertex d = f.destination();
 		double [] xo = origin().getUV();
 		do
 		{
 			if (!ignored.contains(f.tri) && !f.hasAttributes(OUTER))
-			{
-				double [] x1 = f.destination().getUV();
-				double area  = Matrix3D.computeNormal3DT(x1, f.apex().getUV(), xo, temp0, temp1, temp2);
-				for (int i = 0; i < 3; i++)
-					temp3[i] = newpt[i] - x1[i];
-				// Two triangles are removed when an edge is contracted.
-				// So normally triangle areas should increase.  If they
-				// decrease significantly, there may be a problem.
-				if (Matrix3D.prodSca(temp3, temp2) >= - area)
-					return false;
-			}
+				fan.add(f.destination().getUV(), f.apex().getUV(), xo);
 			f = f.nextOriginLoop();
 		}
 		while (f.destination() != d);
-		return true;
 	}
 	
 	/**
@@ -22,7 +22,6 @@ package org.jcae.mesh.amibe.ds;
 
 import gnu.trove.TIntArrayList;
 import gnu.trove.TIntHashSet;
-import gnu.trove.TIntIntHashMap;
 import org.jcae.mesh.amibe.traits.Traits;
 import org.jcae.mesh.amibe.traits.MeshTraitsBuilder;
 import org.jcae.mesh.amibe.traits.TriangleTraitsBuilder;
@@ -137,12 +136,25 @@ public class Mesh implements Serializable
 
 	private int maxLabel = 0;
 
+	// Number of threads used when scanning all triangles
+	private int numberOfThreads = Runtime.getRuntime().availableProcessors();
+
+	// Dense identifiers, allocated on demand
+	private transient ElementIds<Vertex> vertexIds;
+	private transient ElementIds<Triangle> triangleIds;
+
 	// 3D euclidian metric
 	private final Metric euclidian_metric3d = new EuclidianMetric3D();
 
 	// Temporary vectors used as work arrays in HalfEdge
 	protected final PoolWorkVectors temp = new PoolWorkVectors();
 
+	// Set while several threads access this mesh, each thread then uses
+	// its own work arrays
+	private transient boolean concurrent = false;
+	private transient ThreadLocal<PoolWorkVectors> threadTemp;
+	private transient ThreadLocal<VirtualHalfEdge[]> threadTempVH;
+
 	//  Complex algorithms require several VirtualHalfEdge, they are
 	//  allocated here to prevent allocation/deallocation overhead.
 	protected final VirtualHalfEdge[] tempVH = new VirtualHalfEdge[4];
@@ -225,6 +237,8 @@ public class Mesh implements Serializable
 	public final void add(Triangle t)
 	{
 		triangleList.add(t);
+		if (triangleIds != null)
+			triangleIds.revive(t);
 	}
 	
 	/**
@@ -235,6 +249,8 @@ public class Mesh implements Serializable
 	public final void remove(Triangle t)
 	{
 		triangleList.remove(t);
+		if (triangleIds != null)
+			triangleIds.release(t);
 		if (!(t instanceof TriangleHE))
 			return;
 		TriangleHE that = (TriangleHE) t;
@@ -250,6 +266,35 @@ public class Mesh implements Serializable
 		}
 	}
 	
+	/**
+	 * Returns dense identifiers of vertices.  They are used to attach
+	 * data to vertices with property arrays instead of hash maps, see
+	 * {@link ElementIds}.  Identifiers of vertices removed by
+	 * {@link #remove(Vertex)} are recycled, but vertices are also removed
+	 * by some mesh operations when there is no vertex list; their
+	 * identifiers are then not recycled.
+	 *
+	 * @return dense identifiers of vertices
+	 */
+	public final ElementIds<Vertex> getVertexIds()
+	{
+		if (vertexIds == null)
+			vertexIds = ElementIds.forVertices();
+		return vertexIds;
+	}
+
+	/**
+	 * Returns dense identifiers of triangles, see {@link ElementIds}.
+	 *
+	 * @return dense identifiers of triangles
+	 */
+	public final ElementIds<Triangle> getTriangleIds()
+	{
+		if (triangleIds == null)
+			triangleIds = ElementIds.forTriangles();
+		return triangleIds;
+	}
+
 	/**
 	 * Returns triangle list.
 	 *
@@ -276,6 +321,8 @@ public class Mesh implements Serializable
 	public final void add(Vertex vertex)
 	{
 		nodeList.add(vertex);
+		if (vertexIds != null)
+			vertexIds.revive(vertex);
 	}
 	
 	/**
@@ -286,6 +333,8 @@ public class Mesh implements Serializable
 	public final void remove(Vertex v)
 	{
 		nodeList.remove(v);
+		if (vertexIds != null)
+			vertexIds.release(v);
 	}
 	
 	/**
@@ -473,6 +522,42 @@ public class Mesh implements Serializable
 		beamGroups.clear();
 	}
 
+	/**
+	 * Removes all triangles, vertices, beams and groups.  This method is
+	 * called by {@link MeshSnapshot} before restoring a mesh.
+	 *
+	 * @param label  maximal vertex reference of restored mesh
+	 */
+	final void clear(int label)
+	{
+		triangleList.clear();
+		if (nodeList != null)
+			nodeList.clear();
+		beams.clear();
+		beamGroups.clear();
+		groupNames.clear();
+		vertexGroups.clear();
+		if (vertexIds != null)
+			vertexIds.clear();
+		if (triangleIds != null)
+			triangleIds.clear();
+		maxLabel = label;
+	}
+
+	final int getMaxLabel()
+	{
+		return maxLabel;
+	}
+
+	// Same as addBeam, but vertices are not added to vertex list and
+	// their attributes are not modified.
+	final void restoreBeam(Vertex v1, Vertex v2, int group)
+	{
+		beams.add(v1);
+		beams.add(v2);
+		beamGroups.add(group);
+	}
+
 	public void setGroupName(int id, String name)
 	{
 		groupNames.put(id, name);
@@ -516,6 +601,83 @@ public class Mesh implements Serializable
 		return groupNames.size();
 	}
 
+	/**
+	 * Sets the number of threads used by {@link #buildPartition},
+	 * {@link #buildRidges} and {@link #buildGroupBoundaries} on large
+	 * meshes.  Results do not depend on this number.
+	 *
+	 * @param n  number of threads
+	 */
+	public void setNumberOfThreads(int n)
+	{
+		numberOfThreads = Math.max(1, n);
+	}
+
+	/**
+	 * Tells whether this mesh is going to be accessed by several threads.
+	 * Geometric predicates of {@link HalfEdge} and {@link VirtualHalfEdge}
+	 * use work arrays stored in this mesh; when this flag is set, each
+	 * thread gets its own arrays.  It must be set before worker threads
+	 * are started, and reset after they are terminated.  Threads must
+	 * still lock the elements they modify.
+	 *
+	 * @param b  <code>true</code> if this mesh is accessed concurrently
+	 * @see ReadOnlyMeshView
+	 */
+	public final void setConcurrent(boolean b)
+	{
+		if (b && threadTemp == null)
+		{
+			threadTemp = new ThreadLocal<PoolWorkVectors>()
+			{
+				@Override
+				protected PoolWorkVectors initialValue()
+				{
+					return new PoolWorkVectors();
+				}
+			};
+			threadTempVH = new ThreadLocal<VirtualHalfEdge[]>()
+			{
+				@Override
+				protected VirtualHalfEdge[] initialValue()
+				{
+					VirtualHalfEdge[] ret = new VirtualHalfEdge[tempVH.length];
+					for (int i = 0; i < ret.length; i++)
+						ret[i] = new VirtualHalfEdge();
+					return ret;
+				}
+			};
+		}
+		else if (!b)
+		{
+			threadTemp = null;
+			threadTempVH = null;
+		}
+		concurrent = b;
+	}
+
+	/**
+	 * Tells whether this mesh is accessed by several threads.
+	 *
+	 * @return <code>true</code> if this mesh is accessed concurrently
+	 */
+	public final boolean isConcurrent()
+	{
+		return concurrent;
+	}
+
+	// Work arrays of the calling thread
+	final PoolWorkVectors getTemp()
+	{
+		return concurrent ? threadTemp.get() : temp;
+	}
+
+	// Work half-edges of the calling thread
+	final VirtualHalfEdge[] getTempVH()
+	{
+		return concurrent ? threadTempVH.get() : tempVH;
+	}
+
 	public boolean hasPersistentReferences()
 	{
 		return persistentReferences;
@@ -948,13 +1110,27 @@ public class Mesh implements Serializable
 	 *   lower than this value, it is considered as a ridge and its endpoints
 	 *   are treated as if they belong to a CAD edge.
 	 */
-	public final int buildRidges(double coplanarity)
+	public final int buildRidges(final double coplanarity)
 	{
 		int toReturn = 0;
 		if (coplanarity < -1.0 || triangleList.isEmpty())
 			return toReturn;
 
-		double [][] temp = new double[4][3];
+		// Sharp edges are selected concurrently, mesh is then modified
+		// sequentially in triangle order.
+		TriangleScanner scanner = new TriangleScanner(triangleList, numberOfThreads);
+		int skip = AbstractHalfEdge.BOUNDARY | AbstractHalfEdge.NONMANIFOLD | AbstractHalfEdge.SHARP;
+		int [] edges = scanner.selectEdges(skip, new TriangleScanner.EdgeFilter()
+		{
+			public boolean accept(AbstractHalfEdge ot, AbstractHalfEdge sym, double [][] temp)
+			{
+				double [] p0 = ot.origin().getUV();
+				double [] p1 = ot.destination().getUV();
+				Matrix3D.computeNormal3D(p0, p1, ot.apex().getUV(), temp[0], temp[1], temp[2]);
+				Matrix3D.computeNormal3D(p1, p0, sym.apex().getUV(), temp[0], temp[1], temp[3]);
+				return Matrix3D.prodSca(temp[2], temp[3]) <= coplanarity;
+			}
+		}, null);
 
 		AbstractHalfEdge ot  = null;
 		AbstractHalfEdge sym = triangleList.iterator().next().getAbstractHalfEdge();
@@ -962,32 +1138,20 @@ public class Mesh implements Serializable
 		AbstractHalfEdge temp0 = null;
 		AbstractHalfEdge temp1 = null;
 
-		for (Triangle t: triangleList)
+		for (int id : edges)
 		{
-			ot = t.getAbstractHalfEdge(ot);
-			if (t.hasAttributes(AbstractHalfEdge.OUTER))
+			ot = scanner.getEdge(id, ot);
+			// Symmetric edge may have been processed
+			if (ot.hasAttributes(skip))
 				continue;
-			for (int i = 0; i < 3; i++)
-			{
-				ot = ot.next();
-				if (ot.hasAttributes(AbstractHalfEdge.BOUNDARY | AbstractHalfEdge.NONMANIFOLD | AbstractHalfEdge.SHARP))
-					continue;
-				sym = ot.sym(sym);
-				double [] p0 = ot.origin().getUV();
-				double [] p1 = ot.destination().getUV();
-				Matrix3D.computeNormal3D(p0, p1, ot.apex().getUV(), temp[0], temp[1], temp[2]);
-				Matrix3D.computeNormal3D(p1, p0, sym.apex().getUV(), temp[0], temp[1], temp[3]);
-				if (Matrix3D.prodSca(temp[2], temp[3]) <= coplanarity)
-				{
-					ot.setAttributes(AbstractHalfEdge.SHARP);
-					sym.setAttributes(AbstractHalfEdge.SHARP);
-					if (ot.origin().getRef() == 0)
-						setRefVertexOnInnerBoundary(ot.origin());
-					if (ot.destination().getRef() == 0)
-						setRefVertexOnInnerBoundary(ot.destination());
-					bindSymEdgesToVirtualTriangles(ot, sym, temp0, temp1, newTriangles);
-				}
-			}
+			sym = ot.sym(sym);
+			ot.setAttributes(AbstractHalfEdge.SHARP);
+			sym.setAttributes(AbstractHalfEdge.SHARP);
+			if (ot.origin().getRef() == 0)
+				setRefVertexOnInnerBoundary(ot.origin());
+			if (ot.destination().getRef() == 0)
+				setRefVertexOnInnerBoundary(ot.destination());
+			bindSymEdgesToVirtualTriangles(ot, sym, temp0, temp1, newTriangles);
 		}
 		toReturn = newTriangles.size() / 2;
 		triangleList.addAll(newTriangles);
@@ -1058,34 +1222,37 @@ public class Mesh implements Serializable
 		if (triangleList.isEmpty())
 			return 0;
 
-		TIntHashSet groupSet = new TIntHashSet();
+		final TIntHashSet groupSet = new TIntHashSet();
 		if (null != groups)
 			groupSet.addAll(groups);
 
+		// Edges between groups are selected concurrently, mesh is then
+		// modified sequentially in triangle order.
+		TriangleScanner scanner = new TriangleScanner(triangleList, numberOfThreads);
+		int skip = AbstractHalfEdge.BOUNDARY | AbstractHalfEdge.NONMANIFOLD;
+		int [] edges = scanner.selectEdges(skip, new TriangleScanner.EdgeFilter()
+		{
+			public boolean accept(AbstractHalfEdge ot, AbstractHalfEdge sym, double [][] work)
+			{
+				int symGroupId = sym.getTri().getGroupId();
+				return ot.getTri().getGroupId() != symGroupId && (groupSet.isEmpty() || groupSet.contains(symGroupId));
+			}
+		}, groupSet.isEmpty() ? null : groupSet);
+
 		ArrayList<Triangle> newTriangles = new ArrayList<Triangle>();
 		AbstractHalfEdge ot    = null;
 		AbstractHalfEdge sym   = triangleList.iterator().next().getAbstractHalfEdge();
 		AbstractHalfEdge temp0 = null;
 		AbstractHalfEdge temp1 = null;
 
-		for (Triangle t: triangleList)
+		for (int id : edges)
 		{
-			ot = t.getAbstractHalfEdge(ot);
-			if (t.hasAttributes(AbstractHalfEdge.OUTER))
-				continue;
-			int groupId = t.getGroupId();
-			if (!groupSet.isEmpty() && !groupSet.contains(groupId))
+			ot = scanner.getEdge(id, ot);
+			// Symmetric edge may have been processed
+			if (ot.hasAttributes(skip))
 				continue;
-			for (int i = 0; i < 3; i++)
-			{
-				ot = ot.next();
-				if (ot.hasAttributes(AbstractHalfEdge.BOUNDARY | AbstractHalfEdge.NONMANIFOLD))
-					continue;
-				sym = ot.sym(sym);
-				int symGroupId = sym.getTri().getGroupId();
-				if (groupId != symGroupId && (groupSet.isEmpty() || groupSet.contains(symGroupId)))
-					bindSymEdgesToVirtualTriangles(ot, sym, temp0, temp1, newTriangles);
-			}
+			sym = ot.sym(sym);
+			bindSymEdgesToVirtualTriangles(ot, sym, temp0, temp1, newTriangles);
 		}
 		int toReturn = newTriangles.size() / 2;
 		triangleList.addAll(newTriangles);
@@ -1388,6 +1555,21 @@ public class Mesh implements Serializable
 	 * @return number of partitions.
 	 */
 	public final int buildPartition()
+	{
+		return buildPartition(AbstractHalfEdge.BOUNDARY | AbstractHalfEdge.NONMANIFOLD | AbstractHalfEdge.SHARP);
+	}
+
+	/**
+	 * Perform an automatic partitioning.  Triangles are connected through
+	 * edges which have none of the given attributes, each connected
+	 * component is a partition and its triangles get the same group id.
+	 * Partitions are numbered from 1, in the order of their first triangle
+	 * in triangle list.  Outer triangles get group id 0.
+	 *
+	 * @param cut  attributes of edges which separate partitions
+	 * @return number of partitions.
+	 */
+	public final int buildPartition(int cut)
 	{
 		int countPart = 0;
 		if (!hasAdjacency())
@@ -1395,71 +1577,18 @@ public class Mesh implements Serializable
 			logger.severe("Mesh data structure does not contain adjacency relations");
 			return countPart;
 		}
-
-		Set<Triangle> unprocessedTriangles = new LinkedHashSet<Triangle>(triangleList);
-		Set<Triangle> partTriangles = new LinkedHashSet<Triangle>();
-		Triangle.List processedTriangles = new Triangle.List();
-
-		if (unprocessedTriangles.isEmpty())
+		if (triangleList.isEmpty())
 			return countPart;
 
-		for (Triangle t : triangleList)
-			t.setGroupId(0);
-
-		TIntIntHashMap countTrianglesByPart = new TIntIntHashMap();
-		AbstractHalfEdge ot  = unprocessedTriangles.iterator().next().getAbstractHalfEdge();
-		AbstractHalfEdge sym = unprocessedTriangles.iterator().next().getAbstractHalfEdge();
-
-		while(!unprocessedTriangles.isEmpty())
-		{
-			Triangle t1 = unprocessedTriangles.iterator().next();
-			unprocessedTriangles.remove(t1);
-			if (t1.hasAttributes(AbstractHalfEdge.OUTER))
-				continue;
-
-			partTriangles.clear();
-			partTriangles.add(t1);
-			countPart++;
-			countTrianglesByPart.put(countPart, 0);
-			while(!partTriangles.isEmpty())
-			{
-				Triangle t2 = partTriangles.iterator().next();
-				partTriangles.remove(t2);
-				if (t2.getGroupId() != 0 && countPart != t2.getGroupId())
-				{
-					logger.severe("Unexpected error");
-				}
-				if (processedTriangles.contains(t2))
-					continue;
-
-				t2.setGroupId(countPart);
-				countTrianglesByPart.increment(countPart);
-				unprocessedTriangles.remove(t2);
-				processedTriangles.add(t2);
-
-				ot = t2.getAbstractHalfEdge(ot);
-				if (t2.hasAttributes(AbstractHalfEdge.OUTER))
-					continue;
-				for (int i = 0; i < 3; i++)
-				{
-					ot = ot.next();
-					if (!(ot.hasAttributes(AbstractHalfEdge.BOUNDARY | AbstractHalfEdge.NONMANIFOLD | AbstractHalfEdge.SHARP)))
-					{
-						sym = ot.sym(sym);
-						Triangle symTri = sym.getTri();
-						if (!processedTriangles.contains(symTri))
-							partTriangles.add(symTri);
-					}
-				}
-			}
-		}
+		int [] countTrianglesByPart = new TriangleScanner(triangleList, numberOfThreads).partition(cut);
+		countPart = countTrianglesByPart.length - 1;
 		if (countPart > 0 && logger.isLoggable(Level.INFO))
 		{
 			logger.log(Level.INFO, "Found "+countPart+" part components");
 			if (logger.isLoggable(Level.CONFIG))
 			{
-				for (int key : countTrianglesByPart.keys())
-					logger.log(Level.CONFIG, " * Part id "+key+": "+countTrianglesByPart.get(key)+" triangles");
+				for (int key = 1; key <= countPart; key++)
+					logger.log(Level.CONFIG, " * Part id "+key+": "+countTrianglesByPart[key]+" triangles");
 			}
 		}
 
@@ -0,0 +1,737 @@
+/* jCAE stand for Java Computer Aided Engineering. Features are : Small CAD
+   modeler, Finite element mesher, Plugin architecture.
+
+    Copyright (C) 2012, by EADS France
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA */
+
+package org.jcae.mesh.amibe.ds;
+
+import gnu.trove.TIntArrayList;
+import gnu.trove.TObjectIntHashMap;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.logging.Logger;
+
+/**
+ * Binary snapshot of a mesh.
+ *
+ * <p>
+ * A snapshot stores vertex coordinates and attributes, triangles, half-edge
+ * attributes and adjacency relations as flat arrays of primitive types,
+ * which are written and read through NIO buffers.  Restoring a snapshot
+ * does not call {@link Mesh#buildAdjacency}, triangles are glued together
+ * as they were when the snapshot was taken, which means that non-manifold
+ * edges and virtual triangles are restored too.
+ * </p>
+ *
+ * <p>
+ * When a snapshot is created from a mesh, vertices and triangles are given
+ * an identifier, which is their index in vertex and triangle lists.  Outer
+ * vertex is the last vertex, and half-edges are identified by
+ * <code>3*triangle+localNumber</code>.  Algorithms can store their own
+ * state with these identifiers in two user arrays of integers and doubles,
+ * see {@link #write(String, int[], double[])}.  After a snapshot has been
+ * read by {@link #read(String, Mesh)}, {@link #getVertex(int)} and
+ * {@link #getEdge(int)} return entities corresponding to these identifiers.
+ * </p>
+ */
+public final class MeshSnapshot
+{
+	private static final Logger LOGGER=Logger.getLogger(MeshSnapshot.class.getName());
+
+	private static final int MAGIC = 0x414d534e;
+	private static final int VERSION = 1;
+	private static final int BUFFER_SIZE = 1 << 20;
+
+	// Mesh flags
+	private static final int ADJACENCY = 1 << 0;
+	private static final int NODES = 1 << 1;
+	private static final int OUTER_CONNECTED = 1 << 2;
+	private static final int PERSISTENT_REFERENCES = 1 << 3;
+	// Vertex and triangle flags
+	private static final byte READABLE = 1 << 0;
+	private static final byte WRITABLE = 1 << 1;
+	private static final byte MUTABLE = 1 << 2;
+
+	private final Vertex [] vertices;
+	private final Triangle [] triangles;
+	private final TObjectIntHashMap<Vertex> vertexIds;
+	private final TObjectIntHashMap<Triangle> triangleIds;
+	private int [] userInts = new int[0];
+	private double [] userDoubles = new double[0];
+	private final Mesh mesh;
+
+	/**
+	 * Creates a snapshot of a mesh and numbers its vertices and triangles.
+	 * Mesh must not be modified until this snapshot has been written.
+	 *
+	 * @param mesh  mesh
+	 */
+	public MeshSnapshot(Mesh mesh)
+	{
+		this.mesh = mesh;
+		Collection<Triangle> tList = mesh.getTriangles();
+		triangles = new Triangle[tList.size()];
+		triangleIds = new TObjectIntHashMap<Triangle>(triangles.length);
+		int nrT = 0;
+		for (Triangle t : tList)
+		{
+			triangleIds.put(t, nrT);
+			triangles[nrT] = t;
+			nrT++;
+		}
+		vertexIds = new TObjectIntHashMap<Vertex>(triangles.length / 2 + 1);
+		ArrayList<Vertex> vList = new ArrayList<Vertex>(triangles.length / 2 + 1);
+		if (mesh.hasNodes())
+		{
+			for (Vertex v : mesh.getNodes())
+				addVertex(v, vList);
+		}
+		for (Triangle t : triangles)
+		{
+			for (Vertex v : t.vertex)
+				addVertex(v, vList);
+		}
+		// Outer vertex is always the last vertex
+		vertexIds.put(mesh.outerVertex, vList.size());
+		vList.add(mesh.outerVertex);
+		vertices = vList.toArray(new Vertex[vList.size()]);
+	}
+
+	private void addVertex(Vertex v, List<Vertex> vList)
+	{
+		if (v == mesh.outerVertex || vertexIds.containsKey(v))
+			return;
+		vertexIds.put(v, vList.size());
+		vList.add(v);
+	}
+
+	private MeshSnapshot(Mesh mesh, int nrVertices, int nrTriangles)
+	{
+		this.mesh = mesh;
+		vertices = new Vertex[nrVertices + 1];
+		triangles = new Triangle[nrTriangles];
+		vertexIds = null;
+		triangleIds = null;
+	}
+
+	/**
+	 * Returns the identifier of a vertex.
+	 *
+	 * @param v  vertex
+	 * @return vertex identifier, or -1 if this vertex does not belong to
+	 *         this snapshot.
+	 */
+	public int getId(Vertex v)
+	{
+		if (vertexIds == null)
+			throw new IllegalStateException("Identifiers are not available on restored snapshots");
+		if (!vertexIds.containsKey(v))
+			return -1;
+		return vertexIds.get(v);
+	}
+
+	/**
+	 * Returns the identifier of a half-edge.
+	 *
+	 * @param e  half-edge
+	 * @return half-edge identifier, or -1 if its triangle does not belong to
+	 *         this snapshot.
+	 */
+	public int getId(AbstractHalfEdge e)
+	{
+		if (triangleIds == null)
+			throw new IllegalStateException("Identifiers are not available on restored snapshots");
+		Triangle t = e.getTri();
+		if (!triangleIds.containsKey(t))
+			return -1;
+		return 3 * triangleIds.get(t) + e.getLocalNumber();
+	}
+
+	/**
+	 * Returns the vertex with a given identifier.
+	 */
+	public Vertex getVertex(int id)
+	{
+		return vertices[id];
+	}
+
+	/**
+	 * Returns the half-edge with a given identifier.
+	 */
+	public AbstractHalfEdge getEdge(int id)
+	{
+		AbstractHalfEdge ret = triangles[id / 3].getAbstractHalfEdge();
+		while (ret.getLocalNumber() != id % 3)
+			ret = ret.next();
+		return ret;
+	}
+
+	/**
+	 * Returns the integer array stored with this snapshot.
+	 */
+	public int [] getUserInts()
+	{
+		return userInts;
+	}
+
+	/**
+	 * Returns the double array stored with this snapshot.
+	 */
+	public double [] getUserDoubles()
+	{
+		return userDoubles;
+	}
+
+	/**
+	 * Writes this snapshot into a file.  Data are first written into a
+	 * temporary file, which is then renamed, so that a previous snapshot
+	 * is not lost if writing is interrupted.
+	 *
+	 * @param file  file name
+	 * @param ints  additional integers stored with mesh, may be
+	 *        <code>null</code>
+	 * @param doubles  additional doubles stored with mesh, may be
+	 *        <code>null</code>
+	 * @throws IOException if an I/O error occurs
+	 */
+	public void write(String file, int [] ints, double [] doubles)
+		throws IOException
+	{
+		if (ints != null)
+			userInts = ints;
+		if (doubles != null)
+			userDoubles = doubles;
+		int nrV = vertices.length - 1;
+		int nrT = triangles.length;
+		int dim = nrV > 0 ? vertices[0].getUV().length : 3;
+		boolean adjacency = mesh.hasAdjacency();
+
+		// Vertices
+		double [] coords = new double[dim * nrV];
+		int [] refs = new int[2 * nrV];
+		byte [] vFlags = new byte[nrV];
+		int [] links = new int[nrV];
+		TIntArrayList nonManifoldLinks = new TIntArrayList();
+		for (int i = 0; i < nrV; i++)
+		{
+			Vertex v = vertices[i];
+			System.arraycopy(v.getUV(), 0, coords, dim * i, dim);
+			refs[2*i] = v.getRef();
+			refs[2*i+1] = v.getLabel();
+			vFlags[i] = flags(v.isReadable(), v.isWritable());
+			if (v.isMutable())
+				vFlags[i] |= MUTABLE;
+			Object link = v.getLink();
+			if (link instanceof Triangle)
+				links[i] = triangleId((Triangle) link);
+			else if (link instanceof Triangle[])
+			{
+				// Non-manifold vertex, its triangles are stored into
+				// nonManifoldLinks with their count, and link contains
+				// -2 - offset.
+				Triangle [] list = (Triangle []) link;
+				links[i] = -2 - nonManifoldLinks.size();
+				nonManifoldLinks.add(list.length);
+				for (Triangle t : list)
+					nonManifoldLinks.add(triangleId(t));
+			}
+			else
+				links[i] = -1;
+		}
+
+		// Triangles
+		int [] tVertices = new int[3 * nrT];
+		int [] groups = new int[nrT];
+		byte [] tFlags = new byte[nrT];
+		byte [] attributes = adjacency ? new byte[3 * nrT] : null;
+		int [] adj = adjacency ? new int[3 * nrT] : null;
+		for (int i = 0; i < nrT; i++)
+		{
+			Triangle t = triangles[i];
+			for (int j = 0; j < 3; j++)
+				tVertices[3*i+j] = vertexIds.get(t.vertex[j]);
+			groups[i] = t.getGroupId();
+			tFlags[i] = flags(t.isReadable(), t.isWritable());
+			if (!adjacency)
+				continue;
+			AbstractHalfEdge e = t.getAbstractHalfEdge();
+			for (int j = 0; j < 3; j++)
+			{
+				int local = e.getLocalNumber();
+				int attr = 0;
+				for (int b = 0; b < 8; b++)
+				{
+					if (e.hasAttributes(1 << b))
+						attr |= 1 << b;
+				}
+				attributes[3*i+local] = (byte) attr;
+				adj[3*i+local] = e.hasSymmetricEdge() ? getId(e.sym()) : -1;
+				e = e.next();
+			}
+		}
+
+		// Beams and groups
+		List<Vertex> beams = mesh.getBeams();
+		int [] beamIds = new int[beams.size()];
+		int [] beamGroups = new int[beams.size() / 2];
+		for (int i = 0; i < beamIds.length; i++)
+			beamIds[i] = vertexIds.get(beams.get(i));
+		for (int i = 0; i < beamGroups.length; i++)
+			beamGroups[i] = mesh.getBeamGroup(i);
+
+		int flags = 0;
+		if (adjacency)
+			flags |= ADJACENCY;
+		if (mesh.hasNodes())
+			flags |= NODES;
+		if (mesh.outerTrianglesAreConnected)
+			flags |= OUTER_CONNECTED;
+		if (mesh.hasPersistentReferences())
+			flags |= PERSISTENT_REFERENCES;
+
+		File target = new File(file);
+		File tmp = new File(file + ".tmp");
+		FileOutputStream fos = new FileOutputStream(tmp);
+		Output out = new Output(fos.getChannel());
+		try
+		{
+			out.putInt(MAGIC);
+			out.putInt(VERSION);
+			out.putInt(flags);
+			out.putInt(dim);
+			out.putInt(mesh.getMaxLabel());
+			out.putInt(nrV);
+			out.putInt(nrT);
+			out.putInt(nonManifoldLinks.size());
+			out.putInt(beamGroups.length);
+			out.putInt(userInts.length);
+			out.putInt(userDoubles.length);
+
+			out.putDoubles(coords, coords.length);
+			out.putInts(refs, refs.length);
+			out.putBytes(vFlags, vFlags.length);
+			out.putInts(links, links.length);
+			out.putInts(nonManifoldLinks.toNativeArray(), nonManifoldLinks.size());
+			out.putInts(tVertices, tVertices.length);
+			out.putInts(groups, groups.length);
+			out.putBytes(tFlags, tFlags.length);
+			if (adjacency)
+			{
+				out.putBytes(attributes, attributes.length);
+				out.putInts(adj, adj.length);
+			}
+			out.putInts(beamIds, beamIds.length);
+			out.putInts(beamGroups, beamGroups.length);
+
+			Map<Integer, String> groupNames = new TreeMap<Integer, String>();
+			for (Triangle t : triangles)
+			{
+				String name = mesh.getGroupName(t.getGroupId());
+				if (name != null)
+					groupNames.put(t.getGroupId(), name);
+			}
+			for (int i = 0; i < beamGroups.length; i++)
+			{
+				String name = mesh.getGroupName(beamGroups[i]);
+				if (name != null)
+					groupNames.put(beamGroups[i], name);
+			}
+			out.putInt(groupNames.size());
+			for (Map.Entry<Integer, String> entry : groupNames.entrySet())
+			{
+				out.putInt(entry.getKey().intValue());
+				out.putString(entry.getValue());
+			}
+			Map<String, Collection<Vertex>> vertexGroups = mesh.getVertexGroup();
+			out.putInt(vertexGroups.size());
+			for (Map.Entry<String, Collection<Vertex>> entry : vertexGroups.entrySet())
+			{
+				out.putString(entry.getKey());
+				TIntArrayList ids = new TIntArrayList(entry.getValue().size());
+				for (Vertex v : entry.getValue())
+				{
+					if (vertexIds.containsKey(v))
+						ids.add(vertexIds.get(v));
+				}
+				out.putInt(ids.size());
+				out.putInts(ids.toNativeArray(), ids.size());
+			}
+
+			out.putInts(userInts, userInts.length);
+			out.putDoubles(userDoubles, userDoubles.length);
+			out.flush();
+		}
+		finally
+		{
+			fos.close();
+		}
+		if (!tmp.renameTo(target))
+		{
+			target.delete();
+			if (!tmp.renameTo(target))
+				throw new IOException("Cannot rename "+tmp+" into "+target);
+		}
+		LOGGER.fine("Snapshot written into "+file+": "+nrV+" vertices, "+nrT+" triangles");
+	}
+
+	private int triangleId(Triangle t)
+	{
+		if (!triangleIds.containsKey(t))
+			return -1;
+		return triangleIds.get(t);
+	}
+
+	private static byte flags(boolean readable, boolean writable)
+	{
+		byte ret = 0;
+		if (readable)
+			ret |= READABLE;
+		if (writable)
+			ret |= WRITABLE;
+		return ret;
+	}
+
+	/**
+	 * Reads a snapshot and replaces mesh content by the stored mesh.
+	 * Mesh must have been created with the same traits as the mesh
+	 * which has been written.
+	 *
+	 * @param file  file name
+	 * @param mesh  mesh to be restored
+	 * @return snapshot, which gives access to restored entities and to
+	 *         user arrays
+	 * @throws IOException if an I/O error occurs or file is not a snapshot
+	 */
+	public static MeshSnapshot read(String file, Mesh mesh)
+		throws IOException
+	{
+		FileInputStream fis = new FileInputStream(file);
+		try
+		{
+			return read(new Input(fis.getChannel()), mesh);
+		}
+		finally
+		{
+			fis.close();
+		}
+	}
+
+	private static MeshSnapshot read(Input in, Mesh mesh)
+		throws IOException
+	{
+		if (in.getInt() != MAGIC)
+			throw new IOException("Not a mesh snapshot");
+		int version = in.getInt();
+		if (version != VERSION)
+			throw new IOException("Unsupported snapshot version: "+version);
+		int flags = in.getInt();
+		int dim = in.getInt();
+		int maxLabel = in.getInt();
+		int nrV = in.getInt();
+		int nrT = in.getInt();
+		int nrNonManifoldLinks = in.getInt();
+		int nrBeams = in.getInt();
+		int nrUserInts = in.getInt();
+		int nrUserDoubles = in.getInt();
+		boolean adjacency = (flags & ADJACENCY) != 0;
+		if (adjacency != mesh.hasAdjacency())
+			throw new IOException("Snapshot and mesh traits do not match");
+
+		MeshSnapshot ret = new MeshSnapshot(mesh, nrV, nrT);
+		mesh.clear(maxLabel);
+		mesh.outerTrianglesAreConnected = (flags & OUTER_CONNECTED) != 0;
+		mesh.setPersistentReferences((flags & PERSISTENT_REFERENCES) != 0);
+
+		// Vertices
+		double [] coords = new double[dim * nrV];
+		in.getDoubles(coords, coords.length);
+		int [] refs = new int[2 * nrV];
+		in.getInts(refs, refs.length);
+		byte [] vFlags = new byte[nrV];
+		in.getBytes(vFlags, nrV);
+		double [] xyz = new double[dim];
+		boolean hasNodes = mesh.hasNodes() && (flags & NODES) != 0;
+		for (int i = 0; i < nrV; i++)
+		{
+			System.arraycopy(coords, dim * i, xyz, 0, dim);
+			Vertex v = mesh.createVertex(xyz);
+			v.setRef(refs[2*i]);
+			v.setLabel(refs[2*i+1]);
+			v.setReadable((vFlags[i] & READABLE) != 0);
+			v.setWritable((vFlags[i] & WRITABLE) != 0);
+			v.setMutable((vFlags[i] & MUTABLE) != 0);
+			ret.vertices[i] = v;
+			if (hasNodes)
+				mesh.add(v);
+		}
+		ret.vertices[nrV] = mesh.outerVertex;
+		coords = null;
+		int [] links = new int[nrV];
+		in.getInts(links, nrV);
+		int [] nonManifoldLinks = new int[nrNonManifoldLinks];
+		in.getInts(nonManifoldLinks, nrNonManifoldLinks);
+
+		// Triangles
+		int [] tVertices = new int[3 * nrT];
+		in.getInts(tVertices, tVertices.length);
+		int [] groups = new int[nrT];
+		in.getInts(groups, nrT);
+		byte [] tFlags = new byte[nrT];
+		in.getBytes(tFlags, nrT);
+		mesh.ensureCapacity(nrT);
+		for (int i = 0; i < nrT; i++)
+		{
+			Triangle t = mesh.createTriangle(ret.vertices[tVertices[3*i]],
+				ret.vertices[tVertices[3*i+1]], ret.vertices[tVertices[3*i+2]]);
+			t.setGroupId(groups[i]);
+			t.setReadable((tFlags[i] & READABLE) != 0);
+			t.setWritable((tFlags[i] & WRITABLE) != 0);
+			ret.triangles[i] = t;
+			mesh.add(t);
+		}
+		tVertices = null;
+		if (adjacency)
+		{
+			byte [] attributes = new byte[3 * nrT];
+			in.getBytes(attributes, attributes.length);
+			int [] adj = new int[3 * nrT];
+			in.getInts(adj, adj.length);
+			for (int i = 0; i < nrT; i++)
+			{
+				AbstractHalfEdge e = ret.triangles[i].getAbstractHalfEdge();
+				for (int j = 0; j < 3; j++)
+				{
+					int id = 3 * i + e.getLocalNumber();
+					e.setAttributes(attributes[id] & 0xff);
+					// Glue edges only once, glue() sets both directions
+					if (adj[id] > id)
+						e.glue(ret.getEdge(adj[id]));
+					e = e.next();
+				}
+			}
+		}
+		for (int i = 0; i < nrV; i++)
+		{
+			int link = links[i];
+			if (link >= 0)
+				ret.vertices[i].setLink(ret.triangles[link]);
+			else if (link < -1)
+			{
+				int offset = -2 - link;
+				Triangle [] list = new Triangle[nonManifoldLinks[offset]];
+				for (int j = 0; j < list.length; j++)
+					list[j] = ret.triangles[nonManifoldLinks[offset + 1 + j]];
+				ret.vertices[i].setLink(list);
+			}
+		}
+
+		// Beams and groups
+		int [] beamIds = new int[2 * nrBeams];
+		in.getInts(beamIds, beamIds.length);
+		int [] beamGroups = new int[nrBeams];
+		in.getInts(beamGroups, nrBeams);
+		for (int i = 0; i < nrBeams; i++)
+			mesh.restoreBeam(ret.vertices[beamIds[2*i]], ret.vertices[beamIds[2*i+1]], beamGroups[i]);
+		int nrGroupNames = in.getInt();
+		for (int i = 0; i < nrGroupNames; i++)
+		{
+			int id = in.getInt();
+			mesh.setGroupName(id, in.getString());
+		}
+		int nrVertexGroups = in.getInt();
+		for (int i = 0; i < nrVertexGroups; i++)
+		{
+			String name = in.getString();
+			int [] ids = new int[in.getInt()];
+			in.getInts(ids, ids.length);
+			for (int id : ids)
+				mesh.setVertexGroup(ret.vertices[id], name);
+		}
+
+		ret.userInts = new int[nrUserInts];
+		in.getInts(ret.userInts, nrUserInts);
+		ret.userDoubles = new double[nrUserDoubles];
+		in.getDoubles(ret.userDoubles, nrUserDoubles);
+		LOGGER.fine("Snapshot restored: "+nrV+" vertices, "+nrT+" triangles");
+		return ret;
+	}
+
+	// Writes primitive values into a channel through a fixed-size buffer
+	private static final class Output
+	{
+		private final FileChannel channel;
+		private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+		Output(FileChannel channel)
+		{
+			this.channel = channel;
+		}
+
+		void flush() throws IOException
+		{
+			buffer.flip();
+			while (buffer.hasRemaining())
+				channel.write(buffer);
+			buffer.clear();
+		}
+
+		private void reserve(int bytes) throws IOException
+		{
+			if (buffer.remaining() < bytes)
+				flush();
+		}
+
+		void putInt(int i) throws IOException
+		{
+			reserve(4);
+			buffer.putInt(i);
+		}
+
+		void putString(String s) throws IOException
+		{
+			putInt(s.length());
+			for (int i = 0; i < s.length(); i++)
+			{
+				reserve(2);
+				buffer.putChar(s.charAt(i));
+			}
+		}
+
+		void putInts(int [] array, int length) throws IOException
+		{
+			for (int offset = 0; offset < length; )
+			{
+				reserve(4);
+				int n = Math.min(length - offset, buffer.remaining() / 4);
+				buffer.asIntBuffer().put(array, offset, n);
+				buffer.position(buffer.position() + 4 * n);
+				offset += n;
+			}
+		}
+
+		void putDoubles(double [] array, int length) throws IOException
+		{
+			for (int offset = 0; offset < length; )
+			{
+				reserve(8);
+				int n = Math.min(length - offset, buffer.remaining() / 8);
+				buffer.asDoubleBuffer().put(array, offset, n);
+				buffer.position(buffer.position() + 8 * n);
+				offset += n;
+			}
+		}
+
+		void putBytes(byte [] array, int length) throws IOException
+		{
+			for (int offset = 0; offset < length; )
+			{
+				reserve(1);
+				int n = Math.min(length - offset, buffer.remaining());
+				buffer.put(array, offset, n);
+				offset += n;
+			}
+		}
+	}
+
+	// Reads primitive values from a channel through a fixed-size buffer
+	private static final class Input
+	{
+		private final FileChannel channel;
+		private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+		Input(FileChannel channel)
+		{
+			this.channel = channel;
+			buffer.limit(0);
+		}
+
+		private void require(int bytes) throws IOException
+		{
+			if (buffer.remaining() >= bytes)
+				return;
+			buffer.compact();
+			while (buffer.position() < bytes)
+			{
+				if (channel.read(buffer) < 0)
+					throw new EOFException();
+			}
+			buffer.flip();
+		}
+
+		int getInt() throws IOException
+		{
+			require(4);
+			return buffer.getInt();
+		}
+
+		String getString() throws IOException
+		{
+			char [] chars = new char[getInt()];
+			for (int i = 0; i < chars.length; i++)
+			{
+				require(2);
+				chars[i] = buffer.getChar();
+			}
+			return new String(chars);
+		}
+
+		void getInts(int [] array, int length) throws IOException
+		{
+			for (int offset = 0; offset < length; )
+			{
+				require(4);
+				int n = Math.min(length - offset, buffer.remaining() / 4);
+				buffer.asIntBuffer().get(array, offset, n);
+				buffer.position(buffer.position() + 4 * n);
+				offset += n;
+			}
+		}
+
+		void getDoubles(double [] array, int length) throws IOException
+		{
+			for (int offset = 0; offset < length; )
+			{
+				require(8);
+				int n = Math.min(length - offset, buffer.remaining() / 8);
+				buffer.asDoubleBuffer().get(array, offset, n);
+				buffer.position(buffer.position() + 8 * n);
+				offset += n;
+			}
+		}
+
+		void getBytes(byte [] array, int length) throws IOException
+		{
+			for (int offset = 0; offset < length; )
+			{
+				require(1);
+				int n = Math.min(length - offset, buffer.remaining());
+				buffer.get(array, offset, n);
+				offset += n;
+			}
+		}
+	}
+}
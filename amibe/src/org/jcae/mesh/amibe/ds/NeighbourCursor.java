@@ -0,0 +1,157 @@
+/* jCAE stand for Java Computer Aided Engineering. Features are : Small CAD
+   modeler, Finite element mesher, Plugin architecture.
+
+    Copyright (C) 2012, by EADS France
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA */
+
+package org.jcae.mesh.amibe.ds;
+
+/**
+ * Reusable cursor over half-edges starting from a vertex.
+ * This class visits the same half-edges and in the same order as
+ * {@link Vertex#getNeighbourIteratorAbstractHalfEdge}, but does not
+ * allocate anything once it has been created: a cursor can be reset
+ * to another vertex, and fans of non-manifold vertices are visited
+ * one after another without building an iterator for each fan.
+ *
+ * <pre>
+ *   NeighbourCursor cursor = new NeighbourCursor();
+ *   for (cursor.reset(v); cursor.next(); )
+ *       count += cursor.getVertex().getRef();
+ * </pre>
+ *
+ * Half-edges returned by {@link #getHalfEdge} must not be modified, and
+ * may be overwritten by the next call to {@link #next} with
+ * {@link VirtualHalfEdge} instances.  A cursor is not thread-safe, but
+ * several cursors can visit the same mesh concurrently as long as it
+ * is not modified.
+ */
+public final class NeighbourCursor
+{
+	// Fans of a non-manifold vertex, or null
+	private Triangle [] fans;
+	// Index of current fan, fans are visited in reverse order
+	private int fan;
+	private Vertex origin;
+	private Vertex start;
+	private AbstractHalfEdge current;
+	// Instance reused with VirtualHalfEdge
+	private AbstractHalfEdge work;
+	private boolean started;
+	private boolean done = true;
+
+	/**
+	 * Moves this cursor before the first half-edge starting from a vertex.
+	 *
+	 * @param v  vertex
+	 * @return this cursor
+	 */
+	public NeighbourCursor reset(Vertex v)
+	{
+		origin = v;
+		Object link = v.getLink();
+		if (link == null)
+		{
+			fans = null;
+			done = true;
+			return this;
+		}
+		done = false;
+		if (link instanceof Triangle)
+		{
+			fans = null;
+			startFan((Triangle) link);
+		}
+		else
+		{
+			fans = (Triangle []) link;
+			fan = fans.length - 1;
+			startFan(fans[fan]);
+		}
+		return this;
+	}
+
+	private void startFan(Triangle t)
+	{
+		work = origin.getIncidentAbstractHalfEdge(t, work);
+		current = work;
+		start = current.destination();
+		started = false;
+	}
+
+	/**
+	 * Moves to the next half-edge.
+	 *
+	 * @return <code>false</code> if all half-edges have been visited,
+	 *         <code>true</code> otherwise.
+	 */
+	public boolean next()
+	{
+		if (done)
+			return false;
+		if (!started)
+		{
+			started = true;
+			return true;
+		}
+		if (current.apex() != start)
+		{
+			current = current.nextOriginLoop();
+			return true;
+		}
+		if (fans != null && fan > 0)
+		{
+			fan--;
+			startFan(fans[fan]);
+			started = true;
+			return true;
+		}
+		done = true;
+		return false;
+	}
+
+	/**
+	 * Returns the vertex this cursor has been reset to.
+	 */
+	public Vertex getOrigin()
+	{
+		return origin;
+	}
+
+	/**
+	 * Returns current half-edge, its origin is {@link #getOrigin}.
+	 */
+	public AbstractHalfEdge getHalfEdge()
+	{
+		return current;
+	}
+
+	/**
+	 * Returns the destination of current half-edge.
+	 */
+	public Vertex getVertex()
+	{
+		return current.destination();
+	}
+
+	/**
+	 * Returns the triangle of current half-edge.
+	 */
+	public Triangle getTriangle()
+	{
+		return current.getTri();
+	}
+}
@@ -0,0 +1,220 @@
+/* jCAE stand for Java Computer Aided Engineering. Features are : Small CAD
+   modeler, Finite element mesher, Plugin architecture.
+
+    Copyright (C) 2012, by EADS France
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA */
+
+package org.jcae.mesh.amibe.ds;
+
+import org.jcae.mesh.amibe.metrics.Location;
+import org.jcae.mesh.amibe.metrics.Metric;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+
+/**
+ * Thread-safe read-only view of a {@link Mesh}.
+ *
+ * <p>
+ * A mesh stores work arrays which are used by geometric predicates, and
+ * some of its data are allocated on demand; two threads cannot query
+ * the same mesh, even without modifying it.  This view puts the mesh in
+ * concurrent mode (see {@link Mesh#setConcurrent}) so that each thread
+ * gets its own work arrays, allocates dense identifiers of all vertices
+ * and triangles (see {@link ElementIds}) and copies element lists into
+ * arrays which can be split between threads.  Neighbours of a vertex are
+ * visited with a {@link NeighbourCursor}, each thread has its own cursor
+ * returned by {@link #getCursor}.
+ * </p>
+ *
+ * <p>
+ * The mesh must not be modified until {@link #close} is called.  Objects
+ * which store work arrays, like {@link org.jcae.mesh.amibe.validation.QualityProcedure},
+ * must not be shared between threads.
+ * </p>
+ */
+public final class ReadOnlyMeshView
+{
+	private final Mesh mesh;
+	private final boolean wasConcurrent;
+	private final Triangle [] triangles;
+	private final Vertex [] vertices;
+	private final ThreadLocal<NeighbourCursor> cursor = new ThreadLocal<NeighbourCursor>()
+	{
+		@Override
+		protected NeighbourCursor initialValue()
+		{
+			return new NeighbourCursor();
+		}
+	};
+	private boolean closed;
+
+	/**
+	 * Creates a view of a mesh.  This constructor must be called before
+	 * threads access the mesh.
+	 *
+	 * @param mesh  mesh
+	 */
+	public ReadOnlyMeshView(Mesh mesh)
+	{
+		this.mesh = mesh;
+		wasConcurrent = mesh.isConcurrent();
+		Collection<Triangle> list = mesh.getTriangles();
+		triangles = list.toArray(new Triangle[list.size()]);
+		Collection<Vertex> nodes = mesh.getNodes();
+		if (nodes == null)
+		{
+			nodes = new LinkedHashSet<Vertex>();
+			for (Triangle t : triangles)
+			{
+				for (Vertex v : t.vertex)
+				{
+					if (v != mesh.outerVertex)
+						nodes.add(v);
+				}
+			}
+		}
+		vertices = nodes.toArray(new Vertex[nodes.size()]);
+		ElementIds<Triangle> triangleIds = mesh.getTriangleIds();
+		for (Triangle t : triangles)
+			triangleIds.get(t);
+		ElementIds<Vertex> vertexIds = mesh.getVertexIds();
+		for (Vertex v : vertices)
+			vertexIds.get(v);
+		mesh.setConcurrent(true);
+	}
+
+	public Mesh getMesh()
+	{
+		return mesh;
+	}
+
+	/**
+	 * Returns the number of triangles, outer triangles are included.
+	 */
+	public int getNumberOfTriangles()
+	{
+		return triangles.length;
+	}
+
+	/**
+	 * Returns a triangle, in the order of {@link Mesh#getTriangles}.
+	 *
+	 * @param index  index in <code>[0, getNumberOfTriangles())</code>
+	 */
+	public Triangle getTriangle(int index)
+	{
+		return triangles[index];
+	}
+
+	/**
+	 * Returns the number of vertices, outer vertex is not included.
+	 */
+	public int getNumberOfVertices()
+	{
+		return vertices.length;
+	}
+
+	/**
+	 * Returns a vertex.  If mesh has a vertex list, vertices are in the
+	 * order of {@link Mesh#getNodes}, otherwise in the order in which they
+	 * are found in triangles.
+	 *
+	 * @param index  index in <code>[0, getNumberOfVertices())</code>
+	 */
+	public Vertex getVertex(int index)
+	{
+		return vertices[index];
+	}
+
+	/**
+	 * Returns the dense identifier of a triangle.
+	 */
+	public int getId(Triangle t)
+	{
+		return mesh.getTriangleIds().find(t);
+	}
+
+	/**
+	 * Returns the dense identifier of a vertex.
+	 */
+	public int getId(Vertex v)
+	{
+		return mesh.getVertexIds().find(v);
+	}
+
+	/**
+	 * Returns the cursor of the calling thread, reset to a vertex.
+	 * Nested traversals must use their own {@link NeighbourCursor}.
+	 *
+	 * @param v  vertex
+	 * @return cursor over half-edges starting from <code>v</code>
+	 */
+	public NeighbourCursor getCursor(Vertex v)
+	{
+		return cursor.get().reset(v);
+	}
+
+	/**
+	 * Computes triangle centroid.  Unlike {@link Mesh#getTriangleCentroid},
+	 * this method does not create any vertex.
+	 *
+	 * @param t  triangle
+	 * @param centroid  array of size 3 which contains centroid on exit
+	 * @return <code>centroid</code>
+	 */
+	public double [] getTriangleCentroid(Triangle t, double [] centroid)
+	{
+		int dim = t.vertex[0].getUV().length;
+		centroid[0] = centroid[1] = centroid[2] = 0.0;
+		for (Vertex v : t.vertex)
+		{
+			double [] p = v.getUV();
+			for (int i = 0; i < dim; i++)
+				centroid[i] += p[i];
+		}
+		for (int i = 0; i < dim; i++)
+			centroid[i] /= t.vertex.length;
+		return centroid;
+	}
+
+	/**
+	 * Returns square distance between 2 points, see {@link Mesh#distance2}.
+	 */
+	public double distance2(double [] x1, double [] x2)
+	{
+		return mesh.distance2(x1, x2);
+	}
+
+	/**
+	 * Returns metric at a given location, see {@link Mesh#getMetric}.
+	 */
+	public Metric getMetric(Location pt)
+	{
+		return mesh.getMetric(pt);
+	}
+
+	/**
+	 * Releases this view, mesh can then be modified again.  This method
+	 * must be called after threads have been terminated.
+	 */
+	public void close()
+	{
+		if (closed)
+			return;
+		closed = true;
+		mesh.setConcurrent(wasConcurrent);
+	}
+}
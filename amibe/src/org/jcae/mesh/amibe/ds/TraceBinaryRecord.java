@@ -0,0 +1,562 @@
+/* jCAE stand for Java Computer Aided Engineering. Features are : Small CAD
+   modeler, Finite element mesher, Plugin architecture.
+
+    Copyright (C) 2012, by EADS France
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA */
+
+package org.jcae.mesh.amibe.ds;
+
+import gnu.trove.TObjectIntHashMap;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Records mesh modifications into a binary file.
+ *
+ * <p>
+ * This class records the same events as {@link TraceRecord}, but writes
+ * fixed-size records of {@link #RECORD_SIZE} bytes instead of Python
+ * source code.  A record starts with an opcode and an integer, followed by
+ * either three doubles or six integers.  Vertices and triangles are
+ * referred to by their identifier, which is assigned when they are first
+ * seen, the outer vertex having identifier -1.  Strings are written in
+ * a header record containing their length, followed by as many records
+ * as needed to store their characters.
+ * </p>
+ *
+ * <p>
+ * Records are copied into a buffer which is written by a background
+ * thread while the other buffer is being filled.  Traces are replayed
+ * by {@link TraceReplay#replay(String, Mesh)}, and converted into Python
+ * scripts by {@link TraceReplay#convert(String, String)}.
+ * </p>
+ */
+public class TraceBinaryRecord implements TraceInterface
+{
+	private static final Logger LOGGER=Logger.getLogger(TraceBinaryRecord.class.getName());
+
+	/** File name suffix. */
+	public static final String SUFFIX = ".trace";
+
+	static final int MAGIC = 0x414d5452;
+	static final int VERSION = 1;
+	static final int RECORD_SIZE = 32;
+	// Number of characters stored in a string record
+	static final int CHARS_BY_RECORD = RECORD_SIZE / 2;
+
+	// Opcodes
+	static final int HEADER         = 0;
+	static final int CREATE_MESH    = 1;
+	static final int END_MESH       = 2;
+	static final int NODE           = 3;
+	static final int VERTEX         = 4;
+	static final int TRIANGLE       = 5;
+	static final int ADJACENT       = 6;
+	static final int REMOVE_VERTEX  = 7;
+	static final int REMOVE_TRIANGLE = 8;
+	static final int SWAP           = 9;
+	static final int COLLAPSE       = 10;
+	static final int SPLIT          = 11;
+	static final int SPLIT_ADD      = 12;
+	static final int MOVE           = 13;
+	static final int TEXT           = 14;
+	static final int HOOKS          = 15;
+	static final int HOOK           = 16;
+	static final int FINISH         = 17;
+
+	// Flags of TRIANGLE records
+	static final int NOT_READABLE = 1;
+	static final int NOT_WRITABLE = 2;
+	// Kinds of SPLIT_ADD records, see TraceRecord.traceSplitTriangle
+	static final int SPLIT_T1 = 1;
+	static final int SPLIT_T3 = 3;
+
+	private static final int BUFFER_SIZE = RECORD_SIZE << 15;
+
+	private boolean disabled;
+
+	private Vertex outerVertex;
+	private int labelVertex;
+	private final TObjectIntHashMap<Vertex> mapVertexId = new TObjectIntHashMap<Vertex>();
+	private final List<Vertex> vertices = new ArrayList<Vertex>();
+
+	private int labelTriangle;
+	private final TObjectIntHashMap<Triangle> mapTriangleId = new TObjectIntHashMap<Triangle>();
+	private final List<Triangle> triangles = new ArrayList<Triangle>();
+
+	private FileChannel fc;
+	private ExecutorService executor;
+	private ByteBuffer bb = ByteBuffer.allocate(BUFFER_SIZE);
+	private ByteBuffer spare = ByteBuffer.allocate(BUFFER_SIZE);
+	private Future<Object> pending;
+
+	public TraceBinaryRecord()
+	{
+		// Identifiers start from 1
+		vertices.add(null);
+		triangles.add(null);
+	}
+
+	public void setLogFile(String logName)
+	{
+		closeChannel();
+		try {
+			RandomAccessFile raf = new RandomAccessFile(logName+SUFFIX, "rw");
+			raf.setLength(0L);
+			fc = raf.getChannel();
+		} catch (IOException ex) {
+			LOGGER.log(Level.SEVERE, null, ex);
+			return;
+		}
+		executor = Executors.newSingleThreadExecutor(new ThreadFactory()
+		{
+			public Thread newThread(Runnable r)
+			{
+				Thread t = new Thread(r, "TraceBinaryRecord");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		bb.clear();
+		record(HEADER, MAGIC);
+		bb.putInt(VERSION);
+		bb.putInt(RECORD_SIZE);
+		endRecord();
+	}
+
+	public void setHooks(String[] commands)
+	{
+		record(HOOKS, commands.length);
+		endRecord();
+		for (String s : commands)
+			recordString(HOOK, s, 0);
+	}
+
+	public void createMesh(String meshName, Mesh mesh)
+	{
+		recordString(CREATE_MESH, meshName, mesh.getNodes() instanceof Set ? 1 : 0);
+		// Avoid rehashing, there are more triangles than vertices
+		// because ids of removed triangles are not released
+		int nrTriangles = mesh.getTriangles().size();
+		mapVertexId.ensureCapacity(nrTriangles);
+		mapTriangleId.ensureCapacity(4 * nrTriangles);
+		outerVertex = mesh.outerVertex;
+		mapVertexId.put(outerVertex, -1);
+		for (Vertex v : mesh.getNodes())
+			recordVertex(NODE, v);
+		for (Triangle t : mesh.getTriangles())
+		{
+			if (!t.hasAttributes(AbstractHalfEdge.OUTER))
+				recordTriangle(t);
+		}
+		if (mesh.hasAdjacency())
+		{
+			println("self.m.buildAdjacency()");
+			addAdjacentTriangles(mesh);
+		}
+		record(END_MESH, 0);
+		endRecord();
+	}
+
+	public void setDisabled(boolean b)
+	{
+		disabled = b;
+	}
+
+	public boolean getDisabled()
+	{
+		return disabled;
+	}
+
+	private void recordVertex(int opcode, Vertex v)
+	{
+		add(v);
+		if (disabled)
+			return;
+		double[] pos = v.getUV();
+		record(opcode, labelVertex);
+		bb.putDouble(pos[0]);
+		bb.putDouble(pos[1]);
+		bb.putDouble(pos[2]);
+		endRecord();
+	}
+
+	public void add(Vertex v)
+	{
+		labelVertex++;
+		vertices.add(v);
+		mapVertexId.put(v, labelVertex);
+	}
+
+	public void add(Vertex v, int id)
+	{
+		throw new UnsupportedOperationException("Not supported yet.");
+	}
+
+	public void remove(Vertex v)
+	{
+		int id = mapVertexId.remove(v);
+		if (id > 0)
+			vertices.set(id, null);
+		if (disabled)
+			return;
+		record(REMOVE_VERTEX, id);
+		endRecord();
+	}
+
+	public Vertex getVertex(int id)
+	{
+		if (id < 0)
+			return outerVertex;
+		return vertices.get(id);
+	}
+
+	public int getVertexId(Vertex v)
+	{
+		return mapVertexId.get(v);
+	}
+
+	private void recordTriangle(Triangle t)
+	{
+		add(t);
+		if (disabled)
+			return;
+		record(TRIANGLE, labelTriangle);
+		bb.putInt(mapVertexId.get(t.vertex[0]));
+		bb.putInt(mapVertexId.get(t.vertex[1]));
+		bb.putInt(mapVertexId.get(t.vertex[2]));
+		bb.putInt(t.getGroupId());
+		int flags = 0;
+		if (!t.isReadable())
+			flags |= NOT_READABLE;
+		if (!t.isWritable())
+			flags |= NOT_WRITABLE;
+		bb.putInt(flags);
+		endRecord();
+	}
+
+	public void add(Triangle t)
+	{
+		labelTriangle++;
+		triangles.add(t);
+		mapTriangleId.put(t, labelTriangle);
+	}
+
+	public void add(Triangle t, int id)
+	{
+		throw new UnsupportedOperationException("Not supported yet.");
+	}
+
+	public void remove(Triangle t)
+	{
+		int id = mapTriangleId.remove(t);
+		if (id > 0)
+			triangles.set(id, null);
+		if (disabled)
+			return;
+		record(REMOVE_TRIANGLE, id);
+		endRecord();
+	}
+
+	public Triangle getTriangle(int id)
+	{
+		return triangles.get(id);
+	}
+
+	public int getTriangleId(Triangle t)
+	{
+		return mapTriangleId.get(t);
+	}
+
+	public void addAdjacentTriangles(Mesh m)
+	{
+		if (disabled)
+			return;
+		for (Triangle t : m.getTriangles())
+		{
+			if (!t.hasAttributes(AbstractHalfEdge.BOUNDARY | AbstractHalfEdge.NONMANIFOLD))
+				continue;
+			if (t.hasAttributes(AbstractHalfEdge.OUTER))
+				continue;
+			AbstractHalfEdge ot = t.getAbstractHalfEdge();
+			for (int i = 0; i < 3; i++)
+			{
+				ot = ot.next();
+				if (ot.hasAttributes(AbstractHalfEdge.BOUNDARY | AbstractHalfEdge.NONMANIFOLD))
+				{
+					Triangle s = ot.sym().getTri();
+					if (!mapTriangleId.contains(s))
+					{
+						add(s);
+						record(ADJACENT, mapTriangleId.get(t));
+						bb.putInt(ot.getLocalNumber());
+						bb.putInt(labelTriangle);
+						endRecord();
+					}
+				}
+			}
+		}
+	}
+
+	private void recordEdge(int opcode, AbstractHalfEdge h, int vertexId)
+	{
+		record(opcode, mapTriangleId.get(h.getTri()));
+		bb.putInt(h.getLocalNumber());
+		bb.putInt(vertexId);
+		endRecord();
+	}
+
+	public void edgeSwap(AbstractHalfEdge h)
+	{
+		if (disabled)
+			return;
+		recordEdge(SWAP, h, 0);
+	}
+
+	public void edgeCollapse(AbstractHalfEdge h, Vertex v)
+	{
+		if (disabled)
+			return;
+		recordVertex(VERTEX, v);
+		int id = labelVertex;
+		remove(h.origin());
+		remove(h.destination());
+		recordEdge(COLLAPSE, h, id);
+	}
+
+	public void vertexSplitBefore(AbstractHalfEdge h, Vertex v)
+	{
+		if (disabled)
+			return;
+		recordVertex(VERTEX, v);
+		recordEdge(SPLIT, h, labelVertex);
+	}
+
+	public void vertexSplitAfter(AbstractHalfEdge h, Vertex v)
+	{
+		if (disabled)
+			return;
+		if (h.hasAttributes(AbstractHalfEdge.NONMANIFOLD))
+		{
+			int index = 0;
+			for (Iterator<AbstractHalfEdge> fanIt = h.fanIterator(); fanIt.hasNext(); index++)
+				recordSplitTriangle(index, fanIt.next());
+		}
+		else
+			recordSplitTriangle(-1, h);
+	}
+
+	// See TraceRecord.traceSplitTriangle
+	private void recordSplitTriangle(int fanIndex, AbstractHalfEdge h)
+	{
+		int kind;
+		Triangle t3, t4;
+		if(mapTriangleId.contains(h.getTri()))
+		{
+			kind = SPLIT_T1;
+			t4 = h.sym().getTri();
+			t3 = h.next().sym().getTri();
+		}
+		else
+		{
+			kind = SPLIT_T3;
+			t3 = h.getTri();
+			t4 = h.prev().sym().prev().sym().getTri();
+		}
+		record(SPLIT_ADD, fanIndex);
+		bb.putInt(kind);
+		if (kind == SPLIT_T1)
+		{
+			add(t4);
+			bb.putInt(labelTriangle);
+			add(t3);
+			bb.putInt(labelTriangle);
+		}
+		else
+		{
+			add(t3);
+			bb.putInt(labelTriangle);
+			add(t4);
+			bb.putInt(labelTriangle);
+		}
+		endRecord();
+	}
+
+	public void moveVertex(Vertex v)
+	{
+		if (!disabled && mapVertexId.containsKey(v))
+		{
+			double[] pos = v.getUV();
+			record(MOVE, mapVertexId.get(v));
+			bb.putDouble(pos[0]);
+			bb.putDouble(pos[1]);
+			bb.putDouble(pos[2]);
+			endRecord();
+		}
+	}
+
+	public void println(String x)
+	{
+		if (!disabled)
+			recordString(TEXT, x, 0);
+	}
+
+	public void finish()
+	{
+		record(FINISH, 0);
+		endRecord();
+		try {
+			flush();
+		} catch (IOException ex) {
+			LOGGER.log(Level.SEVERE, null, ex);
+		}
+		closeChannel();
+	}
+
+	/**
+	 * Starts a new record.  Caller has to write its payload and call
+	 * {@link #endRecord}.
+	 */
+	private void record(int opcode, int value)
+	{
+		if (bb.remaining() < RECORD_SIZE)
+			drain();
+		bb.putInt(opcode);
+		bb.putInt(value);
+	}
+
+	// Pads current record with zeros
+	private void endRecord()
+	{
+		int pad = (RECORD_SIZE - bb.position() % RECORD_SIZE) % RECORD_SIZE;
+		for (; pad >= 8; pad -= 8)
+			bb.putLong(0L);
+		for (; pad > 0; pad--)
+			bb.put((byte) 0);
+	}
+
+	private void recordString(int opcode, String s, int value)
+	{
+		int length = s.length();
+		record(opcode, length);
+		bb.putInt(value);
+		endRecord();
+		for (int i = 0; i < length; i += CHARS_BY_RECORD)
+		{
+			if (bb.remaining() < RECORD_SIZE)
+				drain();
+			int end = Math.min(length, i + CHARS_BY_RECORD);
+			for (int j = i; j < end; j++)
+				bb.putChar(s.charAt(j));
+			endRecord();
+		}
+	}
+
+	// Hands current buffer over to the writer thread
+	private void drain()
+	{
+		if (fc == null)
+		{
+			// No log file, records are discarded
+			bb.clear();
+			return;
+		}
+		try {
+			waitPending();
+		} catch (IOException ex) {
+			LOGGER.log(Level.SEVERE, null, ex);
+		}
+		bb.flip();
+		final ByteBuffer full = bb;
+		final FileChannel channel = fc;
+		pending = executor.submit(new Callable<Object>()
+		{
+			public Object call() throws IOException
+			{
+				while (full.hasRemaining())
+					channel.write(full);
+				return null;
+			}
+		});
+		bb = spare;
+		bb.clear();
+		spare = full;
+	}
+
+	private void waitPending() throws IOException
+	{
+		if (pending == null)
+			return;
+		try
+		{
+			pending.get();
+		}
+		catch (InterruptedException ex)
+		{
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while writing trace");
+		}
+		catch (ExecutionException ex)
+		{
+			if (ex.getCause() instanceof IOException)
+				throw (IOException) ex.getCause();
+			throw new IOException("Write failed: "+ex.getCause());
+		}
+		finally
+		{
+			pending = null;
+		}
+	}
+
+	private void flush() throws IOException
+	{
+		if (fc == null)
+			return;
+		if (bb.position() > 0)
+			drain();
+		waitPending();
+	}
+
+	private void closeChannel()
+	{
+		if (fc == null)
+			return;
+		try {
+			flush();
+			fc.close();
+		} catch (IOException ex) {
+			LOGGER.log(Level.SEVERE, null, ex);
+		}
+		fc = null;
+		executor.shutdown();
+		executor = null;
+	}
+}
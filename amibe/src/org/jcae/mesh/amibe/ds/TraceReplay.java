@@ -19,11 +19,21 @@
 
 package org.jcae.mesh.amibe.ds;
 
+import gnu.trove.TIntArrayList;
 import gnu.trove.TIntObjectHashMap;
 import gnu.trove.TObjectIntHashMap;
-
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Iterator;
+import org.jcae.mesh.amibe.traits.MeshTraitsBuilder;
+
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import static org.jcae.mesh.amibe.ds.TraceBinaryRecord.*;
+
 public class TraceReplay implements TraceInterface
 {
         private static final Logger LOGGER=Logger.getLogger(TraceReplay.class.getName());
@@ -153,4 +163,347 @@ public class TraceReplay implements TraceInterface
 		// Do nothing
 	}
 
+	/**
+	 * Replays a binary trace written by {@link TraceBinaryRecord}.
+	 * Mesh must be empty, it is built from the initial mesh stored in
+	 * trace and then modified by recorded operations.  Objects are
+	 * retrieved from their identifiers by array lookups, and mesh does
+	 * not need to be traced.
+	 *
+	 * @param logName  log name given to {@link TraceBinaryRecord#setLogFile}
+	 * @param mesh  mesh to be modified
+	 * @throws IOException if trace cannot be read
+	 */
+	public static void replay(String logName, Mesh mesh) throws IOException
+	{
+		new BinaryReplay(mesh, null).run(logName);
+	}
+
+	/**
+	 * Converts a binary trace written by {@link TraceBinaryRecord} into
+	 * Python scripts, as written by {@link TraceRecord}.  Trace is replayed
+	 * against a new mesh which is traced by {@link TraceRecord}.
+	 *
+	 * @param logName  log name given to {@link TraceBinaryRecord#setLogFile}
+	 * @param pythonName  log name given to {@link TraceRecord#setLogFile}
+	 * @throws IOException if trace cannot be read
+	 */
+	public static void convert(String logName, String pythonName) throws IOException
+	{
+		new BinaryReplay(null, pythonName).run(logName);
+	}
+
+	private static final class BinaryReplay
+	{
+		// When not null, mesh is traced by a TraceRecord instance
+		private final String pythonName;
+		private Mesh mesh;
+		private String meshName;
+		private Vertex [] vertices = new Vertex[1024];
+		private Triangle [] triangles = new Triangle[1024];
+		private final TIntArrayList groups = new TIntArrayList();
+		private String [] hooks;
+		private int nrHooks;
+		// Edge returned by last vertex split
+		private AbstractHalfEdge split;
+		private final ByteBuffer bb = ByteBuffer.allocate(RECORD_SIZE << 15);
+		private FileChannel fc;
+		private long nrRecords;
+
+		BinaryReplay(Mesh mesh, String pythonName)
+		{
+			this.mesh = mesh;
+			this.pythonName = pythonName;
+		}
+
+		void run(String logName) throws IOException
+		{
+			FileInputStream in = new FileInputStream(logName+SUFFIX);
+			fc = in.getChannel();
+			bb.limit(0);
+			try
+			{
+				if (!next() || bb.getInt() != HEADER || bb.getInt() != MAGIC)
+					throw new IOException(logName+SUFFIX+" is not a binary trace");
+				int version = bb.getInt();
+				if (version != VERSION || bb.getInt() != RECORD_SIZE)
+					throw new IOException("Unsupported trace version: "+version);
+				skipPadding();
+				while (next())
+				{
+					nrRecords++;
+					int start = bb.position();
+					int opcode = bb.getInt();
+					int value = bb.getInt();
+					process(opcode, value);
+					if (opcode != TEXT && opcode != HOOK && opcode != CREATE_MESH)
+						bb.position(start + RECORD_SIZE);
+				}
+			}
+			finally
+			{
+				in.close();
+			}
+			LOGGER.log(Level.CONFIG, nrRecords+" records replayed");
+		}
+
+		private void process(int opcode, int value) throws IOException
+		{
+			switch (opcode)
+			{
+			case CREATE_MESH:
+				createMesh(bb.getInt() != 0, value);
+				break;
+			case END_MESH:
+				if (pythonName != null)
+				{
+					TraceInterface trace = mesh.getTrace();
+					trace.setDisabled(false);
+					trace.setLogFile(pythonName);
+					trace.createMesh(meshName, mesh);
+				}
+				break;
+			case NODE:
+			{
+				Vertex v = mesh.createVertex(bb.getDouble(), bb.getDouble(), bb.getDouble());
+				mesh.add(v);
+				setVertex(value, v);
+				break;
+			}
+			case VERTEX:
+				setVertex(value, mesh.createVertex(bb.getDouble(), bb.getDouble(), bb.getDouble()));
+				break;
+			case TRIANGLE:
+			{
+				Triangle t = mesh.createTriangle(vertex(bb.getInt()), vertex(bb.getInt()), vertex(bb.getInt()));
+				t.setGroupId(bb.getInt());
+				int flags = bb.getInt();
+				if ((flags & NOT_READABLE) != 0)
+					t.setReadable(false);
+				if ((flags & NOT_WRITABLE) != 0)
+					t.setWritable(false);
+				mesh.add(t);
+				setTriangle(value, t);
+				break;
+			}
+			case ADJACENT:
+			{
+				AbstractHalfEdge ot = edge(value, bb.getInt());
+				setTriangle(bb.getInt(), ot.sym().getTri());
+				break;
+			}
+			case REMOVE_VERTEX:
+				if (value > 0)
+					vertices[value] = null;
+				break;
+			case REMOVE_TRIANGLE:
+				if (value > 0)
+					triangles[value] = null;
+				break;
+			case SWAP:
+				mesh.edgeSwap(edge(value, bb.getInt()));
+				break;
+			case COLLAPSE:
+			{
+				AbstractHalfEdge ot = edge(value, bb.getInt());
+				mesh.edgeCollapse(ot, vertex(bb.getInt()));
+				break;
+			}
+			case SPLIT:
+			{
+				AbstractHalfEdge ot = edge(value, bb.getInt());
+				split = mesh.vertexSplit(ot, vertex(bb.getInt()));
+				break;
+			}
+			case SPLIT_ADD:
+				splitAdd(value, bb.getInt(), bb.getInt(), bb.getInt());
+				break;
+			case MOVE:
+			{
+				Vertex v = vertex(value);
+				v.moveTo(bb.getDouble(), bb.getDouble(), bb.getDouble());
+				if (pythonName != null)
+					mesh.getTrace().moveVertex(v);
+				break;
+			}
+			case TEXT:
+				text(readString(value));
+				break;
+			case HOOKS:
+				hooks = new String[value];
+				nrHooks = 0;
+				if (value == 0)
+					setHooks();
+				break;
+			case HOOK:
+				hooks[nrHooks++] = readString(value);
+				if (nrHooks == hooks.length)
+					setHooks();
+				break;
+			case FINISH:
+				if (pythonName != null)
+					mesh.getTrace().finish();
+				break;
+			default:
+				throw new IOException("Unknown opcode "+opcode+" in record "+nrRecords);
+			}
+		}
+
+		private void createMesh(boolean nodeSet, int length) throws IOException
+		{
+			meshName = readString(length);
+			if (mesh != null)
+				return;
+			MeshTraitsBuilder mtb = MeshTraitsBuilder.getDefault3D();
+			mtb.addTraceRecord();
+			if (nodeSet)
+				mtb.addNodeSet();
+			else
+				mtb.addNodeList();
+			mesh = new Mesh(mtb);
+			// Trace is enabled when initial mesh is built
+			mesh.getTrace().setDisabled(true);
+		}
+
+		private void setHooks()
+		{
+			if (pythonName != null)
+				mesh.getTrace().setHooks(hooks);
+		}
+
+		// Executes commands printed by Mesh
+		private void text(String s)
+		{
+			if (s.equals("self.m.buildAdjacency()"))
+				mesh.buildAdjacency();
+			else if (s.startsWith("self.m.buildRidges("))
+				mesh.buildRidges(Double.parseDouble(s.substring(19, s.length() - 1)));
+			else if (s.equals("groups = []"))
+				groups.clear();
+			else if (s.startsWith("groups.append("))
+				groups.add(Integer.parseInt(s.substring(14, s.length() - 1)));
+			else if (s.equals("self.m.buildGroupBoundaries(groups)"))
+				mesh.buildGroupBoundaries(groups.toNativeArray());
+			else if (s.equals("self.m.buildPartition()"))
+				mesh.buildPartition();
+			else if (s.startsWith("#"))
+			{
+				// Comments are printed again by TraceRecord
+			}
+			else if (pythonName != null)
+				mesh.getTrace().println(s);
+			else
+				LOGGER.log(Level.FINE, "Ignore command: "+s);
+		}
+
+		// See TraceRecord.traceSplitTriangle
+		private void splitAdd(int fanIndex, int kind, int a, int b)
+		{
+			AbstractHalfEdge h = split;
+			if (fanIndex >= 0)
+			{
+				Iterator<AbstractHalfEdge> fanIt = split.fanIterator();
+				for (int i = 0; i <= fanIndex; i++)
+					h = fanIt.next();
+			}
+			if (kind == SPLIT_T1)
+			{
+				setTriangle(a, h.sym().getTri());
+				setTriangle(b, h.next().sym().getTri());
+			}
+			else
+			{
+				setTriangle(a, h.getTri());
+				setTriangle(b, h.prev().sym().prev().sym().getTri());
+			}
+		}
+
+		private Vertex vertex(int id)
+		{
+			if (id < 0)
+				return mesh.outerVertex;
+			Vertex v = id < vertices.length ? vertices[id] : null;
+			if (v == null)
+				throw new IllegalStateException("Unknown vertex "+id+" in record "+nrRecords);
+			return v;
+		}
+
+		private AbstractHalfEdge edge(int triangleId, int localNumber)
+		{
+			Triangle t = triangleId < triangles.length ? triangles[triangleId] : null;
+			if (t == null)
+				throw new IllegalStateException("Unknown triangle "+triangleId+" in record "+nrRecords);
+			AbstractHalfEdge ot = t.getAbstractHalfEdge();
+			if (localNumber == 1)
+				ot = ot.next();
+			else if (localNumber == 2)
+				ot = ot.prev();
+			return ot;
+		}
+
+		private void setVertex(int id, Vertex v)
+		{
+			if (id >= vertices.length)
+			{
+				Vertex [] tmp = new Vertex[Math.max(2 * vertices.length, id + 1)];
+				System.arraycopy(vertices, 0, tmp, 0, vertices.length);
+				vertices = tmp;
+			}
+			vertices[id] = v;
+		}
+
+		private void setTriangle(int id, Triangle t)
+		{
+			if (id >= triangles.length)
+			{
+				Triangle [] tmp = new Triangle[Math.max(2 * triangles.length, id + 1)];
+				System.arraycopy(triangles, 0, tmp, 0, triangles.length);
+				triangles = tmp;
+			}
+			triangles[id] = t;
+		}
+
+		// Makes sure that a full record can be read from bb
+		private boolean next() throws IOException
+		{
+			if (bb.remaining() >= RECORD_SIZE)
+				return true;
+			bb.compact();
+			while (bb.position() < RECORD_SIZE)
+			{
+				if (fc.read(bb) < 0)
+					break;
+			}
+			bb.flip();
+			if (!bb.hasRemaining())
+				return false;
+			if (bb.remaining() < RECORD_SIZE)
+				throw new IOException("Truncated trace after record "+nrRecords);
+			return true;
+		}
+
+		private void skipPadding()
+		{
+			int rem = bb.position() % RECORD_SIZE;
+			if (rem != 0)
+				bb.position(bb.position() + RECORD_SIZE - rem);
+		}
+
+		// Reads a string, current position is inside its header record
+		private String readString(int length) throws IOException
+		{
+			skipPadding();
+			StringBuilder sb = new StringBuilder(length);
+			for (int i = 0; i < length; i += CHARS_BY_RECORD)
+			{
+				if (!next())
+					throw new IOException("Truncated trace after record "+nrRecords);
+				int end = Math.min(length, i + CHARS_BY_RECORD);
+				for (int j = i; j < end; j++)
+					sb.append(bb.getChar());
+				skipPadding();
+			}
+			return sb.toString();
+		}
+	}
 }
@@ -45,6 +45,8 @@ public class Triangle implements Serializable
 	
 	private boolean readable = true;
 	private boolean writable = true;
+	// Identifier managed by Mesh.getTriangleIds()
+	int elementId = -1;
 
 	// We sometimes need to process lists of triangles before mesh
 	// connectivity has been set up.  This can be achieved efficiently
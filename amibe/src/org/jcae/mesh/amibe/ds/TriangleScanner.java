@@ -0,0 +1,358 @@
+/* jCAE stand for Java Computer Aided Engineering. Features are : Small CAD
+   modeler, Finite element mesher, Plugin architecture.
+
+    Copyright (C) 2012, by EADS France
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA */
+
+package org.jcae.mesh.amibe.ds;
+
+import gnu.trove.TIntArrayList;
+import gnu.trove.TIntHashSet;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Scans triangles of a mesh in contiguous chunks, on several threads.
+ *
+ * <p>
+ * Triangles are copied into an array, and a half-edge is identified by
+ * <code>3*index+localNumber</code>, where <code>index</code> is the
+ * position of its triangle in this array.  Chunks only read the mesh, and
+ * their results are concatenated in triangle order, so callers which
+ * modify the mesh afterwards get the same result as a sequential loop
+ * over the triangle list.
+ * </p>
+ *
+ * <p>
+ * {@link #partition(int)} labels connected components with a union-find
+ * structure over triangle indices.  Each chunk merges adjacent triangles
+ * which belong to this chunk and collects edges to other chunks, which are
+ * merged at the end.  A component root is always its smallest triangle
+ * index, and components are numbered by increasing root, which gives the
+ * same numbering as a breadth-first search started from triangles in list
+ * order.
+ * </p>
+ */
+final class TriangleScanner
+{
+	// Below this number of triangles, a single thread is used
+	static int minParallel = 50000;
+
+	private final Triangle [] triangles;
+	private final int nrThreads;
+
+	/**
+	 * Selects half-edges of inner triangles.
+	 */
+	interface EdgeFilter
+	{
+		/**
+		 * Tells whether an edge is selected.  This method is called
+		 * concurrently, <code>work</code> is a scratch array private
+		 * to the calling thread.
+		 *
+		 * @param ot  half-edge
+		 * @param sym  symmetric half-edge
+		 * @param work  scratch array of 4 vectors
+		 */
+		boolean accept(AbstractHalfEdge ot, AbstractHalfEdge sym, double [][] work);
+	}
+
+	private interface RangeProcedure
+	{
+		void run(int from, int to, int chunk);
+	}
+
+	TriangleScanner(Collection<Triangle> list, int nrThreads)
+	{
+		triangles = list.toArray(new Triangle[list.size()]);
+		this.nrThreads = triangles.length < minParallel ? 1 : Math.max(1, nrThreads);
+	}
+
+	Triangle getTriangle(int index)
+	{
+		return triangles[index];
+	}
+
+	/**
+	 * Returns the half-edge with a given identifier.
+	 */
+	AbstractHalfEdge getEdge(int id, AbstractHalfEdge that)
+	{
+		AbstractHalfEdge ret = triangles[id / 3].getAbstractHalfEdge(that);
+		while (ret.getLocalNumber() != id % 3)
+			ret = ret.next();
+		return ret;
+	}
+
+	/**
+	 * Returns identifiers of selected half-edges, in triangle order.
+	 * Outer triangles and half-edges having one of <code>skip</code>
+	 * attributes are not passed to the filter.
+	 *
+	 * @param skip  attributes of ignored half-edges
+	 * @param filter  edge filter
+	 * @param groups  if not <code>null</code>, only triangles with these
+	 *        group ids are scanned
+	 */
+	int [] selectEdges(final int skip, final EdgeFilter filter, final TIntHashSet groups)
+	{
+		final TIntArrayList [] selected = new TIntArrayList[nrChunks()];
+		parallelFor(new RangeProcedure()
+		{
+			public void run(int from, int to, int chunk)
+			{
+				TIntArrayList ret = new TIntArrayList();
+				double [][] work = new double[4][3];
+				AbstractHalfEdge ot = null;
+				AbstractHalfEdge sym = null;
+				for (int i = from; i < to; i++)
+				{
+					Triangle t = triangles[i];
+					if (t.hasAttributes(AbstractHalfEdge.OUTER))
+						continue;
+					if (groups != null && !groups.contains(t.getGroupId()))
+						continue;
+					ot = t.getAbstractHalfEdge(ot);
+					if (sym == null)
+						sym = t.getAbstractHalfEdge();
+					for (int j = 0; j < 3; j++)
+					{
+						ot = ot.next();
+						if (ot.hasAttributes(skip))
+							continue;
+						sym = ot.sym(sym);
+						if (filter.accept(ot, sym, work))
+							ret.add(3 * i + ot.getLocalNumber());
+					}
+				}
+				selected[chunk] = ret;
+			}
+		});
+		int size = 0;
+		for (TIntArrayList list : selected)
+			size += list.size();
+		int [] ret = new int[size];
+		int offset = 0;
+		for (TIntArrayList list : selected)
+		{
+			System.arraycopy(list.toNativeArray(), 0, ret, offset, list.size());
+			offset += list.size();
+		}
+		return ret;
+	}
+
+	/**
+	 * Labels connected components.  Inner triangles are connected through
+	 * half-edges which have none of <code>cut</code> attributes.  Outer
+	 * triangles do not connect components, they get the smallest label of
+	 * inner triangles connected to them, or 0.  Labels start at 1 and are
+	 * written into triangle group ids.
+	 *
+	 * @param cut  attributes of half-edges which separate components
+	 * @return number of triangles of each component, index 0 is unused
+	 */
+	int [] partition(final int cut)
+	{
+		final int n = triangles.length;
+		// Triangle indices are temporarily stored into group ids
+		parallelFor(new RangeProcedure()
+		{
+			public void run(int from, int to, int chunk)
+			{
+				for (int i = from; i < to; i++)
+					triangles[i].setGroupId(i);
+			}
+		});
+		final int [] parent = new int[n];
+		final TIntArrayList [] crossEdges = new TIntArrayList[nrChunks()];
+		final TIntArrayList [] outerEdges = new TIntArrayList[nrChunks()];
+		parallelFor(new RangeProcedure()
+		{
+			public void run(int from, int to, int chunk)
+			{
+				TIntArrayList cross = new TIntArrayList();
+				TIntArrayList outer = new TIntArrayList();
+				AbstractHalfEdge ot = null;
+				AbstractHalfEdge sym = null;
+				for (int i = from; i < to; i++)
+					parent[i] = i;
+				for (int i = from; i < to; i++)
+				{
+					Triangle t = triangles[i];
+					if (t.hasAttributes(AbstractHalfEdge.OUTER))
+						continue;
+					ot = t.getAbstractHalfEdge(ot);
+					if (sym == null)
+						sym = t.getAbstractHalfEdge();
+					for (int k = 0; k < 3; k++)
+					{
+						ot = ot.next();
+						if (ot.hasAttributes(cut))
+							continue;
+						sym = ot.sym(sym);
+						Triangle symTri = sym.getTri();
+						int j = symTri.getGroupId();
+						if (symTri.hasAttributes(AbstractHalfEdge.OUTER))
+						{
+							outer.add(i);
+							outer.add(j);
+						}
+						else if (j >= from && j < to)
+							union(parent, i, j);
+						else
+						{
+							cross.add(i);
+							cross.add(j);
+						}
+					}
+				}
+				crossEdges[chunk] = cross;
+				outerEdges[chunk] = outer;
+			}
+		});
+		for (TIntArrayList cross : crossEdges)
+		{
+			for (int k = 0; k < cross.size(); k += 2)
+				union(parent, cross.get(k), cross.get(k+1));
+		}
+
+		// parent[i] <= i, roots are thus processed before their children
+		final int [] label = new int[n];
+		int nrComponents = 0;
+		for (int i = 0; i < n; i++)
+		{
+			if (triangles[i].hasAttributes(AbstractHalfEdge.OUTER))
+				continue;
+			if (parent[i] == i)
+			{
+				nrComponents++;
+				label[i] = nrComponents;
+			}
+			else
+				label[i] = label[parent[i]];
+		}
+		for (TIntArrayList outer : outerEdges)
+		{
+			for (int k = 0; k < outer.size(); k += 2)
+			{
+				int l = label[outer.get(k)];
+				int j = outer.get(k+1);
+				if (label[j] == 0 || l < label[j])
+					label[j] = l;
+			}
+		}
+		parallelFor(new RangeProcedure()
+		{
+			public void run(int from, int to, int chunk)
+			{
+				for (int i = from; i < to; i++)
+					triangles[i].setGroupId(label[i]);
+			}
+		});
+		int [] ret = new int[nrComponents + 1];
+		for (int l : label)
+			ret[l]++;
+		return ret;
+	}
+
+	// Path halving, parent[i] is never greater than i
+	private static int find(int [] parent, int i)
+	{
+		while (parent[i] != i)
+		{
+			parent[i] = parent[parent[i]];
+			i = parent[i];
+		}
+		return i;
+	}
+
+	private static void union(int [] parent, int i, int j)
+	{
+		int ri = find(parent, i);
+		int rj = find(parent, j);
+		if (ri < rj)
+			parent[rj] = ri;
+		else if (rj < ri)
+			parent[ri] = rj;
+	}
+
+	private int nrChunks()
+	{
+		if (nrThreads == 1)
+			return 1;
+		return Math.min(triangles.length, 4 * nrThreads);
+	}
+
+	/**
+	 * Runs <code>proc</code> on contiguous chunks of triangles, on
+	 * several threads if there are enough triangles.
+	 */
+	private void parallelFor(final RangeProcedure proc)
+	{
+		int n = triangles.length;
+		int nrChunks = nrChunks();
+		if (nrChunks == 1)
+		{
+			proc.run(0, n, 0);
+			return;
+		}
+		List<Callable<Object>> tasks = new ArrayList<Callable<Object>>(nrChunks);
+		for (int k = 0; k < nrChunks; k++)
+		{
+			final int from = (int) ((long) n * k / nrChunks);
+			final int to = (int) ((long) n * (k + 1) / nrChunks);
+			final int chunk = k;
+			tasks.add(new Callable<Object>()
+			{
+				public Object call()
+				{
+					proc.run(from, to, chunk);
+					return null;
+				}
+			});
+		}
+		ExecutorService executor = Executors.newFixedThreadPool(nrThreads);
+		try
+		{
+			for (Future<Object> f : executor.invokeAll(tasks))
+				f.get();
+		}
+		catch (InterruptedException ex)
+		{
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(ex);
+		}
+		catch (ExecutionException ex)
+		{
+			if (ex.getCause() instanceof RuntimeException)
+				throw (RuntimeException) ex.getCause();
+			if (ex.getCause() instanceof Error)
+				throw (Error) ex.getCause();
+			throw new RuntimeException(ex.getCause());
+		}
+		finally
+		{
+			executor.shutdown();
+		}
+	}
+}
@@ -20,6 +20,7 @@
 
 package org.jcae.mesh.amibe.ds;
 
+import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.jcae.mesh.amibe.traits.VertexTraitsBuilder;
 import org.jcae.mesh.amibe.metrics.Matrix3D;
@@ -78,6 +79,8 @@ public class Vertex implements Location, Serializable
 	private int label;
 	private boolean readable = true;
 	private boolean writable = true;
+	// Identifier managed by Mesh.getVertexIds()
+	int elementId = -1;
 	
 	/**
 	 * Constructor.
@@ -469,6 +472,8 @@ public class Vertex implements Location, Serializable
 	/**
 	 * Return an iterator over adjacent vertices.
 	 * Note: this method works also with non-manifold meshes.
+	 * Iterators are allocated on each call, hot loops should reuse a
+	 * {@link NeighbourCursor} instead.
 	 *
 	 * @return an iterator over adjacent vertices
 	 */
@@ -480,7 +485,8 @@ public class Vertex implements Location, Serializable
 		if (link instanceof Triangle)
 			return new NeighbourIteratorVertex((Triangle) link);
 		// Non-manifold vertex
-		logger.fine("Non-manifold vertex: "+this);
+		if (logger.isLoggable(Level.FINE))
+			logger.fine("Non-manifold vertex: "+this);
 		Triangle [] t = (Triangle []) link;
 		Iterator<Vertex> [] iterators = new NeighbourIteratorVertex[t.length];
 		for (int i = 0; i < t.length; i++)
@@ -491,6 +497,8 @@ public class Vertex implements Location, Serializable
 	/**
 	 * Return an iterator over incident triangles.
 	 * Note: this method works also with non-manifold meshes.
+	 * Iterators are allocated on each call, hot loops should reuse a
+	 * {@link NeighbourCursor} instead.
 	 *
 	 * @return an iterator over incident triangles
 	 */
@@ -502,7 +510,8 @@ public class Vertex implements Location, Serializable
 		if (link instanceof Triangle)
 			return new NeighbourIteratorTriangle((Triangle) link);
 		// Non-manifold vertex
-		logger.fine("Non-manifold vertex: "+this);
+		if (logger.isLoggable(Level.FINE))
+			logger.fine("Non-manifold vertex: "+this);
 		Triangle [] t = (Triangle []) link;
 		Iterator<Triangle> [] iterators = new NeighbourIteratorTriangle[t.length];
 		for (int i = 0; i < t.length; i++)
@@ -513,6 +522,8 @@ public class Vertex implements Location, Serializable
 	/**
 	 * Return an iterator over incident half-edges.
 	 * Note: this method works also with non-manifold meshes.
+	 * Iterators are allocated on each call, hot loops should reuse a
+	 * {@link NeighbourCursor} instead.
 	 *
 	 * @return an iterator over incident half-edges.
 	 */
@@ -524,7 +535,8 @@ public class Vertex implements Location, Serializable
 		if (link instanceof Triangle)
 			return new NeighbourIteratorAbstractHalfEdge((Triangle) link);
 		// Non-manifold vertex
-		logger.fine("Non-manifold vertex: "+this);
+		if (logger.isLoggable(Level.FINE))
+			logger.fine("Non-manifold vertex: "+this);
 		Triangle [] t = (Triangle []) link;
 		Iterator<AbstractHalfEdge> [] iterators = new NeighbourIteratorAbstractHalfEdge[t.length];
 		for (int i = 0; i < t.length; i++)
@@ -651,6 +651,7 @@ public class VirtualHalfEdge extends AbstractHalfEdge
 	}
 	private double checkSwap3D(Mesh m, double minCos, double maxLength)
 	{
+		VirtualHalfEdge [] tempVH = m.getTempVH();
 		double invalid = -1.0;
 		// Do not swap sharp edges
 		if (hasAttributes(SHARP))
@@ -659,18 +660,18 @@ public class VirtualHalfEdge extends AbstractHalfEdge
 		if (hasAttributes(OUTER | BOUNDARY | NONMANIFOLD))
 			return invalid;
 		// Check for coplanarity
-		symOTri(this, m.tempVH[0]);
+		symOTri(this, tempVH[0]);
 		computeNormal3D();
 		double [] n1 = getTempVector();
-		m.tempVH[0].computeNormal3D();
-		double [] n2 = m.tempVH[0].getTempVector();
+		tempVH[0].computeNormal3D();
+		double [] n2 = tempVH[0].getTempVector();
 		if (Matrix3D.prodSca(n1, n2) < minCos)
 			return invalid;
 		// Check for quality improvement
 		Vertex o = origin();
 		Vertex d = destination();
 		Vertex a = apex();
-		Vertex n = m.tempVH[0].apex();
+		Vertex n = tempVH[0].apex();
 		if (maxLength > 0.0 && a.sqrDistance3D(n) > maxLength)
 			return invalid;
 		// Do not create an edge which will be difficult to modify later
@@ -688,7 +689,7 @@ public class VirtualHalfEdge extends AbstractHalfEdge
 		double p1 = o.distance3D(d) + d.distance3D(a) + a.distance3D(o);
 		double s1 = area(m);
 		double p2 = d.distance3D(o) + o.distance3D(n) + n.distance3D(d);
-		double s2 = m.tempVH[0].area(m);
+		double s2 = tempVH[0].area(m);
 		// No need to multiply by 12.0 * Math.sqrt(3.0)
 		double Qbefore = Math.min(s1/p1/p1, s2/p2/p2);
 		
@@ -720,6 +721,7 @@ public class VirtualHalfEdge extends AbstractHalfEdge
 	}
 	private void VHswap(Mesh m)
 	{
+		VirtualHalfEdge [] tempVH = m.getTempVH();
 		if (hasAttributes(SHARP | OUTER | BOUNDARY | NONMANIFOLD))
 			throw new IllegalArgumentException("Cannot swap "+this);
 		Vertex o = origin();
@@ -740,44 +742,44 @@ public class VirtualHalfEdge extends AbstractHalfEdge
 		 */
 		// T1 = (oda)  --> (ona)
 		// T2 = (don)  --> (dan)
-		copyOTri(this, m.tempVH[0]);        // (oda)
-		symOTri(this, m.tempVH[1]);         // (don)
-		symOTri(this, m.tempVH[2]);         // (don)
-		Vertex n = m.tempVH[1].apex();
+		copyOTri(this, tempVH[0]);        // (oda)
+		symOTri(this, tempVH[1]);         // (don)
+		symOTri(this, tempVH[2]);         // (don)
+		Vertex n = tempVH[1].apex();
 		//  Clear SWAPPED flag for all edges of the 2 triangles
 		for (int i = 0; i < 3; i++)
 		{
-			m.tempVH[0].clearAttributes(SWAPPED);
-			m.tempVH[1].clearAttributes(SWAPPED);
-			m.tempVH[0].next();
-			m.tempVH[1].next();
+			tempVH[0].clearAttributes(SWAPPED);
+			tempVH[1].clearAttributes(SWAPPED);
+			tempVH[0].next();
+			tempVH[1].next();
 		}
-		m.tempVH[1].next();                 // (ond)
-		int attr3 = m.tempVH[1].attributes;
-		m.tempVH[1].sym();                  // a3 = (no*)
-		m.tempVH[1].VHglue(m.tempVH[0]);
-		m.tempVH[0].attributes = attr3;
-		m.tempVH[0].pushAttributes();
-		m.tempVH[0].next();                 // (dao)
-		copyOTri(m.tempVH[0], m.tempVH[1]);     // (dao)
-		int attr1 = m.tempVH[1].attributes;
-		m.tempVH[0].sym();                  // a1 = (ad*)
-		m.tempVH[2].VHglue(m.tempVH[0]);
-		m.tempVH[2].attributes = attr1;
-		m.tempVH[2].pushAttributes();
-		m.tempVH[2].next();                 // (ond)
-		m.tempVH[2].VHglue(m.tempVH[1]);
+		tempVH[1].next();                 // (ond)
+		int attr3 = tempVH[1].attributes;
+		tempVH[1].sym();                  // a3 = (no*)
+		tempVH[1].VHglue(tempVH[0]);
+		tempVH[0].attributes = attr3;
+		tempVH[0].pushAttributes();
+		tempVH[0].next();                 // (dao)
+		copyOTri(tempVH[0], tempVH[1]);     // (dao)
+		int attr1 = tempVH[1].attributes;
+		tempVH[0].sym();                  // a1 = (ad*)
+		tempVH[2].VHglue(tempVH[0]);
+		tempVH[2].attributes = attr1;
+		tempVH[2].pushAttributes();
+		tempVH[2].next();                 // (ond)
+		tempVH[2].VHglue(tempVH[1]);
 		//  Mark new edge
-		m.tempVH[1].attributes = 0;
-		m.tempVH[2].attributes = 0;
-		m.tempVH[1].setAttributes(SWAPPED);
-		m.tempVH[2].setAttributes(SWAPPED);
+		tempVH[1].attributes = 0;
+		tempVH[2].attributes = 0;
+		tempVH[1].setAttributes(SWAPPED);
+		tempVH[2].setAttributes(SWAPPED);
 		//  Adjust vertices
-		m.tempVH[2].setOrigin(a);           // (and)
-		m.tempVH[1].setOrigin(n);           // (nao)
+		tempVH[2].setOrigin(a);           // (and)
+		tempVH[1].setOrigin(n);           // (nao)
 		//  Fix links to triangles
-		replaceVertexLinks(o, tri, m.tempVH[2].tri, tri);
-		replaceVertexLinks(d, tri, m.tempVH[2].tri, m.tempVH[2].tri);
+		replaceVertexLinks(o, tri, tempVH[2].tri, tri);
+		replaceVertexLinks(d, tri, tempVH[2].tri, tempVH[2].tri);
 		pullAttributes();
 	}
 	
@@ -792,18 +794,19 @@ public class VirtualHalfEdge extends AbstractHalfEdge
 	@Override
 	final boolean checkNewRingNormals(Mesh m, double [] newpt)
 	{
+		VirtualHalfEdge [] tempVH = m.getTempVH();
 		Vertex o = origin();
 		if (o.isManifold())
 			return checkNewRingNormalsSameFan(m, newpt, null, null);
 		for (Triangle start: (Triangle []) o.getLink())
 		{
-			m.tempVH[1].bind((TriangleVH) start);
-			if (m.tempVH[1].destination() == o)
-				m.tempVH[1].next();
-			else if (m.tempVH[1].apex() == o)
-				m.tempVH[1].prev();
-			assert m.tempVH[1].origin() == o;
-			if (!m.tempVH[1].checkNewRingNormalsSameFan(m, newpt, null, null))
+			tempVH[1].bind((TriangleVH) start);
+			if (tempVH[1].destination() == o)
+				tempVH[1].next();
+			else if (tempVH[1].apex() == o)
+				tempVH[1].prev();
+			assert tempVH[1].origin() == o;
+			if (!tempVH[1].checkNewRingNormalsSameFan(m, newpt, null, null))
 				return false;
 		}
 		return true;
@@ -819,17 +822,18 @@ public class VirtualHalfEdge extends AbstractHalfEdge
 	 */
 	private boolean checkNewRingNormalsSameFan(Mesh m, double [] newpt, TriangleVH t1, TriangleVH t2)
 	{
+		VirtualHalfEdge [] tempVH = m.getTempVH();
 		Vertex d = destination();
-		copyOTri(this, m.tempVH[0]);
+		copyOTri(this, tempVH[0]);
 		do
 		{
-			if (m.tempVH[0].tri != t1 && m.tempVH[0].tri != t2 && !m.tempVH[0].hasAttributes(OUTER))
+			if (tempVH[0].tri != t1 && tempVH[0].tri != t2 && !tempVH[0].hasAttributes(OUTER))
 			{
-				double [] x1 = m.tempVH[0].destination().getUV();
-				m.tempVH[0].next();
-				double area  = m.tempVH[0].computeNormal3DT();
-				double [] nu = m.tempVH[0].getTempVector();
-				m.tempVH[0].prev();
+				double [] x1 = tempVH[0].destination().getUV();
+				tempVH[0].next();
+				double area  = tempVH[0].computeNormal3DT();
+				double [] nu = tempVH[0].getTempVector();
+				tempVH[0].prev();
 				for (int i = 0; i < 3; i++)
 					tempD1[i] = newpt[i] - x1[i];
 				// Two triangles are removed when an edge is contracted.
@@ -838,9 +842,9 @@ public class VirtualHalfEdge extends AbstractHalfEdge
 				if (Matrix3D.prodSca(tempD1, nu) >= - area)
 					return false;
 			}
-			m.tempVH[0].nextOriginLoop();
+			tempVH[0].nextOriginLoop();
 		}
-		while (m.tempVH[0].destination() != d);
+		while (tempVH[0].destination() != d);
 		return true;
 	}
 	
@@ -855,6 +859,7 @@ public class VirtualHalfEdge extends AbstractHalfEdge
 	@Override
 	final boolean canCollapse(Mesh m, Vertex n)
 	{
+		VirtualHalfEdge [] tempVH = m.getTempVH();
 		// Be consistent with collapse()
 		if (hasAttributes(OUTER))
 			return false;
@@ -867,13 +872,13 @@ public class VirtualHalfEdge extends AbstractHalfEdge
 			// case, do not create an HashSet to store only two
 			// triangles.
 			TriangleVH t1 = tri;
-			symOTri(this, m.tempVH[1]);
-			TriangleVH t2 = m.tempVH[1].tri;
+			symOTri(this, tempVH[1]);
+			TriangleVH t2 = tempVH[1].tri;
 			// Check that origin vertex can be moved
 			if (!checkNewRingNormalsSameFan(m, xn, t1, t2))
 				return false;
 			// Check that destination vertex can be moved
-			if (!m.tempVH[1].checkNewRingNormalsSameFan(m, xn, t1, t2))
+			if (!tempVH[1].checkNewRingNormalsSameFan(m, xn, t1, t2))
 				return false;
 			//  Topology check.
 			return canCollapseTopology(m);
@@ -887,16 +892,16 @@ public class VirtualHalfEdge extends AbstractHalfEdge
 		{
 			VirtualHalfEdge f = (VirtualHalfEdge) it.next();
 			ignored.add(f.tri);
-			symOTri(f, m.tempVH[1]);
-			ignored.add(m.tempVH[1].tri);
+			symOTri(f, tempVH[1]);
+			ignored.add(tempVH[1].tri);
 		}
 		
 		// Check that origin vertex can be moved
 		if (!checkNewRingNormalsNonManifoldVertex(m, xn, ignored))
 			return false;
 		// Check that destination vertex can be moved
-		symOTri(this, m.tempVH[2]);
-		if (!m.tempVH[2].checkNewRingNormalsNonManifoldVertex(m, xn, ignored))
+		symOTri(this, tempVH[2]);
+		if (!tempVH[2].checkNewRingNormalsNonManifoldVertex(m, xn, ignored))
 			return false;
 		ignored.clear();
 
@@ -918,18 +923,19 @@ public class VirtualHalfEdge extends AbstractHalfEdge
 	 */
 	private boolean checkNewRingNormalsNonManifoldVertex(Mesh m, double [] newpt, Collection<TriangleVH> ignored)
 	{
+		VirtualHalfEdge [] tempVH = m.getTempVH();
 		Vertex o = origin();
 		if (o.isManifold())
 			return checkNewRingNormalsSameFanNonManifoldVertex(m, newpt, ignored);
 		for (Triangle start: (Triangle []) o.getLink())
 		{
-			m.tempVH[1].bind((TriangleVH) start);
-			if (m.tempVH[1].destination() == o)
-				m.tempVH[1].next();
-			else if (m.tempVH[1].apex() == o)
-				m.tempVH[1].prev();
-			assert m.tempVH[1].origin() == o;
-			if (!m.tempVH[1].checkNewRingNormalsSameFanNonManifoldVertex(m, newpt, ignored))
+			tempVH[1].bind((TriangleVH) start);
+			if (tempVH[1].destination() == o)
+				tempVH[1].next();
+			else if (tempVH[1].apex() == o)
+				tempVH[1].prev();
+			assert tempVH[1].origin() == o;
+			if (!tempVH[1].checkNewRingNormalsSameFanNonManifoldVertex(m, newpt, ignored))
 				return false;
 		}
 		return true;
@@ -939,19 +945,20 @@ public class VirtualHalfEdge extends AbstractHalfEdge
 	 */
 	private boolean checkNewRingNormalsSameFanNonManifoldVertex(Mesh m, double [] newpt, Collection<TriangleVH> ignored)
 	{
+		VirtualHalfEdge [] tempVH = m.getTempVH();
 		// Loop around origin.  We need to copy current instance
-		// into m.tempVH[0] because loop may be interrupted.
-		copyOTri(this, m.tempVH[0]);
+		// into tempVH[0] because loop may be interrupted.
+		copyOTri(this, tempVH[0]);
 		Vertex d = destination();
 		do
 		{
-			if (!ignored.contains(m.tempVH[0].tri) && !m.tempVH[0].hasAttributes(OUTER))
+			if (!ignored.contains(tempVH[0].tri) && !tempVH[0].hasAttributes(OUTER))
 			{
-				double [] x1 = m.tempVH[0].destination().getUV();
-				m.tempVH[0].next();
-				double area  = m.tempVH[0].computeNormal3DT();
-				double [] nu = m.tempVH[0].getTempVector();
-				m.tempVH[0].prev();
+				double [] x1 = tempVH[0].destination().getUV();
+				tempVH[0].next();
+				double area  = tempVH[0].computeNormal3DT();
+				double [] nu = tempVH[0].getTempVector();
+				tempVH[0].prev();
 				for (int i = 0; i < 3; i++)
 					tempD1[i] = newpt[i] - x1[i];
 				// Two triangles are removed when an edge is contracted.
@@ -960,9 +967,9 @@ public class VirtualHalfEdge extends AbstractHalfEdge
 				if (Matrix3D.prodSca(tempD1, nu) >= - area)
 					return false;
 			}
-			m.tempVH[0].nextOriginLoop();
+			tempVH[0].nextOriginLoop();
 		}
-		while (m.tempVH[0].destination() != d);
+		while (tempVH[0].destination() != d);
 		return true;
 	}
 	
@@ -970,39 +977,47 @@ public class VirtualHalfEdge extends AbstractHalfEdge
 	 * Topology check.
 	 * See in AbstractHalfEdgeTest.buildMeshTopo() why this
 	 * check is needed.
-	 * Warning: this method uses m.tempVH[0] temporary array.
+	 * Warning: this method uses m.tempVH[0] and m.tempVH[3] temporary arrays.
 	 */
 	private boolean canCollapseTopology(Mesh m)
 	{
-		Collection<Vertex> neighbours = new HashSet<Vertex>();
-		// We need to copy current instance into m.tempVH[0]
-		// because second loop may be interrupted.
-		copyOTri(this, m.tempVH[0]);
-		Vertex d = m.tempVH[0].destination();
-		do
-		{
-			// Warning: mesh.outerVertex is intentionnally not filtered out
-			neighbours.add(m.tempVH[0].destination());
-			m.tempVH[0].nextOriginLoop();
-		}
-		while (m.tempVH[0].destination() != d);
-		m.tempVH[0].sym();
+		VirtualHalfEdge [] tempVH = m.getTempVH();
+		// Vertices around destination are searched in the ring of
+		// origin; valences are small, so this is faster than filling
+		// a set.
+		symOTri(this, tempVH[0]);
+		Vertex d = tempVH[0].destination();
 		int cnt = 0;
-		d = m.tempVH[0].destination();
 		do
 		{
 			// Warning: mesh.outerVertex is intentionnally not filtered out
-			if (neighbours.contains(m.tempVH[0].destination()))
+			if (isOriginNeighbour(tempVH[0].destination(), tempVH[3]))
 			{
 				if (cnt > 1)
 					return false;
 				cnt++;
 			}
-			m.tempVH[0].nextOriginLoop();
+			tempVH[0].nextOriginLoop();
 		}
-		while (m.tempVH[0].destination() != d);
+		while (tempVH[0].destination() != d);
 		return true;
 	}
+
+	// Tells whether v is the destination of an edge of the fan of origin,
+	// work is overwritten
+	private boolean isOriginNeighbour(Vertex v, VirtualHalfEdge work)
+	{
+		copyOTri(this, work);
+		Vertex d = work.destination();
+		do
+		{
+			if (work.destination() == v)
+				return true;
+			work.nextOriginLoop();
+		}
+		while (work.destination() != d);
+		return false;
+	}
 	
 	/**
 	 * Contracts an edge.
@@ -1018,6 +1033,7 @@ public class VirtualHalfEdge extends AbstractHalfEdge
 	@Override
 	final VirtualHalfEdge collapse(Mesh m, Vertex v)
 	{
+		VirtualHalfEdge [] tempVH = m.getTempVH();
 		if (hasAttributes(OUTER))
 			throw new IllegalArgumentException("Cannot contract "+this);
 		Vertex o = origin();
@@ -1031,9 +1047,9 @@ public class VirtualHalfEdge extends AbstractHalfEdge
 		else
 			replaceEndpointsNonManifold(m, o, v);
 		//  Replace d by n in all incident triangles
-		symOTri(this, m.tempVH[2]);
+		symOTri(this, tempVH[2]);
 		if (d.isManifold())
-			m.tempVH[2].replaceEndpointsSameFan(v);
+			tempVH[2].replaceEndpointsSameFan(v);
 		else
 			replaceEndpointsNonManifold(m, d, v);
 		//  Set v links
@@ -1048,11 +1064,11 @@ public class VirtualHalfEdge extends AbstractHalfEdge
 		}
 		if (!hasAttributes(NONMANIFOLD))
 		{
-			m.tempVH[2].VHcollapseSameFan(m, v);
+			tempVH[2].VHcollapseSameFan(m, v);
 			return VHcollapseSameFan(m, v);
 		}
 		// Edge is non-manifold
-		assert m.tempVH[2].hasAttributes(OUTER);
+		assert tempVH[2].hasAttributes(OUTER);
 		// VHcollapseSameFan may modify internal data structure
 		// used by fanIterator(), we need a copy.
 		Map<TriangleVH, Integer> copy = new LinkedHashMap<TriangleVH, Integer>();
@@ -1067,17 +1083,17 @@ public class VirtualHalfEdge extends AbstractHalfEdge
 		{
 			TriangleVH t = entry.getKey();
 			int l = entry.getValue().intValue();
-			m.tempVH[2].bind(t, l);
-			assert !m.tempVH[2].hasAttributes(OUTER);
-			m.tempVH[2].sym();
-			assert m.tempVH[2].hasAttributes(OUTER);
-			m.tempVH[2].VHcollapseSameFan(m, v);
-			m.tempVH[2].bind(t, l);
-			m.tempVH[2].VHcollapseSameFan(m, v);
+			tempVH[2].bind(t, l);
+			assert !tempVH[2].hasAttributes(OUTER);
+			tempVH[2].sym();
+			assert tempVH[2].hasAttributes(OUTER);
+			tempVH[2].VHcollapseSameFan(m, v);
+			tempVH[2].bind(t, l);
+			tempVH[2].VHcollapseSameFan(m, v);
 			if (t == tri)
 			{
-				ret = m.tempVH[0].tri;
-				num = m.tempVH[0].localNumber;
+				ret = tempVH[0].tri;
+				num = tempVH[0].localNumber;
 			}
 		}
 		assert ret != null;
@@ -1090,6 +1106,7 @@ public class VirtualHalfEdge extends AbstractHalfEdge
 	 */
 	private VirtualHalfEdge VHcollapseSameFan(Mesh m, Vertex n)
 	{
+		VirtualHalfEdge [] tempVH = m.getTempVH();
 		/*
 		 *           V1                       V1
 		 *  V3+-------+-------+ V4   V3 +------+------+ V4
@@ -1109,20 +1126,20 @@ public class VirtualHalfEdge extends AbstractHalfEdge
 		//  written instead of n.
 		next();                         // (dV1o)
 		int attr4 = attributes;
-		VirtualHalfEdge vh4 = (hasSymmetricEdge() ? m.tempVH[0] : null);
+		VirtualHalfEdge vh4 = (hasSymmetricEdge() ? tempVH[0] : null);
 		if (vh4 != null)
 			symOTri(this, vh4);     // (V1dV4)
 		next();                         // (V1od)
 		int attr3 = attributes;
-		VirtualHalfEdge vh3 = (hasSymmetricEdge() ? m.tempVH[1] : null);
+		VirtualHalfEdge vh3 = (hasSymmetricEdge() ? tempVH[1] : null);
 		if (vh3 != null)
 			symOTri(this, vh3);     // (oV1V3)
 		if (!hasAttributes(OUTER))
 		{
-			TriangleVH t34 = m.tempVH[1].tri;
+			TriangleVH t34 = tempVH[1].tri;
 			if (t34.hasAttributes(OUTER))
-				t34 = m.tempVH[0].tri;
-			assert !t34.hasAttributes(OUTER) : m.tempVH[0]+"\n"+m.tempVH[1];
+				t34 = tempVH[0].tri;
+			assert !t34.hasAttributes(OUTER) : tempVH[0]+"\n"+tempVH[1];
 			// Update links of V1 and n
 			replaceVertexLinks(origin(), tri, t34);
 			replaceVertexLinks(n, tri, t34);
@@ -1168,16 +1185,17 @@ public class VirtualHalfEdge extends AbstractHalfEdge
 	 */
 	private static void replaceEndpointsNonManifold(Mesh m, Vertex o, Vertex n)
 	{
+		VirtualHalfEdge [] tempVH = m.getTempVH();
 		Triangle [] oList = (Triangle []) o.getLink();
 		for (Triangle t: oList)
 		{
-			m.tempVH[0].bind((TriangleVH) t);
-			if (m.tempVH[0].destination() == o)
-				m.tempVH[0].next();
-			else if (m.tempVH[0].apex() == o)
-				m.tempVH[0].prev();
-			assert m.tempVH[0].origin() == o : ""+o+" not in "+m.tempVH[0];
-			m.tempVH[0].replaceEndpointsSameFan(n);
+			tempVH[0].bind((TriangleVH) t);
+			if (tempVH[0].destination() == o)
+				tempVH[0].next();
+			else if (tempVH[0].apex() == o)
+				tempVH[0].prev();
+			assert tempVH[0].origin() == o : ""+o+" not in "+tempVH[0];
+			tempVH[0].replaceEndpointsSameFan(n);
 		}
 	}
 	private static void replaceVertexLinks(Vertex o, TriangleVH oldT1, TriangleVH oldT2, TriangleVH newT)
@@ -1220,6 +1238,7 @@ public class VirtualHalfEdge extends AbstractHalfEdge
 	 */
 	private static void deepCopyVertexLinks(Mesh m, Vertex o, Vertex d, Vertex v)
 	{
+		VirtualHalfEdge [] tempVH = m.getTempVH();
 		boolean ot = o.isManifold();
 		boolean dt = d.isManifold();
 		//  Prepare vertex links first
@@ -1258,76 +1277,76 @@ public class VirtualHalfEdge extends AbstractHalfEdge
 				if (!allTriangles.contains(t))
 					res.add(t);
 				allTriangles.add(t);
-				m.tempVH[0].bind((TriangleVH) t);
-				if (m.tempVH[0].origin() != v)
-					m.tempVH[0].next();
-				if (m.tempVH[0].origin() != v)
-					m.tempVH[0].next();
-				if (m.tempVH[0].origin() == v)
+				tempVH[0].bind((TriangleVH) t);
+				if (tempVH[0].origin() != v)
+					tempVH[0].next();
+				if (tempVH[0].origin() != v)
+					tempVH[0].next();
+				if (tempVH[0].origin() == v)
 				{
 					// Add all triangles of the same fan to allTriangles
 					boolean found = false;
-					Vertex end = m.tempVH[0].destination();
+					Vertex end = tempVH[0].destination();
 					do
 					{
-						m.tempVH[0].nextOriginLoop();
-						allTriangles.add(m.tempVH[0].tri);
-						if (m.tempVH[0].destination() == v)
+						tempVH[0].nextOriginLoop();
+						allTriangles.add(tempVH[0].tri);
+						if (tempVH[0].destination() == v)
 						{
 							found = true;
-							copyOTri(m.tempVH[0], m.tempVH[1]);
+							copyOTri(tempVH[0], tempVH[1]);
 						}
 					}
-					while (m.tempVH[0].destination() != end);
+					while (tempVH[0].destination() != end);
 					if (found)
 					{
-						m.tempVH[1].next();
-						end = m.tempVH[1].destination();
+						tempVH[1].next();
+						end = tempVH[1].destination();
 						do
 						{
-							m.tempVH[1].nextOriginLoop();
-							allTriangles.add(m.tempVH[1].tri);
+							tempVH[1].nextOriginLoop();
+							allTriangles.add(tempVH[1].tri);
 						}
-						while (m.tempVH[1].destination() != end);
+						while (tempVH[1].destination() != end);
 					}
 				}
 				boolean found = false;
-				if (m.tempVH[0].destination() == v)
+				if (tempVH[0].destination() == v)
 				{
 					found = true;
-					m.tempVH[0].next();
+					tempVH[0].next();
 				}
-				else if (m.tempVH[0].apex() == v)
+				else if (tempVH[0].apex() == v)
 				{
 					found = true;
-					m.tempVH[0].prev();
+					tempVH[0].prev();
 				}
 				if (found)
 				{
 					// Add all triangles of the same fan to allTriangles
 					found = false;
-					Vertex end = m.tempVH[0].destination();
+					Vertex end = tempVH[0].destination();
 					do
 					{
-						m.tempVH[0].nextOriginLoop();
-						allTriangles.add(m.tempVH[0].tri);
-						if (m.tempVH[0].destination() == v)
+						tempVH[0].nextOriginLoop();
+						allTriangles.add(tempVH[0].tri);
+						if (tempVH[0].destination() == v)
 						{
 							found = true;
-							copyOTri(m.tempVH[0], m.tempVH[1]);
+							copyOTri(tempVH[0], tempVH[1]);
 						}
 					}
-					while (m.tempVH[0].destination() != end);
+					while (tempVH[0].destination() != end);
 					if (found)
 					{
-						m.tempVH[1].next();
-						end = m.tempVH[1].destination();
+						tempVH[1].next();
+						end = tempVH[1].destination();
 						do
 						{
-							m.tempVH[1].nextOriginLoop();
-							allTriangles.add(m.tempVH[1].tri);
+							tempVH[1].nextOriginLoop();
+							allTriangles.add(tempVH[1].tri);
 						}
-						while (m.tempVH[1].destination() != end);
+						while (tempVH[1].destination() != end);
 					}
 				}
 			}
@@ -1347,6 +1366,7 @@ public class VirtualHalfEdge extends AbstractHalfEdge
 	@Override
 	final VirtualHalfEdge split(Mesh m, Vertex v)
 	{
+		VirtualHalfEdge [] tempVH = m.getTempVH();
 		if (logger.isLoggable(Level.FINE))
 			logger.fine("split edge ("+origin()+" "+destination()+") by adding vertex "+v);
 		if (m.hasNodes())
@@ -1362,13 +1382,13 @@ public class VirtualHalfEdge extends AbstractHalfEdge
 		{
 			v.setLink(tri);
 			VHsplitSameFan(m, v);
-			if (m.tempVH[1].hasAttributes(OUTER))
+			if (tempVH[1].hasAttributes(OUTER))
 			{
 				// Remove links between t2 and t4
-				m.tempVH[1].next();                 // (nV2d)
-				symOTri(m.tempVH[1], m.tempVH[3]);      // (V2no)
-				m.tempVH[1].setAdj(null);
-				m.tempVH[3].setAdj(null);
+				tempVH[1].next();                 // (nV2d)
+				symOTri(tempVH[1], tempVH[3]);      // (V2no)
+				tempVH[1].setAdj(null);
+				tempVH[3].setAdj(null);
 			}
 			return this;
 		}
@@ -1399,17 +1419,17 @@ public class VirtualHalfEdge extends AbstractHalfEdge
 		{
 			TriangleVH t = entry.getKey();
 			int l = entry.getValue().intValue();
-			m.tempVH[3].bind(t, l);
-			m.tempVH[3].VHsplitSameFan(m, v);
-			if (m.tempVH[3].origin() == o)
+			tempVH[3].bind(t, l);
+			tempVH[3].VHsplitSameFan(m, v);
+			if (tempVH[3].origin() == o)
 			{
-				symOTri(m.tempVH[3], hOuter[2*cnt]);
-				copyOTri(m.tempVH[1], hOuter[2*cnt+1]);
+				symOTri(tempVH[3], hOuter[2*cnt]);
+				copyOTri(tempVH[1], hOuter[2*cnt+1]);
 			}
 			else
 			{
-				copyOTri(m.tempVH[1], hOuter[2*cnt]);
-				symOTri(m.tempVH[3], hOuter[2*cnt+1]);
+				copyOTri(tempVH[1], hOuter[2*cnt]);
+				symOTri(tempVH[3], hOuter[2*cnt+1]);
 			}
 			assert hOuter[2*cnt].origin() == o || hOuter[2*cnt].destination() == o;
 			cnt++;
@@ -1417,18 +1437,18 @@ public class VirtualHalfEdge extends AbstractHalfEdge
 		for (int j = 0; j < 2; j++)
 		{
 			// Initializes an empty cycle
-			nextOTri(hOuter[j], m.tempVH[3]);
-			nextOTri(m.tempVH[3], m.tempVH[0]);
-			m.tempVH[3].VHglue(m.tempVH[0]);
+			nextOTri(hOuter[j], tempVH[3]);
+			nextOTri(tempVH[3], tempVH[0]);
+			tempVH[3].VHglue(tempVH[0]);
 			for (int i = 1; i < cnt; i++)
 			{
-				// Store old sym into m.tempVH[0]
-				symOTri(m.tempVH[3], m.tempVH[0]);
+				// Store old sym into tempVH[0]
+				symOTri(tempVH[3], tempVH[0]);
 				// Adds hOuter[2*i+j] to current cycle
-				prevOTri(hOuter[2*i+j], m.tempVH[2]);
-				m.tempVH[3].VHglue(m.tempVH[2]);
-				m.tempVH[2].prev();
-				m.tempVH[2].VHglue(m.tempVH[0]);
+				prevOTri(hOuter[2*i+j], tempVH[2]);
+				tempVH[3].VHglue(tempVH[2]);
+				tempVH[2].prev();
+				tempVH[2].VHglue(tempVH[0]);
 			}
 		}
 		return this;
@@ -1439,6 +1459,7 @@ public class VirtualHalfEdge extends AbstractHalfEdge
 	 */
 	private void VHsplitSameFan(Mesh m, Vertex n)
 	{
+		VirtualHalfEdge [] tempVH = m.getTempVH();
 		if (hasAttributes(OUTER))
 			throw new IllegalArgumentException("Cannot split "+this);
 
@@ -1458,32 +1479,32 @@ public class VirtualHalfEdge extends AbstractHalfEdge
 		 *            V2                             V2
 		 */
 		splitVertexAddOneTriangle(m, n);
-		symOTri(this, m.tempVH[0]);
-		m.tempVH[0].splitVertexAddOneTriangle(m, n);
+		symOTri(this, tempVH[0]);
+		tempVH[0].splitVertexAddOneTriangle(m, n);
 		
 		// Now we must update links:
 		// Link together t1/t4 and t2/t3.
 		TriangleVH t1 = tri;
-		nextOTri(this, m.tempVH[0]);        // (nV1o)
-		m.tempVH[0].sym();                  // (V1nd)
-		m.tempVH[0].next();                 // (ndV1)
-		TriangleVH t3 = m.tempVH[0].tri;
+		nextOTri(this, tempVH[0]);        // (nV1o)
+		tempVH[0].sym();                  // (V1nd)
+		tempVH[0].next();                 // (ndV1)
+		TriangleVH t3 = tempVH[0].tri;
 
-		symOTri(this, m.tempVH[1]);         // (dnV2)
-		m.tempVH[0].VHglue(m.tempVH[1]);
-		TriangleVH t2 = m.tempVH[1].tri;
-		m.tempVH[1].next();                 // (nV2d)
-		symOTri(m.tempVH[1], m.tempVH[0]);      // (V2no)
-		m.tempVH[0].next();                 // (noV2)
-		VHglue(m.tempVH[0]);
-		TriangleVH t4 = m.tempVH[0].tri;
-		m.tempVH[1].prev();                 // (dnV2)
+		symOTri(this, tempVH[1]);         // (dnV2)
+		tempVH[0].VHglue(tempVH[1]);
+		TriangleVH t2 = tempVH[1].tri;
+		tempVH[1].next();                 // (nV2d)
+		symOTri(tempVH[1], tempVH[0]);      // (V2no)
+		tempVH[0].next();                 // (noV2)
+		VHglue(tempVH[0]);
+		TriangleVH t4 = tempVH[0].tri;
+		tempVH[1].prev();                 // (dnV2)
 
 		TriangleVH t14 = (t1.hasAttributes(OUTER) ? t4 : t1);
 		TriangleVH t23 = (t2.hasAttributes(OUTER) ? t3 : t2);
 		//  Update vertex links
 		replaceVertexLinks(n, t1, t2, t14);
-		replaceVertexLinks(m.tempVH[1].origin(), t1, t2, t23);
+		replaceVertexLinks(tempVH[1].origin(), t1, t2, t23);
 		replaceVertexLinks(origin(), t1, t2, t14);
 	}
 	
@@ -1492,6 +1513,7 @@ public class VirtualHalfEdge extends AbstractHalfEdge
 	 */
 	private void splitVertexAddOneTriangle(Mesh m, Vertex n)
 	{
+		VirtualHalfEdge [] tempVH = m.getTempVH();
 		/*
 		 *            V1                             V1
 		 *            /'\                            /|\
@@ -1507,29 +1529,29 @@ public class VirtualHalfEdge extends AbstractHalfEdge
 		
 		if (!hasAttributes(OUTER))
 		{
-			nextOTri(this, m.tempVH[2]);                // (dV1o)
-			symOTri(m.tempVH[2], m.tempVH[1]);              // (V1d*)
-			m.tempVH[2].bind(t3, m.tempVH[2].localNumber);  // (dV1n)
-			m.tempVH[1].VHglue(m.tempVH[2]);
+			nextOTri(this, tempVH[2]);                // (dV1o)
+			symOTri(tempVH[2], tempVH[1]);              // (V1d*)
+			tempVH[2].bind(t3, tempVH[2].localNumber);  // (dV1n)
+			tempVH[1].VHglue(tempVH[2]);
 		}
 
 		next();                         // (nV1o)
-		m.tempVH[1].bind(t3, localNumber);  // (dV1n)
+		tempVH[1].bind(t3, localNumber);  // (dV1n)
 
 		// Update Triangle links
 		tri = t1;
-		m.tempVH[1].tri = t3;
+		tempVH[1].tri = t3;
 
 		// Update vertices
 		setOrigin(n);
-		m.tempVH[1].setApex(n);
+		tempVH[1].setApex(n);
 
 		// Inner edge
-		m.tempVH[1].next();                 // (V1nd)
-		VHglue(m.tempVH[1]);
+		tempVH[1].next();                 // (V1nd)
+		VHglue(tempVH[1]);
 
 		// Clear BOUNDARY and NONMANIFOLD flags on inner edges
-		m.tempVH[1].clearAttributes(BOUNDARY | NONMANIFOLD);
+		tempVH[1].clearAttributes(BOUNDARY | NONMANIFOLD);
 		clearAttributes(BOUNDARY | NONMANIFOLD);
 		prev();                         // (onV1)
 	}
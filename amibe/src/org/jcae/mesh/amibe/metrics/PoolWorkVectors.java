@@ -33,4 +33,5 @@ public class PoolWorkVectors
 	public final double [] t9 = new double[9];
 	public final double [][] tt32 = new double[3][2];
 	public final double [][] tt22 = new double[2][2];
+	public final Predicates.Fan fan = new Predicates.Fan();
 }
@@ -0,0 +1,612 @@
+/* jCAE stand for Java Computer Aided Engineering. Features are : Small CAD
+   modeler, Finite element mesher, Plugin architecture.
+
+    Copyright (C) 2012, by EADS France
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA */
+
+package org.jcae.mesh.amibe.metrics;
+
+/**
+ * Robust geometric predicates on double coordinates.
+ *
+ * <p>
+ * Each predicate returns a value whose sign is exact.  Determinants are
+ * first evaluated with plain floating-point arithmetic, and their result
+ * is returned if it is larger than an upper bound of the rounding error.
+ * Otherwise they are computed again with exact arithmetic on expansions,
+ * as described by Jonathan Richard Shewchuk in
+ * <a href="http://www.cs.cmu.edu/~quake/robust.html">Adaptive Precision
+ * Floating-Point Arithmetic and Fast Robust Geometric Predicates</a>.
+ * The exact stage is much slower, but it is seldom needed.
+ * </p>
+ *
+ * <p>
+ * {@link Fan} checks all triangles of vertex fans at once, this is how
+ * {@link org.jcae.mesh.amibe.ds.HalfEdge} checks edge collapses and vertex
+ * moves.
+ * </p>
+ */
+public final class Predicates
+{
+	// 2^-53, half of the distance between 1.0 and the next double
+	private static final double EPSILON = 1.1102230246251565E-16;
+	// 2^27+1, used to split a double into two 26-bit halves
+	private static final double SPLITTER = 134217729.0;
+	private static final double CCW_ERRBOUND = (3.0 + 16.0 * EPSILON) * EPSILON;
+	private static final double O3D_ERRBOUND = (7.0 + 56.0 * EPSILON) * EPSILON;
+	private static final double ISP_ERRBOUND = (16.0 + 224.0 * EPSILON) * EPSILON;
+	// moveOrientation has 10 rounding errors along its longest path,
+	// this bound is very conservative.
+	private static final double MOVE_ERRBOUND = (32.0 + 512.0 * EPSILON) * EPSILON;
+
+	private Predicates()
+	{
+	}
+
+	/**
+	 * Tells on which side of line <code>(pa,pb)</code> lies point
+	 * <code>pc</code>, only first two coordinates are used.
+	 *
+	 * @return a positive value if <code>(pa,pb,pc)</code> is in
+	 *   counterclockwise order, a negative value if it is in clockwise
+	 *   order, and zero if points are collinear
+	 */
+	public static double orient2d(double [] pa, double [] pb, double [] pc)
+	{
+		return orient2d(pa, pb, pc, 0, 1);
+	}
+
+	// orient2d on coordinates i and j
+	private static double orient2d(double [] pa, double [] pb, double [] pc, int i, int j)
+	{
+		double detleft = (pa[i] - pc[i]) * (pb[j] - pc[j]);
+		double detright = (pa[j] - pc[j]) * (pb[i] - pc[i]);
+		double det = detleft - detright;
+		double errbound = CCW_ERRBOUND * (Math.abs(detleft) + Math.abs(detright));
+		if (det > errbound || -det > errbound)
+			return det;
+		return estimate(sub(
+			mul(diff(pa[i], pc[i]), diff(pb[j], pc[j])),
+			mul(diff(pa[j], pc[j]), diff(pb[i], pc[i]))));
+	}
+
+	/**
+	 * Tells whether three points are collinear.
+	 *
+	 * @return <code>true</code> if points are collinear or coincident,
+	 *   <code>false</code> otherwise
+	 */
+	public static boolean isDegenerate(double [] pa, double [] pb, double [] pc)
+	{
+		return orient2d(pa, pb, pc, 0, 1) == 0.0 &&
+			orient2d(pa, pb, pc, 1, 2) == 0.0 &&
+			orient2d(pa, pb, pc, 2, 0) == 0.0;
+	}
+
+	/**
+	 * Tells on which side of plane <code>(pa,pb,pc)</code> lies point
+	 * <code>pd</code>.
+	 *
+	 * @return a positive value if <code>pd</code> lies below the plane
+	 *   passing through <code>pa</code>, <code>pb</code> and
+	 *   <code>pc</code>, which appear in counterclockwise order when
+	 *   seen from above the plane, a negative value if <code>pd</code>
+	 *   lies above this plane, and zero if points are coplanar
+	 */
+	public static double orient3d(double [] pa, double [] pb, double [] pc, double [] pd)
+	{
+		double adx = pa[0] - pd[0];
+		double bdx = pb[0] - pd[0];
+		double cdx = pc[0] - pd[0];
+		double ady = pa[1] - pd[1];
+		double bdy = pb[1] - pd[1];
+		double cdy = pc[1] - pd[1];
+		double adz = pa[2] - pd[2];
+		double bdz = pb[2] - pd[2];
+		double cdz = pc[2] - pd[2];
+
+		double bdxcdy = bdx * cdy;
+		double cdxbdy = cdx * bdy;
+		double cdxady = cdx * ady;
+		double adxcdy = adx * cdy;
+		double adxbdy = adx * bdy;
+		double bdxady = bdx * ady;
+		double det = adz * (bdxcdy - cdxbdy) + bdz * (cdxady - adxcdy) + cdz * (adxbdy - bdxady);
+		double permanent =
+			(Math.abs(bdxcdy) + Math.abs(cdxbdy)) * Math.abs(adz) +
+			(Math.abs(cdxady) + Math.abs(adxcdy)) * Math.abs(bdz) +
+			(Math.abs(adxbdy) + Math.abs(bdxady)) * Math.abs(cdz);
+		double errbound = O3D_ERRBOUND * permanent;
+		if (det > errbound || -det > errbound)
+			return det;
+		return orient3dExact(pa, pb, pc, pd);
+	}
+
+	private static double orient3dExact(double [] pa, double [] pb, double [] pc, double [] pd)
+	{
+		double [] adx = diff(pa[0], pd[0]);
+		double [] bdx = diff(pb[0], pd[0]);
+		double [] cdx = diff(pc[0], pd[0]);
+		double [] ady = diff(pa[1], pd[1]);
+		double [] bdy = diff(pb[1], pd[1]);
+		double [] cdy = diff(pc[1], pd[1]);
+		double [] adz = diff(pa[2], pd[2]);
+		double [] bdz = diff(pb[2], pd[2]);
+		double [] cdz = diff(pc[2], pd[2]);
+		double [] det = mul(adz, sub(mul(bdx, cdy), mul(cdx, bdy)));
+		det = sum(det, mul(bdz, sub(mul(cdx, ady), mul(adx, cdy))));
+		det = sum(det, mul(cdz, sub(mul(adx, bdy), mul(bdx, ady))));
+		return estimate(det);
+	}
+
+	/**
+	 * Tells whether point <code>pe</code> lies inside the sphere passing
+	 * through <code>pa</code>, <code>pb</code>, <code>pc</code> and
+	 * <code>pd</code>.  These four points must be ordered so that
+	 * {@link #orient3d} returns a positive value, otherwise the sign of
+	 * the result is reversed.
+	 *
+	 * @return a positive value if <code>pe</code> lies inside the sphere,
+	 *   a negative value if it lies outside, and zero if the five points
+	 *   are cospherical
+	 */
+	public static double insphere(double [] pa, double [] pb, double [] pc, double [] pd, double [] pe)
+	{
+		double aex = pa[0] - pe[0];
+		double bex = pb[0] - pe[0];
+		double cex = pc[0] - pe[0];
+		double dex = pd[0] - pe[0];
+		double aey = pa[1] - pe[1];
+		double bey = pb[1] - pe[1];
+		double cey = pc[1] - pe[1];
+		double dey = pd[1] - pe[1];
+		double aez = pa[2] - pe[2];
+		double bez = pb[2] - pe[2];
+		double cez = pc[2] - pe[2];
+		double dez = pd[2] - pe[2];
+
+		double aexbey = aex * bey;
+		double bexaey = bex * aey;
+		double ab = aexbey - bexaey;
+		double bexcey = bex * cey;
+		double cexbey = cex * bey;
+		double bc = bexcey - cexbey;
+		double cexdey = cex * dey;
+		double dexcey = dex * cey;
+		double cd = cexdey - dexcey;
+		double dexaey = dex * aey;
+		double aexdey = aex * dey;
+		double da = dexaey - aexdey;
+		double aexcey = aex * cey;
+		double cexaey = cex * aey;
+		double ac = aexcey - cexaey;
+		double bexdey = bex * dey;
+		double dexbey = dex * bey;
+		double bd = bexdey - dexbey;
+
+		double abc = aez * bc - bez * ac + cez * ab;
+		double bcd = bez * cd - cez * bd + dez * bc;
+		double cda = cez * da + dez * ac + aez * cd;
+		double dab = dez * ab + aez * bd + bez * da;
+
+		double alift = aex * aex + aey * aey + aez * aez;
+		double blift = bex * bex + bey * bey + bez * bez;
+		double clift = cex * cex + cey * cey + cez * cez;
+		double dlift = dex * dex + dey * dey + dez * dez;
+
+		double det = (dlift * abc - clift * dab) + (blift * cda - alift * bcd);
+
+		double aezplus = Math.abs(aez);
+		double bezplus = Math.abs(bez);
+		double cezplus = Math.abs(cez);
+		double dezplus = Math.abs(dez);
+		double aexbeyplus = Math.abs(aexbey);
+		double bexaeyplus = Math.abs(bexaey);
+		double bexceyplus = Math.abs(bexcey);
+		double cexbeyplus = Math.abs(cexbey);
+		double cexdeyplus = Math.abs(cexdey);
+		double dexceyplus = Math.abs(dexcey);
+		double dexaeyplus = Math.abs(dexaey);
+		double aexdeyplus = Math.abs(aexdey);
+		double aexceyplus = Math.abs(aexcey);
+		double cexaeyplus = Math.abs(cexaey);
+		double bexdeyplus = Math.abs(bexdey);
+		double dexbeyplus = Math.abs(dexbey);
+		double permanent =
+			((cexdeyplus + dexceyplus) * bezplus + (dexbeyplus + bexdeyplus) * cezplus + (bexceyplus + cexbeyplus) * dezplus) * alift +
+			((dexaeyplus + aexdeyplus) * cezplus + (aexceyplus + cexaeyplus) * dezplus + (cexdeyplus + dexceyplus) * aezplus) * blift +
+			((aexbeyplus + bexaeyplus) * dezplus + (bexdeyplus + dexbeyplus) * aezplus + (dexaeyplus + aexdeyplus) * bezplus) * clift +
+			((bexceyplus + cexbeyplus) * aezplus + (cexaeyplus + aexceyplus) * bezplus + (aexbeyplus + bexaeyplus) * cezplus) * dlift;
+		double errbound = ISP_ERRBOUND * permanent;
+		if (det > errbound || -det > errbound)
+			return det;
+		return insphereExact(pa, pb, pc, pd, pe);
+	}
+
+	private static double insphereExact(double [] pa, double [] pb, double [] pc, double [] pd, double [] pe)
+	{
+		double [] aex = diff(pa[0], pe[0]);
+		double [] bex = diff(pb[0], pe[0]);
+		double [] cex = diff(pc[0], pe[0]);
+		double [] dex = diff(pd[0], pe[0]);
+		double [] aey = diff(pa[1], pe[1]);
+		double [] bey = diff(pb[1], pe[1]);
+		double [] cey = diff(pc[1], pe[1]);
+		double [] dey = diff(pd[1], pe[1]);
+		double [] aez = diff(pa[2], pe[2]);
+		double [] bez = diff(pb[2], pe[2]);
+		double [] cez = diff(pc[2], pe[2]);
+		double [] dez = diff(pd[2], pe[2]);
+
+		double [] ab = sub(mul(aex, bey), mul(bex, aey));
+		double [] bc = sub(mul(bex, cey), mul(cex, bey));
+		double [] cd = sub(mul(cex, dey), mul(dex, cey));
+		double [] da = sub(mul(dex, aey), mul(aex, dey));
+		double [] ac = sub(mul(aex, cey), mul(cex, aey));
+		double [] bd = sub(mul(bex, dey), mul(dex, bey));
+
+		double [] abc = sum(sub(mul(aez, bc), mul(bez, ac)), mul(cez, ab));
+		double [] bcd = sum(sub(mul(bez, cd), mul(cez, bd)), mul(dez, bc));
+		double [] cda = sum(sum(mul(cez, da), mul(dez, ac)), mul(aez, cd));
+		double [] dab = sum(sum(mul(dez, ab), mul(aez, bd)), mul(bez, da));
+
+		double [] alift = sum(sum(mul(aex, aex), mul(aey, aey)), mul(aez, aez));
+		double [] blift = sum(sum(mul(bex, bex), mul(bey, bey)), mul(bez, bez));
+		double [] clift = sum(sum(mul(cex, cex), mul(cey, cey)), mul(cez, cez));
+		double [] dlift = sum(sum(mul(dex, dex), mul(dey, dey)), mul(dez, dez));
+
+		return estimate(sum(
+			sub(mul(dlift, abc), mul(clift, dab)),
+			sub(mul(blift, cda), mul(alift, bcd))));
+	}
+
+	/**
+	 * Compares triangles <code>(p1,p2,from)</code> and
+	 * <code>(p1,p2,to)</code>, obtained when their third vertex is moved.
+	 * Let <code>n0</code> and <code>n1</code> be their normals, scaled by
+	 * twice their areas.  The returned value has the sign of
+	 * <code>n0.(n1 - ratio*n0)</code>.  With <code>ratio=0</code>, it is
+	 * positive if both triangles have the same orientation.  Otherwise
+	 * it is positive if the distance of <code>to</code> to line
+	 * <code>(p1,p2)</code>, measured in the plane of the first triangle,
+	 * is larger than <code>ratio</code> times the distance of
+	 * <code>from</code>.  It is zero when the first triangle is
+	 * degenerate.
+	 *
+	 * @param p1  first vertex of the common edge
+	 * @param p2  second vertex of the common edge
+	 * @param from  current location of the third vertex
+	 * @param to  new location of the third vertex
+	 * @param ratio  minimal ratio of heights
+	 * @return a value whose sign tells whether the new triangle is valid
+	 */
+	public static double moveOrientation(double [] p1, double [] p2, double [] from, double [] to, double ratio)
+	{
+		double ex = p2[0] - p1[0];
+		double ey = p2[1] - p1[1];
+		double ez = p2[2] - p1[2];
+		double wx = from[0] - p1[0];
+		double wy = from[1] - p1[1];
+		double wz = from[2] - p1[2];
+		double qx = to[0] - p1[0];
+		double qy = to[1] - p1[1];
+		double qz = to[2] - p1[2];
+		double det = moveDeterminant(ex, ey, ez, wx, wy, wz, qx, qy, qz, ratio);
+		double errbound = MOVE_ERRBOUND * movePermanent(ex, ey, ez, wx, wy, wz, qx, qy, qz, ratio);
+		if (det > errbound || -det > errbound)
+			return det;
+		return moveOrientationExact(p1[0], p1[1], p1[2], p2[0], p2[1], p2[2],
+			from[0], from[1], from[2], to[0], to[1], to[2], ratio);
+	}
+
+	private static double moveDeterminant(double ex, double ey, double ez,
+		double wx, double wy, double wz, double qx, double qy, double qz, double ratio)
+	{
+		// n0 = e x w
+		double n0x = ey * wz - ez * wy;
+		double n0y = ez * wx - ex * wz;
+		double n0z = ex * wy - ey * wx;
+		// n1 - ratio * n0 = e x (q - ratio * w)
+		double sx = qx - ratio * wx;
+		double sy = qy - ratio * wy;
+		double sz = qz - ratio * wz;
+		double mx = ey * sz - ez * sy;
+		double my = ez * sx - ex * sz;
+		double mz = ex * sy - ey * sx;
+		return n0x * mx + n0y * my + n0z * mz;
+	}
+
+	// Same expression as moveDeterminant, with absolute values
+	private static double movePermanent(double ex, double ey, double ez,
+		double wx, double wy, double wz, double qx, double qy, double qz, double ratio)
+	{
+		ex = Math.abs(ex);
+		ey = Math.abs(ey);
+		ez = Math.abs(ez);
+		wx = Math.abs(wx);
+		wy = Math.abs(wy);
+		wz = Math.abs(wz);
+		double r = Math.abs(ratio);
+		double sx = Math.abs(qx) + r * wx;
+		double sy = Math.abs(qy) + r * wy;
+		double sz = Math.abs(qz) + r * wz;
+		return (ey * wz + ez * wy) * (ey * sz + ez * sy) +
+			(ez * wx + ex * wz) * (ez * sx + ex * sz) +
+			(ex * wy + ey * wx) * (ex * sy + ey * sx);
+	}
+
+	private static double moveOrientationExact(double p1x, double p1y, double p1z,
+		double p2x, double p2y, double p2z, double fx, double fy, double fz,
+		double tx, double ty, double tz, double ratio)
+	{
+		double [] ex = diff(p2x, p1x);
+		double [] ey = diff(p2y, p1y);
+		double [] ez = diff(p2z, p1z);
+		double [] wx = diff(fx, p1x);
+		double [] wy = diff(fy, p1y);
+		double [] wz = diff(fz, p1z);
+		double [] sx = sub(diff(tx, p1x), scale(wx, ratio));
+		double [] sy = sub(diff(ty, p1y), scale(wy, ratio));
+		double [] sz = sub(diff(tz, p1z), scale(wz, ratio));
+		double [] det = mul(sub(mul(ey, wz), mul(ez, wy)), sub(mul(ey, sz), mul(ez, sy)));
+		det = sum(det, mul(sub(mul(ez, wx), mul(ex, wz)), sub(mul(ez, sx), mul(ex, sz))));
+		det = sum(det, mul(sub(mul(ex, wy), mul(ey, wx)), sub(mul(ex, sy), mul(ey, sx))));
+		return estimate(det);
+	}
+
+	/**
+	 * Triangles of vertex fans, which are checked together when their
+	 * common vertices are moved.  Coordinates are stored in separate
+	 * arrays, so that the filter stage of {@link #checkMove} is a simple
+	 * loop over arrays.  Instances are not thread-safe.
+	 */
+	public static final class Fan
+	{
+		private int size = 0;
+		// Vertices p1, p2 and from of moveOrientation
+		private double [] p1x, p1y, p1z, p2x, p2y, p2z, fx, fy, fz;
+
+		public Fan()
+		{
+			allocate(16);
+		}
+
+		private void allocate(int capacity)
+		{
+			p1x = resize(p1x, capacity);
+			p1y = resize(p1y, capacity);
+			p1z = resize(p1z, capacity);
+			p2x = resize(p2x, capacity);
+			p2y = resize(p2y, capacity);
+			p2z = resize(p2z, capacity);
+			fx = resize(fx, capacity);
+			fy = resize(fy, capacity);
+			fz = resize(fz, capacity);
+		}
+
+		private double [] resize(double [] array, int capacity)
+		{
+			double [] ret = new double[capacity];
+			if (array != null)
+				System.arraycopy(array, 0, ret, 0, size);
+			return ret;
+		}
+
+		public void clear()
+		{
+			size = 0;
+		}
+
+		public int size()
+		{
+			return size;
+		}
+
+		/**
+		 * Adds triangle <code>(p1,p2,from)</code>, its last vertex is
+		 * moved by {@link #checkMove}.
+		 */
+		public void add(double [] p1, double [] p2, double [] from)
+		{
+			if (size == p1x.length)
+				allocate(2 * size);
+			p1x[size] = p1[0];
+			p1y[size] = p1[1];
+			p1z[size] = p1[2];
+			p2x[size] = p2[0];
+			p2y[size] = p2[1];
+			p2z[size] = p2[2];
+			fx[size] = from[0];
+			fy[size] = from[1];
+			fz[size] = from[2];
+			size++;
+		}
+
+		/**
+		 * Checks whether all triangles remain valid when their moving
+		 * vertex is moved to <code>to</code>.  This is true if
+		 * {@link Predicates#moveOrientation} is positive for all
+		 * triangles.
+		 *
+		 * @param to  new location of moving vertices
+		 * @param ratio  minimal ratio of heights
+		 * @return <code>true</code> if all triangles are valid,
+		 *   <code>false</code> otherwise
+		 */
+		public boolean checkMove(double [] to, double ratio)
+		{
+			double tx = to[0];
+			double ty = to[1];
+			double tz = to[2];
+			for (int i = 0; i < size; i++)
+			{
+				double ex = p2x[i] - p1x[i];
+				double ey = p2y[i] - p1y[i];
+				double ez = p2z[i] - p1z[i];
+				double wx = fx[i] - p1x[i];
+				double wy = fy[i] - p1y[i];
+				double wz = fz[i] - p1z[i];
+				double qx = tx - p1x[i];
+				double qy = ty - p1y[i];
+				double qz = tz - p1z[i];
+				double d = moveDeterminant(ex, ey, ez, wx, wy, wz, qx, qy, qz, ratio);
+				double errbound = MOVE_ERRBOUND * movePermanent(ex, ey, ez, wx, wy, wz, qx, qy, qz, ratio);
+				if (d > errbound)
+					continue;
+				if (-d > errbound)
+					return false;
+				if (moveOrientationExact(p1x[i], p1y[i], p1z[i], p2x[i], p2y[i], p2z[i],
+						fx[i], fy[i], fz[i], tx, ty, tz, ratio) <= 0.0)
+					return false;
+			}
+			return true;
+		}
+	}
+
+	// Exact arithmetic on expansions.  An expansion is an array of
+	// nonoverlapping doubles sorted by increasing magnitude, whose sum
+	// is the represented value.  Zero components are eliminated, except
+	// that zero is represented by {0.0}.
+
+	// Most significant component has the sign of the expansion
+	private static double estimate(double [] e)
+	{
+		double ret = 0.0;
+		for (double d : e)
+			ret += d;
+		if (ret == 0.0 || (ret > 0.0) != (e[e.length - 1] > 0.0))
+			return e[e.length - 1];
+		return ret;
+	}
+
+	// a - b
+	private static double [] diff(double a, double b)
+	{
+		double x = a - b;
+		double bvirt = a - x;
+		double avirt = x + bvirt;
+		double y = (a - avirt) + (bvirt - b);
+		if (y == 0.0)
+			return new double[] { x };
+		return new double[] { y, x };
+	}
+
+	// e + b, Shewchuk's grow_expansion_zeroelim
+	private static double [] grow(double [] e, double b)
+	{
+		double [] h = new double[e.length + 1];
+		int hindex = 0;
+		double q = b;
+		for (double enow : e)
+		{
+			double qnew = q + enow;
+			double bvirt = qnew - q;
+			double avirt = qnew - bvirt;
+			double hh = (q - avirt) + (enow - bvirt);
+			q = qnew;
+			if (hh != 0.0)
+				h[hindex++] = hh;
+		}
+		if (q != 0.0 || hindex == 0)
+			h[hindex++] = q;
+		return trim(h, hindex);
+	}
+
+	private static double [] sum(double [] e, double [] f)
+	{
+		double [] ret = e;
+		for (double b : f)
+		{
+			if (b != 0.0)
+				ret = grow(ret, b);
+		}
+		return ret;
+	}
+
+	private static double [] sub(double [] e, double [] f)
+	{
+		double [] ret = e;
+		for (double b : f)
+		{
+			if (b != 0.0)
+				ret = grow(ret, -b);
+		}
+		return ret;
+	}
+
+	// e * b, Shewchuk's scale_expansion_zeroelim
+	private static double [] scale(double [] e, double b)
+	{
+		double [] h = new double[2 * e.length];
+		int hindex = 0;
+		double c = SPLITTER * b;
+		double bhi = c - (c - b);
+		double blo = b - bhi;
+		double q = 0.0;
+		for (int i = 0; i < e.length; i++)
+		{
+			double enow = e[i];
+			double product1 = enow * b;
+			c = SPLITTER * enow;
+			double ahi = c - (c - enow);
+			double alo = enow - ahi;
+			double err3 = ((product1 - ahi * bhi) - alo * bhi) - ahi * blo;
+			double product0 = alo * blo - err3;
+			if (i == 0)
+			{
+				q = product1;
+				if (product0 != 0.0)
+					h[hindex++] = product0;
+				continue;
+			}
+			// Two_Sum(q, product0)
+			double qsum = q + product0;
+			double bvirt = qsum - q;
+			double avirt = qsum - bvirt;
+			double hh = (q - avirt) + (product0 - bvirt);
+			if (hh != 0.0)
+				h[hindex++] = hh;
+			// Fast_Two_Sum(product1, qsum)
+			q = product1 + qsum;
+			hh = qsum - (q - product1);
+			if (hh != 0.0)
+				h[hindex++] = hh;
+		}
+		if (q != 0.0 || hindex == 0)
+			h[hindex++] = q;
+		return trim(h, hindex);
+	}
+
+	private static double [] mul(double [] e, double [] f)
+	{
+		double [] ret = new double[] { 0.0 };
+		for (double b : f)
+		{
+			if (b != 0.0)
+				ret = sum(ret, scale(e, b));
+		}
+		return ret;
+	}
+
+	private static double [] trim(double [] h, int length)
+	{
+		if (length == h.length)
+			return h;
+		double [] ret = new double[length];
+		System.arraycopy(h, 0, ret, 0, length);
+		return ret;
+	}
+}
@@ -65,6 +65,11 @@ public class Mesh2D extends Mesh
 	// 2D euclidian metric
 	private transient final EuclidianMetric2D euclidian_metric2d = new EuclidianMetric2D();
 
+	// Fundamental forms of the surface, created when needed if
+	// metricCache is true
+	private transient SurfaceMetricCache surfaceCache;
+	private transient final double [] forms = new double[SurfaceMetricCache.SIZE];
+
 	// Few methods in Vertex2D and VirtualHalfEdge2D require a pseudo-random generator.
 	// Define it in Mesh2D so that this generator gives the same value when
 	// performing several meshes in the same run.
@@ -74,6 +79,9 @@ public class Mesh2D extends Mesh
 	private static final int level_max = 10;
 	private static final Integer [] intArray = new Integer[level_max+1];
 	private static final boolean accurateDistance;
+	private static final boolean metricCache;
+	// Relative error of fundamental forms stored in metric cache
+	private static final double METRIC_CACHE_TOLERANCE = 0.01;
 
 	static {
 		String accurateDistanceProp = System.getProperty("org.jcae.mesh.amibe.patch.Mesh2D.accurateDistance");
@@ -83,6 +91,13 @@ public class Mesh2D extends Mesh
 			System.setProperty("org.jcae.mesh.amibe.patch.Mesh2D.accurateDistance", accurateDistanceProp);
 		}
 		accurateDistance = accurateDistanceProp.equals("true");
+		String metricCacheProp = System.getProperty("org.jcae.mesh.amibe.patch.Mesh2D.metricCache");
+		if (metricCacheProp == null)
+		{
+			metricCacheProp = "false";
+			System.setProperty("org.jcae.mesh.amibe.patch.Mesh2D.metricCache", metricCacheProp);
+		}
+		metricCache = metricCacheProp.equals("true");
 		for (int i = 0; i <= level_max; i++)
 			intArray[i] = Integer.valueOf(i);
 	}
@@ -437,15 +452,55 @@ public class Mesh2D extends Mesh
 			else
 			{
 				double uv[] = pt.getUV();
-				surface.setParameter(uv[0], uv[1]);
 				MetricBuilder mb = new MetricBuilder(surface, meshParameters, temp);
-				m2 = mb.computeMetricOnSurface();
+				SurfaceMetricCache cache = getSurfaceCache();
+				if (cache != null)
+				{
+					cache.getForms(uv[0], uv[1], forms);
+					m2 = mb.computeMetricOnSurface(forms);
+				}
+				else
+				{
+					surface.setParameter(uv[0], uv[1]);
+					m2 = mb.computeMetricOnSurface();
+				}
 			}
 			v2.metric = m2;
 		}
 		return m2;
 	}
 
+	/**
+	 * Returns the cache of fundamental forms, or <code>null</code> if
+	 * metrics have to be computed on the surface.  The cache is
+	 * enabled by setting the
+	 * <code>org.jcae.mesh.amibe.patch.Mesh2D.metricCache</code>
+	 * property to true, and is only used for isotropic metrics.  It is
+	 * created on the bounding box of current vertices, so it must not be
+	 * called before boundary vertices are inserted.
+	 */
+	private SurfaceMetricCache getSurfaceCache()
+	{
+		if (surfaceCache != null || !metricCache || !meshParameters.isIsotropic())
+			return surfaceCache;
+		Collection<Vertex> nodes = getNodes();
+		if (nodes == null || nodes.size() < 3)
+			return null;
+		double [] bbox = { Double.MAX_VALUE, Double.MAX_VALUE, -Double.MAX_VALUE, -Double.MAX_VALUE };
+		for (Vertex v: nodes)
+		{
+			double [] uv = v.getUV();
+			bbox[0] = Math.min(bbox[0], uv[0]);
+			bbox[1] = Math.min(bbox[1], uv[1]);
+			bbox[2] = Math.max(bbox[2], uv[0]);
+			bbox[3] = Math.max(bbox[3], uv[1]);
+		}
+		if (bbox[2] <= bbox[0] || bbox[3] <= bbox[1])
+			return null;
+		surfaceCache = new SurfaceMetricCache(surface, bbox, meshParameters.getLength(), METRIC_CACHE_TOLERANCE);
+		return surfaceCache;
+	}
+
 	public final void moveVertex(Vertex2D vertex, double u, double v)
 	{
 		vertex.metric = null;
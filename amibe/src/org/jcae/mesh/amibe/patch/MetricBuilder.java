@@ -111,7 +111,40 @@ class MetricBuilder
 		}
 		else
 			m2d0.getValues(temp.tt22);
+		return toMetricOnSurface();
+	}
+
+	/**
+	 * Creates an isotropic <code>MetricOnSurface</code> instance from
+	 * fundamental forms of the surface at a given point.  This gives the
+	 * same result as {@link #computeMetricOnSurface()} when
+	 * {@link MeshParameters#isIsotropic} is true, but surface is not
+	 * evaluated.
+	 *
+	 * @param forms  coefficients {E, F, G} of first fundamental form followed
+	 *               by coefficients {L, M, N} of second fundamental form
+	 */
+	MetricOnSurface computeMetricOnSurface(double [] forms)
+	{
+		assert mp.isIsotropic();
+		double length = mp.getLength();
+		double diag = 1.0/length/length;
+		Matrix2D m2d0 = new Matrix2D(diag * forms[0], diag * forms[1], diag * forms[1], diag * forms[2]);
+		diag = getIsotropicDeflection(forms);
+		if (diag > 0.0)
+		{
+			Matrix2D m2d1 = new Matrix2D(diag * forms[0], diag * forms[1], diag * forms[1], diag * forms[2]);
+			m2d0.makeSymmetric();
+			m2d1.makeSymmetric();
+			m2d0.intersection(m2d1).getValues(temp.tt22);
+		}
+		else
+			m2d0.getValues(temp.tt22);
+		return toMetricOnSurface();
+	}
 
+	private MetricOnSurface toMetricOnSurface()
+	{
 		double E = temp.tt22[0][0];
 		double F = 0.5 * (temp.tt22[0][1] + temp.tt22[1][0]);
 		double G = temp.tt22[1][1];
@@ -261,6 +294,61 @@ class MetricBuilder
 		return tempM.multR(A);
 	}
 	
+	/**
+	 * Returns the coefficient of isotropic deflection metric, or 0 if
+	 * it is not defined.  Principal curvatures are eigenvalues of the
+	 * shape operator, they are computed from fundamental forms.
+	 */
+	private double getIsotropicDeflection(double [] forms)
+	{
+		if (!mp.hasDeflection())
+			return 0.0;
+		double E = forms[0];
+		double F = forms[1];
+		double G = forms[2];
+		double det = E * G - F * F;
+		if (det <= 0.0)
+		{
+			LOGGER.fine("Unable to compute normal vector");
+			return 0.0;
+		}
+		double L = forms[3];
+		double M = forms[4];
+		double N = forms[5];
+		double mean = 0.5 * (E * N - 2.0 * F * M + G * L) / det;
+		double gauss = (L * N - M * M) / det;
+		double cmax = Math.abs(mean) + Math.sqrt(Math.max(0.0, mean * mean - gauss));
+		if (Double.isNaN(cmax))
+		{
+			LOGGER.fine("Undefined curvature");
+			return 0.0;
+		}
+		if (cmax == 0.0)
+		{
+			LOGGER.fine("Null curvature");
+			return 0.0;
+		}
+		double epsilon;
+		if (mp.hasRelativeDeflection())
+		{
+			epsilon = mp.getDeflection();
+			if (epsilon > 1.0)
+				epsilon = 1.0;
+		}
+		else
+		{
+			epsilon = mp.getDeflection() * cmax;
+			if (epsilon >= 1.0)
+			{
+				LOGGER.fine("Curvature too large");
+				return 0.0;
+			}
+		}
+		// Same formula as in getRelativeDeflectionMetric
+		double alpha2 = 4.0 * epsilon * (2.0 - epsilon) / 2.0;
+		return cmax*cmax / alpha2;
+	}
+
 	/**
 	 * Compute the metric induced to the tangent plane.
 	 */
@@ -0,0 +1,318 @@
+/*
+ * Project Info:  http://jcae.sourceforge.net
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307, USA.
+ *
+ * (C) Copyright 2012, by EADS France
+ */
+
+package org.jcae.mesh.amibe.patch;
+
+import org.jcae.mesh.cad.CADGeomSurface;
+
+/**
+ * Cache of fundamental forms of a surface on an adaptive (u,v) grid.
+ *
+ * <p>
+ * Coefficients {E, F, G} of the first fundamental form and {L, M, N} of the
+ * second fundamental form are stored at corners of the cells of a quadtree
+ * covering a parametric domain, and bilinearly interpolated inside cells.
+ * A cell is checked the first time a point is looked up in it: forms are
+ * evaluated at its center and at the middle of its edges, and it is split
+ * if interpolated values differ from exact ones by more than the tolerance.
+ * Thus the cache is only refined where it is used, and the interpolation
+ * error at these test points is bounded by the tolerance.
+ * </p>
+ *
+ * <p>
+ * Forms depend only on the surface, so they remain valid when vertices
+ * are moved or when metrics have to be recomputed.  Points outside of the
+ * domain are evaluated on the surface.  Surface is always evaluated through
+ * {@link CADGeomSurface#derivatives}.  This class is not thread-safe.
+ * </p>
+ */
+final class SurfaceMetricCache
+{
+	// Number of values for each point
+	static final int SIZE = 6;
+	// Initial grid has (2^INITIAL_LEVEL+1)^2 points
+	private static final int INITIAL_LEVEL = 3;
+	private static final int MAX_LEVEL = 16;
+	// Number of points evaluated when checking a cell
+	private static final int CHECK_POINTS = 5;
+
+	private final CADGeomSurface surface;
+	private final double tolerance;
+	// Second form is compared to first form multiplied by this curvature
+	private final double minCurvature;
+	private final Cell root;
+	private final double [] uv;
+	private final double [] d1;
+	private final double [] d2;
+	private final double [] exact = new double[CHECK_POINTS * SIZE];
+	private int nrCells = 1;
+	private int nrEvaluations;
+
+	private static final class Cell
+	{
+		private final double u0, v0, u1, v1;
+		private final int level;
+		// Forms at (u0,v0), (u1,v0), (u0,v1) and (u1,v1)
+		private final double [] corners = new double[4 * SIZE];
+		private Cell [] children;
+		private boolean checked;
+
+		private Cell(double u0, double v0, double u1, double v1, int level)
+		{
+			this.u0 = u0;
+			this.v0 = v0;
+			this.u1 = u1;
+			this.v1 = v1;
+			this.level = level;
+		}
+	}
+
+	/**
+	 * Creates a cache on a rectangular domain.
+	 *
+	 * @param surface  surface, {@link CADGeomSurface#dinit} must have been
+	 *                 called with a degree at least equal to 2
+	 * @param bbox  domain {umin, vmin, umax, vmax}
+	 * @param length  target edge length, curvatures lower than its inverse
+	 *                are not relevant when computing metrics
+	 * @param tolerance  maximal relative error of interpolated forms
+	 */
+	SurfaceMetricCache(CADGeomSurface surface, double [] bbox, double length, double tolerance)
+	{
+		if (bbox[2] <= bbox[0] || bbox[3] <= bbox[1])
+			throw new IllegalArgumentException("Empty domain");
+		this.surface = surface;
+		this.tolerance = tolerance;
+		minCurvature = length > 0.0 ? 1.0 / length : 0.0;
+		int n = (1 << INITIAL_LEVEL) + 1;
+		uv = new double[2 * n * n];
+		d1 = new double[6 * n * n];
+		d2 = new double[9 * n * n];
+		double [] grid = new double[n * n * SIZE];
+		for (int j = 0; j < n; j++)
+		{
+			double v = bbox[1] + (bbox[3] - bbox[1]) * j / (n - 1);
+			for (int i = 0; i < n; i++)
+			{
+				uv[2*(i+n*j)] = bbox[0] + (bbox[2] - bbox[0]) * i / (n - 1);
+				uv[2*(i+n*j)+1] = v;
+			}
+		}
+		evaluate(n * n, grid);
+		root = new Cell(bbox[0], bbox[1], bbox[2], bbox[3], 0);
+		build(root, grid, n, 0, 0, n - 1);
+	}
+
+	/**
+	 * Computes fundamental forms from derivatives.
+	 *
+	 * @param d1  d1U and d1V, starting at <code>o1</code>
+	 * @param d2  d2U, d2V and dUV, starting at <code>o2</code>
+	 * @param forms  output array, receives {E, F, G, L, M, N} at <code>o</code>
+	 */
+	static void fundamentalForms(double [] d1, int o1, double [] d2, int o2, double [] forms, int o)
+	{
+		double ux = d1[o1], uy = d1[o1+1], uz = d1[o1+2];
+		double vx = d1[o1+3], vy = d1[o1+4], vz = d1[o1+5];
+		forms[o]   = ux * ux + uy * uy + uz * uz;
+		forms[o+1] = ux * vx + uy * vy + uz * vz;
+		forms[o+2] = vx * vx + vy * vy + vz * vz;
+		double nx = uy * vz - uz * vy;
+		double ny = uz * vx - ux * vz;
+		double nz = ux * vy - uy * vx;
+		double norm = Math.sqrt(nx * nx + ny * ny + nz * nz);
+		if (norm <= 0.0)
+		{
+			// No tangent plane, curvature is not defined
+			forms[o+3] = forms[o+4] = forms[o+5] = 0.0;
+			return;
+		}
+		nx /= norm;
+		ny /= norm;
+		nz /= norm;
+		forms[o+3] = d2[o2]   * nx + d2[o2+1] * ny + d2[o2+2] * nz;
+		forms[o+5] = d2[o2+3] * nx + d2[o2+4] * ny + d2[o2+5] * nz;
+		forms[o+4] = d2[o2+6] * nx + d2[o2+7] * ny + d2[o2+8] * nz;
+	}
+
+	// Evaluates forms at the n first points of uv
+	private void evaluate(int n, double [] forms)
+	{
+		surface.derivatives(uv, n, d1, d2);
+		for (int i = 0; i < n; i++)
+			fundamentalForms(d1, 6*i, d2, 9*i, forms, SIZE*i);
+		nrEvaluations += n;
+	}
+
+	// Builds initial grid cells, (i0,j0) and (i0+size,j0+size) are the
+	// grid coordinates of cell corners.
+	private void build(Cell cell, double [] grid, int n, int i0, int j0, int size)
+	{
+		copyCorners(cell, grid, n, i0, j0, size);
+		if (size == 1)
+			return;
+		cell.checked = true;
+		split(cell);
+		int half = size / 2;
+		build(cell.children[0], grid, n, i0, j0, half);
+		build(cell.children[1], grid, n, i0 + half, j0, half);
+		build(cell.children[2], grid, n, i0, j0 + half, half);
+		build(cell.children[3], grid, n, i0 + half, j0 + half, half);
+	}
+
+	private static void copyCorners(Cell cell, double [] grid, int n, int i0, int j0, int size)
+	{
+		System.arraycopy(grid, SIZE*(i0+n*j0), cell.corners, 0, SIZE);
+		System.arraycopy(grid, SIZE*(i0+size+n*j0), cell.corners, SIZE, SIZE);
+		System.arraycopy(grid, SIZE*(i0+n*(j0+size)), cell.corners, 2*SIZE, SIZE);
+		System.arraycopy(grid, SIZE*(i0+size+n*(j0+size)), cell.corners, 3*SIZE, SIZE);
+	}
+
+	private void split(Cell cell)
+	{
+		double um = 0.5 * (cell.u0 + cell.u1);
+		double vm = 0.5 * (cell.v0 + cell.v1);
+		int level = cell.level + 1;
+		cell.children = new Cell[4];
+		cell.children[0] = new Cell(cell.u0, cell.v0, um, vm, level);
+		cell.children[1] = new Cell(um, cell.v0, cell.u1, vm, level);
+		cell.children[2] = new Cell(cell.u0, vm, um, cell.v1, level);
+		cell.children[3] = new Cell(um, vm, cell.u1, cell.v1, level);
+		nrCells += 4;
+	}
+
+	/**
+	 * Checks interpolation error in a cell, and splits it if needed.
+	 */
+	private void check(Cell cell)
+	{
+		cell.checked = true;
+		if (cell.level >= MAX_LEVEL)
+			return;
+		double um = 0.5 * (cell.u0 + cell.u1);
+		double vm = 0.5 * (cell.v0 + cell.v1);
+		// Points are stored in order bottom, left, center, right, top
+		uv[0] = um;      uv[1] = cell.v0;
+		uv[2] = cell.u0; uv[3] = vm;
+		uv[4] = um;      uv[5] = vm;
+		uv[6] = cell.u1; uv[7] = vm;
+		uv[8] = um;      uv[9] = cell.v1;
+		evaluate(CHECK_POINTS, exact);
+		double [] c = cell.corners;
+		double error = 0.0;
+		for (int k = 0; k < SIZE; k++)
+		{
+			double bottom = 0.5 * (c[k] + c[SIZE+k]);
+			double left = 0.5 * (c[k] + c[2*SIZE+k]);
+			double center = 0.25 * (c[k] + c[SIZE+k] + c[2*SIZE+k] + c[3*SIZE+k]);
+			double right = 0.5 * (c[SIZE+k] + c[3*SIZE+k]);
+			double top = 0.5 * (c[2*SIZE+k] + c[3*SIZE+k]);
+			error = Math.max(error, error(k, 0, bottom));
+			error = Math.max(error, error(k, 1, left));
+			error = Math.max(error, error(k, 2, center));
+			error = Math.max(error, error(k, 3, right));
+			error = Math.max(error, error(k, 4, top));
+		}
+		// NaN values are refined too
+		if (error <= tolerance)
+			return;
+		// Corners of children are values on a 3x3 lattice
+		double [] lattice = new double[9 * SIZE];
+		System.arraycopy(c, 0, lattice, 0, SIZE);
+		System.arraycopy(exact, 0, lattice, SIZE, SIZE);
+		System.arraycopy(c, SIZE, lattice, 2*SIZE, SIZE);
+		System.arraycopy(exact, SIZE, lattice, 3*SIZE, 3*SIZE);
+		System.arraycopy(c, 2*SIZE, lattice, 6*SIZE, SIZE);
+		System.arraycopy(exact, 4*SIZE, lattice, 7*SIZE, SIZE);
+		System.arraycopy(c, 3*SIZE, lattice, 8*SIZE, SIZE);
+		split(cell);
+		copyCorners(cell.children[0], lattice, 3, 0, 0, 1);
+		copyCorners(cell.children[1], lattice, 3, 1, 0, 1);
+		copyCorners(cell.children[2], lattice, 3, 0, 1, 1);
+		copyCorners(cell.children[3], lattice, 3, 1, 1, 1);
+	}
+
+	// Relative error of interpolated value of the k-th coefficient at p-th
+	// test point.  First form is compared to E+G, and second form to
+	// E+G multiplied by the largest relevant curvature.
+	private double error(int k, int p, double interpolated)
+	{
+		double [] e = exact;
+		int o = SIZE * p;
+		double scale = Math.abs(e[o]) + Math.abs(e[o+2]);
+		if (k >= 3)
+			scale = Math.max(scale * minCurvature, Math.abs(e[o+3]) + Math.abs(e[o+5]));
+		return Math.abs(interpolated - e[o+k]) / scale;
+	}
+
+	/**
+	 * Gets interpolated fundamental forms at a given point.
+	 *
+	 * @param u  u coordinate
+	 * @param v  v coordinate
+	 * @param forms  output array, receives {E, F, G, L, M, N}
+	 */
+	void getForms(double u, double v, double [] forms)
+	{
+		Cell cell = root;
+		if (u < cell.u0 || u > cell.u1 || v < cell.v0 || v > cell.v1)
+		{
+			uv[0] = u;
+			uv[1] = v;
+			evaluate(1, forms);
+			return;
+		}
+		while (true)
+		{
+			if (!cell.checked)
+				check(cell);
+			if (cell.children == null)
+				break;
+			int i = 0;
+			if (u >= cell.children[3].u0)
+				i++;
+			if (v >= cell.children[3].v0)
+				i += 2;
+			cell = cell.children[i];
+		}
+		double s = (u - cell.u0) / (cell.u1 - cell.u0);
+		double t = (v - cell.v0) / (cell.v1 - cell.v0);
+		double w0 = (1.0 - s) * (1.0 - t);
+		double w1 = s * (1.0 - t);
+		double w2 = (1.0 - s) * t;
+		double w3 = s * t;
+		double [] c = cell.corners;
+		for (int k = 0; k < SIZE; k++)
+			forms[k] = w0 * c[k] + w1 * c[SIZE+k] + w2 * c[2*SIZE+k] + w3 * c[3*SIZE+k];
+	}
+
+	int getNumberOfCells()
+	{
+		return nrCells;
+	}
+
+	/**
+	 * Returns the number of points at which surface has been evaluated.
+	 */
+	int getNumberOfEvaluations()
+	{
+		return nrEvaluations;
+	}
+}
@@ -19,7 +19,9 @@
 
 package org.jcae.mesh.amibe.projection;
 
+import org.jcae.mesh.amibe.ds.ElementIds;
 import org.jcae.mesh.amibe.ds.Mesh;
+import org.jcae.mesh.amibe.ds.NeighbourCursor;
 import org.jcae.mesh.amibe.ds.Vertex;
 import org.jcae.mesh.amibe.ds.Triangle;
 import org.jcae.mesh.amibe.ds.AbstractHalfEdge;
@@ -46,13 +48,14 @@ public class MeshLiaison
 	private final Mesh backgroundMesh;
 	private final Mesh currentMesh;
 	// Map between vertices of currentMesh and their projection on backgroundMesh
-	private final Map<Vertex, ProjectedLocation> mapCurrentVertexProjection;
+	private final ElementIds<Vertex>.ObjectProperty<ProjectedLocation> mapCurrentVertexProjection;
 	private Skeleton skeleton;
 	
 	private final double [] work1 = new double[3];
 	private final double [] work2 = new double[3];
 	private final double [] work3 = new double[3];
 	private final ProjectedLocation savedProjectedLocation = new ProjectedLocation();
+	private final NeighbourCursor cursor = new NeighbourCursor();
 	
 	public MeshLiaison(Mesh backgroundMesh)
 	{
@@ -124,12 +127,11 @@ public class MeshLiaison
 		this.currentMesh.buildAdjacency();
 		
 		// Compute projections of vertices from currentMesh
-		this.mapCurrentVertexProjection = new HashMap<Vertex, ProjectedLocation>(backgroundNodeset.size());
+		this.mapCurrentVertexProjection = this.currentMesh.getVertexIds().newObjectProperty();
 		for (Vertex v: backgroundNodeset)
 		{
-			Iterator<Triangle> it = v.getNeighbourIteratorTriangle();
-			if(it.hasNext())
-				this.addVertex(mapBgToCurrent.get(v), it.next());
+			if (cursor.reset(v).next())
+				this.addVertex(mapBgToCurrent.get(v), cursor.getTriangle());
 		}
 		mapBgToCurrent.clear();
 
@@ -331,7 +333,7 @@ public class MeshLiaison
 	 */
 	public final void addVertex(Vertex v, Triangle bgT)
 	{
-		mapCurrentVertexProjection.put(v, new ProjectedLocation(v.getUV(), bgT));
+		mapCurrentVertexProjection.set(v, new ProjectedLocation(v.getUV(), bgT));
 	}
 
 	/**
@@ -348,8 +350,15 @@ public class MeshLiaison
 	public final void updateAll()
 	{
 		LOGGER.config("Update projections");
-		for (Vertex v : mapCurrentVertexProjection.keySet())
-			move(v, v.getUV());
+		ElementIds<Vertex> vertexIds = currentMesh.getVertexIds();
+		for (int i = 0, n = vertexIds.size(); i < n; i++)
+		{
+			if (mapCurrentVertexProjection.get(i) != null)
+			{
+				Vertex v = vertexIds.getElement(i);
+				move(v, v.getUV());
+			}
+		}
 	}
 
 	public static AbstractHalfEdge findSurroundingTriangleDebug(Vertex v, Mesh mesh)
@@ -379,9 +388,9 @@ public class MeshLiaison
 	public AbstractHalfEdge findSurroundingTriangle(Vertex v, Vertex start, double maxError, boolean background)
 	{
 		Triangle t = null;
-		for (Iterator<Triangle> itf = start.getNeighbourIteratorTriangle(); itf.hasNext(); )
+		for (cursor.reset(start); cursor.next(); )
 		{
-			Triangle f = itf.next();
+			Triangle f = cursor.getTriangle();
 			if (!f.hasAttributes(AbstractHalfEdge.OUTER))
 			{
 				t = f;
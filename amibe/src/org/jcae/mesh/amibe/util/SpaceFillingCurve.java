@@ -0,0 +1,252 @@
+/*
+ * Project Info:  http://jcae.sourceforge.net
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307, USA.
+ *
+ * (C) Copyright 2012, by EADS France
+ */
+
+package org.jcae.mesh.amibe.util;
+
+/**
+ * Space-filling curves in 3D space.  Coordinates are quantized on a
+ * 2<sup>21</sup> grid over a bounding box, and each point is mapped to
+ * a 63-bit key.  Points with close keys are close in space, so sorting
+ * mesh entities by their key improves memory and file locality.
+ *
+ * <p>
+ * Two curves are available: the Morton (or Z-order) curve is very cheap
+ * to compute, and the Hilbert curve has better locality because
+ * consecutive cells are always adjacent.  The Hilbert key is computed
+ * with the algorithm described by John Skilling in "Programming the
+ * Hilbert curve", AIP Conf. Proc. 707, 381 (2004).
+ * </p>
+ */
+public final class SpaceFillingCurve
+{
+	public static enum Type { MORTON, HILBERT }
+
+	/** Number of bits for each coordinate. */
+	public static final int BITS = 21;
+	private static final int MAX_COORD = (1 << BITS) - 1;
+
+	private final Type type;
+	private final double [] origin = new double[3];
+	private final double [] scale = new double[3];
+
+	/**
+	 * Creates a space-filling curve over a bounding box.
+	 *
+	 * @param type  curve type
+	 * @param bbmin  lower corner of the bounding box
+	 * @param bbmax  upper corner of the bounding box
+	 */
+	public SpaceFillingCurve(Type type, double [] bbmin, double [] bbmax)
+	{
+		this.type = type;
+		for (int i = 0; i < 3; i++)
+		{
+			origin[i] = bbmin[i];
+			double delta = bbmax[i] - bbmin[i];
+			scale[i] = delta > 0.0 ? MAX_COORD / delta : 0.0;
+		}
+	}
+
+	/**
+	 * Parses curve type.
+	 *
+	 * @param name  either <code>hilbert</code> or <code>morton</code>
+	 * @return curve type
+	 */
+	public static Type parseType(String name)
+	{
+		if ("hilbert".equalsIgnoreCase(name))
+			return Type.HILBERT;
+		else if ("morton".equalsIgnoreCase(name))
+			return Type.MORTON;
+		throw new IllegalArgumentException("Unknown space-filling curve: "+name);
+	}
+
+	public Type getType()
+	{
+		return type;
+	}
+
+	/**
+	 * Returns the key of a point.  Points outside of the bounding box
+	 * are clamped.
+	 */
+	public long getKey(double x, double y, double z)
+	{
+		int ix = quantize(x, 0);
+		int iy = quantize(y, 1);
+		int iz = quantize(z, 2);
+		if (type == Type.HILBERT)
+			return hilbertKey(ix, iy, iz);
+		return mortonKey(ix, iy, iz);
+	}
+
+	public long getKey(double [] xyz)
+	{
+		return getKey(xyz[0], xyz[1], xyz[2]);
+	}
+
+	private int quantize(double x, int axis)
+	{
+		double d = (x - origin[axis]) * scale[axis];
+		if (d <= 0.0)
+			return 0;
+		if (d >= MAX_COORD)
+			return MAX_COORD;
+		return (int) d;
+	}
+
+	// Insert two zero bits between each bit of the 21 lowest bits.
+	private static long spread(int v)
+	{
+		long x = v & MAX_COORD;
+		x = (x | x << 32) & 0x001f00000000ffffL;
+		x = (x | x << 16) & 0x001f0000ff0000ffL;
+		x = (x | x <<  8) & 0x100f00f00f00f00fL;
+		x = (x | x <<  4) & 0x10c30c30c30c30c3L;
+		x = (x | x <<  2) & 0x1249249249249249L;
+		return x;
+	}
+
+	/**
+	 * Returns Morton key of a quantized point.
+	 *
+	 * @param x  first coordinate, between 0 and 2<sup>21</sup>-1
+	 * @param y  second coordinate, between 0 and 2<sup>21</sup>-1
+	 * @param z  third coordinate, between 0 and 2<sup>21</sup>-1
+	 * @return Morton key
+	 */
+	public static long mortonKey(int x, int y, int z)
+	{
+		return (spread(x) << 2) | (spread(y) << 1) | spread(z);
+	}
+
+	/**
+	 * Returns Hilbert key of a quantized point.
+	 *
+	 * @param x  first coordinate, between 0 and 2<sup>21</sup>-1
+	 * @param y  second coordinate, between 0 and 2<sup>21</sup>-1
+	 * @param z  third coordinate, between 0 and 2<sup>21</sup>-1
+	 * @return Hilbert key
+	 */
+	public static long hilbertKey(int x, int y, int z)
+	{
+		// Skilling's AxesToTranspose, unrolled for n=3
+		int x0 = x, x1 = y, x2 = z;
+		for (int q = 1 << (BITS - 1); q > 1; q >>= 1)
+		{
+			int p = q - 1;
+			// x0
+			if ((x0 & q) != 0)
+				x0 ^= p;
+			// x1
+			if ((x1 & q) != 0)
+				x0 ^= p;
+			else
+			{
+				int t = (x0 ^ x1) & p;
+				x0 ^= t;
+				x1 ^= t;
+			}
+			// x2
+			if ((x2 & q) != 0)
+				x0 ^= p;
+			else
+			{
+				int t = (x0 ^ x2) & p;
+				x0 ^= t;
+				x2 ^= t;
+			}
+		}
+		// Gray encode
+		x1 ^= x0;
+		x2 ^= x1;
+		int t = 0;
+		for (int q = 1 << (BITS - 1); q > 1; q >>= 1)
+		{
+			if ((x2 & q) != 0)
+				t ^= q - 1;
+		}
+		x0 ^= t;
+		x1 ^= t;
+		x2 ^= t;
+		return mortonKey(x0, x1, x2);
+	}
+
+	/**
+	 * Sorts indices by increasing keys.  This is a stable merge sort,
+	 * <code>keys</code> array is not modified.
+	 *
+	 * @param keys  array of keys
+	 * @param n  number of keys to consider
+	 * @return a permutation <code>perm</code> such that
+	 *    <code>keys[perm[i]] &lt;= keys[perm[i+1]]</code>
+	 */
+	public static int [] sortedPermutation(long [] keys, int n)
+	{
+		int [] perm = new int[n];
+		for (int i = 0; i < n; i++)
+			perm[i] = i;
+		if (n < 2)
+			return perm;
+		int [] work = new int[n];
+		mergeSort(keys, perm, work, 0, n);
+		return perm;
+	}
+
+	private static void mergeSort(long [] keys, int [] perm, int [] work, int lo, int hi)
+	{
+		if (hi - lo < 16)
+		{
+			// Insertion sort for small ranges
+			for (int i = lo + 1; i < hi; i++)
+			{
+				int p = perm[i];
+				long k = keys[p];
+				int j = i - 1;
+				while (j >= lo && keys[perm[j]] > k)
+				{
+					perm[j+1] = perm[j];
+					j--;
+				}
+				perm[j+1] = p;
+			}
+			return;
+		}
+		int mid = (lo + hi) >>> 1;
+		mergeSort(keys, perm, work, lo, mid);
+		mergeSort(keys, perm, work, mid, hi);
+		if (keys[perm[mid-1]] <= keys[perm[mid]])
+			return;
+		System.arraycopy(perm, lo, work, lo, hi - lo);
+		int i = lo, j = mid, k = lo;
+		while (i < mid && j < hi)
+		{
+			if (keys[work[j]] < keys[work[i]])
+				perm[k++] = work[j++];
+			else
+				perm[k++] = work[i++];
+		}
+		while (i < mid)
+			perm[k++] = work[i++];
+		while (j < hi)
+			perm[k++] = work[j++];
+	}
+}
@@ -21,11 +21,13 @@
 package org.jcae.mesh.amibe.validation;
 
 import org.jcae.mesh.amibe.traits.MeshTraitsBuilder;
+import org.jcae.mesh.amibe.ds.NeighbourCursor;
 import org.jcae.mesh.amibe.ds.Vertex;
-import java.util.Iterator;
 
 public class NodeConnectivity extends QualityProcedure
 {
+	private final NeighbourCursor cursor = new NeighbourCursor();
+
 	@Override
 	protected void setValidationFeatures()
 	{
@@ -50,7 +52,7 @@ public class NodeConnectivity extends QualityProcedure
 			throw new IllegalArgumentException();
 		Vertex n = (Vertex) o;
 		int count = 0;
-		for (Iterator<Vertex> itnv = n.getNeighbourIteratorVertex(); itnv.hasNext(); itnv.next())
+		for (cursor.reset(n); cursor.next(); )
 			count++;
 		return (float) count;
 	}
@@ -33,6 +33,10 @@ import java.lang.reflect.InvocationTargetException;
  * For these reasons, <code>quality</code> method's argument is an
  * <code>Object</code>, and caller is responsible for passing the
  * right argument.
+ *
+ * Instances may use work arrays and must not be shared between threads,
+ * but several instances can compute quality of the same mesh
+ * concurrently through a {@link org.jcae.mesh.amibe.ds.ReadOnlyMeshView}.
  */
 public abstract class QualityProcedure
 {
@@ -0,0 +1,957 @@
+/* jCAE stand for Java Computer Aided Engineering. Features are : Small CAD
+   modeler, Finite element mesher, Plugin architecture.
+
+    Copyright (C) 2012, by EADS France
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA */
+
+package org.jcae.mesh.amibe.validation;
+
+import org.jcae.mesh.amibe.ds.Mesh;
+import org.jcae.mesh.amibe.ds.Triangle;
+import org.jcae.mesh.amibe.ds.Vertex;
+import org.jcae.mesh.amibe.metrics.Predicates;
+import org.jcae.mesh.amibe.util.SpaceFillingCurve;
+import org.jcae.mesh.xmldata.AmibeReader;
+import org.jcae.mesh.xmldata.DoubleFileReader;
+import org.jcae.mesh.xmldata.IntFileReader;
+import gnu.trove.TIntArrayList;
+import gnu.trove.TLongArrayList;
+import gnu.trove.TObjectIntHashMap;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.xml.sax.SAXException;
+
+/**
+ * Detects intersecting triangles and triangles closer than a tolerance.
+ *
+ * <p>
+ * Triangles are stored into flat arrays, so that this check can be run
+ * either on a {@link Mesh} or directly on amibe files, see
+ * {@link #readAmibe}.  A bounding volume hierarchy is built on triangles
+ * sorted along a Morton curve: triangles are first dispatched into
+ * buckets according to the leading bits of their key, and each bucket
+ * is sorted and converted into a subtree by its own thread.  All
+ * triangles are then queried against this tree concurrently, and
+ * candidate pairs are checked with exact predicates.
+ * </p>
+ *
+ * <p>
+ * Triangles which share two vertices are adjacent and are not checked.
+ * When they share a single vertex, only their opposite edges are checked
+ * against the other triangle.  Other pairs are reported as intersecting
+ * if they have a common point, or as close if their distance is lower
+ * than the tolerance set by {@link #setTolerance}.
+ * </p>
+ */
+public class SelfIntersection
+{
+	private static final Logger LOGGER=Logger.getLogger(SelfIntersection.class.getName());
+	private static final int LEAF_SIZE = 4;
+	// Buckets are defined by the 9 leading bits of Morton keys
+	private static final int BUCKET_SHIFT = 3 * SpaceFillingCurve.BITS - 9;
+	private static final int CHUNK_SIZE = 4096;
+
+	private final double [] coords;
+	private final int [] triangles;
+	private final int nrTriangles;
+	// Mesh and its triangles, null when triangles have been read from files
+	private final Mesh mesh;
+	private final Triangle [] meshTriangles;
+	private double tolerance = 0.0;
+	private int nrThreads = Runtime.getRuntime().availableProcessors();
+
+	// Triangle indices, sorted along Morton curve
+	private int [] perm;
+	// Bounding boxes of nodes, 6 values per node
+	private float [] boxes;
+	// Children of internal nodes, or -(start+1) and number of triangles for leaves
+	private int [] children;
+	private int root;
+
+	private long [] intersecting = new long[0];
+	private long [] close = new long[0];
+
+	/**
+	 * Creates an instance to check mesh triangles.  Outer triangles and
+	 * triangles which are not made of 3 vertices are skipped.
+	 *
+	 * @param mesh  mesh
+	 */
+	public SelfIntersection(Mesh mesh)
+	{
+		this.mesh = mesh;
+		Collection<Triangle> list = mesh.getTriangles();
+		TObjectIntHashMap<Vertex> index = new TObjectIntHashMap<Vertex>(list.size());
+		List<Triangle> kept = new ArrayList<Triangle>(list.size());
+		TIntArrayList tria = new TIntArrayList(3 * list.size());
+		double [] xyz = new double[3 * list.size()];
+		int nrVertices = 0;
+		for (Triangle t : list)
+		{
+			if (t.vertex.length != 3)
+				continue;
+			if (t.vertex[0] == mesh.outerVertex || t.vertex[1] == mesh.outerVertex || t.vertex[2] == mesh.outerVertex)
+				continue;
+			kept.add(t);
+			for (Vertex v : t.vertex)
+			{
+				if (!index.containsKey(v))
+				{
+					if (3 * nrVertices + 3 > xyz.length)
+					{
+						double [] temp = new double[2 * xyz.length];
+						System.arraycopy(xyz, 0, temp, 0, xyz.length);
+						xyz = temp;
+					}
+					double [] p = v.getUV();
+					System.arraycopy(p, 0, xyz, 3 * nrVertices, 3);
+					index.put(v, nrVertices);
+					nrVertices++;
+				}
+				tria.add(index.get(v));
+			}
+		}
+		coords = xyz;
+		triangles = tria.toNativeArray();
+		nrTriangles = kept.size();
+		meshTriangles = kept.toArray(new Triangle[nrTriangles]);
+	}
+
+	/**
+	 * Creates an instance to check triangles given by flat arrays.
+	 *
+	 * @param coords  vertex coordinates, 3 values per vertex
+	 * @param triangles  vertex indices, 3 values per triangle
+	 */
+	public SelfIntersection(double [] coords, int [] triangles)
+	{
+		this.coords = coords;
+		this.triangles = triangles;
+		nrTriangles = triangles.length / 3;
+		mesh = null;
+		meshTriangles = null;
+	}
+
+	/**
+	 * Reads triangles of an amibe directory without building a mesh.
+	 * Triangles with outer vertex are skipped, and triangle indices are
+	 * then indices in the remaining triangles.
+	 *
+	 * @param dir  amibe directory
+	 * @return an instance to check these triangles
+	 */
+	public static SelfIntersection readAmibe(String dir) throws IOException, SAXException
+	{
+		AmibeReader.Dim3 ar = new AmibeReader.Dim3(dir);
+		AmibeReader.SubMesh sm = ar.getSubmeshes().get(0);
+		DoubleFileReader dfr = sm.getNodes();
+		double [] xyz = new double[3 * sm.getNumberOfNodes()];
+		dfr.get(xyz);
+		dfr.close();
+		IntFileReader ifr = sm.getTriangles();
+		int [] tria = new int[3 * sm.getNumberOfTrias()];
+		ifr.get(tria);
+		ifr.close();
+		int n = 0;
+		for (int i = 0; i < tria.length; i += 3)
+		{
+			if (tria[i] < 0 || tria[i+1] < 0 || tria[i+2] < 0)
+				continue;
+			tria[n++] = tria[i];
+			tria[n++] = tria[i+1];
+			tria[n++] = tria[i+2];
+		}
+		if (n < tria.length)
+		{
+			int [] temp = new int[n];
+			System.arraycopy(tria, 0, temp, 0, n);
+			tria = temp;
+		}
+		return new SelfIntersection(xyz, tria);
+	}
+
+	/**
+	 * Sets the distance below which non adjacent triangles are reported
+	 * as close.  By default, only intersections are reported.
+	 */
+	public void setTolerance(double tolerance)
+	{
+		this.tolerance = tolerance;
+	}
+
+	public void setNumberOfThreads(int n)
+	{
+		nrThreads = n;
+	}
+
+	public int getNumberOfTriangles()
+	{
+		return nrTriangles;
+	}
+
+	public SelfIntersection compute()
+	{
+		if (nrTriangles == 0)
+			return this;
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, nrThreads));
+		try
+		{
+			long start = System.currentTimeMillis();
+			buildTree(executor);
+			long built = System.currentTimeMillis();
+			query(executor);
+			if (LOGGER.isLoggable(Level.CONFIG))
+				LOGGER.log(Level.CONFIG, "Checked "+nrTriangles+" triangles: tree built in "+
+					(built - start)+" ms, queries in "+(System.currentTimeMillis() - built)+" ms, "+
+					intersecting.length+" intersecting pairs, "+close.length+" close pairs");
+		}
+		finally
+		{
+			executor.shutdown();
+		}
+		return this;
+	}
+
+	private static <T> List<T> invokeAll(ExecutorService executor, List<Callable<T>> tasks)
+	{
+		List<T> ret = new ArrayList<T>(tasks.size());
+		try
+		{
+			for (Future<T> f : executor.invokeAll(tasks))
+				ret.add(f.get());
+		}
+		catch (ExecutionException ex)
+		{
+			Throwable cause = ex.getCause();
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+			if (cause instanceof Error)
+				throw (Error) cause;
+			throw new RuntimeException(cause);
+		}
+		catch (InterruptedException ex)
+		{
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(ex);
+		}
+		return ret;
+	}
+
+	/**
+	 * Growable node arrays of a subtree.
+	 */
+	private static final class Nodes
+	{
+		private float [] box = new float[6 * 64];
+		private int [] child = new int[2 * 64];
+		private int size;
+
+		private int add()
+		{
+			if (size == child.length / 2)
+			{
+				float [] tempBox = new float[2 * box.length];
+				System.arraycopy(box, 0, tempBox, 0, box.length);
+				box = tempBox;
+				int [] tempChild = new int[2 * child.length];
+				System.arraycopy(child, 0, tempChild, 0, child.length);
+				child = tempChild;
+			}
+			return size++;
+		}
+	}
+
+	private void buildTree(ExecutorService executor)
+	{
+		double [] bbmin = new double[] { Double.MAX_VALUE, Double.MAX_VALUE, Double.MAX_VALUE };
+		double [] bbmax = new double[] { -Double.MAX_VALUE, -Double.MAX_VALUE, -Double.MAX_VALUE };
+		for (int i = 0; i < coords.length; i += 3)
+		{
+			for (int k = 0; k < 3; k++)
+			{
+				bbmin[k] = Math.min(bbmin[k], coords[i+k]);
+				bbmax[k] = Math.max(bbmax[k], coords[i+k]);
+			}
+		}
+		final SpaceFillingCurve curve = new SpaceFillingCurve(SpaceFillingCurve.Type.MORTON, bbmin, bbmax);
+		final long [] keys = new long[nrTriangles];
+		List<Callable<Void>> keyTasks = new ArrayList<Callable<Void>>();
+		int nrChunks = Math.max(1, nrThreads);
+		for (int c = 0; c < nrChunks; c++)
+		{
+			final int lo = (int) ((long) nrTriangles * c / nrChunks);
+			final int hi = (int) ((long) nrTriangles * (c + 1) / nrChunks);
+			keyTasks.add(new Callable<Void>()
+			{
+				public Void call()
+				{
+					for (int i = lo; i < hi; i++)
+					{
+						double x = 0.0, y = 0.0, z = 0.0;
+						for (int j = 0; j < 3; j++)
+						{
+							int v = 3 * triangles[3*i+j];
+							x += coords[v];
+							y += coords[v+1];
+							z += coords[v+2];
+						}
+						keys[i] = curve.getKey(x / 3.0, y / 3.0, z / 3.0);
+					}
+					return null;
+				}
+			});
+		}
+		invokeAll(executor, keyTasks);
+
+		// Dispatch triangles into buckets
+		int nrBuckets = 1 << (3 * SpaceFillingCurve.BITS - BUCKET_SHIFT);
+		final int [] bucketStart = new int[nrBuckets + 1];
+		for (int i = 0; i < nrTriangles; i++)
+			bucketStart[(int) (keys[i] >>> BUCKET_SHIFT) + 1]++;
+		for (int b = 0; b < nrBuckets; b++)
+			bucketStart[b+1] += bucketStart[b];
+		perm = new int[nrTriangles];
+		int [] fill = new int[nrBuckets];
+		System.arraycopy(bucketStart, 0, fill, 0, nrBuckets);
+		for (int i = 0; i < nrTriangles; i++)
+			perm[fill[(int) (keys[i] >>> BUCKET_SHIFT)]++] = i;
+
+		// Sort each bucket and build its subtree
+		final long [] sortedKeys = new long[nrTriangles];
+		List<Callable<Nodes>> bucketTasks = new ArrayList<Callable<Nodes>>();
+		for (int b = 0; b < nrBuckets; b++)
+		{
+			final int lo = bucketStart[b];
+			final int hi = bucketStart[b+1];
+			if (lo == hi)
+				continue;
+			bucketTasks.add(new Callable<Nodes>()
+			{
+				public Nodes call()
+				{
+					int n = hi - lo;
+					long [] local = new long[n];
+					int [] tria = new int[n];
+					for (int k = 0; k < n; k++)
+					{
+						tria[k] = perm[lo+k];
+						local[k] = keys[tria[k]];
+					}
+					int [] p = SpaceFillingCurve.sortedPermutation(local, n);
+					for (int k = 0; k < n; k++)
+					{
+						perm[lo+k] = tria[p[k]];
+						sortedKeys[lo+k] = local[p[k]];
+					}
+					Nodes ret = new Nodes();
+					build(ret, sortedKeys, lo, hi);
+					return ret;
+				}
+			});
+		}
+		List<Nodes> subtrees = invokeAll(executor, bucketTasks);
+
+		// Concatenate subtrees, their roots are their first node,
+		// and add top nodes
+		int total = subtrees.size() - 1;
+		for (Nodes s : subtrees)
+			total += s.size;
+		boxes = new float[6 * total];
+		children = new int[2 * total];
+		int [] roots = new int[subtrees.size()];
+		int offset = 0;
+		for (int s = 0; s < roots.length; s++)
+		{
+			Nodes sub = subtrees.get(s);
+			System.arraycopy(sub.box, 0, boxes, 6 * offset, 6 * sub.size);
+			for (int k = 0; k < 2 * sub.size; k += 2)
+			{
+				if (sub.child[k] >= 0)
+				{
+					children[2*offset+k] = sub.child[k] + offset;
+					children[2*offset+k+1] = sub.child[k+1] + offset;
+				}
+				else
+				{
+					children[2*offset+k] = sub.child[k];
+					children[2*offset+k+1] = sub.child[k+1];
+				}
+			}
+			roots[s] = offset;
+			offset += sub.size;
+		}
+		int [] next = new int[] { offset };
+		root = buildTop(roots, 0, roots.length, next);
+		assert next[0] == total;
+	}
+
+	// Builds subtree of sorted triangles between lo and hi, and returns its root
+	private int build(Nodes out, long [] sortedKeys, int lo, int hi)
+	{
+		int node = out.add();
+		if (hi - lo <= LEAF_SIZE)
+		{
+			out.child[2*node] = -(lo + 1);
+			out.child[2*node+1] = hi - lo;
+			setLeafBox(out.box, node, lo, hi);
+			return node;
+		}
+		int mid = split(sortedKeys, lo, hi);
+		int left = build(out, sortedKeys, lo, mid);
+		int right = build(out, sortedKeys, mid, hi);
+		out.child[2*node] = left;
+		out.child[2*node+1] = right;
+		union(out.box, node, left, right);
+		return node;
+	}
+
+	// Splits at the highest bit which differs between keys
+	private static int split(long [] sortedKeys, int lo, int hi)
+	{
+		long first = sortedKeys[lo];
+		long last = sortedKeys[hi-1];
+		if (first == last)
+			return (lo + hi) >>> 1;
+		long bit = Long.highestOneBit(first ^ last);
+		int a = lo;
+		int b = hi - 1;
+		// sortedKeys[a] has this bit unset and sortedKeys[b] has it set
+		while (b - a > 1)
+		{
+			int m = (a + b) >>> 1;
+			if ((sortedKeys[m] & bit) != 0L)
+				b = m;
+			else
+				a = m;
+		}
+		return b;
+	}
+
+	private int buildTop(int [] roots, int lo, int hi, int [] next)
+	{
+		if (hi - lo == 1)
+			return roots[lo];
+		int mid = (lo + hi) >>> 1;
+		int left = buildTop(roots, lo, mid, next);
+		int right = buildTop(roots, mid, hi, next);
+		int node = next[0]++;
+		children[2*node] = left;
+		children[2*node+1] = right;
+		union(boxes, node, left, right);
+		return node;
+	}
+
+	private void setLeafBox(float [] box, int node, int lo, int hi)
+	{
+		double [] bmin = new double[] { Double.MAX_VALUE, Double.MAX_VALUE, Double.MAX_VALUE };
+		double [] bmax = new double[] { -Double.MAX_VALUE, -Double.MAX_VALUE, -Double.MAX_VALUE };
+		for (int k = lo; k < hi; k++)
+		{
+			int t = perm[k];
+			for (int j = 0; j < 3; j++)
+			{
+				int v = 3 * triangles[3*t+j];
+				for (int c = 0; c < 3; c++)
+				{
+					bmin[c] = Math.min(bmin[c], coords[v+c]);
+					bmax[c] = Math.max(bmax[c], coords[v+c]);
+				}
+			}
+		}
+		// Round outwards so that float boxes contain triangles
+		for (int c = 0; c < 3; c++)
+		{
+			float f = (float) bmin[c];
+			box[6*node+c] = f - Math.ulp(f);
+			f = (float) bmax[c];
+			box[6*node+3+c] = f + Math.ulp(f);
+		}
+	}
+
+	private static void union(float [] box, int node, int left, int right)
+	{
+		for (int c = 0; c < 3; c++)
+		{
+			box[6*node+c] = Math.min(box[6*left+c], box[6*right+c]);
+			box[6*node+3+c] = Math.max(box[6*left+3+c], box[6*right+3+c]);
+		}
+	}
+
+	private void query(ExecutorService executor)
+	{
+		final AtomicInteger nextChunk = new AtomicInteger();
+		List<Callable<Tester>> tasks = new ArrayList<Callable<Tester>>();
+		for (int t = Math.max(1, nrThreads); t > 0; t--)
+		{
+			tasks.add(new Callable<Tester>()
+			{
+				public Tester call()
+				{
+					Tester tester = new Tester();
+					while (true)
+					{
+						int lo = CHUNK_SIZE * nextChunk.getAndIncrement();
+						if (lo >= nrTriangles)
+							break;
+						int hi = Math.min(nrTriangles, lo + CHUNK_SIZE);
+						for (int k = lo; k < hi; k++)
+							tester.query(perm[k]);
+					}
+					return tester;
+				}
+			});
+		}
+		TLongArrayList allIntersecting = new TLongArrayList();
+		TLongArrayList allClose = new TLongArrayList();
+		for (Tester tester : invokeAll(executor, tasks))
+		{
+			allIntersecting.add(tester.intersecting.toNativeArray());
+			allClose.add(tester.close.toNativeArray());
+		}
+		intersecting = allIntersecting.toNativeArray();
+		Arrays.sort(intersecting);
+		close = allClose.toNativeArray();
+		Arrays.sort(close);
+	}
+
+	/**
+	 * Returns intersecting pairs of triangles, as an array containing
+	 * two triangle indices per pair.  When this instance has been created
+	 * from a mesh, triangle indices refer to {@link #getTriangle}.
+	 */
+	public int [] getIntersectingPairs()
+	{
+		return unpack(intersecting);
+	}
+
+	/**
+	 * Returns pairs of non intersecting triangles which are closer than
+	 * tolerance, as an array containing two triangle indices per pair.
+	 */
+	public int [] getClosePairs()
+	{
+		return unpack(close);
+	}
+
+	private static int [] unpack(long [] pairs)
+	{
+		int [] ret = new int[2 * pairs.length];
+		for (int i = 0; i < pairs.length; i++)
+		{
+			ret[2*i] = (int) (pairs[i] >>> 32);
+			ret[2*i+1] = (int) pairs[i];
+		}
+		return ret;
+	}
+
+	/**
+	 * Returns sorted indices of triangles which belong to an intersecting
+	 * or close pair.
+	 */
+	public int [] getOffendingTriangles()
+	{
+		int [] all = new int[2 * (intersecting.length + close.length)];
+		System.arraycopy(unpack(intersecting), 0, all, 0, 2 * intersecting.length);
+		System.arraycopy(unpack(close), 0, all, 2 * intersecting.length, 2 * close.length);
+		Arrays.sort(all);
+		int n = 0;
+		for (int i = 0; i < all.length; i++)
+		{
+			if (n == 0 || all[n-1] != all[i])
+				all[n++] = all[i];
+		}
+		int [] ret = new int[n];
+		System.arraycopy(all, 0, ret, 0, n);
+		return ret;
+	}
+
+	/**
+	 * Returns mesh triangle of a given index.
+	 *
+	 * @throws IllegalStateException if this instance has not been created from a mesh
+	 */
+	public Triangle getTriangle(int index)
+	{
+		if (meshTriangles == null)
+			throw new IllegalStateException("Triangles have not been read from a mesh");
+		return meshTriangles[index];
+	}
+
+	/**
+	 * Moves offending triangles into a new group.
+	 *
+	 * @param name  group name
+	 * @return the id of the new group
+	 * @throws IllegalStateException if this instance has not been created from a mesh
+	 */
+	public int tagGroup(String name)
+	{
+		if (mesh == null)
+			throw new IllegalStateException("Triangles have not been read from a mesh");
+		int id = 0;
+		for (Triangle t : mesh.getTriangles())
+			id = Math.max(id, t.getGroupId());
+		id++;
+		while (mesh.getGroupName(id) != null)
+			id++;
+		mesh.setGroupName(id, name);
+		for (int i : getOffendingTriangles())
+			meshTriangles[i].setGroupId(id);
+		return id;
+	}
+
+	/**
+	 * Queries the tree and checks candidate pairs, an instance is used
+	 * by each thread.
+	 */
+	private final class Tester
+	{
+		private final TLongArrayList intersecting = new TLongArrayList();
+		private final TLongArrayList close = new TLongArrayList();
+		private final int [] stack = new int[256];
+		private final float [] qbox = new float[6];
+		private final double [][] p = new double[6][3];
+		private final double [][] q = new double[5][2];
+		private final double [] closest = new double[3];
+
+		private void query(int t)
+		{
+			for (int c = 0; c < 6; c++)
+				qbox[c] = (float) (c < 3 ? Double.MAX_VALUE : -Double.MAX_VALUE);
+			for (int j = 0; j < 3; j++)
+			{
+				int v = 3 * triangles[3*t+j];
+				for (int c = 0; c < 3; c++)
+				{
+					qbox[c] = Math.min(qbox[c], (float) (coords[v+c] - tolerance));
+					qbox[3+c] = Math.max(qbox[3+c], (float) (coords[v+c] + tolerance));
+				}
+			}
+			for (int c = 0; c < 3; c++)
+			{
+				qbox[c] -= Math.ulp(qbox[c]);
+				qbox[3+c] += Math.ulp(qbox[3+c]);
+			}
+			int top = 0;
+			stack[top++] = root;
+			while (top > 0)
+			{
+				int node = stack[--top];
+				if (!overlap(node))
+					continue;
+				int a = children[2*node];
+				if (a >= 0)
+				{
+					stack[top++] = a;
+					stack[top++] = children[2*node+1];
+					continue;
+				}
+				int start = -a - 1;
+				int end = start + children[2*node+1];
+				for (int k = start; k < end; k++)
+				{
+					int other = perm[k];
+					if (other > t)
+						check(t, other);
+				}
+			}
+		}
+
+		private boolean overlap(int node)
+		{
+			for (int c = 0; c < 3; c++)
+			{
+				if (boxes[6*node+c] > qbox[3+c] || boxes[6*node+3+c] < qbox[c])
+					return false;
+			}
+			return true;
+		}
+
+		private void check(int t1, int t2)
+		{
+			int shared1 = -1;
+			int shared2 = -1;
+			int nrShared = 0;
+			for (int i = 0; i < 3; i++)
+			{
+				for (int j = 0; j < 3; j++)
+				{
+					if (triangles[3*t1+i] == triangles[3*t2+j])
+					{
+						nrShared++;
+						shared1 = i;
+						shared2 = j;
+					}
+				}
+			}
+			// Adjacent triangles
+			if (nrShared >= 2)
+				return;
+			for (int i = 0; i < 3; i++)
+			{
+				System.arraycopy(coords, 3 * triangles[3*t1+i], p[i], 0, 3);
+				System.arraycopy(coords, 3 * triangles[3*t2+i], p[3+i], 0, 3);
+			}
+			long pair = ((long) t1 << 32) | t2;
+			if (nrShared == 1)
+			{
+				// Check opposite edges
+				if (intersectSegment(p[(shared1+1)%3], p[(shared1+2)%3], p[3], p[4], p[5]) ||
+				    intersectSegment(p[3+(shared2+1)%3], p[3+(shared2+2)%3], p[0], p[1], p[2]))
+					intersecting.add(pair);
+				return;
+			}
+			for (int i = 0; i < 3; i++)
+			{
+				if (intersectSegment(p[i], p[(i+1)%3], p[3], p[4], p[5]) ||
+				    intersectSegment(p[3+i], p[3+(i+1)%3], p[0], p[1], p[2]))
+				{
+					intersecting.add(pair);
+					return;
+				}
+			}
+			if (tolerance > 0.0 && distance2() <= tolerance * tolerance)
+				close.add(pair);
+		}
+
+		// Tells whether segment [ab] and triangle (t0,t1,t2) have a common point
+		private boolean intersectSegment(double [] a, double [] b, double [] t0, double [] t1, double [] t2)
+		{
+			double o1 = Predicates.orient3d(t0, t1, t2, a);
+			double o2 = Predicates.orient3d(t0, t1, t2, b);
+			if ((o1 > 0.0 && o2 > 0.0) || (o1 < 0.0 && o2 < 0.0))
+				return false;
+			if (o1 == 0.0 && o2 == 0.0)
+				return intersectCoplanar(a, b, t0, t1, t2);
+			double s1 = Predicates.orient3d(a, b, t0, t1);
+			double s2 = Predicates.orient3d(a, b, t1, t2);
+			double s3 = Predicates.orient3d(a, b, t2, t0);
+			return (s1 >= 0.0 && s2 >= 0.0 && s3 >= 0.0) || (s1 <= 0.0 && s2 <= 0.0 && s3 <= 0.0);
+		}
+
+		private boolean intersectCoplanar(double [] a, double [] b, double [] t0, double [] t1, double [] t2)
+		{
+			double ux = t1[0] - t0[0], uy = t1[1] - t0[1], uz = t1[2] - t0[2];
+			double vx = t2[0] - t0[0], vy = t2[1] - t0[1], vz = t2[2] - t0[2];
+			double nx = Math.abs(uy * vz - uz * vy);
+			double ny = Math.abs(uz * vx - ux * vz);
+			double nz = Math.abs(ux * vy - uy * vx);
+			// Degenerate triangles are reported by other quality procedures
+			if (nx == 0.0 && ny == 0.0 && nz == 0.0)
+				return false;
+			// Project onto the plane orthogonal to dominant normal component
+			int k = nx >= ny && nx >= nz ? 0 : (ny >= nz ? 1 : 2);
+			int i0 = (k + 1) % 3;
+			int i1 = (k + 2) % 3;
+			project(a, q[0], i0, i1);
+			project(b, q[1], i0, i1);
+			project(t0, q[2], i0, i1);
+			project(t1, q[3], i0, i1);
+			project(t2, q[4], i0, i1);
+			if (inside(q[0]) || inside(q[1]))
+				return true;
+			return intersect2d(q[0], q[1], q[2], q[3]) ||
+				intersect2d(q[0], q[1], q[3], q[4]) ||
+				intersect2d(q[0], q[1], q[4], q[2]);
+		}
+
+		private boolean inside(double [] m)
+		{
+			double o1 = Predicates.orient2d(q[2], q[3], m);
+			double o2 = Predicates.orient2d(q[3], q[4], m);
+			double o3 = Predicates.orient2d(q[4], q[2], m);
+			return (o1 >= 0.0 && o2 >= 0.0 && o3 >= 0.0) || (o1 <= 0.0 && o2 <= 0.0 && o3 <= 0.0);
+		}
+
+		/**
+		 * Computes the squared distance between the two triangles, which
+		 * do not intersect.
+		 */
+		private double distance2()
+		{
+			double tol2 = tolerance * tolerance;
+			double ret = Double.MAX_VALUE;
+			for (int i = 0; i < 3 && ret > tol2; i++)
+			{
+				ret = Math.min(ret, distance2PointTriangle(p[i], p[3], p[4], p[5], closest));
+				ret = Math.min(ret, distance2PointTriangle(p[3+i], p[0], p[1], p[2], closest));
+			}
+			for (int i = 0; i < 3 && ret > tol2; i++)
+				for (int j = 0; j < 3 && ret > tol2; j++)
+					ret = Math.min(ret, distance2Segments(p[i], p[(i+1)%3], p[3+j], p[3+(j+1)%3]));
+			return ret;
+		}
+	}
+
+	private static void project(double [] src, double [] dst, int i0, int i1)
+	{
+		dst[0] = src[i0];
+		dst[1] = src[i1];
+	}
+
+	// Tells whether segments [ab] and [cd] of the plane have a common point
+	private static boolean intersect2d(double [] a, double [] b, double [] c, double [] d)
+	{
+		double d1 = Predicates.orient2d(a, b, c);
+		double d2 = Predicates.orient2d(a, b, d);
+		double d3 = Predicates.orient2d(c, d, a);
+		double d4 = Predicates.orient2d(c, d, b);
+		if (((d1 > 0.0 && d2 < 0.0) || (d1 < 0.0 && d2 > 0.0)) &&
+		    ((d3 > 0.0 && d4 < 0.0) || (d3 < 0.0 && d4 > 0.0)))
+			return true;
+		return (d1 == 0.0 && onSegment(a, b, c)) || (d2 == 0.0 && onSegment(a, b, d)) ||
+			(d3 == 0.0 && onSegment(c, d, a)) || (d4 == 0.0 && onSegment(c, d, b));
+	}
+
+	// Tells whether m, which is aligned with a and b, lies on [ab]
+	private static boolean onSegment(double [] a, double [] b, double [] m)
+	{
+		return Math.min(a[0], b[0]) <= m[0] && m[0] <= Math.max(a[0], b[0]) &&
+			Math.min(a[1], b[1]) <= m[1] && m[1] <= Math.max(a[1], b[1]);
+	}
+
+	private static double distance2(double [] a, double x, double y, double z)
+	{
+		double dx = a[0] - x;
+		double dy = a[1] - y;
+		double dz = a[2] - z;
+		return dx * dx + dy * dy + dz * dz;
+	}
+
+	private static double dot(double [] a, double [] b, double [] c)
+	{
+		// (b - a).(c - a)
+		return (b[0] - a[0]) * (c[0] - a[0]) + (b[1] - a[1]) * (c[1] - a[1]) + (b[2] - a[2]) * (c[2] - a[2]);
+	}
+
+	/**
+	 * Computes the squared distance between a point and a triangle, see
+	 * Christer Ericson, Real-Time Collision Detection, section 5.1.5.
+	 */
+	static double distance2PointTriangle(double [] m, double [] a, double [] b, double [] c, double [] work)
+	{
+		double d1 = dot(a, b, m);
+		double d2 = dot(a, c, m);
+		if (d1 <= 0.0 && d2 <= 0.0)
+			return distance2(m, a[0], a[1], a[2]);
+		double d3 = d1 - dot(a, b, b);
+		double d4 = d2 - dot(a, c, b);
+		if (d3 >= 0.0 && d4 <= d3)
+			return distance2(m, b[0], b[1], b[2]);
+		double vc = d1 * d4 - d3 * d2;
+		if (vc <= 0.0 && d1 >= 0.0 && d3 <= 0.0)
+		{
+			double s = d1 / (d1 - d3);
+			for (int k = 0; k < 3; k++)
+				work[k] = a[k] + s * (b[k] - a[k]);
+			return distance2(m, work[0], work[1], work[2]);
+		}
+		double d5 = d1 - dot(a, b, c);
+		double d6 = d2 - dot(a, c, c);
+		if (d6 >= 0.0 && d5 <= d6)
+			return distance2(m, c[0], c[1], c[2]);
+		double vb = d5 * d2 - d1 * d6;
+		if (vb <= 0.0 && d2 >= 0.0 && d6 <= 0.0)
+		{
+			double s = d2 / (d2 - d6);
+			for (int k = 0; k < 3; k++)
+				work[k] = a[k] + s * (c[k] - a[k]);
+			return distance2(m, work[0], work[1], work[2]);
+		}
+		double va = d3 * d6 - d5 * d4;
+		if (va <= 0.0 && d4 - d3 >= 0.0 && d5 - d6 >= 0.0)
+		{
+			double s = (d4 - d3) / ((d4 - d3) + (d5 - d6));
+			for (int k = 0; k < 3; k++)
+				work[k] = b[k] + s * (c[k] - b[k]);
+			return distance2(m, work[0], work[1], work[2]);
+		}
+		double sum = va + vb + vc;
+		// Degenerate triangle, its edges are checked separately
+		if (sum <= 0.0)
+			return Double.MAX_VALUE;
+		double v = vb / sum;
+		double w = vc / sum;
+		for (int k = 0; k < 3; k++)
+			work[k] = a[k] + v * (b[k] - a[k]) + w * (c[k] - a[k]);
+		return distance2(m, work[0], work[1], work[2]);
+	}
+
+	/**
+	 * Computes the squared distance between segments [p1q1] and [p2q2], see
+	 * Christer Ericson, Real-Time Collision Detection, section 5.1.9.
+	 */
+	static double distance2Segments(double [] p1, double [] q1, double [] p2, double [] q2)
+	{
+		double a = dot(p1, q1, q1);
+		double e = dot(p2, q2, q2);
+		double f = (q2[0] - p2[0]) * (p1[0] - p2[0]) + (q2[1] - p2[1]) * (p1[1] - p2[1]) + (q2[2] - p2[2]) * (p1[2] - p2[2]);
+		double s, t;
+		if (a == 0.0 && e == 0.0)
+			return distance2(p1, p2[0], p2[1], p2[2]);
+		if (a == 0.0)
+		{
+			s = 0.0;
+			t = clamp(f / e);
+		}
+		else
+		{
+			double c = (q1[0] - p1[0]) * (p1[0] - p2[0]) + (q1[1] - p1[1]) * (p1[1] - p2[1]) + (q1[2] - p1[2]) * (p1[2] - p2[2]);
+			if (e == 0.0)
+			{
+				t = 0.0;
+				s = clamp(-c / a);
+			}
+			else
+			{
+				double b = (q1[0] - p1[0]) * (q2[0] - p2[0]) + (q1[1] - p1[1]) * (q2[1] - p2[1]) + (q1[2] - p1[2]) * (q2[2] - p2[2]);
+				double denom = a * e - b * b;
+				s = denom > 0.0 ? clamp((b * f - c * e) / denom) : 0.0;
+				t = (b * s + f) / e;
+				if (t < 0.0)
+				{
+					t = 0.0;
+					s = clamp(-c / a);
+				}
+				else if (t > 1.0)
+				{
+					t = 1.0;
+					s = clamp((b - c) / a);
+				}
+			}
+		}
+		double dx = p1[0] + s * (q1[0] - p1[0]) - p2[0] - t * (q2[0] - p2[0]);
+		double dy = p1[1] + s * (q1[1] - p1[1]) - p2[1] - t * (q2[1] - p2[1]);
+		double dz = p1[2] + s * (q1[2] - p1[2]) - p2[2] - t * (q2[2] - p2[2]);
+		return dx * dx + dy * dy + dz * dz;
+	}
+
+	private static double clamp(double x)
+	{
+		return x < 0.0 ? 0.0 : (x > 1.0 ? 1.0 : x);
+	}
+}
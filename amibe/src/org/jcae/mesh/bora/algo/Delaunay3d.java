@@ -0,0 +1,114 @@
+/* jCAE stand for Java Computer Aided Engineering. Features are : Small CAD
+   modeler, Finite element mesher, Plugin architecture.
+
+    Copyright (C) 2012, by EADS France
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package org.jcae.mesh.bora.algo;
+
+import org.jcae.mesh.bora.ds.BDiscretization;
+import org.jcae.mesh.bora.ds.BSubMesh;
+import org.jcae.mesh.amibe.algos3d.DelaunayTetrahedralizer;
+import org.jcae.mesh.amibe.ds.Mesh;
+import org.jcae.mesh.amibe.metrics.MetricSupport;
+import org.jcae.mesh.amibe.traits.MeshTraitsBuilder;
+import org.jcae.mesh.bora.xmldata.Storage;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * Run the Java 3D mesher, see {@link DelaunayTetrahedralizer}.
+ * Face discretizations are read in memory, and target size is the
+ * hypothesis length unless a size function is given.  If surface
+ * triangles cannot be recovered by flips, which happens when the
+ * volume cannot be tetrahedralized without inner vertices, {@link
+ * TetGen} is run instead when it is available.  This mesher is only
+ * selected when the
+ * <code>org.jcae.mesh.bora.ds.Hypothesis.delaunay3d</code> system
+ * property is <code>true</code>.
+ */
+public class Delaunay3d implements AlgoInterface
+{
+	private static final Logger LOGGER=Logger.getLogger(Delaunay3d.class.getName());
+	private final double maxlen;
+	private MetricSupport.AnalyticMetricInterface sizeFunction;
+	private int numberOfThreads = Runtime.getRuntime().availableProcessors();
+
+	public Delaunay3d(double len)
+	{
+		maxlen = len;
+	}
+
+	/**
+	 * Sets target size function, it overrides hypothesis length.
+	 */
+	public void setAnalyticMetric(MetricSupport.AnalyticMetricInterface f)
+	{
+		sizeFunction = f;
+	}
+
+	public void setNumberOfThreads(int n)
+	{
+		numberOfThreads = n;
+	}
+
+	public boolean isAvailable()
+	{
+		return true;
+	}
+
+	public int getOrientation(int o)
+	{
+		return o;
+	}
+
+	public boolean compute(BDiscretization d)
+	{
+		BSubMesh s = d.getFirstSubMesh();
+		LOGGER.info("Running Delaunay3d on submesh "+s.getId());
+		MeshTraitsBuilder mtb = MeshTraitsBuilder.getDefault3D();
+		mtb.addNodeList();
+		Mesh m = new Mesh(mtb);
+		Storage.readAllFaces(m, d.getGraphCell(), s);
+		Map<String, String> options = new HashMap<String, String>();
+		options.put("size", ""+maxlen);
+		options.put("threads", ""+numberOfThreads);
+		DelaunayTetrahedralizer algo = new DelaunayTetrahedralizer(m, options);
+		algo.setAnalyticMetric(sizeFunction);
+		Mesh vm = algo.compute().getOutputMesh();
+		if (vm == null)
+		{
+			TetGen tetgen = new TetGen(maxlen);
+			if (!tetgen.isAvailable())
+				return false;
+			LOGGER.info("Surface mesh cannot be recovered, run TetGen");
+			return tetgen.compute(d);
+		}
+		d.setMesh(vm);
+		Storage.writeSolid(d);
+		return true;
+	}
+
+	@Override
+	public final String toString()
+	{
+		String ret = "Algo: "+getClass().getName();
+		ret += "\nTarget size: "+maxlen;
+		return ret;
+	}
+}
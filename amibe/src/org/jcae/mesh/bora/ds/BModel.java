@@ -22,6 +22,7 @@
 package org.jcae.mesh.bora.ds;
 
 import org.jcae.mesh.bora.xmldata.BModelWriter;
+import org.jcae.mesh.bora.xmldata.PackedStorage;
 import org.jcae.mesh.bora.xmldata.Storage;
 import org.jcae.mesh.cad.CADShapeFactory;
 import org.jcae.mesh.cad.CADShape;
@@ -32,6 +33,7 @@ import java.util.LinkedHashSet;
 import java.util.Stack;
 import java.util.Iterator;
 import java.io.File;
+import java.io.IOException;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
@@ -59,6 +61,8 @@ public class BModel
 	private String xmlDir;
 	private final String xmlFile = "model";
 	private final String xmlBrepDir;
+	//   Packed storage of discretizations, or null
+	private PackedStorage packedStorage;
 	//   List of all constraints
 	private final Collection<Constraint> allConstraints = new LinkedHashSet<Constraint>();
 	//   Internal state
@@ -92,11 +96,76 @@ public class BModel
 		xmlBrepDir = relativize(new File(brep).getAbsoluteFile().getParentFile(), new File(xmlDir).getAbsoluteFile()).getPath();
 		// CAD graph
 		cad = new BCADGraph(this, factory.newShape(brep));
+		if (PackedStorage.exists(xmlDir))
+			setPackedStorage(true);
 	}
 
 
 	public void setOutputDir(String newDir) {
+		boolean packed = packedStorage != null;
+		closePackedStorage();
 		xmlDir = newDir;
+		if (packed)
+			openPackedStorage();
+	}
+
+	/**
+	 * Stores discretizations into a single data file, see
+	 * {@link PackedStorage}, instead of one directory per discretization.
+	 * Discretizations already written into directories are migrated, and
+	 * they are moved back into directories when packed storage is
+	 * disabled, so that they remain visible.
+	 *
+	 * @param packed  <code>true</code> to use packed storage,
+	 *        <code>false</code> to use one directory per discretization
+	 */
+	public final void setPackedStorage(boolean packed)
+	{
+		if (packed == (packedStorage != null))
+			return;
+		if (packed)
+		{
+			openPackedStorage();
+			return;
+		}
+		closePackedStorage();
+		try
+		{
+			PackedStorage.unpack(xmlDir);
+		}
+		catch (IOException ex)
+		{
+			throw new RuntimeException("Cannot unpack discretizations in "+xmlDir, ex);
+		}
+	}
+
+	private void openPackedStorage()
+	{
+		try
+		{
+			PackedStorage.migrate(xmlDir, true);
+			packedStorage = new PackedStorage(xmlDir);
+		}
+		catch (IOException ex)
+		{
+			throw new RuntimeException("Cannot open packed storage in "+xmlDir, ex);
+		}
+	}
+
+	private void closePackedStorage()
+	{
+		if (packedStorage != null)
+			packedStorage.close();
+		packedStorage = null;
+	}
+
+	/**
+	 * Returns packed storage of discretizations, or <code>null</code>
+	 * if they are stored into directories.
+	 */
+	public final PackedStorage getPackedStorage()
+	{
+		return packedStorage;
 	}
 
 	public static void reset()
@@ -111,8 +180,12 @@ public class BModel
 	 */
 	public void cleanWorkDirectory() {
 		LOGGER.info("Cleaning " + xmlDir);
+		boolean packed = packedStorage != null;
+		closePackedStorage();
 		deleteDirectory(new File(xmlDir), true, new File(xmlFile));
 		BDiscretization.nextId = -1;
+		if (packed)
+			openPackedStorage();
 
 	}
 
@@ -30,6 +30,9 @@ import java.util.logging.Level;
 public class Hypothesis
 {
 	private static final Logger LOGGER = Logger.getLogger(Hypothesis.class.getName());
+	// Delaunay3d cannot recover surfaces which need inner vertices, TetGen
+	// is the default solid mesher unless this property is set.
+	private static final boolean USE_DELAUNAY3D = Boolean.getBoolean("org.jcae.mesh.bora.ds.Hypothesis.delaunay3d");
 
 	private HypInterface hyp = HypNoneInstance;
 	// Now, length is the target length and is the variable that is used;
@@ -332,10 +335,18 @@ public class Hypothesis
 			}
 			else if (cse == CADShapeEnum.SOLID)
 			{
-				Constructor<TetGen> cons = TetGen.class.getConstructor(double.class);
-				ret = cons.newInstance(length);
-				if (!ret.isAvailable())
-					LOGGER.severe("TetGen not available!");
+				if (USE_DELAUNAY3D)
+				{
+					Constructor<Delaunay3d> cons = Delaunay3d.class.getConstructor(double.class);
+					ret = cons.newInstance(length);
+				}
+				else
+				{
+					Constructor<TetGen> cons = TetGen.class.getConstructor(double.class);
+					ret = cons.newInstance(length);
+					if (!ret.isAvailable())
+						LOGGER.severe("TetGen not available!");
+				}
 				/*
 				Constructor cons = Netgen.class.getConstructor(double.class);
 				ret = (AlgoInterface) cons.newInstance(length);
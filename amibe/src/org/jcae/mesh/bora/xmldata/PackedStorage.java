@@ -0,0 +1,455 @@
+/* jCAE stand for Java Computer Aided Engineering. Features are : Small CAD
+   modeler, Finite element mesher, Plugin architecture.
+
+    Copyright (C) 2012, by EADS France
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package org.jcae.mesh.bora.xmldata;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import gnu.trove.TLongHashSet;
+import gnu.trove.TLongObjectHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Packed storage of bora discretizations.
+ *
+ * <p>
+ * {@link Storage} writes each discretization into its own directory,
+ * named <code>1d&lt;id&gt;</code>, <code>2d&lt;id&gt;</code> or
+ * <code>3d&lt;id&gt;</code> after the discretization id, which contains
+ * small files <code>r</code> (references), <code>n</code> (coordinates),
+ * <code>p</code> (parameters), <code>b</code> (beams) and <code>f</code>
+ * (triangles or tetrahedra).  With many CAD cells, opening and closing
+ * these files dominates, especially on network filesystems.  This class
+ * stores all these records into two files of the model directory:
+ * </p>
+ * <ul>
+ *   <li><code>packed.data</code> contains records one after the other,
+ *   with the same content as the small files;</li>
+ *   <li><code>packed.index</code> starts with a magic number and a
+ *   version number, followed by one entry per record: a key (dimension,
+ *   discretization id and record name, see {@link #key}) as a long, the
+ *   id of the CAD cell as an int, the offset of the record as a long, and
+ *   its length in bytes as an int.</li>
+ * </ul>
+ *
+ * <p>
+ * Both files are append-only.  When a record is written again, the new
+ * entry replaces the previous one when the index is read, and old data
+ * is left unused in the data file.  Records can be appended concurrently
+ * by several threads: space is reserved in the data file under a lock,
+ * data are written without holding it, and the index entry is written
+ * afterwards, so that it never refers to incomplete data.  Records are
+ * read into heap buffers with positional reads, they are small and
+ * copied into arrays by callers anyway, and nothing has to be remapped
+ * when data are appended.
+ * </p>
+ *
+ * <p>
+ * {@link #migrate} converts a model directory written with the previous
+ * layout, and {@link #unpack} converts it back.
+ * </p>
+ */
+public final class PackedStorage
+{
+	private static final Logger LOGGER = Logger.getLogger(PackedStorage.class.getName());
+	public static final String DATA_FILE = "packed.data";
+	public static final String INDEX_FILE = "packed.index";
+	private static final int MAGIC = 0x6a434145;
+	private static final int VERSION = 1;
+	private static final char [] RECORDS = new char[] { 'r', 'n', 'p', 'b', 'f' };
+
+	private final File dir;
+	private final RandomAccessFile data;
+	private final FileChannel channel;
+	private final DataOutputStream indexOut;
+	private final TLongObjectHashMap<Entry> index = new TLongObjectHashMap<Entry>();
+	// End of reserved space in data file
+	private long dataEnd;
+
+	private static final class Entry
+	{
+		private final int cellId;
+		private final long offset;
+		private final int length;
+		private Entry(int cellId, long offset, int length)
+		{
+			this.cellId = cellId;
+			this.offset = offset;
+			this.length = length;
+		}
+	}
+
+	/**
+	 * Opens packed storage of a model directory, files are created
+	 * if they do not exist.
+	 *
+	 * @param dir  model directory
+	 * @throws IOException if files cannot be opened
+	 */
+	public PackedStorage(String dir) throws IOException
+	{
+		this.dir = new File(dir);
+		this.dir.mkdirs();
+		File indexFile = new File(this.dir, INDEX_FILE);
+		boolean newIndex = !indexFile.exists() || indexFile.length() == 0L;
+		if (!newIndex)
+			readIndex(indexFile);
+		data = new RandomAccessFile(new File(this.dir, DATA_FILE), "rw");
+		channel = data.getChannel();
+		dataEnd = channel.size();
+		indexOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFile, true)));
+		if (newIndex)
+		{
+			indexOut.writeInt(MAGIC);
+			indexOut.writeInt(VERSION);
+			indexOut.flush();
+		}
+	}
+
+	/**
+	 * Tells whether a model directory contains packed storage.
+	 */
+	public static boolean exists(String dir)
+	{
+		return new File(dir, INDEX_FILE).exists();
+	}
+
+	private void readIndex(File indexFile) throws IOException
+	{
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)));
+		try
+		{
+			if (in.readInt() != MAGIC)
+				throw new IOException("Invalid packed index: "+indexFile);
+			int version = in.readInt();
+			if (version != VERSION)
+				throw new IOException("Unsupported packed index version "+version+": "+indexFile);
+			while (true)
+			{
+				long key = in.readLong();
+				int cellId = in.readInt();
+				long offset = in.readLong();
+				int length = in.readInt();
+				index.put(key, new Entry(cellId, offset, length));
+			}
+		}
+		catch (EOFException ex)
+		{
+			// End of index, an incomplete last entry is ignored
+		}
+		finally
+		{
+			in.close();
+		}
+		if (LOGGER.isLoggable(Level.FINE))
+			LOGGER.log(Level.FINE, "Read "+index.size()+" entries from "+indexFile);
+	}
+
+	/**
+	 * Returns the key of a record.
+	 *
+	 * @param dim  dimension of the CAD cell (1 for edges, 2 for faces and 3 for solids)
+	 * @param id  discretization id
+	 * @param name  record name
+	 * @return key of this record
+	 */
+	public static long key(int dim, int id, char name)
+	{
+		return ((long) dim << 48) | (((long) id & 0xffffffffL) << 16) | name;
+	}
+
+	/**
+	 * Appends a record.  This method can be called concurrently.
+	 *
+	 * @param dim  dimension of the CAD cell
+	 * @param id  discretization id
+	 * @param cellId  id of the CAD cell
+	 * @param name  record name
+	 * @param buf  record content
+	 * @param len  number of bytes of buf to write
+	 * @throws IOException if an I/O error occurs
+	 */
+	public void append(int dim, int id, int cellId, char name, byte [] buf, int len) throws IOException
+	{
+		long offset;
+		synchronized (this)
+		{
+			offset = dataEnd;
+			dataEnd += len;
+		}
+		ByteBuffer bb = ByteBuffer.wrap(buf, 0, len);
+		long pos = offset;
+		while (bb.hasRemaining())
+			pos += channel.write(bb, pos);
+		long key = key(dim, id, name);
+		synchronized (this)
+		{
+			index.put(key, new Entry(cellId, offset, len));
+			indexOut.writeLong(key);
+			indexOut.writeInt(cellId);
+			indexOut.writeLong(offset);
+			indexOut.writeInt(len);
+			indexOut.flush();
+		}
+	}
+
+	public synchronized boolean contains(int dim, int id, char name)
+	{
+		return index.containsKey(key(dim, id, name));
+	}
+
+	/**
+	 * Returns the length in bytes of a record, or -1 if it does not exist.
+	 */
+	public synchronized int length(int dim, int id, char name)
+	{
+		Entry e = index.get(key(dim, id, name));
+		return e == null ? -1 : e.length;
+	}
+
+	/**
+	 * Returns the id of the CAD cell of a discretization, or -1 if it
+	 * has not been written.
+	 */
+	public synchronized int getCellId(int dim, int id)
+	{
+		for (char name : RECORDS)
+		{
+			Entry e = index.get(key(dim, id, name));
+			if (e != null)
+				return e.cellId;
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns a read-only buffer containing a record, or
+	 * <code>null</code> if it does not exist.  This method can be called
+	 * concurrently, each call returns a new buffer.
+	 *
+	 * @param dim  dimension of the CAD cell
+	 * @param id  discretization id
+	 * @param name  record name
+	 * @return a buffer containing this record
+	 * @throws IOException if an I/O error occurs
+	 */
+	public ByteBuffer get(int dim, int id, char name) throws IOException
+	{
+		Entry e;
+		synchronized (this)
+		{
+			e = index.get(key(dim, id, name));
+		}
+		if (e == null)
+			return null;
+		return read(e);
+	}
+
+	private ByteBuffer read(Entry e) throws IOException
+	{
+		// Offset of empty records may be beyond end of file, they
+		// are not read
+		ByteBuffer ret = ByteBuffer.allocate(e.length);
+		long pos = e.offset;
+		while (ret.hasRemaining())
+		{
+			int n = channel.read(ret, pos);
+			if (n < 0)
+				throw new EOFException("Truncated record at offset "+e.offset+" in "+new File(dir, DATA_FILE));
+			pos += n;
+		}
+		ret.flip();
+		return ret.asReadOnlyBuffer();
+	}
+
+	/**
+	 * Closes files.
+	 */
+	public synchronized void close()
+	{
+		try
+		{
+			indexOut.close();
+			data.close();
+		}
+		catch (IOException ex)
+		{
+			LOGGER.log(Level.WARNING, "Cannot close "+dir, ex);
+		}
+	}
+
+	/**
+	 * Moves discretizations stored with the directory layout of a model
+	 * directory into its packed storage.
+	 *
+	 * @param dir  model directory
+	 * @param delete  if <code>true</code>, directories are removed once
+	 *        their content has been migrated
+	 * @return the number of migrated discretizations
+	 * @throws IOException if an I/O error occurs
+	 */
+	public static int migrate(String dir, boolean delete) throws IOException
+	{
+		File [] subdirs = new File(dir).listFiles();
+		if (subdirs == null)
+			return 0;
+		PackedStorage packed = new PackedStorage(dir);
+		int ret = 0;
+		try
+		{
+			for (File sub : subdirs)
+			{
+				String name = sub.getName();
+				if (!sub.isDirectory() || !name.matches("[123]d[0-9]+"))
+					continue;
+				int dim = name.charAt(0) - '0';
+				int id = Integer.parseInt(name.substring(2));
+				int cellId = readCellId(new File(sub, "id"));
+				for (char r : RECORDS)
+				{
+					File f = new File(sub, Character.toString(r));
+					if (!f.exists())
+						continue;
+					byte [] buf = new byte[(int) f.length()];
+					DataInputStream in = new DataInputStream(new FileInputStream(f));
+					try
+					{
+						in.readFully(buf);
+					}
+					finally
+					{
+						in.close();
+					}
+					packed.append(dim, id, cellId, r, buf, buf.length);
+				}
+				ret++;
+				if (delete)
+				{
+					for (File f : sub.listFiles())
+						f.delete();
+					sub.delete();
+				}
+			}
+		}
+		finally
+		{
+			packed.close();
+		}
+		LOGGER.info("Migrated "+ret+" discretizations into "+dir+File.separator+DATA_FILE);
+		return ret;
+	}
+
+	/**
+	 * Moves discretizations of the packed storage of a model directory
+	 * back into one directory per discretization, packed files are
+	 * removed afterwards.  This is the inverse of {@link #migrate}.
+	 *
+	 * @param dir  model directory
+	 * @return the number of unpacked discretizations
+	 * @throws IOException if an I/O error occurs
+	 */
+	public static int unpack(String dir) throws IOException
+	{
+		if (!exists(dir))
+			return 0;
+		PackedStorage packed = new PackedStorage(dir);
+		TLongHashSet discretizations = new TLongHashSet();
+		try
+		{
+			for (long key : packed.index.keys())
+			{
+				// Decode key, see key()
+				int dim = (int) (key >>> 48);
+				int id = (int) (key >>> 16);
+				char name = (char) key;
+				Entry e = packed.index.get(key);
+				File sub = new File(dir, dim+"d"+id);
+				if (discretizations.add(key(dim, id, (char) 0)))
+				{
+					sub.mkdirs();
+					if (e.cellId >= 0)
+						writeCellId(new File(sub, "id"), e.cellId);
+				}
+				ByteBuffer bb = packed.read(e);
+				FileChannel out = new FileOutputStream(new File(sub, Character.toString(name))).getChannel();
+				try
+				{
+					while (bb.hasRemaining())
+						out.write(bb);
+				}
+				finally
+				{
+					out.close();
+				}
+			}
+		}
+		finally
+		{
+			packed.close();
+		}
+		new File(dir, DATA_FILE).delete();
+		new File(dir, INDEX_FILE).delete();
+		LOGGER.info("Unpacked "+discretizations.size()+" discretizations from "+dir+File.separator+DATA_FILE);
+		return discretizations.size();
+	}
+
+	private static void writeCellId(File idFile, int cellId) throws IOException
+	{
+		PrintStream out = new PrintStream(new FileOutputStream(idFile));
+		try
+		{
+			out.println(cellId);
+		}
+		finally
+		{
+			out.close();
+		}
+	}
+
+	private static int readCellId(File idFile) throws IOException
+	{
+		if (!idFile.exists())
+			return -1;
+		BufferedReader in = new BufferedReader(new FileReader(idFile));
+		try
+		{
+			String line = in.readLine();
+			return line == null ? -1 : Integer.parseInt(line.trim());
+		}
+		finally
+		{
+			in.close();
+		}
+	}
+}
@@ -47,11 +47,14 @@ import org.jcae.mesh.xmldata.IntFileReader;
 import org.jcae.mesh.xmldata.PrimitiveFileReaderFactory;
 
 import java.io.File;
+import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.DataOutputStream;
 import java.io.PrintStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import gnu.trove.TObjectIntHashMap;
 import gnu.trove.TIntObjectHashMap;
 import gnu.trove.TIntArrayList;
@@ -88,6 +91,115 @@ public class Storage
 		}
 	}
 
+	// Dimension of the CAD cell, as in directory names
+	private static int dimension(BDiscretization d)
+	{
+		CADShapeEnum cse = d.getGraphCell().getType();
+		if (cse == CADShapeEnum.EDGE)
+			return 1;
+		else if (cse == CADShapeEnum.FACE)
+			return 2;
+		else if (cse == CADShapeEnum.SOLID)
+			return 3;
+		throw new IllegalArgumentException("Invalid CADShapeEnum: "+cse);
+	}
+
+	private static void writeId(BDiscretization d)
+	{
+		BModel model = d.getGraphCell().getGraph().getModel();
+		// Cell id is stored into index of packed storage
+		if (model.getPackedStorage() == null)
+			writeId(new File(model.getOutputDir(d)), d.getGraphCell().getId());
+	}
+
+	/**
+	 * Opens a stream to write a record of a discretization.  With packed
+	 * storage, data are kept in memory and appended when stream is closed.
+	 */
+	private static DataOutputStream openOutput(final BDiscretization d, final char name)
+		throws IOException
+	{
+		BModel model = d.getGraphCell().getGraph().getModel();
+		final PackedStorage packed = model.getPackedStorage();
+		if (packed == null)
+		{
+			File file = new File(model.getOutputDir(d), Character.toString(name));
+			if(file.exists())
+				file.delete();
+			if (LOGGER.isLoggable(Level.FINE))
+				LOGGER.log(Level.FINE, "begin writing "+file);
+			return new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+		}
+		final int cellId = d.getGraphCell().getId();
+		return new DataOutputStream(new ByteArrayOutputStream()
+		{
+			@Override
+			public void close() throws IOException
+			{
+				packed.append(dimension(d), d.getId(), cellId, name, buf, count);
+			}
+		});
+	}
+
+	// Returns the length in bytes of a record of a discretization
+	private static long recordLength(BDiscretization d, char name)
+	{
+		BModel model = d.getGraphCell().getGraph().getModel();
+		PackedStorage packed = model.getPackedStorage();
+		if (packed == null)
+			return new File(model.getOutputDir(d), Character.toString(name)).length();
+		return Math.max(0, packed.length(dimension(d), d.getId(), name));
+	}
+
+	private static ByteBuffer getRecord(PackedStorage packed, BDiscretization d, char name)
+		throws IOException
+	{
+		ByteBuffer ret = packed.get(dimension(d), d.getId(), name);
+		if (ret == null)
+			throw new FileNotFoundException("Record "+name+" of discretization "+d.getId()+" not found");
+		return ret;
+	}
+
+	private static int [] readInts(BDiscretization d, char name)
+		throws IOException
+	{
+		BModel model = d.getGraphCell().getGraph().getModel();
+		PackedStorage packed = model.getPackedStorage();
+		if (packed != null)
+		{
+			ByteBuffer bb = getRecord(packed, d, name);
+			int [] ret = new int[bb.remaining() / 4];
+			bb.asIntBuffer().get(ret);
+			return ret;
+		}
+		File file = new File(model.getOutputDir(d), Character.toString(name));
+		IntFileReader ifr = new PrimitiveFileReaderFactory().getIntReader(file);
+		int [] ret = new int[(int) file.length() / 4];
+		ifr.get(ret);
+		ifr.close();
+		return ret;
+	}
+
+	private static double [] readDoubles(BDiscretization d, char name)
+		throws IOException
+	{
+		BModel model = d.getGraphCell().getGraph().getModel();
+		PackedStorage packed = model.getPackedStorage();
+		if (packed != null)
+		{
+			ByteBuffer bb = getRecord(packed, d, name);
+			double [] ret = new double[bb.remaining() / 8];
+			bb.asDoubleBuffer().get(ret);
+			return ret;
+		}
+		File file = new File(model.getOutputDir(d), Character.toString(name));
+		DoubleFileReader dfr = new PrimitiveFileReaderFactory().getDoubleReader(file);
+		double [] ret = new double[(int) file.length() / 8];
+		dfr.get(ret);
+		dfr.close();
+		return ret;
+	}
+
 	public static void writeEdge(BDiscretization d)
 	{
 		BCADGraphCell edge = d.getGraphCell();
@@ -100,15 +212,14 @@ public class Storage
 
 		try
 		{
-			File dir = new File(edge.getGraph().getModel().getOutputDir(d));
-			writeId(dir, edge.getId());
+			writeId(d);
 			Collection<MNode1D> nodelist = submesh.getNodes();
 			// Write node references and compute local indices
-			TObjectIntHashMap<MNode1D> localIdx = write1dNodeReferences(dir, nodelist, edge);
+			TObjectIntHashMap<MNode1D> localIdx = write1dNodeReferences(d, nodelist, edge);
 			// Write node coordinates
-			write1dCoordinates(dir, nodelist, CADShapeFactory.getFactory().newCurve3D(E));
+			write1dCoordinates(d, nodelist, CADShapeFactory.getFactory().newCurve3D(E));
 			// Write edge connectivity
-			write1dEdges(dir, submesh.getEdges(), localIdx);
+			write1dEdges(d, submesh.getEdges(), localIdx);
 		}
 		catch(Exception ex)
 		{
@@ -126,14 +237,13 @@ public class Storage
 
 		try
 		{
-			File dir = new File(face.getGraph().getModel().getOutputDir(d));
-			writeId(dir, face.getId());
+			writeId(d);
 			CADFace F = (CADFace) face.getShape();
 			Collection<Triangle> trianglelist = submesh.getTriangles();
 			Collection<Vertex> nodelist = submesh.getNodes();
-			TObjectIntHashMap<Vertex> localIdx = write2dNodeReferences(dir, face.getId(), nodelist, submesh.outerVertex);
-			write2dCoordinates(dir, nodelist, submesh.outerVertex, F.getGeomSurface());
-			write2dTriangles(dir, trianglelist, localIdx);
+			TObjectIntHashMap<Vertex> localIdx = write2dNodeReferences(d, face.getId(), nodelist, submesh.outerVertex);
+			write2dCoordinates(d, nodelist, submesh.outerVertex, F.getGeomSurface());
+			write2dTriangles(d, trianglelist, localIdx);
 		}
 		catch(Exception ex)
 		{
@@ -151,12 +261,11 @@ public class Storage
 
 		try
 		{
-			File dir = new File(solid.getGraph().getModel().getOutputDir(d));
-			writeId(dir, solid.getId());
+			writeId(d);
 			Collection<Vertex> nodelist = submesh.getNodes();
-			TObjectIntHashMap<Vertex> localIdx = write2dNodeReferences(dir, solid.getId(), nodelist, submesh.outerVertex);
-			write2dCoordinates(dir, nodelist, submesh.outerVertex, null);
-			write2dTriangles(dir, submesh.getTriangles(), localIdx);
+			TObjectIntHashMap<Vertex> localIdx = write2dNodeReferences(d, solid.getId(), nodelist, submesh.outerVertex);
+			write2dCoordinates(d, nodelist, submesh.outerVertex, null);
+			write2dTriangles(d, submesh.getTriangles(), localIdx);
 		}
 		catch(Exception ex)
 		{
@@ -228,12 +337,11 @@ public class Storage
 		if (null == d) 
 			return;
 		int id = edge.getId();
-		File dir = new File(model.getOutputDir(d));
 		// Read vertex references
 		int [] refs = readNodeReferences(d);
 		// Create a Vertex array, and insert new references
 		// into mapRefVertex.
-		Vertex [] nodelist = read2dCoordinates(dir, mesh, refs, mapRefVertex);
+		Vertex [] nodelist = read2dCoordinates(d, mesh, refs, mapRefVertex);
 		int[] indices = readConnectivity(d);
 		for(int i = 0; i<indices.length; i+=2)
 			mesh.addBeam(nodelist[indices[i] - 1], nodelist[indices[i+1] - 1], groupId);
@@ -263,14 +371,13 @@ public class Storage
 		int id = face.getId();
 		try
 		{
-			File dir = new File(model.getOutputDir(d));
 			// Read vertex references
 			int [] refs = readNodeReferences(d);
 			// Create a Vertex array, and insert new references
 			// into mapRefVertex.
-			Vertex [] nodelist = read2dCoordinates(dir, mesh, refs, mapRefVertex);
+			Vertex [] nodelist = read2dCoordinates(d, mesh, refs, mapRefVertex);
 			// Read triangles and appends them to the mesh.
-			read2dTriangles(dir, id, 3, mesh, reversed, nodelist);
+			read2dTriangles(d, id, 3, mesh, reversed, nodelist);
 		}
 		catch(java.io.FileNotFoundException ex)
 		{
@@ -324,19 +431,18 @@ public class Storage
 		int id = volume.getId();
 		try
 		{
-			File dir = new File(model.getOutputDir(d));
 			// Read vertex references
 			int [] refs = readNodeReferences(d);
 			// Create a Vertex array, and insert new references
 			// into mapRefVertex.
-			Vertex [] nodelist = read2dCoordinates(dir, mesh, refs, mapRefVertex);
+			Vertex [] nodelist = read2dCoordinates(d, mesh, refs, mapRefVertex);
 			if (mesh.hasNodes())
 			{
 				for (int i = 0, n = nodelist.length; i < n; i++)
 					mesh.add(nodelist[i]);
 			}
 			// Read triangles and appends them to the mesh.
-			read2dTriangles(dir, id, 4, mesh, reversed, nodelist);
+			read2dTriangles(d, id, 4, mesh, reversed, nodelist);
 		}
 		catch(Exception ex)
 		{
@@ -347,17 +453,11 @@ public class Storage
 			LOGGER.log(Level.FINE, "end reading cell "+id);
 	}
 
-	private static TObjectIntHashMap<MNode1D> write1dNodeReferences(File dir, Collection<MNode1D> nodelist, BCADGraphCell edge)
+	private static TObjectIntHashMap<MNode1D> write1dNodeReferences(BDiscretization d, Collection<MNode1D> nodelist, BCADGraphCell edge)
 		throws IOException
 	{
-		File refFile = new File(dir, "r");
-		if(refFile.exists())
-			refFile.delete();
-		
 		// Save references
-		if (LOGGER.isLoggable(Level.FINE))
-			LOGGER.log(Level.FINE, "begin writing "+refFile);
-		DataOutputStream refsout = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(refFile, true)));
+		DataOutputStream refsout = openOutput(d, 'r');
 		TObjectIntHashMap<MNode1D> localIdx = new TObjectIntHashMap<MNode1D>(nodelist.size());
 
 		int i = 0;
@@ -381,17 +481,13 @@ public class Storage
 		return localIdx;
 	}
 
-	private static TObjectIntHashMap<Vertex> write2dNodeReferences(File dir, int id, Collection<Vertex> nodelist, Vertex outer)
+	private static TObjectIntHashMap<Vertex> write2dNodeReferences(BDiscretization d, int id, Collection<Vertex> nodelist, Vertex outer)
 		throws IOException
 	{
-		File refFile = new File(dir, "r");
-		if(refFile.exists())
-			refFile.delete();
-
 		// Save references
 		if (LOGGER.isLoggable(Level.FINE))
-			LOGGER.log(Level.FINE, "begin writing "+refFile+" face "+id);
-		DataOutputStream refsout = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(refFile, true)));
+			LOGGER.log(Level.FINE, "begin writing references of face "+id);
+		DataOutputStream refsout = openOutput(d, 'r');
 
 		TObjectIntHashMap<Vertex> localIdx = new TObjectIntHashMap<Vertex>(nodelist.size());
 		int i = 0;
@@ -415,20 +511,11 @@ public class Storage
 		return localIdx;
 	}
 
-	private static void write1dCoordinates(File dir, Collection<MNode1D> nodelist, CADGeomCurve3D curve)
+	private static void write1dCoordinates(BDiscretization d, Collection<MNode1D> nodelist, CADGeomCurve3D curve)
 		throws IOException
 	{
-		File nodesFile = new File(dir, "n");
-		if(nodesFile.exists())
-			nodesFile.delete();
-		File parasFile = new File(dir, "p");
-		if(parasFile.exists())
-			parasFile.delete();
-		
-		if (LOGGER.isLoggable(Level.FINE))
-			LOGGER.log(Level.FINE, "begin writing "+nodesFile+" and "+parasFile);
-		DataOutputStream nodesout = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(nodesFile, true)));
-		DataOutputStream parasout = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(parasFile, true)));
+		DataOutputStream nodesout = openOutput(d, 'n');
+		DataOutputStream parasout = openOutput(d, 'p');
 		for (Iterator<MNode1D> itn = nodelist.iterator(); itn.hasNext(); )
 		{
 			MNode1D n = itn.next();
@@ -442,21 +529,12 @@ public class Storage
 		parasout.close();
 	}
 
-	private static void write2dCoordinates(File dir, Collection<Vertex> nodelist, Vertex outer, CADGeomSurface surface)
+	private static void write2dCoordinates(BDiscretization d, Collection<Vertex> nodelist, Vertex outer, CADGeomSurface surface)
 		throws IOException
 	{
-		File nodesFile = new File(dir, "n");
-		if(nodesFile.exists())
-			nodesFile.delete();
-		File parasFile = new File(dir, "p");
-		if(parasFile.exists())
-			parasFile.delete();
-
 		// Save nodes
-		if (LOGGER.isLoggable(Level.FINE))
-			LOGGER.log(Level.FINE, "begin writing "+nodesFile+" and "+parasFile);
-		DataOutputStream nodesout = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(nodesFile, true)));
-		DataOutputStream parasout = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(parasFile, true)));
+		DataOutputStream nodesout = openOutput(d, 'n');
+		DataOutputStream parasout = openOutput(d, 'p');
 		double [] xyz;
 		for (Iterator<Vertex> itn = nodelist.iterator(); itn.hasNext(); )
 		{
@@ -468,8 +546,8 @@ public class Storage
 			else
 			{
 				double [] p = n.getUV();
-				for (int d = 0; d < p.length; d++)
-					parasout.writeDouble(p[d]);
+				for (int k = 0; k < p.length; k++)
+					parasout.writeDouble(p[k]);
 				xyz = surface.value(p[0], p[1]);
 			}
 			for (int k = 0; k < 3; k++)
@@ -479,16 +557,10 @@ public class Storage
 		parasout.close();
 	}
 
-	private static void write1dEdges(File dir, Collection<MEdge1D> edgelist, TObjectIntHashMap<MNode1D> localIdx)
+	private static void write1dEdges(BDiscretization d, Collection<MEdge1D> edgelist, TObjectIntHashMap<MNode1D> localIdx)
 		throws IOException
 	{
-		File beamsFile=new File(dir, "b");
-		if(beamsFile.exists())
-			beamsFile.delete();
-		
-		if (LOGGER.isLoggable(Level.FINE))
-			LOGGER.log(Level.FINE, "begin writing "+beamsFile);
-		DataOutputStream beamsout = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(beamsFile, true)));
+		DataOutputStream beamsout = openOutput(d, 'b');
 		for (Iterator<MEdge1D> ite = edgelist.iterator(); ite.hasNext(); )
 		{
 			MEdge1D e = ite.next();
@@ -500,17 +572,11 @@ public class Storage
 		beamsout.close();
 	}
 
-	private static void write2dTriangles(File dir, Collection<Triangle> trianglelist, TObjectIntHashMap<Vertex> localIdx)
+	private static void write2dTriangles(BDiscretization d, Collection<Triangle> trianglelist, TObjectIntHashMap<Vertex> localIdx)
 		throws IOException
 	{
-		File facesFile=new File(dir, "f");
-		if(facesFile.exists())
-			facesFile.delete();
-
 		// Save faces
-		if (LOGGER.isLoggable(Level.FINE))
-			LOGGER.log(Level.FINE, "begin writing "+facesFile);
-		DataOutputStream facesout = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(facesFile, true)));
+		DataOutputStream facesout = openOutput(d, 'f');
 		for (Triangle f: trianglelist)
 		{
 			if (f.hasAttributes(AbstractHalfEdge.OUTER))
@@ -524,51 +590,32 @@ public class Storage
 	public static int [] readNodeReferences(BDiscretization d)
 		throws IOException
 	{
-		File refFile = new File(d.getGraphCell().getGraph().getModel().getOutputDir(d), "r");
-		IntFileReader ifrR = new PrimitiveFileReaderFactory().getIntReader(refFile);
-		int numberOfReferences = (int) refFile.length() / 4;
-		int [] refs = new int[numberOfReferences];
-		ifrR.get(refs);
-		ifrR.close();
-		return refs;
+		return readInts(d, 'r');
 	}
 
 	public static int getNumberOfNodes(BDiscretization d)
 	{
-		File nodesFile = new File(d.getGraphCell().getGraph().getModel().getOutputDir(d), "n");
-		return (int) nodesFile.length() / 24;
+		return (int) recordLength(d, 'n') / 24;
 	}
 
 	public static double[] readNodeCoordinates(BDiscretization d)
 		throws IOException
 	{
-		File nodesFile = new File(d.getGraphCell().getGraph().getModel().getOutputDir(d), "n");
-		DoubleFileReader dfrN = new PrimitiveFileReaderFactory().getDoubleReader(nodesFile);
-		int numberOfNodes = (int) nodesFile.length() / 24;
-		double [] coord = new double[3*numberOfNodes];
-		dfrN.get(coord);
-		dfrN.close();
-		return coord;
+		return readDoubles(d, 'n');
 	}
 
-	private static Vertex [] read2dCoordinates(File dir, Mesh mesh, int [] refs, TIntObjectHashMap<Vertex> mapRefVertex)
+	private static Vertex [] read2dCoordinates(BDiscretization d, Mesh mesh, int [] refs, TIntObjectHashMap<Vertex> mapRefVertex)
 		throws IOException
 	{
-		File nodesFile = new File(dir, "n");
-		DoubleFileReader dfrN = new PrimitiveFileReaderFactory().getDoubleReader(nodesFile);
-
-		int numberOfNodes = (int) nodesFile.length() / 24;
+		double [] coord = readDoubles(d, 'n');
+		int numberOfNodes = coord.length / 3;
 		int numberOfReferences = refs.length / 2;
 		Vertex [] nodelist = new Vertex[numberOfNodes];
-		double [] coord = new double[3];
 		if (LOGGER.isLoggable(Level.FINE))
 			LOGGER.log(Level.FINE, "Reading "+numberOfNodes+" nodes");
 		mesh.ensureCapacity(2*numberOfNodes);
 		for (int i = 0; i < numberOfNodes; i++)
-		{
-			dfrN.get(coord);
-			nodelist[i] = mesh.createVertex(coord);
-		}
+			nodelist[i] = mesh.createVertex(coord[3*i], coord[3*i+1], coord[3*i+2]);
 		if (mesh.hasNodes())
 		{
 			for (int i=0; i < numberOfNodes; i++)
@@ -585,51 +632,28 @@ public class Storage
 				nodelist[ind] = v;
 			nodelist[ind].setRef(label);
 		}
-		dfrN.close();
 		if (LOGGER.isLoggable(Level.FINE))
-			LOGGER.log(Level.FINE, "end reading "+dir+File.separator+"n");
+			LOGGER.log(Level.FINE, "end reading nodes of discretization "+d.getId());
 		return nodelist;
 	}
 
 	public static int[] readConnectivity(BDiscretization d)
 		throws IOException
 	{
-		File trianglesFile = null;
-		int nodesByElement;
 		if (d.getGraphCell().getType().equals(CADShapeEnum.EDGE))
-		{
-			trianglesFile = new File(d.getGraphCell().getGraph().getModel().getOutputDir(d), "b");
-			nodesByElement = 2;
-		}
-		else if (d.getGraphCell().getType().equals(CADShapeEnum.FACE))
-		{
-			trianglesFile = new File(d.getGraphCell().getGraph().getModel().getOutputDir(d), "f");
-			nodesByElement = 3;
-		}
-		else if (d.getGraphCell().getType().equals(CADShapeEnum.SOLID))
-		{
-			trianglesFile = new File(d.getGraphCell().getGraph().getModel().getOutputDir(d), "f");
-			nodesByElement = 4;
-		}
+			return readInts(d, 'b');
+		else if (d.getGraphCell().getType().equals(CADShapeEnum.FACE) ||
+			d.getGraphCell().getType().equals(CADShapeEnum.SOLID))
+			return readInts(d, 'f');
 		else
-		{
 			throw new IllegalArgumentException();
-		}
-		IntFileReader ifr = new PrimitiveFileReaderFactory().getIntReader(trianglesFile);
-
-		int[] connectivity = new int[(int) trianglesFile.length() / 4];
-		ifr.get(connectivity);
-		ifr.close();
-		return connectivity;
 	}
 
-	private static void read2dTriangles(File dir, int id, int nr, Mesh mesh, boolean reversed, Vertex [] nodelist)
+	private static void read2dTriangles(BDiscretization d, int id, int nr, Mesh mesh, boolean reversed, Vertex [] nodelist)
 		throws IOException
 	{
-		File trianglesFile = new File(dir, "f");
-		IntFileReader ifr = new PrimitiveFileReaderFactory().getIntReader(trianglesFile);
-
-		int numberOfTriangles = (int) trianglesFile.length() / (4*nr);
+		int [] connectivity = readInts(d, 'f');
+		int numberOfTriangles = connectivity.length / nr;
 		if (LOGGER.isLoggable(Level.FINE))
 			LOGGER.log(Level.FINE, "Reading "+numberOfTriangles+" elements");
 		mesh.ensureCapacity(numberOfTriangles);
@@ -638,7 +662,7 @@ public class Storage
 		for (int i = 0; i < numberOfTriangles; i++)
 		{
 			for (int j = 0; j < nr; j++)
-				pts[j] = nodelist[ifr.get()-1];
+				pts[j] = nodelist[connectivity[nr*i+j]-1];
 			// Remove triangles incident to degenerated edges.
 			// These triangles are only useful in parameter space.
 			boolean degenerated = false;
@@ -668,16 +692,13 @@ public class Storage
 			mesh.add(face);
 			face.setGroupId(id);
 		}
-		ifr.close();
 	}
 
-	private static void read2dEdges(File dir, int id, int nr, Mesh mesh, boolean reversed, Vertex [] nodelist)
+	private static void read2dEdges(BDiscretization d, int id, int nr, Mesh mesh, boolean reversed, Vertex [] nodelist)
 		throws IOException
 	{
-		File edgesFile = new File(dir, "f");
-		IntFileReader ifr = new PrimitiveFileReaderFactory().getIntReader(edgesFile);
-
-		int numberOfBeams = (int) edgesFile.length() / (4*2);
+		int [] connectivity = readInts(d, 'f');
+		int numberOfBeams = connectivity.length / 2;
 		if (LOGGER.isLoggable(Level.FINE))
 			LOGGER.log(Level.FINE, "Reading "+numberOfBeams+" elements");
 		Triangle face;
@@ -685,7 +706,7 @@ public class Storage
 		for (int i = 0; i < numberOfBeams; i++)
 		{
 			for (int j = 0; j < 2; j++)
-				pts[j] = nodelist[ifr.get()-1];
+				pts[j] = nodelist[connectivity[2*i+j]-1];
 			// Remove triangles incident to degenerated edges.
 			// These triangles are only useful in parameter space.
 			boolean degenerated = false;
@@ -715,7 +736,6 @@ public class Storage
 			mesh.add(face);
 			face.setGroupId(id);
 		}
-		ifr.close();
 	}
 }
 
@@ -52,6 +52,19 @@ public interface CADGeomSurface
 	public double [] d2V();
 	public double [] dUV();
 
+	/**
+	 * Evaluate derivatives at several points at once.  This is equivalent
+	 * to calling {@link #setParameter}, {@link #d1U}, {@link #d1V},
+	 * {@link #d2U}, {@link #d2V} and {@link #dUV} on each point, but
+	 * values are packed into arrays supplied by the caller.  Current
+	 * point set by {@link #setParameter} is undefined after this call.
+	 * @param uv  (u, v) coordinates of points: {u0, v0, u1, v1, ...}
+	 * @param n  number of points
+	 * @param d1  if not null, receives 6 values per point: d1U then d1V
+	 * @param d2  if not null, receives 9 values per point: d2U, d2V then dUV
+	 */
+	public void derivatives(double [] uv, int n, double [] d1, double [] d2);
+
 	/**
 	 * Return the normal to the surface 
 	 */    
@@ -0,0 +1,425 @@
+/* jCAE stand for Java Computer Aided Engineering. Features are : Small CAD
+   modeler, Finite element mesher, Plugin architecture.
+
+    Copyright (C) 2012, by EADS France
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA */
+
+package org.jcae.mesh.cad;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Arc-length and curvature table of a 3D curve.
+ *
+ * <p>
+ * The curve is sampled once: parameter range is split into uniform
+ * intervals, which are bisected until the chord of an interval and the
+ * sum of chords of its halves agree within a relative tolerance, and
+ * until both halves have about the same length.  Lengths are improved by
+ * Richardson extrapolation, and curvature is computed from the circle
+ * through end points and middle point of each interval.
+ * </p>
+ *
+ * <p>
+ * Discretizations are then computed by interpolation in this table
+ * without evaluating the curve again, so that the same curve can be
+ * discretized with different hypotheses at low cost.  Error bounds are
+ * estimated while building the table, see {@link #getLengthError} and
+ * {@link #getInterpolationError}.  Tables are immutable and can be shared
+ * between threads, see {@link CurveTableCache}.
+ * </p>
+ */
+public final class CurveTable
+{
+	/**
+	 * Evaluates points of a curve.
+	 */
+	public interface Evaluator
+	{
+		/**
+		 * Computes points of a curve.
+		 *
+		 * @param n  number of points
+		 * @param xyz  array of size <code>3*n</code>; on entry,
+		 *    <code>xyz[3*i]</code> contains parameter of point <code>i</code>,
+		 *    and on exit <code>xyz[3*i]</code>, <code>xyz[3*i+1]</code> and
+		 *    <code>xyz[3*i+2]</code> contain its coordinates
+		 */
+		void values(int n, double [] xyz);
+	}
+
+	/** Default relative tolerance. */
+	public static final double DEFAULT_TOLERANCE = 1.e-5;
+	private static final int NR_INITIAL_INTERVALS = 64;
+	private static final int MAX_DEPTH = 20;
+	private static final int MAX_SAMPLES = 1 << 20;
+	// Halves of an interval must not differ by more than this ratio
+	private static final double MAX_SKEW = 0.1;
+
+	private final double [] param;
+	private final double [] abscissa;
+	private final double [] curvature;
+	private final double lengthError;
+	private final double interpolationError;
+
+	// Interval [ta, tb] with its middle point tm
+	private static final class Interval
+	{
+		final double ta, tb;
+		final double [] pa, pb;
+		final double fraction;
+		final int depth;
+		double tm, la, lb, k;
+		Interval(double ta, double [] pa, double tb, double [] pb, double fraction, int depth)
+		{
+			this.ta = ta;
+			this.pa = pa;
+			this.tb = tb;
+			this.pb = pb;
+			this.fraction = fraction;
+			this.depth = depth;
+		}
+	}
+
+	/**
+	 * Builds the table of a curve with default tolerance.
+	 *
+	 * @param curve  curve
+	 */
+	public CurveTable(CADGeomCurve3D curve)
+	{
+		this(curve, DEFAULT_TOLERANCE);
+	}
+
+	/**
+	 * Builds the table of a curve.
+	 *
+	 * @param curve  curve
+	 * @param tolerance  relative tolerance
+	 */
+	public CurveTable(CADGeomCurve3D curve, double tolerance)
+	{
+		this(evaluator(curve), curve.getRange(), tolerance);
+	}
+
+	/**
+	 * Builds the table of a curve.  Curve is evaluated by batches, so that
+	 * native curves can be evaluated with few calls.
+	 *
+	 * @param curve  curve evaluator
+	 * @param range  parameter range, <code>range[1]</code> may be lower
+	 *    than <code>range[0]</code>
+	 * @param tolerance  relative tolerance
+	 */
+	public CurveTable(Evaluator curve, double [] range, double tolerance)
+	{
+		double t0 = range[0];
+		double t1 = range[1];
+		int n = NR_INITIAL_INTERVALS;
+		double [] t = new double[n+1];
+		double [] xyz = new double[3*(n+1)];
+		for (int i = 0; i <= n; i++)
+		{
+			t[i] = (i == n ? t1 : t0 + (t1 - t0) * i / n);
+			xyz[3*i] = t[i];
+		}
+		curve.values(n+1, xyz);
+		List<Interval> pending = new ArrayList<Interval>(n);
+		double [] last = point(xyz, 0);
+		for (int i = 0; i < n; i++)
+		{
+			double [] next = point(xyz, i+1);
+			pending.add(new Interval(t[i], last, t[i+1], next, (double) i / n, 0));
+			last = next;
+		}
+
+		// Intervals are bisected level by level, and all middle points of
+		// a level are evaluated at once
+		List<Interval> accepted = new ArrayList<Interval>();
+		int nrSamples = n + 1;
+		double errLength = 0.0;
+		double errInterp = 0.0;
+		while (!pending.isEmpty())
+		{
+			int size = pending.size();
+			xyz = new double[3*size];
+			for (int i = 0; i < size; i++)
+			{
+				Interval it = pending.get(i);
+				it.tm = 0.5 * (it.ta + it.tb);
+				xyz[3*i] = it.tm;
+			}
+			curve.values(size, xyz);
+			nrSamples += size;
+			boolean refine = nrSamples + 2 * size <= MAX_SAMPLES;
+			List<Interval> next = new ArrayList<Interval>();
+			for (int i = 0; i < size; i++)
+			{
+				Interval it = pending.get(i);
+				double [] pm = point(xyz, i);
+				double la = distance(it.pa, pm);
+				double lb = distance(pm, it.pb);
+				double chord = distance(it.pa, it.pb);
+				double fine = la + lb;
+				double err = fine - chord;
+				double skew = Math.abs(la - lb);
+				if (refine && it.depth < MAX_DEPTH && (err > tolerance * fine || skew > MAX_SKEW * fine))
+				{
+					double half = 0.5 / (NR_INITIAL_INTERVALS << it.depth);
+					next.add(new Interval(it.ta, it.pa, it.tm, pm, it.fraction, it.depth + 1));
+					next.add(new Interval(it.tm, pm, it.tb, it.pb, it.fraction + half, it.depth + 1));
+					continue;
+				}
+				// Richardson extrapolation: chord error is of order h^2
+				it.la = la + err / 6.0;
+				it.lb = lb + err / 6.0;
+				errLength += err / 3.0;
+				errInterp = Math.max(errInterp, 0.5 * skew);
+				if (la > 0.0 && lb > 0.0 && chord > 0.0)
+					it.k = 2.0 * crossNorm(it.pa, pm, it.pb) / (la * lb * chord);
+				accepted.add(it);
+			}
+			pending = next;
+		}
+		Collections.sort(accepted, new Comparator<Interval>()
+		{
+			public int compare(Interval o1, Interval o2)
+			{
+				return Double.compare(o1.fraction, o2.fraction);
+			}
+		});
+
+		int m = accepted.size();
+		param = new double[2*m+1];
+		abscissa = new double[2*m+1];
+		curvature = new double[2*m+1];
+		double s = 0.0;
+		for (int i = 0; i < m; i++)
+		{
+			Interval it = accepted.get(i);
+			param[2*i] = it.ta;
+			abscissa[2*i] = s;
+			curvature[2*i] = (i == 0 ? it.k : 0.5 * (it.k + accepted.get(i-1).k));
+			s += it.la;
+			param[2*i+1] = it.tm;
+			abscissa[2*i+1] = s;
+			curvature[2*i+1] = it.k;
+			s += it.lb;
+		}
+		param[2*m] = t1;
+		abscissa[2*m] = s;
+		curvature[2*m] = accepted.get(m-1).k;
+		lengthError = errLength;
+		interpolationError = errInterp;
+	}
+
+	// Evaluates points one by one
+	static Evaluator evaluator(final CADGeomCurve3D curve)
+	{
+		return new Evaluator()
+		{
+			public void values(int n, double [] xyz)
+			{
+				for (int i = 0; i < n; i++)
+				{
+					double [] p = curve.value(xyz[3*i]);
+					System.arraycopy(p, 0, xyz, 3*i, 3);
+				}
+			}
+		};
+	}
+
+	private static double [] point(double [] xyz, int i)
+	{
+		return new double[] { xyz[3*i], xyz[3*i+1], xyz[3*i+2] };
+	}
+
+	private static double distance(double [] p1, double [] p2)
+	{
+		double dx = p2[0] - p1[0];
+		double dy = p2[1] - p1[1];
+		double dz = p2[2] - p1[2];
+		return Math.sqrt(dx*dx + dy*dy + dz*dz);
+	}
+
+	// Norm of (p2-p1)^(p3-p1)
+	private static double crossNorm(double [] p1, double [] p2, double [] p3)
+	{
+		double ux = p2[0] - p1[0], uy = p2[1] - p1[1], uz = p2[2] - p1[2];
+		double vx = p3[0] - p1[0], vy = p3[1] - p1[1], vz = p3[2] - p1[2];
+		double cx = uy * vz - uz * vy;
+		double cy = uz * vx - ux * vz;
+		double cz = ux * vy - uy * vx;
+		return Math.sqrt(cx*cx + cy*cy + cz*cz);
+	}
+
+	/**
+	 * Returns the number of samples.
+	 */
+	public int size()
+	{
+		return param.length;
+	}
+
+	/**
+	 * Returns curve length.
+	 */
+	public double length()
+	{
+		return abscissa[abscissa.length - 1];
+	}
+
+	/**
+	 * Returns estimated bound of the error on curve length and on
+	 * abscissas of samples.
+	 */
+	public double getLengthError()
+	{
+		return lengthError;
+	}
+
+	/**
+	 * Returns estimated bound of the error on abscissas caused by linear
+	 * interpolation of parameters between samples.  The abscissa of a point
+	 * returned by a discretization is known within
+	 * <code>getLengthError() + getInterpolationError()</code>.
+	 */
+	public double getInterpolationError()
+	{
+		return interpolationError;
+	}
+
+	/**
+	 * Returns the parameter of the point at a given curvilinear abscissa.
+	 *
+	 * @param s  abscissa, between 0 and {@link #length}
+	 * @return parameter
+	 */
+	public double parameterAt(double s)
+	{
+		if (s <= 0.0)
+			return param[0];
+		int n = abscissa.length - 1;
+		if (s >= abscissa[n])
+			return param[n];
+		int i = Arrays.binarySearch(abscissa, s);
+		if (i >= 0)
+			return param[i];
+		i = -i - 2;
+		return interpolate(abscissa, i, s);
+	}
+
+	// Parameter at which values[i] is interpolated to target, values are
+	// increasing and values[i] <= target <= values[i+1]
+	private double interpolate(double [] values, int i, double target)
+	{
+		double delta = values[i+1] - values[i];
+		if (delta <= 0.0)
+			return param[i];
+		double alpha = (target - values[i]) / delta;
+		return param[i] + alpha * (param[i+1] - param[i]);
+	}
+
+	/**
+	 * Discretizes curve into segments of the same length.
+	 *
+	 * @param maxlen  maximal length of segments
+	 * @return parameters of points, including end points
+	 */
+	public double [] discretize(double maxlen)
+	{
+		return discretize(maxlen, 0.0, false);
+	}
+
+	/**
+	 * Discretizes curve into segments of the same length.
+	 *
+	 * @param nrPoints  number of points, including end points
+	 * @return parameters of points
+	 */
+	public double [] discretize(int nrPoints)
+	{
+		return split(abscissa, Math.max(1, nrPoints - 1));
+	}
+
+	/**
+	 * Discretizes curve with maximal length and deflection.  Like
+	 * <code>OCCDiscretizeCurve3D</code>, deflection is the maximal
+	 * difference between segment length and arc length, multiplied by
+	 * <code>sqrt(2)</code>.  Instead of inserting points greedily, point
+	 * density is equidistributed along the curve: in a region with
+	 * curvature <code>k</code>, an arc of length <code>h</code> deviates
+	 * from its chord by <code>k^2 h^3 / 24</code>.
+	 *
+	 * @param maxlen  maximal length of segments, ignored if not positive
+	 * @param deflection  deflection, ignored if not positive
+	 * @param relDefl  <code>true</code> if deflection is relative to
+	 *    arc length
+	 * @return parameters of points, including end points
+	 */
+	public double [] discretize(double maxlen, double deflection, boolean relDefl)
+	{
+		int n = param.length;
+		double defl = deflection * Math.sqrt(2.0);
+		double [] density = new double[n];
+		for (int i = 0; i < n; i++)
+		{
+			double k = curvature[i];
+			double d = 0.0;
+			if (defl > 0.0 && k > 0.0)
+			{
+				if (relDefl)
+					d = k / Math.sqrt(24.0 * defl);
+				else
+					d = Math.cbrt(k * k / (24.0 * defl));
+			}
+			if (maxlen > 0.0)
+				d = Math.max(d, 1.0 / maxlen);
+			density[i] = d;
+		}
+		// Integrate density along the curve
+		double [] count = new double[n];
+		for (int i = 1; i < n; i++)
+			count[i] = count[i-1] + 0.5 * (density[i-1] + density[i]) * (abscissa[i] - abscissa[i-1]);
+		double total = count[n-1];
+		// Do not add a point because of rounding errors
+		int nrSegments = (int) Math.ceil(total * (1.0 - 1.e-9));
+		return split(count, Math.max(1, nrSegments));
+	}
+
+	// Splits curve into segments with equal increments of values
+	private double [] split(double [] values, int nrSegments)
+	{
+		int n = values.length;
+		double [] ret = new double[nrSegments+1];
+		ret[0] = param[0];
+		ret[nrSegments] = param[n-1];
+		double total = values[n-1];
+		int j = 0;
+		for (int i = 1; i < nrSegments; i++)
+		{
+			double target = total * i / nrSegments;
+			while (j < n - 2 && values[j+1] < target)
+				j++;
+			ret[i] = interpolate(values, j, target);
+		}
+		return ret;
+	}
+}
@@ -0,0 +1,210 @@
+/* jCAE stand for Java Computer Aided Engineering. Features are : Small CAD
+   modeler, Finite element mesher, Plugin architecture.
+
+    Copyright (C) 2012, by EADS France
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA */
+
+package org.jcae.mesh.cad;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Cache of {@link CurveTable} instances.  Tables are usually indexed by
+ * {@link CADEdge}, so that an edge shared by several faces, or meshed
+ * with several hypotheses, is sampled only once.  Total number of
+ * samples is bounded, least recently used tables are discarded first.
+ * This class is thread-safe.
+ *
+ * <p>
+ * The default cache is disabled, CAD curves are then discretized by the
+ * CAD engine as before.  Tables change discretizations, and they have
+ * not yet been validated on enough real CAD models to be enabled by
+ * default.
+ * </p>
+ */
+public final class CurveTableCache
+{
+	private static final Logger LOGGER=Logger.getLogger(CurveTableCache.class.getName());
+	private static volatile CurveTableCache defaultCache = new CurveTableCache(
+		Integer.getInteger("org.jcae.mesh.cad.CurveTableCache.maxSamples", 0));
+
+	private final int maxSamples;
+	private final LinkedHashMap<Object, CurveTable> tables =
+		new LinkedHashMap<Object, CurveTable>(16, 0.75f, true);
+	private int nrSamples;
+	private long hits;
+	private long misses;
+
+	/**
+	 * Creates an empty cache.
+	 *
+	 * @param maxSamples  maximal number of samples of all tables, cache is
+	 *    disabled if it is not positive
+	 */
+	public CurveTableCache(int maxSamples)
+	{
+		this.maxSamples = maxSamples;
+	}
+
+	/**
+	 * Returns the cache shared by all curves.  Its size is set by the
+	 * <code>org.jcae.mesh.cad.CurveTableCache.maxSamples</code> system
+	 * property, and it is disabled when this property is 0, which is
+	 * the default.
+	 */
+	public static CurveTableCache getDefault()
+	{
+		return defaultCache;
+	}
+
+	/**
+	 * Replaces the cache shared by all curves.  It is only used by
+	 * curves created afterwards.
+	 */
+	public static void setDefault(CurveTableCache cache)
+	{
+		if (cache == null)
+			throw new NullPointerException();
+		defaultCache = cache;
+	}
+
+	/**
+	 * Tells whether tables are cached.
+	 */
+	public boolean isEnabled()
+	{
+		return maxSamples > 0;
+	}
+
+	/**
+	 * Returns the table of a curve, it is built if needed.
+	 *
+	 * @param key  key of curve, usually a {@link CADEdge}
+	 * @param curve  curve evaluator
+	 * @param range  parameter range
+	 * @return table of this curve, or <code>null</code> if this cache is
+	 *    disabled
+	 */
+	public CurveTable get(Object key, CurveTable.Evaluator curve, double [] range)
+	{
+		if (!isEnabled())
+			return null;
+		synchronized (this)
+		{
+			CurveTable ret = tables.get(key);
+			if (ret != null)
+			{
+				hits++;
+				return ret;
+			}
+			misses++;
+		}
+		// Build table without holding the lock, another thread may
+		// build the same table concurrently.
+		CurveTable table = new CurveTable(curve, range, CurveTable.DEFAULT_TOLERANCE);
+		if (LOGGER.isLoggable(Level.FINE))
+			LOGGER.log(Level.FINE, "Curve table: "+table.size()+" samples, length "+table.length()+
+				" +/- "+table.getLengthError()+", interpolation error "+table.getInterpolationError());
+		synchronized (this)
+		{
+			CurveTable ret = tables.get(key);
+			if (ret != null)
+				return ret;
+			if (table.size() > maxSamples)
+				return table;
+			tables.put(key, table);
+			nrSamples += table.size();
+			for (Iterator<Map.Entry<Object, CurveTable>> it = tables.entrySet().iterator(); nrSamples > maxSamples && it.hasNext(); )
+			{
+				Map.Entry<Object, CurveTable> e = it.next();
+				if (e.getValue() == table)
+					continue;
+				nrSamples -= e.getValue().size();
+				it.remove();
+			}
+			return table;
+		}
+	}
+
+	/**
+	 * Returns the table of a curve, it is built if needed.
+	 *
+	 * @param key  key of curve, usually a {@link CADEdge}
+	 * @param curve  curve
+	 * @return table of this curve, or <code>null</code> if this cache is
+	 *    disabled
+	 */
+	public CurveTable get(Object key, CADGeomCurve3D curve)
+	{
+		if (!isEnabled())
+			return null;
+		synchronized (this)
+		{
+			CurveTable ret = tables.get(key);
+			if (ret != null)
+			{
+				hits++;
+				return ret;
+			}
+		}
+		return get(key, CurveTable.evaluator(curve), curve.getRange());
+	}
+
+	/**
+	 * Discards all tables.
+	 */
+	public synchronized void clear()
+	{
+		tables.clear();
+		nrSamples = 0;
+	}
+
+	/**
+	 * Returns the number of cached tables.
+	 */
+	public synchronized int size()
+	{
+		return tables.size();
+	}
+
+	/**
+	 * Returns the number of samples of cached tables.
+	 */
+	public synchronized int getNumberOfSamples()
+	{
+		return nrSamples;
+	}
+
+	/**
+	 * Returns the number of requests which found their table in cache.
+	 */
+	public synchronized long getHits()
+	{
+		return hits;
+	}
+
+	/**
+	 * Returns the number of requests which had to build their table.
+	 */
+	public synchronized long getMisses()
+	{
+		return misses;
+	}
+}
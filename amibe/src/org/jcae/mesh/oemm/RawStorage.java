@@ -564,8 +564,8 @@ public class RawStorage
 			int nrleaves = bufIn.readInt();
 			int nrbytes = bufIn.readInt();
 			int nrT = 0;
-			byte [] name = new byte[nrbytes+1];
-			bufIn.read(name, 0, nrbytes);
+			byte [] name = new byte[nrbytes];
+			bufIn.readFully(name);
 			ret = new OEMM(new String(name));
 			ret.leaves = new OEMM.Node[nrleaves];
 			for (int i = 0; i < 4; i++)
@@ -628,7 +628,7 @@ public class RawStorage
 			
 			//  Index internal vertices
 			logger.fine("Index internal vertices");
-			FileInputStream fis = new FileInputStream(ret.getFileName());
+			FileInputStream fis = new FileInputStream(ret.getDirectory());
 			IndexInternalVerticesProcedure iiv_proc = new IndexInternalVerticesProcedure(fis, oos, outDir);
 			ret.walk(iiv_proc);
 			fis.close();
@@ -636,7 +636,7 @@ public class RawStorage
 			
 			//  Index external vertices
 			logger.fine("Index external vertices");
-			fis = new FileInputStream(ret.getFileName());
+			fis = new FileInputStream(ret.getDirectory());
 			//  We have a handle on triangle soup, which will be
 			//  no more read, we can now set output diirectory
 			//  to its final value.
@@ -0,0 +1,368 @@
+/* jCAE stand for Java Computer Aided Engineering. Features are : Small CAD
+   modeler, Finite element mesher, Plugin architecture.
+
+    Copyright (C) 2012, by EADS France
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA */
+
+package org.jcae.mesh.oemm;
+
+import org.jcae.mesh.xmldata.AmibeWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import gnu.trove.TIntArrayList;
+import gnu.trove.TIntObjectHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Extracts triangles located inside a box or a sphere from an OEMM.
+ *
+ * Only leaves which intersect the region are read: the octree is walked
+ * and octants outside of the region are skipped.  Vertices of these leaves
+ * are read first, those which are inside the region are written and get a
+ * new index.  Then triangles of these leaves are read, and those which
+ * have all their vertices inside the region are written.  As explained in
+ * {@link Storage}, a triangle is stored in the leaf of one of its vertices,
+ * so all extracted triangles are found this way.  Running time and memory
+ * usage are thus proportional to the size of leaves intersecting the region,
+ * and not to the size of the whole mesh.
+ *
+ * Result is written directly with {@link AmibeWriter}, groups of extracted
+ * triangles are named after their group number.
+ */
+public class RegionExtractor extends Storage
+{
+	private static final Logger LOGGER=Logger.getLogger(RegionExtractor.class.getName());
+	private final OEMM oemm;
+	private final double [] lower = new double[3];
+	private final double [] upper = new double[3];
+	private final double [] center = new double[3];
+	private double radius = -1.0;
+	private int nrNodes;
+	private int nrTriangles;
+
+	/**
+	 * Creates a <code>RegionExtractor</code> instance.
+	 *
+	 * @param o  OEMM instance, as returned by {@link Storage#readOEMMStructure}
+	 * @param options  map containing key-value pairs to modify algorithm
+	 *        behaviour.  Valid keys are <code>lower</code> and
+	 *        <code>upper</code> to extract a box, or <code>center</code>
+	 *        and <code>radius</code> to extract a sphere.
+	 */
+	public RegionExtractor(OEMM o, Map<String, String> options)
+	{
+		oemm = o;
+		boolean box = false;
+		for (final Map.Entry<String, String> opt: options.entrySet())
+		{
+			final String key = opt.getKey();
+			final String val = opt.getValue();
+			if (key.equals("lower"))
+			{
+				parsePoint(key, val, lower);
+				box = true;
+			}
+			else if (key.equals("upper"))
+			{
+				parsePoint(key, val, upper);
+				box = true;
+			}
+			else if (key.equals("center"))
+				parsePoint(key, val, center);
+			else if (key.equals("radius"))
+				radius = Double.valueOf(val).doubleValue();
+			else
+				throw new RuntimeException("Unknown option: "+key);
+		}
+		if (box == (radius >= 0.0))
+			throw new RuntimeException("Either a box or a sphere must be given");
+		if (box)
+			setBox(lower, upper);
+		else
+			setSphere(center, radius);
+	}
+
+	private static void parsePoint(String key, String val, double [] xyz)
+	{
+		String[] values = val.split(",");
+		if (values.length != 3)
+			throw new RuntimeException("Wrong value: --"+key+" "+val);
+		for (int i = 0; i < 3; i++)
+			xyz[i] = Double.valueOf(values[i]).doubleValue();
+	}
+
+	public final void setBox(double [] lower, double [] upper)
+	{
+		System.arraycopy(lower, 0, this.lower, 0, 3);
+		System.arraycopy(upper, 0, this.upper, 0, 3);
+		radius = -1.0;
+	}
+
+	public final void setSphere(double [] center, double radius)
+	{
+		System.arraycopy(center, 0, this.center, 0, 3);
+		this.radius = radius;
+		for (int i = 0; i < 3; i++)
+		{
+			lower[i] = center[i] - radius;
+			upper[i] = center[i] + radius;
+		}
+	}
+
+	private boolean isInside(double x, double y, double z)
+	{
+		if (x < lower[0] || x > upper[0] || y < lower[1] || y > upper[1] || z < lower[2] || z > upper[2])
+			return false;
+		if (radius < 0.0)
+			return true;
+		double dx = x - center[0];
+		double dy = y - center[1];
+		double dz = z - center[2];
+		return dx * dx + dy * dy + dz * dz <= radius * radius;
+	}
+
+	/**
+	 * Tells whether the bounding box of an octant intersects the region.
+	 */
+	private boolean intersects(OEMM.Node node, int [] ijk, double [] cmin, double [] cmax)
+	{
+		ijk[0] = node.i0;
+		ijk[1] = node.j0;
+		ijk[2] = node.k0;
+		oemm.int2double(ijk, cmin);
+		ijk[0] += node.size;
+		ijk[1] += node.size;
+		ijk[2] += node.size;
+		oemm.int2double(ijk, cmax);
+		double d2 = 0.0;
+		for (int i = 0; i < 3; i++)
+		{
+			if (cmin[i] > upper[i] || cmax[i] < lower[i])
+				return false;
+			double d = 0.0;
+			if (center[i] < cmin[i])
+				d = cmin[i] - center[i];
+			else if (center[i] > cmax[i])
+				d = center[i] - cmax[i];
+			d2 += d * d;
+		}
+		return radius < 0.0 || d2 <= radius * radius;
+	}
+
+	/**
+	 * Returns the indices of leaves which intersect the region, in
+	 * increasing order.
+	 */
+	public int [] getLeaves()
+	{
+		final TIntArrayList ret = new TIntArrayList();
+		oemm.walk(new TraversalProcedure()
+		{
+			private final int [] ijk = new int[3];
+			private final double [] cmin = new double[3];
+			private final double [] cmax = new double[3];
+			@Override
+			public final int action(OEMM o, OEMM.Node current, int octant, int visit)
+			{
+				if (visit == POSTORDER)
+					return OK;
+				if (!intersects(current, ijk, cmin, cmax))
+					return SKIPCHILD;
+				if (visit == LEAF)
+					ret.add(current.leafIndex);
+				return OK;
+			}
+		});
+		ret.sort();
+		return ret.toNativeArray();
+	}
+
+	/**
+	 * Writes triangles inside the region into an amibe directory.
+	 *
+	 * @param outDir  output directory
+	 * @throws IOException if an I/O error occurs
+	 */
+	public void extract(String outDir) throws IOException
+	{
+		int [] leaves = getLeaves();
+		LOGGER.info("Number of leaves intersecting region: "+leaves.length+"/"+oemm.getNumberOfLeaves());
+		AmibeWriter.Dim3 aw = new AmibeWriter.Dim3(outDir);
+		nrNodes = 0;
+		nrTriangles = 0;
+		// For each leaf, new index of its vertices, or -1 if outside
+		TIntObjectHashMap<int []> newIndex = new TIntObjectHashMap<int []>(leaves.length);
+		for (int l : leaves)
+			newIndex.put(l, readVertices(oemm.leaves[l], aw));
+		Map<Integer, TIntArrayList> groups = new HashMap<Integer, TIntArrayList>();
+		for (int l : leaves)
+			readTriangles(oemm.leaves[l], newIndex, aw, groups);
+		int [] ids = new int[groups.size()];
+		int cnt = 0;
+		for (Integer id : groups.keySet())
+			ids[cnt++] = id.intValue();
+		Arrays.sort(ids);
+		for (int id : ids)
+		{
+			aw.nextGroup(Integer.toString(id));
+			int [] list = groups.get(id).toNativeArray();
+			aw.addTriaToGroup(list, 0, list.length);
+		}
+		aw.finish();
+		LOGGER.info("Number of extracted nodes: "+nrNodes+", triangles: "+nrTriangles);
+	}
+
+	public int getNumberOfNodes()
+	{
+		return nrNodes;
+	}
+
+	public int getNumberOfTriangles()
+	{
+		return nrTriangles;
+	}
+
+	private static ByteBuffer readFile(File file, int size) throws IOException
+	{
+		ByteBuffer bb = ByteBuffer.allocate(size);
+		if (size == 0)
+			return bb;
+		FileChannel fc = new FileInputStream(file).getChannel();
+		try
+		{
+			while (bb.hasRemaining())
+			{
+				if (fc.read(bb) < 0)
+					throw new IOException("Unexpected end of file: "+file);
+			}
+		}
+		finally
+		{
+			fc.close();
+		}
+		bb.flip();
+		return bb;
+	}
+
+	private int [] readVertices(OEMM.Node current, AmibeWriter aw) throws IOException
+	{
+		File file = getVerticesFile(oemm, current);
+		if (LOGGER.isLoggable(Level.FINE))
+			LOGGER.log(Level.FINE, "Reading "+current.vn+" vertices from "+file);
+		DoubleBuffer bbD = readFile(file, current.vn * VERTEX_SIZE).asDoubleBuffer();
+		int [] ret = new int[current.vn];
+		double [] xyz = new double[3];
+		for (int i = 0; i < current.vn; i++)
+		{
+			bbD.get(xyz);
+			if (isInside(xyz[0], xyz[1], xyz[2]))
+			{
+				aw.addNode(xyz);
+				ret[i] = nrNodes++;
+			}
+			else
+				ret[i] = -1;
+		}
+		return ret;
+	}
+
+	private void readTriangles(OEMM.Node current, TIntObjectHashMap<int []> newIndex, AmibeWriter aw,
+		Map<Integer, TIntArrayList> groups) throws IOException
+	{
+		File file = getTrianglesFile(oemm, current);
+		if (LOGGER.isLoggable(Level.FINE))
+			LOGGER.log(Level.FINE, "Reading "+current.tn+" triangles from "+file);
+		IntBuffer bbI = readFile(file, current.tn * TRIANGLE_SIZE).asIntBuffer();
+		int [] leaf = new int[3];
+		int [] pointIndex = new int[3];
+		int [] index = new int[3];
+		for (int i = 0; i < current.tn; i++)
+		{
+			bbI.get(leaf);
+			bbI.get(pointIndex);
+			int groupId = bbI.get();
+			boolean inside = true;
+			for (int j = 0; inside && j < 3; j++)
+			{
+				// Vertices of leaves which have not been read are outside
+				int [] vertices = newIndex.get(leaf[j]);
+				index[j] = vertices == null ? -1 : vertices[pointIndex[j]];
+				inside = index[j] >= 0;
+			}
+			if (!inside)
+				continue;
+			aw.addTriangle(index);
+			TIntArrayList list = groups.get(groupId);
+			if (list == null)
+			{
+				list = new TIntArrayList();
+				groups.put(groupId, list);
+			}
+			list.add(nrTriangles);
+			nrTriangles++;
+		}
+	}
+
+	private static void usage(int rc)
+	{
+		System.out.println("Usage: RegionExtractor [options] oemmDir outDir");
+		System.out.println("Options:");
+		System.out.println(" -h, --help    Display this message and exit");
+		System.out.println(" --lower <c>   Coordinates of the lower left corner");
+		System.out.println(" --upper <c>   Coordinates of the upper right corner");
+		System.out.println(" --center <c>  Coordinates of sphere center");
+		System.out.println(" --radius <r>  Sphere radius");
+		System.exit(rc);
+	}
+
+	public static void main(String[] args)
+	{
+		Map<String, String> opts = new HashMap<String, String>();
+		int argc = 0;
+		for (String arg: args)
+			if (arg.equals("--help") || arg.equals("-h"))
+				usage(0);
+		while (argc < args.length-1)
+		{
+			if (args[argc].length() < 2 || args[argc].charAt(0) != '-' || args[argc].charAt(1) != '-')
+				break;
+			opts.put(args[argc].substring(2), args[argc+1]);
+			argc += 2;
+		}
+		if (argc + 2 != args.length)
+			usage(1);
+		OEMM oemm = Storage.readOEMMStructure(args[argc]);
+		RegionExtractor algo = new RegionExtractor(oemm, opts);
+		try
+		{
+			algo.extract(args[argc+1]);
+		}
+		catch (IOException ex)
+		{
+			ex.printStackTrace();
+			throw new RuntimeException(ex);
+		}
+	}
+}
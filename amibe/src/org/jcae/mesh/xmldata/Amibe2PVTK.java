@@ -0,0 +1,596 @@
+/*
+ * Project Info:  http://jcae.sourceforge.net
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307, USA.
+ *
+ * (C) Copyright 2012, by EADS France
+ */
+
+package org.jcae.mesh.xmldata;
+
+import gnu.trove.TIntArrayList;
+import gnu.trove.TIntIntHashMap;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
+import java.util.zip.Deflater;
+import org.jcae.mesh.xmldata.AmibeReader.Group;
+import org.jcae.mesh.xmldata.AmibeReader.SubMesh;
+import org.xml.sax.SAXException;
+
+/**
+ * Convert an Amibe mesh to a parallel VTK file.
+ * Output file extension should be <cite>.pvtp</cite>.  It only references
+ * pieces, which are written next to it into <cite>.vtp</cite> files whose
+ * name is the name of the <cite>.pvtp</cite> file followed by the piece
+ * number.
+ *
+ * <p>
+ * There is either one piece by mesh group, plus one piece for elements
+ * which are not in any group, or one piece by slice of the bounding box
+ * along its largest direction.  Elements which belong to several groups
+ * are written in each of these pieces.  Each piece has its own nodes, and
+ * a <code>Groups</code> cell attribut as written by {@link Amibe2VTK}.
+ * </p>
+ *
+ * <p>
+ * Pieces are encoded concurrently, each thread reads the elements of its
+ * piece, renumbers their nodes and writes its file.  Appended blocks can
+ * be compressed with zlib, as done by <code>vtkZLibDataCompressor</code>.
+ * </p>
+ */
+public class Amibe2PVTK
+{
+	private static final Logger LOGGER=Logger.getLogger(Amibe2PVTK.class.getName());
+
+	/** How elements are dispatched into pieces */
+	public enum Partition { GROUPS, CHUNKS }
+
+	/** Uncompressed size of zlib blocks */
+	private static final int BLOCK_SIZE = 1 << 15;
+
+	private final File directory;
+	private Partition partition = Partition.GROUPS;
+	private int numberOfChunks = 8;
+	private int numberOfThreads = Runtime.getRuntime().availableProcessors();
+	private boolean compressed;
+
+	/** Elements of a piece, as ids in amibe files */
+	private static class Piece
+	{
+		final int[] triangles;
+		final int[] beams;
+		/** Groups attribut of all elements, or -1 to read it from the inverted groups */
+		final int group;
+		Piece(int[] triangles, int[] beams, int group)
+		{
+			this.triangles = triangles;
+			this.beams = beams;
+			this.group = group;
+		}
+	}
+
+	public Amibe2PVTK(String directory)
+	{
+		this.directory=new File(directory);
+	}
+
+	/** @param directory The directory which contain 3d files */
+	public Amibe2PVTK(File directory)
+	{
+		this.directory=directory;
+	}
+
+	public void setPartition(Partition partition)
+	{
+		this.partition = partition;
+	}
+
+	/** Set the number of pieces when partition is {@link Partition#CHUNKS} */
+	public void setNumberOfChunks(int numberOfChunks)
+	{
+		this.numberOfChunks = numberOfChunks;
+	}
+
+	/** Set the number of pieces encoded concurrently */
+	public void setNumberOfThreads(int numberOfThreads)
+	{
+		this.numberOfThreads = numberOfThreads;
+	}
+
+	/** Compress appended blocks with zlib */
+	public void setCompressed(boolean compressed)
+	{
+		this.compressed = compressed;
+	}
+
+	/**
+	 * Write the .pvtp file and its pieces
+	 * @param fileName name of the .pvtp file
+	 * @return the number of written pieces
+	 */
+	public int write(String fileName) throws IOException, SAXException
+	{
+		AmibeReader.Dim3 amibeReader = new AmibeReader.Dim3(directory.getPath());
+		final SubMesh sm = amibeReader.getSubmeshes().get(0);
+		File pvtp = new File(fileName);
+		String baseName = pvtp.getName();
+		int dot = baseName.lastIndexOf('.');
+		if (dot > 0)
+			baseName = baseName.substring(0, dot);
+		File groupFile = null;
+		try
+		{
+			List<Piece> pieces;
+			if (partition == Partition.GROUPS)
+				pieces = groupPieces(sm);
+			else
+			{
+				pieces = chunkPieces(sm);
+				groupFile = invertGroups();
+			}
+			List<String> names = new ArrayList<String>(pieces.size());
+			for (int i = 0; i < pieces.size(); i++)
+				names.add(baseName+"_"+i+".vtp");
+			writePieces(sm, pieces, names, pvtp.getAbsoluteFile().getParentFile(), groupFile);
+			PrintStream out = new PrintStream(new BufferedOutputStream(new FileOutputStream(pvtp)));
+			try
+			{
+				writeMaster(out, names);
+			}
+			finally
+			{
+				out.close();
+			}
+			LOGGER.fine("Wrote "+pieces.size()+" pieces to "+pvtp);
+			return pieces.size();
+		}
+		finally
+		{
+			if (groupFile != null)
+				groupFile.delete();
+		}
+	}
+
+	private void writeMaster(PrintStream out, List<String> names)
+	{
+		out.println("<?xml version=\"1.0\"?>");
+		out.println("<VTKFile type=\"PPolyData\" version=\"0.1\" byte_order=\"BigEndian\">");
+		out.println("<PPolyData GhostLevel=\"0\">");
+		out.println("<PPoints><PDataArray type=\"Float64\" NumberOfComponents=\"3\"/></PPoints>");
+		out.println("<PCellData Scalars=\"Groups\">");
+		out.println("\t<PDataArray type=\"Int32\" Name=\"Groups\"/>");
+		out.println("</PCellData>");
+		for (String name : names)
+			out.println("<Piece Source=\""+name+"\"/>");
+		out.println("</PPolyData></VTKFile>");
+	}
+
+	/**
+	 * One piece by group, in the order used by
+	 * {@link GroupInverter#uniquePartition}, and a last piece with
+	 * elements which are not in any group.
+	 */
+	private List<Piece> groupPieces(SubMesh sm) throws IOException
+	{
+		List<Piece> pieces = new ArrayList<Piece>();
+		int ne = sm.getNumberOfBeams();
+		BitSet grouped = new BitSet(ne + sm.getNumberOfTrias());
+		int gid = 1;
+		for (Group g : sm.getGroups())
+		{
+			int[] triangles = g.readTria3Ids();
+			int[] beams = g.readBeamsIds();
+			for (int id : beams)
+				grouped.set(id);
+			for (int id : triangles)
+				grouped.set(ne + id);
+			if (triangles.length + beams.length > 0)
+				pieces.add(new Piece(triangles, beams, gid));
+			gid++;
+		}
+		TIntArrayList triangles = new TIntArrayList();
+		TIntArrayList beams = new TIntArrayList();
+		for (int i = grouped.nextClearBit(0); i < ne; i = grouped.nextClearBit(i + 1))
+			beams.add(i);
+		for (int i = grouped.nextClearBit(ne); i < ne + sm.getNumberOfTrias(); i = grouped.nextClearBit(i + 1))
+			triangles.add(i - ne);
+		if (!triangles.isEmpty() || !beams.isEmpty())
+			pieces.add(new Piece(triangles.toNativeArray(), beams.toNativeArray(), 0));
+		return pieces;
+	}
+
+	/** Slices of the bounding box, elements are sorted by their centroid */
+	private List<Piece> chunkPieces(SubMesh sm) throws IOException
+	{
+		double[] bmin = new double[] { Double.MAX_VALUE, Double.MAX_VALUE, Double.MAX_VALUE };
+		double[] bmax = new double[] { -Double.MAX_VALUE, -Double.MAX_VALUE, -Double.MAX_VALUE };
+		DoubleFileReader nodes = sm.getNodes();
+		try
+		{
+			int nbp = sm.getNumberOfNodes();
+			for (int i = 0; i < nbp; i++)
+			{
+				for (int k = 0; k < 3; k++)
+				{
+					double c = nodes.get();
+					bmin[k] = Math.min(bmin[k], c);
+					bmax[k] = Math.max(bmax[k], c);
+				}
+			}
+			int axis = 0;
+			for (int k = 1; k < 3; k++)
+			{
+				if (bmax[k] - bmin[k] > bmax[axis] - bmin[axis])
+					axis = k;
+			}
+			double width = (bmax[axis] - bmin[axis]) / numberOfChunks;
+			TIntArrayList[] triangles = sliceElements(sm.getTriangles(),
+				sm.getNumberOfTrias(), 3, nodes, axis, bmin[axis], width);
+			TIntArrayList[] beams = sliceElements(sm.getBeams(),
+				sm.getNumberOfBeams(), 2, nodes, axis, bmin[axis], width);
+			List<Piece> pieces = new ArrayList<Piece>();
+			for (int i = 0; i < numberOfChunks; i++)
+			{
+				if (!triangles[i].isEmpty() || !beams[i].isEmpty())
+					pieces.add(new Piece(triangles[i].toNativeArray(), beams[i].toNativeArray(), -1));
+			}
+			return pieces;
+		}
+		finally
+		{
+			nodes.close();
+		}
+	}
+
+	private TIntArrayList[] sliceElements(IntFileReader elements, int nb, int nbv,
+		DoubleFileReader nodes, int axis, double origin, double width) throws IOException
+	{
+		TIntArrayList[] toReturn = new TIntArrayList[numberOfChunks];
+		for (int i = 0; i < numberOfChunks; i++)
+			toReturn[i] = new TIntArrayList();
+		int[] v = new int[nbv];
+		try
+		{
+			for (int i = 0; i < nb; i++)
+			{
+				elements.get(v);
+				// Removed triangles
+				if (v[0] < 0)
+					continue;
+				double c = 0;
+				for (int k = 0; k < nbv; k++)
+					c += nodes.get(3 * v[k] + axis);
+				int slice = 0;
+				if (width > 0.0)
+					slice = Math.max(0, Math.min(numberOfChunks - 1,
+						(int) ((c / nbv - origin) / width)));
+				toReturn[slice].add(i);
+			}
+		}
+		finally
+		{
+			elements.close();
+		}
+		return toReturn;
+	}
+
+	/** Write the Groups attribut of all elements to a temporary file */
+	private File invertGroups() throws IOException, SAXException
+	{
+		File toReturn = File.createTempFile("jcae", ".bin");
+		final OutputStream out = new BufferedOutputStream(new FileOutputStream(toReturn));
+		try
+		{
+			new GroupInverter(directory.getPath(), new GroupInverter.IntegerWriter() {
+				public void writeInt(ByteBuffer i) throws IOException {
+					out.write(i.array(), i.arrayOffset()+i.position(), i.remaining());
+				}
+			}).invert();
+		}
+		finally
+		{
+			out.close();
+		}
+		return toReturn;
+	}
+
+	private void writePieces(final SubMesh sm, List<Piece> pieces, List<String> names,
+		File dir, final File groupFile) throws IOException
+	{
+		List<Callable<Object>> tasks = new ArrayList<Callable<Object>>(pieces.size());
+		for (int i = 0; i < pieces.size(); i++)
+		{
+			final Piece p = pieces.get(i);
+			final File f = new File(dir, names.get(i));
+			tasks.add(new Callable<Object>()
+			{
+				public Object call() throws IOException
+				{
+					writePiece(sm, p, f, groupFile);
+					return null;
+				}
+			});
+		}
+		ExecutorService executor = Executors.newFixedThreadPool(
+			Math.max(1, Math.min(numberOfThreads, tasks.size())));
+		try
+		{
+			for (Future<Object> f : executor.invokeAll(tasks))
+				f.get();
+		}
+		catch (InterruptedException ex)
+		{
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(ex);
+		}
+		catch (ExecutionException ex)
+		{
+			if (ex.getCause() instanceof IOException)
+				throw (IOException) ex.getCause();
+			if (ex.getCause() instanceof RuntimeException)
+				throw (RuntimeException) ex.getCause();
+			if (ex.getCause() instanceof Error)
+				throw (Error) ex.getCause();
+			throw new IOException(ex.getCause().toString());
+		}
+		finally
+		{
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * Read elements of a piece, renumber their nodes and write the
+	 * .vtp file.  Called concurrently, so each call opens its own readers.
+	 */
+	private void writePiece(SubMesh sm, Piece p, File file, File groupFile)
+		throws IOException
+	{
+		int ne = sm.getNumberOfBeams();
+		TIntIntHashMap localIds = new TIntIntHashMap();
+		TIntArrayList globalIds = new TIntArrayList();
+		int[] lines = new int[2 * p.beams.length];
+		int[] polys = new int[3 * p.triangles.length];
+		int[] groups = new int[p.beams.length + p.triangles.length];
+		IntFileReader groupReader = null;
+		if (p.group < 0)
+			groupReader = new PrimitiveFileReaderFactory().getIntReader(groupFile);
+		int nbl = 0, nbt = 0;
+		try
+		{
+			int[] v = new int[2];
+			IntFileReader beams = sm.getBeams();
+			try
+			{
+				for (int id : p.beams)
+				{
+					beams.get(2 * id, v);
+					for (int k = 0; k < 2; k++)
+						lines[2 * nbl + k] = localId(v[k], localIds, globalIds);
+					groups[nbl] = groupReader == null ? p.group : groupReader.get(id);
+					nbl++;
+				}
+			}
+			finally
+			{
+				beams.close();
+			}
+			v = new int[3];
+			IntFileReader triangles = sm.getTriangles();
+			try
+			{
+				for (int id : p.triangles)
+				{
+					triangles.get(3 * id, v);
+					// Removed triangles
+					if (v[0] < 0)
+						continue;
+					for (int k = 0; k < 3; k++)
+						polys[3 * nbt + k] = localId(v[k], localIds, globalIds);
+					groups[nbl + nbt] = groupReader == null ? p.group : groupReader.get(ne + id);
+					nbt++;
+				}
+			}
+			finally
+			{
+				triangles.close();
+			}
+		}
+		finally
+		{
+			if (groupReader != null)
+				groupReader.close();
+		}
+
+		int nbp = globalIds.size();
+		double[] coords = new double[3 * nbp];
+		DoubleFileReader nodes = sm.getNodes();
+		try
+		{
+			for (int i = 0; i < nbp; i++)
+				nodes.get(3 * globalIds.getQuick(i), coords, 3 * i, 3);
+		}
+		finally
+		{
+			nodes.close();
+		}
+
+		BlockEncoder encoder = new BlockEncoder();
+		List<byte[]> blocks = new ArrayList<byte[]>();
+		blocks.add(encoder.encode(coords, 3 * nbp));
+		blocks.add(encoder.encode(lines, 2 * nbl));
+		blocks.add(encoder.encode(offsets(nbl, 2), nbl));
+		blocks.add(encoder.encode(polys, 3 * nbt));
+		blocks.add(encoder.encode(offsets(nbt, 3), nbt));
+		blocks.add(encoder.encode(groups, nbl + nbt));
+		encoder.end();
+
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+		try
+		{
+			writeHeader(new PrintStream(out), nbp, nbt, nbl, blocks);
+			for (byte[] b : blocks)
+				out.write(b);
+			out.writeBytes("\n</AppendedData></VTKFile>\n");
+		}
+		finally
+		{
+			out.close();
+		}
+	}
+
+	private static int localId(int global, TIntIntHashMap localIds, TIntArrayList globalIds)
+	{
+		// Local ids are stored plus one, 0 is returned for missing keys
+		int toReturn = localIds.get(global) - 1;
+		if (toReturn < 0)
+		{
+			toReturn = globalIds.size();
+			globalIds.add(global);
+			localIds.put(global, toReturn + 1);
+		}
+		return toReturn;
+	}
+
+	private static int[] offsets(int nb, int nbv)
+	{
+		int[] toReturn = new int[nb];
+		for (int i = 0; i < nb; i++)
+			toReturn[i] = nbv * (i + 1);
+		return toReturn;
+	}
+
+	/**
+	 * Write the header of a piece (XML)
+	 * @param blocks encoded appended blocks, in the order of DataArray
+	 */
+	private void writeHeader(PrintStream out, int numberOfNodes,
+		int numberOfTriangles, int numberOfLines, List<byte[]> blocks)
+	{
+		long[] offset = new long[blocks.size()];
+		for (int i = 1; i < offset.length; i++)
+			offset[i] = offset[i - 1] + blocks.get(i - 1).length;
+		out.print("<VTKFile type=\"PolyData\" version=\"0.1\" byte_order=\"BigEndian\"");
+		if (compressed)
+			out.print(" compressor=\"vtkZLibDataCompressor\"");
+		out.println(">");
+		out.println("<PolyData>");
+		out.println("<Piece NumberOfPoints=\""+numberOfNodes+
+			"\" NumberOfPolys=\""+numberOfTriangles+
+			"\" NumberOfLines=\""+numberOfLines+"\">");
+		out.println("<Points><DataArray type=\"Float64\" NumberOfComponents=\"3\" "+
+			"format=\"appended\" offset=\""+offset[0]+"\"/></Points>");
+		out.println("<Lines><DataArray type=\"Int32\" Name=\"connectivity\""+
+			" format=\"appended\" offset=\""+offset[1]+"\"/>");
+		out.println("<DataArray type=\"Int32\" Name=\"offsets\" format=\"appended\"" +
+			" offset=\""+offset[2]+"\"/></Lines>");
+		out.println("<Polys><DataArray type=\"Int32\" Name=\"connectivity\""+
+			" format=\"appended\" offset=\""+offset[3]+"\"/>");
+		out.println("<DataArray type=\"Int32\" Name=\"offsets\" format=\"appended\"" +
+			" offset=\""+offset[4]+"\"/></Polys>");
+		out.println("<CellData Scalars=\"Groups\">");
+		out.println("\t<DataArray type=\"Int32\" Name=\"Groups\" format=\"appended\" offset=\""
+			+offset[5]+"\"/>");
+		out.println("</CellData>");
+		out.println("</Piece></PolyData>");
+		out.print("<AppendedData encoding=\"raw\"> _");
+		out.flush();
+	}
+
+	/**
+	 * Encode arrays into appended blocks. A raw block is the size of the
+	 * array in octets followed by the array. A compressed block is a header
+	 * with the number of zlib blocks, the uncompressed size of blocks, the
+	 * uncompressed size of the last block if it is partial, and the
+	 * compressed size of each block, followed by compressed blocks.
+	 */
+	private class BlockEncoder
+	{
+		private final Deflater deflater = compressed ? new Deflater() : null;
+		private final byte[] buffer = compressed ? new byte[BLOCK_SIZE + BLOCK_SIZE / 16 + 64] : null;
+
+		byte[] encode(double[] values, int length)
+		{
+			ByteBuffer bb = ByteBuffer.allocate(8 * length);
+			bb.asDoubleBuffer().put(values, 0, length);
+			return encode(bb.array());
+		}
+
+		byte[] encode(int[] values, int length)
+		{
+			ByteBuffer bb = ByteBuffer.allocate(4 * length);
+			bb.asIntBuffer().put(values, 0, length);
+			return encode(bb.array());
+		}
+
+		private byte[] encode(byte[] raw)
+		{
+			if (!compressed)
+			{
+				ByteBuffer bb = ByteBuffer.allocate(4 + raw.length);
+				bb.putInt(raw.length);
+				bb.put(raw);
+				return bb.array();
+			}
+			int nblocks = (raw.length + BLOCK_SIZE - 1) / BLOCK_SIZE;
+			ByteBuffer header = ByteBuffer.allocate(4 * (3 + nblocks));
+			header.putInt(nblocks);
+			header.putInt(BLOCK_SIZE);
+			header.putInt(raw.length % BLOCK_SIZE);
+			ByteArrayOutputStream data = new ByteArrayOutputStream();
+			for (int b = 0; b < nblocks; b++)
+			{
+				int start = b * BLOCK_SIZE;
+				deflater.reset();
+				deflater.setInput(raw, start, Math.min(BLOCK_SIZE, raw.length - start));
+				deflater.finish();
+				int size = 0;
+				while (!deflater.finished())
+				{
+					int n = deflater.deflate(buffer);
+					data.write(buffer, 0, n);
+					size += n;
+				}
+				header.putInt(size);
+			}
+			ByteArrayOutputStream toReturn = new ByteArrayOutputStream(header.capacity() + data.size());
+			toReturn.write(header.array(), 0, header.capacity());
+			toReturn.write(data.toByteArray(), 0, data.size());
+			return toReturn.toByteArray();
+		}
+
+		void end()
+		{
+			if (deflater != null)
+				deflater.end();
+		}
+	}
+}
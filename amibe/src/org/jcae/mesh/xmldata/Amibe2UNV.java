@@ -26,12 +26,9 @@ import org.jcae.mesh.xmldata.AmibeReader.SubMesh;
 import org.jcae.mesh.xmldata.MeshExporter.UNV.Unit;
 import java.io.File;
 import java.io.PrintStream;
-import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.BufferedOutputStream;
 import java.io.IOException;
-import java.nio.ByteBuffer;
-import java.nio.channels.FileChannel;
 import java.text.NumberFormat;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -217,26 +214,25 @@ public class Amibe2UNV
 	private void writeNodes(PrintStream out) throws IOException
 	{
 		File f=unvWriter.getNodeFile();
-		// Open the file and then get a channel from the stream
-		FileInputStream fis = new FileInputStream(f);
-		FileChannel fc = fis.getChannel();
+		// Nodes file may be compressed
+		DoubleFileReader nodes = new PrimitiveFileReaderFactory().getDoubleReader(f);
 	
-		ByteBuffer bb=ByteBuffer.allocate(3*8);
+		double [] xyz = new double[3];
 		int count = 1;
 		out.println("    -1"+CR+"  2411");
 		
-		while(fc.read(bb)!=-1)
+		long nb = nodes.size() / 3;
+		for (long i = 0; i < nb; i++)
 		{
-			bb.rewind();
+			nodes.get(xyz);
 			MeshExporter.UNV.writeSingleNode(out, count,
-				bb.getDouble()*scale, bb.getDouble()*scale, bb.getDouble()*scale);
-			bb.rewind();
+				xyz[0]*scale, xyz[1]*scale, xyz[2]*scale);
 			count ++;
 		}
 		
 		out.println("    -1");
 		
-		fc.close();
+		nodes.close();
 		logger.info("Total number of nodes: "+count);
 	}
 	
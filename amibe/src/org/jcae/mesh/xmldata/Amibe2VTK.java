@@ -39,7 +39,7 @@ import org.xml.sax.SAXException;
  * The documentation of the file format may be found here:
  * <a href="http://www.vtk.org/pdf/file-formats.pdf">
  * http://www.vtk.org/pdf/file-formats.pdf</a>
- * @todo output one VTK piece by mesh group, support VTK parellel files.
+ * @see Amibe2PVTK to write one VTK piece by mesh group
  * @author Jerome Robert
  */
 public class Amibe2VTK
@@ -219,7 +219,7 @@ public class Amibe2VTK
 		dos.writeInt((int) nbt*4);
 		new GroupInverter(directory.getPath(), new GroupInverter.IntegerWriter() {
 			public void writeInt(ByteBuffer i) throws IOException {
-				dos.write(i.array());
+				dos.write(i.array(), i.arrayOffset()+i.position(), i.remaining());
 			}
 		}).invert();
 		if(dummyData)
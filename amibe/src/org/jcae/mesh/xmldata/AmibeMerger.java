@@ -0,0 +1,635 @@
+/* jCAE stand for Java Computer Aided Engineering. Features are : Small CAD
+   modeler, Finite element mesher, Plugin architecture.
+
+    Copyright (C) 2012, by EADS France
+
+    This library is free software; you can redistribute it and/or
+    modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    This library is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+    Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this library; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA */
+
+package org.jcae.mesh.xmldata;
+
+import gnu.trove.TIntArrayList;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+import org.jcae.mesh.amibe.util.SpaceFillingCurve;
+import org.xml.sax.SAXException;
+
+/**
+ * Merges several amibe directories into a single one and welds coincident
+ * nodes, without creating <code>Vertex</code> or <code>Triangle</code>
+ * instances.
+ *
+ * <p>
+ * Node coordinates of all inputs are read into a single array.  Nodes are
+ * sorted by the grid cell which contains them, cells being larger than
+ * the welding tolerance, and each node is compared with nodes of lower
+ * index in its 27 neighbour cells.  Sorting and neighbour searches are
+ * performed in parallel, and close nodes are then gathered with a
+ * union-find structure, the node of lowest index being kept.  Triangles
+ * and beams are then read and written input by input, and triangles which
+ * become degenerate are dropped.
+ * </p>
+ *
+ * <p>
+ * Group names are built from a pattern, see {@link #setGroupPattern};
+ * groups which get the same name are concatenated.  Outer triangles,
+ * normals and node groups are not copied, and inputs must contain a
+ * single submesh.
+ * </p>
+ */
+public class AmibeMerger
+{
+	private static final Logger LOGGER=Logger.getLogger(AmibeMerger.class.getName());
+	private static final int CELL_BITS = SpaceFillingCurve.BITS;
+	private static final int MAX_CELL = (1 << CELL_BITS) - 1;
+	// Buckets are defined by the 9 leading bits of cell keys
+	private static final int BUCKET_SHIFT = 3 * CELL_BITS - 9;
+	private static final int CHUNK_SIZE = 1 << 14;
+	private static final int BUFFER_SIZE = 3 * 4096;
+
+	private final List<String> inputs = new ArrayList<String>();
+	private double tolerance = 0.0;
+	private int nrThreads = Runtime.getRuntime().availableProcessors();
+	private String groupPattern = "{name}";
+	private int nrNodes;
+	private int nrTriangles;
+	private int nrBeams;
+	private int nrWelded;
+
+	public void addInput(String dir)
+	{
+		inputs.add(dir);
+	}
+
+	/**
+	 * Sets the distance below which nodes are welded.  By default, only
+	 * nodes with the same coordinates are welded.
+	 */
+	public void setTolerance(double tolerance)
+	{
+		this.tolerance = tolerance;
+	}
+
+	public void setNumberOfThreads(int n)
+	{
+		nrThreads = n;
+	}
+
+	/**
+	 * Sets how groups are renamed.  In this pattern, <code>{name}</code> is
+	 * replaced by the group name, <code>{input}</code> by the index of its
+	 * input directory, starting from 0, and <code>{dir}</code> by the name
+	 * of this directory.  Default pattern is <code>{name}</code>, groups
+	 * with the same name are then concatenated.
+	 */
+	public void setGroupPattern(String pattern)
+	{
+		groupPattern = pattern;
+	}
+
+	String groupName(int input, String name)
+	{
+		return groupPattern.replace("{name}", name).
+			replace("{input}", Integer.toString(input)).
+			replace("{dir}", new File(inputs.get(input)).getName());
+	}
+
+	public int getNumberOfNodes()
+	{
+		return nrNodes;
+	}
+
+	public int getNumberOfTriangles()
+	{
+		return nrTriangles;
+	}
+
+	public int getNumberOfBeams()
+	{
+		return nrBeams;
+	}
+
+	/**
+	 * Returns the number of input nodes which have been welded to another
+	 * node.
+	 */
+	public int getNumberOfWeldedNodes()
+	{
+		return nrWelded;
+	}
+
+	private static AmibeReader.SubMesh readSubMesh(String dir) throws IOException
+	{
+		AmibeReader.Dim3 ar;
+		try
+		{
+			ar = new AmibeReader.Dim3(dir);
+		}
+		catch (SAXException ex)
+		{
+			throw new IOException(ex.getMessage());
+		}
+		if (ar.getSubmeshes().size() != 1)
+			throw new IllegalArgumentException("Only meshes with a single submesh can be merged: "+dir);
+		return ar.getSubmeshes().get(0);
+	}
+
+	/**
+	 * Writes the merged mesh.
+	 *
+	 * @param outDir  output amibe directory
+	 * @throws IOException if an I/O error occurs
+	 */
+	public void merge(String outDir) throws IOException
+	{
+		int nrInputs = inputs.size();
+		AmibeReader.SubMesh [] submeshes = new AmibeReader.SubMesh[nrInputs];
+		int [] nodeOffset = new int[nrInputs + 1];
+		boolean hasRef = false;
+		for (int k = 0; k < nrInputs; k++)
+		{
+			submeshes[k] = readSubMesh(inputs.get(k));
+			nodeOffset[k+1] = nodeOffset[k] + submeshes[k].getNumberOfNodes();
+			hasRef |= submeshes[k].getNumberOfReferences() > 0;
+		}
+		int n = nodeOffset[nrInputs];
+		double [] xyz = new double[3 * n];
+		int [] refs = hasRef ? new int[n] : null;
+		for (int k = 0; k < nrInputs; k++)
+		{
+			DoubleFileReader dfr = submeshes[k].getNodes();
+			dfr.get(xyz, 3 * nodeOffset[k], 3 * submeshes[k].getNumberOfNodes());
+			dfr.close();
+			if (hasRef)
+			{
+				// Referenced nodes are stored at the end
+				int [] r = submeshes[k].getReferences();
+				System.arraycopy(r, 0, refs, nodeOffset[k+1] - r.length, r.length);
+			}
+		}
+
+		int [] rep;
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, nrThreads));
+		try
+		{
+			rep = weld(xyz, n, tolerance, executor, Math.max(1, nrThreads));
+		}
+		finally
+		{
+			executor.shutdown();
+		}
+
+		// Number kept nodes, inner nodes first and referenced nodes last
+		int [] newIndex = new int[n];
+		nrNodes = 0;
+		nrWelded = 0;
+		if (hasRef)
+		{
+			for (int i = 0; i < n; i++)
+			{
+				if (refs[i] != 0 && refs[rep[i]] == 0)
+					refs[rep[i]] = refs[i];
+			}
+		}
+		AmibeWriter.Dim3 aw = new AmibeWriter.Dim3(outDir, false, hasRef);
+		for (int pass = 0; pass < 2; pass++)
+		{
+			for (int i = 0; i < n; i++)
+			{
+				if (rep[i] != i)
+					continue;
+				boolean referenced = hasRef && refs[i] != 0;
+				if (referenced != (pass == 1))
+					continue;
+				newIndex[i] = nrNodes++;
+				aw.addNodes(xyz, 3 * i, 3);
+				if (referenced)
+					aw.addNodeRef(Math.abs(refs[i]));
+			}
+		}
+		for (int i = 0; i < n; i++)
+		{
+			if (rep[i] != i)
+			{
+				newIndex[i] = newIndex[rep[i]];
+				nrWelded++;
+			}
+		}
+		xyz = null;
+		rep = null;
+
+		nrTriangles = 0;
+		nrBeams = 0;
+		Map<String, TIntArrayList> groupTrias = new LinkedHashMap<String, TIntArrayList>();
+		Map<String, TIntArrayList> groupBeams = new LinkedHashMap<String, TIntArrayList>();
+		for (int k = 0; k < nrInputs; k++)
+		{
+			AmibeReader.SubMesh sm = submeshes[k];
+			int [] triaMap = copyElements(sm.getTriangles(), sm.getNumberOfTrias(), 3, nodeOffset[k], newIndex, aw);
+			int [] beamMap = copyElements(sm.getBeams(), sm.getNumberOfBeams(), 2, nodeOffset[k], newIndex, aw);
+			for (AmibeReader.Group g : sm.getGroups())
+			{
+				String name = groupName(k, g.getName());
+				addToGroup(groupTrias, name, g.readTria3Ids(), triaMap);
+				addToGroup(groupBeams, name, g.readBeamsIds(), beamMap);
+			}
+		}
+		for (Map.Entry<String, TIntArrayList> e : groupTrias.entrySet())
+		{
+			aw.nextGroup(e.getKey());
+			int [] ids = e.getValue().toNativeArray();
+			aw.addTriaToGroup(ids, 0, ids.length);
+			TIntArrayList beams = groupBeams.get(e.getKey());
+			for (int i = 0, nb = beams.size(); i < nb; i++)
+				aw.addBeamToGroup(beams.get(i));
+		}
+		aw.finish();
+		LOGGER.info("Merged "+nrInputs+" meshes: "+nrNodes+" nodes ("+nrWelded+" welded), "+
+			nrTriangles+" triangles, "+nrBeams+" beams, "+groupTrias.size()+" groups");
+	}
+
+	/**
+	 * Copies triangles or beams of an input, and returns their new index,
+	 * or -1 if they have been dropped.
+	 */
+	private int [] copyElements(IntFileReader ifr, int nrElements, int size, int offset, int [] newIndex, AmibeWriter aw)
+		throws IOException
+	{
+		int [] ret = new int[nrElements];
+		if (nrElements == 0)
+		{
+			ifr.close();
+			return ret;
+		}
+		int [] buffer = new int[BUFFER_SIZE - BUFFER_SIZE % size];
+		int [] out = new int[buffer.length];
+		int element = 0;
+		int remaining = size * nrElements;
+		while (remaining > 0)
+		{
+			int len = ifr.get(buffer, 0, Math.min(remaining, buffer.length));
+			if (len <= 0)
+				throw new IOException("Unexpected end of file");
+			remaining -= len;
+			int nOut = 0;
+			for (int i = 0; i < len; i += size, element++)
+			{
+				boolean valid = true;
+				for (int j = 0; j < size; j++)
+				{
+					int v = buffer[i+j];
+					// Outer triangles are dropped
+					if (v < 0)
+					{
+						valid = false;
+						break;
+					}
+					out[nOut+j] = newIndex[offset + v];
+					for (int l = 0; l < j; l++)
+						valid &= out[nOut+l] != out[nOut+j];
+				}
+				if (!valid)
+				{
+					ret[element] = -1;
+					continue;
+				}
+				nOut += size;
+				if (size == 3)
+					ret[element] = nrTriangles++;
+				else
+					ret[element] = nrBeams++;
+			}
+			if (size == 3)
+				aw.addTriangles(out, 0, nOut);
+			else
+			{
+				for (int i = 0; i < nOut; i += 2)
+					aw.addBeam(out[i], out[i+1]);
+			}
+		}
+		ifr.close();
+		return ret;
+	}
+
+	private static void addToGroup(Map<String, TIntArrayList> groups, String name, int [] ids, int [] map)
+	{
+		TIntArrayList list = groups.get(name);
+		if (list == null)
+		{
+			list = new TIntArrayList(ids.length);
+			groups.put(name, list);
+		}
+		for (int id : ids)
+		{
+			if (map[id] >= 0)
+				list.add(map[id]);
+		}
+	}
+
+	private static <T> List<T> invokeAll(ExecutorService executor, List<Callable<T>> tasks)
+	{
+		List<T> ret = new ArrayList<T>(tasks.size());
+		try
+		{
+			for (Future<T> f : executor.invokeAll(tasks))
+				ret.add(f.get());
+		}
+		catch (ExecutionException ex)
+		{
+			Throwable cause = ex.getCause();
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+			if (cause instanceof Error)
+				throw (Error) cause;
+			throw new RuntimeException(cause);
+		}
+		catch (InterruptedException ex)
+		{
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(ex);
+		}
+		return ret;
+	}
+
+	/**
+	 * Welds nodes closer than tolerance.
+	 *
+	 * @param xyz  node coordinates
+	 * @param n  number of nodes
+	 * @param tolerance  welding tolerance
+	 * @param executor  executor running parallel tasks
+	 * @param nrTasks  number of parallel tasks
+	 * @return for each node, the index of the node it is welded to, this
+	 *    is the lowest index of its group of close nodes.
+	 */
+	static int [] weld(final double [] xyz, final int n, final double tolerance,
+		ExecutorService executor, int nrTasks)
+	{
+		final double [] bbmin = new double[] { Double.MAX_VALUE, Double.MAX_VALUE, Double.MAX_VALUE };
+		double [] bbmax = new double[] { -Double.MAX_VALUE, -Double.MAX_VALUE, -Double.MAX_VALUE };
+		for (int i = 0; i < 3 * n; i += 3)
+		{
+			for (int k = 0; k < 3; k++)
+			{
+				bbmin[k] = Math.min(bbmin[k], xyz[i+k]);
+				bbmax[k] = Math.max(bbmax[k], xyz[i+k]);
+			}
+		}
+		// Cells must not be smaller than tolerance, and their number
+		// along each axis must fit into CELL_BITS bits.
+		double extent = 0.0;
+		for (int k = 0; k < 3 && n > 0; k++)
+			extent = Math.max(extent, bbmax[k] - bbmin[k]);
+		double cell = Math.max(tolerance, extent / (MAX_CELL - 1));
+		if (cell <= 0.0)
+			cell = 1.0;
+		final double invCell = 1.0 / cell;
+		final double tol2 = tolerance * tolerance;
+
+		// Compute cell keys
+		final long [] keys = new long[n];
+		List<Callable<Void>> keyTasks = new ArrayList<Callable<Void>>();
+		for (int t = 0; t < nrTasks; t++)
+		{
+			final int lo = (int) ((long) n * t / nrTasks);
+			final int hi = (int) ((long) n * (t + 1) / nrTasks);
+			keyTasks.add(new Callable<Void>()
+			{
+				public Void call()
+				{
+					for (int i = lo; i < hi; i++)
+						keys[i] = cellKey(cell(xyz[3*i], bbmin[0], invCell),
+							cell(xyz[3*i+1], bbmin[1], invCell), cell(xyz[3*i+2], bbmin[2], invCell));
+					return null;
+				}
+			});
+		}
+		invokeAll(executor, keyTasks);
+
+		// Dispatch nodes into buckets, and sort each bucket in parallel
+		int nrBuckets = 1 << (3 * CELL_BITS - BUCKET_SHIFT);
+		int [] bucketStart = new int[nrBuckets + 1];
+		for (int i = 0; i < n; i++)
+			bucketStart[(int) (keys[i] >>> BUCKET_SHIFT) + 1]++;
+		for (int b = 0; b < nrBuckets; b++)
+			bucketStart[b+1] += bucketStart[b];
+		final int [] order = new int[n];
+		int [] fill = new int[nrBuckets];
+		System.arraycopy(bucketStart, 0, fill, 0, nrBuckets);
+		for (int i = 0; i < n; i++)
+			order[fill[(int) (keys[i] >>> BUCKET_SHIFT)]++] = i;
+		final long [] sortedKeys = new long[n];
+		List<Callable<Void>> sortTasks = new ArrayList<Callable<Void>>();
+		for (int b = 0; b < nrBuckets; b++)
+		{
+			final int lo = bucketStart[b];
+			final int hi = bucketStart[b+1];
+			if (lo == hi)
+				continue;
+			sortTasks.add(new Callable<Void>()
+			{
+				public Void call()
+				{
+					int len = hi - lo;
+					long [] local = new long[len];
+					int [] nodes = new int[len];
+					for (int k = 0; k < len; k++)
+					{
+						nodes[k] = order[lo+k];
+						local[k] = keys[nodes[k]];
+					}
+					int [] p = SpaceFillingCurve.sortedPermutation(local, len);
+					for (int k = 0; k < len; k++)
+					{
+						order[lo+k] = nodes[p[k]];
+						sortedKeys[lo+k] = local[p[k]];
+					}
+					return null;
+				}
+			});
+		}
+		invokeAll(executor, sortTasks);
+
+		// Find pairs of close nodes in neighbour cells
+		final AtomicInteger nextChunk = new AtomicInteger();
+		List<Callable<TIntArrayList>> pairTasks = new ArrayList<Callable<TIntArrayList>>();
+		for (int t = 0; t < nrTasks; t++)
+		{
+			pairTasks.add(new Callable<TIntArrayList>()
+			{
+				public TIntArrayList call()
+				{
+					TIntArrayList pairs = new TIntArrayList();
+					while (true)
+					{
+						int lo = CHUNK_SIZE * nextChunk.getAndIncrement();
+						if (lo >= n)
+							break;
+						int hi = Math.min(n, lo + CHUNK_SIZE);
+						for (int i = lo; i < hi; i++)
+							findCloseNodes(i, xyz, keys[i], sortedKeys, order, tol2, pairs);
+					}
+					return pairs;
+				}
+			});
+		}
+		List<TIntArrayList> allPairs = invokeAll(executor, pairTasks);
+
+		// Gather close nodes, roots are the nodes of lowest index
+		int [] parent = new int[n];
+		for (int i = 0; i < n; i++)
+			parent[i] = i;
+		for (TIntArrayList pairs : allPairs)
+		{
+			for (int p = 0, np = pairs.size(); p < np; p += 2)
+			{
+				int a = find(parent, pairs.get(p));
+				int b = find(parent, pairs.get(p+1));
+				if (a < b)
+					parent[b] = a;
+				else if (b < a)
+					parent[a] = b;
+			}
+		}
+		for (int i = 0; i < n; i++)
+			parent[i] = find(parent, i);
+		return parent;
+	}
+
+	private static int find(int [] parent, int i)
+	{
+		int root = i;
+		while (parent[root] != root)
+			root = parent[root];
+		while (parent[i] != root)
+		{
+			int next = parent[i];
+			parent[i] = root;
+			i = next;
+		}
+		return root;
+	}
+
+	private static int cell(double x, double min, double invCell)
+	{
+		int ret = (int) ((x - min) * invCell);
+		return ret < 0 ? 0 : (ret > MAX_CELL ? MAX_CELL : ret);
+	}
+
+	private static long cellKey(int i, int j, int k)
+	{
+		return ((long) i << (2 * CELL_BITS)) | ((long) j << CELL_BITS) | k;
+	}
+
+	/**
+	 * Adds pairs made of node i and close nodes of lower index.
+	 */
+	private static void findCloseNodes(int i, double [] xyz, long key, long [] sortedKeys, int [] order,
+		double tol2, TIntArrayList pairs)
+	{
+		int ci = (int) (key >>> (2 * CELL_BITS));
+		int cj = (int) (key >>> CELL_BITS) & MAX_CELL;
+		int ck = (int) key & MAX_CELL;
+		for (int di = Math.max(0, ci - 1); di <= Math.min(MAX_CELL, ci + 1); di++)
+		{
+			for (int dj = Math.max(0, cj - 1); dj <= Math.min(MAX_CELL, cj + 1); dj++)
+			{
+				for (int dk = Math.max(0, ck - 1); dk <= Math.min(MAX_CELL, ck + 1); dk++)
+				{
+					long neighbour = cellKey(di, dj, dk);
+					for (int p = lowerBound(sortedKeys, neighbour); p < sortedKeys.length && sortedKeys[p] == neighbour; p++)
+					{
+						int j = order[p];
+						if (j >= i)
+							continue;
+						double dx = xyz[3*i] - xyz[3*j];
+						double dy = xyz[3*i+1] - xyz[3*j+1];
+						double dz = xyz[3*i+2] - xyz[3*j+2];
+						if (dx * dx + dy * dy + dz * dz <= tol2)
+						{
+							pairs.add(j);
+							pairs.add(i);
+						}
+					}
+				}
+			}
+		}
+	}
+
+	private static int lowerBound(long [] sortedKeys, long key)
+	{
+		int lo = 0;
+		int hi = sortedKeys.length;
+		while (lo < hi)
+		{
+			int mid = (lo + hi) >>> 1;
+			if (sortedKeys[mid] < key)
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+		return lo;
+	}
+
+	private static void usage(int rc)
+	{
+		System.out.println("Usage: AmibeMerger [options] outDir inDir...");
+		System.out.println("Options:");
+		System.out.println(" -h, --help          Display this message and exit");
+		System.out.println(" --tolerance <d>     Welding tolerance (default: 0)");
+		System.out.println(" --threads <n>       Number of threads");
+		System.out.println(" --groups <pattern>  Group names, {name}, {input} and {dir} are replaced");
+		System.out.println("                     by group name, input index and input directory name");
+		System.exit(rc);
+	}
+
+	public static void main(String[] args) throws IOException
+	{
+		AmibeMerger merger = new AmibeMerger();
+		int argc = 0;
+		for (String arg: args)
+			if (arg.equals("--help") || arg.equals("-h"))
+				usage(0);
+		while (argc < args.length-1 && args[argc].startsWith("--"))
+		{
+			String opt = args[argc].substring(2);
+			String val = args[argc+1];
+			if (opt.equals("tolerance"))
+				merger.setTolerance(Double.parseDouble(val));
+			else if (opt.equals("threads"))
+				merger.setNumberOfThreads(Integer.parseInt(val));
+			else if (opt.equals("groups"))
+				merger.setGroupPattern(val);
+			else
+				throw new RuntimeException("Unknown option: "+opt);
+			argc += 2;
+		}
+		if (argc + 2 > args.length)
+			usage(1);
+		for (int i = argc + 1; i < args.length; i++)
+			merger.addInput(args[i]);
+		merger.merge(args[argc]);
+	}
+}
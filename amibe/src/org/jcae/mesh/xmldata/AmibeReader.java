@@ -98,8 +98,7 @@ public abstract class AmibeReader extends XMLReader implements JCAEXMLData {
 			PrimitiveFileReaderFactory pfrf = new PrimitiveFileReaderFactory();
 			IntFileReader ifrG = pfrf.getIntReader(getBinFile(groupsFilename));
 			int[] toReturn = new int[numberOfTrias];
-			for (int i = 0; i < numberOfTrias; i++)
-				toReturn[i] = ifrG.get(triasOffset+i);
+			ifrG.get(triasOffset, toReturn);
 			ifrG.close();
 			return toReturn;
 		}
@@ -108,13 +107,10 @@ public abstract class AmibeReader extends XMLReader implements JCAEXMLData {
 		{
 			if (numberOfTrias == 0)
 				return new int[0];
-			PrimitiveFileReaderFactory pfrf = new PrimitiveFileReaderFactory();
 			int[] ids = readTria3Ids();
-			IntFileReader ifrT = pfrf.getIntReader(getBinFile("triangles"+dim()+"d.bin"));
 			int[] toReturn = new int[numberOfTrias * 3];
-			for (int i = 0; i < numberOfTrias; i++)
-				ifrT.get(ids[i] * 3, toReturn, i * 3, 3);
-			ifrT.close();
+			new FileGatherer(getBinFile("triangles"+dim()+"d.bin")).gather(
+				ids, 0, numberOfTrias, 0, 3, toReturn);
 			return toReturn;
 		}
 
@@ -122,13 +118,10 @@ public abstract class AmibeReader extends XMLReader implements JCAEXMLData {
 		{
 			if (numberOfBeams == 0)
 				return new int[0];
-			PrimitiveFileReaderFactory pfrf = new PrimitiveFileReaderFactory();
 			int[] ids = readBeamsIds();
-			IntFileReader ifrT = pfrf.getIntReader(getBinFile("beams"+dim()+"d.bin"));
 			int[] toReturn = new int[numberOfBeams * 2];
-			for (int i = 0; i < numberOfBeams; i++)
-				ifrT.get(ids[i] * 2, toReturn, i * 2, 2);
-			ifrT.close();
+			new FileGatherer(getBinFile("beams"+dim()+"d.bin")).gather(
+				ids, 0, numberOfBeams, 0, 2, toReturn);
 			return toReturn;
 		}
 
@@ -138,20 +131,36 @@ public abstract class AmibeReader extends XMLReader implements JCAEXMLData {
 			PrimitiveFileReaderFactory pfrf = new PrimitiveFileReaderFactory();
 			IntFileReader ifrG = pfrf.getIntReader(getBinFile("bgroups.bin"));
 			int[] toReturn = new int[numberOfBeams];
-			for (int i = 0; i < numberOfBeams; i++)
-				toReturn[i] = ifrG.get(beamsOffset+i);
+			ifrG.get(beamsOffset, toReturn);
 			ifrG.close();
 			return toReturn;
 		}
 
+		/**
+		 * Open the file containing triangle ids of all groups, ids of
+		 * this group start at {@link #getTriasOffset}.
+		 */
+		IntFileReader openTria3Ids() throws IOException
+		{
+			return new PrimitiveFileReaderFactory().getIntReader(getBinFile(groupsFilename));
+		}
+
+		/**
+		 * Open the file containing beam ids of all groups, ids of
+		 * this group start at {@link #getBeamsOffset}.
+		 */
+		IntFileReader openBeamsIds() throws IOException
+		{
+			return new PrimitiveFileReaderFactory().getIntReader(getBinFile("bgroups.bin"));
+		}
+
 		public int[] readNodesIds() throws IOException {
 			if (numberOfNodes == 0)
 				return new int[0];
 			PrimitiveFileReaderFactory pfrf = new PrimitiveFileReaderFactory();
 			IntFileReader ifrG = pfrf.getIntReader(getBinFile("nodeGroups.bin"));
 			int[] toReturn = new int[numberOfNodes];
-			for (int i = 0; i < numberOfNodes; i++)
-				toReturn[i] = ifrG.get(nodesOffset+i);
+			ifrG.get(nodesOffset, toReturn);
 			ifrG.close();
 			return toReturn;
 		}
@@ -245,18 +254,9 @@ public abstract class AmibeReader extends XMLReader implements JCAEXMLData {
 		
 		public float[] readNodes(int[] nodesID) throws IOException
 		{
-			DoubleFileReader dfr = getNodes();
 			float[] toReturn = new float[nodesID.length * dim()];
-
-			for (int i = 0; i < nodesID.length; i++)
-			{
-				int ii = i * dim();
-				int iid = nodesID[i] * dim() + nodesOffset * dim();
-				for(int j = 0; j < dim(); j++)
-					toReturn[ii+j] = (float) dfr.get(iid+j);
-			}
-			dfr.close();
-
+			new FileGatherer(getBinFile("nodes"+dim()+"d.bin")).gather(
+				nodesID, 0, nodesID.length, nodesOffset, dim(), toReturn);
 			return toReturn;
 		}
 
@@ -0,0 +1,592 @@
+/*
+ * Project Info:  http://jcae.sourceforge.net
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307, USA.
+ *
+ * (C) Copyright 2012, by EADS France
+ */
+
+package org.jcae.mesh.xmldata;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.logging.Logger;
+import org.jcae.mesh.amibe.util.SpaceFillingCurve;
+import org.xml.sax.SAXException;
+
+/**
+ * Reorder nodes and triangles of an amibe directory along a space-filling
+ * curve, without loading the mesh into memory.  Files are sorted with
+ * {@link ExternalSort}, so memory usage is bounded by the
+ * <code>maxRecordsInMemory</code> argument.
+ *
+ * <p>
+ * Referenced nodes are stored at the end of <code>nodes3d.bin</code> and
+ * are matched with <code>nodes1dref.bin</code> by their position, they are
+ * thus kept in place and only inner nodes are reordered.  In the same way,
+ * outer triangles are kept at the end of <code>triangles3d.bin</code>.
+ * Groups, node groups, beams and normals are remapped; counts and offsets
+ * do not change, so the XML file is copied as is.
+ * </p>
+ */
+public class AmibeReorder
+{
+	private static final Logger LOGGER=Logger.getLogger(AmibeReorder.class.getName());
+	private static final int BUFFER_SIZE = 1 << 16;
+	private final File inDir;
+	private final File outDir;
+	private SpaceFillingCurve.Type type = SpaceFillingCurve.Type.HILBERT;
+	private int maxRecordsInMemory = 1 << 20;
+	private File tmpDir;
+
+	/**
+	 * Creates a reordering tool.
+	 *
+	 * @param inDir  input amibe directory
+	 * @param outDir  output amibe directory, it may be the same as
+	 *   <code>inDir</code>
+	 */
+	public AmibeReorder(String inDir, String outDir)
+	{
+		this.inDir = new File(inDir);
+		this.outDir = new File(outDir);
+	}
+
+	public void setCurve(SpaceFillingCurve.Type type)
+	{
+		this.type = type;
+	}
+
+	/**
+	 * Sets the maximal number of records sorted in memory.  Larger sets
+	 * are sorted by merging temporary files.
+	 */
+	public void setMaxRecordsInMemory(int n)
+	{
+		maxRecordsInMemory = n;
+	}
+
+	/**
+	 * Sets directory of temporary files.  By default, they are written
+	 * into output directory.
+	 */
+	public void setTemporaryDirectory(File dir)
+	{
+		tmpDir = dir;
+	}
+
+	private File inFile(String name)
+	{
+		return new File(new File(inDir, JCAEXMLData.xml3dFilename+".files"), name);
+	}
+
+	private File outFile(String name)
+	{
+		return new File(new File(outDir, JCAEXMLData.xml3dFilename+".files"), name+".tmp");
+	}
+
+	private static DataOutputStream createDOS(File f) throws IOException
+	{
+		return new DataOutputStream(new BufferedOutputStream(
+			new FileOutputStream(f), BUFFER_SIZE));
+	}
+
+	public void compute() throws IOException
+	{
+		AmibeReader.Dim3 ar;
+		try
+		{
+			ar = new AmibeReader.Dim3(inDir.getPath());
+		}
+		catch (SAXException ex)
+		{
+			throw new IOException(ex.getMessage());
+		}
+		if (ar.getSubmeshes().size() != 1)
+			throw new IllegalArgumentException("Only meshes with a single submesh can be reordered");
+		AmibeReader.SubMesh sm = ar.getSubmeshes().get(0);
+		if (sm.getNodesOffset() != 0 || sm.getTriasOffset() != 0 || sm.getBeamsOffset() != 0)
+			throw new IllegalArgumentException("Only meshes with null offsets can be reordered");
+		// Output files are written uncompressed, and the XML file is copied
+		for (String name: new String[] { "nodes3d.bin", "nodes1dref.bin", "triangles3d.bin",
+			JCAEXMLData.normals3dFilename, "groups.bin", "beams3d.bin", "nodeGroups.bin" })
+			CompressedFileReader.checkNotCompressed(inFile(name));
+		File binDir = new File(outDir, JCAEXMLData.xml3dFilename+".files");
+		if (!binDir.exists() && !binDir.mkdirs())
+			throw new IOException("Cannot create directory "+binDir);
+		File sortDir = tmpDir == null ? binDir : tmpDir;
+
+		int nrNodes = sm.getNumberOfNodes();
+		int nrInnerNodes = nrNodes - sm.getNumberOfReferences();
+		int nrTriangles = sm.getNumberOfTrias();
+		List<File> written = new ArrayList<File>();
+
+		File nodeMapFile = File.createTempFile("jcae", ".map", sortDir);
+		nodeMapFile.deleteOnExit();
+		File triaMapFile = File.createTempFile("jcae", ".map", sortDir);
+		triaMapFile.deleteOnExit();
+		try
+		{
+			SpaceFillingCurve curve = createCurve(sm, nrNodes);
+			reorderNodes(sm, curve, nrNodes, nrInnerNodes, nodeMapFile, sortDir);
+			written.add(outFile("nodes3d.bin"));
+			if (nrTriangles > 0)
+			{
+				File normals = inFile(JCAEXMLData.normals3dFilename);
+				boolean hasNormals = normals.exists();
+				if (hasNormals && normals.length() != 72L * nrTriangles)
+				{
+					LOGGER.warning("Normals do not match triangles, they are discarded");
+					hasNormals = false;
+				}
+				reorderTriangles(curve, nrNodes, nrTriangles, hasNormals, nodeMapFile, triaMapFile, sortDir);
+				written.add(outFile("triangles3d.bin"));
+				if (hasNormals)
+					written.add(outFile(JCAEXMLData.normals3dFilename));
+				remapGroups(sm, "groups.bin", triaMapFile, sortDir);
+				written.add(outFile("groups.bin"));
+			}
+			if (sm.getNumberOfBeams() > 0)
+			{
+				remapFile("beams3d.bin", nodeMapFile);
+				written.add(outFile("beams3d.bin"));
+			}
+			if (inFile("nodeGroups.bin").exists())
+			{
+				remapFile("nodeGroups.bin", nodeMapFile);
+				written.add(outFile("nodeGroups.bin"));
+			}
+		}
+		finally
+		{
+			nodeMapFile.delete();
+			triaMapFile.delete();
+		}
+
+		// Rename temporary files, and copy untouched files
+		Set<String> names = new HashSet<String>();
+		for (File f: written)
+		{
+			String name = f.getName();
+			File target = new File(f.getParentFile(), name.substring(0, name.length() - 4));
+			if (target.exists() && !target.delete())
+				throw new IOException("Cannot overwrite "+target);
+			if (!f.renameTo(target))
+				throw new IOException("Cannot rename "+f+" into "+target);
+			names.add(target.getName());
+		}
+		if (!inDir.getCanonicalFile().equals(outDir.getCanonicalFile()))
+		{
+			copyFile(new File(inDir, JCAEXMLData.xml3dFilename), new File(outDir, JCAEXMLData.xml3dFilename));
+			File [] files = new File(inDir, JCAEXMLData.xml3dFilename+".files").listFiles();
+			for (File f: files)
+			{
+				if (f.isFile() && !names.contains(f.getName()))
+					copyFile(f, new File(binDir, f.getName()));
+			}
+		}
+		LOGGER.config("Reordered "+nrInnerNodes+" nodes and "+nrTriangles+" triangles along "+type+" curve");
+	}
+
+	private SpaceFillingCurve createCurve(AmibeReader.SubMesh sm, int nrNodes)
+		throws IOException
+	{
+		double [] bbmin = new double[3];
+		double [] bbmax = new double[3];
+		for (int j = 0; j < 3; j++)
+		{
+			bbmin[j] = Double.MAX_VALUE;
+			bbmax[j] = - Double.MAX_VALUE;
+		}
+		DoubleFileReader dfr = sm.getNodes();
+		for (int i = 0; i < nrNodes; i++)
+		{
+			for (int j = 0; j < 3; j++)
+			{
+				double x = dfr.get();
+				if (x < bbmin[j])
+					bbmin[j] = x;
+				if (x > bbmax[j])
+					bbmax[j] = x;
+			}
+		}
+		dfr.close();
+		return new SpaceFillingCurve(type, bbmin, bbmax);
+	}
+
+	/**
+	 * Sorts inner nodes and writes the old to new index map.
+	 */
+	private void reorderNodes(AmibeReader.SubMesh sm, SpaceFillingCurve curve,
+		int nrNodes, int nrInnerNodes, File mapFile, File sortDir)
+		throws IOException
+	{
+		// Record: key, old index, coordinates
+		ExternalSort sorter = newSorter(8 + 4 + 24, nrInnerNodes, sortDir);
+		DoubleFileReader dfr = sm.getNodes();
+		double [] xyz = new double[3];
+		for (int i = 0; i < nrInnerNodes; i++)
+		{
+			dfr.get(xyz);
+			sorter.add(curve.getKey(xyz)).putInt(i).putDouble(xyz[0]).putDouble(xyz[1]).putDouble(xyz[2]);
+		}
+		DataOutputStream nodeOut = createDOS(outFile("nodes3d.bin"));
+		// Record: old index, new index
+		ExternalSort inverse = newSorter(8 + 4, nrInnerNodes, sortDir);
+		int newIndex = 0;
+		for (ByteBuffer r = sorter.next(); r != null; r = sorter.next())
+		{
+			r.getLong();
+			inverse.add(r.getInt()).putInt(newIndex);
+			newIndex++;
+			nodeOut.writeDouble(r.getDouble());
+			nodeOut.writeDouble(r.getDouble());
+			nodeOut.writeDouble(r.getDouble());
+		}
+		sorter.close();
+		// Referenced nodes are kept in place
+		for (int i = nrInnerNodes; i < nrNodes; i++)
+		{
+			dfr.get(xyz);
+			nodeOut.writeDouble(xyz[0]);
+			nodeOut.writeDouble(xyz[1]);
+			nodeOut.writeDouble(xyz[2]);
+		}
+		dfr.close();
+		nodeOut.close();
+
+		DataOutputStream mapOut = createDOS(mapFile);
+		for (ByteBuffer r = inverse.next(); r != null; r = inverse.next())
+		{
+			r.getLong();
+			mapOut.writeInt(r.getInt());
+		}
+		inverse.close();
+		for (int i = nrInnerNodes; i < nrNodes; i++)
+			mapOut.writeInt(i);
+		// Outer vertex
+		mapOut.writeInt(nrNodes);
+		mapOut.close();
+	}
+
+	/**
+	 * Sorts inner triangles by the key of their centroid, and writes
+	 * the old to new index map.
+	 */
+	private void reorderTriangles(SpaceFillingCurve curve, int nrNodes,
+		int nrTriangles, boolean hasNormals, File nodeMapFile,
+		File triaMapFile, File sortDir)
+		throws IOException
+	{
+		PrimitiveFileReaderFactory mmap = new PrimitiveFileReaderFactory("mmap");
+		IntFileReader nodeMap = mmap.getIntReader(nodeMapFile);
+		DoubleFileReader nodes = mmap.getDoubleReader(outFile("nodes3d.bin"));
+		PrimitiveFileReaderFactory pfrf = new PrimitiveFileReaderFactory();
+		IntFileReader trias = pfrf.getIntReader(inFile("triangles3d.bin"));
+		DoubleFileReader normals = null;
+		if (hasNormals)
+			normals = pfrf.getDoubleReader(inFile(JCAEXMLData.normals3dFilename));
+
+		// Record: key, old index, vertices, normals
+		ExternalSort sorter = newSorter(8 + 4 + 12 + (hasNormals ? 72 : 0),
+			nrTriangles, sortDir);
+		DataOutputStream outerTrias = null;
+		DataOutputStream outerNormals = null;
+		File outerTriasFile = null;
+		File outerNormalsFile = null;
+		int [] ind = new int[3];
+		double [] centroid = new double[3];
+		double [] normal = new double[9];
+		int nrInner = 0;
+		for (int i = 0; i < nrTriangles; i++)
+		{
+			boolean outer = false;
+			for (int j = 0; j < 3; j++)
+			{
+				int k = trias.get();
+				if (k < 0)
+				{
+					outer = true;
+					k = -k;
+				}
+				ind[j] = nodeMap.get(k);
+			}
+			if (hasNormals)
+				normals.get(normal);
+			if (outer)
+			{
+				// Outer triangles are at the end of file, they are
+				// kept in place.
+				if (outerTrias == null)
+				{
+					outerTriasFile = File.createTempFile("jcae", ".outer", sortDir);
+					outerTriasFile.deleteOnExit();
+					outerTrias = createDOS(outerTriasFile);
+					if (hasNormals)
+					{
+						outerNormalsFile = File.createTempFile("jcae", ".outer", sortDir);
+						outerNormalsFile.deleteOnExit();
+						outerNormals = createDOS(outerNormalsFile);
+					}
+				}
+				for (int j = 0; j < 3; j++)
+					outerTrias.writeInt(-ind[j]);
+				if (hasNormals)
+				{
+					for (int j = 0; j < 9; j++)
+						outerNormals.writeDouble(normal[j]);
+				}
+				continue;
+			}
+			if (outerTrias != null)
+				throw new IllegalArgumentException("Inner triangle "+i+" found after outer triangles");
+			for (int j = 0; j < 3; j++)
+				centroid[j] = 0.0;
+			for (int j = 0; j < 3; j++)
+			{
+				for (int c = 0; c < 3; c++)
+					centroid[c] += nodes.get(3 * ind[j] + c);
+			}
+			for (int j = 0; j < 3; j++)
+				centroid[j] /= 3.0;
+			ByteBuffer r = sorter.add(curve.getKey(centroid)).putInt(i).putInt(ind[0]).putInt(ind[1]).putInt(ind[2]);
+			if (hasNormals)
+			{
+				for (int j = 0; j < 9; j++)
+					r.putDouble(normal[j]);
+			}
+			nrInner++;
+		}
+		trias.close();
+		if (hasNormals)
+			normals.close();
+		nodes.close();
+		nodeMap.close();
+		if (outerTrias != null)
+			outerTrias.close();
+		if (outerNormals != null)
+			outerNormals.close();
+
+		DataOutputStream triaOut = createDOS(outFile("triangles3d.bin"));
+		DataOutputStream normalOut = null;
+		if (hasNormals)
+			normalOut = createDOS(outFile(JCAEXMLData.normals3dFilename));
+		// Record: old index, new index
+		ExternalSort inverse = newSorter(8 + 4, nrInner, sortDir);
+		int newIndex = 0;
+		for (ByteBuffer r = sorter.next(); r != null; r = sorter.next())
+		{
+			r.getLong();
+			inverse.add(r.getInt()).putInt(newIndex);
+			newIndex++;
+			triaOut.writeInt(r.getInt());
+			triaOut.writeInt(r.getInt());
+			triaOut.writeInt(r.getInt());
+			if (hasNormals)
+			{
+				for (int j = 0; j < 9; j++)
+					normalOut.writeDouble(r.getDouble());
+			}
+		}
+		sorter.close();
+		if (outerTriasFile != null)
+		{
+			appendFile(outerTriasFile, triaOut);
+			outerTriasFile.delete();
+			if (hasNormals)
+			{
+				appendFile(outerNormalsFile, normalOut);
+				outerNormalsFile.delete();
+			}
+		}
+		triaOut.close();
+		if (hasNormals)
+			normalOut.close();
+
+		DataOutputStream mapOut = createDOS(triaMapFile);
+		for (ByteBuffer r = inverse.next(); r != null; r = inverse.next())
+		{
+			r.getLong();
+			mapOut.writeInt(r.getInt());
+		}
+		inverse.close();
+		for (int i = nrInner; i < nrTriangles; i++)
+			mapOut.writeInt(i);
+		mapOut.close();
+	}
+
+	/**
+	 * Remaps triangle indices of groups, and sorts them so that triangles
+	 * of a group are read in file order.
+	 */
+	private void remapGroups(AmibeReader.SubMesh sm, String name,
+		File mapFile, File sortDir)
+		throws IOException
+	{
+		File in = inFile(name);
+		if (!in.exists())
+			return;
+		List<AmibeReader.Group> groups = new ArrayList<AmibeReader.Group>();
+		for (AmibeReader.Group g: sm.getGroups())
+		{
+			if (g.getNumberOfTrias() > 0)
+				groups.add(g);
+		}
+		Collections.sort(groups, new Comparator<AmibeReader.Group>()
+		{
+			public int compare(AmibeReader.Group g1, AmibeReader.Group g2)
+			{
+				long d = g1.getTriasOffset() - g2.getTriasOffset();
+				return d < 0 ? -1 : (d > 0 ? 1 : 0);
+			}
+		});
+
+		PrimitiveFileReaderFactory pfrf = new PrimitiveFileReaderFactory();
+		IntFileReader map = new PrimitiveFileReaderFactory("mmap").getIntReader(mapFile);
+		IntFileReader ids = pfrf.getIntReader(in);
+		DataOutputStream out = createDOS(outFile(name));
+		long size = ids.size();
+		long pos = 0;
+		for (AmibeReader.Group g: groups)
+		{
+			long offset = g.getTriasOffset();
+			int n = g.getNumberOfTrias();
+			if (offset < pos || offset + n > size)
+			{
+				// Overlapping groups, do not sort
+				continue;
+			}
+			for (; pos < offset; pos++)
+				out.writeInt(map.get(ids.get()));
+			ExternalSort sorter = newSorter(8, n, sortDir);
+			for (int i = 0; i < n; i++)
+				sorter.add(map.get(ids.get()));
+			for (ByteBuffer r = sorter.next(); r != null; r = sorter.next())
+				out.writeInt((int) r.getLong());
+			sorter.close();
+			pos += n;
+		}
+		for (; pos < size; pos++)
+			out.writeInt(map.get(ids.get()));
+		out.close();
+		ids.close();
+		map.close();
+	}
+
+	// Sorter of at most n records
+	private ExternalSort newSorter(int recordSize, int n, File sortDir)
+	{
+		return new ExternalSort(recordSize, Math.max(1, Math.min(n, maxRecordsInMemory)), sortDir);
+	}
+
+	/**
+	 * Replaces node indices of an integer file.
+	 */
+	private void remapFile(String name, File mapFile)
+		throws IOException
+	{
+		IntFileReader map = new PrimitiveFileReaderFactory("mmap").getIntReader(mapFile);
+		IntFileReader ids = new PrimitiveFileReaderFactory().getIntReader(inFile(name));
+		DataOutputStream out = createDOS(outFile(name));
+		long size = ids.size();
+		for (long i = 0; i < size; i++)
+			out.writeInt(map.get(ids.get()));
+		out.close();
+		ids.close();
+		map.close();
+	}
+
+	private static void appendFile(File f, DataOutputStream out)
+		throws IOException
+	{
+		FileInputStream in = new FileInputStream(f);
+		byte [] buffer = new byte[BUFFER_SIZE];
+		int n;
+		while ((n = in.read(buffer)) > 0)
+			out.write(buffer, 0, n);
+		in.close();
+	}
+
+	private static void copyFile(File src, File dst)
+		throws IOException
+	{
+		FileChannel in = new FileInputStream(src).getChannel();
+		FileChannel out = new FileOutputStream(dst).getChannel();
+		long size = in.size();
+		long pos = 0;
+		while (pos < size)
+			pos += in.transferTo(pos, size - pos, out);
+		in.close();
+		out.close();
+	}
+
+	private static void usage(int rc)
+	{
+		System.out.println("Usage: AmibeReorder [options] xmlDir outDir");
+		System.out.println("Options:");
+		System.out.println(" -h, --help      Display this message and exit");
+		System.out.println(" --curve <c>     Space-filling curve: hilbert (default) or morton");
+		System.out.println(" --memory <n>    Maximal number of records sorted in memory");
+		System.exit(rc);
+	}
+
+	public static void main(String[] args)
+	{
+		int argc = 0;
+		for (String arg: args)
+			if (arg.equals("--help") || arg.equals("-h"))
+				usage(0);
+		String curve = null;
+		String memory = null;
+		while (argc < args.length-1)
+		{
+			if (args[argc].equals("--curve"))
+				curve = args[argc+1];
+			else if (args[argc].equals("--memory"))
+				memory = args[argc+1];
+			else
+				break;
+			argc += 2;
+		}
+		if (argc + 2 != args.length)
+			usage(1);
+		AmibeReorder algo = new AmibeReorder(args[argc], args[argc+1]);
+		if (curve != null)
+			algo.setCurve(SpaceFillingCurve.parseType(curve));
+		if (memory != null)
+			algo.setMaxRecordsInMemory(Integer.parseInt(memory));
+		try
+		{
+			algo.compute();
+		}
+		catch (IOException ex)
+		{
+			ex.printStackTrace();
+			throw new RuntimeException(ex);
+		}
+	}
+}
@@ -19,17 +19,16 @@
  */
 
 package org.jcae.mesh.xmldata;
-import java.io.BufferedOutputStream;
 import java.io.DataOutputStream;
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.OutputStream;
-import java.nio.ByteBuffer;
-import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.xml.stream.XMLStreamException;
@@ -40,11 +39,24 @@ import org.xml.sax.SAXException;
  * Helper class to write amibe files.
  * The format description can be found at
  * http://jcae.sourceforge.net/amibe.html#Amibe+file+format
+ * <p>
+ * Binary files are written through large NIO buffers which are flushed
+ * in background by a thread pool shared by all writers, so that all
+ * files are written concurrently.  When the
+ * <code>org.jcae.mesh.xmldata.AmibeWriter.mmap</code> system property
+ * is set to true, files are written through memory-mapped regions
+ * instead.  Arrays of values are best written by
+ * {@link #addNodes}, {@link #addTriangles}, {@link #addTriaToGroup(int[], int, int)}
+ * and {@link #addNodesToGroup}.
+ * </p>
  * @author Jerome Robert
  */
 public abstract class AmibeWriter {
 
 	private final static Logger LOGGER = Logger.getLogger(AmibeWriter.class.getName());
+	// Idle threads are released, so writers which are not finished
+	// do not keep threads alive.
+	private final static ExecutorService EXECUTOR = createExecutor();
 	private DataOutputStream bGroupChan;
 	
 	public static class Dim1 extends AmibeWriter {
@@ -97,12 +109,21 @@ public abstract class AmibeWriter {
 
 	public static class Dim3 extends AmibeWriter {
 		public Dim3(String name, boolean normal, boolean hasRef) throws IOException {
-			init(name, hasRef);
+			this(name, normal, hasRef, false);
+		}
+
+		/**
+		 * @param compress  if true, binary files are written by
+		 * {@link CompressedOutputStream}, they are smaller and can still
+		 * be read at random positions.
+		 */
+		public Dim3(String name, boolean normal, boolean hasRef, boolean compress) throws IOException {
+			init(name, hasRef, compress);
 			if(normal)
 			{
 				File dir3d = new File(name, binDirectory());
 				File f = new File(dir3d, JCAEXMLData.normals3dFilename);
-				normalChan = createDOS(f);
+				normalChan = createDOS(f, 3);
 			}
 		}
 
@@ -148,45 +169,24 @@ public abstract class AmibeWriter {
 		int bNbElement;
 	}
 
-	private static class NIOutputStream extends OutputStream
+	private DataOutputStream createDOS(File f) throws IOException
 	{
-		private ByteBuffer bb = ByteBuffer.allocate(1);
-		private ByteBuffer bb2;
-		private final FileChannel channel;
-
-		public NIOutputStream(FileChannel c) {
-			this.channel = c;
-		}
-
-		@Override
-		public void write(int b) throws IOException {
-			bb.put(0, (byte)b);
-			bb.rewind();
-			channel.write(bb);
-		}
-
-		@Override
-		public void write(byte[] b, int off, int len) throws IOException {
-			if(bb2 == null || bb2.capacity() != len)
-				bb2 = ByteBuffer.allocate(len);
-			else
-				bb2.rewind();
-			bb2.put(b, off, len);
-			bb2.rewind();
-			channel.write(bb2);
-		}
-
-		@Override
-		public void close() throws IOException {
-			channel.close();
-		}
+		return createDOS(f, 0);
 	}
 
-	private static DataOutputStream createDOS(File f) throws FileNotFoundException
+	/**
+	 * @param stride  0 for a file of integers, or number of components
+	 * for a file of doubles
+	 */
+	protected final DataOutputStream createDOS(File f, int stride) throws IOException
 	{
-		FileOutputStream fos = new FileOutputStream(f);
-		return new DataOutputStream(new BufferedOutputStream(
-			new NIOutputStream(fos.getChannel()), 1024*64));
+		if (compressed)
+		{
+			if (stride == 0)
+				return CompressedOutputStream.createIntStream(f, EXECUTOR);
+			return CompressedOutputStream.createDoubleStream(f, stride, EXECUTOR);
+		}
+		return new BulkDataOutputStream(f, mapped, EXECUTOR);
 	}
 	
 	protected DataOutputStream nodeChan, triaChan, groupChan, refChan,
@@ -234,6 +234,19 @@ public abstract class AmibeWriter {
 
 	}
 
+	/**
+	 * Add nodes to the current submesh.
+	 * @param coords node coordinates, dim() values per node
+	 * @param offset index of the first value to write
+	 * @param length number of values to write, a multiple of dim()
+	 */
+	public void addNodes(double[] coords, int offset, int length) throws IOException
+	{
+		assert length % dim() == 0;
+		BulkDataOutputStream.writeDoubles(nodeChan, coords, offset, length);
+		numberOfNodes += length / dim();
+	}
+
 	/** Add a triangle to the current submesh */
 	public void addTriangle(int i, int j, int k) throws IOException
 	{
@@ -252,6 +265,19 @@ public abstract class AmibeWriter {
 		numberOfTriangles ++;
 	}
 
+	/**
+	 * Add triangles to the current submesh.
+	 * @param indices node indices, 3 per triangle
+	 * @param offset index of the first value to write
+	 * @param length number of values to write, a multiple of 3
+	 */
+	public void addTriangles(int[] indices, int offset, int length) throws IOException
+	{
+		assert length % 3 == 0;
+		BulkDataOutputStream.writeInts(triaChan, indices, offset, length);
+		numberOfTriangles += length / 3;
+	}
+
 	public void addBeam(int i, int j) throws IOException
 	{
 		beamChan.writeInt(i);
@@ -304,6 +330,20 @@ public abstract class AmibeWriter {
 		currentGroup.nbElement ++;
 	}
 
+	/**
+	 * Add triangles to the current group
+	 * nextGroup must have been called before calling this method
+	 * @param ids the IDs of the triangles to add
+	 * @param offset index of the first ID to add
+	 * @param length number of triangles to add
+	 */
+	public void addTriaToGroup(int[] ids, int offset, int length) throws IOException
+	{
+		BulkDataOutputStream.writeInts(groupChan, ids, offset, length);
+		groupOffset += length;
+		currentGroup.nbElement += length;
+	}
+
 	/**
 	 * Add a beam to the current group
 	 * nextGroup must have been called before calling this method
@@ -331,6 +371,8 @@ public abstract class AmibeWriter {
 			bGroupChan.close();
 			if(refChan != null)
 				refChan.close();
+			if(normalChan != null)
+				normalChan.close();
 		} catch (SAXException ex) {
 			LOGGER.log(Level.SEVERE, null, ex);
 		} catch (XMLStreamException ex) {
@@ -338,12 +380,40 @@ public abstract class AmibeWriter {
 		}
 	}
 
+	private static ExecutorService createExecutor()
+	{
+		int nProc = Runtime.getRuntime().availableProcessors();
+		ThreadPoolExecutor ret = new ThreadPoolExecutor(nProc, nProc,
+			10L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+			new ThreadFactory()
+		{
+			public Thread newThread(Runnable r)
+			{
+				Thread t = new Thread(r, "amibe-writer");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		ret.allowCoreThreadTimeOut(true);
+		return ret;
+	}
+
 	private String nodeFName, triaFName, refFName, beamsFName;
 	private int nodesOffset, beamsOffset, triaOffset;
 	private DoubleFileReader nodesReader;
 	private File fnode;
+	private boolean compressed;
+	private boolean mapped;
+
 	protected final void init(String path, boolean writeReferences) throws IOException
 	{
+		init(path, writeReferences, false);
+	}
+
+	protected final void init(String path, boolean writeReferences, boolean compress) throws IOException
+	{
+		compressed = compress;
+		mapped = Boolean.getBoolean("org.jcae.mesh.xmldata.AmibeWriter.mmap");
 		try {
 			new File(path).mkdirs();
 			nodeFName = "nodes" + dim() + "d.bin";
@@ -362,7 +432,7 @@ public abstract class AmibeWriter {
 				File ref = new File(dir3d, refFName);
 				refChan = createDOS(ref);
 			}
-			nodeChan = createDOS(fnode);
+			nodeChan = createDOS(fnode, dim());
 			triaChan = createDOS(ftria);
 			groupChan = createDOS(fgrp);
 			bGroupChan = createDOS(bgroups);
@@ -389,6 +459,8 @@ public abstract class AmibeWriter {
 	}
 	
 	public void getNode(int i, double[] nc) throws IOException {
+		if(compressed)
+			throw new IllegalStateException("Nodes cannot be read back from a compressed file");
 		if(nodesReader == null)
 		{
 			nodesReader = new DoubleFileReaderByDirectBuffer(fnode);
@@ -408,6 +480,8 @@ public abstract class AmibeWriter {
 	{
 		XMLStreamWriter o = xmlWriter.out;
 		o.writeStartElement("file");
+		if(compressed && format.endsWith("stream"))
+			format = "z" + format;
 		o.writeAttribute("format", format);
 		o.writeAttribute("location", location);
 		if(offset != 0)
@@ -536,16 +610,27 @@ public abstract class AmibeWriter {
 			g.nbElement=numberOfTriangles;
 			g.offset=0;
 			groups.add(g);
-			for(int i=0; i<numberOfTriangles; i++)
-				groupChan.writeInt(i);
+			writeRange(groupChan, numberOfTriangles);
 
 			g=new Group();
 			g.name="CF_EXT";
 			g.bNbElement=numberOfBeams;
 			g.bOffset=0;
 			groups.add(g);
-			for(int i=0; i<numberOfBeams; i++)
-				bGroupChan.writeInt(i);
+			writeRange(bGroupChan, numberOfBeams);
+		}
+	}
+
+	/** Write integers from 0 to n-1 */
+	private static void writeRange(DataOutputStream out, int n) throws IOException
+	{
+		int[] ids = new int[Math.min(n, 4096)];
+		for(int i=0; i<n; i+=ids.length)
+		{
+			int nr = Math.min(ids.length, n - i);
+			for(int j=0; j<nr; j++)
+				ids[j] = i + j;
+			BulkDataOutputStream.writeInts(out, ids, 0, nr);
 		}
 	}
 
@@ -594,4 +679,18 @@ public abstract class AmibeWriter {
 		nodeGroupOffset ++;
 		currentNodeGroup.nbElement ++;
 	}
+
+	/**
+	 * Add nodes to the current node group
+	 * nextNodeGroup must have been called before calling this method
+	 * @param ids the IDs of the nodes to add
+	 * @param offset index of the first ID to add
+	 * @param length number of nodes to add
+	 */
+	public void addNodesToGroup(int[] ids, int offset, int length) throws IOException
+	{
+		BulkDataOutputStream.writeInts(nodeGroupChan, ids, offset, length);
+		nodeGroupOffset += length;
+		currentNodeGroup.nbElement += length;
+	}
 }
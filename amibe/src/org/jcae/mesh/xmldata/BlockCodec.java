@@ -0,0 +1,244 @@
+/*
+ * Project Info:  http://jcae.sourceforge.net
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307, USA.
+ *
+ * (C) Copyright 2012, by EADS France
+ */
+
+package org.jcae.mesh.xmldata;
+
+import java.io.IOException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Encoding of blocks of compressed amibe files.
+ *
+ * <p>
+ * File layout, all values are big-endian:
+ * </p>
+ * <pre>
+ *   header:  int MAGIC, byte type, byte stride, int elementsPerBlock
+ *   blocks:  int rawLength, int compressedLength, byte[compressedLength]
+ *   index:   long blockOffset[numberOfBlocks]
+ *   trailer: long numberOfElements, int numberOfBlocks, long indexOffset, int MAGIC
+ * </pre>
+ * <p>
+ * Integers are delta encoded against the previous value, zigzag encoded
+ * and written as variable-length integers.  Doubles are predicted by the
+ * previous value of the same component (<code>stride</code> is the
+ * number of components, e.g. 3 for coordinates), the exclusive or of
+ * the value and its prediction is written without its leading zero bytes.
+ * This is lossless.  Result is then compressed by {@link Deflater}.
+ * Each block is independent, so that blocks can be encoded and decoded
+ * concurrently and a file can be read at random positions.
+ * </p>
+ */
+final class BlockCodec
+{
+	static final int MAGIC = 0x4A435A31;
+	static final byte TYPE_INT = 0;
+	static final byte TYPE_DOUBLE = 1;
+	static final int HEADER_SIZE = 4 + 1 + 1 + 4;
+	static final int TRAILER_SIZE = 8 + 4 + 8 + 4;
+
+	private BlockCodec()
+	{
+	}
+
+	/** Returns encoded length of <code>n</code> elements. */
+	private static int maxEncodedLength(byte type, int n)
+	{
+		return type == TYPE_INT ? 5 * n : 9 * n;
+	}
+
+	/**
+	 * Encodes integers.
+	 *
+	 * @param values  values to encode
+	 * @param n  number of values
+	 * @return encoded block, with its header
+	 */
+	static byte [] encodeInts(int [] values, int n)
+	{
+		byte [] raw = new byte[maxEncodedLength(TYPE_INT, n)];
+		int pos = 0;
+		int prev = 0;
+		for (int i = 0; i < n; i++)
+		{
+			int d = values[i] - prev;
+			prev = values[i];
+			// Zigzag
+			int z = (d << 1) ^ (d >> 31);
+			while ((z & ~0x7f) != 0)
+			{
+				raw[pos++] = (byte) ((z & 0x7f) | 0x80);
+				z >>>= 7;
+			}
+			raw[pos++] = (byte) z;
+		}
+		return deflate(raw, pos);
+	}
+
+	/**
+	 * Decodes integers.
+	 *
+	 * @param block  encoded block, with its header
+	 * @param values  array of decoded values
+	 * @param n  number of values
+	 */
+	static void decodeInts(byte [] block, int [] values, int n) throws IOException
+	{
+		byte [] raw = inflate(block);
+		int pos = 0;
+		int prev = 0;
+		for (int i = 0; i < n; i++)
+		{
+			int z = 0;
+			int shift = 0;
+			int b;
+			do
+			{
+				b = raw[pos++];
+				z |= (b & 0x7f) << shift;
+				shift += 7;
+			}
+			while ((b & 0x80) != 0);
+			prev += (z >>> 1) ^ -(z & 1);
+			values[i] = prev;
+		}
+	}
+
+	/**
+	 * Encodes doubles.
+	 *
+	 * @param values  values to encode
+	 * @param n  number of values
+	 * @param stride  number of components
+	 * @return encoded block, with its header
+	 */
+	static byte [] encodeDoubles(double [] values, int n, int stride)
+	{
+		byte [] raw = new byte[maxEncodedLength(TYPE_DOUBLE, n)];
+		long [] prev = new long[stride];
+		int pos = 0;
+		for (int i = 0; i < n; i++)
+		{
+			long bits = Double.doubleToRawLongBits(values[i]);
+			int c = i % stride;
+			long r = bits ^ prev[c];
+			prev[c] = bits;
+			int nb = 8 - Long.numberOfLeadingZeros(r) / 8;
+			raw[pos++] = (byte) nb;
+			for (int k = nb - 1; k >= 0; k--)
+				raw[pos++] = (byte) (r >>> (8 * k));
+		}
+		return deflate(raw, pos);
+	}
+
+	/**
+	 * Decodes doubles.
+	 *
+	 * @param block  encoded block, with its header
+	 * @param values  array of decoded values
+	 * @param n  number of values
+	 * @param stride  number of components
+	 */
+	static void decodeDoubles(byte [] block, double [] values, int n, int stride) throws IOException
+	{
+		byte [] raw = inflate(block);
+		long [] prev = new long[stride];
+		int pos = 0;
+		for (int i = 0; i < n; i++)
+		{
+			int nb = raw[pos++];
+			long r = 0L;
+			for (int k = 0; k < nb; k++)
+				r = (r << 8) | (raw[pos++] & 0xffL);
+			int c = i % stride;
+			prev[c] ^= r;
+			values[i] = Double.longBitsToDouble(prev[c]);
+		}
+	}
+
+	private static byte [] deflate(byte [] raw, int length)
+	{
+		Deflater deflater = new Deflater();
+		deflater.setInput(raw, 0, length);
+		deflater.finish();
+		byte [] out = new byte[8 + length + length / 100 + 64];
+		int pos = 8;
+		while (!deflater.finished())
+		{
+			if (pos == out.length)
+			{
+				byte [] tmp = new byte[2 * out.length];
+				System.arraycopy(out, 0, tmp, 0, pos);
+				out = tmp;
+			}
+			pos += deflater.deflate(out, pos, out.length - pos);
+		}
+		deflater.end();
+		putInt(out, 0, length);
+		putInt(out, 4, pos - 8);
+		byte [] ret = new byte[pos];
+		System.arraycopy(out, 0, ret, 0, pos);
+		return ret;
+	}
+
+	private static byte [] inflate(byte [] block) throws IOException
+	{
+		int length = getInt(block, 0);
+		byte [] raw = new byte[length];
+		Inflater inflater = new Inflater();
+		inflater.setInput(block, 8, block.length - 8);
+		try
+		{
+			int pos = 0;
+			while (pos < length)
+			{
+				int n = inflater.inflate(raw, pos, length - pos);
+				if (n == 0 && (inflater.finished() || inflater.needsInput()))
+					throw new IOException("Truncated compressed block");
+				pos += n;
+			}
+		}
+		catch (DataFormatException ex)
+		{
+			throw new IOException("Corrupted compressed block: "+ex.getMessage());
+		}
+		finally
+		{
+			inflater.end();
+		}
+		return raw;
+	}
+
+	static void putInt(byte [] b, int pos, int v)
+	{
+		b[pos]   = (byte) (v >>> 24);
+		b[pos+1] = (byte) (v >>> 16);
+		b[pos+2] = (byte) (v >>> 8);
+		b[pos+3] = (byte) v;
+	}
+
+	static int getInt(byte [] b, int pos)
+	{
+		return ((b[pos] & 0xff) << 24) | ((b[pos+1] & 0xff) << 16) |
+			((b[pos+2] & 0xff) << 8) | (b[pos+3] & 0xff);
+	}
+}
@@ -0,0 +1,307 @@
+/*
+ * Project Info:  http://jcae.sourceforge.net
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307, USA.
+ *
+ * (C) Copyright 2012, by EADS France
+ */
+
+package org.jcae.mesh.xmldata;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Data output stream writing into a file through large NIO buffers.
+ * Arrays of integers and doubles are copied into buffers without
+ * converting each value separately.
+ *
+ * <p>
+ * By default, two heap buffers are used: when an executor is given,
+ * a full buffer is written by the executor while the other one is being
+ * filled, so that several files can be written concurrently.  Buffers
+ * start small and grow each time they are written, up to 1 MB, so that
+ * small or empty files are cheap.  When
+ * <code>mapped</code> is true, the file is instead written through
+ * successive memory-mapped regions, and truncated to its real length
+ * when the stream is closed; this does not work on platforms which
+ * cannot truncate a mapped file, like Windows.
+ * </p>
+ */
+final class BulkDataOutputStream extends DataOutputStream
+{
+	private static final int BUFFER_SIZE = 1 << 20;
+	private static final int INITIAL_BUFFER_SIZE = 1 << 13;
+	private static final int REGION_SIZE = 1 << 24;
+	// Size of temporary arrays used to convert values for other streams
+	private static final int CHUNK_SIZE = 1 << 12;
+
+	private final ChannelSink sink;
+
+	BulkDataOutputStream(File f, boolean mapped, ExecutorService executor) throws IOException
+	{
+		super(new ChannelSink(f, mapped, executor));
+		sink = (ChannelSink) out;
+	}
+
+	/**
+	 * Writes <code>len</code> integers of <code>a</code> into <code>out</code>,
+	 * starting from <code>a[off]</code>.
+	 */
+	static void writeInts(DataOutputStream out, int [] a, int off, int len) throws IOException
+	{
+		if (out instanceof BulkDataOutputStream)
+		{
+			((BulkDataOutputStream) out).sink.putInts(a, off, len);
+			return;
+		}
+		byte [] tmp = new byte[4 * Math.min(len, CHUNK_SIZE)];
+		ByteBuffer bb = ByteBuffer.wrap(tmp);
+		while (len > 0)
+		{
+			int n = Math.min(len, CHUNK_SIZE);
+			bb.clear();
+			bb.asIntBuffer().put(a, off, n);
+			out.write(tmp, 0, 4 * n);
+			off += n;
+			len -= n;
+		}
+	}
+
+	/**
+	 * Writes <code>len</code> doubles of <code>a</code> into <code>out</code>,
+	 * starting from <code>a[off]</code>.
+	 */
+	static void writeDoubles(DataOutputStream out, double [] a, int off, int len) throws IOException
+	{
+		if (out instanceof BulkDataOutputStream)
+		{
+			((BulkDataOutputStream) out).sink.putDoubles(a, off, len);
+			return;
+		}
+		byte [] tmp = new byte[8 * Math.min(len, CHUNK_SIZE)];
+		ByteBuffer bb = ByteBuffer.wrap(tmp);
+		while (len > 0)
+		{
+			int n = Math.min(len, CHUNK_SIZE);
+			bb.clear();
+			bb.asDoubleBuffer().put(a, off, n);
+			out.write(tmp, 0, 8 * n);
+			off += n;
+			len -= n;
+		}
+	}
+
+	private static final class ChannelSink extends OutputStream
+	{
+		private final FileChannel fc;
+		private final boolean mapped;
+		private final ExecutorService executor;
+		private ByteBuffer bb;
+		private ByteBuffer spare;
+		private Future<Object> pending;
+		// File position of bb, in mapped mode
+		private long base;
+		private boolean closed;
+
+		ChannelSink(File f, boolean mapped, ExecutorService executor) throws IOException
+		{
+			RandomAccessFile raf = new RandomAccessFile(f, "rw");
+			raf.setLength(0L);
+			fc = raf.getChannel();
+			this.mapped = mapped;
+			this.executor = executor;
+			if (mapped)
+				bb = fc.map(FileChannel.MapMode.READ_WRITE, 0L, REGION_SIZE);
+			else
+			{
+				// Spare buffer is allocated by first drain
+				bb = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+			}
+		}
+
+		@Override
+		public void write(int b) throws IOException
+		{
+			if (!bb.hasRemaining())
+				drain();
+			bb.put((byte) b);
+		}
+
+		@Override
+		public void write(byte [] b, int off, int len) throws IOException
+		{
+			while (len > 0)
+			{
+				int n = Math.min(len, bb.remaining());
+				if (n == 0)
+				{
+					drain();
+					continue;
+				}
+				bb.put(b, off, n);
+				off += n;
+				len -= n;
+			}
+		}
+
+		void putInts(int [] a, int off, int len) throws IOException
+		{
+			while (len > 0)
+			{
+				int n = Math.min(len, bb.remaining() / 4);
+				if (n == 0)
+				{
+					drain();
+					continue;
+				}
+				bb.asIntBuffer().put(a, off, n);
+				bb.position(bb.position() + 4 * n);
+				off += n;
+				len -= n;
+			}
+		}
+
+		void putDoubles(double [] a, int off, int len) throws IOException
+		{
+			while (len > 0)
+			{
+				int n = Math.min(len, bb.remaining() / 8);
+				if (n == 0)
+				{
+					drain();
+					continue;
+				}
+				bb.asDoubleBuffer().put(a, off, n);
+				bb.position(bb.position() + 8 * n);
+				off += n;
+				len -= n;
+			}
+		}
+
+		// Makes room into bb
+		private void drain() throws IOException
+		{
+			if (mapped)
+			{
+				base += bb.position();
+				bb = fc.map(FileChannel.MapMode.READ_WRITE, base, REGION_SIZE);
+				return;
+			}
+			bb.flip();
+			waitPending();
+			int size = Math.min(BUFFER_SIZE, 2 * bb.capacity());
+			if (executor == null)
+			{
+				writeFully(fc, bb);
+				if (bb.capacity() < size)
+					bb = ByteBuffer.allocate(size);
+				else
+					bb.clear();
+				return;
+			}
+			final ByteBuffer full = bb;
+			pending = executor.submit(new Callable<Object>()
+			{
+				public Object call() throws IOException
+				{
+					writeFully(fc, full);
+					return null;
+				}
+			});
+			if (spare == null || spare.capacity() < size)
+				bb = ByteBuffer.allocate(size);
+			else
+			{
+				bb = spare;
+				bb.clear();
+			}
+			spare = full;
+		}
+
+		private static void writeFully(FileChannel fc, ByteBuffer buffer) throws IOException
+		{
+			while (buffer.hasRemaining())
+				fc.write(buffer);
+		}
+
+		private void waitPending() throws IOException
+		{
+			if (pending == null)
+				return;
+			try
+			{
+				pending.get();
+			}
+			catch (InterruptedException ex)
+			{
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted while writing");
+			}
+			catch (ExecutionException ex)
+			{
+				if (ex.getCause() instanceof IOException)
+					throw (IOException) ex.getCause();
+				throw new IOException("Write failed: "+ex.getCause());
+			}
+			finally
+			{
+				pending = null;
+			}
+		}
+
+		@Override
+		public void flush() throws IOException
+		{
+			if (closed || mapped)
+				return;
+			if (bb.position() > 0)
+				drain();
+			waitPending();
+		}
+
+		@Override
+		public void close() throws IOException
+		{
+			if (closed)
+				return;
+			try
+			{
+				if (mapped)
+				{
+					long length = base + bb.position();
+					bb = null;
+					fc.truncate(length);
+				}
+				else
+					flush();
+			}
+			finally
+			{
+				closed = true;
+				fc.close();
+			}
+		}
+	}
+}
@@ -0,0 +1,261 @@
+/*
+ * Project Info:  http://jcae.sourceforge.net
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307, USA.
+ *
+ * (C) Copyright 2012, by EADS France
+ */
+
+package org.jcae.mesh.xmldata;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Common part of readers of files written by {@link CompressedOutputStream}.
+ * Decoded blocks are kept in a small cache.  Blocks are decoded by a
+ * shared thread pool; when a block is accessed, following blocks are
+ * decoded in background so that sequential reading is parallelized.
+ */
+abstract class CompressedFileReader
+{
+	private static final int CACHE_SIZE = 32;
+	private static final int READ_AHEAD = Runtime.getRuntime().availableProcessors();
+	private static ExecutorService executor;
+
+	protected final byte type;
+	protected final int stride;
+	protected final int elementsPerBlock;
+	protected final long numberOfElements;
+	private final FileChannel fc;
+	private final long [] offsets;
+	private final Map<Integer, Future<Object>> cache;
+	private int lastBlock = -1;
+
+	protected CompressedFileReader(File file, byte expectedType) throws IOException
+	{
+		fc = new FileInputStream(file).getChannel();
+		ByteBuffer header = read(0L, BlockCodec.HEADER_SIZE);
+		if (header.getInt() != BlockCodec.MAGIC)
+			throw new IOException("Not a compressed file: "+file);
+		type = header.get();
+		if (type != expectedType)
+			throw new IOException("Unexpected data type in compressed file: "+file);
+		stride = header.get();
+		elementsPerBlock = header.getInt();
+		ByteBuffer trailer = read(fc.size() - BlockCodec.TRAILER_SIZE, BlockCodec.TRAILER_SIZE);
+		numberOfElements = trailer.getLong();
+		int numberOfBlocks = trailer.getInt();
+		long indexOffset = trailer.getLong();
+		ByteBuffer index = read(indexOffset, 8 * numberOfBlocks);
+		offsets = new long[numberOfBlocks + 1];
+		for (int i = 0; i < numberOfBlocks; i++)
+			offsets[i] = index.getLong();
+		offsets[numberOfBlocks] = indexOffset;
+		cache = new LinkedHashMap<Integer, Future<Object>>(2 * CACHE_SIZE, 0.75f, true)
+		{
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Integer, Future<Object>> eldest)
+			{
+				return size() > CACHE_SIZE;
+			}
+		};
+	}
+
+	/**
+	 * Tells whether a file has been written by {@link CompressedOutputStream}.
+	 */
+	static boolean isCompressed(File file) throws IOException
+	{
+		if (!file.isFile() || file.length() < BlockCodec.HEADER_SIZE + BlockCodec.TRAILER_SIZE)
+			return false;
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try
+		{
+			if (raf.readInt() != BlockCodec.MAGIC)
+				return false;
+			raf.seek(raf.length() - 4);
+			return raf.readInt() == BlockCodec.MAGIC;
+		}
+		finally
+		{
+			raf.close();
+		}
+	}
+
+	/**
+	 * Throws an exception if a file has been written by
+	 * {@link CompressedOutputStream}.  This method is called by readers
+	 * which access binary files directly instead of using
+	 * {@link PrimitiveFileReaderFactory}.
+	 */
+	static void checkNotCompressed(File file) throws IOException
+	{
+		if (isCompressed(file))
+			throw new IOException("File "+file+" is compressed (zintegerstream or zdoublestream format) and cannot be read by this class");
+	}
+
+	private static synchronized ExecutorService getExecutor()
+	{
+		if (executor == null)
+		{
+			executor = Executors.newFixedThreadPool(
+				Runtime.getRuntime().availableProcessors(), new ThreadFactory()
+			{
+				public Thread newThread(Runnable r)
+				{
+					Thread t = new Thread(r, "amibe-decompress");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		}
+		return executor;
+	}
+
+	private ByteBuffer read(long position, int length) throws IOException
+	{
+		ByteBuffer bb = ByteBuffer.allocate(length);
+		while (bb.hasRemaining())
+		{
+			if (fc.read(bb, position + bb.position()) < 0)
+				throw new IOException("Unexpected end of file");
+		}
+		bb.flip();
+		return bb;
+	}
+
+	public long size()
+	{
+		return numberOfElements;
+	}
+
+	/** Number of values in block <code>b</code>. */
+	protected final int blockLength(int b)
+	{
+		return (int) Math.min(elementsPerBlock, numberOfElements - (long) b * elementsPerBlock);
+	}
+
+	/** Decodes block <code>b</code> into an <code>int[]</code> or a <code>double[]</code>. */
+	protected abstract Object decode(byte [] data, int n) throws IOException;
+
+	private Future<Object> submit(final int b)
+	{
+		Future<Object> f = cache.get(b);
+		if (f == null)
+		{
+			f = getExecutor().submit(new Callable<Object>()
+			{
+				public Object call() throws IOException
+				{
+					int length = (int) (offsets[b+1] - offsets[b]);
+					return decode(read(offsets[b], length).array(), blockLength(b));
+				}
+			});
+			cache.put(b, f);
+		}
+		return f;
+	}
+
+	/**
+	 * Returns the decoded block <code>b</code>.
+	 */
+	protected final Object block(int b) throws IOException
+	{
+		if (b < 0 || b >= offsets.length - 1)
+			throw new IndexOutOfBoundsException("Block "+b+" out of range");
+		Future<Object> f = submit(b);
+		if (b == lastBlock + 1)
+		{
+			// Sequential access, decode next blocks in background
+			int last = Math.min(offsets.length - 1, b + 1 + Math.min(READ_AHEAD, CACHE_SIZE / 2));
+			for (int i = b + 1; i < last; i++)
+				submit(i);
+		}
+		lastBlock = b;
+		try
+		{
+			return f.get();
+		}
+		catch (InterruptedException ex)
+		{
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while decompressing");
+		}
+		catch (ExecutionException ex)
+		{
+			cache.remove(b);
+			if (ex.getCause() instanceof IOException)
+				throw (IOException) ex.getCause();
+			throw new IOException("Decompression failed: "+ex.getCause());
+		}
+	}
+
+	/**
+	 * Decodes in parallel blocks containing the given items.  This is
+	 * useful before reading scattered items, for instance triangles of
+	 * a group.
+	 *
+	 * @param ids  item indices
+	 * @param offset  index of the first item
+	 * @param width  number of values of each item
+	 */
+	public void prefetch(int [] ids, int offset, int width)
+	{
+		int count = 0;
+		int previous = -1;
+		for (int id: ids)
+		{
+			long first = ((long) id + offset) * width;
+			if (first < 0 || first >= numberOfElements)
+				continue;
+			int b0 = (int) (first / elementsPerBlock);
+			int b1 = (int) ((first + width - 1) / elementsPerBlock);
+			for (int b = b0; b <= b1; b++)
+			{
+				if (b == previous || cache.containsKey(b))
+					continue;
+				submit(b);
+				previous = b;
+				if (++count >= CACHE_SIZE)
+					return;
+			}
+		}
+	}
+
+	public void close()
+	{
+		for (Future<Object> f: cache.values())
+			f.cancel(false);
+		cache.clear();
+		try
+		{
+			fc.close();
+		}
+		catch (IOException ex) { /* Do not care */ }
+	}
+}
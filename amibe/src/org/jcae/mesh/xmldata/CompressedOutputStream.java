@@ -0,0 +1,210 @@
+/*
+ * Project Info:  http://jcae.sourceforge.net
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307, USA.
+ *
+ * (C) Copyright 2012, by EADS France
+ */
+
+package org.jcae.mesh.xmldata;
+
+import gnu.trove.TLongArrayList;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Output stream writing compressed amibe files.  Bytes written into this
+ * stream are big-endian ints or doubles, as written by
+ * {@link java.io.DataOutputStream}; they are grouped into blocks which are
+ * encoded by {@link BlockCodec}.  When an executor is given, blocks are
+ * encoded concurrently and written in order.
+ */
+public class CompressedOutputStream extends OutputStream
+{
+	/** Default number of elements per block. */
+	public static final int ELEMENTS_PER_BLOCK = 1 << 15;
+
+	private final DataOutputStream out;
+	private final byte type;
+	private final int stride;
+	private final int elementsPerBlock;
+	private final int elementSize;
+	private final ExecutorService executor;
+	private final int maxPending;
+	private final LinkedList<Future<byte []>> pending = new LinkedList<Future<byte []>>();
+	private final TLongArrayList offsets = new TLongArrayList();
+	private byte [] buffer;
+	private int count;
+	private long numberOfElements;
+	private long position;
+	private boolean closed;
+
+	/**
+	 * Creates a compressed stream for integers.
+	 */
+	public static DataOutputStream createIntStream(File f, ExecutorService executor)
+		throws IOException
+	{
+		return new DataOutputStream(new CompressedOutputStream(f, BlockCodec.TYPE_INT, 1, executor));
+	}
+
+	/**
+	 * Creates a compressed stream for doubles.
+	 *
+	 * @param stride  number of components of each item, values are
+	 *   predicted from the previous value of the same component
+	 */
+	public static DataOutputStream createDoubleStream(File f, int stride, ExecutorService executor)
+		throws IOException
+	{
+		return new DataOutputStream(new CompressedOutputStream(f, BlockCodec.TYPE_DOUBLE, stride, executor));
+	}
+
+	private CompressedOutputStream(File f, byte type, int stride, ExecutorService executor)
+		throws IOException
+	{
+		this.type = type;
+		this.stride = stride;
+		this.executor = executor;
+		elementSize = type == BlockCodec.TYPE_INT ? 4 : 8;
+		// Blocks contain whole items
+		elementsPerBlock = (ELEMENTS_PER_BLOCK / stride) * stride;
+		maxPending = 2 * Runtime.getRuntime().availableProcessors();
+		buffer = new byte[elementsPerBlock * elementSize];
+		out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(f), 1 << 16));
+		out.writeInt(BlockCodec.MAGIC);
+		out.writeByte(type);
+		out.writeByte(stride);
+		out.writeInt(elementsPerBlock);
+		position = BlockCodec.HEADER_SIZE;
+	}
+
+	@Override
+	public void write(int b) throws IOException
+	{
+		buffer[count++] = (byte) b;
+		if (count == buffer.length)
+			flushBlock();
+	}
+
+	@Override
+	public void write(byte [] b, int off, int len) throws IOException
+	{
+		while (len > 0)
+		{
+			int n = Math.min(len, buffer.length - count);
+			System.arraycopy(b, off, buffer, count, n);
+			count += n;
+			off += n;
+			len -= n;
+			if (count == buffer.length)
+				flushBlock();
+		}
+	}
+
+	private void flushBlock() throws IOException
+	{
+		if (count == 0)
+			return;
+		if (count % elementSize != 0)
+			throw new IOException("Partial element written");
+		final byte [] data = buffer;
+		final int n = count / elementSize;
+		numberOfElements += n;
+		buffer = new byte[elementsPerBlock * elementSize];
+		count = 0;
+		if (executor == null)
+		{
+			writeBlock(encode(data, n));
+			return;
+		}
+		pending.add(executor.submit(new Callable<byte []>()
+		{
+			public byte [] call()
+			{
+				return encode(data, n);
+			}
+		}));
+		while (pending.size() > maxPending || (!pending.isEmpty() && pending.getFirst().isDone()))
+			writeBlock(waitFor(pending.removeFirst()));
+	}
+
+	private byte [] encode(byte [] data, int n)
+	{
+		ByteBuffer bb = ByteBuffer.wrap(data);
+		if (type == BlockCodec.TYPE_INT)
+		{
+			int [] values = new int[n];
+			bb.asIntBuffer().get(values);
+			return BlockCodec.encodeInts(values, n);
+		}
+		double [] values = new double[n];
+		bb.asDoubleBuffer().get(values);
+		return BlockCodec.encodeDoubles(values, n, stride);
+	}
+
+	private static byte [] waitFor(Future<byte []> f) throws IOException
+	{
+		try
+		{
+			return f.get();
+		}
+		catch (InterruptedException ex)
+		{
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while compressing");
+		}
+		catch (ExecutionException ex)
+		{
+			throw new IOException("Compression failed: "+ex.getCause());
+		}
+	}
+
+	private void writeBlock(byte [] block) throws IOException
+	{
+		offsets.add(position);
+		out.write(block);
+		position += block.length;
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		if (closed)
+			return;
+		closed = true;
+		flushBlock();
+		while (!pending.isEmpty())
+			writeBlock(waitFor(pending.removeFirst()));
+		long indexOffset = position;
+		for (int i = 0; i < offsets.size(); i++)
+			out.writeLong(offsets.get(i));
+		out.writeLong(numberOfElements);
+		out.writeInt(offsets.size());
+		out.writeLong(indexOffset);
+		out.writeInt(BlockCodec.MAGIC);
+		out.close();
+	}
+}
@@ -20,8 +20,6 @@
 
 package org.jcae.mesh.xmldata;
 
-import gnu.trove.TObjectIntHashMap;
-import gnu.trove.TObjectIntIterator;
 import java.io.*;
 import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.xpath.XPath;
@@ -31,6 +29,7 @@ import javax.xml.xpath.XPathFactory;
 import java.util.logging.Logger;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
 import org.xml.sax.SAXException;
 
 /**
@@ -43,51 +42,6 @@ public class ComputeEdgesConnectivity
 {
 	private static final Logger logger=Logger.getLogger(ComputeEdgesConnectivity.class.getName());
 	
-	private static class Edge
-	{
-		private final int n1;
-		private final int n2;
-		
-		Edge(int n1, int n2)
-		{
-			this.n1=n1;
-			this.n2=n2;		
-		}
-		
-		final int getN1()
-		{
-			return n1;
-		}
-		
-		final int getN2()
-		{
-			return n2;
-		}
-		
-		@Override
-		public final boolean equals(Object object)
-		{
-			if(object instanceof Edge)
-			{
-				Edge e=(Edge)object;
-				return ((e.n1==n1)&&(e.n2==n2))||((e.n1==n2)&&(e.n2==n1));
-			}
-			return false;
-		}
-		
-		@Override
-		public final int hashCode()
-		{
-			return n1+n2;
-		}
-		
-		@Override
-		public final String toString()
-		{
-			return "Edge["+n1+","+n2+"]";
-		}
-	}
-	
 	private final File xmlDir;
 	private final File xmlFile;
 	private int numberOfTriangles;
@@ -101,6 +55,32 @@ public class ComputeEdgesConnectivity
 		xmlDir = new File(dir);
 	}
 	
+	/**
+	 * Tells whether free and multiple edges have already been computed
+	 * and are more recent than triangles, so that {@link #compute} does not
+	 * need to be called again.
+	 */
+	public boolean isUpToDate() throws XPathExpressionException, ParserConfigurationException,
+		SAXException, IOException
+	{
+		XPath xpath=XPathFactory.newInstance().newXPath();
+		Document doc=XMLHelper.parseXML(xmlFile);
+		String trianglesFileName=(String) xpath.evaluate(
+			"/jcae/mesh/submesh/triangles/file/@location", doc, XPathConstants.STRING);
+		File trianglesFile=new File(xmlDir, trianglesFileName);
+		File subDir=trianglesFile.getParentFile();
+		File freeEdgesFile=new File(subDir, "freeEdges.bin");
+		File multiEdgesFile=new File(subDir, "multiEdges.bin");
+		if(!freeEdgesFile.exists() || !multiEdgesFile.exists() ||
+			freeEdgesFile.lastModified() < trianglesFile.lastModified() ||
+			multiEdgesFile.lastModified() < trianglesFile.lastModified())
+			return false;
+		NodeList results=(NodeList)xpath.evaluate(
+			"/jcae/mesh/submesh[flag/@value='FreeEdges' or flag/@value='MultiEdges']",
+			doc, XPathConstants.NODESET);
+		return results.getLength() == 2;
+	}
+
 	public void compute() throws XPathExpressionException, ParserConfigurationException,
 		SAXException, IOException
 	{
@@ -120,55 +100,33 @@ public class ComputeEdgesConnectivity
 		File freeEdgesFile=new File(subDir, "freeEdges.bin");
 		File multiEdgesFile=new File(subDir, "multiEdges.bin");
 		
-		TObjectIntHashMap<Edge> edges=new TObjectIntHashMap<Edge>();
-		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(trianglesFile)));
-		Edge e1, e2, e3;
-		int n1, n2, n3;
-		for(int i=0; i<numberOfTriangles; i++)
+		final DataOutputStream outFree=new DataOutputStream(new BufferedOutputStream(new FileOutputStream(freeEdgesFile)));
+		final DataOutputStream outMulti=new DataOutputStream(new BufferedOutputStream(new FileOutputStream(multiEdgesFile)));
+		IntFileReader in = new PrimitiveFileReaderFactory().getIntReader(trianglesFile);
+		numberOfFreeEdges = 0;
+		numberOfMultiEdges = 0;
+		new EdgeCounter().count(in, numberOfTriangles, new EdgeCounter.EdgeProcedure()
 		{
-			n1=in.readInt();
-			n2=in.readInt();
-			n3=in.readInt();
-			if(n1 < 0 || n2 < 0 || n3 < 0)
-				continue;
-			e1=new Edge(n1,n2);
-			e2=new Edge(n2,n3);
-			e3=new Edge(n3,n1);
-			edges.put(e1, edges.get(e1)+1);
-			edges.put(e2, edges.get(e2)+1);
-			edges.put(e3, edges.get(e3)+1);
-		}
-		logger.fine("Number of imported edges: "+edges.size());		
-		
-		in.close();
-		
-		TObjectIntIterator<Edge> it=edges.iterator();		
-		DataOutputStream outFree=new DataOutputStream(new BufferedOutputStream(new FileOutputStream(freeEdgesFile)));
-		DataOutputStream outMulti=new DataOutputStream(new BufferedOutputStream(new FileOutputStream(multiEdgesFile)));
-		DataOutputStream current;
-		
-		while(it.hasNext())
-		{					
-			it.advance();			
-			if( it.value() < 2 )
+			public void execute(int n1, int n2, int count) throws IOException
 			{
-				current=outFree;
-				numberOfFreeEdges++;
+				DataOutputStream current;
+				if( count < 2 )
+				{
+					current=outFree;
+					numberOfFreeEdges++;
+				}
+				else if( count > 2 )
+				{
+					current=outMulti;
+					numberOfMultiEdges++;
+				}
+				else
+					return;
+				current.writeInt(n1);
+				current.writeInt(n2);
 			}
-			else if( it.value() > 2 )
-			{	
-				current=outMulti;
-				numberOfMultiEdges++;
-			}
-			else current=null;
-			
-			if(current!=null)
-			{
-				Edge e=it.key();
-				current.writeInt(e.getN1());
-				current.writeInt(e.getN2());
-			}					
-		}
+		});
+		in.close();
 		
 		logger.info("Number of free edges: "+numberOfFreeEdges);
 		logger.info("Number of multiple edges: "+numberOfMultiEdges);
@@ -181,6 +139,13 @@ public class ComputeEdgesConnectivity
 		
 		Element meshElement=(Element)xpath.evaluate(
 			"/jcae/mesh", document, XPathConstants.NODE);
+
+		// Remove results of a previous run
+		NodeList oldResults=(NodeList)xpath.evaluate(
+			"/jcae/mesh/submesh[flag/@value='FreeEdges' or flag/@value='MultiEdges']",
+			document, XPathConstants.NODESET);
+		for(int i=0; i<oldResults.getLength(); i++)
+			meshElement.removeChild(oldResults.item(i));
 		
 		Element freeMeshElement=XMLHelper.parseXMLString(document,
 			"<submesh><flag value=\"FreeEdges\"/></submesh>");
@@ -92,7 +92,7 @@ public class DoubleFileReaderByDirectBuffer implements DoubleFileReader
 		int relIndex = index - startBufferIndex;
 		if (relIndex < 0 || relIndex >= tb.limit())
 		{
-			moveBufferTo(index * ELEMENT_SIZE);
+			moveBufferTo((long) index * ELEMENT_SIZE);
 			if (remaining < 0)
 				throw new IndexOutOfBoundsException();
 			relIndex = index - startBufferIndex;
@@ -154,7 +154,7 @@ public class DoubleFileReaderByDirectBuffer implements DoubleFileReader
 		int relIndex = index - startBufferIndex;
 		if (relIndex < 0 || relIndex >= tb.limit())
 		{
-			moveBufferTo(index * ELEMENT_SIZE);
+			moveBufferTo((long) index * ELEMENT_SIZE);
 			if (remaining < 0)
 				throw new IndexOutOfBoundsException();
 			relIndex = index - startBufferIndex;
@@ -0,0 +1,180 @@
+/*
+ * Project Info:  http://jcae.sourceforge.net
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307, USA.
+ *
+ * (C) Copyright 2012, by EADS France
+ */
+
+package org.jcae.mesh.xmldata;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.DoubleBuffer;
+
+/**
+ * Memory-mapped reader for files larger than 2 GB.  The file is mapped
+ * by segments, see {@link MappedSegments}, and indices are
+ * <code>long</code>.  Methods with <code>int</code> indices of
+ * {@link DoubleFileReader} are also provided.
+ */
+public class DoubleFileReaderBySegmentedMmap implements DoubleFileReader
+{
+	private static final int ELEMENT_SHIFT = 3;
+
+	private final MappedSegments segments;
+	private final long numberOfElements;
+	private final int elementShift;
+	private final int elementMask;
+	private DoubleBuffer current;
+	private int currentSegment = -1;
+	private long position;
+
+	public DoubleFileReaderBySegmentedMmap(File file) throws IOException
+	{
+		this(file, MappedSegments.DEFAULT_SHIFT, MappedSegments.DEFAULT_MAX_MAPPED);
+	}
+
+	/**
+	 * @param segmentShift  segments contain <code>2^segmentShift</code> bytes
+	 * @param maxMapped  maximal number of segments mapped at the same time
+	 */
+	DoubleFileReaderBySegmentedMmap(File file, int segmentShift, int maxMapped) throws IOException
+	{
+		segments = new MappedSegments(file, segmentShift, maxMapped);
+		numberOfElements = segments.length() >> ELEMENT_SHIFT;
+		elementShift = segmentShift - ELEMENT_SHIFT;
+		elementMask = (1 << elementShift) - 1;
+	}
+
+	public long size()
+	{
+		return numberOfElements;
+	}
+
+	private void select(int s) throws IOException
+	{
+		current = segments.segment(s).asDoubleBuffer();
+		currentSegment = s;
+	}
+
+	public double get() throws IOException
+	{
+		if (position >= numberOfElements)
+			throw new BufferUnderflowException();
+		double ret = get(position);
+		position++;
+		return ret;
+	}
+
+	public double get(int index) throws IOException
+	{
+		return get((long) index);
+	}
+
+	/**
+	 * Absolute get method.  Return the double found at this position.
+	 *
+	 * @param index  the index from which value is read
+	 * @return the double found at this position
+	 * @throws java.io.IOException  If some other I/O error occurs
+	 */
+	public double get(long index) throws IOException
+	{
+		int s = (int) (index >>> elementShift);
+		if (s != currentSegment)
+			select(s);
+		return current.get((int) index & elementMask);
+	}
+
+	public int get(double [] dst) throws IOException
+	{
+		return get(dst, 0, dst.length);
+	}
+
+	public final int get(double[] dst, int offset, int len) throws IOException
+	{
+		return get(position, dst, offset, len);
+	}
+
+	public int get(int index, double [] dst) throws IOException
+	{
+		return get((long) index, dst, 0, dst.length);
+	}
+
+	public final int get(int index, double[] dst, int offset, int len) throws IOException
+	{
+		return get((long) index, dst, offset, len);
+	}
+
+	/**
+	 * Absolute bulk get method.  Read values and copy them into an
+	 * existing array, values may span several segments.  Buffer position
+	 * is set after the last read value.
+	 *
+	 * @param index  the index from which values are read
+	 * @param dst destination array
+	 * @param offset  offset within dst
+	 * @param len   maximal number of doubles to read
+	 * @return the number of doubles written into dst
+	 * @throws java.io.IOException  If some other I/O error occurs
+	 */
+	public final int get(long index, double[] dst, int offset, int len) throws IOException
+	{
+		if (index + len > numberOfElements)
+			len = (int) Math.max(0L, numberOfElements - index);
+		int ret = 0;
+		while (ret < len)
+		{
+			int s = (int) (index >>> elementShift);
+			if (s != currentSegment)
+				select(s);
+			int start = (int) index & elementMask;
+			int nr = Math.min(len - ret, current.limit() - start);
+			current.position(start);
+			current.get(dst, offset + ret, nr);
+			ret += nr;
+			index += nr;
+		}
+		position = index;
+		return ret;
+	}
+
+	/**
+	 * Hint that values in <code>[index, index+len[</code> will be read
+	 * soon, see {@link MappedSegments#prefetch}.
+	 */
+	public void prefetch(long index, long len) throws IOException
+	{
+		segments.prefetch(index << ELEMENT_SHIFT, len << ELEMENT_SHIFT);
+		// Current segment may have been unmapped
+		current = null;
+		currentSegment = -1;
+	}
+
+	public boolean isEOF()
+	{
+		return position >= numberOfElements;
+	}
+
+	/** Close file and unmap all segments. */
+	public void close()
+	{
+		current = null;
+		currentSegment = -1;
+		segments.close();
+	}
+}
@@ -0,0 +1,500 @@
+/*
+ * Project Info:  http://jcae.sourceforge.net
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307, USA.
+ *
+ * (C) Copyright 2012, by EADS France
+ */
+
+package org.jcae.mesh.xmldata;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
+
+/**
+ * Count how many triangles share each edge of a triangle soup.
+ *
+ * <p>
+ * An edge is packed into a <code>long</code> key made of its two node
+ * indices, smaller index first.  Keys are stored in open addressing
+ * hash tables, without any object allocation.  Tables are partitioned
+ * by key hash.  Triangles are split into ranges, edges of each range
+ * are hashed and grouped by partition concurrently, and each partition
+ * is then filled by its own thread, so that each edge is hashed once
+ * and counting is parallel without synchronization.  When the estimated
+ * size of tables exceeds the memory budget, keys are sorted by
+ * {@link ExternalSort} instead and counted while merging.
+ * </p>
+ *
+ * <p>
+ * Counts are saturated at 255, which is enough to detect free edges
+ * (count 1) and multiple edges (count greater than 2).
+ * </p>
+ */
+public class EdgeCounter
+{
+	private static final Logger LOGGER=Logger.getLogger(EdgeCounter.class.getName());
+	private static final long EMPTY = -1L;
+	private static final int CHUNK_SIZE = 1 << 18;
+	// Estimated number of edges per triangle
+	private static final double EDGES_PER_TRIANGLE = 1.6;
+	// Bytes per slot: key and count
+	private static final int SLOT_SIZE = 9;
+
+	/** Called for each distinct edge. */
+	public interface EdgeProcedure
+	{
+		/**
+		 * @param n1  smaller node index
+		 * @param n2  larger node index
+		 * @param count  number of triangles containing this edge, saturated at 255
+		 */
+		void execute(int n1, int n2, int count) throws IOException;
+	}
+
+	private int numberOfThreads = Runtime.getRuntime().availableProcessors();
+	private long maxMemory = -1L;
+	private File tmpDir;
+	private boolean external;
+
+	/** Packs an edge into a <code>long</code>. */
+	public static long key(int n1, int n2)
+	{
+		if (n1 > n2)
+		{
+			int t = n1;
+			n1 = n2;
+			n2 = t;
+		}
+		return ((long) n1 << 32) | (n2 & 0xffffffffL);
+	}
+
+	public void setNumberOfThreads(int n)
+	{
+		numberOfThreads = Math.max(1, n);
+	}
+
+	/**
+	 * Sets memory budget of hash tables.  By default, half of the
+	 * free heap is used.
+	 */
+	public void setMaxMemory(long bytes)
+	{
+		maxMemory = bytes;
+	}
+
+	/** Sets directory of temporary files used by external sort. */
+	public void setTemporaryDirectory(File dir)
+	{
+		tmpDir = dir;
+	}
+
+	/**
+	 * Tells whether last call to {@link #count} used external sort.
+	 */
+	public boolean isExternal()
+	{
+		return external;
+	}
+
+	private long memoryBudget()
+	{
+		if (maxMemory >= 0L)
+			return maxMemory;
+		Runtime rt = Runtime.getRuntime();
+		long used = rt.totalMemory() - rt.freeMemory();
+		return (rt.maxMemory() - used) / 2;
+	}
+
+	private static long hash(long key)
+	{
+		// Finalizer of MurmurHash3
+		key ^= key >>> 33;
+		key *= 0xff51afd7ed558ccdL;
+		key ^= key >>> 33;
+		key *= 0xc4ceb9fe1a85ec53L;
+		key ^= key >>> 33;
+		return key;
+	}
+
+	/**
+	 * Open addressing hash table with linear probing.
+	 */
+	private static final class Table
+	{
+		private long [] keys;
+		private byte [] counts;
+		private int mask;
+		private int size;
+
+		Table(int expected)
+		{
+			int capacity = 16;
+			while (capacity < expected + expected / 3 && capacity < (1 << 30))
+				capacity <<= 1;
+			allocate(capacity);
+		}
+
+		private void allocate(int capacity)
+		{
+			keys = new long[capacity];
+			Arrays.fill(keys, EMPTY);
+			counts = new byte[capacity];
+			mask = capacity - 1;
+			size = 0;
+		}
+
+		void add(long key, long h)
+		{
+			int i = (int) h & mask;
+			while (true)
+			{
+				long k = keys[i];
+				if (k == key)
+				{
+					if (counts[i] != (byte) 255)
+						counts[i]++;
+					return;
+				}
+				if (k == EMPTY)
+					break;
+				i = (i + 1) & mask;
+			}
+			keys[i] = key;
+			counts[i] = 1;
+			size++;
+			if (size > (mask >> 1) + (mask >> 2))
+				rehash();
+		}
+
+		private void rehash()
+		{
+			long [] oldKeys = keys;
+			byte [] oldCounts = counts;
+			allocate(2 * oldKeys.length);
+			for (int j = 0; j < oldKeys.length; j++)
+			{
+				long key = oldKeys[j];
+				if (key == EMPTY)
+					continue;
+				int i = (int) hash(key) & mask;
+				while (keys[i] != EMPTY)
+					i = (i + 1) & mask;
+				keys[i] = key;
+				counts[i] = oldCounts[j];
+				size++;
+			}
+		}
+
+		void visit(EdgeProcedure proc) throws IOException
+		{
+			for (int i = 0; i < keys.length; i++)
+			{
+				long key = keys[i];
+				if (key != EMPTY)
+					proc.execute((int) (key >>> 32), (int) key, counts[i] & 0xff);
+			}
+		}
+	}
+
+	/**
+	 * Edges of a range of triangles, grouped by partition.
+	 */
+	private static final class Scatter
+	{
+		private final int nrParts;
+		// Edges in triangle order
+		private final long [] tmpKeys;
+		private final long [] tmpHashes;
+		private final int [] parts;
+		// Edges of partition p are stored in [start[p], start[p+1][
+		private final long [] keys;
+		private final long [] hashes;
+		private final int [] start;
+		private final int [] next;
+
+		Scatter(int maxTriangles, int nrParts)
+		{
+			this.nrParts = nrParts;
+			tmpKeys = new long[3 * maxTriangles];
+			tmpHashes = new long[3 * maxTriangles];
+			parts = new int[3 * maxTriangles];
+			keys = new long[3 * maxTriangles];
+			hashes = new long[3 * maxTriangles];
+			start = new int[nrParts + 1];
+			next = new int[nrParts];
+		}
+
+		// Hashes edges of triangles [from, to[ of buffer
+		void fill(int [] buffer, int from, int to)
+		{
+			Arrays.fill(start, 0);
+			int n = 0;
+			for (int i = 3 * from; i < 3 * to; i += 3)
+			{
+				int n1 = buffer[i];
+				int n2 = buffer[i+1];
+				int n3 = buffer[i+2];
+				if (n1 < 0 || n2 < 0 || n3 < 0)
+					continue;
+				n = put(key(n1, n2), n);
+				n = put(key(n2, n3), n);
+				n = put(key(n3, n1), n);
+			}
+			for (int p = 0; p < nrParts; p++)
+			{
+				start[p + 1] += start[p];
+				next[p] = start[p];
+			}
+			for (int i = 0; i < n; i++)
+			{
+				int j = next[parts[i]]++;
+				keys[j] = tmpKeys[i];
+				hashes[j] = tmpHashes[i];
+			}
+		}
+
+		private int put(long key, int n)
+		{
+			long h = hash(key);
+			int p = partition(h, nrParts);
+			tmpKeys[n] = key;
+			tmpHashes[n] = h;
+			parts[n] = p;
+			start[p + 1]++;
+			return n + 1;
+		}
+
+		// Adds edges of partition part into its table
+		void addTo(Table table, int part)
+		{
+			for (int i = start[part]; i < start[part + 1]; i++)
+				table.add(keys[i], hashes[i]);
+		}
+	}
+
+	private static int partition(long h, int nrParts)
+	{
+		return (int) ((h >>> 40) % nrParts);
+	}
+
+	/**
+	 * Counts edges of triangles, and calls <code>proc</code> for each
+	 * distinct edge.  Triangles containing a negative index are outer
+	 * triangles and are skipped.
+	 *
+	 * @param triangles  reader of triangle indices, positioned on first triangle
+	 * @param numberOfTriangles  number of triangles to read
+	 * @param proc  procedure called for each edge, in no particular order
+	 */
+	public void count(IntFileReader triangles, int numberOfTriangles, EdgeProcedure proc)
+		throws IOException
+	{
+		long estimate = (long) (EDGES_PER_TRIANGLE * numberOfTriangles * SLOT_SIZE * 4 / 3);
+		external = estimate > memoryBudget();
+		if (external)
+		{
+			LOGGER.info("Edges do not fit in memory, use external sort");
+			countExternal(triangles, numberOfTriangles, proc);
+		}
+		else
+			countInMemory(triangles, numberOfTriangles, proc);
+	}
+
+	private void countInMemory(IntFileReader triangles, int numberOfTriangles, final EdgeProcedure proc)
+		throws IOException
+	{
+		final int nrParts = numberOfThreads;
+		final Table [] tables = new Table[nrParts];
+		int expected = (int) Math.min(1 << 29, (long) (EDGES_PER_TRIANGLE * numberOfTriangles / nrParts));
+		for (int p = 0; p < nrParts; p++)
+			tables[p] = new Table(expected);
+		final int [] buffer = new int[3 * Math.min(CHUNK_SIZE, Math.max(1, numberOfTriangles))];
+		ExecutorService executor = nrParts > 1 ? Executors.newFixedThreadPool(nrParts) : null;
+		final Scatter [] scatters = new Scatter[nrParts];
+		if (executor != null)
+		{
+			int maxTriangles = (buffer.length / 3 + nrParts - 1) / nrParts;
+			for (int t = 0; t < nrParts; t++)
+				scatters[t] = new Scatter(maxTriangles, nrParts);
+		}
+		try
+		{
+			int remaining = numberOfTriangles;
+			while (remaining > 0)
+			{
+				final int nr = Math.min(remaining, buffer.length / 3);
+				if (triangles.get(buffer, 0, 3 * nr) != 3 * nr)
+					throw new IOException("Unexpected end of file");
+				remaining -= nr;
+				if (executor == null)
+				{
+					addChunk(buffer, nr, tables[0]);
+					continue;
+				}
+				// Each thread hashes its own range of triangles
+				List<Callable<Object>> tasks = new ArrayList<Callable<Object>>(nrParts);
+				for (int t = 0; t < nrParts; t++)
+				{
+					final Scatter scatter = scatters[t];
+					final int from = (int) ((long) nr * t / nrParts);
+					final int to = (int) ((long) nr * (t + 1) / nrParts);
+					tasks.add(new Callable<Object>()
+					{
+						public Object call()
+						{
+							scatter.fill(buffer, from, to);
+							return null;
+						}
+					});
+				}
+				waitFor(executor.invokeAll(tasks));
+				// and then fills its own partition with edges of all ranges
+				tasks.clear();
+				for (int p = 0; p < nrParts; p++)
+				{
+					final int part = p;
+					tasks.add(new Callable<Object>()
+					{
+						public Object call()
+						{
+							for (Scatter scatter : scatters)
+								scatter.addTo(tables[part], part);
+							return null;
+						}
+					});
+				}
+				waitFor(executor.invokeAll(tasks));
+			}
+		}
+		catch (InterruptedException ex)
+		{
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while counting edges");
+		}
+		finally
+		{
+			if (executor != null)
+				executor.shutdown();
+		}
+		for (int p = 0; p < nrParts; p++)
+		{
+			tables[p].visit(proc);
+			tables[p] = null;
+		}
+	}
+
+	private static void waitFor(List<Future<Object>> futures) throws IOException, InterruptedException
+	{
+		for (Future<Object> f: futures)
+		{
+			try
+			{
+				f.get();
+			}
+			catch (ExecutionException ex)
+			{
+				if (ex.getCause() instanceof RuntimeException)
+					throw (RuntimeException) ex.getCause();
+				if (ex.getCause() instanceof Error)
+					throw (Error) ex.getCause();
+				throw new IOException(ex.getCause().toString());
+			}
+		}
+	}
+
+	// Adds edges of triangles into a single table.
+	private static void addChunk(int [] buffer, int nr, Table table)
+	{
+		for (int i = 0; i < 3 * nr; i += 3)
+		{
+			int n1 = buffer[i];
+			int n2 = buffer[i+1];
+			int n3 = buffer[i+2];
+			if (n1 < 0 || n2 < 0 || n3 < 0)
+				continue;
+			add(table, key(n1, n2));
+			add(table, key(n2, n3));
+			add(table, key(n3, n1));
+		}
+	}
+
+	private static void add(Table table, long key)
+	{
+		table.add(key, hash(key));
+	}
+
+	private void countExternal(IntFileReader triangles, int numberOfTriangles, EdgeProcedure proc)
+		throws IOException
+	{
+		int maxRecords = (int) Math.max(1 << 16, Math.min(1 << 26, memoryBudget() / 32));
+		ExternalSort sorter = new ExternalSort(8, maxRecords, tmpDir);
+		try
+		{
+			int [] buffer = new int[3 * Math.min(CHUNK_SIZE, Math.max(1, numberOfTriangles))];
+			int remaining = numberOfTriangles;
+			while (remaining > 0)
+			{
+				int nr = Math.min(remaining, buffer.length / 3);
+				if (triangles.get(buffer, 0, 3 * nr) != 3 * nr)
+					throw new IOException("Unexpected end of file");
+				remaining -= nr;
+				for (int i = 0; i < 3 * nr; i += 3)
+				{
+					int n1 = buffer[i];
+					int n2 = buffer[i+1];
+					int n3 = buffer[i+2];
+					if (n1 < 0 || n2 < 0 || n3 < 0)
+						continue;
+					sorter.add(key(n1, n2));
+					sorter.add(key(n2, n3));
+					sorter.add(key(n3, n1));
+				}
+			}
+			long current = EMPTY;
+			int cnt = 0;
+			for (ByteBuffer r = sorter.next(); r != null; r = sorter.next())
+			{
+				long key = r.getLong();
+				if (key == current)
+				{
+					if (cnt < 255)
+						cnt++;
+					continue;
+				}
+				if (current != EMPTY)
+					proc.execute((int) (current >>> 32), (int) current, cnt);
+				current = key;
+				cnt = 1;
+			}
+			if (current != EMPTY)
+				proc.execute((int) (current >>> 32), (int) current, cnt);
+		}
+		finally
+		{
+			sorter.close();
+		}
+	}
+}
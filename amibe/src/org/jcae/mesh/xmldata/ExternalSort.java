@@ -0,0 +1,314 @@
+/*
+ * Project Info:  http://jcae.sourceforge.net
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307, USA.
+ *
+ * (C) Copyright 2012, by EADS France
+ */
+
+package org.jcae.mesh.xmldata;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+import org.jcae.mesh.amibe.util.SpaceFillingCurve;
+
+/**
+ * Sort fixed-size binary records by a <code>long</code> key, with bounded
+ * memory.  Records are accumulated in memory; when the buffer is full,
+ * it is sorted and written into a temporary run file.  Runs are then
+ * merged when records are read back.  If all records fit in memory,
+ * no temporary file is created.  Sort is stable.  The buffer starts
+ * small and grows up to <code>maxRecordsInMemory</code> records, so
+ * that small sets of records do not allocate the whole buffer.
+ *
+ * <p>
+ * Each record starts with its key, which is followed by
+ * <code>recordSize-8</code> bytes of user data:
+ * </p>
+ * <pre>
+ *   ExternalSort sorter = new ExternalSort(20, 1 &lt;&lt; 20, tmpDir);
+ *   for (...)
+ *     sorter.add(key).putInt(i).putDouble(x);
+ *   sorter.sort();
+ *   for (ByteBuffer r = sorter.next(); r != null; r = sorter.next())
+ *   {
+ *     long key = r.getLong();
+ *     int i = r.getInt();
+ *     double x = r.getDouble();
+ *   }
+ *   sorter.close();
+ * </pre>
+ */
+public class ExternalSort
+{
+	private static final int READ_BUFFER_SIZE = 1 << 20;
+	private static final int INITIAL_CAPACITY = 1 << 10;
+	private final int recordSize;
+	private final int capacity;
+	private final File tmpDir;
+	private ByteBuffer memory;
+	private long [] keys;
+	private int count;
+	private long size;
+	private final List<File> runs = new ArrayList<File>();
+
+	// Reading state
+	private boolean sorted;
+	private int [] perm;
+	private int cursor;
+	private PriorityQueue<Run> queue;
+	private final ByteBuffer current;
+
+	private static class Run implements Comparable<Run>
+	{
+		private final FileChannel channel;
+		private final ByteBuffer buffer;
+		private final int index;
+		private final int recordSize;
+		private long head;
+
+		Run(File f, int index, int recordSize) throws IOException
+		{
+			channel = new FileInputStream(f).getChannel();
+			this.index = index;
+			this.recordSize = recordSize;
+			int size = Math.max(recordSize, (READ_BUFFER_SIZE / recordSize) * recordSize);
+			buffer = ByteBuffer.allocateDirect(size);
+			buffer.limit(0);
+		}
+
+		// Returns false when run is exhausted.
+		boolean advance() throws IOException
+		{
+			if (buffer.remaining() < recordSize)
+			{
+				buffer.compact();
+				while (buffer.position() < recordSize)
+				{
+					if (channel.read(buffer) < 0)
+						break;
+				}
+				buffer.flip();
+				if (buffer.remaining() < recordSize)
+					return false;
+			}
+			head = buffer.getLong(buffer.position());
+			return true;
+		}
+
+		void copyTo(ByteBuffer dst)
+		{
+			int limit = buffer.limit();
+			buffer.limit(buffer.position() + recordSize);
+			dst.put(buffer);
+			buffer.limit(limit);
+		}
+
+		void close()
+		{
+			try
+			{
+				channel.close();
+			}
+			catch (IOException ex) { /* Do not care */ }
+		}
+
+		public int compareTo(Run that)
+		{
+			if (head < that.head)
+				return -1;
+			if (head > that.head)
+				return 1;
+			return index - that.index;
+		}
+	}
+
+	/**
+	 * Creates a new sorter.
+	 *
+	 * @param recordSize  size of records in bytes, including the 8 bytes of the key
+	 * @param maxRecordsInMemory  maximal number of records kept in memory
+	 * @param tmpDir  directory where temporary files are written, or
+	 *   <code>null</code> for the default temporary directory
+	 */
+	public ExternalSort(int recordSize, int maxRecordsInMemory, File tmpDir)
+	{
+		if (recordSize < 8)
+			throw new IllegalArgumentException("Record size must be at least 8 bytes");
+		this.recordSize = recordSize;
+		this.capacity = Math.max(1, Math.min(maxRecordsInMemory, Integer.MAX_VALUE / recordSize));
+		this.tmpDir = tmpDir;
+		int initial = Math.min(capacity, INITIAL_CAPACITY);
+		memory = ByteBuffer.allocate(initial * recordSize);
+		keys = new long[initial];
+		current = ByteBuffer.allocate(recordSize);
+	}
+
+	/**
+	 * Appends a record.  The key is written, and returned buffer is
+	 * positioned so that caller writes the <code>recordSize-8</code>
+	 * remaining bytes.
+	 *
+	 * @param key  record key
+	 * @return buffer in which record data must be written
+	 */
+	public ByteBuffer add(long key) throws IOException
+	{
+		if (sorted)
+			throw new IllegalStateException("Records cannot be added after sort() has been called");
+		if (count == capacity)
+			flushRun();
+		else if (count == keys.length)
+			grow();
+		memory.limit(memory.capacity());
+		memory.position(count * recordSize);
+		memory.putLong(key);
+		keys[count] = key;
+		count++;
+		size++;
+		return memory;
+	}
+
+	/**
+	 * Returns the number of records.
+	 */
+	public long size()
+	{
+		return size;
+	}
+
+	private void grow()
+	{
+		int newCapacity = (int) Math.min(capacity, 2L * keys.length);
+		ByteBuffer newMemory = ByteBuffer.allocate(newCapacity * recordSize);
+		System.arraycopy(memory.array(), 0, newMemory.array(), 0, count * recordSize);
+		memory = newMemory;
+		long [] newKeys = new long[newCapacity];
+		System.arraycopy(keys, 0, newKeys, 0, count);
+		keys = newKeys;
+	}
+
+	private void flushRun() throws IOException
+	{
+		int [] p = SpaceFillingCurve.sortedPermutation(keys, count);
+		File f = File.createTempFile("jcae", ".sort", tmpDir);
+		f.deleteOnExit();
+		FileChannel fc = new FileOutputStream(f).getChannel();
+		ByteBuffer out = ByteBuffer.allocateDirect(Math.max(recordSize, (READ_BUFFER_SIZE / recordSize) * recordSize));
+		byte [] array = memory.array();
+		for (int i = 0; i < count; i++)
+		{
+			if (out.remaining() < recordSize)
+			{
+				out.flip();
+				while (out.hasRemaining())
+					fc.write(out);
+				out.clear();
+			}
+			out.put(array, p[i] * recordSize, recordSize);
+		}
+		out.flip();
+		while (out.hasRemaining())
+			fc.write(out);
+		fc.close();
+		runs.add(f);
+		count = 0;
+	}
+
+	/**
+	 * Sorts records.  After this call, records can be read back
+	 * with {@link #next}.
+	 */
+	public void sort() throws IOException
+	{
+		if (sorted)
+			return;
+		sorted = true;
+		if (runs.isEmpty())
+		{
+			perm = SpaceFillingCurve.sortedPermutation(keys, count);
+			cursor = 0;
+			return;
+		}
+		if (count > 0)
+			flushRun();
+		queue = new PriorityQueue<Run>(runs.size());
+		for (int i = 0; i < runs.size(); i++)
+		{
+			Run r = new Run(runs.get(i), i, recordSize);
+			if (r.advance())
+				queue.add(r);
+			else
+				r.close();
+		}
+	}
+
+	/**
+	 * Returns next record in key order.
+	 *
+	 * @return a buffer containing next record, including its key, or
+	 *   <code>null</code> when all records have been read.  This buffer is
+	 *   overwritten by next call.
+	 */
+	public ByteBuffer next() throws IOException
+	{
+		if (!sorted)
+			sort();
+		current.clear();
+		if (queue == null)
+		{
+			if (cursor >= count)
+				return null;
+			current.put(memory.array(), perm[cursor] * recordSize, recordSize);
+			cursor++;
+		}
+		else
+		{
+			Run r = queue.poll();
+			if (r == null)
+				return null;
+			r.copyTo(current);
+			if (r.advance())
+				queue.add(r);
+			else
+				r.close();
+		}
+		current.flip();
+		return current;
+	}
+
+	/**
+	 * Releases resources and deletes temporary files.
+	 */
+	public void close()
+	{
+		if (queue != null)
+		{
+			for (Run r: queue)
+				r.close();
+			queue.clear();
+		}
+		for (File f: runs)
+			f.delete();
+		runs.clear();
+	}
+}
@@ -0,0 +1,344 @@
+/*
+ * Project Info:  http://jcae.sourceforge.net
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307, USA.
+ *
+ * (C) Copyright 2012, by EADS France
+ */
+
+package org.jcae.mesh.xmldata;
+
+import gnu.trove.TIntArrayList;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Read items at arbitrary indices of a binary file of integers or doubles.
+ *
+ * <p>
+ * Each item is made of <code>width</code> consecutive values, for instance
+ * the 3 coordinates of a node or the 3 vertices of a triangle.  Requested
+ * indices are sorted, and neighbouring ones are coalesced into runs which
+ * are read by large positional reads.  Runs are shared between several
+ * threads, which copy values into the destination array in the order of
+ * requested indices.  The same index may be requested several times.
+ * </p>
+ *
+ * <p>
+ * Compressed files written by {@link CompressedOutputStream} are read
+ * through {@link CompressedFileReader} in sorted order and in a single
+ * thread, blocks being decoded in the background.
+ * </p>
+ */
+public class FileGatherer
+{
+	// Two indices are in the same run if the gap between them is lower
+	// than this number of bytes.
+	private static final int MAX_GAP = 1 << 16;
+	private static final int MAX_RUN = 1 << 20;
+	// Do not use threads below this number of requested items
+	private static final int MIN_PARALLEL = 1 << 14;
+
+	private final File file;
+	private int numberOfThreads = Runtime.getRuntime().availableProcessors();
+
+	public FileGatherer(File file)
+	{
+		this.file = file;
+	}
+
+	public void setNumberOfThreads(int n)
+	{
+		numberOfThreads = Math.max(1, n);
+	}
+
+	/**
+	 * Copies values read at a given position into the destination array.
+	 */
+	private interface Sink
+	{
+		void copy(ByteBuffer src, int dstIndex, int width);
+	}
+
+	/**
+	 * Reads doubles.  Values of item <code>ids[from+i] + offset</code> are
+	 * copied into <code>dst[i*width]</code> to <code>dst[i*width+width-1]</code>.
+	 *
+	 * @param ids  item indices
+	 * @param from  index of the first requested item within <code>ids</code>
+	 * @param len  number of requested items
+	 * @param offset  offset added to all indices
+	 * @param width  number of values of each item
+	 * @param dst  destination array
+	 */
+	public void gather(int [] ids, int from, int len, int offset, int width, final double [] dst)
+		throws IOException
+	{
+		if (CompressedFileReader.isCompressed(file))
+		{
+			DoubleFileReaderCompressed reader = new DoubleFileReaderCompressed(file);
+			try
+			{
+				long [] keys = sortedKeys(ids, from, len);
+				reader.prefetch(sortedIds(keys), offset, width);
+				for (long key: keys)
+					reader.get(((int) (key >>> 32) + offset) * width, dst, (int) key * width, width);
+			}
+			finally
+			{
+				reader.close();
+			}
+			return;
+		}
+		gather(ids, from, len, offset, width, 8, new Sink()
+		{
+			public void copy(ByteBuffer src, int dstIndex, int width)
+			{
+				src.asDoubleBuffer().get(dst, dstIndex * width, width);
+			}
+		});
+	}
+
+	/**
+	 * Reads doubles and converts them into floats.
+	 *
+	 * @see #gather(int[], int, int, int, int, double[])
+	 */
+	public void gather(int [] ids, int from, int len, int offset, int width, final float [] dst)
+		throws IOException
+	{
+		if (CompressedFileReader.isCompressed(file))
+		{
+			double [] tmp = new double[len * width];
+			gather(ids, from, len, offset, width, tmp);
+			for (int i = 0; i < tmp.length; i++)
+				dst[i] = (float) tmp[i];
+			return;
+		}
+		gather(ids, from, len, offset, width, 8, new Sink()
+		{
+			public void copy(ByteBuffer src, int dstIndex, int width)
+			{
+				int pos = src.position();
+				for (int j = 0; j < width; j++)
+					dst[dstIndex * width + j] = (float) src.getDouble(pos + 8 * j);
+			}
+		});
+	}
+
+	/**
+	 * Reads integers.
+	 *
+	 * @see #gather(int[], int, int, int, int, double[])
+	 */
+	public void gather(int [] ids, int from, int len, int offset, int width, final int [] dst)
+		throws IOException
+	{
+		if (CompressedFileReader.isCompressed(file))
+		{
+			IntFileReaderCompressed reader = new IntFileReaderCompressed(file);
+			try
+			{
+				long [] keys = sortedKeys(ids, from, len);
+				reader.prefetch(sortedIds(keys), offset, width);
+				for (long key: keys)
+					reader.get(((int) (key >>> 32) + offset) * width, dst, (int) key * width, width);
+			}
+			finally
+			{
+				reader.close();
+			}
+			return;
+		}
+		gather(ids, from, len, offset, width, 4, new Sink()
+		{
+			public void copy(ByteBuffer src, int dstIndex, int width)
+			{
+				src.asIntBuffer().get(dst, dstIndex * width, width);
+			}
+		});
+	}
+
+	/**
+	 * Returns requested indices sorted in increasing order.  Each key
+	 * contains an index in its upper 32 bits and its position within
+	 * requested items in its lower 32 bits.
+	 */
+	private static long [] sortedKeys(int [] ids, int from, int len)
+	{
+		long [] keys = new long[len];
+		boolean sorted = true;
+		for (int i = 0; i < len; i++)
+		{
+			keys[i] = ((long) ids[from + i] << 32) | i;
+			if (i > 0 && keys[i] < keys[i-1])
+				sorted = false;
+		}
+		if (!sorted)
+			Arrays.sort(keys);
+		return keys;
+	}
+
+	private static int [] sortedIds(long [] keys)
+	{
+		int [] ret = new int[keys.length];
+		for (int i = 0; i < keys.length; i++)
+			ret[i] = (int) (keys[i] >>> 32);
+		return ret;
+	}
+
+	private void gather(int [] ids, int from, int len, long offset, final int width,
+		final int elementSize, final Sink sink) throws IOException
+	{
+		if (len == 0)
+			return;
+		final long [] keys = sortedKeys(ids, from, len);
+		final long itemSize = (long) width * elementSize;
+		final long base = offset * itemSize;
+		// Runs are stored as [start, end[ intervals of keys
+		final int [] runs = computeRuns(keys, itemSize);
+		final int nrRuns = runs.length - 1;
+		FileInputStream in = new FileInputStream(file);
+		final FileChannel fc = in.getChannel();
+		try
+		{
+			int nrThreads = len < MIN_PARALLEL ? 1 : Math.min(numberOfThreads, nrRuns);
+			if (nrThreads <= 1)
+			{
+				readRuns(fc, keys, runs, 0, nrRuns, base, itemSize, width, sink);
+				return;
+			}
+			ExecutorService executor = Executors.newFixedThreadPool(nrThreads);
+			try
+			{
+				List<Callable<Object>> tasks = new ArrayList<Callable<Object>>(nrThreads);
+				for (int t = 0; t < nrThreads; t++)
+				{
+					final int r0 = (int) ((long) nrRuns * t / nrThreads);
+					final int r1 = (int) ((long) nrRuns * (t + 1) / nrThreads);
+					tasks.add(new Callable<Object>()
+					{
+						public Object call() throws IOException
+						{
+							readRuns(fc, keys, runs, r0, r1, base, itemSize, width, sink);
+							return null;
+						}
+					});
+				}
+				waitFor(executor.invokeAll(tasks));
+			}
+			catch (InterruptedException ex)
+			{
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted while reading "+file);
+			}
+			finally
+			{
+				executor.shutdown();
+			}
+		}
+		finally
+		{
+			in.close();
+		}
+	}
+
+	/**
+	 * Splits sorted keys into runs.  Items of a run are close enough to
+	 * be read at once, and a run is at most MAX_RUN bytes long.
+	 */
+	private static int [] computeRuns(long [] keys, long itemSize)
+	{
+		TIntArrayList ret = new TIntArrayList();
+		ret.add(0);
+		long first = keys[0] >>> 32;
+		long last = first;
+		for (int i = 1; i < keys.length; i++)
+		{
+			long id = keys[i] >>> 32;
+			if ((id - last - 1) * itemSize > MAX_GAP || (id - first + 1) * itemSize > MAX_RUN)
+			{
+				ret.add(i);
+				first = id;
+			}
+			last = id;
+		}
+		ret.add(keys.length);
+		return ret.toNativeArray();
+	}
+
+	private static void readRuns(FileChannel fc, long [] keys, int [] runs, int r0, int r1,
+		long base, long itemSize, int width, Sink sink) throws IOException
+	{
+		ByteBuffer bb = null;
+		for (int r = r0; r < r1; r++)
+		{
+			int start = runs[r];
+			int end = runs[r+1];
+			long first = keys[start] >>> 32;
+			long last = keys[end-1] >>> 32;
+			int size = (int) ((last - first + 1) * itemSize);
+			if (bb == null || bb.capacity() < size)
+				bb = ByteBuffer.allocate(Math.max(size, (int) Math.min(MAX_RUN, 64 * itemSize)));
+			bb.clear();
+			bb.limit(size);
+			long position = base + first * itemSize;
+			while (bb.hasRemaining())
+			{
+				if (fc.read(bb, position + bb.position()) < 0)
+					throw new IOException("Unexpected end of file, item "+last+" requested");
+			}
+			for (int i = start; i < end; i++)
+			{
+				long key = keys[i];
+				bb.limit(size);
+				bb.position((int) (((key >>> 32) - first) * itemSize));
+				sink.copy(bb, (int) key, width);
+			}
+		}
+	}
+
+	private static void waitFor(List<Future<Object>> futures) throws IOException, InterruptedException
+	{
+		for (Future<Object> f: futures)
+		{
+			try
+			{
+				f.get();
+			}
+			catch (ExecutionException ex)
+			{
+				if (ex.getCause() instanceof IOException)
+					throw (IOException) ex.getCause();
+				if (ex.getCause() instanceof RuntimeException)
+					throw (RuntimeException) ex.getCause();
+				if (ex.getCause() instanceof Error)
+					throw (Error) ex.getCause();
+				throw new IOException(ex.getCause().toString());
+			}
+		}
+	}
+}
@@ -1,6 +1,6 @@
 /*
  * Project Info:  http://jcae.sourceforge.net
- * 
+ *
  * This program is free software; you can redistribute it and/or modify it under
  * the terms of the GNU Lesser General Public License as published by the Free
  * Software Foundation; either version 2.1 of the License, or (at your option)
@@ -22,6 +22,7 @@ package org.jcae.mesh.xmldata;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -33,18 +34,30 @@ import org.xml.sax.SAXException;
 /**
  * Take group define as list of elements (Amibe or UNV group representation)
  * and change them to elements attributs (VTK representation).
- * Attribut are saved to ordered binary files. Triangles attribut are saved first
- * then beams are. This is compatible with Amibe2VTK.
+ * Attribut are saved to ordered binary files. Beams attribut are saved first
+ * then triangles are, as VTK cells of PolyData are ordered this way. This is
+ * compatible with Amibe2VTK.
+ * The attribut array is never stored in memory, it is computed and written
+ * by chunks, so that memory usage does not depend on mesh size.
  * @author Jerome Robert
  */
 public class GroupInverter {
 
 	public interface IntegerWriter {
 
+		/**
+		 * Write a chunk of the element attribut array. This method is
+		 * called several times per partition, with consecutive chunks.
+		 * Only bytes between the position and the limit of the buffer
+		 * must be written, and the buffer is reused after this call.
+		 */
 		void writeInt(ByteBuffer i) throws IOException;
 	}
+	/** Number of ids read at once from group files */
+	private static final int ID_BLOCK_SIZE = 4096;
 	private AmibeReader.Dim3 amibeReader;
 	private Map<IntegerWriter, List<String>> partitions = new HashMap<IntegerWriter, List<String>>();
+	private int chunkSize = 1 << 20;
 
 	public GroupInverter(String amibeDir) throws SAXException, IOException {
 		amibeReader = new AmibeReader.Dim3(amibeDir);
@@ -67,7 +80,7 @@ public class GroupInverter {
 		addPartition(groupNames, outputFile);
 	}
 
-	/** 
+	/**
 	 * Add a partition to this group inverted. Each partition is transformed
 	 * to a new element attribut
 	 * @param groupNames the list of group names to add in this partition. The
@@ -80,31 +93,124 @@ public class GroupInverter {
 		partitions.put(w, groupNames);
 	}
 
+	/** Set the number of element attributs written at once */
+	void setChunkSize(int chunkSize) {
+		this.chunkSize = chunkSize;
+	}
+
 	public void invert() throws IOException {
 		for (Entry<IntegerWriter, List<String>> e : partitions.entrySet()) {
-			e.getKey().writeInt(invertPartition(e.getValue()));
+			invertPartition(e.getValue(), e.getKey());
 		}
 	}
 
-	private ByteBuffer invertPartition(List<String> groupNames)
+	private void invertPartition(List<String> groupNames, IntegerWriter w)
 		throws IOException {
 		SubMesh sm = amibeReader.getSubmeshes().get(0);
 		int nt = sm.getNumberOfTrias();
 		int ne = sm.getNumberOfBeams();
-		int triaOffset = ne * 4;
-		ByteBuffer toReturn = ByteBuffer.allocate(4 * (ne+nt));
-		int gid = 1;
-		for (String gn : groupNames) {
-			Group g = sm.getGroup(gn);
-			for (int id : g.readTria3Ids()) {
-				toReturn.putInt(triaOffset + id * 4, gid);
+		int n = ne + nt;
+		IntFileReader triaIds = null;
+		IntFileReader beamIds = null;
+		try {
+			List<IdCursor> cursors = new ArrayList<IdCursor>();
+			int gid = 1;
+			for (String gn : groupNames) {
+				Group g = sm.getGroup(gn);
+				if (g.getNumberOfBeams() > 0) {
+					if (beamIds == null)
+						beamIds = g.openBeamsIds();
+					cursors.add(new IdCursor(beamIds, (int) g.getBeamsOffset(),
+						g.getNumberOfBeams(), 0, gid));
+				}
+				if (g.getNumberOfTrias() > 0) {
+					if (triaIds == null)
+						triaIds = g.openTria3Ids();
+					cursors.add(new IdCursor(triaIds, (int) g.getTriasOffset(),
+						g.getNumberOfTrias(), ne, gid));
+				}
+				gid++;
+			}
+			int size = Math.min(chunkSize, Math.max(n, 1));
+			int[] values = new int[size];
+			ByteBuffer buffer = ByteBuffer.allocate(4 * size);
+			for (int start = 0; start < n; start += size) {
+				int end = Math.min(n, start + size);
+				Arrays.fill(values, 0);
+				// Cursors are in group order, so that the last group
+				// wins when an element belongs to several groups
+				for (IdCursor c : cursors) {
+					c.fill(values, start, end);
+				}
+				buffer.clear();
+				buffer.asIntBuffer().put(values, 0, end - start);
+				buffer.limit(4 * (end - start));
+				w.writeInt(buffer);
+			}
+		} finally {
+			if (triaIds != null)
+				triaIds.close();
+			if (beamIds != null)
+				beamIds.close();
+		}
+	}
+
+	/**
+	 * Read ids of a group by blocks. When ids are sorted, which is the
+	 * common case, each chunk of the attribut array resumes where the
+	 * previous one stopped, otherwise all ids are read for each chunk.
+	 */
+	private static class IdCursor {
+		private final IntFileReader reader;
+		private final int offset;
+		private final int number;
+		private final int base;
+		private final int value;
+		private final int[] block = new int[ID_BLOCK_SIZE];
+		private int blockStart, blockLength;
+		private int position;
+		private final boolean sorted;
+
+		IdCursor(IntFileReader reader, int offset, int number, int base,
+			int value) throws IOException {
+			this.reader = reader;
+			this.offset = offset;
+			this.number = number;
+			this.base = base;
+			this.value = value;
+			boolean s = true;
+			int last = Integer.MIN_VALUE;
+			for (position = 0; s && position < number; position++) {
+				int id = peek();
+				s = id >= last;
+				last = id;
 			}
+			sorted = s;
+			position = 0;
+		}
+
+		private int peek() throws IOException {
+			if (position >= blockStart + blockLength || position < blockStart) {
+				blockStart = position;
+				blockLength = Math.min(block.length, number - position);
+				reader.get(offset + position, block, 0, blockLength);
+			}
+			return block[position - blockStart];
+		}
 
-			for (int id : g.readBeamsIds()) {
-				toReturn.putInt(id * 4, gid);
+		/** Set value of elements of this group in [start, end[ */
+		void fill(int[] values, int start, int end) throws IOException {
+			if (!sorted)
+				position = 0;
+			for (; position < number; position++) {
+				int id = peek() + base;
+				if (id >= end) {
+					if (sorted)
+						break;
+				} else if (id >= start) {
+					values[id - start] = value;
+				}
 			}
-			gid++;
 		}
-		return toReturn;
 	}
 }
@@ -24,7 +24,9 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.lang.reflect.Field;
 import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
 import java.nio.IntBuffer;
 import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
@@ -82,7 +84,7 @@ public class IntFileReaderByMmap implements IntFileReader
 
 	public final int get(int index, int[] dst, int offset, int len) throws IOException
 	{
-		fc.position(index * 4L);
+		tb.position(index);
 		return get(dst, offset, len);
 	}
 
@@ -108,22 +110,22 @@ public class IntFileReaderByMmap implements IntFileReader
 	{
 		try
 		{
-			Class cleanerClass=Class.forName("sun.misc.Cleaner");
-			final Method cleanMethod=cleanerClass.getMethod("clean", null);
-			AccessController.doPrivileged(new PrivilegedAction()
+			Class<?> cleanerClass=Class.forName("sun.misc.Cleaner");
+			final Method cleanMethod=cleanerClass.getMethod("clean", new Class<?>[0]);
+			AccessController.doPrivileged(new PrivilegedAction<Object>()
 			{
 				public Object run()
 				{
 					try
 					{
 						Method getCleanerMethod = buffer.getClass().getMethod(
-							"cleaner", new Class[0]);
+							"cleaner", new Class<?>[0]);
 
 						getCleanerMethod.setAccessible(true);
 						Object cleaner = getCleanerMethod.invoke(buffer,new Object[0]);
 						if(cleaner!=null)
 						{
-							cleanMethod.invoke(cleaner, null);
+							cleanMethod.invoke(cleaner, new Object[0]);
 						}
 					}
 					catch(Exception e)
@@ -136,7 +138,8 @@ public class IntFileReaderByMmap implements IntFileReader
 		}
 		catch(ClassNotFoundException ex)
 		{
-			//Not a Sun JVM so we exit.
+			//Java 9 and later, or not a Sun JVM
+			cleanByUnsafe(buffer);
 		}
 		catch (SecurityException e)
 		{
@@ -148,4 +151,24 @@ public class IntFileReaderByMmap implements IntFileReader
 		}
 	}
 
+	/**
+	 * Java 9 removed sun.misc.Cleaner, but provides
+	 * sun.misc.Unsafe.invokeCleaner.
+	 */
+	private static void cleanByUnsafe(MappedByteBuffer buffer)
+	{
+		try
+		{
+			Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+			Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+			theUnsafe.setAccessible(true);
+			Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+			invokeCleaner.invoke(theUnsafe.get(null), buffer);
+		}
+		catch (Exception ex)
+		{
+			//Not available, buffer will be unmapped by garbage collector
+		}
+	}
+
 }
\ No newline at end of file
@@ -0,0 +1,114 @@
+/*
+ * Project Info:  http://jcae.sourceforge.net
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307, USA.
+ *
+ * (C) Copyright 2012, by EADS France
+ */
+
+package org.jcae.mesh.xmldata;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Reads integers from a file written by {@link CompressedOutputStream}.
+ */
+public class IntFileReaderCompressed extends CompressedFileReader implements IntFileReader
+{
+	private int [] current;
+	private int currentBlock = -1;
+	private long position;
+
+	public IntFileReaderCompressed(File file) throws IOException
+	{
+		super(file, BlockCodec.TYPE_INT);
+	}
+
+	@Override
+	protected Object decode(byte [] data, int n) throws IOException
+	{
+		int [] values = new int[n];
+		BlockCodec.decodeInts(data, values, n);
+		return values;
+	}
+
+	private void load(int b) throws IOException
+	{
+		if (b != currentBlock)
+		{
+			current = (int []) block(b);
+			currentBlock = b;
+		}
+	}
+
+	public int get() throws IOException
+	{
+		if (position >= numberOfElements)
+			throw new IOException("End of file reached");
+		load((int) (position / elementsPerBlock));
+		int ret = current[(int) (position % elementsPerBlock)];
+		position++;
+		return ret;
+	}
+
+	public int get(int index) throws IOException
+	{
+		if (index < 0 || index >= numberOfElements)
+			throw new IndexOutOfBoundsException("Index "+index+" out of range");
+		load(index / elementsPerBlock);
+		return current[index % elementsPerBlock];
+	}
+
+	public int get(int [] dst) throws IOException
+	{
+		return get(dst, 0, dst.length);
+	}
+
+	public int get(int [] dst, int offset, int len) throws IOException
+	{
+		int ret = 0;
+		while (len > 0 && position < numberOfElements)
+		{
+			load((int) (position / elementsPerBlock));
+			int start = (int) (position % elementsPerBlock);
+			int nr = Math.min(len, current.length - start);
+			System.arraycopy(current, start, dst, offset, nr);
+			position += nr;
+			offset += nr;
+			len -= nr;
+			ret += nr;
+		}
+		return ret;
+	}
+
+	public int get(int index, int [] dst) throws IOException
+	{
+		return get(index, dst, 0, dst.length);
+	}
+
+	public int get(int index, int [] dst, int offset, int len) throws IOException
+	{
+		if (index < 0 || index > numberOfElements)
+			throw new IndexOutOfBoundsException("Index "+index+" out of range");
+		position = index;
+		return get(dst, offset, len);
+	}
+
+	public boolean isEOF()
+	{
+		return position >= numberOfElements;
+	}
+}
@@ -0,0 +1,165 @@
+/*
+ * Project Info:  http://jcae.sourceforge.net
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307, USA.
+ *
+ * (C) Copyright 2012, by EADS France
+ */
+
+package org.jcae.mesh.xmldata;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A file mapped into memory by segments.
+ *
+ * <p>
+ * A single mapping is limited to 2 GB, so large files are split into
+ * segments of <code>2^shift</code> bytes which are mapped on demand.
+ * Segment size is a power of two larger than elements, so elements
+ * never cross segment boundaries.  At most <code>maxMapped</code>
+ * segments are mapped at the same time, the least recently used one
+ * is unmapped when another segment is needed, and all segments are
+ * unmapped by {@link #close}, so that address space is released
+ * deterministically instead of waiting for garbage collection.
+ * </p>
+ *
+ * <p>
+ * This class is not thread-safe, and buffers returned by
+ * {@link #segment} must not be used after another segment has been
+ * requested if <code>maxMapped</code> is 1, after {@link #prefetch}
+ * or after <code>close</code>.
+ * </p>
+ */
+final class MappedSegments
+{
+	/** Default segment size is 1 GB */
+	static final int DEFAULT_SHIFT = 30;
+	static final int DEFAULT_MAX_MAPPED = 8;
+	private static final int PAGE_SIZE = 4096;
+
+	private final FileChannel fc;
+	private final long length;
+	private final int shift;
+	private final int maxMapped;
+	private final MappedByteBuffer[] segments;
+	private final long[] lastUse;
+	private long clock;
+	private int nrMapped;
+
+	MappedSegments(File file, int shift, int maxMapped) throws IOException
+	{
+		if (shift < 12 || shift > 30)
+			throw new IllegalArgumentException("Invalid segment shift: "+shift);
+		fc = new FileInputStream(file).getChannel();
+		length = fc.size();
+		this.shift = shift;
+		this.maxMapped = Math.max(1, maxMapped);
+		int n = (int) ((length + (1L << shift) - 1) >>> shift);
+		segments = new MappedByteBuffer[n];
+		lastUse = new long[n];
+	}
+
+	/** Returns file length in bytes */
+	long length()
+	{
+		return length;
+	}
+
+	int shift()
+	{
+		return shift;
+	}
+
+	/**
+	 * Returns segment <code>s</code>, which contains bytes from
+	 * <code>s * 2^shift</code>.  It is mapped if needed.
+	 */
+	MappedByteBuffer segment(int s) throws IOException
+	{
+		MappedByteBuffer toReturn = segments[s];
+		clock++;
+		lastUse[s] = clock;
+		if (toReturn != null)
+			return toReturn;
+		if (nrMapped >= maxMapped)
+			unmapLeastRecentlyUsed(s);
+		long start = ((long) s) << shift;
+		long size = Math.min(1L << shift, length - start);
+		toReturn = fc.map(FileChannel.MapMode.READ_ONLY, start, size);
+		segments[s] = toReturn;
+		nrMapped++;
+		return toReturn;
+	}
+
+	private void unmapLeastRecentlyUsed(int keep)
+	{
+		int lru = -1;
+		for (int i = 0; i < segments.length; i++)
+		{
+			if (segments[i] != null && i != keep && (lru < 0 || lastUse[i] < lastUse[lru]))
+				lru = i;
+		}
+		if (lru >= 0)
+		{
+			IntFileReaderByMmap.clean(segments[lru]);
+			segments[lru] = null;
+			nrMapped--;
+		}
+	}
+
+	/**
+	 * Hint that bytes in <code>[start, start+size[</code> will be read
+	 * soon.  Java cannot give advice to the kernel, so one byte per page
+	 * is read to fault pages in before they are needed.  Segments are
+	 * mapped if needed, up to <code>maxMapped</code> of them.
+	 */
+	void prefetch(long start, long size) throws IOException
+	{
+		long end = Math.min(length, start + size);
+		long pos = Math.max(0L, start);
+		int mask = (1 << shift) - 1;
+		while (pos < end)
+		{
+			int s = (int) (pos >>> shift);
+			MappedByteBuffer bb = segment(s);
+			long segEnd = Math.min(end, ((long) s + 1L) << shift);
+			for (long p = pos; p < segEnd; p += PAGE_SIZE)
+				bb.get((int) (p & mask));
+			pos = segEnd;
+		}
+	}
+
+	void close()
+	{
+		for (int i = 0; i < segments.length; i++)
+		{
+			if (segments[i] != null)
+			{
+				IntFileReaderByMmap.clean(segments[i]);
+				segments[i] = null;
+			}
+		}
+		nrMapped = 0;
+		try
+		{
+			fc.close();
+		} catch (IOException ex) {/* Do not care */}
+	}
+}
@@ -21,7 +21,6 @@
 package org.jcae.mesh.xmldata;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
@@ -57,43 +56,40 @@ public class Mesh3dToSoupConvert
 		String ftrias = (String) xpath.evaluate(
 			"/jcae/mesh/submesh/triangles/file/@location", document,
 			XPathConstants.STRING);
-		FileChannel nodesChannel=new FileInputStream(
-			new File(meshDirectory, fnodes)).getChannel();
-		FileChannel triasChannel=new FileInputStream(
-			new File(meshDirectory, ftrias)).getChannel();
+		// Binary files may be compressed
+		PrimitiveFileReaderFactory pfrf = new PrimitiveFileReaderFactory();
+		DoubleFileReader nodes = pfrf.getDoubleReader(new File(meshDirectory, fnodes));
+		IntFileReader trias = pfrf.getIntReader(new File(meshDirectory, ftrias));
 		FileChannel soupChannel=new FileOutputStream(
 			new File(meshDirectory, "soup")).getChannel();
 		
-		convert(nodesChannel, triasChannel, soupChannel);
-		nodesChannel.close();
-		triasChannel.close();
+		convert(nodes, trias, soupChannel);
+		nodes.close();
+		trias.close();
 		soupChannel.close();
 	}
 
-	private static void convert(FileChannel nodesChannel,
-		FileChannel triasChannel, FileChannel soupChannel) throws IOException
+	private static void convert(DoubleFileReader nodes,
+		IntFileReader trias, FileChannel soupChannel) throws IOException
 	{
 		
-		ByteBuffer trias=ByteBuffer.allocate(3*4);
-		ByteBuffer nodes=ByteBuffer.allocate(3*8);
+		int [] tria = new int[3];
+		double [] xyz = new double[3];
 		
 		ByteBuffer toWrite=ByteBuffer.allocate(80);
 		toWrite.putInt(64,0); //groupId
 		toWrite.putInt(72,0); //align on 64 bit
 		
-		while(triasChannel.read(trias)>0)
+		long nbt = trias.size() / 3;
+		for(long t=0; t<nbt; t++)
 		{
-			trias.rewind();
+			trias.get(tria);
 			for(int i=0; i<3; i++)
 			{
-				int nodeId=trias.getInt();
-				nodesChannel.read(nodes, 3*8*nodeId);
-				nodes.rewind();
+				nodes.get(3*tria[i], xyz);
 				for(int j=0; j<3; j++)
-					toWrite.putDouble(nodes.getDouble());
-				nodes.rewind();
+					toWrite.putDouble(xyz[j]);
 			}
-			trias.rewind();
 			toWrite.rewind();
 			soupChannel.write(toWrite);
 			toWrite.rewind();
@@ -23,14 +23,11 @@ package org.jcae.mesh.xmldata;
 import gnu.trove.TIntHashSet;
 import gnu.trove.TIntArrayList;
 import gnu.trove.TIntIntHashMap;
-import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.DataOutputStream;
 import java.io.BufferedOutputStream;
-import java.io.DataInputStream;
-import java.io.FileInputStream;
 import java.io.PrintStream;
 import java.text.FieldPosition;
 import java.text.ParsePosition;
@@ -339,19 +336,30 @@ abstract public class MeshExporter
 	
 	private int[] readTriangles() throws IOException
 	{
-		IntFileReader ifrT = new PrimitiveFileReaderFactory().getIntReader(getTriaFile());
-		int[] toReturn = new int[numberOfTriangles * 3];
+		int[] ids = new int[numberOfTriangles];
 		int count = 0;
 		for (int i = 0; i < groups.length; i++)
 		{
-			for (int j = 0; j < groups[i].length; j++)
-			{
-				ifrT.get(groups[i][j] * 3, toReturn, count, 3);
-				count += 3;
-			}
+			System.arraycopy(groups[i], 0, ids, count, groups[i].length);
+			count += groups[i].length;
 		}
+		int[] toReturn = new int[numberOfTriangles * 3];
+		new FileGatherer(getTriaFile()).gather(ids, 0, count, 0, 3, toReturn);
 		return toReturn;
-	}	
+	}
+
+	/**
+	 * Reads coordinates of nodes.
+	 *
+	 * @param nodesID  node indices
+	 * @return coordinates of nodes, in the same order as nodesID
+	 */
+	protected final double[] readNodes(int[] nodesID) throws IOException
+	{
+		double[] toReturn = new double[nodesID.length * 3];
+		new FileGatherer(getNodeFile()).gather(nodesID, 0, nodesID.length, 0, 3, toReturn);
+		return toReturn;
+	}
 	
 	public final void write(PrintStream out) throws ParserConfigurationException, SAXException, IOException
 	{
@@ -561,24 +569,21 @@ abstract public class MeshExporter
 		@Override
 		public void writeNodes(PrintStream out, int[] nodesID, TIntIntHashMap amibeToUNV) throws IOException
 		{
-			File f=getNodeFile();
-			DoubleFileReader dfrN = new PrimitiveFileReaderFactory().getDoubleReader(f);
+			double[] xyz = readNodes(nodesID);
 
 			out.println("    -1"+CR+"  2411");
 			int count =  0;
 			double x,y,z;
 			for(int i=0; i<nodesID.length; i++)
 			{
-				int iid=nodesID[i]*3;
-				x=dfrN.get(iid);
-				y=dfrN.get(iid+1);
-				z=dfrN.get(iid+2);
+				x=xyz[3*i];
+				y=xyz[3*i+1];
+				z=xyz[3*i+2];
 				count++;
 				amibeToUNV.put(nodesID[i], count);
 				writeSingleNode(out, count, x, y, z);
 			}
 			out.println("    -1");
-			dfrN.close();
 			logger.info("Total number of nodes: "+count);
 		}
 		
@@ -642,7 +647,9 @@ abstract public class MeshExporter
 	}
 	
 	public static class STL extends MeshExporter
-	{		
+	{
+		private static final int CHUNK_SIZE = 1 << 14;
+		
 		public STL(File directory, int[] groupIds)
 		{
 			super(directory, groupIds);
@@ -662,8 +669,9 @@ abstract public class MeshExporter
 			TIntIntHashMap amibeNodeToUNVNode, TIntIntHashMap amibeTriaToUNVTria)
 			throws IOException
 		{
-			File f=getNodeFile();
-			DoubleFileReader dfrN = new PrimitiveFileReaderFactory().getDoubleReader(f);
+			FileGatherer gatherer = new FileGatherer(getNodeFile());
+			// Coordinates of vertices of CHUNK_SIZE triangles
+			double[] xyz = new double[9 * CHUNK_SIZE];
 			
 			out.println("solid export");
 			int count=0;
@@ -672,14 +680,18 @@ abstract public class MeshExporter
 			{
 				for(int j=0; j<groups[i].length; j++)
 				{
+					int c = count % CHUNK_SIZE;
+					if (c == 0)
+						gatherer.gather(triangles, 3*count,
+							3*Math.min(CHUNK_SIZE, triangles.length/3 - count), 0, 3, xyz);
 					out.println("facet");
 					out.println("   outer loop");
 					for(int k=0; k < 3; k++)
 					{
-						int iid=triangles[count*3+k]*3;
-						x=dfrN.get(iid);
-						y=dfrN.get(iid+1);
-						z=dfrN.get(iid+2);
+						int iid=(3*c+k)*3;
+						x=xyz[iid];
+						y=xyz[iid+1];
+						z=xyz[iid+2];
 						out.println("     vertex "+x+" "+y+" "+z);
 					}
 					out.println("   endloop");
@@ -687,7 +699,6 @@ abstract public class MeshExporter
 					count++;
 				}
 			}
-			dfrN.close();
 			out.println("endsolid export");
 			logger.info("Total number of triangles: "+count);
 		}
@@ -726,23 +737,20 @@ abstract public class MeshExporter
 		@Override
 		public void writeNodes(PrintStream out, int[] nodesID, TIntIntHashMap amibeToUNV) throws IOException
 		{
-			File f=getNodeFile();
-			DoubleFileReader dfrN = new PrimitiveFileReaderFactory().getDoubleReader(f);
+			double[] xyz = readNodes(nodesID);
 			
 			int count =  0;
 			double x,y,z;
 			out.println("\nVertices\n"+nodesID.length);
 			for(int i=0; i<nodesID.length; i++)
 			{
-				int iid=nodesID[i]*3;
-				x=dfrN.get(iid);
-				y=dfrN.get(iid+1);
-				z=dfrN.get(iid+2);
+				x=xyz[3*i];
+				y=xyz[3*i+1];
+				z=xyz[3*i+2];
 				count++;
 				amibeToUNV.put(nodesID[i], count);
 				out.println(x+" "+y+" "+z+" 0");
 			}
-			dfrN.close();
 			logger.info("Total number of nodes: "+count);
 		}
 		
@@ -846,8 +854,7 @@ abstract public class MeshExporter
 		@Override
 		public void writeNodes(PrintStream out, int[] nodesID, TIntIntHashMap amibeToUNV) throws IOException
 		{
-			File f=getNodeFile();
-			DoubleFileReader dfrN = new PrimitiveFileReaderFactory().getDoubleReader(f);
+			double[] xyz = readNodes(nodesID);
 			
 			int count =  0;
 			double x,y,z;
@@ -855,15 +862,13 @@ abstract public class MeshExporter
 			out.println(""+nodesID.length+" 3 0 0");
 			for(int i=0; i<nodesID.length; i++)
 			{
-				int iid=nodesID[i]*3;
-				x=dfrN.get(iid);
-				y=dfrN.get(iid+1);
-				z=dfrN.get(iid+2);
+				x=xyz[3*i];
+				y=xyz[3*i+1];
+				z=xyz[3*i+2];
 				count++;
 				amibeToUNV.put(nodesID[i], count);
 				out.println("   "+count+" "+x+" "+y+" "+z);
 			}
-			dfrN.close();
 			logger.info("Total number of nodes: "+count);
 		}
 		
@@ -922,17 +927,49 @@ abstract public class MeshExporter
 
 		private static long computeNumberOfTriangle(File triaFile) throws IOException
 		{
-			DataInputStream in = new DataInputStream(
-				new BufferedInputStream(new FileInputStream(triaFile)));
-			long nbt = triaFile.length()/4/3;
-			long toReturn = 0;
-			for(int i=0; i<nbt; i++)
+			IntFileReader in = new PrimitiveFileReaderFactory().getIntReader(triaFile);
+			try
+			{
+				long nbt = in.size()/3;
+				long toReturn = 0;
+				for(int i=0; i<nbt; i++)
+				{
+					if(in.get(3*i)>=0)
+						toReturn++;
+				}
+				return toReturn;
+			}
+			finally
+			{
+				in.close();
+			}
+		}
+
+		// Number of values, binary files may be compressed
+		private static long numberOfDoubles(File file) throws IOException
+		{
+			DoubleFileReader in = new PrimitiveFileReaderFactory().getDoubleReader(file);
+			try
 			{
-				if(in.readInt()>=0)
-					toReturn++;
-				in.skipBytes(8);
+				return in.size();
+			}
+			finally
+			{
+				in.close();
+			}
+		}
+
+		private static long numberOfInts(File file) throws IOException
+		{
+			IntFileReader in = new PrimitiveFileReaderFactory().getIntReader(file);
+			try
+			{
+				return in.size();
+			}
+			finally
+			{
+				in.close();
 			}
-			return toReturn;
 		}
 
 		/**
@@ -943,7 +980,7 @@ abstract public class MeshExporter
 		public void writeInit(PrintStream out)
 			throws IOException
 		{
-			long numberOfNodes=getNodeFile().length()/8/3;
+			long numberOfNodes=numberOfDoubles(getNodeFile())/3;
 			long numberOfTriangles=computeNumberOfTriangle(getTriaFile());
 			//This is Java so we write in big endian		
 			out.println("<VTKFile type=\"PolyData\" version=\"0.1\" byte_order=\"BigEndian\">");
@@ -1004,24 +1041,21 @@ abstract public class MeshExporter
 			DataOutputStream dos=new DataOutputStream(new BufferedOutputStream(out));
 			//Write the size of the array in octets
 			dos.writeInt(nodesID.length*8*3);
-			File f=getNodeFile();
-			DoubleFileReader dfrN = new PrimitiveFileReaderFactory().getDoubleReader(f);
+			double[] xyz = readNodes(nodesID);
 			
 			int count =  0;
 			double x,y,z;
 			for(int i=0; i<nodesID.length; i++)
 			{
-				int iid=nodesID[i]*3;
-				x=dfrN.get(iid);
-				y=dfrN.get(iid+1);
-				z=dfrN.get(iid+2);
+				x=xyz[3*i];
+				y=xyz[3*i+1];
+				z=xyz[3*i+2];
 				amibeToUNV.put(nodesID[i], count);
 				dos.writeDouble(x);
 				dos.writeDouble(y);
 				dos.writeDouble(z);
 				count++;
 			}
-			dfrN.close();
 			logger.info("Total number of nodes: "+count);
 			dos.flush();
 			out.flush();
@@ -1072,7 +1106,7 @@ abstract public class MeshExporter
 			DataOutputStream dos=new DataOutputStream(new BufferedOutputStream(out));
 			if(dummyData)
 			{
-				long nbt=getTriaFile().length()/4/3;
+				long nbt=numberOfInts(getTriaFile())/3;
 				//Write the size of the array in octets
 				dos.writeInt((int) nbt*8);		
 				for(int i=0; i<nbt; i++)
@@ -22,6 +22,12 @@
 package org.jcae.mesh.xmldata;
 
 import java.io.IOException;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.logging.Level;
 import org.jcae.mesh.cad.CADExplorer;
 import org.jcae.mesh.cad.CADFace;
@@ -34,6 +40,7 @@ import java.io.FileNotFoundException;
 import javax.xml.xpath.XPath;
 import javax.xml.xpath.XPathConstants;
 import javax.xml.xpath.XPathFactory;
+import gnu.trove.TIntArrayList;
 import gnu.trove.TIntIntHashMap;
 import gnu.trove.TIntObjectHashMap;
 import org.w3c.dom.Document;
@@ -170,6 +177,110 @@ public class MeshToMMesh3DConvert implements FilterInterface, JCAEXMLData
 	 * @param iFace face number
 	 */
 	public final void processOneShape(int groupId, String groupName, int iFace)
+	{
+		FaceData face = readFace(groupId, iFace);
+		if (face != null)
+			appendFace(face, groupName);
+	}
+
+	/**
+	 * Convert 2D files of several faces to 3D files.  2D meshes are read
+	 * and projected onto CAD surfaces on several threads, and results are
+	 * appended to 3D files in the same order as faces, so output files
+	 * are identical to those written by calling
+	 * {@link #processOneShape} on each face.
+	 *
+	 * @param groupIds group numbers of 2D meshes
+	 * @param groupNames group names
+	 * @param faces face numbers
+	 * @param nrThreads number of threads
+	 */
+	public final void processAllShapes(final int [] groupIds, String [] groupNames,
+		final int [] faces, int nrThreads)
+	{
+		if (nrThreads <= 1 || faces.length <= 1)
+		{
+			for (int i = 0; i < faces.length; i++)
+			{
+				LOGGER.fine("Importing face "+faces[i]);
+				processOneShape(groupIds[i], groupNames[i], faces[i]);
+			}
+			return;
+		}
+		// Faces are appended in order, at most 2*nrThreads faces are
+		// kept in memory
+		ExecutorService executor = Executors.newFixedThreadPool(nrThreads);
+		LinkedList<Future<FaceData>> pending = new LinkedList<Future<FaceData>>();
+		try
+		{
+			int next = 0;
+			for (int i = 0; i < faces.length; i++)
+			{
+				while (next < faces.length && next - i < 2 * nrThreads)
+				{
+					final int k = next;
+					pending.add(executor.submit(new Callable<FaceData>()
+					{
+						public FaceData call()
+						{
+							return readFace(groupIds[k], faces[k]);
+						}
+					}));
+					next++;
+				}
+				FaceData face = pending.removeFirst().get();
+				LOGGER.fine("Importing face "+faces[i]);
+				if (face != null)
+					appendFace(face, groupNames[i]);
+			}
+		}
+		catch (InterruptedException ex)
+		{
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(ex);
+		}
+		catch (ExecutionException ex)
+		{
+			if (ex.getCause() instanceof RuntimeException)
+				throw (RuntimeException) ex.getCause();
+			if (ex.getCause() instanceof Error)
+				throw (Error) ex.getCause();
+			throw new RuntimeException(ex.getCause());
+		}
+		finally
+		{
+			for (Future<FaceData> f : pending)
+				f.cancel(true);
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * 3D nodes and triangles of a face, with local node numbers.  Interior
+	 * nodes come first, followed by boundary nodes.
+	 */
+	private static class FaceData
+	{
+		private int groupId;
+		private boolean forward;
+		private int numberOfNodes;
+		private int numberOfReferences;
+		private int [] refs;
+		// Coordinates of all nodes
+		private double [] coords;
+		private double [] normals;
+		// Local node numbers of inner triangles
+		private int [] triangles;
+	}
+
+	/**
+	 * Reads a 2D mesh and computes 3D coordinates and normals of its
+	 * nodes.  This method does not modify shared data, it is called
+	 * concurrently by {@link #processAllShapes}.
+	 *
+	 * @return face data, or <code>null</code> if there is no 2D mesh
+	 */
+	private FaceData readFace(int groupId, int iFace)
 	{
 		Document documentIn;
 		File xmlFile2d = null;
@@ -180,7 +291,7 @@ public class MeshToMMesh3DConvert implements FilterInterface, JCAEXMLData
 		}
 		catch(FileNotFoundException ex)
 		{
-			return;
+			return null;
 		}
 		catch(Exception ex)
 		{
@@ -215,54 +326,39 @@ public class MeshToMMesh3DConvert implements FilterInterface, JCAEXMLData
 			Node submeshNodes = (Node) xpath.evaluate("nodes", submeshElement,
 				XPathConstants.NODE);
 			
+			FaceData ret = new FaceData();
+			ret.groupId = groupId;
+			ret.forward = F.isOrientationForward();
 			int numberOfReferences = Integer.parseInt(
 				xpath.evaluate("references/number/text()", submeshNodes));
-			int [] refs = new int[numberOfReferences];
+			ret.numberOfReferences = numberOfReferences;
+			ret.refs = new int[numberOfReferences];
 			LOGGER.fine("Reading "+numberOfReferences+" references");
 			int numberOfNodes = Integer.parseInt(
 				xpath.evaluate("number/text()", submeshNodes));
+			ret.numberOfNodes = numberOfNodes;
 			LOGGER.fine("Reading "+numberOfNodes+" nodes");
-			double [] normals = new double[3*numberOfNodes];
-			//  Interior nodes
-			for (int i = 0; i < numberOfNodes - numberOfReferences; i++)
+			ret.coords = new double[3*numberOfNodes];
+			ret.normals = new double[3*numberOfNodes];
+			for (int i = 0; i < numberOfNodes; i++)
 			{
 				double u = dfrN.get();
 				double v = dfrN.get();
 				double [] p3 = surface.value(u, v);
-				amibeWriter.addNode(p3);
-				if (unvWriter != null)
-					unvWriter.writeNode(i+nodeOffset+1, p3);
+				System.arraycopy(p3, 0, ret.coords, 3 * i, 3);
 				surface.setParameter(u, v);
 				p3 = surface.normal();
-				System.arraycopy(p3, 0, normals, 3 * i, 3);
-			}
-			//  Boundary nodes
-			ifrR.get(refs);
-			for (int i = 0; i < numberOfReferences; i++)
-			{
-				double u = dfrN.get();
-				double v = dfrN.get();
-				surface.setParameter(u, v);
-				double [] p3 = surface.normal();
-				System.arraycopy(p3, 0, normals, 3 * (i + numberOfNodes - numberOfReferences), 3);
-				if (!xrefs.contains(refs[i]))
-				{
-					p3 = surface.value(u, v);
-					xrefs.put(refs[i], offsetBnd);
-					System.arraycopy(p3, 0, coordRefs, 3 * offsetBnd, 3);
-					offsetBnd++;
-					amibeWriter.addNodeRef(refs[i]);
-				}
+				System.arraycopy(p3, 0, ret.normals, 3 * i, 3);
 			}
+			ifrR.get(ret.refs);
 			
 			Node submeshFaces = (Node) xpath.evaluate("triangles",
 				submeshElement, XPathConstants.NODE);
 			int numberOfFaces = Integer.parseInt(xpath.evaluate(
 				"number/text()", submeshFaces));
 			LOGGER.fine("Reading "+numberOfFaces+" faces");
-			int ind [] = new int[4];
+			TIntArrayList triangles = new TIntArrayList(3*numberOfFaces);
 			int indLoc [] = new int[3];
-			int cntTriangles = 0;
 			for (int i = 0; i < numberOfFaces; i++)
 			{
 				for (int j = 0; j < 3; j++)
@@ -275,13 +371,72 @@ public class MeshToMMesh3DConvert implements FilterInterface, JCAEXMLData
 					// Skip outer triangles
 					continue;
 				}
+				triangles.add(indLoc);
+			}
+			ret.triangles = triangles.toNativeArray();
+			LOGGER.fine("End reading");
+			ifrT.close();
+			dfrN.close();
+			ifrR.close();
+			return ret;
+		}
+		catch(Exception ex)
+		{
+			ex.printStackTrace();
+			throw new RuntimeException(ex);
+		}
+	}
+
+	/**
+	 * Appends nodes and triangles of a face to output files.  Boundary
+	 * nodes are shared between faces, they get a global number when they
+	 * are first seen.
+	 */
+	private void appendFace(FaceData face, String groupName)
+	{
+		try
+		{
+			int numberOfNodes = face.numberOfNodes;
+			int numberOfReferences = face.numberOfReferences;
+			int numberOfInnerNodes = numberOfNodes - numberOfReferences;
+			int [] refs = face.refs;
+			//  Interior nodes
+			amibeWriter.addNodes(face.coords, 0, 3 * numberOfInnerNodes);
+			if (unvWriter != null)
+			{
+				double [] p3 = new double[3];
+				for (int i = 0; i < numberOfInnerNodes; i++)
+				{
+					System.arraycopy(face.coords, 3 * i, p3, 0, 3);
+					unvWriter.writeNode(i+nodeOffset+1, p3);
+				}
+			}
+			//  Boundary nodes
+			for (int i = 0; i < numberOfReferences; i++)
+			{
+				if (!xrefs.contains(refs[i]))
+				{
+					xrefs.put(refs[i], offsetBnd);
+					System.arraycopy(face.coords, 3 * (i + numberOfInnerNodes), coordRefs, 3 * offsetBnd, 3);
+					offsetBnd++;
+					amibeWriter.addNodeRef(refs[i]);
+				}
+			}
+			
+			int ind [] = new int[4];
+			int indLoc [] = new int[3];
+			double [] normals = face.normals;
+			int cntTriangles = 0;
+			for (int i = 0; i < face.triangles.length; i += 3)
+			{
 				for (int j = 0; j < 3; j++)
 				{
+					indLoc[j] = face.triangles[i+j];
 					// Global node number
-					if (indLoc[j] < numberOfNodes - numberOfReferences)
+					if (indLoc[j] < numberOfInnerNodes)
 						ind[j+1] = indLoc[j] + nodeOffset;
 					else
-						ind[j+1] = xrefs.get(refs[indLoc[j] - numberOfNodes + numberOfReferences]) + nrIntNodes;
+						ind[j+1] = xrefs.get(refs[indLoc[j] - numberOfInnerNodes]) + nrIntNodes;
 				}
 				if (ind[1] == ind[2] || ind[2] == ind[3] || ind[3] == ind[1])
 				{
@@ -294,13 +449,13 @@ public class MeshToMMesh3DConvert implements FilterInterface, JCAEXMLData
 					{
 						int u = 3*indLoc[j];
 						// Write normals
-						if (F.isOrientationForward())
+						if (face.forward)
 							amibeWriter.addNormal(normals[u], normals[u+1], normals[u+2]);
 						else
 							amibeWriter.addNormal(-normals[u], -normals[u+1], -normals[u+2]);
 					}
 				}
-				if (F.isOrientationForward())
+				if (face.forward)
 				{
 					int temp = ind[1];
 					ind[1] = ind[2];
@@ -317,7 +472,6 @@ public class MeshToMMesh3DConvert implements FilterInterface, JCAEXMLData
 				}
 				cntTriangles++;
 			}
-			LOGGER.fine("End reading");
 			
 			amibeWriter.nextGroup(groupName);
 			for (int i=0; i < cntTriangles; i++)
@@ -328,14 +482,11 @@ public class MeshToMMesh3DConvert implements FilterInterface, JCAEXMLData
 				int [] ids = new int[cntTriangles];
 				for (int i = 0; i < cntTriangles; i++)
 					ids[i] = i + nrTriangles + 1;
-				unvWriter.writeGroup(groupId, groupName, ids);
+				unvWriter.writeGroup(face.groupId, groupName, ids);
 			}
 			
-			nodeOffset += numberOfNodes - numberOfReferences;
+			nodeOffset += numberOfInnerNodes;
 			nrTriangles += cntTriangles;
-			ifrT.close();
-			dfrN.close();
-			ifrR.close();
 		}
 		catch(Exception ex)
 		{
@@ -344,4 +495,3 @@ public class MeshToMMesh3DConvert implements FilterInterface, JCAEXMLData
 		}
 	}
 }
-
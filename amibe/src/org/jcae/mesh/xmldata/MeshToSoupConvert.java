@@ -226,6 +226,7 @@ public class MeshToSoupConvert implements FilterInterface, JCAEXMLData
 				submeshElement, XPathConstants.NODE);
 			
 			String refFile = xpath.evaluate("references/file/@location", submeshNodes);
+			CompressedFileReader.checkNotCompressed(new File(xmlDir, refFile));
 			FileChannel fcR = new FileInputStream(xmlDir+File.separator+refFile).getChannel();
 			int numberOfReferences = Integer.parseInt(
 				xpath.evaluate("references/number/text()", submeshNodes));
@@ -259,6 +260,7 @@ public class MeshToSoupConvert implements FilterInterface, JCAEXMLData
 
 			logger.fine("Reading " + numberOfNodes + " nodes");
 			String nodesFile = xpath.evaluate("file/@location", submeshNodes);
+			CompressedFileReader.checkNotCompressed(new File(xmlDir, nodesFile));
 			FileChannel fcN = new FileInputStream(xmlDir+File.separator+nodesFile).getChannel();
 			double [] coord = new double[3*numberOfNodes];
 			bb.clear();
@@ -309,6 +311,7 @@ public class MeshToSoupConvert implements FilterInterface, JCAEXMLData
 			logger.fine("Reading " + numberOfFaces + " faces");
 			String trianglesFile = xpath.evaluate("file/@location",
 				submeshFaces);
+			CompressedFileReader.checkNotCompressed(new File(xmlDir, trianglesFile));
 			FileChannel fcT = new FileInputStream(xmlDir+File.separator+trianglesFile).getChannel();
 			bb.clear();
 			bbI.clear();
@@ -42,6 +42,8 @@ import java.util.logging.Logger;
 public class MeshWriter
 {
 	private static final Logger logger=Logger.getLogger(MeshWriter.class.getName());
+	// Number of elements written at once by AmibeWriter bulk methods
+	private static final int CHUNK_SIZE = 4096;
 
 	/**
 	 * Used by {@link #writeObject(org.jcae.mesh.amibe.patch.Mesh2D, String, String, int)}
@@ -53,6 +55,9 @@ public class MeshWriter
 		//  Write interior nodes first
 		int nref = 0;
 		int i = 0;
+		int dim = out.dim();
+		double [] coords = new double[dim * CHUNK_SIZE];
+		int nc = 0;
 		for(Vertex v: nodelist)
 		{
 			if (v == outer)
@@ -60,13 +65,20 @@ public class MeshWriter
 			int ref1d = v.getRef();
 			if (0 == ref1d)
 			{
-				out.addNode(v.getUV());
+				System.arraycopy(v.getUV(), 0, coords, nc, dim);
+				nc += dim;
+				if (nc == coords.length)
+				{
+					out.addNodes(coords, 0, nc);
+					nc = 0;
+				}
 				nodeIndex.put(v, i);
 				i++;
 			}
 			else
 				nref++;
 		}
+		out.addNodes(coords, 0, nc);
 		//  Write boundary nodes and 1D references
 		if (nref > 0)
 		{
@@ -116,17 +128,24 @@ public class MeshWriter
 		TObjectIntHashMap<Vertex> nodeIndex, AmibeWriter aw, boolean writeOuter) throws IOException
 	{
 		int nrTriangles=0;
+		int [] indices = new int[3 * CHUNK_SIZE];
+		int ni = 0;
 		// First write inner triangles
 		for(Triangle f: trianglelist)
 		{
 			if (!f.isWritable())
 				continue;
-			aw.addTriangle(
-				nodeIndex.get(f.vertex[0]),
-				nodeIndex.get(f.vertex[1]),
-				nodeIndex.get(f.vertex[2]));
+			indices[ni++] = nodeIndex.get(f.vertex[0]);
+			indices[ni++] = nodeIndex.get(f.vertex[1]);
+			indices[ni++] = nodeIndex.get(f.vertex[2]);
+			if (ni == indices.length)
+			{
+				aw.addTriangles(indices, 0, ni);
+				ni = 0;
+			}
 			nrTriangles++;
 		}
+		aw.addTriangles(indices, 0, ni);
 		if(writeOuter)
 		{
 			// Next write outer triangles
@@ -188,8 +207,10 @@ public class MeshWriter
 			aw.nextGroup(name == null ? Integer.toString(id) : name);
 			TIntArrayList list = groupMap.get(id);
 			if(list != null)
-				for(int i = 0, n = list.size(); i < n; i++)
-					aw.addTriaToGroup(list.get(i));
+			{
+				int [] ids = list.toNativeArray();
+				aw.addTriaToGroup(ids, 0, ids.length);
+			}
 
 			list = bgroupMap.get(id);
 			if(list != null)
@@ -243,6 +264,20 @@ public class MeshWriter
 	 */
 	public static void writeObject3D(Mesh submesh, String xmlDir, String brepFile)
 		throws IOException
+	{
+		writeObject3D(submesh, xmlDir, brepFile, false);
+	}
+
+	/**
+	 * Write the current object to an Amibe 3D XML file and binary files.
+	 *
+	 * @param submesh      mesh to be written on disk
+	 * @param xmlDir       name of the XML file
+	 * @param brepFile     basename of the brep file
+	 * @param compress     if true, binary files are compressed
+	 */
+	public static void writeObject3D(Mesh submesh, String xmlDir, String brepFile, boolean compress)
+		throws IOException
 	{
 		logger.info("Write mesh into "+xmlDir+java.io.File.separator+JCAEXMLData.xml3dFilename);
 		Collection<Triangle> trianglelist = submesh.getTriangles();
@@ -264,7 +299,7 @@ public class MeshWriter
 		}
 		TObjectIntHashMap<Vertex> nodeIndex=new TObjectIntHashMap<Vertex>(nodelist.size());
 		AmibeWriter.Dim3 aw = new AmibeWriter.Dim3(xmlDir, false,
-			submesh.hasPersistentReferences());
+			submesh.hasPersistentReferences(), compress);
 		if (brepFile != null)
 			aw.setShape(brepFile);
 
@@ -285,8 +320,11 @@ public class MeshWriter
 		for(Entry<String, Collection<Vertex>> e: submesh.getVertexGroup().entrySet())
 		{
 			aw.nextNodeGroup(e.getKey());
+			int [] ids = new int[e.getValue().size()];
+			int i = 0;
 			for(Vertex v:e.getValue())
-				aw.addNodeToGroup(nodeIndex.get(v));
+				ids[i++] = nodeIndex.get(v);
+			aw.addNodesToGroup(ids, 0, ids.length);
 		}
 	}
 }
@@ -34,6 +34,7 @@ public class PrimitiveFileReaderFactory
 
 	private final static FactoryInterface DIRECT_BUFFER = new FactoryByDirectBuffer();
 	private final static FactoryInterface MMAP = new FactoryByMmap();
+	private final static FactoryInterface SEGMENTED_MMAP = new FactoryBySegmentedMmap();
 
 	private static class FactoryByDirectBuffer implements FactoryInterface
 	{
@@ -50,17 +51,35 @@ public class PrimitiveFileReaderFactory
 
 	private static class FactoryByMmap implements FactoryInterface
 	{
+		// A single mapping cannot exceed 2 GB
 		public IntFileReader getIntFileReader(File file) throws IOException
 		{
+			if (file.length() > Integer.MAX_VALUE)
+				return new IntFileReaderBySegmentedMmap(file);
 			return new IntFileReaderByMmap(file);
 		}
 
 		public DoubleFileReader getDoubleFileReader(File file) throws IOException
 		{
+			if (file.length() > Integer.MAX_VALUE)
+				return new DoubleFileReaderBySegmentedMmap(file);
 			return new DoubleFileReaderByMmap(file);
 		}
 	}
 
+	private static class FactoryBySegmentedMmap implements FactoryInterface
+	{
+		public IntFileReader getIntFileReader(File file) throws IOException
+		{
+			return new IntFileReaderBySegmentedMmap(file);
+		}
+
+		public DoubleFileReader getDoubleFileReader(File file) throws IOException
+		{
+			return new DoubleFileReaderBySegmentedMmap(file);
+		}
+	}
+
 	private final FactoryInterface instance;
 
 	public PrimitiveFileReaderFactory()
@@ -74,29 +93,37 @@ public class PrimitiveFileReaderFactory
 			instance = DIRECT_BUFFER;
 		else if ("mmap".equals(type))
 			instance = MMAP;
+		else if ("segmentedMmap".equals(type))
+			instance = SEGMENTED_MMAP;
 		else
-			throw new IllegalArgumentException("Unsupported argument: \""+type+"\"; valid values are \"directBuffer\" and \"mmap\"");
+			throw new IllegalArgumentException("Unsupported argument: \""+type+"\"; valid values are \"directBuffer\", \"mmap\" and \"segmentedMmap\"");
 	}
 
 	/**
-	 * Return an IntFileReader instance.
+	 * Return an IntFileReader instance.  Compressed files written by
+	 * {@link CompressedOutputStream} are detected and decoded.
 	 *
 	 * @param file  a file name containing only integers
 	 * @return an IntFileReader instance
 	 */
 	public final IntFileReader getIntReader(File file) throws IOException
 	{
+		if (CompressedFileReader.isCompressed(file))
+			return new IntFileReaderCompressed(file);
 		return instance.getIntFileReader(file);
 	}
 
 	/**
-	 * Return a DoubleFileReader instance.
+	 * Return a DoubleFileReader instance.  Compressed files written by
+	 * {@link CompressedOutputStream} are detected and decoded.
 	 *
 	 * @param file  a file name containing only double values
 	 * @return a DoubleFileReader instance
 	 */
 	public final DoubleFileReader getDoubleReader(File file) throws IOException
 	{
+		if (CompressedFileReader.isCompressed(file))
+			return new DoubleFileReaderCompressed(file);
 		return instance.getDoubleFileReader(file);
 	}
 
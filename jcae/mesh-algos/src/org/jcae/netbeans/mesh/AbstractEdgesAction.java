@@ -167,7 +167,10 @@ public abstract class AbstractEdgesAction extends BooleanStateAction
 			ComputeEdgesConnectivity computeEdgesConnectivity =
 				new ComputeEdgesConnectivity(xmlDir, xmlFile);
 
-			computeEdgesConnectivity.compute();	
+			// Free and multiple edges are computed together, the
+			// second action reuses results of the first one.
+			if (!computeEdgesConnectivity.isUpToDate())
+				computeEdgesConnectivity.compute();
 			String beanType = getBranchGroupLabel();
 			Color color;
 			if(beanType.equals(AmibeOverlayProvider.FREE_EDGE))
@@ -85,6 +85,7 @@ public class AmibeBeanDomain extends FEDomainAdaptor
 		Element beamE=(Element) subMesh.getElementsByTagName("beams").item(0);
 		Element fileE=(Element) beamE.getElementsByTagName("file").item(0);
 		File f=new File(directory, fileE.getAttribute("location"));
+		AmibeDomain.checkNotCompressed(f);
 		FileInputStream fis = new FileInputStream(f);
 		FileChannel fc=fis.getChannel();
 		MappedByteBuffer bb = fc.map(MapMode.READ_ONLY, 0, f.length());
@@ -130,6 +131,7 @@ public class AmibeBeanDomain extends FEDomainAdaptor
 		throws IOException
 	{
 		File f=getNodeFile(directory, subMesh);
+		AmibeDomain.checkNotCompressed(f);
 		// Open the file and then get a channel from the stream
         FileInputStream fis = new FileInputStream(f);
         FileChannel fc = fis.getChannel();
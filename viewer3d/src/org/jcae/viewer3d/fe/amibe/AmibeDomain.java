@@ -26,6 +26,7 @@ import java.awt.Color;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.lang.reflect.Method;
 import java.nio.DoubleBuffer;
 import java.nio.IntBuffer;
@@ -33,6 +34,7 @@ import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 import java.security.AccessController;
 import java.security.PrivilegedAction;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.logging.Logger;
 import org.jcae.viewer3d.fe.FEDomainAdaptor;
@@ -48,6 +50,9 @@ import org.w3c.dom.NodeList;
  */
 public class AmibeDomain extends FEDomainAdaptor
 {
+	// Magic number at both ends of binary files written by
+	// org.jcae.mesh.xmldata.CompressedOutputStream
+	private static final int COMPRESSED_MAGIC = 0x4A435A31;
 	private File directory;
 	private Document document;
 	private int id;
@@ -183,6 +188,7 @@ public class AmibeDomain extends FEDomainAdaptor
 	private float[] readNodes(int[] nodesID) throws IOException
 	{
 		File f=getNodeFile();
+		checkNotCompressed(f);
 		// Open the file and then get a channel from the stream
         FileInputStream fis = new FileInputStream(f);
         FileChannel fc = fis.getChannel();
@@ -192,13 +198,21 @@ public class AmibeDomain extends FEDomainAdaptor
         DoubleBuffer nodesBuffer=bb.asDoubleBuffer();        
 		float[] toReturn=new float[nodesID.length*3];		
 		
+		// Read nodes in file order so that pages are loaded sequentially,
+		// each key contains a node index and its position in nodesID.
+		long[] keys=new long[nodesID.length];
 		for(int i=0; i<nodesID.length; i++)
+			keys[i]=((long) nodesID[i] << 32) | i;
+		Arrays.sort(keys);
+		double[] xyz=new double[3];
+		for(int k=0; k<keys.length; k++)
 		{
-			int ii=i*3;
-			int iid=nodesID[i]*3;
-			toReturn[ii]=(float) nodesBuffer.get(iid);
-			toReturn[ii+1]=(float) nodesBuffer.get(iid+1);
-			toReturn[ii+2]=(float) nodesBuffer.get(iid+2);
+			int ii=((int) keys[k])*3;
+			nodesBuffer.position((int) (keys[k] >>> 32)*3);
+			nodesBuffer.get(xyz);
+			toReturn[ii]=(float) xyz[0];
+			toReturn[ii+1]=(float) xyz[1];
+			toReturn[ii+2]=(float) xyz[2];
 		}
 		
 		fc.close();
@@ -220,6 +234,7 @@ public class AmibeDomain extends FEDomainAdaptor
 		if (os.isEmpty())
 			os = "0";
 		File groupFile=new File(directory, groupFileN);		
+		checkNotCompressed(groupFile);
 		long offset=Long.parseLong(os);
 		
 		// Open the file and then get a channel from the stream
@@ -232,6 +247,7 @@ public class AmibeDomain extends FEDomainAdaptor
 		
 		
 		File f=getTriaFile();
+		checkNotCompressed(f);
 		// Open the file and then get a channel from the stream
         FileInputStream fis = new FileInputStream(f);
         FileChannel fc = fis.getChannel();
@@ -269,6 +285,31 @@ public class AmibeDomain extends FEDomainAdaptor
 		}
 	}
 
+	/**
+	 * Throws an exception if a binary file has been written in compressed
+	 * format (zintegerstream or zdoublestream), its content would
+	 * otherwise be read as garbage.
+	 */
+	static void checkNotCompressed(File f) throws IOException
+	{
+		if (f.length() < 8)
+			return;
+		RandomAccessFile raf = new RandomAccessFile(f, "r");
+		try
+		{
+			if (raf.readInt() != COMPRESSED_MAGIC)
+				return;
+			raf.seek(raf.length() - 4);
+			if (raf.readInt() != COMPRESSED_MAGIC)
+				return;
+		}
+		finally
+		{
+			raf.close();
+		}
+		throw new IOException("File "+f+" is compressed (zintegerstream or zdoublestream format) and cannot be displayed");
+	}
+
 	/**
 	 * Workaround for Bug ID4724038.
 	 * see http://bugs.sun.com/bugdatabase/view_bug.do;:YfiG?bug_id=4724038
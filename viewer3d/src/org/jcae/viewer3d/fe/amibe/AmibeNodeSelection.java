@@ -40,6 +40,7 @@ public class AmibeNodeSelection implements NodeSelection
 				os = "0";
 			File groupFile=new File(provider.getDirectory(), groupFileN);		
 			long offset=Long.parseLong(os);
+			AmibeDomain.checkNotCompressed(groupFile);
 			System.out.println(groupFile);
 			FileInputStream fos=new FileInputStream(groupFile);
 			FileChannel fc=fos.getChannel();
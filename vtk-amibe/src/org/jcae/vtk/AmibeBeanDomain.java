@@ -24,11 +24,9 @@ import gnu.trove.TIntHashSet;
 import gnu.trove.TIntIntHashMap;
 import java.awt.Color;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.nio.ByteBuffer;
-import java.nio.channels.FileChannel;
 import java.util.logging.Logger;
+import org.jcae.mesh.xmldata.DoubleFileReader;
 import org.jcae.mesh.xmldata.IntFileReader;
 import org.jcae.mesh.xmldata.PrimitiveFileReaderFactory;
 import org.w3c.dom.Element;
@@ -121,30 +119,20 @@ public class AmibeBeanDomain
 		throws IOException
 	{
 		File f=getNodeFile(directory, subMesh);
-		// Open the file and then get a channel from the stream
-		FileInputStream fis = new FileInputStream(f);
-		FileChannel fc = fis.getChannel();
-
-		// Get the file's size and then map it into memory
+		// Compressed files are also read by this factory
+		DoubleFileReader dfr = new PrimitiveFileReaderFactory().getDoubleReader(f);
 		float[] toReturn=new float[nodesID.length*3];
 		double[] tmp=new double[3];
-		ByteBuffer tmpbb = ByteBuffer.allocateDirect(3 * 8);		
 		
 		for(int i=0; i<nodesID.length; i++)
 		{
-			int pos = nodesID[i]*3*8;
-			if(pos < 0)
-				pos = -pos;
-			fc.read(tmpbb, pos);
-			tmpbb.rewind();
-			tmpbb.asDoubleBuffer().get(tmp, 0, 3);
+			dfr.get(Math.abs(nodesID[i])*3, tmp);
 			toReturn[i*3]=(float) tmp[0];
 			toReturn[i*3+1]=(float) tmp[1];
 			toReturn[i*3+2]=(float) tmp[2];
 		}
 		
-		fc.close();
-		fis.close();				
+		dfr.close();
 		return toReturn;
 	}
 